@@ -0,0 +1,82 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs the benchmarks, and stores the results as JSON, so that they can be compared
+ * from one run to the other. The arguments are the JMH command line options, the
+ * results are written in the <em>target/jmh-result.json</em> file unless another
+ * file is given with the <em>-rff</em> option. For instance, to run the search
+ * benchmarks on the JDBM partition only :
+ * <pre>
+ * java -cp target/benchmarks.jar org.apache.directory.server.benchmarks.BenchmarkRunner \
+ *     SearchBenchmark -p partitionType=jdbm
+ * </pre>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class BenchmarkRunner
+{
+    /** The default results file */
+    public static final String DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+
+    private BenchmarkRunner()
+    {
+    }
+
+
+    /**
+     * Runs the benchmarks
+     *
+     * @param args The JMH command line options
+     * @throws Exception If the benchmarks failed
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        CommandLineOptions commandLineOptions = new CommandLineOptions( args );
+        OptionsBuilder builder = new OptionsBuilder();
+
+        if ( commandLineOptions.getIncludes().isEmpty() )
+        {
+            builder.include( BenchmarkRunner.class.getPackage().getName() + ".*Benchmark" );
+        }
+
+        if ( !commandLineOptions.getResult().hasValue() )
+        {
+            builder.result( DEFAULT_RESULT_FILE );
+        }
+
+        Options options = builder
+            .parent( commandLineOptions )
+            .resultFormat( commandLineOptions.getResultFormat().orElse( ResultFormatType.JSON ) )
+            .build();
+
+        new Runner( options ).run();
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.server.core.DefaultDirectoryService;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.factory.AvlPartitionFactory;
+import org.apache.directory.server.core.factory.DefaultDirectoryServiceFactory;
+import org.apache.directory.server.core.factory.DirectoryServiceFactory;
+import org.apache.directory.server.core.factory.JdbmPartitionFactory;
+import org.apache.directory.server.core.factory.MavibotPartitionFactory;
+import org.apache.directory.server.core.factory.PartitionFactory;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * The state shared by all the benchmarks : an in-process DirectoryService, with an
+ * <em>dc=example,dc=com</em> partition of the selected type containing a set of users,
+ * and an LdapServer listening on a free local port.
+ * <br>
+ * The users are stored under <em>ou=people,dc=example,dc=com</em>, with a
+ * <em>uid=user&lt;N&gt;</em> Dn, and <em>secret</em> as a password.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Benchmark)
+public class DirectoryState
+{
+    /** The benchmark partition suffix */
+    public static final String SUFFIX = "dc=example,dc=com";
+
+    /** The entry containing the users */
+    public static final String PEOPLE = "ou=people," + SUFFIX;
+
+    /** The users password */
+    public static final String PASSWORD = "secret";
+
+    /** The admin Dn */
+    public static final String ADMIN_DN = "uid=admin,ou=system";
+
+    /** The LMDB partition factory, which is only available with the lmdb profile */
+    private static final String LMDB_PARTITION_FACTORY =
+        "org.apache.directory.server.core.partition.impl.btree.lmdb.LmdbPartitionFactory";
+
+    /**
+     * The partition type : jdbm, mavibot or avl. The lmdb type is also accepted when the
+     * benchmarks are built with the lmdb profile, and selected with -p partitionType=lmdb
+     */
+    @Param({ "jdbm", "mavibot", "avl" })
+    public String partitionType;
+
+    /** The number of users loaded before the benchmarks are run */
+    @Param({ "10000" })
+    public int nbUsers;
+
+    /** The partition factory */
+    private PartitionFactory partitionFactory;
+
+    /** The DirectoryService */
+    private DirectoryService directoryService;
+
+    /** The LdapServer */
+    private LdapServer ldapServer;
+
+    /** The admin session */
+    private CoreSession adminSession;
+
+    /** The users Dn, in the order they have been added */
+    private Dn[] userDns;
+
+    /** A counter used to create new entries */
+    private final AtomicLong counter = new AtomicLong();
+
+
+    /**
+     * Starts the DirectoryService and the LdapServer, and loads the users.
+     *
+     * @throws Exception If the server can't be started
+     */
+    @Setup(Level.Trial)
+    public void startup() throws Exception
+    {
+        partitionFactory = createPartitionFactory();
+        DefaultDirectoryService service = new DefaultDirectoryService();
+        service.setShutdownHookEnabled( false );
+        service.setAccessControlEnabled( false );
+        service.setAllowAnonymousAccess( false );
+
+        DirectoryServiceFactory factory = new DefaultDirectoryServiceFactory( service, partitionFactory );
+        factory.init( "benchmark-" + partitionType );
+        directoryService = factory.getDirectoryService();
+
+        // The partition containing the users
+        addPartition( "example", SUFFIX );
+
+        adminSession = directoryService.getAdminSession();
+        adminSession.add( new DefaultEntry( directoryService.getSchemaManager(), SUFFIX,
+            "objectClass: top",
+            "objectClass: domain",
+            "dc: example" ) );
+        adminSession.add( new DefaultEntry( directoryService.getSchemaManager(), PEOPLE,
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: people" ) );
+
+        userDns = new Dn[nbUsers];
+
+        for ( int i = 0; i < nbUsers; i++ )
+        {
+            Entry user = createUser( "user" + i );
+            adminSession.add( user );
+            userDns[i] = user.getDn();
+        }
+
+        ldapServer = new LdapServer();
+        ldapServer.setServiceName( "benchmark" );
+        ldapServer.setTransports( new TcpTransport( "localhost", getFreePort() ) );
+        ldapServer.setDirectoryService( directoryService );
+        ldapServer.start();
+    }
+
+
+    /**
+     * Stops the LdapServer and the DirectoryService, and deletes the instance directory.
+     *
+     * @throws Exception If the server can't be stopped
+     */
+    @TearDown(Level.Trial)
+    public void shutdown() throws Exception
+    {
+        if ( ldapServer != null )
+        {
+            ldapServer.stop();
+        }
+
+        if ( directoryService != null )
+        {
+            File instanceDirectory = directoryService.getInstanceLayout().getInstanceDirectory();
+            directoryService.shutdown();
+            FileUtils.deleteDirectory( instanceDirectory );
+        }
+    }
+
+
+    /**
+     * Adds a partition of the selected type to the DirectoryService, with the
+     * objectClass, ou, uid and cn attributes indexed
+     *
+     * @param id The partition ID
+     * @param suffix The partition suffix
+     * @throws Exception If the partition can't be added
+     */
+    public void addPartition( String id, String suffix ) throws Exception
+    {
+        Partition partition = partitionFactory.createPartition( directoryService.getSchemaManager(),
+            directoryService.getDnFactory(), id, suffix, 10000,
+            new File( directoryService.getInstanceLayout().getPartitionsDirectory(), id ) );
+        partition.setCacheService( directoryService.getCacheService() );
+        partitionFactory.addIndex( partition, "objectClass", 100 );
+        partitionFactory.addIndex( partition, "ou", 100 );
+        partitionFactory.addIndex( partition, "uid", 100 );
+        partitionFactory.addIndex( partition, "cn", 100 );
+        partition.initialize();
+        directoryService.addPartition( partition );
+    }
+
+
+    private PartitionFactory createPartitionFactory()
+    {
+        switch ( partitionType )
+        {
+            case "jdbm":
+                return new JdbmPartitionFactory();
+
+            case "mavibot":
+                return new MavibotPartitionFactory();
+
+            case "avl":
+                return new AvlPartitionFactory();
+
+            case "lmdb":
+                try
+                {
+                    return ( PartitionFactory ) Class.forName( LMDB_PARTITION_FACTORY ).newInstance();
+                }
+                catch ( ReflectiveOperationException roe )
+                {
+                    throw new IllegalStateException( "The LMDB partition is not available, "
+                        + "the benchmarks must be built with the lmdb profile", roe );
+                }
+
+            default:
+                throw new IllegalArgumentException( "Unknown partition type : " + partitionType );
+        }
+    }
+
+
+    private static int getFreePort() throws IOException
+    {
+        try ( ServerSocket socket = new ServerSocket( 0 ) )
+        {
+            return socket.getLocalPort();
+        }
+    }
+
+
+    /**
+     * Creates a user entry, under the people entry
+     *
+     * @param uid The user uid
+     * @return The user entry
+     * @throws Exception If the entry can't be created
+     */
+    public Entry createUser( String uid ) throws Exception
+    {
+        return new DefaultEntry( directoryService.getSchemaManager(), "uid=" + uid + "," + PEOPLE,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "uid", uid,
+            "cn", uid,
+            "sn", uid,
+            "description: a benchmark user",
+            "userPassword", PASSWORD );
+    }
+
+
+    /**
+     * @return A new user entry, which has not yet been added
+     * @throws Exception If the entry can't be created
+     */
+    public Entry newUser() throws Exception
+    {
+        return createUser( "new" + counter.incrementAndGet() );
+    }
+
+
+    /**
+     * @return The Dn of one of the loaded users, randomly selected
+     */
+    public Dn randomUserDn()
+    {
+        return userDns[ThreadLocalRandom.current().nextInt( nbUsers )];
+    }
+
+
+    /**
+     * @return The uid of one of the loaded users, randomly selected
+     */
+    public String randomUid()
+    {
+        return "user" + ThreadLocalRandom.current().nextInt( nbUsers );
+    }
+
+
+    /**
+     * @return The DirectoryService
+     */
+    public DirectoryService getDirectoryService()
+    {
+        return directoryService;
+    }
+
+
+    /**
+     * @return The admin session
+     */
+    public CoreSession getAdminSession()
+    {
+        return adminSession;
+    }
+
+
+    /**
+     * @return The LdapServer port
+     */
+    public int getPort()
+    {
+        return ldapServer.getPort();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.OperationEnum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures the latency of the core lookups and searches, which go through the whole
+ * interceptor chain, and the cost of getting the chain of an operation. Running it on
+ * two revisions compares the cost of the interceptor chain before and after a change.
+ * The AVL partition keeps the partition costs low :
+ * <pre>
+ * java -cp target/benchmarks.jar org.apache.directory.server.benchmarks.BenchmarkRunner \
+ *     InterceptorChainBenchmark -p partitionType=avl -rff target/chain-after.json
+ * </pre>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class InterceptorChainBenchmark
+{
+    /**
+     * Lookup through the CoreSession
+     */
+    @Benchmark
+    public Entry lookup( DirectoryState directory ) throws Exception
+    {
+        return directory.getAdminSession().lookup( directory.randomUserDn() );
+    }
+
+
+    /**
+     * Equality search on an indexed attribute through the CoreSession, returning a
+     * single entry
+     */
+    @Benchmark
+    public int search( DirectoryState directory ) throws Exception
+    {
+        SearchRequest request = new SearchRequestImpl();
+        request.setBase( new Dn( directory.getDirectoryService().getSchemaManager(), DirectoryState.PEOPLE ) );
+        request.setScope( SearchScope.SUBTREE );
+        request.setFilter( "(uid=" + directory.randomUid() + ")" );
+        request.addAttributes( "*" );
+
+        Cursor<Entry> cursor = directory.getAdminSession().search( request );
+        int count = 0;
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                cursor.get();
+                count++;
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Gets the interceptors of the lookup operation, as done by the operation manager
+     * for each operation
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public List<String> getLookupInterceptors( DirectoryState directory )
+    {
+        return directory.getDirectoryService().getInterceptors( OperationEnum.LOOKUP );
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * A connection to the benchmarked LdapServer, bound as the admin, one per benchmark thread.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@State(Scope.Thread)
+public class LdapConnectionState
+{
+    /** The connection */
+    private LdapNetworkConnection connection;
+
+
+    /**
+     * Opens the connection, and binds as the admin
+     *
+     * @param directory The benchmarked directory
+     * @throws Exception If the connection can't be opened
+     */
+    @Setup(Level.Trial)
+    public void connect( DirectoryState directory ) throws Exception
+    {
+        connection = new LdapNetworkConnection( "localhost", directory.getPort() );
+        connection.setTimeOut( 0L );
+        connection.bind( DirectoryState.ADMIN_DN, DirectoryState.PASSWORD );
+    }
+
+
+    /**
+     * Closes the connection
+     *
+     * @throws Exception If the connection can't be closed
+     */
+    @TearDown(Level.Trial)
+    public void disconnect() throws Exception
+    {
+        if ( connection != null )
+        {
+            connection.unBind();
+            connection.close();
+        }
+    }
+
+
+    /**
+     * @return The connection
+     */
+    public LdapNetworkConnection getConnection()
+    {
+        return connection;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures the replacement of the description of an existing user.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ModifyBenchmark
+{
+    private static String newDescription()
+    {
+        return "description " + ThreadLocalRandom.current().nextInt();
+    }
+
+
+    /**
+     * Modify through the CoreSession
+     */
+    @Benchmark
+    public void coreModify( DirectoryState directory ) throws Exception
+    {
+        AttributeType description = directory.getDirectoryService().getSchemaManager()
+            .getAttributeType( "description" );
+
+        directory.getAdminSession().modify( directory.randomUserDn(),
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, description, newDescription() ) );
+    }
+
+
+    /**
+     * Modify through the LDAP protocol
+     */
+    @Benchmark
+    public void ldapModify( DirectoryState directory, LdapConnectionState ldap ) throws Exception
+    {
+        ldap.getConnection().modify( directory.randomUserDn(),
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "description", newDescription() ) );
+    }
+}
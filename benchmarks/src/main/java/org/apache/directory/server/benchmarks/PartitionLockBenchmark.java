@@ -0,0 +1,181 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.CoreSession;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures the lookups done while another thread modifies entries, either in the same
+ * partition, or in another one. With per partition locks, the lookups in the other
+ * partition should not be slowed down by the writes.
+ * <br>
+ * The lookups are done in a second <em>dc=other,dc=com</em> partition, of the same type
+ * as the users partition, or in the users partition itself.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PartitionLockBenchmark
+{
+    /** The suffix of the partition read while the users partition is written */
+    public static final String OTHER_SUFFIX = "dc=other,dc=com";
+
+    /** The number of entries in the other partition */
+    private static final int NB_OTHER_ENTRIES = 1000;
+
+
+    /**
+     * The second partition, and its entries
+     */
+    @State(Scope.Benchmark)
+    public static class OtherPartitionState
+    {
+        /** The Dn of the entries in the other partition */
+        private Dn[] entryDns;
+
+
+        /**
+         * Adds the other partition, and loads its entries
+         *
+         * @param directory The benchmark directory
+         * @throws Exception If the partition can't be added
+         */
+        @Setup(Level.Trial)
+        public void startup( DirectoryState directory ) throws Exception
+        {
+            directory.addPartition( "other", OTHER_SUFFIX );
+
+            CoreSession session = directory.getAdminSession();
+            session.add( new DefaultEntry( directory.getDirectoryService().getSchemaManager(), OTHER_SUFFIX,
+                "objectClass: top",
+                "objectClass: domain",
+                "dc: other" ) );
+
+            entryDns = new Dn[NB_OTHER_ENTRIES];
+
+            for ( int i = 0; i < NB_OTHER_ENTRIES; i++ )
+            {
+                Entry entry = new DefaultEntry( directory.getDirectoryService().getSchemaManager(),
+                    "ou=unit" + i + "," + OTHER_SUFFIX,
+                    "objectClass: top",
+                    "objectClass: organizationalUnit",
+                    "ou", "unit" + i );
+                session.add( entry );
+                entryDns[i] = entry.getDn();
+            }
+        }
+
+
+        /**
+         * @return The Dn of one of the entries of the other partition, randomly selected
+         */
+        public Dn randomEntryDn()
+        {
+            return entryDns[ThreadLocalRandom.current().nextInt( NB_OTHER_ENTRIES )];
+        }
+    }
+
+
+    private static void modifyUser( DirectoryState directory ) throws Exception
+    {
+        AttributeType description = directory.getDirectoryService().getSchemaManager()
+            .getAttributeType( "description" );
+
+        directory.getAdminSession().modify( directory.randomUserDn(),
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, description,
+                "description " + ThreadLocalRandom.current().nextInt() ) );
+    }
+
+
+    /**
+     * Lookups in the other partition, while the users partition is modified
+     */
+    @Benchmark
+    @Group("otherPartition")
+    @GroupThreads(3)
+    public Entry otherPartitionLookup( DirectoryState directory, OtherPartitionState other ) throws Exception
+    {
+        return directory.getAdminSession().lookup( other.randomEntryDn() );
+    }
+
+
+    /**
+     * Modifications in the users partition, while the other partition is read
+     */
+    @Benchmark
+    @Group("otherPartition")
+    @GroupThreads(1)
+    public void otherPartitionModify( DirectoryState directory ) throws Exception
+    {
+        modifyUser( directory );
+    }
+
+
+    /**
+     * Lookups in the users partition, while it is modified
+     */
+    @Benchmark
+    @Group("samePartition")
+    @GroupThreads(3)
+    public Entry samePartitionLookup( DirectoryState directory ) throws Exception
+    {
+        return directory.getAdminSession().lookup( directory.randomUserDn() );
+    }
+
+
+    /**
+     * Modifications in the users partition, while it is read
+     */
+    @Benchmark
+    @Group("samePartition")
+    @GroupThreads(1)
+    public void samePartitionModify( DirectoryState directory ) throws Exception
+    {
+        modifyUser( directory );
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.benchmarks;
+
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchResultDone;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.PagedResults;
+import org.apache.directory.api.ldap.model.message.controls.PagedResultsImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures the searches : an equality filter on an indexed attribute, a substring filter,
+ * and a subtree search returning many entries, with and without the paged results control.
+ * The paged search is only measured through the LDAP protocol, as the paging is done by the
+ * LDAP search handler.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchBenchmark
+{
+    /** The maximum number of entries returned by the subtree searches */
+    private static final int SUBTREE_SIZE_LIMIT = 1000;
+
+    /** The page size used by the paged search */
+    private static final int PAGE_SIZE = 100;
+
+
+    /**
+     * Creates a subtree search request on the users
+     */
+    private static SearchRequest createRequest( Dn base, String filter ) throws Exception
+    {
+        SearchRequest request = new SearchRequestImpl();
+        request.setBase( base );
+        request.setScope( SearchScope.SUBTREE );
+        request.setFilter( filter );
+        request.addAttributes( "*" );
+
+        return request;
+    }
+
+
+    private static SearchRequest createCoreRequest( DirectoryState directory, String filter ) throws Exception
+    {
+        return createRequest( new Dn( directory.getDirectoryService().getSchemaManager(), DirectoryState.PEOPLE ),
+            filter );
+    }
+
+
+    private static SearchRequest createLdapRequest( String filter ) throws Exception
+    {
+        return createRequest( new Dn( DirectoryState.PEOPLE ), filter );
+    }
+
+
+    /**
+     * Reads all the elements of a cursor, and closes it
+     */
+    private static int consume( Cursor<?> cursor ) throws Exception
+    {
+        int count = 0;
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                cursor.get();
+                count++;
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return count;
+    }
+
+
+    private static String equalityFilter( DirectoryState directory )
+    {
+        return "(uid=" + directory.randomUid() + ")";
+    }
+
+
+    private static String substringFilter( DirectoryState directory )
+    {
+        // Selects about nbUsers / 100 entries
+        return "(cn=user" + ThreadLocalRandom.current().nextInt( 10, 100 ) + "*)";
+    }
+
+
+    @Benchmark
+    public int coreEqualitySearch( DirectoryState directory ) throws Exception
+    {
+        return consume( directory.getAdminSession().search(
+            createCoreRequest( directory, equalityFilter( directory ) ) ) );
+    }
+
+
+    @Benchmark
+    public int ldapEqualitySearch( DirectoryState directory, LdapConnectionState ldap ) throws Exception
+    {
+        return consume( ldap.getConnection().search( createLdapRequest( equalityFilter( directory ) ) ) );
+    }
+
+
+    @Benchmark
+    public int coreSubstringSearch( DirectoryState directory ) throws Exception
+    {
+        return consume( directory.getAdminSession().search(
+            createCoreRequest( directory, substringFilter( directory ) ) ) );
+    }
+
+
+    @Benchmark
+    public int ldapSubstringSearch( DirectoryState directory, LdapConnectionState ldap ) throws Exception
+    {
+        return consume( ldap.getConnection().search( createLdapRequest( substringFilter( directory ) ) ) );
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int coreSubtreeSearch( DirectoryState directory ) throws Exception
+    {
+        SearchRequest request = createCoreRequest( directory, "(objectClass=person)" );
+        request.setSizeLimit( SUBTREE_SIZE_LIMIT );
+
+        return consume( directory.getAdminSession().search( request ) );
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int ldapSubtreeSearch( LdapConnectionState ldap ) throws Exception
+    {
+        SearchRequest request = createLdapRequest( "(objectClass=person)" );
+        request.setSizeLimit( SUBTREE_SIZE_LIMIT );
+
+        return consume( ldap.getConnection().search( request ) );
+    }
+
+
+    /**
+     * Reads SUBTREE_SIZE_LIMIT entries, PAGE_SIZE entries at a time
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int ldapPagedSearch( LdapConnectionState ldap ) throws Exception
+    {
+        LdapNetworkConnection connection = ldap.getConnection();
+        SearchRequest request = createLdapRequest( "(objectClass=person)" );
+        request.setSizeLimit( SUBTREE_SIZE_LIMIT );
+        PagedResults pagedControl = new PagedResultsImpl();
+        pagedControl.setSize( PAGE_SIZE );
+        int count = 0;
+
+        while ( true )
+        {
+            request.addControl( pagedControl );
+            SearchCursor cursor = connection.search( request );
+            SearchResultDone done;
+
+            try
+            {
+                while ( cursor.next() )
+                {
+                    if ( cursor.isEntry() )
+                    {
+                        count++;
+                    }
+                }
+
+                done = cursor.getSearchResultDone();
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            pagedControl = ( PagedResults ) done.getControl( PagedResults.OID );
+
+            if ( ( pagedControl == null ) || Strings.isEmpty( pagedControl.getCookie() ) )
+            {
+                break;
+            }
+
+            pagedControl.setSize( PAGE_SIZE );
+        }
+
+        return count;
+    }
+}
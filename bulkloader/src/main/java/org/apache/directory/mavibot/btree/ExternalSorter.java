@@ -0,0 +1,427 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.mavibot.btree;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An external merge sort. The added elements are kept in memory until their number
+ * reaches a limit, then they are sorted and written in a temporary file (a run). The
+ * sorted elements are read back by merging all the runs, so that the number of elements
+ * which can be sorted is not bounded by the heap size.
+ * <br>
+ * The elements can be added by concurrent threads. They are read by a single thread,
+ * once all of them have been added.
+ *
+ * @param <T> The type of the sorted elements
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ExternalSorter<T> implements Closeable
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ExternalSorter.class );
+
+    /** The default number of elements kept in memory */
+    public static final int DEFAULT_MAX_IN_MEMORY = 100000;
+
+    /** The size of the buffers used to read and write the runs */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes and reads the elements in the runs
+     *
+     * @param <T> The type of the sorted elements
+     */
+    public interface Codec<T>
+    {
+        /**
+         * Writes an element
+         *
+         * @param element The element to write
+         * @param out The output
+         * @throws IOException If the element can't be written
+         */
+        void write( T element, DataOutput out ) throws IOException;
+
+
+        /**
+         * Reads an element
+         *
+         * @param in The input
+         * @return The read element
+         * @throws IOException If the element can't be read
+         */
+        T read( DataInput in ) throws IOException;
+    }
+
+    /** The comparator used to sort the elements */
+    private final Comparator<? super T> comparator;
+
+    /** The codec used to store the elements in the runs */
+    private final Codec<T> codec;
+
+    /** The maximum number of elements kept in memory */
+    private final int maxInMemory;
+
+    /** The directory where the runs are created */
+    private final File spillDir;
+
+    /** The elements not yet written in a run */
+    private List<T> buffer = new ArrayList<>();
+
+    /** The runs */
+    private final List<Run> runs = new ArrayList<>();
+
+    /** The number of added elements */
+    private long size;
+
+    /** Tells if the sorted elements have already been read */
+    private boolean sorted;
+
+
+    /**
+     * Creates a new instance of ExternalSorter.
+     *
+     * @param comparator The comparator used to sort the elements
+     * @param codec The codec used to store the elements in the runs
+     * @param maxInMemory The maximum number of elements kept in memory
+     * @param spillDir The directory where the runs are created, or null for the default
+     * temporary directory
+     */
+    public ExternalSorter( Comparator<? super T> comparator, Codec<T> codec, int maxInMemory, File spillDir )
+    {
+        if ( maxInMemory <= 0 )
+        {
+            maxInMemory = DEFAULT_MAX_IN_MEMORY;
+        }
+
+        this.comparator = comparator;
+        this.codec = codec;
+        this.maxInMemory = maxInMemory;
+        this.spillDir = spillDir;
+    }
+
+
+    /**
+     * Adds an element
+     *
+     * @param element The element to add
+     * @throws IOException If a run can't be written
+     */
+    public synchronized void add( T element ) throws IOException
+    {
+        checkNotSorted();
+        buffer.add( element );
+        size++;
+
+        if ( buffer.size() >= maxInMemory )
+        {
+            spill();
+        }
+    }
+
+
+    /**
+     * Adds some elements
+     *
+     * @param elements The elements to add
+     * @throws IOException If a run can't be written
+     */
+    public synchronized void addAll( Collection<? extends T> elements ) throws IOException
+    {
+        checkNotSorted();
+        buffer.addAll( elements );
+        size += elements.size();
+
+        if ( buffer.size() >= maxInMemory )
+        {
+            spill();
+        }
+    }
+
+
+    /**
+     * @return The number of added elements
+     */
+    public synchronized long size()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The number of runs written on disk
+     */
+    public synchronized int getNbRuns()
+    {
+        return runs.size();
+    }
+
+
+    /**
+     * Returns the sorted elements. This method can only be called once, and no element
+     * can be added afterward.
+     *
+     * @return An iterator on the sorted elements
+     * @throws IOException If the runs can't be read
+     */
+    public synchronized Iterator<T> sortedIterator() throws IOException
+    {
+        checkNotSorted();
+        sorted = true;
+
+        if ( runs.isEmpty() )
+        {
+            // Everything fits in memory
+            Collections.sort( buffer, comparator );
+            List<T> elements = buffer;
+            buffer = null;
+
+            return elements.iterator();
+        }
+
+        if ( !buffer.isEmpty() )
+        {
+            spill();
+        }
+
+        buffer = null;
+
+        LOG.debug( "Merging {} runs of {} elements", runs.size(), size );
+
+        return new MergeIterator();
+    }
+
+
+    /**
+     * Deletes the runs
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        buffer = null;
+
+        for ( Run run : runs )
+        {
+            run.close();
+        }
+
+        runs.clear();
+    }
+
+
+    private void checkNotSorted()
+    {
+        if ( sorted )
+        {
+            throw new IllegalStateException( "The elements have already been sorted" );
+        }
+    }
+
+
+    /**
+     * Sorts the buffered elements, and writes them in a new run
+     */
+    private void spill() throws IOException
+    {
+        Collections.sort( buffer, comparator );
+
+        File file = File.createTempFile( "sort", ".run", spillDir );
+        file.deleteOnExit();
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ),
+            BUFFER_SIZE ) ) )
+        {
+            for ( T element : buffer )
+            {
+                codec.write( element, out );
+            }
+        }
+
+        runs.add( new Run( file, buffer.size() ) );
+        LOG.debug( "Wrote a run of {} elements in {}", buffer.size(), file );
+
+        buffer = new ArrayList<>();
+    }
+
+
+    /**
+     * A sorted run stored on disk
+     */
+    private class Run implements Closeable
+    {
+        /** The file containing the run */
+        private final File file;
+
+        /** The number of elements not yet read */
+        private long remaining;
+
+        /** The input, when the run is read */
+        private DataInputStream in;
+
+        /** The current element */
+        private T current;
+
+
+        private Run( File file, long count )
+        {
+            this.file = file;
+            this.remaining = count;
+        }
+
+
+        /**
+         * Reads the next element of the run
+         *
+         * @return false if the run is exhausted
+         */
+        private boolean advance() throws IOException
+        {
+            if ( in == null )
+            {
+                in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE ) );
+            }
+
+            if ( remaining == 0 )
+            {
+                current = null;
+                close();
+
+                return false;
+            }
+
+            current = codec.read( in );
+            remaining--;
+
+            return true;
+        }
+
+
+        @Override
+        public void close() throws IOException
+        {
+            if ( in != null )
+            {
+                in.close();
+                in = null;
+            }
+
+            if ( file.exists() && !file.delete() )
+            {
+                LOG.warn( "Failed to delete the run {}", file );
+            }
+        }
+    }
+
+
+    /**
+     * Merges the runs, using a heap containing the current element of each run
+     */
+    private class MergeIterator implements Iterator<T>
+    {
+        private final PriorityQueue<Run> heap;
+
+
+        private MergeIterator() throws IOException
+        {
+            heap = new PriorityQueue<>( runs.size(), new Comparator<Run>()
+            {
+                @Override
+                public int compare( Run run1, Run run2 )
+                {
+                    return comparator.compare( run1.current, run2.current );
+                }
+            } );
+
+            for ( Run run : runs )
+            {
+                if ( run.advance() )
+                {
+                    heap.add( run );
+                }
+            }
+        }
+
+
+        @Override
+        public boolean hasNext()
+        {
+            return !heap.isEmpty();
+        }
+
+
+        @Override
+        public T next()
+        {
+            Run run = heap.poll();
+
+            if ( run == null )
+            {
+                throw new NoSuchElementException();
+            }
+
+            T element = run.current;
+
+            try
+            {
+                if ( run.advance() )
+                {
+                    heap.add( run );
+                }
+            }
+            catch ( IOException ioe )
+            {
+                throw new RuntimeException( ioe );
+            }
+
+            return element;
+        }
+
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException( "Not supported" );
+        }
+    }
+}
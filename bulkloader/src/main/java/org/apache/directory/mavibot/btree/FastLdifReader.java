@@ -20,11 +20,14 @@
 package org.apache.directory.mavibot.btree;
 
 
-import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
 
@@ -81,6 +84,33 @@ import org.slf4j.LoggerFactory;
     }
 
 
+    /**
+     * Creates a new instance of FastLdifReader, reading only a part of the LDIF file.
+     * The start position must be the beginning of an entry (or of the file), and
+     * the end position the end of an entry (or of the file).
+     *
+     * @param file the LDIF file
+     * @param dnFactory The DnFactory
+     * @param start The position of the first entry to read
+     * @param end The position following the last entry to read
+     * @throws LdapException If the first entry can't be parsed
+     * @throws IOException If the file can't be read
+     */
+    public FastLdifReader( File file, DnFactory dnFactory, long start, long end ) throws LdapException, IOException
+    {
+        super();
+        FileInputStream input = new FileInputStream( file );
+        input.getChannel().position( start );
+        reader = new PositionBufferedReader( new InputStreamReader( new RangeInputStream( input, end - start ) ),
+            start );
+        offset = start;
+        this.dnFactory = dnFactory;
+        validateDn = false;
+
+        init();
+    }
+
+
     @Override
     public void init() throws LdapException
     {
@@ -316,4 +346,76 @@ import org.slf4j.LoggerFactory;
             lines.add( sb.toString() );
         }
     }
+
+
+    /**
+     * An InputStream which stops after a given number of bytes
+     */
+    private static class RangeInputStream extends FilterInputStream
+    {
+        /** The number of bytes which can still be read */
+        private long remaining;
+
+
+        private RangeInputStream( InputStream in, long length )
+        {
+            super( in );
+            remaining = length;
+        }
+
+
+        @Override
+        public int read() throws IOException
+        {
+            if ( remaining <= 0 )
+            {
+                return -1;
+            }
+
+            int b = super.read();
+
+            if ( b != -1 )
+            {
+                remaining--;
+            }
+
+            return b;
+        }
+
+
+        @Override
+        public int read( byte[] b, int off, int len ) throws IOException
+        {
+            if ( remaining <= 0 )
+            {
+                return -1;
+            }
+
+            int nbRead = super.read( b, off, ( int ) Math.min( len, remaining ) );
+
+            if ( nbRead > 0 )
+            {
+                remaining -= nbRead;
+            }
+
+            return nbRead;
+        }
+
+
+        @Override
+        public long skip( long n ) throws IOException
+        {
+            long skipped = super.skip( Math.min( n, remaining ) );
+            remaining -= skipped;
+
+            return skipped;
+        }
+
+
+        @Override
+        public int available() throws IOException
+        {
+            return ( int ) Math.min( super.available(), remaining );
+        }
+    }
 }
@@ -0,0 +1,391 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.mavibot.btree;
+
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.loader.JarLdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.server.constants.ServerDNConstants;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmIndex;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Imports a LDIF file into a new JDBM partition. The DNs and the entries are parsed
+ * by concurrent threads, then the entries are added in the DN order, so that a parent
+ * is always added before its children. The user indexes are built once all the
+ * entries have been added, each index being built by its own thread.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmPartitionBuilder
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( JdbmPartitionBuilder.class );
+
+    /** The default number of entries added in a single transaction */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** The directory where the partition is created */
+    private String outputDir;
+
+    /** The LDIF file to load */
+    private String ldifFile;
+
+    /** The names of the indexed attributes */
+    private List<String> indexAttributes = new ArrayList<String>();
+
+    /** The number of threads parsing the LDIF file */
+    private int nbThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The number of entries added in a single transaction */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /** The CSN factory */
+    private CsnFactory csnFactory;
+
+    private SchemaManager schemaManager;
+
+    /** The DN factory, used to check DN */
+    private DnFactory dnFactory;
+
+    /** The CacheService used internally by the partition */
+    private CacheService cacheService;
+
+    /** The number of loaded entries */
+    private int totalEntries = 0;
+
+
+    /**
+     * Creates a new instance of JdbmPartitionBuilder.
+     *
+     * @param ldifFile The ldif file to load
+     * @param outputDir The directory in which we want the resulting partition files to be stored
+     * @param rid The replica ID
+     */
+    public JdbmPartitionBuilder( String ldifFile, String outputDir, int rid )
+    {
+        this.ldifFile = ldifFile;
+        this.outputDir = outputDir;
+        this.csnFactory = new CsnFactory( rid );
+    }
+
+
+    /**
+     * @param nbThreads The number of threads parsing the LDIF file
+     */
+    public void setNbThreads( int nbThreads )
+    {
+        this.nbThreads = Math.max( 1, nbThreads );
+    }
+
+
+    /**
+     * @param batchSize The number of entries added in a single transaction
+     */
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = Math.max( 1, batchSize );
+    }
+
+
+    /**
+     * @param indexAttributes The names of the indexed attributes
+     */
+    public void setIndexAttributes( List<String> indexAttributes )
+    {
+        this.indexAttributes = indexAttributes;
+    }
+
+
+    /**
+     * Import a LDIF file and create a fully working JDBM partition.
+     */
+    public void buildPartition()
+    {
+        // First, we load the Schema, as we will check the entries before
+        // injecting them into the partition
+        try
+        {
+            System.out.println( "Loading schema using JarLdifSchemaLoader" );
+            JarLdifSchemaLoader loader = new JarLdifSchemaLoader();
+            schemaManager = new DefaultSchemaManager( loader );
+            schemaManager.loadAllEnabled();
+            dnFactory = new DefaultDnFactory( schemaManager, null );
+            cacheService = new CacheService();
+            cacheService.initialize( new InstanceLayout( outputDir ) );
+        }
+        catch ( Exception e )
+        {
+            e.printStackTrace();
+            LOG.warn( "Failed to initialize the schema manager", e );
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( nbThreads );
+
+        try
+        {
+            buildPartition( executor );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    private void buildPartition( ExecutorService executor )
+    {
+        // Read all the DNs, and sort them
+        List<DnTuple> sortedDnList;
+
+        try
+        {
+            long sortT0 = System.currentTimeMillis();
+            System.out.println( "Sorting the LDIF data using " + nbThreads + " threads..." );
+
+            LdifScanner scanner = new LdifScanner( new File( ldifFile ), dnFactory, schemaManager );
+            sortedDnList = scanner.scan( executor, nbThreads );
+
+            long sortT1 = System.currentTimeMillis();
+            System.out.println( "Completed sorting, total number of entries " + sortedDnList.size()
+                + ", time taken : " + ( sortT1 - sortT0 ) + "ms" );
+        }
+        catch ( Exception e )
+        {
+            e.printStackTrace();
+            LOG.warn( "Failed to parse the given LDIF file ", e );
+            return;
+        }
+
+        if ( sortedDnList.isEmpty() )
+        {
+            String message = "No entries found in the given LDIF file, aborting bulk load";
+            System.out.println( message );
+            LOG.info( message );
+
+            return;
+        }
+
+        Dn suffixDn = sortedDnList.get( 0 ).getDn();
+        System.out.println( "Using " + suffixDn.getName() + " as the partition's root DN" );
+
+        // The entries are added without the user indexes, which are built at the end
+        try
+        {
+            long addT0 = System.currentTimeMillis();
+            System.out.print( "Adding the entries..." );
+
+            JdbmPartition partition = createPartition( suffixDn, false );
+
+            try
+            {
+                addEntries( partition, sortedDnList, executor );
+            }
+            finally
+            {
+                partition.destroy( partition.beginReadTransaction() );
+            }
+
+            long addT1 = System.currentTimeMillis();
+            System.out.println( ", time taken : " + ( addT1 - addT0 ) + "ms" );
+        }
+        catch ( Exception e )
+        {
+            e.printStackTrace();
+            LOG.warn( "Failed to add the entries", e );
+            return;
+        }
+
+        if ( indexAttributes.isEmpty() )
+        {
+            System.out.println( "Partition building complete." );
+            return;
+        }
+
+        try
+        {
+            long indexT0 = System.currentTimeMillis();
+            System.out.print( "Building " + indexAttributes.size() + " indexes..." );
+
+            // The partition builds the missing indexes when it's initialized
+            JdbmPartition partition = createPartition( suffixDn, true );
+            partition.destroy( partition.beginReadTransaction() );
+
+            long indexT1 = System.currentTimeMillis();
+            System.out.println( ", time taken : " + ( indexT1 - indexT0 ) + "ms" );
+        }
+        catch ( Exception e )
+        {
+            e.printStackTrace();
+            LOG.warn( "Failed to build the indexes", e );
+            return;
+        }
+
+        System.out.println( "Partition building complete." );
+    }
+
+
+    /**
+     * Creates and initializes the partition
+     */
+    private JdbmPartition createPartition( Dn suffixDn, boolean withUserIndexes ) throws Exception
+    {
+        JdbmPartition partition = new JdbmPartition( schemaManager, dnFactory );
+        partition.setId( "builder" );
+        partition.setSuffixDn( suffixDn );
+        partition.setPartitionPath( new File( outputDir ).toURI() );
+        partition.setCacheService( cacheService );
+        partition.setSyncOnWrite( false );
+
+        if ( withUserIndexes )
+        {
+            for ( String atName : indexAttributes )
+            {
+                schemaManager.lookupAttributeTypeRegistry( atName );
+                partition.addIndex( new JdbmIndex( atName, false ) );
+            }
+        }
+
+        partition.initialize();
+
+        return partition;
+    }
+
+
+    /**
+     * Adds the entries, in the DN order. The entries are parsed by concurrent threads,
+     * and added by batches of batchSize entries.
+     */
+    private void addEntries( JdbmPartition partition, List<DnTuple> sortedDnList, ExecutorService executor )
+        throws Exception
+    {
+        final String createdTime = DateUtils.getGeneralizedTime();
+        final String entryCsn = csnFactory.newInstance().toString();
+
+        ParallelEntryReader.EntryProcessor processor = new ParallelEntryReader.EntryProcessor()
+        {
+            @Override
+            public void process( DnTuple dt, Entry entry ) throws Exception
+            {
+                // The DnTuple DN has already been normalized
+                entry.setDn( dt.getDn() );
+
+                if ( !entry.containsAttribute( SchemaConstants.ENTRY_UUID_AT ) )
+                {
+                    entry.add( SchemaConstants.ENTRY_UUID_AT, dt.getId() );
+                }
+
+                if ( !entry.containsAttribute( SchemaConstants.ENTRY_CSN_AT ) )
+                {
+                    entry.add( SchemaConstants.ENTRY_CSN_AT, entryCsn );
+                }
+
+                if ( !entry.containsAttribute( SchemaConstants.CREATORS_NAME_AT ) )
+                {
+                    entry.add( SchemaConstants.CREATORS_NAME_AT, ServerDNConstants.ADMIN_SYSTEM_DN );
+                }
+
+                if ( !entry.containsAttribute( SchemaConstants.CREATE_TIMESTAMP_AT ) )
+                {
+                    entry.add( SchemaConstants.CREATE_TIMESTAMP_AT, createdTime );
+                }
+            }
+        };
+
+        ParallelEntryReader reader = new ParallelEntryReader( new File( ldifFile ), schemaManager,
+            sortedDnList.iterator(), executor, nbThreads, processor );
+
+        PartitionTxn partitionTxn = null;
+        int nbInTxn = 0;
+
+        try
+        {
+            while ( reader.hasNext() )
+            {
+                if ( partitionTxn == null )
+                {
+                    partitionTxn = partition.beginWriteTransaction();
+                }
+
+                AddOperationContext addContext = new AddOperationContext( null, reader.next().getValue() );
+                addContext.setPartition( partition );
+                addContext.setTransaction( partitionTxn );
+                partition.add( addContext );
+
+                totalEntries++;
+                nbInTxn++;
+
+                if ( nbInTxn == batchSize )
+                {
+                    partitionTxn.commit();
+                    partitionTxn = null;
+                    nbInTxn = 0;
+                }
+            }
+
+            if ( partitionTxn != null )
+            {
+                partitionTxn.commit();
+                partitionTxn = null;
+            }
+        }
+        catch ( Exception e )
+        {
+            if ( partitionTxn != null )
+            {
+                partitionTxn.abort();
+            }
+
+            throw e;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+
+    /** no qualifier */ int getTotalEntries()
+    {
+        return totalEntries;
+    }
+}
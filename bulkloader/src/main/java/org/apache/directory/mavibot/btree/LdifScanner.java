@@ -0,0 +1,290 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.mavibot.btree;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.DnFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Reads the DNs of all the entries of a LDIF file, with their position in the file.
+ * The file is split in ranges which are parsed and normalized concurrently, each
+ * range starting at the beginning of an entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+/** no qualifier */ class LdifScanner
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LdifScanner.class );
+
+    /** The minimal size of a range, smaller files are read by a single thread */
+    private static final long MIN_RANGE_SIZE = 1024 * 1024;
+
+    /** The LDIF file */
+    private final File file;
+
+    /** The DnFactory */
+    private final DnFactory dnFactory;
+
+    /** The SchemaManager, used to normalize the DNs */
+    private final SchemaManager schemaManager;
+
+
+    /**
+     * Creates a new instance of LdifScanner.
+     *
+     * @param file The LDIF file
+     * @param dnFactory The DnFactory
+     * @param schemaManager The SchemaManager
+     */
+    /** no qualifier */ LdifScanner( File file, DnFactory dnFactory, SchemaManager schemaManager )
+    {
+        this.file = file;
+        this.dnFactory = dnFactory;
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * Reads all the DNs.
+     *
+     * @param executor The executor running the range parsers
+     * @param nbRanges The maximum number of ranges the file is split into
+     * @return The DnTuples, sorted so that a parent always comes before its children. The
+     * duplicated DNs are removed
+     * @throws Exception If the file can't be parsed
+     */
+    /** no qualifier */ List<DnTuple> scan( ExecutorService executor, int nbRanges ) throws Exception
+    {
+        long[] bounds = split( nbRanges );
+        List<Future<List<DnTuple>>> futures = new ArrayList<Future<List<DnTuple>>>();
+
+        for ( int i = 0; i < bounds.length - 1; i++ )
+        {
+            final long start = bounds[i];
+            final long end = bounds[i + 1];
+
+            futures.add( executor.submit( new Callable<List<DnTuple>>()
+            {
+                @Override
+                public List<DnTuple> call() throws Exception
+                {
+                    return scanRange( start, end );
+                }
+            } ) );
+        }
+
+        List<DnTuple> dnTuples = new ArrayList<DnTuple>();
+
+        try
+        {
+            for ( Future<List<DnTuple>> future : futures )
+            {
+                dnTuples.addAll( future.get() );
+            }
+        }
+        catch ( ExecutionException ee )
+        {
+            for ( Future<List<DnTuple>> future : futures )
+            {
+                future.cancel( true );
+            }
+
+            throw unwrap( ee );
+        }
+
+        Collections.sort( dnTuples );
+
+        // Remove the duplicated DNs, only the first one is kept
+        List<DnTuple> result = new ArrayList<DnTuple>( dnTuples.size() );
+        DnTuple previous = null;
+
+        for ( DnTuple dnTuple : dnTuples )
+        {
+            if ( ( previous != null ) && ( previous.compareTo( dnTuple ) == 0 ) )
+            {
+                LOG.warn( "Ignoring the duplicated entry {}", dnTuple.getDn() );
+                continue;
+            }
+
+            result.add( dnTuple );
+            previous = dnTuple;
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Parses the DNs of the entries stored in a range of the file
+     */
+    private List<DnTuple> scanRange( long start, long end ) throws Exception
+    {
+        List<DnTuple> dnTuples = new ArrayList<DnTuple>();
+        FastLdifReader reader = new FastLdifReader( file, dnFactory, start, end );
+
+        try
+        {
+            while ( reader.hasNext() )
+            {
+                // FastLdifReader will always return NULL LdifEntry
+                // call getDnTuple() after next() to get a DnTuple
+                reader.next();
+
+                DnTuple dt = reader.getDnTuple();
+
+                dt.getDn().apply( schemaManager );
+                dnTuples.add( dt );
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        LOG.debug( "Read {} DNs between the positions {} and {}", dnTuples.size(), start, end );
+
+        return dnTuples;
+    }
+
+
+    /**
+     * Splits the file in ranges. Each range but the first one starts right after an
+     * empty line, ie at the beginning of an entry.
+     *
+     * @param nbRanges The maximum number of ranges
+     * @return The ranges bounds, starting with 0 and ending with the file length
+     */
+    /** no qualifier */ long[] split( int nbRanges ) throws IOException
+    {
+        long length = file.length();
+
+        nbRanges = ( int ) Math.max( 1, Math.min( nbRanges, length / MIN_RANGE_SIZE ) );
+
+        List<Long> bounds = new ArrayList<Long>();
+        bounds.add( 0L );
+
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "r" ) )
+        {
+            for ( int i = 1; i < nbRanges; i++ )
+            {
+                long bound = nextEntryStart( raf, length * i / nbRanges );
+
+                if ( ( bound > bounds.get( bounds.size() - 1 ) ) && ( bound < length ) )
+                {
+                    bounds.add( bound );
+                }
+            }
+        }
+
+        bounds.add( length );
+
+        long[] result = new long[bounds.size()];
+
+        for ( int i = 0; i < result.length; i++ )
+        {
+            result[i] = bounds.get( i );
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Finds the first position following an empty line, starting at a given position
+     */
+    private long nextEntryStart( RandomAccessFile raf, long pos ) throws IOException
+    {
+        // Tells if the current line only contains line separators so far
+        boolean emptyLine = false;
+
+        if ( pos > 0 )
+        {
+            raf.seek( pos - 1 );
+            emptyLine = ( raf.read() == '\n' );
+        }
+
+        byte[] buffer = new byte[8192];
+        int nbRead;
+
+        while ( ( nbRead = raf.read( buffer ) ) > 0 )
+        {
+            for ( int i = 0; i < nbRead; i++ )
+            {
+                byte b = buffer[i];
+
+                if ( b == '\n' )
+                {
+                    if ( emptyLine )
+                    {
+                        // We have found an empty line, the entry starts on the next character
+                        return pos + i + 1;
+                    }
+
+                    emptyLine = true;
+                }
+                else if ( b != '\r' )
+                {
+                    emptyLine = false;
+                }
+            }
+
+            pos += nbRead;
+        }
+
+        return raf.length();
+    }
+
+
+    /**
+     * Extracts the original exception from an ExecutionException
+     */
+    /** no qualifier */ static Exception unwrap( ExecutionException ee )
+    {
+        Throwable cause = ee.getCause();
+
+        if ( cause instanceof Exception )
+        {
+            return ( Exception ) cause;
+        }
+
+        if ( cause instanceof Error )
+        {
+            throw ( Error ) cause;
+        }
+
+        return ee;
+    }
+}
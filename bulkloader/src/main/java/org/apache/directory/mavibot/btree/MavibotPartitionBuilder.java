@@ -25,12 +25,15 @@ import static org.apache.directory.mavibot.btree.BTreeFactory.createNode;
 import static org.apache.directory.mavibot.btree.BTreeFactory.setKey;
 import static org.apache.directory.mavibot.btree.BTreeFactory.setValue;
 
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -40,14 +43,17 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
 import org.apache.directory.api.ldap.model.entry.Attribute;
-import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
@@ -117,8 +123,6 @@ public class MavibotPartitionBuilder
 
     private CsnFactory csnFactory;
 
-    private RandomAccessFile raf;
-
     /** The LDIF file to extract */
     private String ldifFile;
     
@@ -134,6 +138,18 @@ public class MavibotPartitionBuilder
     /** The DN factory, used to check DN */ 
     private DnFactory dnFactory;
 
+    /** The number of threads parsing the LDIF file */
+    private int nbThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The directory where the sort temporary files are created, null for the default temporary directory */
+    private File spillDir;
+
+    /** The maximum number of keys of an index sorted in memory */
+    private int sortBufferSize = ExternalSorter.DEFAULT_MAX_IN_MEMORY;
+
+    /** A lock used to write the B-trees one at a time */
+    private final Object writeLock = new Object();
+
     private static final Logger LOG = LoggerFactory.getLogger( MavibotPartitionBuilder.class );
 
 
@@ -169,6 +185,43 @@ public class MavibotPartitionBuilder
         this.csnFactory = new CsnFactory( rid );
     }
 
+
+
+    /**
+     * @param nbThreads The number of threads parsing the LDIF file
+     */
+    public void setNbThreads( int nbThreads )
+    {
+        this.nbThreads = Math.max( 1, nbThreads );
+    }
+
+
+    /**
+     * @param spillDir The directory where the sort temporary files are created
+     */
+    public void setSpillDir( File spillDir )
+    {
+        this.spillDir = spillDir;
+    }
+
+
+    /**
+     * @param sortBufferSize The maximum number of keys of an index sorted in memory
+     */
+    public void setSortBufferSize( int sortBufferSize )
+    {
+        this.sortBufferSize = sortBufferSize;
+    }
+
+
+    /**
+     * @param indexAttributes The names of the indexed attributes
+     */
+    public void setIndexAttributes( List<String> indexAttributes )
+    {
+        this.indexAttributes = indexAttributes;
+    }
+
     
     /**
      * Load the configuration. This is a needed step, as we have to know which indexes
@@ -471,51 +524,19 @@ public class MavibotPartitionBuilder
     }
 
 
-    private Set<DnTuple> getDnTuples() throws Exception
+    private List<DnTuple> getDnTuples( ExecutorService executor ) throws Exception
     {
-        File file = new File( ldifFile );
+        LdifScanner scanner = new LdifScanner( new File( ldifFile ), dnFactory, schemaManager );
 
-        raf = new RandomAccessFile( file, "r" );
+        List<DnTuple> sortedDnList = scanner.scan( executor, nbThreads );
 
-        FastLdifReader reader = new FastLdifReader( file, dnFactory );
-
-        Set<DnTuple> sortedDnSet = new TreeSet<DnTuple>();
-
-        while ( reader.hasNext() )
+        if ( sortedDnList.isEmpty() )
         {
-            // FastLdifReader will always return NULL LdifEntry
-            // call getDnTuple() after next() to get a DnTuple
-            reader.next();
-            
-            DnTuple dt = reader.getDnTuple();
-            
-            dt.getDn().apply( schemaManager );
-            sortedDnSet.add( dt );
-
-            if ( dt.getDn().toString().equals( "uid=user.29998,ou=People,dc=example,dc=com" ) )
-            {
-                System.out.println( dt );
-            }
+            return sortedDnList;
         }
 
-        reader.close();
-
-        if ( sortedDnSet.isEmpty() )
-        {
-            return Collections.EMPTY_SET;
-        }
+        Iterator<DnTuple> itr = sortedDnList.iterator();
 
-        Iterator<DnTuple> itr = sortedDnSet.iterator();
-        /*
-        FileWriter fw = new FileWriter( "/tmp/dntuples.txt" );
-        while( itr.hasNext() )
-        {
-            fw.write( itr.next().getDn().getName() + "\n" );
-        }
-        
-        fw.close();
-        itr = sortedDnSet.iterator();
-        */
         DnTuple root = itr.next();
         root.setParent( null );
 
@@ -565,18 +586,24 @@ public class MavibotPartitionBuilder
             prevTuple = dt;
         }
 
-//        for ( DnTuple dt : sortedDnSet )
-//        {
-//            System.out.println( dt );
-//        }
-
-        return sortedDnSet;
+        return sortedDnList;
     }
 
 
-    private void buildMasterTable( Set<DnTuple> sortedDnSet ) throws Exception
+    /**
+     * Builds the master table. The entries are parsed concurrently, and the index keys
+     * are extracted from them at the same time.
+     *
+     * @param sortedDnList The DnTuples
+     * @param indexKeys The extracted index keys
+     * @param executor The executor used to parse the entries
+     */
+    private void buildMasterTable( List<DnTuple> sortedDnList, final List<IndexKeys> indexKeys,
+        ExecutorService executor ) throws Exception
     {
-        final Set<DnTuple> idSortedSet = new TreeSet<DnTuple>( new Comparator<DnTuple>()
+        final List<DnTuple> idSortedList = new ArrayList<DnTuple>( sortedDnList );
+
+        Collections.sort( idSortedList, new Comparator<DnTuple>()
         {
 
             @Override
@@ -586,69 +613,54 @@ public class MavibotPartitionBuilder
             }
         } );
 
-        idSortedSet.addAll( sortedDnSet );
+        final AttributeType atEntryUUID = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_UUID_AT );
+        final AttributeType atEntryParentID = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_PARENT_ID_AT );
+        final AttributeType atCsn = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_CSN_AT );
+        final AttributeType atCreator = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATORS_NAME_AT );
+        final AttributeType atCreatedTime = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATE_TIMESTAMP_AT );
 
-//        System.out.println( "Sorted on ID" );
-//        for ( DnTuple dt : idSortedSet )
-//        {
-//            System.out.println( dt );
-//        }
+        final String createdTime = DateUtils.getGeneralizedTime();
+        final String entryCsn = csnFactory.newInstance().toString();
 
-        Iterator<Tuple> entryItr = new Iterator<Tuple>()
+        ParallelEntryReader.EntryProcessor processor = new ParallelEntryReader.EntryProcessor()
         {
+            @Override
+            public void process( DnTuple dt, Entry entry ) throws Exception
+            {
+                entry.add( atEntryUUID, dt.getId() );
+                entry.add( atEntryParentID, dt.getParentId() );
+                entry.add( atCsn, entryCsn );
+                entry.add( atCreator, ServerDNConstants.ADMIN_SYSTEM_DN );
+                entry.add( atCreatedTime, createdTime );
 
-            private Iterator<DnTuple> itr = idSortedSet.iterator();
+                for ( IndexKeys keys : indexKeys )
+                {
+                    keys.add( dt.getId(), entry );
+                }
+            }
+        };
 
-            final SchemaAwareLdifReader lar = new SchemaAwareLdifReader( schemaManager );
+        final ParallelEntryReader reader = new ParallelEntryReader( new File( ldifFile ), schemaManager,
+            idSortedList.iterator(), executor, nbThreads, processor );
 
-            final AttributeType atEntryUUID = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_UUID_AT );
-            final AttributeType atEntryParentID = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_PARENT_ID_AT );
-            final AttributeType atCsn = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.ENTRY_CSN_AT );
-            final AttributeType atCreator = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATORS_NAME_AT );
-            final AttributeType atCreatedTime = schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATE_TIMESTAMP_AT );
-            
-            final Attribute creatorsName = new DefaultAttribute( atCreator, ServerDNConstants.ADMIN_SYSTEM_DN );
-            final Attribute createdTime = new DefaultAttribute( atCreatedTime, DateUtils.getGeneralizedTime() );
-            final Attribute entryCsn = new DefaultAttribute( atCsn, csnFactory.newInstance().toString() );
-            
+        Iterator<Tuple> entryItr = new Iterator<Tuple>()
+        {
             final Tuple t = new Tuple();
             
             @Override
             public boolean hasNext()
             {
-                return itr.hasNext();
+                return reader.hasNext();
             }
 
 
             @Override
             public Tuple<String, Entry> next()
             {
+                Tuple<DnTuple, Entry> parsed = reader.next();
 
-                DnTuple dt = itr.next();
-                t.setKey( dt.getId() );
-
-                try
-                {
-                    
-                    byte[] data = new byte[dt.getLen()];
-                    raf.seek( dt.getOffset() );
-                    raf.readFully( data, 0, data.length );
-
-                    Entry entry = lar.parseLdifEntry( Strings.utf8ToString( data ) ).getEntry();
-
-                    entry.add( atEntryUUID, dt.getId() );
-                    entry.add( atEntryParentID, dt.getParentId() );
-                    entry.add( entryCsn );
-                    entry.add( creatorsName );
-                    entry.add( createdTime );
-
-                    t.setValue( entry );
-                }
-                catch ( Exception e )
-                {
-                    LOG.warn( "Failed to parse the entry for the DnTuple " + dt );
-                    throw new RuntimeException( e );
-                }
+                t.setKey( parsed.getKey().getId() );
+                t.setValue( parsed.getValue() );
 
                 return t;
             }
@@ -662,13 +674,25 @@ public class MavibotPartitionBuilder
 
         };
 
-        build( entryItr, masterTableName );
+        try
+        {
+            build( entryItr, masterTableName );
+        }
+        finally
+        {
+            reader.close();
+        }
     }
 
 
-    private void buildRdnIndex( Set<DnTuple> sortedDnSet ) throws Exception
+    /**
+     * Sorts the DnTuples on their parent ID and RDN, which is the RDN index order
+     */
+    private static List<DnTuple> sortOnParentIdAndRdn( List<DnTuple> sortedDnList )
     {
-        final Set<DnTuple> parentIdRdnSortedSet = new TreeSet<DnTuple>( new Comparator<DnTuple>()
+        List<DnTuple> parentIdRdnSortedList = new ArrayList<DnTuple>( sortedDnList );
+
+        Collections.sort( parentIdRdnSortedList, new Comparator<DnTuple>()
         {
 
             @Override
@@ -708,17 +732,15 @@ public class MavibotPartitionBuilder
             }
         } );
 
-        parentIdRdnSortedSet.addAll( sortedDnSet );
+        return parentIdRdnSortedList;
+    }
 
-//        System.out.println( "Sorted on ParentID and RDNs" );
-//        for ( DnTuple dt : parentIdRdnSortedSet )
-//        {
-//            System.out.println( dt );
-//        }
 
+    private void buildRdnIndex( final List<DnTuple> parentIdRdnSortedList ) throws Exception
+    {
         Iterator<Tuple> parentIdAndRdnFwdItr = new Iterator<Tuple>()
         {
-            Iterator<DnTuple> itr = parentIdRdnSortedSet.iterator();
+            Iterator<DnTuple> itr = parentIdRdnSortedList.iterator();
 
 
             @Override
@@ -757,7 +779,7 @@ public class MavibotPartitionBuilder
 
         Iterator<Tuple> parentIdAndRdnRevItr = new Iterator<Tuple>()
         {
-            Iterator<DnTuple> itr = parentIdRdnSortedSet.iterator();
+            Iterator<DnTuple> itr = parentIdRdnSortedList.iterator();
 
 
             @Override
@@ -798,8 +820,9 @@ public class MavibotPartitionBuilder
 
     /**
      * Import a LDIF file and create a fully working Mavibot partition.
-     * TODO buildPartition.
-     *
+     * The entries are parsed by concurrent threads, which also extract the index keys.
+     * The keys are sorted in memory, or in temporary files when an index has more than
+     * sortBufferSize keys.
      */
     public void buildPartition()
     {
@@ -824,18 +847,33 @@ public class MavibotPartitionBuilder
             return;
         }
 
+        ExecutorService executor = Executors.newFixedThreadPool( nbThreads );
+
+        try
+        {
+            buildPartition( executor );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    private void buildPartition( ExecutorService executor )
+    {
         // Now, read all the DNs, and sort them
-        Set<DnTuple> sortedDnSet = null;
+        List<DnTuple> sortedDnList = null;
         
         try
         {
             long sortT0 = System.currentTimeMillis();
-            System.out.println( "Sorting the LDIF data..." );
+            System.out.println( "Sorting the LDIF data using " + nbThreads + " threads..." );
             
-            sortedDnSet = getDnTuples();
+            sortedDnList = getDnTuples( executor );
             long sortT1 = System.currentTimeMillis();
 
-            totalEntries = sortedDnSet.size();
+            totalEntries = sortedDnList.size();
             
             System.out.println( "Completed sorting, total number of entries " + totalEntries + 
                 ", time taken : " + ( sortT1 - sortT0 ) + "ms" );
@@ -847,11 +885,13 @@ public class MavibotPartitionBuilder
             return;
         }
         
-        if ( ( sortedDnSet == null ) || ( sortedDnSet.isEmpty() ) )
+        if ( ( sortedDnList == null ) || ( sortedDnList.isEmpty() ) )
         {
             String message = "No entries found in the given LDIF file, aborting bulk load";
             System.out.println( message );
             LOG.info( message );
+
+            return;
         }
         
         MavibotPartition partition = null;
@@ -891,11 +931,101 @@ public class MavibotPartitionBuilder
             return;
         }
 
+        // The RDN index order is computed while the master table is built
+        final List<DnTuple> dnList = sortedDnList;
+
+        Future<List<DnTuple>> parentIdRdnSortedList = executor.submit( new Callable<List<DnTuple>>()
+        {
+            @Override
+            public List<DnTuple> call() throws Exception
+            {
+                return sortOnParentIdAndRdn( dnList );
+            }
+        } );
+
+        // The index keys are extracted while the master table is built
+        List<IndexKeys> indexKeys = new ArrayList<IndexKeys>();
+
+        try
+        {
+            Set<String> userIndexOids = new HashSet<String>();
+            Iterator<String> userIndexItr = partition.getUserIndices();
+
+            while ( userIndexItr.hasNext() )
+            {
+                userIndexOids.add( userIndexItr.next() );
+            }
+
+            for ( Index<?, String> id : partition.getAllIndices() )
+            {
+                // RDN index is built separately
+                String oid = id.getAttribute().getOid();
+
+                if ( ApacheSchemaConstants.APACHE_RDN_AT_OID.equals( oid ) )
+                {
+                    continue;
+                }
+
+                if ( ApacheSchemaConstants.APACHE_PRESENCE_AT_OID.equals( oid ) )
+                {
+                    indexKeys.add( new IndexKeys( id, null, userIndexOids ) );
+                    continue;
+                }
+
+                if ( !id.getAttribute().getSyntax().isHumanReadable() )
+                {
+                    System.out.println( "The binary index " + id.getAttribute().getName()
+                        + " is not supported, it will be empty" );
+                    continue;
+                }
+
+                String ignoreVal = null;
+
+                if ( SchemaConstants.OBJECT_CLASS_AT_OID.equals( oid ) )
+                {
+                    // should be a normalized val
+                    ignoreVal = "top";
+                }
+
+                indexKeys.add( new IndexKeys( id, ignoreVal, null ) );
+            }
+        }
+        catch ( Exception e )
+        {
+            e.printStackTrace();
+            LOG.warn( "Failed to initialize the indexes", e );
+            return;
+        }
+
+        try
+        {
+            buildPartition( partition, sortedDnList, parentIdRdnSortedList, indexKeys, executor );
+        }
+        finally
+        {
+            for ( IndexKeys keys : indexKeys )
+            {
+                try
+                {
+                    keys.close();
+                }
+                catch ( IOException ioe )
+                {
+                    LOG.warn( "Failed to delete the temporary files of the index " + keys.getName(), ioe );
+                }
+            }
+        }
+    }
+
+
+    private void buildPartition( MavibotPartition partition, List<DnTuple> sortedDnList,
+        Future<List<DnTuple>> parentIdRdnSortedList, List<IndexKeys> indexKeys, ExecutorService executor )
+    {
         try
         {
             long masterT0 = System.currentTimeMillis();
             System.out.print( "Building master table..." );
-            buildMasterTable( sortedDnSet );
+            buildMasterTable( sortedDnList, indexKeys, executor );
             long masterT1 = System.currentTimeMillis();
             System.out.println( ", time taken : " + ( masterT1 - masterT0 ) + "ms" );
         }
@@ -903,12 +1033,9 @@ public class MavibotPartitionBuilder
         {
             e.printStackTrace();
             LOG.warn( "Failed to build master table", e );
-            e.printStackTrace();
             return;
         }
         
-        Iterator<String> userIndexItr = partition.getUserIndices();
-        
         try
         {
             // the RecordManager must be re-initialized cause we are
@@ -920,7 +1047,7 @@ public class MavibotPartitionBuilder
             
             long rdnT0 = System.currentTimeMillis();
             System.out.print( "Building RDN index." );
-            buildRdnIndex( sortedDnSet );
+            buildRdnIndex( parentIdRdnSortedList.get() );
             long rdnT1 = System.currentTimeMillis();
             System.out.println( ", time taken : " + ( rdnT1 - rdnT0 ) + "ms" );
         }
@@ -932,296 +1059,351 @@ public class MavibotPartitionBuilder
         }
         
         // not needed anymore
-        System.out.println( "Clearing the sorted DN set." );
-        sortedDnSet.clear();
-        
-        for( Index<?, String> id : partition.getAllIndices() )
+        System.out.println( "Clearing the sorted DN list." );
+        sortedDnList.clear();
+
+        // The index keys are sorted concurrently, the B-trees are then written one at a time
+        long indexT0 = System.currentTimeMillis();
+        System.out.println( "Building " + indexKeys.size() + " indexes..." );
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        for ( final IndexKeys keys : indexKeys )
         {
-            // RDN and presence indices are built separately
-            String oid = id.getAttribute().getOid();
-            
-            if( ApacheSchemaConstants.APACHE_RDN_AT_OID.equals( oid ) 
-                || ApacheSchemaConstants.APACHE_PRESENCE_AT_OID.equals( oid ) )
+            futures.add( executor.submit( new Callable<Void>()
             {
-                continue;
-            }
-            
-            String ignoreVal = null;
-            
-            if( SchemaConstants.OBJECT_CLASS_AT_OID.equals( oid ) )
-            {
-                // should be a normalized val
-                ignoreVal = "top";
-            }
-            
+                @Override
+                public Void call() throws Exception
+                {
+                    keys.buildTrees();
+
+                    return null;
+                }
+            } ) );
+        }
+
+        for ( int i = 0; i < futures.size(); i++ )
+        {
             try
             {
-                long indexT0 = System.currentTimeMillis();
-                System.out.print("Building index " + id.getAttribute().getName() );
-                buildIndex( id, ignoreVal );
-                long indexT1 = System.currentTimeMillis();
-                System.out.println( ", time taken : " + ( indexT1 - indexT0 ) + "ms" );
+                futures.get( i ).get();
             }
             catch( Exception e )
             {
                 e.printStackTrace();
-                LOG.warn( "Failed to build the index " + id.getAttribute().getName() );
+                LOG.warn( "Failed to build the index " + indexKeys.get( i ).getName() );
                 LOG.warn( "", e );
                 return;
             }
         }
-        
-        try
-        {
-            System.out.print( "Building presence index..." );
-            long presenceT0 = System.currentTimeMillis();
-            buildPresenceIndex( userIndexItr );
-            long presenceT1 = System.currentTimeMillis();
-            System.out.println( ", time taken : " + ( presenceT1 - presenceT0 ) + "ms" );
-        }
-        catch( Exception e )
-        {
-            e.printStackTrace();
-            LOG.warn( "Failed to build the presence index." );
-            LOG.warn( "", e );
-            return;
-        }
-        
+
+        long indexT1 = System.currentTimeMillis();
+        System.out.println( "Indexes built, time taken : " + ( indexT1 - indexT0 ) + "ms" );
+
         System.out.println( "Patition building complete." );
     }
 
-    
-    private void buildPresenceIndex( Iterator<String> itr ) throws Exception
+
+    /**
+     * Groups the consecutive tuples having the same key. The values are gathered in a Set
+     * if the tree allows duplicate values, otherwise only the first value is kept.
+     */
+    private static Iterator<Tuple> group( final Iterator<Tuple<String, String>> sortedTuples,
+        final Comparator keyComparator, final Comparator valueComparator, final boolean allowDuplicates,
+        final String name )
     {
-        Set<String> idxOids = new HashSet<String>();
-        
-        while( itr.hasNext() )
+        return new Iterator<Tuple>()
         {
-            idxOids.add( itr.next() );
-        }
+            Tuple<String, String> nextTuple = sortedTuples.hasNext() ? sortedTuples.next() : null;
 
-        BTree masterTree = rm.getManagedTree( masterTableName );
 
-        BTree fwdTree = rm.getManagedTree( ApacheSchemaConstants.APACHE_PRESENCE_AT_OID + MavibotIndex.FORWARD_BTREE );
-        boolean fwdDupsAllowed = fwdTree.isAllowDuplicates();
-        
-        Comparator fwdKeyComparator = fwdTree.getKeySerializer().getComparator();
-        
-        final Map<String, Set> fwdMap = new TreeMap<String, Set>();
+            @Override
+            public boolean hasNext()
+            {
+                return nextTuple != null;
+            }
 
-        TupleCursor<String, Entry> cursor = masterTree.browse();
-        
-        while ( cursor.hasNext() )
-        {
-            Tuple<String, Entry> t = cursor.next();
-            
-            Entry e = t.getValue();
-            
-            for( String oid : idxOids )
+
+            @Override
+            public Tuple next()
             {
-                Attribute at = e.get( oid );
-                if( at == null )
+                if ( nextTuple == null )
                 {
-                    continue;
+                    throw new NoSuchElementException();
                 }
-                
-                Set<String> idSet = fwdMap.get( oid );
-                
-                if( idSet == null )
+
+                String key = nextTuple.getKey();
+                Set values = new TreeSet( valueComparator );
+
+                while ( ( nextTuple != null ) && ( keyComparator.compare( nextTuple.getKey(), key ) == 0 ) )
+                {
+                    values.add( nextTuple.getValue() );
+                    nextTuple = sortedTuples.hasNext() ? sortedTuples.next() : null;
+                }
+
+                if ( allowDuplicates )
                 {
-                    idSet = new TreeSet<String>();
-                    idSet.add( t.getKey() );
+                    return new Tuple( key, values );
+                }
 
-                    fwdMap.put( oid, idSet );
+                if ( values.size() > 1 )
+                {
+                    LOG.warn( "The key {} has {} values in the tree {}, only the first one is kept", key,
+                        values.size(), name );
                 }
+
+                return new Tuple( key, values.iterator().next() );
             }
-        }
-        
-        cursor.close();
-        
-        Iterator<Tuple> tupleItr = new Iterator<Tuple>()
-        {
-            Iterator<java.util.Map.Entry<String, Set>> itr = fwdMap.entrySet().iterator();
-            
-            @Override
-            public Tuple next()
-            {
-                java.util.Map.Entry<String, Set> e = itr.next();
-                
-                Tuple t = new Tuple();
-                t.setKey( e.getKey() );
-                t.setValue( e.getValue() );
-                
-                return t;
-            }
-            
-            
+
+
             @Override
-            public boolean hasNext()
+            public void remove()
             {
-                return itr.hasNext();
+                throw new UnsupportedOperationException( "Not supported" );
             }
-            
+        };
+    }
+
+
+    /**
+     * Creates the comparator used to sort the tuples : on their key first, then on their value
+     */
+    private static Comparator<Tuple<String, String>> tupleComparator( final Comparator keyComparator,
+        final Comparator valueComparator )
+    {
+        return new Comparator<Tuple<String, String>>()
+        {
             @Override
-            public void remove()
+            public int compare( Tuple<String, String> t1, Tuple<String, String> t2 )
             {
+                int val = keyComparator.compare( t1.getKey(), t2.getKey() );
+
+                if ( val != 0 )
+                {
+                    return val;
+                }
+
+                return valueComparator.compare( t1.getValue(), t2.getValue() );
             }
         };
-        
-        build( tupleItr, fwdTree.getName() );
     }
-    
-    
-    private void buildIndex( Index<?, String> idx, String ignoreVal ) throws Exception
+
+
+    /**
+     * The keys of an index, extracted from the entries while the master table is built,
+     * and sorted before the index B-trees are built.
+     */
+    private class IndexKeys implements Closeable
     {
-        BTree masterTree = rm.getManagedTree( masterTableName );
-        
-        AttributeType type = idx.getAttribute();
-        boolean isBinary = type.getSyntax().isHumanReadable();
-        boolean singleValued = type.isSingleValued();
-        
-        BTree fwdTree = rm.getManagedTree( type.getOid() + MavibotIndex.FORWARD_BTREE );
-        boolean fwdDupsAllowed = fwdTree.isAllowDuplicates();
-        
-        Comparator fwdKeyComparator = fwdTree.getKeySerializer().getComparator();
-        
-        Set<Tuple> fwdSet = new TreeSet<Tuple>( new IndexTupleComparator( fwdKeyComparator ) );
-        
-        Map fwdMap = new TreeMap( fwdKeyComparator );
-        
-        BTree revTree = null;
-        boolean revDupsAllowed;
-        Set<Tuple> revSet = null;
-        Map<String,Tuple> revMap = null;
-        Comparator revValComparator = null;
-        
-        if( idx.hasReverse() )
-        {
-            revTree = rm.getManagedTree( type.getOid() + MavibotIndex.REVERSE_BTREE );
-            revDupsAllowed = revTree.isAllowDuplicates();
-            Comparator revKeyComparator = revTree.getKeySerializer().getComparator();
-            revValComparator = revTree.getValueSerializer().getComparator();
-            revSet = new TreeSet<Tuple>( new IndexTupleComparator( revKeyComparator ) );
-            revMap = new TreeMap( revKeyComparator );
+        /** The indexed AttributeType */
+        private final AttributeType attributeType;
+
+        /** A value which is not indexed */
+        private final String ignoreVal;
+
+        /** The indexed AttributeTypes' OID, for the presence index */
+        private final Set<String> presenceOids;
+
+        /** The forward B-tree name */
+        private final String fwdTreeName;
+
+        /** The reverse B-tree name, if any */
+        private final String revTreeName;
+
+        /** The forward tuples */
+        private final ExternalSorter<Tuple<String, String>> fwdSorter;
+
+        /** The reverse tuples */
+        private final ExternalSorter<Tuple<String, String>> revSorter;
+
+
+        private IndexKeys( Index<?, String> idx, String ignoreVal, Set<String> presenceOids ) throws Exception
+        {
+            this.attributeType = idx.getAttribute();
+            this.ignoreVal = ignoreVal;
+            this.presenceOids = presenceOids;
+
+            fwdTreeName = attributeType.getOid() + MavibotIndex.FORWARD_BTREE;
+            BTree fwdTree = rm.getManagedTree( fwdTreeName );
+            fwdSorter = new ExternalSorter<Tuple<String, String>>( tupleComparator(
+                fwdTree.getKeySerializer().getComparator(), fwdTree.getValueSerializer().getComparator() ),
+                TUPLE_CODEC, sortBufferSize, spillDir );
+
+            if ( ( presenceOids == null ) && idx.hasReverse() )
+            {
+                revTreeName = attributeType.getOid() + MavibotIndex.REVERSE_BTREE;
+                BTree revTree = rm.getManagedTree( revTreeName );
+                revSorter = new ExternalSorter<Tuple<String, String>>( tupleComparator(
+                    revTree.getKeySerializer().getComparator(), revTree.getValueSerializer().getComparator() ),
+                    TUPLE_CODEC, sortBufferSize, spillDir );
+            }
+            else
+            {
+                revTreeName = null;
+                revSorter = null;
+            }
         }
-        
-        
-        TupleCursor<String, Entry> cursor = masterTree.browse();
-        
-        while ( cursor.hasNext() )
+
+
+        private String getName()
         {
-            Tuple<String, Entry> t = cursor.next();
-            
-            Entry e = t.getValue();
-            Attribute at = e.get( type );
-            if( at == null )
+            return attributeType.getName();
+        }
+
+
+        /**
+         * Extracts the keys of an entry. This method is called by concurrent threads.
+         */
+        private void add( String id, Entry entry ) throws IOException
+        {
+            if ( presenceOids != null )
             {
-                continue;
+                addPresence( id, entry );
+
+                return;
             }
-            
-            if( singleValued )
+
+            Attribute at = entry.get( attributeType );
+
+            if ( at == null )
             {
-                Value v = at.get();
-                Object normVal = v.getNormValue();
-                
-                if( ignoreVal != null )
-                {
-                    if( normVal.equals( ignoreVal ) )
-                    {
-                        continue;
-                    }
-                }
-                
-                Tuple fwdTuple = new Tuple( normVal, t.getKey() );
-                fwdSet.add( fwdTuple );
-                
-                if( revTree != null )
-                {
-                    Tuple revTuple = new Tuple( t.getKey(), v.getNormValue() );
-                    revSet.add( revTuple );
-                }
+                return;
             }
-            else
+
+            List<Tuple<String, String>> fwdTuples = new ArrayList<Tuple<String, String>>( at.size() );
+            List<Tuple<String, String>> revTuples = new ArrayList<Tuple<String, String>>( at.size() );
+
+            for ( Value v : at )
             {
-                for( Value v : at )
+                String normVal = v.getNormalized();
+
+                if ( ( normVal == null ) || normVal.equals( ignoreVal ) )
                 {
-                    Object val = v.getNormValue();
-                    
-                    if( ignoreVal != null )
-                    {
-                        if( val.equals( ignoreVal ) )
-                        {
-                            continue;
-                        }
-                    }
-                    
-                    Tuple fwdTuple = ( Tuple ) fwdMap.get( val );
-                    
-                    if( fwdTuple == null )
-                    {
-                        Set<String> idSet = new TreeSet<String>();
-                        idSet.add( t.getKey() );
-                        
-                        fwdTuple = new Tuple( val, idSet );
-                        fwdMap.put( val, fwdTuple );
-                    }
-                    else
-                    {
-                        Set<String> idSet = ( Set<String> ) fwdTuple.getValue();
-                        idSet.add( t.getKey() );
-                    }
-                    
-                    if( revTree != null )
-                    {
-                        Tuple revTuple = revMap.get( t.getKey() );
-                        
-                        if( revTuple == null )
-                        {
-                            Set valSet = new TreeSet( revValComparator );
-                            valSet.add( val );
-                            revTuple = new Tuple( t.getKey(), valSet );
-                        }
-                        else
-                        {
-                            Set valSet = ( Set ) revTuple.getValue();
-                            valSet.add( val );
-                        }
-                    }
+                    continue;
                 }
+
+                fwdTuples.add( new Tuple<String, String>( normVal, id ) );
+                revTuples.add( new Tuple<String, String>( id, normVal ) );
             }
-        }
-        
-        cursor.close();
-        
-        if( singleValued )
-        {
-            if( fwdSet.isEmpty() )
+
+            fwdSorter.addAll( fwdTuples );
+
+            if ( revSorter != null )
             {
-                return;
+                revSorter.addAll( revTuples );
             }
-            
-            build( fwdSet.iterator(), fwdTree.getName() );
-            
-            if( revTree != null )
+        }
+
+
+        /**
+         * Extracts the presence index keys of an entry. This method is called by concurrent threads.
+         */
+        private void addPresence( String id, Entry entry ) throws IOException
+        {
+            List<Tuple<String, String>> fwdTuples = new ArrayList<Tuple<String, String>>();
+
+            for ( String oid : presenceOids )
             {
-                build( revSet.iterator(), revTree.getName() );
+                if ( entry.get( oid ) != null )
+                {
+                    fwdTuples.add( new Tuple<String, String>( oid, id ) );
+                }
             }
+
+            fwdSorter.addAll( fwdTuples );
         }
-        else
+
+
+        /**
+         * Sorts the keys and builds the B-trees. The keys of the various indexes are sorted
+         * concurrently, but the B-trees are written one at a time, as they share the same
+         * RecordManager.
+         */
+        private void buildTrees() throws Exception
         {
-            if( fwdMap.isEmpty() )
+            long t0 = System.currentTimeMillis();
+            Iterator<Tuple<String, String>> fwdItr = fwdSorter.sortedIterator();
+            Iterator<Tuple<String, String>> revItr = ( revSorter == null ) ? null : revSorter.sortedIterator();
+
+            synchronized ( writeLock )
             {
-                return;
+                if ( fwdItr.hasNext() )
+                {
+                    BTree fwdTree = rm.getManagedTree( fwdTreeName );
+                    build( group( fwdItr, fwdTree.getKeySerializer().getComparator(),
+                        fwdTree.getValueSerializer().getComparator(), fwdTree.isAllowDuplicates(), fwdTreeName ),
+                        fwdTreeName );
+                }
+
+                if ( ( revItr != null ) && revItr.hasNext() )
+                {
+                    BTree revTree = rm.getManagedTree( revTreeName );
+                    build( group( revItr, revTree.getKeySerializer().getComparator(),
+                        revTree.getValueSerializer().getComparator(), revTree.isAllowDuplicates(), revTreeName ),
+                        revTreeName );
+                }
             }
-            
-            build( fwdMap.values().iterator(), fwdTree.getName() );
 
-            if( revTree != null )
+            long t1 = System.currentTimeMillis();
+            System.out.println( "Built index " + getName() + " (" + fwdSorter.size() + " keys), time taken : "
+                + ( t1 - t0 ) + "ms" );
+        }
+
+
+        /**
+         * Deletes the temporary files
+         */
+        @Override
+        public void close() throws IOException
+        {
+            fwdSorter.close();
+
+            if ( revSorter != null )
             {
-                build( revMap.values().iterator(), revTree.getName() );
+                revSorter.close();
             }
         }
     }
+
+
+    /**
+     * Writes and reads the index tuples in the sort temporary files
+     */
+    private static final ExternalSorter.Codec<Tuple<String, String>> TUPLE_CODEC = new ExternalSorter.Codec<Tuple<String, String>>()
+    {
+        @Override
+        public void write( Tuple<String, String> tuple, DataOutput out ) throws IOException
+        {
+            writeString( tuple.getKey(), out );
+            writeString( tuple.getValue(), out );
+        }
+
+
+        @Override
+        public Tuple<String, String> read( DataInput in ) throws IOException
+        {
+            String key = readString( in );
+            String value = readString( in );
+
+            return new Tuple<String, String>( key, value );
+        }
+
+
+        private void writeString( String value, DataOutput out ) throws IOException
+        {
+            byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+
+
+        private String readString( DataInput in ) throws IOException
+        {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully( bytes );
+
+            return new String( bytes, StandardCharsets.UTF_8 );
+        }
+    };
     
     
     public void testBTree( String name )
@@ -1333,6 +1515,11 @@ public class MavibotPartitionBuilder
         int rid = 1;
         boolean cleanOutDir = false;
         boolean verifyMasterTable = false;
+        String partitionType = "mavibot";
+        int nbThreads = Runtime.getRuntime().availableProcessors();
+        String tmpDir = null;
+        int sortBufferSize = ExternalSorter.DEFAULT_MAX_IN_MEMORY;
+        List<String> indexAttributes = new ArrayList<String>();
 
         if ( args.length < 2 )
         {
@@ -1379,6 +1566,33 @@ public class MavibotPartitionBuilder
                     configDir = getArgAt( ++i, opt, args );
                     break;
 
+                case PARTITION_TYPE :
+                    partitionType = getArgAt( ++i, opt, args );
+                    break;
+
+                case NUM_THREADS :
+                    nbThreads = Integer.parseInt( getArgAt( ++i, opt, args ) );
+                    break;
+
+                case TMP_DIR :
+                    tmpDir = getArgAt( ++i, opt, args );
+                    break;
+
+                case SORT_BUFFER_SIZE :
+                    sortBufferSize = Integer.parseInt( getArgAt( ++i, opt, args ) );
+                    break;
+
+                case INDEXED_ATTRIBUTES :
+                    for ( String atName : getArgAt( ++i, opt, args ).split( "," ) )
+                    {
+                        if ( atName.trim().length() != 0 )
+                        {
+                            indexAttributes.add( atName.trim() );
+                        }
+                    }
+
+                    break;
+
                 case UNKNOWN :
                     System.out.println( "Unknown option " + args[i] );
                     continue;
@@ -1412,10 +1626,33 @@ public class MavibotPartitionBuilder
             FileUtils.deleteDirectory( outDir );
         }
         
-        MavibotPartitionBuilder builder = new MavibotPartitionBuilder( configDir, inFile, outDirPath, numKeysInNode, rid );
-        
         long start = System.currentTimeMillis();
-        
+
+        if ( "jdbm".equalsIgnoreCase( partitionType ) )
+        {
+            JdbmPartitionBuilder builder = new JdbmPartitionBuilder( inFile, outDirPath, rid );
+            builder.setNbThreads( nbThreads );
+            builder.setIndexAttributes( indexAttributes );
+
+            builder.buildPartition();
+
+            long end = System.currentTimeMillis();
+
+            System.out.println( "Total time taken " + ( end - start ) + "msec" );
+
+            return;
+        }
+
+        MavibotPartitionBuilder builder = new MavibotPartitionBuilder( configDir, inFile, outDirPath, numKeysInNode, rid );
+        builder.setNbThreads( nbThreads );
+        builder.setSortBufferSize( sortBufferSize );
+        builder.setIndexAttributes( indexAttributes );
+
+        if ( tmpDir != null )
+        {
+            builder.setSpillDir( new File( tmpDir ) );
+        }
+
         builder.buildPartition();
         
         long end = System.currentTimeMillis();
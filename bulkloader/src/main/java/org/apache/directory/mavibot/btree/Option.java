@@ -33,6 +33,11 @@ package org.apache.directory.mavibot.btree;
  * <li>-o : the directory where the resulting partition will be stored</li>
  * <li>-rid : the replica ID</li>
  * <li>-verify : check that we have loaded all the entries in the MAsterTable</li>
+ * <li>-type : the type of partition to build, mavibot or jdbm</li>
+ * <li>-threads : the number of threads parsing the LDIF file</li>
+ * <li>-tmp : the directory where the sort temporary files are created</li>
+ * <li>-sortbuffer : the number of index keys sorted in memory</li>
+ * <li>-idx : the comma separated list of indexed attributes</li>
  * </ul>
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
@@ -54,6 +59,16 @@ public enum Option
     CONFIG_DIR("-c", "The configuration partition directory"),
 
     VERIFY_MASTER_TABLE("-verify", "(optional) Verifies the master table by just browsing (entries are not verified)"),
+
+    PARTITION_TYPE("-type", "(optional) The type of partition to build, mavibot or jdbm, default is mavibot"),
+
+    NUM_THREADS("-threads", "(optional) The number of threads parsing the LDIF file, default is the number of processors"),
+
+    TMP_DIR("-tmp", "(optional) The directory where the sort temporary files are created, default is the system temporary directory"),
+
+    SORT_BUFFER_SIZE("-sortbuffer", "(optional) The number of keys of an index sorted in memory before using temporary files, default is 100000"),
+
+    INDEXED_ATTRIBUTES("-idx", "(optional) The comma separated list of the indexed attributes"),
     
     UNKNOWN(null, "Unknown Option");
 
@@ -124,6 +139,36 @@ public enum Option
             return CONFIG_DIR;
         }
 
+        if ( opt.equalsIgnoreCase( DS_RID.text ) )
+        {
+            return DS_RID;
+        }
+
+        if ( opt.equalsIgnoreCase( PARTITION_TYPE.text ) )
+        {
+            return PARTITION_TYPE;
+        }
+
+        if ( opt.equalsIgnoreCase( NUM_THREADS.text ) )
+        {
+            return NUM_THREADS;
+        }
+
+        if ( opt.equalsIgnoreCase( TMP_DIR.text ) )
+        {
+            return TMP_DIR;
+        }
+
+        if ( opt.equalsIgnoreCase( SORT_BUFFER_SIZE.text ) )
+        {
+            return SORT_BUFFER_SIZE;
+        }
+
+        if ( opt.equalsIgnoreCase( INDEXED_ATTRIBUTES.text ) )
+        {
+            return INDEXED_ATTRIBUTES;
+        }
+
         return UNKNOWN;
     }
 }
@@ -0,0 +1,303 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.mavibot.btree;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.mavibot.btree.util.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Reads and parses the entries of a LDIF file, in the order of a list of DnTuples. The
+ * entries are parsed by batches, concurrently, but they are returned in the order of
+ * the DnTuples. A limited number of batches are parsed in advance, so that the memory
+ * used by the parsed entries is bounded.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+/** no qualifier */ class ParallelEntryReader implements Iterator<Tuple<DnTuple, Entry>>, Closeable
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ParallelEntryReader.class );
+
+    /** The number of entries parsed by a single task */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * A callback invoked on each parsed entry, in the parsing thread. It is used to
+     * complete the entry, and to extract the index keys while the entries are parsed
+     * concurrently.
+     */
+    /** no qualifier */ interface EntryProcessor
+    {
+        /**
+         * Processes an entry.
+         *
+         * @param dnTuple The entry DnTuple
+         * @param entry The parsed entry
+         * @throws Exception If the entry is invalid
+         */
+        void process( DnTuple dnTuple, Entry entry ) throws Exception;
+    }
+
+    /**
+     * The per thread parsing resources
+     */
+    private static class Parser implements Closeable
+    {
+        private final RandomAccessFile raf;
+
+        private final SchemaAwareLdifReader reader;
+
+
+        private Parser( File file, SchemaManager schemaManager ) throws Exception
+        {
+            raf = new RandomAccessFile( file, "r" );
+            reader = new SchemaAwareLdifReader( schemaManager );
+        }
+
+
+        private Entry parse( DnTuple dnTuple ) throws Exception
+        {
+            byte[] data = new byte[dnTuple.getLen()];
+            raf.seek( dnTuple.getOffset() );
+            raf.readFully( data, 0, data.length );
+
+            return reader.parseLdifEntry( Strings.utf8ToString( data ) ).getEntry();
+        }
+
+
+        @Override
+        public void close() throws IOException
+        {
+            raf.close();
+        }
+    }
+
+    /** The DnTuples of the entries to read */
+    private final Iterator<DnTuple> dnTuples;
+
+    /** The executor parsing the batches */
+    private final ExecutorService executor;
+
+    /** The processor invoked on each entry */
+    private final EntryProcessor processor;
+
+    /** The available parsers, one per thread */
+    private final BlockingQueue<Parser> parsers;
+
+    /** All the parsers */
+    private final List<Parser> allParsers = new ArrayList<Parser>();
+
+    /** The maximum number of batches parsed in advance */
+    private final int window;
+
+    /** The batches being parsed, in order */
+    private final Deque<Future<List<Tuple<DnTuple, Entry>>>> pending = new ArrayDeque<Future<List<Tuple<DnTuple, Entry>>>>();
+
+    /** The current batch */
+    private Iterator<Tuple<DnTuple, Entry>> current = Collections.<Tuple<DnTuple, Entry>> emptyList().iterator();
+
+
+    /**
+     * Creates a new instance of ParallelEntryReader.
+     *
+     * @param file The LDIF file
+     * @param schemaManager The SchemaManager
+     * @param dnTuples The DnTuples of the entries to read
+     * @param executor The executor parsing the entries
+     * @param nbThreads The number of threads of the executor
+     * @param processor The processor invoked on each entry, or null
+     * @throws Exception If the file can't be opened
+     */
+    /** no qualifier */ ParallelEntryReader( File file, SchemaManager schemaManager, Iterator<DnTuple> dnTuples,
+        ExecutorService executor, int nbThreads, EntryProcessor processor ) throws Exception
+    {
+        this.dnTuples = dnTuples;
+        this.executor = executor;
+        this.processor = processor;
+        this.window = nbThreads * 2;
+        parsers = new ArrayBlockingQueue<Parser>( nbThreads );
+
+        for ( int i = 0; i < nbThreads; i++ )
+        {
+            Parser parser = new Parser( file, schemaManager );
+            allParsers.add( parser );
+            parsers.add( parser );
+        }
+
+        fill();
+    }
+
+
+    /**
+     * Submits new batches, until the window is full
+     */
+    private void fill()
+    {
+        while ( ( pending.size() < window ) && dnTuples.hasNext() )
+        {
+            final List<DnTuple> batch = new ArrayList<DnTuple>( BATCH_SIZE );
+
+            while ( ( batch.size() < BATCH_SIZE ) && dnTuples.hasNext() )
+            {
+                batch.add( dnTuples.next() );
+            }
+
+            pending.add( executor.submit( new Callable<List<Tuple<DnTuple, Entry>>>()
+            {
+                @Override
+                public List<Tuple<DnTuple, Entry>> call() throws Exception
+                {
+                    return parse( batch );
+                }
+            } ) );
+        }
+    }
+
+
+    /**
+     * Parses a batch of entries
+     */
+    private List<Tuple<DnTuple, Entry>> parse( List<DnTuple> batch ) throws Exception
+    {
+        List<Tuple<DnTuple, Entry>> entries = new ArrayList<Tuple<DnTuple, Entry>>( batch.size() );
+        Parser parser = parsers.take();
+
+        try
+        {
+            for ( DnTuple dnTuple : batch )
+            {
+                Entry entry;
+
+                try
+                {
+                    entry = parser.parse( dnTuple );
+                }
+                catch ( Exception e )
+                {
+                    LOG.warn( "Failed to parse the entry for the DnTuple " + dnTuple );
+                    throw e;
+                }
+
+                if ( processor != null )
+                {
+                    processor.process( dnTuple, entry );
+                }
+
+                entries.add( new Tuple<DnTuple, Entry>( dnTuple, entry ) );
+            }
+        }
+        finally
+        {
+            parsers.add( parser );
+        }
+
+        return entries;
+    }
+
+
+    @Override
+    public boolean hasNext()
+    {
+        return current.hasNext() || !pending.isEmpty();
+    }
+
+
+    @Override
+    public Tuple<DnTuple, Entry> next()
+    {
+        while ( !current.hasNext() )
+        {
+            Future<List<Tuple<DnTuple, Entry>>> batch = pending.poll();
+
+            if ( batch == null )
+            {
+                throw new NoSuchElementException();
+            }
+
+            try
+            {
+                current = batch.get().iterator();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException( ie );
+            }
+            catch ( ExecutionException ee )
+            {
+                throw new RuntimeException( ee.getCause() );
+            }
+
+            fill();
+        }
+
+        return current.next();
+    }
+
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException( "Not supported" );
+    }
+
+
+    /**
+     * Cancels the pending batches, and closes the file
+     */
+    @Override
+    public void close() throws IOException
+    {
+        for ( Future<?> batch : pending )
+        {
+            batch.cancel( true );
+        }
+
+        pending.clear();
+
+        for ( Parser parser : allParsers )
+        {
+            parser.close();
+        }
+    }
+}
@@ -101,6 +101,23 @@ public class PositionBufferedReader extends Reader
     }
 
 
+    /**
+     * Constructs a new BufferedReader on the Reader {@code in}, which
+     * starts at the given position in the file.
+     *
+     * @param in
+     *            the Reader that is buffered.
+     * @param filePos
+     *            the position in the file of the first character read
+     *            from {@code in}.
+     */
+    public PositionBufferedReader( Reader in, long filePos )
+    {
+        this( in );
+        this.filePos = filePos;
+    }
+
+
     /**
      * Closes this reader. This implementation closes the buffered source reader
      * and releases the buffer. Nothing is done if this reader has already been
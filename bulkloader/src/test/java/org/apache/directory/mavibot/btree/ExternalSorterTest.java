@@ -0,0 +1,224 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.mavibot.btree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Tests for ExternalSorter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ExternalSorterTest
+{
+    private static final ExternalSorter.Codec<Integer> INT_CODEC = new ExternalSorter.Codec<Integer>()
+    {
+        @Override
+        public void write( Integer element, DataOutput out ) throws IOException
+        {
+            out.writeInt( element );
+        }
+
+
+        @Override
+        public Integer read( DataInput in ) throws IOException
+        {
+            return in.readInt();
+        }
+    };
+
+    private static final Comparator<Integer> INT_COMPARATOR = new Comparator<Integer>()
+    {
+        @Override
+        public int compare( Integer i1, Integer i2 )
+        {
+            return i1.compareTo( i2 );
+        }
+    };
+
+
+    private static List<Integer> randomInts( int count )
+    {
+        Random random = new Random( 42L );
+        List<Integer> ints = new ArrayList<Integer>( count );
+
+        for ( int i = 0; i < count; i++ )
+        {
+            ints.add( random.nextInt( count / 2 ) );
+        }
+
+        return ints;
+    }
+
+
+    private static List<Integer> toList( Iterator<Integer> iterator )
+    {
+        List<Integer> ints = new ArrayList<Integer>();
+
+        while ( iterator.hasNext() )
+        {
+            ints.add( iterator.next() );
+        }
+
+        return ints;
+    }
+
+
+    @Test
+    public void testSortInMemory() throws Exception
+    {
+        List<Integer> ints = randomInts( 1000 );
+
+        try ( ExternalSorter<Integer> sorter = new ExternalSorter<Integer>( INT_COMPARATOR, INT_CODEC, 10000, null ) )
+        {
+            for ( Integer i : ints )
+            {
+                sorter.add( i );
+            }
+
+            assertEquals( 1000, sorter.size() );
+
+            List<Integer> sorted = toList( sorter.sortedIterator() );
+
+            assertEquals( 0, sorter.getNbRuns() );
+
+            Collections.sort( ints );
+            assertEquals( ints, sorted );
+        }
+    }
+
+
+    @Test
+    public void testSortWithRuns() throws Exception
+    {
+        List<Integer> ints = randomInts( 10050 );
+
+        try ( ExternalSorter<Integer> sorter = new ExternalSorter<Integer>( INT_COMPARATOR, INT_CODEC, 1000, null ) )
+        {
+            for ( Integer i : ints )
+            {
+                sorter.add( i );
+            }
+
+            assertEquals( 10, sorter.getNbRuns() );
+
+            List<Integer> sorted = toList( sorter.sortedIterator() );
+
+            // The last 50 elements have been spilled before being merged
+            assertEquals( 11, sorter.getNbRuns() );
+
+            Collections.sort( ints );
+            assertEquals( ints, sorted );
+        }
+    }
+
+
+    @Test
+    public void testSortEmpty() throws Exception
+    {
+        try ( ExternalSorter<Integer> sorter = new ExternalSorter<Integer>( INT_COMPARATOR, INT_CODEC, 10, null ) )
+        {
+            assertFalse( sorter.sortedIterator().hasNext() );
+        }
+    }
+
+
+    @Test
+    public void testConcurrentAdd() throws Exception
+    {
+        final ExternalSorter<Integer> sorter = new ExternalSorter<Integer>( INT_COMPARATOR, INT_CODEC, 500, null );
+        final List<Integer> ints = randomInts( 20000 );
+        Thread[] threads = new Thread[4];
+
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final int first = t * 5000;
+
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = first; i < first + 5000; i += 100 )
+                        {
+                            sorter.addAll( ints.subList( i, i + 100 ) );
+                        }
+                    }
+                    catch ( IOException ioe )
+                    {
+                        throw new RuntimeException( ioe );
+                    }
+                }
+            };
+
+            threads[t].start();
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        try
+        {
+            assertEquals( 20000, sorter.size() );
+            assertTrue( sorter.getNbRuns() > 1 );
+
+            List<Integer> sorted = toList( sorter.sortedIterator() );
+
+            Collections.sort( ints );
+            assertEquals( ints, sorted );
+        }
+        finally
+        {
+            sorter.close();
+        }
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void testAddAfterSort() throws Exception
+    {
+        try ( ExternalSorter<Integer> sorter = new ExternalSorter<Integer>( INT_COMPARATOR, INT_CODEC, 10, null ) )
+        {
+            sorter.add( 1 );
+            sorter.sortedIterator();
+            sorter.add( 2 );
+        }
+    }
+}
@@ -578,6 +578,38 @@ public interface DirectoryService extends ServerEntryFactory
     long getSyncPeriodMillis();
 
 
+    /**
+     * Sets the maximum estimated size, in bytes, of the entries sorted in memory by a
+     * search using the server side sort control. Beyond this size, the sorted entries
+     * are written in temporary files.
+     * 
+     * @param sortMemoryLimit the sortMemoryLimit to set
+     */
+    void setSortMemoryLimit( long sortMemoryLimit );
+
+
+    /**
+     * @return the sortMemoryLimit
+     */
+    long getSortMemoryLimit();
+
+
+    /**
+     * Sets the number of threads used to search the partitions concurrently, when a
+     * search spans many naming contexts. When set to 0, the partitions are searched
+     * one after the other.
+     * 
+     * @param searchThreads the searchThreads to set
+     */
+    void setSearchThreads( int searchThreads );
+
+
+    /**
+     * @return the searchThreads
+     */
+    int getSearchThreads();
+
+
     /**
      * @return the cache service
      */
@@ -38,6 +38,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
 
 
 /**
@@ -171,31 +172,85 @@ public interface OperationManager
 
 
     /**
-     * Acquires a WriteLock
+     * Acquires a WriteLock on the whole server. No other operation can be processed
+     * until this lock is released.
      */
     void lockWrite();
 
 
     /**
-     * Releases a WriteLock
+     * Releases a WriteLock on the whole server
      */
     void unlockWrite();
 
 
     /**
-     * Acquires a ReadLock
+     * Acquires a ReadLock on the whole server
      */
     void lockRead();
 
 
     /**
-     * Releases a ReadLock
+     * Releases a ReadLock on the whole server
      */
     void unlockRead();
 
 
     /**
-     * @return the OperationManager R/W lock
+     * Acquires a WriteLock on the given partition. Operations on other partitions
+     * are not blocked, except for the schema and configuration partitions, and for
+     * the subschema subentry : their writes block the whole server.
+     * 
+     * @param partition The partition to lock
+     */
+    void lockWrite( Partition partition );
+
+
+    /**
+     * Releases a WriteLock on the given partition
+     * 
+     * @param partition The partition to unlock
+     */
+    void unlockWrite( Partition partition );
+
+
+    /**
+     * Runs an action once the current thread has released all its partition write locks,
+     * or right away if it holds none. It's used to wait without blocking the other writers.
+     * 
+     * @param action The action to run
+     */
+    void runAfterUnlock( Runnable action );
+
+
+    /**
+     * Acquires a ReadLock on the given partition
+     * 
+     * @param partition The partition to lock
+     */
+    void lockRead( Partition partition );
+
+
+    /**
+     * Releases a ReadLock on the given partition
+     * 
+     * @param partition The partition to unlock
+     */
+    void unlockRead( Partition partition );
+
+
+    /**
+     * @return the OperationManager R/W lock, protecting the whole server
      */
     ReadWriteLock getRWLock();
+
+
+    /**
+     * Gets the R/W lock protecting a given partition. The same lock is returned for
+     * a given partition ID for the whole life of the OperationManager.
+     * 
+     * @param partition The partition we want the lock for
+     * @return the R/W lock associated with the partition
+     */
+    ReadWriteLock getRWLock( Partition partition );
 }
@@ -0,0 +1,93 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.interceptor;
+
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+
+/**
+ * The immutable list of the interceptors to call for an operation. It's seen as the
+ * list of the interceptor names, but it also holds the interceptors themselves, so
+ * that an operation can go through the chain without looking up each interceptor
+ * by its name. As it can't be modified, the same chain is shared by all the operations
+ * of a given type, until the interceptors are changed and a new chain is built.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class InterceptorChain extends AbstractList<String> implements RandomAccess
+{
+    /** The interceptors, in the order they are called */
+    private final Interceptor[] interceptors;
+
+    /** The interceptor names */
+    private final String[] names;
+
+
+    /**
+     * Creates a new instance of InterceptorChain.
+     *
+     * @param interceptors The interceptors, in the order they are called
+     */
+    public InterceptorChain( List<Interceptor> interceptors )
+    {
+        this.interceptors = interceptors.toArray( new Interceptor[interceptors.size()] );
+        names = new String[this.interceptors.length];
+
+        for ( int i = 0; i < names.length; i++ )
+        {
+            names[i] = this.interceptors[i].getName();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String get( int index )
+    {
+        return names[index];
+    }
+
+
+    /**
+     * Gets the interceptor at a given position in the chain.
+     *
+     * @param index The position
+     * @return The interceptor
+     */
+    public Interceptor getInterceptor( int index )
+    {
+        return interceptors[index];
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return names.length;
+    }
+}
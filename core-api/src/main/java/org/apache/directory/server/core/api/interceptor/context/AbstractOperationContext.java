@@ -31,6 +31,8 @@ import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorChain;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 
@@ -336,6 +338,29 @@ public abstract class AbstractOperationContext implements OperationContext
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final Interceptor getNextInterceptorInstance()
+    {
+        if ( currentInterceptor == interceptors.size() )
+        {
+            return null;
+        }
+
+        if ( interceptors instanceof InterceptorChain )
+        {
+            return ( ( InterceptorChain ) interceptors ).getInterceptor( currentInterceptor++ );
+        }
+
+        String interceptor = interceptors.get( currentInterceptor );
+        currentInterceptor++;
+
+        return session.getDirectoryService().getInterceptor( interceptor );
+    }
+
+
     /**
      * @return The number of the current interceptor in the list
      */
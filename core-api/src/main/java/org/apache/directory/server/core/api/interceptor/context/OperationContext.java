@@ -29,6 +29,8 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorChain;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 
@@ -225,6 +227,16 @@ public interface OperationContext
     String getNextInterceptor();
 
 
+    /**
+     * Gets the next interceptor in the list of interceptors, without looking
+     * it up by its name when the list is an {@link InterceptorChain}. The
+     * position in the list will be incremented.
+     * 
+     * @return The next interceptor, or null if the end of the list has been reached
+     */
+    Interceptor getNextInterceptorInstance();
+
+
     /**
      * Sets the list of interceptors to go through for an operation
      * 
@@ -30,6 +30,7 @@ import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.message.controls.ManageDsaIT;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.util.StringConstants;
 import org.apache.directory.server.core.api.CoreSession;
@@ -65,6 +66,12 @@ public class SearchOperationContext extends FilteringOperationContext
 
     /** flag to indicate if this search is done for replication */
     private boolean syncreplSearch;
+
+    /** The key the entries will be sorted on, which the partition may use to return them in order */
+    private SortKey sortKey;
+
+    /** flag set by the partition when the entries are returned in the sortKey order */
+    private boolean sorted;
     
     /**
      * Creates a new instance of SearchOperationContext.
@@ -158,6 +165,48 @@ public class SearchOperationContext extends FilteringOperationContext
     }
 
 
+    /**
+     * Creates a copy of a SearchOperationContext, used to search a partition while
+     * the given context is used to search another one. The copy shares the controls
+     * of the given context, so that the response controls are returned with the search.
+     *
+     * @param searchContext The SearchOperationContext to copy
+     */
+    public SearchOperationContext( SearchOperationContext searchContext )
+    {
+        super( searchContext.getSession() );
+
+        dn = searchContext.dn;
+        entry = searchContext.entry;
+        originalEntry = searchContext.originalEntry;
+        requestControls = searchContext.requestControls;
+        responseControls = searchContext.responseControls;
+        byPassed = searchContext.byPassed;
+        interceptors = searchContext.interceptors;
+        currentInterceptor = searchContext.currentInterceptor;
+        authorizedPrincipal = searchContext.authorizedPrincipal;
+        throwReferral = searchContext.throwReferral;
+        transaction = searchContext.transaction;
+        partition = searchContext.partition;
+
+        returningAttributes = searchContext.returningAttributes;
+        returningAttributesString = searchContext.returningAttributesString;
+        setAllOperationalAttributes( searchContext.isAllOperationalAttributes() );
+        setAllUserAttributes( searchContext.isAllUserAttributes() );
+        setNoAttributes( searchContext.isNoAttributes() );
+        typesOnly = searchContext.typesOnly;
+
+        aliasDerefMode = searchContext.aliasDerefMode;
+        sizeLimit = searchContext.sizeLimit;
+        timeLimit = searchContext.timeLimit;
+        scope = searchContext.scope;
+        abandoned = searchContext.abandoned;
+        filter = searchContext.filter;
+        syncreplSearch = searchContext.syncreplSearch;
+        sortKey = searchContext.sortKey;
+    }
+
+
     /**
      * Checks whether or not the ManageDsaITControl is present.  If not
      * present then the filter is modified to force the return of all referral
@@ -221,6 +270,47 @@ public class SearchOperationContext extends FilteringOperationContext
     }
 
 
+    /**
+     * @return The key the entries will be sorted on, or null
+     */
+    public SortKey getSortKey()
+    {
+        return sortKey;
+    }
+
+
+    /**
+     * Sets the key the entries will be sorted on. A partition which is able to return the
+     * entries in this order (using an index) may do so, and then call {@link #setSorted(boolean)}
+     * 
+     * @param sortKey The sort key
+     */
+    public void setSortKey( SortKey sortKey )
+    {
+        this.sortKey = sortKey;
+    }
+
+
+    /**
+     * @return true if the partition has returned the entries in the sort key order
+     */
+    public boolean isSorted()
+    {
+        return sorted;
+    }
+
+
+    /**
+     * Sets the flag to indicate that the entries are returned in the sort key order
+     * 
+     * @param sorted The flag indicating the entries are sorted
+     */
+    public void setSorted( boolean sorted )
+    {
+        this.sorted = sorted;
+    }
+
+
     /**
      * @return The alias dereferencing mode
      */
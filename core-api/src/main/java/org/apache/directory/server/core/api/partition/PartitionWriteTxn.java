@@ -20,6 +20,8 @@
 package org.apache.directory.server.core.api.partition;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The Write Transaction interface
@@ -28,20 +30,97 @@ import java.io.IOException;
  */
 public class PartitionWriteTxn implements PartitionTxn
 {
+    /** The actions to run once the changes are committed, null if none */
+    private List<Runnable> commitActions;
+
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void commit() throws IOException
     {
+        runCommitActions();
     }
 
 
     /**
      * {@inheritDoc}
+     * <br>
+     * This transaction can't roll back the changes, which are kept : the commit actions
+     * are run.
      */
     @Override
     public void abort() throws IOException
+    {
+        runCommitActions();
+    }
+
+
+    /**
+     * Registers an action to run once the changes done in this transaction are committed,
+     * like the update of an in-memory state reflecting these changes. The actions are
+     * discarded if the changes are rolled back.
+     *
+     * @param action The action to run
+     */
+    public void onCommit( Runnable action )
+    {
+        if ( commitActions == null )
+        {
+            commitActions = new ArrayList<>();
+        }
+
+        commitActions.add( action );
+    }
+
+
+    /**
+     * Runs the registered commit actions, in the order they have been registered. Called
+     * by the transactions once their changes have been committed.
+     */
+    protected void runCommitActions()
+    {
+        List<Runnable> actions = commitActions;
+        commitActions = null;
+
+        if ( actions != null )
+        {
+            for ( Runnable action : actions )
+            {
+                action.run();
+            }
+        }
+    }
+
+
+    /**
+     * Discards the registered commit actions. Called by the transactions once their
+     * changes have been rolled back.
+     */
+    protected void discardCommitActions()
+    {
+        commitActions = null;
+    }
+
+
+    /**
+     * Tells the next {@link #commit()} that it may return before the changes are flushed
+     * on disk, so that the partition can flush the changes of several concurrent transactions
+     * at once. The caller must then call {@link #awaitSync()} once it has released the
+     * partition lock. By default, the commit is not changed.
+     */
+    public void deferSync()
+    {
+    }
+
+
+    /**
+     * Waits until the changes of a commit done after {@link #deferSync()} are flushed on disk.
+     * 
+     * @throws IOException If the changes can't be flushed
+     */
+    public void awaitSync() throws IOException
     {
     }
 
@@ -20,10 +20,14 @@
 package org.apache.directory.server.core.api.subtree;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.subtree.Subentry;
@@ -33,7 +37,11 @@ import org.apache.directory.api.ldap.model.subtree.Subentry;
  * A cache for subtree specifications. It associates a Subentry with a Dn,
  * representing its position in the DIT.<br>
  * This cache has a size limit set to 1000 at the moment. We should add a configuration
- * parameter to manage its size.
+ * parameter to manage its size.<br>
+ * The subentries are also indexed by their administrative point, so that the subentries
+ * which may select an entry are found by walking up its Dn, instead of checking all
+ * the subentries. The subentries found for the children of a given entry are kept
+ * until a subentry is added or removed.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -48,9 +56,21 @@ public class SubentryCache implements Iterable<Dn>
     /** The current cache size */
     private AtomicInteger cacheSize;
 
+    /** The default maximum number of Dn for which the subentries are kept */
+    private static final int DEFAULT_SUBTREE_CACHE_MAX_SIZE = 10000;
+
     /** The Subentry cache */
     private final Map<Dn, Subentry> cache;
 
+    /** The subentries' Dn, per administrative point */
+    private final Map<Dn, List<Dn>> adminPoints = new ConcurrentHashMap<>();
+
+    /** The subentries which may select the children of an entry, per entry Dn */
+    private final Map<Dn, List<Dn>> subtreeSubentries = new ConcurrentHashMap<>();
+
+    /** Incremented each time a subentry is added or removed */
+    private final AtomicLong generation = new AtomicLong();
+
 
     /**
      * Creates a new instance of SubentryCache with a default maximum size.
@@ -101,6 +121,7 @@ public class SubentryCache implements Iterable<Dn>
         if ( oldSubentry != null )
         {
             cacheSize.decrementAndGet();
+            updateAdminPoint( dn, false );
         }
 
         return oldSubentry;
@@ -126,12 +147,142 @@ public class SubentryCache implements Iterable<Dn>
         if ( oldSubentry == null )
         {
             cacheSize.getAndIncrement();
+            updateAdminPoint( dn, true );
         }
 
         return oldSubentry;
     }
 
 
+    /**
+     * Adds or removes a subentry from the list of subentries of its administrative point,
+     * and forgets the subentries found for each Dn. The lists are never modified, they are
+     * replaced, so that they can be read without any lock.
+     */
+    private synchronized void updateAdminPoint( Dn dn, boolean added )
+    {
+        Dn apDn = dn.getParent();
+        List<Dn> subentries = adminPoints.get( apDn );
+        List<Dn> newSubentries = new ArrayList<>();
+
+        if ( subentries != null )
+        {
+            newSubentries.addAll( subentries );
+        }
+
+        if ( added )
+        {
+            newSubentries.add( dn );
+        }
+        else
+        {
+            newSubentries.remove( dn );
+        }
+
+        if ( newSubentries.isEmpty() )
+        {
+            adminPoints.remove( apDn );
+        }
+        else
+        {
+            adminPoints.put( apDn, Collections.unmodifiableList( newSubentries ) );
+        }
+
+        generation.incrementAndGet();
+        subtreeSubentries.clear();
+    }
+
+
+    /**
+     * Gets the Dn of the subentries which may select an entry, ie the subentries of the
+     * administrative points which are the entry itself or one of its ancestors. Their
+     * SubtreeSpecification has still to be evaluated against the entry.
+     *
+     * @param dn The entry Dn
+     * @return The Dn of the subentries whose administrative point is above the entry
+     */
+    public List<Dn> getSubentries( Dn dn )
+    {
+        if ( adminPoints.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        List<Dn> apSubentries = adminPoints.get( dn );
+
+        if ( dn.isRootDse() )
+        {
+            return apSubentries == null ? Collections.<Dn> emptyList() : apSubentries;
+        }
+
+        List<Dn> subentries = getSubtreeSubentries( dn.getParent() );
+
+        if ( apSubentries == null )
+        {
+            return subentries;
+        }
+
+        List<Dn> allSubentries = new ArrayList<>( subentries.size() + apSubentries.size() );
+        allSubentries.addAll( subentries );
+        allSubentries.addAll( apSubentries );
+
+        return allSubentries;
+    }
+
+
+    /**
+     * Gets the subentries of the administrative points which are a given entry or one of its
+     * ancestors. They are computed once for all the children of this entry.
+     */
+    private List<Dn> getSubtreeSubentries( Dn dn )
+    {
+        List<Dn> subentries = subtreeSubentries.get( dn );
+
+        if ( subentries != null )
+        {
+            return subentries;
+        }
+
+        long current = generation.get();
+        List<Dn> found = new ArrayList<>();
+        Dn ancestor = dn;
+
+        while ( true )
+        {
+            List<Dn> apSubentries = adminPoints.get( ancestor );
+
+            if ( apSubentries != null )
+            {
+                found.addAll( apSubentries );
+            }
+
+            if ( ancestor.isRootDse() )
+            {
+                break;
+            }
+
+            ancestor = ancestor.getParent();
+        }
+
+        subentries = Collections.unmodifiableList( found );
+
+        if ( subtreeSubentries.size() >= DEFAULT_SUBTREE_CACHE_MAX_SIZE )
+        {
+            subtreeSubentries.clear();
+        }
+
+        subtreeSubentries.put( dn, subentries );
+
+        // A subentry may have been added or removed while we were walking up the tree
+        if ( generation.get() != current )
+        {
+            subtreeSubentries.remove( dn, subentries );
+        }
+
+        return subentries;
+    }
+
+
     /**
      * Tells if there is a Subentry associated with a Dn
      * @param dn The Dn
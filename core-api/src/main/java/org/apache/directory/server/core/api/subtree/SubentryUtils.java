@@ -59,7 +59,9 @@ public class SubentryUtils
     /**
      * Evaluates the set of subentry subtrees upon an entry and returns the
      * operational subentry attributes that will be added to the entry if
-     * added at the dn specified.
+     * added at the dn specified. Those attributes are not stored in the entries,
+     * they are computed each time they are needed. Only the subentries of the
+     * administrative points above the entry are evaluated.
      *
      * @param dn the normalized distinguished name of the entry
      * @param entryAttrs the entry attributes are generated for
@@ -73,10 +75,17 @@ public class SubentryUtils
         SubentryCache subentryCache = directoryService.getSubentryCache();
         SubtreeEvaluator evaluator = directoryService.getEvaluator();
 
-        for ( Dn subentryDn : subentryCache )
+        for ( Dn subentryDn : subentryCache.getSubentries( dn ) )
         {
             Dn apDn = subentryDn.getParent();
             Subentry subentry = subentryCache.getSubentry( subentryDn );
+
+            if ( subentry == null )
+            {
+                // Removed in the meantime
+                continue;
+            }
+
             SubtreeSpecification ss = subentry.getSubtreeSpecification();
 
             if ( evaluator.evaluate( ss, apDn, dn, entryAttrs ) )
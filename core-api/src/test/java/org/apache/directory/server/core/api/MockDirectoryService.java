@@ -476,6 +476,28 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public long getSortMemoryLimit()
+    {
+        return 0;
+    }
+
+
+    public void setSortMemoryLimit( long sortMemoryLimit )
+    {
+    }
+
+
+    public int getSearchThreads()
+    {
+        return 0;
+    }
+
+
+    public void setSearchThreads( int searchThreads )
+    {
+    }
+
+
     public CacheService getCacheService()
     {
         return null;
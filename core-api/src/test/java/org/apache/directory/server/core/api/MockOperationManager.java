@@ -156,4 +156,39 @@ public class MockOperationManager implements OperationManager
     {
         return new ReentrantReadWriteLock();
     }
+
+
+    public void lockWrite( Partition partition )
+    {
+    }
+
+
+    public void unlockWrite( Partition partition )
+    {
+    }
+
+
+    public void runAfterUnlock( Runnable action )
+    {
+        action.run();
+    }
+
+
+    public void lockRead( Partition partition )
+    {
+    }
+
+
+    public void unlockRead( Partition partition )
+    {
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public ReadWriteLock getRWLock( Partition partition )
+    {
+        return new ReentrantReadWriteLock();
+    }
 }
@@ -1315,6 +1315,56 @@ public class SubentryServiceIT extends AbstractLdapTestUnit
     }
 
 
+    private Map<String, SearchResult> search( LdapContext context, String filter ) throws Exception
+    {
+        SearchControls searchControls = new SearchControls();
+        searchControls.setSearchScope( SearchControls.SUBTREE_SCOPE );
+        Map<String, SearchResult> entries = new HashMap<String, SearchResult>();
+        NamingEnumeration<SearchResult> list = context.search( "", filter, searchControls );
+
+        while ( list.hasMore() )
+        {
+            SearchResult result = list.next();
+            entries.put( result.getName(), result );
+        }
+
+        return entries;
+    }
+
+
+    /**
+     * The subentry operational attributes are not stored : check that the search
+     * filters using them are evaluated against the subentries selecting the entries
+     */
+    @Test
+    public void testSearchFilterOnSubentryAttributes() throws Exception
+    {
+        LdapContext sysRoot = getSystemContext( getService() );
+        addAdministrativeRole( "collectiveAttributeSpecificArea" );
+        sysRoot.createSubcontext( "cn=testsubentry", getTestSubentry() );
+        sysRoot.createSubcontext( "cn=unmarked", getTestEntry( "unmarked" ) );
+        sysRoot.createSubcontext( "cn=marked,ou=configuration", getTestEntry( "marked" ) );
+
+        Map<String, SearchResult> entries = search( sysRoot, "(collectiveAttributeSubentries=*)" );
+        assertNotNull( entries.get( "cn=marked,ou=configuration,ou=system" ) );
+        assertNull( entries.get( "cn=unmarked,ou=system" ) );
+
+        entries = search( sysRoot,
+            "(&(objectClass=person)(collectiveAttributeSubentries=cn=testsubentry,ou=system))" );
+        assertEquals( 1, entries.size() );
+        assertNotNull( entries.get( "cn=marked,ou=configuration,ou=system" ) );
+
+        entries = search( sysRoot, "(&(objectClass=person)(!(collectiveAttributeSubentries=*)))" );
+        assertNotNull( entries.get( "cn=unmarked,ou=system" ) );
+        assertNull( entries.get( "cn=marked,ou=configuration,ou=system" ) );
+
+        // Once the subentry is deleted, no entry is selected anymore
+        sysRoot.destroySubcontext( "cn=testsubentry" );
+        entries = search( sysRoot, "(collectiveAttributeSubentries=*)" );
+        assertTrue( entries.isEmpty() );
+    }
+
+
     @Test
     @Ignore
     public void testBaseScopeSearchSubentryVisibilityWithoutTheControl() throws Exception
@@ -20,7 +20,6 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.text.ParseException;
@@ -32,9 +31,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
-import jdbm.recman.BaseRecordManager;
-
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
@@ -1200,15 +1198,28 @@ public class DefaultCoreSession implements CoreSession
             }
         }
 
+        boolean sort = ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS );
+
+        // A virtual list view needs a positional access to all the sorted entries : the size
+        // limit applies to the returned window, not to the sorted entries
+        boolean vlv = searchRequest.getControls().containsKey( VirtualListViewRequest.OID );
+
+        // With a single sort key, the partition may return the entries in order using an index
+        if ( sort && !vlv && ( sortControl.getSortKeys().size() == 1 ) )
+        {
+            searchContext.setSortKey( sortControl.getSortKeys().get( 0 ) );
+        }
+
         Cursor<Entry> cursor = null;
 
         try
         {
             cursor = operationManager.search( searchContext );
 
-            if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS ) )
+            if ( sort && !searchContext.isSorted() )
             {
-                cursor = sortResults( cursor, sortControl, getDirectoryService().getSchemaManager() );
+                cursor = sortResults( cursor, sortControl, vlv ? 0L : searchRequest.getSizeLimit(),
+                    getDirectoryService().getSchemaManager() );
             }
 
             // the below condition is to satisfy the scenario 6 in section 2 of rfc2891
@@ -1292,82 +1303,73 @@ public class DefaultCoreSession implements CoreSession
     {
         SortResponse resp = new SortResponseImpl();
 
-        List<SortKey> keys = sortControl.getSortKeys();
-
-        // only ONE key is supported by the server for now
-        if ( keys.size() > 1 )
+        for ( SortKey sk : sortControl.getSortKeys() )
         {
-            ldapResult.setDiagnosticMessage( "Cannot sort results based on more than one attribute" );
-            resp.setSortResult( SortResultCode.UNWILLINGTOPERFORM );
-            return resp;
-        }
-
-        SortKey sk = keys.get( 0 );
-
-        AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
+            AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
 
-        if ( at == null )
-        {
-            ldapResult.setDiagnosticMessage( "No attribute with the name " + sk.getAttributeTypeDesc()
-                + " exists in the server's schema" );
-            resp.setSortResult( SortResultCode.NOSUCHATTRIBUTE );
-            resp.setAttributeName( sk.getAttributeTypeDesc() );
-            return resp;
-        }
-
-        String mrOid = sk.getMatchingRuleId();
-
-        if ( mrOid != null )
-        {
-            MatchingRule mr = at.getOrdering();
-
-            if ( ( mr != null ) && ( !mrOid.equals( mr.getOid() ) ) )
+            if ( at == null )
             {
-                ldapResult.setDiagnosticMessage( "Given matchingrule " + mrOid
-                    + " is not applicable for the attribute " + sk.getAttributeTypeDesc() );
-                resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
+                ldapResult.setDiagnosticMessage( "No attribute with the name " + sk.getAttributeTypeDesc()
+                    + " exists in the server's schema" );
+                resp.setSortResult( SortResultCode.NOSUCHATTRIBUTE );
                 resp.setAttributeName( sk.getAttributeTypeDesc() );
                 return resp;
             }
 
-            try
+            String mrOid = sk.getMatchingRuleId();
+
+            if ( mrOid != null )
             {
-                schemaManager.lookupComparatorRegistry( mrOid );
+                MatchingRule mr = at.getOrdering();
+
+                if ( ( mr != null ) && ( !mrOid.equals( mr.getOid() ) ) )
+                {
+                    ldapResult.setDiagnosticMessage( "Given matchingrule " + mrOid
+                        + " is not applicable for the attribute " + sk.getAttributeTypeDesc() );
+                    resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
+                    resp.setAttributeName( sk.getAttributeTypeDesc() );
+                    return resp;
+                }
+
+                try
+                {
+                    schemaManager.lookupComparatorRegistry( mrOid );
+                }
+                catch ( LdapException e )
+                {
+                    ldapResult.setDiagnosticMessage( "Given matchingrule " + mrOid + " is not supported" );
+                    resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
+                    resp.setAttributeName( sk.getAttributeTypeDesc() );
+                    return resp;
+                }
             }
-            catch ( LdapException e )
+            else
             {
-                ldapResult.setDiagnosticMessage( "Given matchingrule " + mrOid + " is not supported" );
-                resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
-                resp.setAttributeName( sk.getAttributeTypeDesc() );
-                return resp;
-            }
-        }
-        else
-        {
-            MatchingRule mr = at.getOrdering();
+                MatchingRule mr = at.getOrdering();
 
-            if ( mr == null )
-            {
-                mr = at.getEquality();
-            }
+                if ( mr == null )
+                {
+                    mr = at.getEquality();
+                }
 
-            ldapResult.setDiagnosticMessage( "Matchingrule is required for sorting by the attribute "
-                + sk.getAttributeTypeDesc() );
-            resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
-            resp.setAttributeName( sk.getAttributeTypeDesc() );
+                ldapResult.setDiagnosticMessage( "Matchingrule is required for sorting by the attribute "
+                    + sk.getAttributeTypeDesc() );
+                resp.setSortResult( SortResultCode.INAPPROPRIATEMATCHING );
+                resp.setAttributeName( sk.getAttributeTypeDesc() );
 
-            if ( mr == null )
-            {
-                return resp;
-            }
+                if ( mr == null )
+                {
+                    return resp;
+                }
 
-            try
-            {
-                schemaManager.lookupComparatorRegistry( mr.getOid() );
-            }
-            catch ( LdapException e )
-            {
-                return resp;
+                try
+                {
+                    schemaManager.lookupComparatorRegistry( mr.getOid() );
+                }
+                catch ( LdapException e )
+                {
+                    return resp;
+                }
             }
         }
 
@@ -1378,79 +1380,64 @@ public class DefaultCoreSession implements CoreSession
 
 
     /**
-     * Sorts the entries based on the given sortkey and returns the cursor
+     * Sorts the entries based on the given sort keys and returns the cursor. The entries
+     * are sorted in memory, up to the directory service's sort memory limit, beyond which
+     * they are written in sorted runs merged when the cursor is read. When the search is
+     * size limited, only the entries which can be returned are kept.
      * 
      * @param unsortedEntries the cursor containing un-sorted entries
      * @param control the sort control
+     * @param sizeLimit the search request size limit
      * @param schemaManager schema manager
      * @return a cursor containing sorted entries
      * @throws CursorException
      * @throws LdapException
      * @throws IOException
-     * @throws KeyNotFoundException 
      */
-    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, SchemaManager schemaManager )
-        throws CursorException, LdapException, IOException
+    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, long sizeLimit,
+        SchemaManager schemaManager ) throws CursorException, LdapException, IOException
     {
-        unsortedEntries.beforeFirst();
+        SortedEntryComparator comparator = new SortedEntryComparator( control.getSortKeys(), schemaManager );
 
-        Entry first = null;
+        SortedEntrySerializer.setSchemaManager( schemaManager );
+
+        // Keep one more entry than the size limit, so that the limit is still
+        // reported as being exceeded
+        int maxResults = 0;
 
-        if ( unsortedEntries.next() )
+        if ( ( sizeLimit > 0 ) && ( sizeLimit < Integer.MAX_VALUE ) )
         {
-            first = unsortedEntries.get();
+            maxResults = ( int ) sizeLimit + 1;
         }
 
-        if ( !unsortedEntries.next() )
+        EntrySorter sorter = new EntrySorter( comparator, directoryService.getSortMemoryLimit(), maxResults, null );
+
+        try
         {
             unsortedEntries.beforeFirst();
 
-            return unsortedEntries;
-        }
-
-        SortKey sk = control.getSortKeys().get( 0 );
-
-        AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
+            while ( unsortedEntries.next() )
+            {
+                sorter.add( unsortedEntries.get() );
+            }
 
-        SortedEntryComparator comparator = new SortedEntryComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(),
-            schemaManager );
+            unsortedEntries.close();
 
-        SortedEntrySerializer keySerializer = new SortedEntrySerializer();
-        SortedEntrySerializer.setSchemaManager( schemaManager );
-        
-        File file = null;
-        
-        try 
-        {
-            file = File.createTempFile( "replica", ".sorted-data" );    // see DIRSERVER-2007
-        } 
-        catch ( IOException e ) 
+            return new SortedEntryCursor( sorter );
+        }
+        catch ( IOException e )
         {
             // see DIRSERVER-2091
-            LOG.error( "Error creating temp file in directory {} for sorting: {}",  
-                System.getProperty( "java.io.tmpdir" ),  e.getMessage(), e );
+            LOG.error( "Error writing the sorted entries in directory {}: {}",
+                System.getProperty( "java.io.tmpdir" ), e.getMessage(), e );
+            sorter.close();
             throw e;
         }
-
-        BaseRecordManager recMan = new BaseRecordManager( file.getAbsolutePath() );
-
-        jdbm.btree.BTree<Entry, String> btree = new jdbm.btree.BTree<>( recMan, comparator, keySerializer, NullStringSerializer.INSTANCE );
-        
-
-        btree.insert( first, "", false );
-
-        // at this stage the cursor will be _on_ the next element, so read it
-        btree.insert( unsortedEntries.get(), "", false );
-
-        while ( unsortedEntries.next() )
+        catch ( CursorException | LdapException | RuntimeException e )
         {
-            Entry entry = unsortedEntries.get();
-            btree.insert( entry, "", false );
+            sorter.close();
+            throw e;
         }
-
-        unsortedEntries.close();
-
-        return new SortedEntryCursor( btree, recMan, file );
     }
 
 
@@ -1517,6 +1504,8 @@ public class DefaultCoreSession implements CoreSession
             }
         }
         
+        // The next session transaction will start new partition transactions
+        transactionMap.clear();
         hasSessionTransaction = false;
     }
 
@@ -0,0 +1,696 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Sorts the entries returned by a search. The entries are kept in memory as long as
+ * their estimated size is below a limit. When this limit is exceeded, the entries are
+ * sorted and written in a temporary file (a sorted run), and the runs are merged when
+ * the entries are read back. The runs are read through memory mapped buffers.
+ * <br>
+ * When the number of entries to return is bounded (because of a size limit, for instance),
+ * only the smallest entries are kept in a bounded heap, and nothing is written on disk
+ * unless the retained entries exceed the memory limit.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class EntrySorter implements Closeable
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EntrySorter.class );
+
+    /** The size of the mapped window used to read a run */
+    private static final int MAPPED_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    /** The largest size of a run kept in memory */
+    private static final long MAX_MEMORY_LIMIT = Integer.MAX_VALUE;
+
+    /** The estimated overhead of an object */
+    private static final int OBJECT_OVERHEAD = 32;
+
+    /**
+     * An entry and its sort keys
+     */
+    private static class SortedEntry
+    {
+        private final Entry entry;
+
+        private final Object[] keys;
+
+        /** The run this entry has been read from, when merging */
+        private final RunReader run;
+
+
+        private SortedEntry( Entry entry, Object[] keys, RunReader run )
+        {
+            this.entry = entry;
+            this.keys = keys;
+            this.run = run;
+        }
+    }
+
+    /** The entries comparator */
+    private final SortedEntryComparator comparator;
+
+    /** The comparator used to order the SortedEntry instances */
+    private final Comparator<SortedEntry> entryComparator = new Comparator<SortedEntry>()
+    {
+        @Override
+        public int compare( SortedEntry e1, SortedEntry e2 )
+        {
+            return comparator.compareKeys( e1.keys, e2.keys );
+        }
+    };
+
+    /** The maximum estimated size of the entries kept in memory */
+    private final long memoryLimit;
+
+    /** The maximum number of entries to return, 0 if unbounded */
+    private final int maxResults;
+
+    /** The serializer used to write the runs */
+    private final SortedEntrySerializer serializer = new SortedEntrySerializer();
+
+    /** The in memory entries, when the number of results is not bounded */
+    private List<SortedEntry> entries = new ArrayList<>();
+
+    /** The bounded heap, the largest entry on top */
+    private PriorityQueue<SortedEntry> heap;
+
+    /** The estimated size of the in memory entries */
+    private long memorySize;
+
+    /** The number of added entries */
+    private long size;
+
+    /** The number of entries written in the runs */
+    private int nbWritten;
+
+    /** The runs written on disk */
+    private final List<File> runs = new ArrayList<>();
+
+    /** The directory where the runs are written, or null for the default temporary directory */
+    private final File spillDir;
+
+    /** Tells if all the entries have been added */
+    private boolean sorted;
+
+
+    /**
+     * Creates a new instance of EntrySorter.
+     *
+     * @param comparator The entries comparator
+     * @param memoryLimit The maximum estimated size, in bytes, of the entries kept in memory
+     * @param maxResults The maximum number of entries to return, 0 if unbounded
+     * @param spillDir The directory where the runs are written, or null
+     */
+    EntrySorter( SortedEntryComparator comparator, long memoryLimit, int maxResults, File spillDir )
+    {
+        this.comparator = comparator;
+        this.memoryLimit = Math.max( 1L, Math.min( memoryLimit, MAX_MEMORY_LIMIT ) );
+        this.maxResults = Math.max( 0, maxResults );
+        this.spillDir = spillDir;
+
+        if ( this.maxResults > 0 )
+        {
+            heap = new PriorityQueue<>( Math.min( this.maxResults, 1024 ), Collections.reverseOrder( entryComparator ) );
+        }
+    }
+
+
+    /**
+     * Adds an entry.
+     *
+     * @param entry The entry to add
+     * @throws IOException If a run can't be written
+     */
+    void add( Entry entry ) throws IOException
+    {
+        if ( sorted )
+        {
+            throw new IllegalStateException( "The entries have already been sorted" );
+        }
+
+        SortedEntry sortedEntry = new SortedEntry( entry, comparator.getKeys( entry ), null );
+        size++;
+
+        if ( heap != null )
+        {
+            if ( heap.size() < maxResults )
+            {
+                heap.add( sortedEntry );
+                memorySize += estimateSize( entry );
+            }
+            else if ( entryComparator.compare( sortedEntry, heap.peek() ) < 0 )
+            {
+                memorySize -= estimateSize( heap.poll().entry );
+                heap.add( sortedEntry );
+                memorySize += estimateSize( entry );
+            }
+
+            if ( memorySize > memoryLimit )
+            {
+                // The retained entries don't fit in memory : spill them,
+                // and keep going without the heap
+                LOG.debug( "The {} retained entries exceed the memory limit, spilling them", heap.size() );
+                entries.addAll( heap );
+                heap = null;
+                spill();
+            }
+        }
+        else
+        {
+            entries.add( sortedEntry );
+            memorySize += estimateSize( entry );
+
+            if ( memorySize > memoryLimit )
+            {
+                spill();
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of added entries
+     */
+    long size()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The entries comparator
+     */
+    SortedEntryComparator getComparator()
+    {
+        return comparator;
+    }
+
+
+    /**
+     * @return The number of runs written on disk
+     */
+    int getNbRuns()
+    {
+        return runs.size();
+    }
+
+
+    /**
+     * Terminates the addition of entries. The in memory entries are sorted, or written
+     * in a last run if some runs have already been written.
+     *
+     * @throws IOException If the last run can't be written
+     */
+    void sort() throws IOException
+    {
+        if ( sorted )
+        {
+            return;
+        }
+
+        sorted = true;
+
+        if ( heap != null )
+        {
+            entries.addAll( heap );
+            heap = null;
+        }
+
+        if ( runs.isEmpty() )
+        {
+            Collections.sort( entries, entryComparator );
+        }
+        else if ( !entries.isEmpty() )
+        {
+            spill();
+        }
+    }
+
+
+    /**
+     * @return Tells if the sorted entries are all in memory
+     */
+    boolean isInMemory()
+    {
+        return runs.isEmpty();
+    }
+
+
+    /**
+     * @return The number of sorted entries, which may be lower than the number
+     * of added entries when the number of results is bounded
+     */
+    int getNbSorted()
+    {
+        if ( runs.isEmpty() )
+        {
+            return entries.size() + ( heap == null ? 0 : heap.size() );
+        }
+
+        return nbWritten + entries.size();
+    }
+
+
+    /**
+     * Gets a sorted entry, when all the entries are in memory.
+     *
+     * @param index The position of the entry
+     * @return The entry
+     */
+    Entry get( int index )
+    {
+        return entries.get( index ).entry;
+    }
+
+
+    /**
+     * Finds the position of the first sorted entry whose first sort key doesn't come before
+     * an assertion key. The in memory entries are searched by dichotomy, while the runs are
+     * merged until the position is found.
+     *
+     * @param assertionKey The assertion key, as returned by the comparator
+     * @return The position of the entry, or the number of sorted entries if all the entries
+     * come before the assertion key
+     * @throws IOException If the runs can't be read
+     */
+    int indexOf( Object assertionKey ) throws IOException
+    {
+        if ( !sorted )
+        {
+            sort();
+        }
+
+        if ( runs.isEmpty() )
+        {
+            int low = 0;
+            int high = entries.size();
+
+            while ( low < high )
+            {
+                int middle = ( low + high ) >>> 1;
+
+                if ( comparator.compareFirstKey( entries.get( middle ).keys, assertionKey ) < 0 )
+                {
+                    low = middle + 1;
+                }
+                else
+                {
+                    high = middle;
+                }
+            }
+
+            return low;
+        }
+
+        Iterator<Entry> iterator = iterator();
+        int index = 0;
+
+        try
+        {
+            while ( iterator.hasNext() )
+            {
+                if ( comparator.compareFirstKey( comparator.getKeys( iterator.next() ), assertionKey ) >= 0 )
+                {
+                    return index;
+                }
+
+                index++;
+            }
+
+            return index;
+        }
+        finally
+        {
+            ( ( Closeable ) iterator ).close();
+        }
+    }
+
+
+    /**
+     * Creates an iterator on the sorted entries. When runs have been written, they are
+     * merged by the iterator, each call creating a new iterator which reads the runs from
+     * the beginning. Such an iterator must be closed if it's abandoned before its end.
+     *
+     * @return An iterator on the sorted entries
+     * @throws IOException If the runs can't be read
+     */
+    Iterator<Entry> iterator() throws IOException
+    {
+        if ( !sorted )
+        {
+            sort();
+        }
+
+        if ( runs.isEmpty() )
+        {
+            final Iterator<SortedEntry> iterator = entries.iterator();
+
+            return new Iterator<Entry>()
+            {
+                @Override
+                public boolean hasNext()
+                {
+                    return iterator.hasNext();
+                }
+
+
+                @Override
+                public Entry next()
+                {
+                    return iterator.next().entry;
+                }
+
+
+                @Override
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        return new MergeIterator();
+    }
+
+
+    /**
+     * Sorts the in memory entries and writes them in a new run
+     */
+    private void spill() throws IOException
+    {
+        Collections.sort( entries, entryComparator );
+
+        // The runs are deleted by close()
+        File run = File.createTempFile( "sort", ".run", spillDir );
+        runs.add( run );
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( run ) ) ) )
+        {
+            for ( SortedEntry sortedEntry : entries )
+            {
+                byte[] data = serializer.serialize( sortedEntry.entry );
+                out.writeInt( data.length );
+                out.write( data );
+            }
+        }
+
+        LOG.debug( "Spilled {} entries in the run {}", entries.size(), run );
+        nbWritten += entries.size();
+
+        entries = new ArrayList<>();
+        memorySize = 0L;
+    }
+
+
+    /**
+     * Estimates the heap used by an entry
+     */
+    private static long estimateSize( Entry entry )
+    {
+        long estimate = OBJECT_OVERHEAD * 2L + entry.getDn().getName().length() * 4L;
+
+        for ( Attribute attribute : entry )
+        {
+            estimate += OBJECT_OVERHEAD * 2L + attribute.getUpId().length() * 2L;
+
+            for ( Value value : attribute )
+            {
+                if ( value.isHumanReadable() )
+                {
+                    // The user provided and the normalized values
+                    estimate += OBJECT_OVERHEAD * 2L + value.getValue().length() * 4L;
+                }
+                else
+                {
+                    estimate += OBJECT_OVERHEAD + value.length();
+                }
+            }
+        }
+
+        return estimate;
+    }
+
+
+    /**
+     * Deletes the runs
+     */
+    @Override
+    public void close()
+    {
+        for ( File run : runs )
+        {
+            if ( !run.delete() )
+            {
+                LOG.warn( "Failed to delete the sorted entries file {}", run );
+            }
+        }
+
+        runs.clear();
+        entries = new ArrayList<>();
+        heap = null;
+    }
+
+
+    /**
+     * Reads a run through a mapped window, which is moved forward as the entries are read
+     */
+    private class RunReader implements Closeable
+    {
+        private final RandomAccessFile raf;
+
+        private final FileChannel channel;
+
+        private final long length;
+
+        /** The position of the mapped window in the file */
+        private long base;
+
+        private MappedByteBuffer buffer;
+
+
+        private RunReader( File run ) throws IOException
+        {
+            raf = new RandomAccessFile( run, "r" );
+            channel = raf.getChannel();
+            length = channel.size();
+            map( 0L, 0 );
+        }
+
+
+        /**
+         * Maps a window starting at the given position, containing at least nbBytes bytes
+         */
+        private void map( long position, int nbBytes ) throws IOException
+        {
+            base = position;
+            buffer = channel.map( FileChannel.MapMode.READ_ONLY, position,
+                Math.min( Math.max( MAPPED_WINDOW_SIZE, nbBytes ), length - position ) );
+        }
+
+
+        /**
+         * Makes sure the next nbBytes bytes are mapped
+         */
+        private void ensure( int nbBytes ) throws IOException
+        {
+            if ( buffer.remaining() < nbBytes )
+            {
+                map( base + buffer.position(), nbBytes );
+            }
+        }
+
+
+        /**
+         * @return The next entry of the run, or null if the run has been completely read
+         */
+        private SortedEntry next() throws IOException
+        {
+            if ( base + buffer.position() >= length )
+            {
+                return null;
+            }
+
+            ensure( 4 );
+            int len = buffer.getInt();
+            ensure( len );
+
+            byte[] data = new byte[len];
+            buffer.get( data );
+
+            Entry entry = ( Entry ) serializer.deserialize( data );
+
+            return new SortedEntry( entry, comparator.getKeys( entry ), this );
+        }
+
+
+        @Override
+        public void close() throws IOException
+        {
+            buffer = null;
+            raf.close();
+        }
+    }
+
+
+    /**
+     * Merges the runs
+     */
+    private class MergeIterator implements Iterator<Entry>, Closeable
+    {
+        private final PriorityQueue<SortedEntry> queue;
+
+        private final List<RunReader> readers = new ArrayList<>();
+
+
+        private MergeIterator() throws IOException
+        {
+            queue = new PriorityQueue<>( runs.size(), entryComparator );
+
+            try
+            {
+                for ( File run : runs )
+                {
+                    RunReader reader = new RunReader( run );
+                    readers.add( reader );
+                    SortedEntry first = reader.next();
+
+                    if ( first != null )
+                    {
+                        queue.add( first );
+                    }
+                }
+            }
+            catch ( IOException ioe )
+            {
+                closeReaders();
+                throw ioe;
+            }
+
+            if ( queue.isEmpty() )
+            {
+                closeReaders();
+            }
+        }
+
+
+        @Override
+        public boolean hasNext()
+        {
+            return !queue.isEmpty();
+        }
+
+
+        @Override
+        public Entry next()
+        {
+            SortedEntry sortedEntry = queue.poll();
+
+            if ( sortedEntry == null )
+            {
+                throw new NoSuchElementException();
+            }
+
+            try
+            {
+                SortedEntry following = sortedEntry.run.next();
+
+                if ( following != null )
+                {
+                    queue.add( following );
+                }
+                else if ( queue.isEmpty() )
+                {
+                    closeReaders();
+                }
+            }
+            catch ( IOException ioe )
+            {
+                closeReaders();
+                throw new RuntimeException( ioe );
+            }
+
+            return sortedEntry.entry;
+        }
+
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        /**
+         * Closes the runs, when the iterator is abandoned before its end
+         */
+        @Override
+        public void close()
+        {
+            queue.clear();
+            closeReaders();
+        }
+
+
+        private void closeReaders()
+        {
+            for ( RunReader reader : readers )
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch ( IOException ioe )
+                {
+                    LOG.warn( "Failed to close a sorted entries file", ioe );
+                }
+            }
+
+            readers.clear();
+        }
+    }
+}
@@ -20,190 +20,257 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.Serializable;
 import java.util.Comparator;
-import java.util.TreeSet;
+import java.util.List;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.LdapComparator;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.ParsedDnComparator;
+import org.apache.directory.api.util.Strings;
 
 /**
- * A comparator to sort the entries as per <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>
+ * A comparator to sort the entries as per <a href="http://tools.ietf.org/html/rfc2891">RFC 2891</a>.
+ * The entries are compared on each sort key in turn, the next key being used only when
+ * the previous ones are equal.
+ * <br>
+ * The values used for the comparison can be extracted once per entry with {@link #getKeys(Entry)},
+ * and compared with {@link #compareKeys(Object[], Object[])}, which avoids extracting them again
+ * each time an entry is compared.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
-class SortedEntryComparator implements Comparator<Entry>, Serializable
+public class SortedEntryComparator implements Comparator<Entry>
 {
+    /** the attributes' type, one per sort key */
+    private final AttributeType[] types;
 
-    /** the attribute's type */
-    private transient AttributeType type;
+    /** comparators used for comparing the values of the given attribute types */
+    private final LdapComparator<Object>[] comparators;
 
-    /** comparator used for comparing the values of the given attribute type */
-    private transient LdapComparator comparator;
+    /** flags for indicating the order of sorting */
+    private final boolean[] reverse;
 
-    /** flag to indicate if the attribute type is multivalued */
-    private boolean multivalued;
+    /** flags to indicate if the attributes are human readable or binary */
+    private final boolean[] hr;
 
-    /** flag for indicating the order of sorting */
-    private boolean reverse;
+    /** flags to indicate if the sort key is the entry's DN */
+    private final boolean[] entryDn;
 
-    /** flag to indicate if the attribute is human readable or binary */
-    private boolean hr;
+    /** the schema manager */
+    private final SchemaManager schemaManager;
 
 
     /**
      * 
      * Creates a new instance of SortedEntryComparator.
      *
-     * @param at the attribute's type
-     * @param mrOid the OID or name of the matchingrule
-     * @param reverse flag to indicate the sort order
+     * @param sortKeys the sort keys, in order of precedence
+     * @param schemaManager the schema manager
+     * @throws LdapException if one of the comparators can't be found
      */
-    SortedEntryComparator( AttributeType at, String mrule, boolean reverse, SchemaManager schemaManager ) throws LdapException
+    @SuppressWarnings("unchecked")
+    public SortedEntryComparator( List<SortKey> sortKeys, SchemaManager schemaManager ) throws LdapException
     {
-        this.type = at;
-        this.reverse = reverse;
+        int nbKeys = sortKeys.size();
+        types = new AttributeType[nbKeys];
+        comparators = new LdapComparator[nbKeys];
+        reverse = new boolean[nbKeys];
+        hr = new boolean[nbKeys];
+        entryDn = new boolean[nbKeys];
+        this.schemaManager = schemaManager;
 
-        if ( !at.isSingleValued() )
+        for ( int i = 0; i < nbKeys; i++ )
         {
-            multivalued = true;
-        }
-        
-        // Special case : entryDn
-        if ( SchemaConstants.ENTRY_DN_AT_OID.equals( at.getOid() ) )
-        {
-            // We will use the Entry's DN comparator.
-            comparator = new ParsedDnComparator( SchemaConstants.ENTRY_DN_AT_OID );
-            comparator.setSchemaManager( schemaManager );
-            hr = true;
-        }
-        else
-        { 
-            hr = at.getSyntax().isHumanReadable();
-    
-            if ( mrule != null )
+            SortKey sk = sortKeys.get( i );
+            AttributeType at = schemaManager.lookupAttributeTypeRegistry( sk.getAttributeTypeDesc() );
+            LdapComparator<?> comparator;
+
+            types[i] = at;
+            reverse[i] = sk.isReverseOrder();
+
+            // Special case : entryDn
+            if ( SchemaConstants.ENTRY_DN_AT_OID.equals( at.getOid() ) )
             {
-                comparator = schemaManager.lookupComparatorRegistry( mrule );
+                // We will use the Entry's DN comparator.
+                comparator = new ParsedDnComparator( SchemaConstants.ENTRY_DN_AT_OID );
+                hr[i] = true;
+                entryDn[i] = true;
             }
             else
             {
-                MatchingRule mr = at.getOrdering();
-                
-                if ( mr == null )
+                hr[i] = at.getSyntax().isHumanReadable();
+                String mrule = sk.getMatchingRuleId();
+
+                if ( mrule != null )
                 {
-                    mr = at.getEquality();
+                    comparator = schemaManager.lookupComparatorRegistry( mrule );
+                }
+                else
+                {
+                    MatchingRule mr = at.getOrdering();
+
+                    if ( mr == null )
+                    {
+                        mr = at.getEquality();
+                    }
+
+                    comparator = schemaManager.lookupComparatorRegistry( mr.getOid() );
                 }
-                
-                comparator = schemaManager.lookupComparatorRegistry( mr.getOid() );
             }
-            
+
             comparator.setSchemaManager( schemaManager );
+            comparators[i] = ( LdapComparator<Object> ) comparator;
         }
     }
 
 
-    @Override
-    public int compare( Entry entry1, Entry entry2 )
+    /**
+     * Extracts the values used to compare an entry, one per sort key. The value of a
+     * multi-valued attribute is its least value. A null key means that the entry does
+     * not have the attribute.
+     *
+     * @param entry the entry
+     * @return the sort keys of this entry
+     */
+    public Object[] getKeys( Entry entry )
     {
-        Attribute at1 = entry1.get( type );
-
-        Attribute at2 = entry2.get( type );
-
-        // as per section 2.2 of the spec null values are considered larger
-        if ( at1 == null )
-        {
-            return reverse ? -1 : 1;
-        }
-        else if ( at2 == null )
-        {
-            return reverse ? 1 : -1;
-        }
-
-        Object o1;
-        Object o2;
+        Object[] keys = new Object[types.length];
 
-        if ( multivalued )
+        for ( int i = 0; i < types.length; i++ )
         {
-            TreeSet ts = new TreeSet( comparator );
-
-            o1 = sortAndGetFirst( at1, ts );
+            if ( entryDn[i] )
+            {
+                keys[i] = entry.getDn();
+                continue;
+            }
 
-            ts.clear();
-            o2 = sortAndGetFirst( at2, ts );
-        }
-        else
-        {
-            Value v1 = at1.get();
-            Value v2 = at2.get();
+            Attribute attribute = entry.get( types[i] );
 
-            if ( hr )
+            if ( attribute == null )
             {
-                o1 = v1.getValue();
-                o2 = v2.getValue();
+                continue;
             }
-            else
+
+            Object least = null;
+
+            for ( Value value : attribute )
             {
-                o1 = v1.getBytes();
-                o2 = v2.getBytes();
+                Object key = hr[i] ? value.getNormalized() : value.getBytes();
+
+                if ( ( least == null ) || ( ( key != null ) && ( comparators[i].compare( key, least ) < 0 ) ) )
+                {
+                    least = key;
+                }
             }
+
+            keys[i] = least;
         }
 
-        int c;
+        return keys;
+    }
+
 
-        try
+    /**
+     * Compares the sort keys of two entries.
+     *
+     * @param keys1 the keys of the first entry
+     * @param keys2 the keys of the second entry
+     * @return a negative value if the first entry comes first, a positive value if it comes
+     * last, 0 if both entries have the same keys
+     */
+    public int compareKeys( Object[] keys1, Object[] keys2 )
+    {
+        for ( int i = 0; i < keys1.length; i++ )
         {
-            if ( reverse )
+            Object o1 = keys1[i];
+            Object o2 = keys2[i];
+
+            if ( o1 == o2 )
             {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o2 ), o1 );
+                continue;
             }
-            else
+
+            // as per section 2.2 of the spec null values are considered larger
+            if ( o1 == null )
             {
-                c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o1 ), o2 );
+                return reverse[i] ? -1 : 1;
             }
-    
-            if ( c == 0 )
+            else if ( o2 == null )
             {
-                return 1;
+                return reverse[i] ? 1 : -1;
             }
 
-            return c;
+            int c = comparators[i].compare( o1, o2 );
+
+            if ( c != 0 )
+            {
+                return reverse[i] ? -c : c;
+            }
         }
-        catch ( LdapException le )
+
+        return 0;
+    }
+
+
+    /**
+     * Converts an assertion value into a key which can be compared with the first sort
+     * key of the entries, using {@link #compareFirstKey(Object[], Object)}.
+     *
+     * @param assertionValue the assertion value
+     * @return the key of the assertion value
+     * @throws LdapException if the value is not valid for the first sort key attribute
+     */
+    Object getAssertionKey( byte[] assertionValue ) throws LdapException
+    {
+        if ( entryDn[0] )
         {
-            return 0;
+            return new Dn( schemaManager, Strings.utf8ToString( assertionValue ) );
         }
+
+        if ( hr[0] )
+        {
+            return new Value( types[0], Strings.utf8ToString( assertionValue ) ).getNormalized();
+        }
+
+        return assertionValue;
     }
 
 
     /**
-     * sorts the values of an attribute and picks the least value
-     * 
-     * @param at the attribute
-     * @param ts the TreeSet for sorting 
-     * @return the least value among the values of the attribute
+     * Compares the first sort key of an entry with an assertion key.
+     *
+     * @param keys the keys of the entry
+     * @param assertionKey the assertion key
+     * @return a negative value if the entry comes before the assertion key, a positive value
+     * if it comes after it, 0 if both are equal
      */
-    private Object sortAndGetFirst( Attribute at, TreeSet ts )
+    int compareFirstKey( Object[] keys, Object assertionKey )
     {
-        for ( Value v : at )
+        Object key = keys[0];
+
+        if ( key == null )
         {
-            if ( hr )
-            {
-                ts.add( v.getNormalized() );
-            }
-            else
-            {
-                ts.add( v.getBytes() );
-            }
+            return reverse[0] ? -1 : 1;
         }
 
-        return ts.first();
+        int c = comparators[0].compare( key, assertionKey );
+
+        return reverse[0] ? -c : c;
+    }
+
+
+    @Override
+    public int compare( Entry entry1, Entry entry2 )
+    {
+        return compareKeys( getKeys( entry1 ), getKeys( entry2 ) );
     }
-}
\ No newline at end of file
+}
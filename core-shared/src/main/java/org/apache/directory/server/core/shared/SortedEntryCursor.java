@@ -20,15 +20,10 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.File;
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
-import java.util.NoSuchElementException;
-
-import jdbm.RecordManager;
-import jdbm.btree.BTree;
-import jdbm.helper.Tuple;
-import jdbm.helper.TupleBrowser;
 
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -45,8 +40,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Cursor for sorted entries.
  * 
- * Note: This currently uses JDBM, but will be migrated to use Mavibot
- *       when ready.
+ * The entries are read from an {@link EntrySorter}. When all the sorted entries are in
+ * memory, the cursor moves freely in both directions. When the entries have been
+ * written in sorted runs, the runs are merged as the cursor moves forward, and moving
+ * backward restarts the merge.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -54,31 +51,38 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
 {
 
     private static final Logger LOG = LoggerFactory.getLogger( SortedEntryCursor.class );
-    
-    private TupleBrowser browser;
 
-    private final Tuple tuple = new Tuple();
+    /** The sorted entries */
+    private EntrySorter sorter;
+
+    /** The number of sorted entries */
+    private final int nbEntries;
+
+    /** The position of the cursor, -1 if before the first entry, nbEntries if after the last one */
+    private int position = -1;
+
+    /** The current entry */
+    private Entry current;
 
-    private RecordManager recMan;
+    /** The iterator merging the runs, when the entries are not in memory */
+    private Iterator<Entry> iterator;
 
-    private File dataFile;
-    
-    private BTree<Entry, String> btree;
-    
+    /** The number of entries read from the iterator */
+    private int consumed;
 
-    public SortedEntryCursor( BTree<Entry, String> btree, RecordManager recMan, File dataFile ) throws IOException
+
+    /** no qualifier */ SortedEntryCursor( EntrySorter sorter ) throws IOException
     {
-        this.recMan = recMan;
-        this.dataFile = dataFile;
-        this.btree = btree;
-        browser = btree.browse();
+        this.sorter = sorter;
+        sorter.sort();
+        nbEntries = sorter.getNbSorted();
     }
 
 
     @Override
     public boolean available()
     {
-        return tuple.getKey() != null;
+        return current != null;
     }
 
 
@@ -99,31 +103,18 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public void beforeFirst() throws LdapException, CursorException
     {
-        try
-        {
-            clearValue();
-            browser = btree.browse();
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
+        checkNotClosed();
+        position = -1;
+        current = null;
     }
 
 
     @Override
     public void afterLast() throws LdapException, CursorException
     {
-        try
-        {
-            clearValue();
-            browser = btree.browse( null );
-        }
-        catch ( IOException e )
-        {
-            throw new CursorException( e );
-        }
-
+        checkNotClosed();
+        position = nbEntries;
+        current = null;
     }
 
 
@@ -146,80 +137,172 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public boolean previous() throws LdapException, CursorException
     {
-        try
-        {
+        checkNotClosed();
 
-            if ( browser == null )
-            {
-                browser = btree.browse( null );
-            }
-            
-            if ( browser.getPrevious( tuple ) )
-            {
-                return true;
-            }
-        }
-        catch ( IOException e )
+        if ( position <= 0 )
         {
-            throw new CursorException( e );
+            position = -1;
+            current = null;
+
+            return false;
         }
-        catch ( NoSuchElementException e )
+
+        position--;
+        current = fetch( position );
+
+        return current != null;
+    }
+
+
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( position >= nbEntries - 1 )
         {
-            // ignore this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasPrev())
+            position = nbEntries;
+            current = null;
+
+            return false;
         }
 
-        clearValue();
-        return false;
+        position++;
+        current = fetch( position );
+
+        return current != null;
     }
 
 
     @Override
-    public boolean next() throws LdapException, CursorException
+    public Entry get() throws CursorException
     {
-        try
+        if ( current == null )
         {
-            if ( browser == null )
-            {
-                browser = btree.browse();
-            }
-            
-            if ( browser.getNext( tuple ) )
-            {
-                return true;
-            }
+            throw new InvalidCursorPositionException();
         }
-        catch ( IOException e )
+
+        return current;
+    }
+
+
+    /**
+     * @return The number of sorted entries
+     */
+    public int size()
+    {
+        return nbEntries;
+    }
+
+
+    /**
+     * Positions the cursor on the entry at the given position, the first entry being at
+     * position 0. When the position is out of bounds, the cursor is positioned before the
+     * first entry or after the last one.
+     *
+     * @param index The position of the entry
+     * @return true if the cursor is positioned on an entry
+     * @throws CursorException If the entry can't be read
+     */
+    public boolean moveTo( int index ) throws CursorException
+    {
+        checkNotClosed();
+
+        if ( index < 0 )
         {
-            throw new CursorException( e );
+            position = -1;
+            current = null;
+
+            return false;
         }
-        catch ( NoSuchElementException e )
+
+        if ( index >= nbEntries )
         {
-            // ignore, this is due to the call wrapped.prev()
-            // instead of doing a check like if(wrapped.hasNext())
+            position = nbEntries;
+            current = null;
+
+            return false;
         }
 
-        clearValue();
-        return false;
+        position = index;
+        current = fetch( position );
+
+        return current != null;
     }
 
 
-    @Override
-    public Entry get() throws CursorException
+    /**
+     * Finds the position of the first entry whose primary sort key value doesn't come
+     * before an assertion value, as required by the virtual list view control. The cursor
+     * is not moved.
+     *
+     * @param assertionValue The assertion value
+     * @return The position of the entry, or the number of entries if they all come before
+     * the assertion value
+     * @throws LdapException If the assertion value isn't valid for the primary sort key
+     * @throws CursorException If the entries can't be read
+     */
+    public int indexOf( byte[] assertionValue ) throws LdapException, CursorException
     {
-        if ( tuple.getKey() == null )
+        checkNotClosed();
+
+        try
         {
-            throw new InvalidCursorPositionException();
+            return sorter.indexOf( sorter.getComparator().getAssertionKey( assertionValue ) );
         }
+        catch ( IOException | RuntimeException e )
+        {
+            throw new CursorException( e );
+        }
+    }
+
 
-        return ( Entry ) tuple.getKey();
+    /**
+     * Reads the entry at the given position
+     */
+    private Entry fetch( int index ) throws CursorException
+    {
+        if ( sorter.isInMemory() )
+        {
+            return sorter.get( index );
+        }
+
+        try
+        {
+            // Restart the merge if we have to move backward
+            if ( ( iterator == null ) || ( consumed > index ) )
+            {
+                closeIterator();
+                iterator = sorter.iterator();
+                consumed = 0;
+            }
+
+            while ( ( consumed < index ) && iterator.hasNext() )
+            {
+                iterator.next();
+                consumed++;
+            }
+
+            if ( iterator.hasNext() )
+            {
+                consumed++;
+
+                return iterator.next();
+            }
+
+            return null;
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            throw new CursorException( e );
+        }
     }
 
 
     @Override
     public void close() throws IOException
     {
-        deleteFile();
+        release();
         super.close();
     }
 
@@ -227,7 +310,7 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     @Override
     public void close( Exception cause ) throws IOException
     {
-        deleteFile();
+        release();
         super.close( cause );
     }
 
@@ -252,29 +335,39 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
         return null;
     }
 
-    
-    private void clearValue()
+
+    private void closeIterator() throws IOException
     {
-        tuple.setKey( null );
-        tuple.setValue( null );
+        if ( iterator instanceof Closeable )
+        {
+            ( ( Closeable ) iterator ).close();
+        }
+
+        iterator = null;
     }
 
-    
-    private void deleteFile()
+
+    /**
+     * Closes the runs being merged, and deletes them
+     */
+    private void release()
     {
-        if ( recMan == null )
+        if ( sorter == null )
         {
             return;
         }
 
         try
         {
-            recMan.close();
-            dataFile.delete();
+            closeIterator();
         }
         catch ( IOException e )
         {
-            LOG.warn( "Failed to delete the sorted entry data file {}", dataFile, e );
+            LOG.warn( "Failed to close the sorted entries", e );
         }
+
+        sorter.close();
+        sorter = null;
+        current = null;
     }
 }
@@ -30,6 +30,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -51,6 +59,7 @@ import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.message.extended.NoticeOfDisconnect;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
@@ -84,6 +93,7 @@ import org.apache.directory.server.core.api.partition.PartitionReadTxn;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.api.partition.Subordinates;
+import org.apache.directory.server.core.shared.SortedEntryComparator;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -128,6 +138,12 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     /** The cn=schema Dn */
     private Dn subschemaSubentryDn;
 
+    /** The number of entries prefetched for each partition by a concurrent search */
+    private static final int SEARCH_BUFFER_SIZE = 256;
+
+    /** The executor searching the partitions concurrently, null if they are searched in turn */
+    private ThreadPoolExecutor searchExecutor;
+
 
     /**
      * Creates the root nexus singleton of the entire system.  The root DSE has
@@ -242,6 +258,8 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
 
                 createContextCsnModList();
 
+                createSearchExecutor();
+
                 initialized = true;
             }
             finally
@@ -274,6 +292,37 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     }
 
 
+    /**
+     * Creates the executor used to search the partitions concurrently, if the
+     * DirectoryService is configured to do so.
+     */
+    private void createSearchExecutor()
+    {
+        int searchThreads = directoryService.getSearchThreads();
+
+        if ( searchThreads <= 0 )
+        {
+            return;
+        }
+
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                newThread.setDaemon( true );
+
+                return newThread;
+            }
+        };
+
+        searchExecutor = new ThreadPoolExecutor( searchThreads, searchThreads, 1000, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), threadFactory );
+        searchExecutor.allowCoreThreadTimeOut( true );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -299,6 +348,12 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             }
         }
 
+        if ( searchExecutor != null )
+        {
+            searchExecutor.shutdownNow();
+            searchExecutor = null;
+        }
+
         initialized = false;
     }
 
@@ -665,6 +720,11 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     {
         ExprNode filter = searchContext.getFilter();
 
+        // The entries coming from many partitions can only be returned in the sort order
+        // when they are merged by a concurrent search
+        SortKey sortKey = searchContext.getSortKey();
+        searchContext.setSortKey( null );
+
         // We are searching from the rootDSE. We have to distinguish three cases :
         // 1) The scope is OBJECT : we have to return the rootDSE entry, filtered
         // 2) The scope is ONELEVEL : we have to return all the Naming Contexts
@@ -724,6 +784,11 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
 
             return new CursorList( cursors, searchContext );
         }
+        else if ( ( searchExecutor != null ) && ( partitions.size() > 1 ) )
+        {
+            // This is a SUBLEVEL search, the partitions are searched concurrently
+            return searchConcurrently( searchContext, sortKey );
+        }
         else
         {
             // This is a SUBLEVEL search. We will do multiple searches and wrap
@@ -776,6 +841,147 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     }
 
 
+    /**
+     * Searches all the partitions concurrently, each partition being searched with its own
+     * copy of the search context. The entries are then read by the executor threads, and
+     * returned as soon as they are available. When all the partitions have returned their
+     * entries in the order of the sort key, the entries are merged in this order.
+     *
+     * @param searchContext The search operation context
+     * @param sortKey The key the entries will be sorted on, or null
+     * @return The cursor on the entries of all the partitions
+     * @throws LdapException If one of the partitions can't be searched
+     */
+    private EntryFilteringCursor searchConcurrently( SearchOperationContext searchContext, SortKey sortKey )
+        throws LdapException
+    {
+        List<SearchOperationContext> partitionContexts = new ArrayList<>( partitions.size() );
+        List<Future<EntryFilteringCursor>> futures = new ArrayList<>( partitions.size() );
+
+        for ( final Partition partition : partitions.values() )
+        {
+            final SearchOperationContext partitionContext = new SearchOperationContext( searchContext );
+            partitionContext.setSortKey( sortKey );
+            partitionContexts.add( partitionContext );
+
+            futures.add( searchExecutor.submit( new Callable<EntryFilteringCursor>()
+            {
+                @Override
+                public EntryFilteringCursor call() throws Exception
+                {
+                    return searchPartition( partition, partitionContext );
+                }
+            } ) );
+        }
+
+        List<EntryFilteringCursor> cursors = new ArrayList<>();
+        boolean sorted = sortKey != null;
+        LdapException failure = null;
+
+        for ( int i = 0; i < futures.size(); i++ )
+        {
+            try
+            {
+                EntryFilteringCursor cursor = futures.get( i ).get();
+
+                if ( cursor != null )
+                {
+                    cursors.add( cursor );
+                    sorted &= partitionContexts.get( i ).isSorted();
+                }
+            }
+            catch ( ExecutionException ee )
+            {
+                if ( ee.getCause() instanceof LdapException )
+                {
+                    failure = ( LdapException ) ee.getCause();
+                }
+                else
+                {
+                    failure = new LdapOtherException( ee.getCause().getMessage(), ee.getCause() );
+                }
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                failure = new LdapOtherException( ie.getMessage(), ie );
+            }
+        }
+
+        if ( failure != null )
+        {
+            for ( EntryFilteringCursor cursor : cursors )
+            {
+                try
+                {
+                    cursor.close();
+                }
+                catch ( IOException ioe )
+                {
+                    LOG.warn( "Failed to close the cursor", ioe );
+                }
+            }
+
+            throw failure;
+        }
+
+        if ( cursors.isEmpty() )
+        {
+            // No candidate, return an emtpy cursor
+            return new EntryFilteringCursorImpl( new EmptyCursor<Entry>(), searchContext,
+                directoryService.getSchemaManager() );
+        }
+
+        // The entries can only be merged on the sort key if it's returned with them
+        SortedEntryComparator comparator = null;
+
+        if ( sorted )
+        {
+            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( sortKey.getAttributeTypeDesc() );
+
+            if ( SchemaConstants.ENTRY_DN_AT_OID.equals( attributeType.getOid() )
+                || searchContext.contains( schemaManager, attributeType ) )
+            {
+                comparator = new SortedEntryComparator( Collections.singletonList( sortKey ), schemaManager );
+                searchContext.setSorted( true );
+            }
+        }
+
+        return new ParallelSearchCursor( cursors, searchExecutor, SEARCH_BUFFER_SIZE, comparator, searchContext );
+    }
+
+
+    /**
+     * Searches a partition from its context entry.
+     *
+     * @param partition The partition to search
+     * @param partitionContext The search context dedicated to this partition
+     * @return The cursor on the partition entries, or null if the context entry doesn't exist
+     * @throws LdapException If the partition can't be searched
+     */
+    private EntryFilteringCursor searchPartition( Partition partition, SearchOperationContext partitionContext )
+        throws LdapException
+    {
+        PartitionTxn partitionTxn = partition.beginReadTransaction();
+        Dn contextDn = partition.getSuffixDn();
+        HasEntryOperationContext hasEntryContext = new HasEntryOperationContext(
+            partitionContext.getSession(), contextDn );
+        hasEntryContext.setPartition( partition );
+        hasEntryContext.setTransaction( partitionTxn );
+        partitionContext.setPartition( partition );
+        partitionContext.setTransaction( partitionTxn );
+
+        if ( !partition.hasEntry( hasEntryContext ) )
+        {
+            return null;
+        }
+
+        partitionContext.setDn( contextDn );
+
+        return partition.search( partitionContext );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,804 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared.partition;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.filtering.EntryFilter;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.shared.SortedEntryComparator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A cursor reading the cursors of many partitions concurrently. Each partition cursor
+ * is read by a producer task, which prefetches its entries in a bounded buffer : when
+ * the buffer is full, the producer task ends, and is submitted again once the buffer
+ * has been half consumed, so that a slow client doesn't hold the threads.
+ * <br>
+ * When all the partitions return their entries in the order of a sort key, the entries
+ * are merged in this order. Otherwise, they are returned as soon as they are read.
+ * <br>
+ * The entries are read forward : the cursor can only move back by one entry, and moving
+ * it before the first entry once entries have been read restarts the partitions cursors.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ParallelSearchCursor extends AbstractCursor<Entry> implements EntryFilteringCursor
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ParallelSearchCursor.class );
+
+    /** The delay between two checks of the cursor state while waiting for an entry */
+    private static final long POLL_DELAY = 100L;
+
+    /** The marker added by a producer once its cursor has been read */
+    private static final Object END = new Object();
+
+    /**
+     * The error met by a producer
+     */
+    private static class Failure
+    {
+        private final Exception cause;
+
+
+        private Failure( Exception cause )
+        {
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * The head entry of a producer, when merging the sorted entries
+     */
+    private static class Head
+    {
+        private final Entry entry;
+
+        private final Object[] keys;
+
+        private final int producer;
+
+
+        private Head( Entry entry, Object[] keys, int producer )
+        {
+            this.entry = entry;
+            this.keys = keys;
+            this.producer = producer;
+        }
+    }
+
+    /**
+     * Reads a partition cursor, and adds its entries in a buffer.
+     */
+    private class Producer implements Runnable
+    {
+        /** The partition cursor */
+        private final EntryFilteringCursor cursor;
+
+        /** The buffer the entries are added to */
+        private final BlockingQueue<Object> buffer;
+
+        /** Set when the buffer is full and the task has ended */
+        private final AtomicBoolean parked = new AtomicBoolean( false );
+
+        /** The element which couldn't be added to the full buffer */
+        private volatile Object pending;
+
+        /** Tells if the cursor must be moved before its first entry */
+        private boolean rewind;
+
+        /** Tells if the cursor has been read */
+        private boolean done;
+
+
+        private Producer( EntryFilteringCursor cursor, BlockingQueue<Object> buffer )
+        {
+            this.cursor = cursor;
+            this.buffer = buffer;
+        }
+
+
+        @Override
+        public synchronized void run()
+        {
+            while ( !closed && !stopping && !done )
+            {
+                Object element = pending;
+
+                if ( element == null )
+                {
+                    element = read();
+                }
+
+                if ( !offer( element ) )
+                {
+                    return;
+                }
+
+                done = ( element == END ) || ( element instanceof Failure );
+            }
+        }
+
+
+        /**
+         * @return The next entry of the cursor, END if it has been read, or the error met
+         */
+        private Object read()
+        {
+            try
+            {
+                if ( rewind )
+                {
+                    rewind = false;
+                    cursor.beforeFirst();
+                }
+
+                return cursor.next() ? cursor.get() : END;
+            }
+            catch ( Exception e )
+            {
+                return new Failure( e );
+            }
+        }
+
+
+        /**
+         * Adds an element to the buffer. When it's full, the element is kept for the
+         * next execution of the task.
+         */
+        private boolean offer( Object element )
+        {
+            while ( !buffer.offer( element ) )
+            {
+                pending = element;
+                parked.set( true );
+
+                // The consumer may have read the buffer before the task was parked
+                if ( ( buffer.remainingCapacity() == 0 ) || !parked.compareAndSet( true, false ) )
+                {
+                    return false;
+                }
+            }
+
+            pending = null;
+
+            return true;
+        }
+
+
+        /**
+         * Submits the task again if it has been parked and the buffer has been half consumed
+         */
+        private void resume()
+        {
+            if ( ( buffer.remainingCapacity() >= resumeThreshold ) && parked.compareAndSet( true, false ) )
+            {
+                executor.execute( this );
+            }
+        }
+
+
+        /**
+         * Waits for the task to end, and positions the cursor before its first entry
+         */
+        private synchronized void reset()
+        {
+            parked.set( false );
+            pending = null;
+            done = false;
+            rewind = true;
+            buffer.clear();
+        }
+    }
+
+    /** The partitions cursors */
+    private final List<EntryFilteringCursor> cursors;
+
+    /** The executor running the producers */
+    private final Executor executor;
+
+    /** The number of entries each producer prefetches */
+    private final int bufferSize;
+
+    /** The number of free slots in a buffer before its producer is resumed */
+    private final int resumeThreshold;
+
+    /** The comparator used to merge the entries, null if they are not sorted */
+    private final SortedEntryComparator comparator;
+
+    /** The search operation context */
+    private final SearchOperationContext searchContext;
+
+    /** The producers, null until the cursor is first read */
+    private List<Producer> producers;
+
+    /** The buffer shared by the producers, when the entries are not sorted */
+    private BlockingQueue<Object> sharedBuffer;
+
+    /** The number of producers which haven't read their cursor yet, when the entries are not sorted */
+    private int running;
+
+    /** The producers head entries, when the entries are sorted */
+    private PriorityQueue<Head> heads;
+
+    /** The current entry */
+    private Entry current;
+
+    /** The entry returned before the current one */
+    private Entry prior;
+
+    /** The entry to return again after a move backward */
+    private Entry pushedBack;
+
+    /** Tells if the cursor has moved past the last entry */
+    private boolean afterEnd;
+
+    /** The number of entries read from the producers */
+    private long consumed;
+
+    /** Set when the cursor is closed, to stop the producers */
+    private volatile boolean closed;
+
+    /** Set while the producers are restarted, to stop them */
+    private volatile boolean stopping;
+
+
+    /**
+     * Creates a new instance of ParallelSearchCursor.
+     *
+     * @param cursors The partitions cursors
+     * @param executor The executor running the producers
+     * @param bufferSize The number of entries each producer prefetches
+     * @param comparator The comparator used to merge the entries, or null if they are not sorted
+     * @param searchContext The search operation context
+     */
+    /** no qualifier */ ParallelSearchCursor( List<EntryFilteringCursor> cursors, Executor executor, int bufferSize,
+        SortedEntryComparator comparator, SearchOperationContext searchContext )
+    {
+        this.cursors = cursors;
+        this.executor = executor;
+        this.bufferSize = Math.max( 2, bufferSize );
+        this.resumeThreshold = this.bufferSize / 2;
+        this.comparator = comparator;
+        this.searchContext = searchContext;
+    }
+
+
+    /**
+     * Creates the producers, and starts them. This is done when the cursor is first read,
+     * once all the entry filters have been added to the partitions cursors.
+     */
+    private void start()
+    {
+        producers = new ArrayList<>( cursors.size() );
+
+        if ( comparator == null )
+        {
+            sharedBuffer = new ArrayBlockingQueue<>( bufferSize * Math.max( 1, cursors.size() ) );
+
+            for ( EntryFilteringCursor cursor : cursors )
+            {
+                producers.add( new Producer( cursor, sharedBuffer ) );
+            }
+
+            running = producers.size();
+        }
+        else
+        {
+            for ( EntryFilteringCursor cursor : cursors )
+            {
+                producers.add( new Producer( cursor, new ArrayBlockingQueue<Object>( bufferSize ) ) );
+            }
+        }
+
+        for ( Producer producer : producers )
+        {
+            executor.execute( producer );
+        }
+    }
+
+
+    /**
+     * Takes the next element of a buffer, checking the cursor is not closed while waiting
+     */
+    private Object take( Producer producer, BlockingQueue<Object> buffer ) throws CursorException
+    {
+        try
+        {
+            while ( true )
+            {
+                checkNotClosed();
+
+                Object element = buffer.poll( POLL_DELAY, TimeUnit.MILLISECONDS );
+
+                if ( element != null )
+                {
+                    if ( producer != null )
+                    {
+                        producer.resume();
+                    }
+                    else
+                    {
+                        for ( Producer parked : producers )
+                        {
+                            parked.resume();
+                        }
+                    }
+
+                    if ( element instanceof Failure )
+                    {
+                        throw new CursorException( ( ( Failure ) element ).cause );
+                    }
+
+                    return element;
+                }
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            throw new CursorException( ie );
+        }
+    }
+
+
+    /**
+     * @return The next entry read from the producers, or null if they have all been read
+     */
+    private Entry fetch() throws CursorException
+    {
+        if ( producers == null )
+        {
+            start();
+        }
+
+        if ( comparator == null )
+        {
+            while ( running > 0 )
+            {
+                Object element = take( null, sharedBuffer );
+
+                if ( element == END )
+                {
+                    running--;
+                }
+                else
+                {
+                    return ( Entry ) element;
+                }
+            }
+
+            return null;
+        }
+
+        if ( heads == null )
+        {
+            heads = new PriorityQueue<>( Math.max( 1, producers.size() ), new Comparator<Head>()
+            {
+                @Override
+                public int compare( Head head1, Head head2 )
+                {
+                    int c = comparator.compareKeys( head1.keys, head2.keys );
+
+                    return c != 0 ? c : Integer.compare( head1.producer, head2.producer );
+                }
+            } );
+
+            for ( int i = 0; i < producers.size(); i++ )
+            {
+                addHead( i );
+            }
+        }
+
+        Head head = heads.poll();
+
+        if ( head == null )
+        {
+            return null;
+        }
+
+        addHead( head.producer );
+
+        return head.entry;
+    }
+
+
+    /**
+     * Adds the next entry of a producer to the merged heads
+     */
+    private void addHead( int index ) throws CursorException
+    {
+        Producer producer = producers.get( index );
+        Object element = take( producer, producer.buffer );
+
+        if ( element != END )
+        {
+            Entry entry = ( Entry ) element;
+            heads.add( new Head( entry, comparator.getKeys( entry ), index ) );
+        }
+    }
+
+
+    /**
+     * Stops the producers, and moves the partitions cursors before their first entry
+     */
+    private void restart()
+    {
+        if ( producers == null )
+        {
+            return;
+        }
+
+        stopping = true;
+
+        for ( Producer producer : producers )
+        {
+            producer.reset();
+        }
+
+        stopping = false;
+        heads = null;
+        running = producers.size();
+
+        for ( Producer producer : producers )
+        {
+            executor.execute( producer );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean available()
+    {
+        return current != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void before( Entry element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void after( Entry element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        // Nothing to do if the only entry read has been pushed back
+        if ( ( consumed > 1 ) || ( ( consumed == 1 ) && ( pushedBack == null ) ) )
+        {
+            restart();
+            consumed = 0;
+            pushedBack = null;
+        }
+
+        current = null;
+        prior = null;
+        afterEnd = false;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        while ( next() )
+        {
+            // Read all the entries
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * Only one move backward is supported.
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( afterEnd )
+        {
+            afterEnd = false;
+            current = prior;
+            prior = null;
+
+            return current != null;
+        }
+
+        if ( current == null )
+        {
+            return false;
+        }
+
+        if ( pushedBack != null )
+        {
+            throw new UnsupportedOperationException( "A ParallelSearchCursor can only move back by one entry" );
+        }
+
+        pushedBack = current;
+        current = prior;
+        prior = null;
+
+        return current != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( pushedBack != null )
+        {
+            prior = current;
+            current = pushedBack;
+            pushedBack = null;
+
+            return true;
+        }
+
+        if ( afterEnd )
+        {
+            return false;
+        }
+
+        Entry entry = fetch();
+
+        if ( entry == null )
+        {
+            prior = current;
+            current = null;
+            afterEnd = true;
+
+            return false;
+        }
+
+        consumed++;
+        prior = current;
+        current = entry;
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( current == null )
+        {
+            throw new InvalidCursorPositionException();
+        }
+
+        return current;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean addEntryFilter( EntryFilter filter )
+    {
+        for ( EntryFilteringCursor cursor : cursors )
+        {
+            cursor.addEntryFilter( filter );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<EntryFilter> getEntryFilters()
+    {
+        throw new UnsupportedOperationException( "ParallelSearchCursor doesn't support this operation" );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SearchOperationContext getOperationContext()
+    {
+        return searchContext;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        release( null );
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        release( cause );
+        super.close( cause );
+    }
+
+
+    /**
+     * Stops the producers, and closes the partitions cursors
+     */
+    private void release( Exception cause )
+    {
+        closed = true;
+
+        for ( int i = 0; i < cursors.size(); i++ )
+        {
+            EntryFilteringCursor cursor = cursors.get( i );
+
+            // Wait for the producer to end before closing its cursor
+            Object lock = ( producers == null ) ? new Object() : producers.get( i );
+
+            synchronized ( lock )
+            {
+                try
+                {
+                    if ( cause != null )
+                    {
+                        cursor.close( cause );
+                    }
+                    else
+                    {
+                        cursor.close();
+                    }
+                }
+                catch ( Exception e )
+                {
+                    LOG.warn( "Failed to close the cursor", e );
+                }
+            }
+        }
+
+        producers = null;
+        heads = null;
+        sharedBuffer = null;
+        current = null;
+        prior = null;
+        pushedBack = null;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "ParallelSearchCursor (" ).append( cursors.size() ).append( " cursors" );
+
+        if ( comparator != null )
+        {
+            sb.append( ", sorted" );
+        }
+
+        sb.append( ")\n" );
+
+        for ( EntryFilteringCursor cursor : cursors )
+        {
+            sb.append( cursor.toString( tabs + "    " ) );
+        }
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the EntrySorter class : in memory sorts, sorts bounded by a heap, and sorts
+ * spilled in runs written on disk.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntrySorterTest
+{
+    /** The number of sorted entries */
+    private static final int NB_ENTRIES = 200;
+
+    /** A memory limit exceeded by a few entries */
+    private static final long SMALL_MEMORY_LIMIT = 4096L;
+
+    private static SchemaManager schemaManager;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+        SortedEntrySerializer.setSchemaManager( schemaManager );
+    }
+
+
+    /**
+     * Creates the entries, in a random order. Each sn value is shared by two entries,
+     * which only differ by their cn.
+     */
+    private List<Entry> createEntries() throws Exception
+    {
+        List<Entry> entries = new ArrayList<>();
+
+        for ( int i = 0; i < NB_ENTRIES; i++ )
+        {
+            entries.add( new DefaultEntry( schemaManager,
+                "cn=user" + i + ",ou=system",
+                "objectClass: top",
+                "objectClass: person",
+                "cn", String.format( "user%03d", i ),
+                "sn", String.format( "name%03d", i / 2 ) ) );
+        }
+
+        Collections.shuffle( entries, new Random( 42L ) );
+
+        return entries;
+    }
+
+
+    /**
+     * Sorts on sn ascending, then on cn descending
+     */
+    private SortedEntryComparator createComparator() throws Exception
+    {
+        List<SortKey> sortKeys = new ArrayList<>();
+        sortKeys.add( new SortKey( "sn" ) );
+        SortKey cnKey = new SortKey( "cn" );
+        cnKey.setReverseOrder( true );
+        sortKeys.add( cnKey );
+
+        return new SortedEntryComparator( sortKeys, schemaManager );
+    }
+
+
+    /**
+     * @return The cn of the entry expected at the given position
+     */
+    private String expectedCn( int position )
+    {
+        // Two entries per sn, the greatest cn first
+        int index = ( position % 2 == 0 ) ? position + 1 : position - 1;
+
+        return String.format( "user%03d", index );
+    }
+
+
+    /**
+     * Checks that the iterator returns the expected first entries, and closes it
+     */
+    private void checkOrder( EntrySorter sorter, int nbExpected ) throws Exception
+    {
+        Iterator<Entry> iterator = sorter.iterator();
+        int position = 0;
+
+        try
+        {
+            while ( iterator.hasNext() && ( position < nbExpected ) )
+            {
+                Entry entry = iterator.next();
+                assertEquals( expectedCn( position ), entry.get( "cn" ).getString() );
+                position++;
+            }
+        }
+        finally
+        {
+            if ( iterator instanceof Closeable )
+            {
+                ( ( Closeable ) iterator ).close();
+            }
+        }
+
+        assertEquals( nbExpected, position );
+    }
+
+
+    @Test
+    public void testInMemorySort() throws Exception
+    {
+        try ( EntrySorter sorter = new EntrySorter( createComparator(), Long.MAX_VALUE, 0, folder.getRoot() ) )
+        {
+            for ( Entry entry : createEntries() )
+            {
+                sorter.add( entry );
+            }
+
+            sorter.sort();
+
+            assertTrue( sorter.isInMemory() );
+            assertEquals( 0, sorter.getNbRuns() );
+            assertEquals( NB_ENTRIES, sorter.size() );
+            assertEquals( NB_ENTRIES, sorter.getNbSorted() );
+
+            for ( int i = 0; i < NB_ENTRIES; i++ )
+            {
+                assertEquals( expectedCn( i ), sorter.get( i ).get( "cn" ).getString() );
+            }
+
+            checkOrder( sorter, NB_ENTRIES );
+
+            // The first entry with sn=name050 is at position 100
+            Object assertionKey = sorter.getComparator().getAssertionKey( Strings.getBytesUtf8( "name050" ) );
+            assertEquals( 100, sorter.indexOf( assertionKey ) );
+        }
+    }
+
+
+    @Test
+    public void testBoundedHeapSort() throws Exception
+    {
+        // A size limit of 10, plus one entry to detect that the limit is exceeded
+        int maxResults = 11;
+
+        try ( EntrySorter sorter = new EntrySorter( createComparator(), Long.MAX_VALUE, maxResults,
+            folder.getRoot() ) )
+        {
+            for ( Entry entry : createEntries() )
+            {
+                sorter.add( entry );
+            }
+
+            sorter.sort();
+
+            // Only the smallest entries have been kept
+            assertTrue( sorter.isInMemory() );
+            assertEquals( NB_ENTRIES, sorter.size() );
+            assertEquals( maxResults, sorter.getNbSorted() );
+            checkOrder( sorter, maxResults );
+        }
+    }
+
+
+    @Test
+    public void testSpilledSort() throws Exception
+    {
+        File spillDir = folder.newFolder( "spilled" );
+
+        try ( EntrySorter sorter = new EntrySorter( createComparator(), SMALL_MEMORY_LIMIT, 0, spillDir ) )
+        {
+            for ( Entry entry : createEntries() )
+            {
+                sorter.add( entry );
+            }
+
+            sorter.sort();
+
+            assertFalse( sorter.isInMemory() );
+            assertTrue( sorter.getNbRuns() > 1 );
+            assertEquals( sorter.getNbRuns(), spillDir.listFiles().length );
+            assertEquals( NB_ENTRIES, sorter.getNbSorted() );
+
+            // The runs are merged, and can be merged again
+            checkOrder( sorter, NB_ENTRIES );
+            checkOrder( sorter, NB_ENTRIES );
+
+            Object assertionKey = sorter.getComparator().getAssertionKey( Strings.getBytesUtf8( "name050" ) );
+            assertEquals( 100, sorter.indexOf( assertionKey ) );
+        }
+
+        // The runs have been deleted
+        assertEquals( 0, spillDir.listFiles().length );
+    }
+
+
+    @Test
+    public void testSpilledBoundedHeapSort() throws Exception
+    {
+        File spillDir = folder.newFolder( "spilledHeap" );
+        int maxResults = 51;
+
+        try ( EntrySorter sorter = new EntrySorter( createComparator(), SMALL_MEMORY_LIMIT, maxResults, spillDir ) )
+        {
+            for ( Entry entry : createEntries() )
+            {
+                sorter.add( entry );
+            }
+
+            sorter.sort();
+
+            // The retained entries did not fit in memory
+            assertFalse( sorter.isInMemory() );
+            assertTrue( sorter.getNbSorted() >= maxResults );
+            checkOrder( sorter, maxResults );
+        }
+
+        assertEquals( 0, spillDir.listFiles().length );
+    }
+
+
+    @Test
+    public void testCloseAbandonedMerge() throws Exception
+    {
+        File spillDir = folder.newFolder( "abandoned" );
+        EntrySorter sorter = new EntrySorter( createComparator(), SMALL_MEMORY_LIMIT, 0, spillDir );
+
+        for ( Entry entry : createEntries() )
+        {
+            sorter.add( entry );
+        }
+
+        // Abandon the merge before its end
+        checkOrder( sorter, 10 );
+
+        assertTrue( spillDir.listFiles().length > 1 );
+
+        sorter.close();
+
+        assertEquals( 0, sorter.getNbRuns() );
+        assertEquals( 0, spillDir.listFiles().length );
+    }
+}
@@ -0,0 +1,507 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared.partition;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.OperationAbandonedException;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.filtering.EntryFilter;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.shared.SortedEntryComparator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the ParallelSearchCursor class, reading partition cursors concurrently, with
+ * buffers small enough for the producers to be parked and resumed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ParallelSearchCursorTest
+{
+    /** The number of entries each producer prefetches */
+    private static final int BUFFER_SIZE = 4;
+
+    private static SchemaManager schemaManager;
+
+    private ExecutorService executor;
+
+
+    /**
+     * A partition cursor on a list of entries, which can fail when reading a given entry
+     */
+    private static class ListEntryCursor extends AbstractCursor<Entry> implements EntryFilteringCursor
+    {
+        private final List<Entry> entries;
+
+        /** The position of the entry which can't be read, -1 if none */
+        private final int failAt;
+
+        private int index = -1;
+
+        /** The number of entries read */
+        private final AtomicInteger reads = new AtomicInteger();
+
+        /** The cause given when the cursor was closed */
+        private volatile Exception closeCause;
+
+        /** Set when the cursor has been closed */
+        private volatile boolean released;
+
+
+        private ListEntryCursor( List<Entry> entries, int failAt )
+        {
+            this.entries = entries;
+            this.failAt = failAt;
+        }
+
+
+        @Override
+        public boolean available()
+        {
+            return ( index >= 0 ) && ( index < entries.size() );
+        }
+
+
+        @Override
+        public void before( Entry element ) throws LdapException, CursorException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        @Override
+        public void after( Entry element ) throws LdapException, CursorException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+
+        @Override
+        public void beforeFirst() throws LdapException, CursorException
+        {
+            index = -1;
+        }
+
+
+        @Override
+        public void afterLast() throws LdapException, CursorException
+        {
+            index = entries.size();
+        }
+
+
+        @Override
+        public boolean first() throws LdapException, CursorException
+        {
+            beforeFirst();
+
+            return next();
+        }
+
+
+        @Override
+        public boolean last() throws LdapException, CursorException
+        {
+            afterLast();
+
+            return previous();
+        }
+
+
+        @Override
+        public boolean previous() throws LdapException, CursorException
+        {
+            index = Math.max( -1, index - 1 );
+
+            return available();
+        }
+
+
+        @Override
+        public boolean next() throws LdapException, CursorException
+        {
+            checkNotClosed();
+
+            if ( index + 1 == failAt )
+            {
+                throw new CursorException( "Cannot read the entry " + failAt );
+            }
+
+            reads.incrementAndGet();
+            index = Math.min( entries.size(), index + 1 );
+
+            return available();
+        }
+
+
+        @Override
+        public Entry get() throws CursorException
+        {
+            return entries.get( index );
+        }
+
+
+        @Override
+        public boolean addEntryFilter( EntryFilter filter )
+        {
+            return true;
+        }
+
+
+        @Override
+        public List<EntryFilter> getEntryFilters()
+        {
+            return Collections.emptyList();
+        }
+
+
+        @Override
+        public SearchOperationContext getOperationContext()
+        {
+            return null;
+        }
+
+
+        @Override
+        public void close() throws IOException
+        {
+            released = true;
+            super.close();
+        }
+
+
+        @Override
+        public void close( Exception cause ) throws IOException
+        {
+            closeCause = cause;
+            released = true;
+            super.close( cause );
+        }
+
+
+        @Override
+        public String toString( String tabs )
+        {
+            return tabs + "ListEntryCursor\n";
+        }
+    }
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    @Before
+    public void createExecutor()
+    {
+        executor = Executors.newFixedThreadPool( 3 );
+    }
+
+
+    @After
+    public void shutdownExecutor()
+    {
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Creates the entries of a partition : the sn of the entry i is the i-th multiple of
+     * the number of partitions, plus the partition number, so the partitions interleave
+     */
+    private List<Entry> createEntries( int partition, int nbPartitions, int nbEntries ) throws Exception
+    {
+        List<Entry> entries = new ArrayList<>();
+
+        for ( int i = 0; i < nbEntries; i++ )
+        {
+            int number = i * nbPartitions + partition;
+
+            entries.add( new DefaultEntry( schemaManager,
+                "cn=user" + number + ",ou=partition" + partition,
+                "objectClass: top",
+                "objectClass: person",
+                "cn", "user" + number,
+                "sn", String.format( "name%05d", number ) ) );
+        }
+
+        return entries;
+    }
+
+
+    private List<ListEntryCursor> createCursors( int nbPartitions, int nbEntries, int failingPartition, int failAt )
+        throws Exception
+    {
+        List<ListEntryCursor> cursors = new ArrayList<>();
+
+        for ( int i = 0; i < nbPartitions; i++ )
+        {
+            cursors.add( new ListEntryCursor( createEntries( i, nbPartitions, nbEntries ),
+                i == failingPartition ? failAt : -1 ) );
+        }
+
+        return cursors;
+    }
+
+
+    private ParallelSearchCursor createParallelCursor( List<ListEntryCursor> cursors,
+        SortedEntryComparator comparator )
+    {
+        return new ParallelSearchCursor( new ArrayList<EntryFilteringCursor>( cursors ), executor, BUFFER_SIZE,
+            comparator, null );
+    }
+
+
+    private SortedEntryComparator createComparator() throws Exception
+    {
+        return new SortedEntryComparator( Collections.singletonList( new SortKey( "sn" ) ), schemaManager );
+    }
+
+
+    @Test
+    public void testUnsortedRead() throws Exception
+    {
+        List<ListEntryCursor> cursors = createCursors( 3, 50, -1, -1 );
+        ParallelSearchCursor cursor = createParallelCursor( cursors, null );
+        Set<String> read = new HashSet<>();
+        Map<String, Integer> lastRead = new HashMap<>();
+
+        while ( cursor.next() )
+        {
+            Entry entry = cursor.get();
+            assertTrue( read.add( entry.getDn().getName() ) );
+
+            // The entries of a partition keep their order
+            String partition = entry.getDn().getParent().getName();
+            int number = Integer.parseInt( entry.get( "cn" ).getString().substring( 4 ) );
+            Integer last = lastRead.get( partition );
+            assertTrue( ( last == null ) || ( last < number ) );
+            lastRead.put( partition, number );
+        }
+
+        assertEquals( 150, read.size() );
+
+        cursor.close();
+
+        for ( ListEntryCursor partitionCursor : cursors )
+        {
+            assertTrue( partitionCursor.released );
+        }
+    }
+
+
+    @Test
+    public void testSortedMerge() throws Exception
+    {
+        List<ListEntryCursor> cursors = createCursors( 3, 50, -1, -1 );
+        ParallelSearchCursor cursor = createParallelCursor( cursors, createComparator() );
+
+        for ( int pass = 0; pass < 2; pass++ )
+        {
+            for ( int i = 0; i < 150; i++ )
+            {
+                assertTrue( cursor.next() );
+                assertEquals( String.format( "name%05d", i ), cursor.get().get( "sn" ).getString() );
+            }
+
+            assertFalse( cursor.next() );
+
+            // The cursor can move back by one entry
+            assertTrue( cursor.previous() );
+            assertEquals( "name00149", cursor.get().get( "sn" ).getString() );
+
+            // And restart from the beginning
+            cursor.beforeFirst();
+        }
+
+        cursor.close();
+    }
+
+
+    @Test
+    public void testMoveBackByOneEntry() throws Exception
+    {
+        List<ListEntryCursor> cursors = createCursors( 2, 10, -1, -1 );
+        ParallelSearchCursor cursor = createParallelCursor( cursors, createComparator() );
+
+        assertTrue( cursor.next() );
+        assertTrue( cursor.next() );
+        Entry second = cursor.get();
+
+        assertTrue( cursor.previous() );
+        assertEquals( "name00000", cursor.get().get( "sn" ).getString() );
+
+        assertTrue( cursor.next() );
+        assertSame( second, cursor.get() );
+
+        cursor.close();
+    }
+
+
+    @Test
+    public void testEarlyClose() throws Exception
+    {
+        List<ListEntryCursor> cursors = createCursors( 2, 1000, -1, -1 );
+        ParallelSearchCursor cursor = createParallelCursor( cursors, null );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            assertTrue( cursor.next() );
+        }
+
+        cursor.close();
+
+        assertTrue( cursor.isClosed() );
+
+        for ( ListEntryCursor partitionCursor : cursors )
+        {
+            assertTrue( partitionCursor.released );
+        }
+
+        // The producers have been stopped before reading all the entries
+        int reads = cursors.get( 0 ).reads.get() + cursors.get( 1 ).reads.get();
+        Thread.sleep( 200L );
+        assertEquals( reads, cursors.get( 0 ).reads.get() + cursors.get( 1 ).reads.get() );
+        assertTrue( reads < 2000 );
+
+        try
+        {
+            cursor.next();
+            fail();
+        }
+        catch ( CursorException ce )
+        {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void testAbandon() throws Exception
+    {
+        List<ListEntryCursor> cursors = createCursors( 3, 1000, -1, -1 );
+        ParallelSearchCursor cursor = createParallelCursor( cursors, createComparator() );
+
+        assertTrue( cursor.next() );
+
+        // Abandoning the search closes the cursor with the cause
+        OperationAbandonedException cause = new OperationAbandonedException();
+        cursor.close( cause );
+
+        for ( ListEntryCursor partitionCursor : cursors )
+        {
+            assertTrue( partitionCursor.released );
+            assertSame( cause, partitionCursor.closeCause );
+        }
+
+        try
+        {
+            cursor.next();
+            fail();
+        }
+        catch ( CursorException ce )
+        {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void testFailingProducer() throws Exception
+    {
+        checkFailingProducer( null );
+    }
+
+
+    @Test
+    public void testFailingProducerSorted() throws Exception
+    {
+        checkFailingProducer( createComparator() );
+    }
+
+
+    /**
+     * The error met by a producer is thrown by the consumer, once the entries read
+     * before the error have been returned
+     */
+    private void checkFailingProducer( SortedEntryComparator comparator ) throws Exception
+    {
+        List<ListEntryCursor> cursors = createCursors( 3, 50, 1, 20 );
+        ParallelSearchCursor cursor = createParallelCursor( cursors, comparator );
+        int nbRead = 0;
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                nbRead++;
+            }
+
+            fail();
+        }
+        catch ( CursorException ce )
+        {
+            assertEquals( "Cannot read the entry 20", ce.getCause().getMessage() );
+        }
+
+        assertTrue( nbRead >= 20 );
+        assertTrue( nbRead < 150 );
+
+        cursor.close();
+
+        for ( ListEntryCursor partitionCursor : cursors )
+        {
+            assertTrue( partitionCursor.released );
+        }
+    }
+}
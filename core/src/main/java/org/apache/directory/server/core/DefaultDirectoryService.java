@@ -31,6 +31,8 @@ import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -94,6 +96,7 @@ import org.apache.directory.server.core.api.changelog.TaggableSearchableChangeLo
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorChain;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
@@ -202,6 +205,15 @@ public class DefaultDirectoryService implements DirectoryService
     /** The default delay to wait between sync on disk : 15 seconds */
     private static final long DEFAULT_SYNC_PERIOD = 15000;
 
+    /** The maximum estimated size of the entries sorted in memory by a search */
+    private long sortMemoryLimit;
+
+    /** The default sort memory limit : 16 MB */
+    private static final long DEFAULT_SORT_MEMORY_LIMIT = 16L * 1024L * 1024L;
+
+    /** The number of threads searching the partitions concurrently, 0 if they are searched in turn */
+    private int searchThreads;
+
     /** */
     private Thread workerThread;
 
@@ -247,8 +259,11 @@ public class DefaultDirectoryService implements DirectoryService
     private Lock readLock = interceptorsLock.readLock();
     private Lock writeLock = interceptorsLock.writeLock();
 
-    /** A map associating a list of interceptor to each operation */
-    private Map<OperationEnum, List<String>> operationInterceptors;
+    /**
+     * A map associating a chain of interceptors to each operation. The map and the chains
+     * are immutable, a new map is published each time the interceptors are changed
+     */
+    private volatile Map<OperationEnum, InterceptorChain> operationInterceptors;
 
     /** The System partition */
     private Partition systemPartition;
@@ -315,6 +330,7 @@ public class DefaultDirectoryService implements DirectoryService
         changeLog = new DefaultChangeLog();
         journal = new DefaultJournal();
         syncPeriodMillis = DEFAULT_SYNC_PERIOD;
+        sortMemoryLimit = DEFAULT_SORT_MEMORY_LIMIT;
         csnFactory = new CsnFactory( replicaId );
         evaluator = new SubtreeEvaluator( schemaManager );
         setDefaultInterceptorConfigurations();
@@ -451,57 +467,65 @@ public class DefaultDirectoryService implements DirectoryService
 
 
     /**
-     * Returns interceptors in the server for a given operation.
+     * Returns interceptors in the server for a given operation. The returned
+     * list is an immutable {@link InterceptorChain}, shared by all the operations
+     * of the same type.
      *
      * @return the interceptors in the server for the given operation.
      */
     public List<String> getInterceptors( OperationEnum operation )
     {
-        List<String> cloned = new ArrayList<>();
+        return operationInterceptors.get( operation );
+    }
 
-        readLock.lock();
+
+    /**
+     * Compute the list of  to call for each operation
+     */
+    private void initOperationsList()
+    {
+        writeLock.lock();
 
         try
         {
-            cloned.addAll( operationInterceptors.get( operation ) );
-
-            return cloned;
+            compileOperationsList();
         }
         finally
         {
-            readLock.unlock();
+            writeLock.unlock();
         }
-
     }
 
 
     /**
-     * Compute the list of  to call for each operation
+     * Builds the chain of interceptors to call for each operation, skipping the interceptors
+     * which don't implement it, and publishes them all at once. Must be called with the write
+     * lock held.
      */
-    private void initOperationsList()
+    private void compileOperationsList()
     {
-        writeLock.lock();
+        Map<OperationEnum, InterceptorChain> compiled = new EnumMap<>( OperationEnum.class );
 
-        try
+        for ( OperationEnum operation : OperationEnum.getOperations() )
         {
-            operationInterceptors = new ConcurrentHashMap<>();
+            List<String> operationList = new ArrayList<>();
 
-            for ( OperationEnum operation : OperationEnum.getOperations() )
+            for ( Interceptor interceptor : interceptors )
             {
-                List<String> operationList = new ArrayList<>();
+                gatherInterceptors( interceptor, interceptor.getClass(), operation, operationList );
+            }
 
-                for ( Interceptor interceptor : interceptors )
-                {
-                    gatherInterceptors( interceptor, interceptor.getClass(), operation, operationList );
-                }
+            List<Interceptor> chain = new ArrayList<>( operationList.size() );
 
-                operationInterceptors.put( operation, operationList );
+            for ( String name : operationList )
+            {
+                chain.add( interceptorNames.get( name ) );
             }
+
+            compiled.put( operation, new InterceptorChain( chain ) );
         }
-        finally
-        {
-            writeLock.unlock();
-        }
+
+        operationInterceptors = Collections.unmodifiableMap( compiled );
     }
 
 
@@ -562,30 +586,6 @@ public class DefaultDirectoryService implements DirectoryService
 
         try
         {
-            for ( OperationEnum operation : OperationEnum.getOperations() )
-            {
-                List<String> operationList = operationInterceptors.get( operation );
-
-                Method[] methods = interceptor.getClass().getDeclaredMethods();
-
-                for ( Method method : methods )
-                {
-                    if ( method.getName().equals( operation.getMethodName() ) )
-                    {
-                        if ( position == -1 )
-                        {
-                            operationList.add( interceptor.getName() );
-                        }
-                        else
-                        {
-                            operationList.add( position, interceptor.getName() );
-                        }
-
-                        break;
-                    }
-                }
-            }
-
             interceptorNames.put( interceptor.getName(), interceptor );
 
             if ( position == -1 )
@@ -596,6 +596,8 @@ public class DefaultDirectoryService implements DirectoryService
             {
                 interceptors.add( position, interceptor );
             }
+
+            compileOperationsList();
         }
         finally
         {
@@ -615,25 +617,10 @@ public class DefaultDirectoryService implements DirectoryService
 
         try
         {
-            for ( OperationEnum operation : OperationEnum.getOperations() )
-            {
-                List<String> operationList = operationInterceptors.get( operation );
-
-                Method[] methods = interceptor.getClass().getDeclaredMethods();
-
-                for ( Method method : methods )
-                {
-                    if ( method.getName().equals( operation.getMethodName() ) )
-                    {
-                        operationList.remove( interceptor.getName() );
-
-                        break;
-                    }
-                }
-            }
-
             interceptorNames.remove( interceptorName );
             interceptors.remove( interceptor );
+
+            compileOperationsList();
         }
         finally
         {
@@ -1263,6 +1250,17 @@ public class DefaultDirectoryService implements DirectoryService
             return;
         }
 
+        // --------------------------------------------------------------------
+        // Write the password policy states updated by the binds
+        // --------------------------------------------------------------------
+        Interceptor authenticationInterceptor = getInterceptor( InterceptorEnum.AUTHENTICATION_INTERCEPTOR
+            .getName() );
+
+        if ( authenticationInterceptor instanceof AuthenticationInterceptor )
+        {
+            ( ( AuthenticationInterceptor ) authenticationInterceptor ).flushPwdPolicyStates();
+        }
+
         // --------------------------------------------------------------------
         // Shutdown the sync thread
         // --------------------------------------------------------------------
@@ -2325,6 +2323,46 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSortMemoryLimit()
+    {
+        return sortMemoryLimit;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSortMemoryLimit( long sortMemoryLimit )
+    {
+        this.sortMemoryLimit = sortMemoryLimit;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSearchThreads()
+    {
+        return searchThreads;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSearchThreads( int searchThreads )
+    {
+        this.searchThreads = searchThreads;
+    }
+
+
     /**
      * checks if the working directory is already in use by some other directory service, if yes
      * then throws a runtime exception else will obtain the lock on the working directory
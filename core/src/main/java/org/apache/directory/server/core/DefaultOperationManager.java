@@ -21,8 +21,13 @@ package org.apache.directory.server.core;
 
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -67,6 +72,7 @@ import org.apache.directory.server.core.api.interceptor.context.SearchOperationC
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -96,8 +102,53 @@ public class DefaultOperationManager implements OperationManager
     /** The directory service instance */
     private final DirectoryService directoryService;
 
-    /** A lock used to protect against concurrent operations */
-    private ReadWriteLock rwLock = new ReentrantReadWriteLock( true );
+    /**
+     * A lock used to protect against operations which need an exclusive access to
+     * the whole server (like a shutdown). Every operation acquires it in shared mode
+     * before acquiring its partition lock. It is not fair, so that readers don't
+     * queue behind a pending exclusive request on another partition.
+     */
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    /** The ID of the schema partition */
+    private static final String SCHEMA_PARTITION_ID = "schema";
+
+    /** The ID of the configuration partition */
+    private static final String CONFIG_PARTITION_ID = "config";
+
+    /** The per partition locks, keyed by partition ID */
+    private final ConcurrentMap<String, ReadWriteLock> partitionLocks = new ConcurrentHashMap<>();
+
+    /** The lock used for the RootDSE, which has no partition ID */
+    private final ReadWriteLock rootDseLock = new ReentrantReadWriteLock( true );
+
+    /** The partition write locks held by the current thread */
+    private final ThreadLocal<WriteLocks> writeLocks = new ThreadLocal<WriteLocks>()
+    {
+        @Override
+        protected WriteLocks initialValue()
+        {
+            return new WriteLocks();
+        }
+    };
+
+
+    /**
+     * The number of partition write locks held by a thread, and the actions to run
+     * once they are all released
+     */
+    private static final class WriteLocks
+    {
+        /** The number of held write locks */
+        private int count;
+
+        /** The held write locks, the last acquired first */
+        private final Deque<Lock> held = new ArrayDeque<>();
+
+        /** The actions to run once the locks are released, null if none */
+        private List<Runnable> afterUnlock;
+    }
+
 
     public DefaultOperationManager( DirectoryService directoryService )
     {
@@ -115,7 +166,59 @@ public class DefaultOperationManager implements OperationManager
 
 
     /**
-     * Acquires a ReadLock
+     * {@inheritDoc}
+     */
+    public ReadWriteLock getRWLock( Partition partition )
+    {
+        if ( ( partition == null ) || ( partition.getId() == null ) )
+        {
+            return rootDseLock;
+        }
+
+        return getPartitionLock( partition.getId() );
+    }
+
+
+    /**
+     * Gets the R/W lock protecting the partition with a given ID, creating it if needed
+     */
+    private ReadWriteLock getPartitionLock( String id )
+    {
+        ReadWriteLock lock = partitionLocks.get( id );
+
+        if ( lock == null )
+        {
+            lock = new ReentrantReadWriteLock( true );
+            ReadWriteLock existing = partitionLocks.putIfAbsent( id, lock );
+
+            if ( existing != null )
+            {
+                lock = existing;
+            }
+        }
+
+        return lock;
+    }
+
+
+    /**
+     * Tells if the writes on a partition need an exclusive access to the whole server.
+     * This is the case for the schema and configuration partitions, and for the root
+     * partition, which holds the subschema subentry.
+     */
+    private boolean isExclusive( Partition partition )
+    {
+        if ( ( partition == null ) || ( partition.getId() == null ) )
+        {
+            return true;
+        }
+
+        return SCHEMA_PARTITION_ID.equals( partition.getId() ) || CONFIG_PARTITION_ID.equals( partition.getId() );
+    }
+
+
+    /**
+     * Acquires a ReadLock on the whole server
      */
     public void lockRead()
     {
@@ -124,7 +227,7 @@ public class DefaultOperationManager implements OperationManager
 
 
     /**
-     * Acquires a WriteLock
+     * Acquires a WriteLock on the whole server
      */
     public void lockWrite()
     {
@@ -133,7 +236,7 @@ public class DefaultOperationManager implements OperationManager
 
 
     /**
-     * Releases a WriteLock
+     * Releases a WriteLock on the whole server
      */
     public void unlockWrite()
     {
@@ -142,7 +245,7 @@ public class DefaultOperationManager implements OperationManager
 
 
     /**
-     * Releases a ReadLock
+     * Releases a ReadLock on the whole server
      */
     public void unlockRead()
     {
@@ -150,6 +253,166 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public void lockRead( Partition partition )
+    {
+        rwLock.readLock().lock();
+        getRWLock( partition ).readLock().lock();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unlockRead( Partition partition )
+    {
+        getRWLock( partition ).readLock().unlock();
+        rwLock.readLock().unlock();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void lockWrite( Partition partition )
+    {
+        WriteLocks locks = writeLocks.get();
+
+        if ( isExclusive( partition ) )
+        {
+            // The schema is shared by all the partitions, and the configuration drives
+            // the whole server : their writes can't run along other operations. The global
+            // lock can't be upgraded though, so a thread already holding it in shared mode
+            // falls back to the schema or configuration partition write lock.
+            if ( rwLock.isWriteLockedByCurrentThread() || ( rwLock.getReadHoldCount() == 0 ) )
+            {
+                rwLock.writeLock().lock();
+                locks.held.push( rwLock.writeLock() );
+            }
+            else
+            {
+                String id = ( ( partition == null ) || ( partition.getId() == null ) ) ? SCHEMA_PARTITION_ID
+                    : partition.getId();
+                Lock lock = getPartitionLock( id ).writeLock();
+                rwLock.readLock().lock();
+                lock.lock();
+                locks.held.push( lock );
+            }
+        }
+        else
+        {
+            Lock lock = getRWLock( partition ).writeLock();
+            rwLock.readLock().lock();
+            lock.lock();
+            locks.held.push( lock );
+        }
+
+        locks.count++;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void unlockWrite( Partition partition )
+    {
+        WriteLocks locks = writeLocks.get();
+        Lock lock = locks.held.pop();
+        lock.unlock();
+
+        if ( lock != rwLock.writeLock() )
+        {
+            rwLock.readLock().unlock();
+        }
+
+        locks.count--;
+
+        if ( ( locks.count == 0 ) && ( locks.afterUnlock != null ) )
+        {
+            List<Runnable> actions = locks.afterUnlock;
+            locks.afterUnlock = null;
+
+            for ( Runnable action : actions )
+            {
+                try
+                {
+                    action.run();
+                }
+                catch ( RuntimeException re )
+                {
+                    OPERATION_LOG.error( "Failed to run an action after the partition unlock", re );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void runAfterUnlock( Runnable action )
+    {
+        WriteLocks locks = writeLocks.get();
+
+        if ( locks.count == 0 )
+        {
+            action.run();
+
+            return;
+        }
+
+        if ( locks.afterUnlock == null )
+        {
+            locks.afterUnlock = new ArrayList<>();
+        }
+
+        locks.afterUnlock.add( action );
+    }
+
+
+    /**
+     * Commits a write transaction, letting the partition defer the flush of its changes
+     * until {@link #awaitSync(PartitionTxn)} is called, once the partition is unlocked.
+     *
+     * @param transaction The transaction to commit
+     * @throws IOException If the commit failed
+     */
+    private void commitDeferred( PartitionTxn transaction ) throws IOException
+    {
+        if ( transaction instanceof PartitionWriteTxn )
+        {
+            ( ( PartitionWriteTxn ) transaction ).deferSync();
+        }
+
+        transaction.commit();
+    }
+
+
+    /**
+     * Waits until the changes of a transaction committed by {@link #commitDeferred(PartitionTxn)}
+     * are flushed on disk.
+     *
+     * @param transaction The committed transaction
+     * @throws LdapException If the changes can't be flushed
+     */
+    private void awaitSync( PartitionTxn transaction ) throws LdapException
+    {
+        if ( transaction instanceof PartitionWriteTxn )
+        {
+            try
+            {
+                ( ( PartitionWriteTxn ) transaction ).awaitSync();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+    }
+
+
     /**
      * Eagerly populates fields of operation contexts so multiple Interceptors
      * in the processing pathway can reuse this value without performing a
@@ -396,9 +659,9 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Add method
-        Interceptor head = directoryService.getInterceptor( addContext.getNextInterceptor() );
+        Interceptor head = addContext.getNextInterceptorInstance();
 
-        lockWrite();
+        lockWrite( partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = addContext.getSession().getTransaction( partition ); 
@@ -421,7 +684,7 @@ public class DefaultOperationManager implements OperationManager
             
             if ( !addContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitDeferred( transaction );
             }
         }
         catch ( LdapException le )
@@ -455,7 +718,13 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
+        }
+
+        if ( !addContext.getSession().hasSessionTransaction() )
+        {
+            // The partition is unlocked, the other writers can commit while we wait
+            awaitSync( transaction );
         }
 
         if ( IS_DEBUG )
@@ -490,7 +759,7 @@ public class DefaultOperationManager implements OperationManager
         ensureStarted();
 
         // Call the Delete method
-        Interceptor head = directoryService.getInterceptor( bindContext.getNextInterceptor() );
+        Interceptor head = bindContext.getNextInterceptorInstance();
 
         // Normalize the addContext Dn
         Dn dn = bindContext.getDn();
@@ -501,12 +770,12 @@ public class DefaultOperationManager implements OperationManager
             bindContext.setDn( dn );
         }
 
-        lockRead();
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 bindContext.setPartition( partition );
@@ -521,7 +790,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -612,16 +881,16 @@ public class DefaultOperationManager implements OperationManager
         compareContext.setOriginalEntry( getOriginalEntry( compareContext ) );
 
         // Call the Compare method
-        Interceptor head = directoryService.getInterceptor( compareContext.getNextInterceptor() );
+        Interceptor head = compareContext.getNextInterceptorInstance();
 
         boolean result = false;
 
-        lockRead();
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 compareContext.setPartition( partition );
@@ -636,7 +905,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -729,7 +998,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // populate the context with the old entry
-        lockWrite();
+        lockWrite( partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = deleteContext.getSession().getTransaction( partition ); 
@@ -751,13 +1020,13 @@ public class DefaultOperationManager implements OperationManager
             eagerlyPopulateFields( deleteContext );
 
             // Call the Delete method
-            Interceptor head = directoryService.getInterceptor( deleteContext.getNextInterceptor() );
+            Interceptor head = deleteContext.getNextInterceptorInstance();
 
             head.delete( deleteContext );
 
             if ( !deleteContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitDeferred( transaction );
             }
         }
         catch ( LdapException le )
@@ -791,7 +1060,13 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
+        }
+
+        if ( !deleteContext.getSession().hasSessionTransaction() )
+        {
+            // The partition is unlocked, the other writers can commit while we wait
+            awaitSync( transaction );
         }
 
         if ( IS_DEBUG )
@@ -825,15 +1100,15 @@ public class DefaultOperationManager implements OperationManager
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( getRootDseContext.getNextInterceptor() );
+        Interceptor head = getRootDseContext.getNextInterceptorInstance();
         Entry root;
 
+        Partition partition = directoryService.getPartitionNexus().getPartition( Dn.ROOT_DSE );
+
+        lockRead( partition );
+
         try
         {
-            lockRead();
-            
-            Partition partition = directoryService.getPartitionNexus().getPartition( Dn.ROOT_DSE );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 getRootDseContext.setPartition( partition );
@@ -848,7 +1123,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -884,12 +1159,10 @@ public class DefaultOperationManager implements OperationManager
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( hasEntryContext.getNextInterceptor() );
+        Interceptor head = hasEntryContext.getNextInterceptorInstance();
 
         boolean result = false;
 
-        lockRead();
-
         // Normalize the addContext Dn
         Dn dn = hasEntryContext.getDn();
         
@@ -899,10 +1172,12 @@ public class DefaultOperationManager implements OperationManager
             hasEntryContext.setDn( dn );
         }
 
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
+
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 hasEntryContext.setPartition( partition );
@@ -917,7 +1192,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -953,7 +1228,7 @@ public class DefaultOperationManager implements OperationManager
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( lookupContext.getNextInterceptor() );
+        Interceptor head = lookupContext.getNextInterceptorInstance();
 
         Entry entry = null;
 
@@ -974,7 +1249,7 @@ public class DefaultOperationManager implements OperationManager
         {
             lookupContext.setTransaction( transaction );
 
-            lockRead();
+            lockRead( partition );
     
             try
             {
@@ -982,7 +1257,7 @@ public class DefaultOperationManager implements OperationManager
             }
             finally
             {
-                unlockRead();
+                unlockRead( partition );
             }
         }
         catch ( IOException ioe )
@@ -1089,7 +1364,7 @@ public class DefaultOperationManager implements OperationManager
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         modifyContext.setPartition( partition );
         
-        lockWrite();
+        lockWrite( partition );
         
         // Start a Write transaction right away
         PartitionTxn transaction = modifyContext.getSession().getTransaction( partition ); 
@@ -1112,13 +1387,13 @@ public class DefaultOperationManager implements OperationManager
             eagerlyPopulateFields( modifyContext );
 
             // Call the Modify method
-            Interceptor head = directoryService.getInterceptor( modifyContext.getNextInterceptor() );
+            Interceptor head = modifyContext.getNextInterceptorInstance();
 
             head.modify( modifyContext );
             
             if ( !modifyContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitDeferred( transaction );
             }
         }
         catch ( LdapException le )
@@ -1152,7 +1427,13 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
+        }
+
+        if ( !modifyContext.getSession().hasSessionTransaction() )
+        {
+            // The partition is unlocked, the other writers can commit while we wait
+            awaitSync( transaction );
         }
 
         if ( IS_DEBUG )
@@ -1260,12 +1541,12 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-        
         // Find the working partition
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         moveContext.setPartition( partition );
 
+        lockWrite( partition );
+
         // Start a Write transaction right away
         PartitionTxn transaction = moveContext.getSession().getTransaction( partition ); 
         
@@ -1287,13 +1568,13 @@ public class DefaultOperationManager implements OperationManager
             moveContext.setOriginalEntry( originalEntry );
 
             // Call the Move method
-            Interceptor head = directoryService.getInterceptor( moveContext.getNextInterceptor() );
+            Interceptor head = moveContext.getNextInterceptorInstance();
 
             head.move( moveContext );
             
             if ( !moveContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitDeferred( transaction );
             }
         }
         catch ( LdapException le )
@@ -1330,7 +1611,13 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
+        }
+
+        if ( !moveContext.getSession().hasSessionTransaction() )
+        {
+            // The partition is unlocked, the other writers can commit while we wait
+            awaitSync( transaction );
         }
 
         if ( IS_DEBUG )
@@ -1443,7 +1730,7 @@ public class DefaultOperationManager implements OperationManager
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         moveAndRenameContext.setPartition( partition );
 
-        lockWrite();
+        lockWrite( partition );
         
         // Start a Write transaction right away
         PartitionTxn transaction = moveAndRenameContext.getSession().getTransaction( partition ); 
@@ -1465,13 +1752,13 @@ public class DefaultOperationManager implements OperationManager
             moveAndRenameContext.setTransaction( transaction );
 
             // Call the MoveAndRename method
-            Interceptor head = directoryService.getInterceptor( moveAndRenameContext.getNextInterceptor() );
+            Interceptor head = moveAndRenameContext.getNextInterceptorInstance();
 
             head.moveAndRename( moveAndRenameContext );
 
             if ( !moveAndRenameContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitDeferred( transaction );
             }
         }
         catch ( LdapException le )
@@ -1505,7 +1792,13 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
+        }
+
+        if ( !moveAndRenameContext.getSession().hasSessionTransaction() )
+        {
+            // The partition is unlocked, the other writers can commit while we wait
+            awaitSync( transaction );
         }
 
         if ( IS_DEBUG )
@@ -1611,10 +1904,10 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
 
+        lockWrite( partition );
+
         // Start a Write transaction right away
         PartitionTxn transaction = renameContext.getSession().getTransaction( partition ); 
         
@@ -1663,7 +1956,7 @@ public class DefaultOperationManager implements OperationManager
             Entry originalEntry = getOriginalEntry( renameContext );
             renameContext.setOriginalEntry( originalEntry );
             renameContext.setModifiedEntry( originalEntry.clone() );
-            Interceptor head = directoryService.getInterceptor( renameContext.getNextInterceptor() );
+            Interceptor head = renameContext.getNextInterceptorInstance();
 
             // Start a Write transaction right away
             transaction = renameContext.getSession().getTransaction( partition ); 
@@ -1687,7 +1980,7 @@ public class DefaultOperationManager implements OperationManager
                 
                 if ( !renameContext.getSession().hasSessionTransaction() )
                 {
-                    transaction.commit();
+                    commitDeferred( transaction );
                 }
             }
             catch ( LdapException le )
@@ -1725,7 +2018,13 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
+        }
+
+        if ( !renameContext.getSession().hasSessionTransaction() )
+        {
+            // The partition is unlocked, the other writers can commit while we wait
+            awaitSync( transaction );
         }
 
         if ( IS_DEBUG )
@@ -1815,7 +2114,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Search method
-        Interceptor head = directoryService.getInterceptor( searchContext.getNextInterceptor() );
+        Interceptor head = searchContext.getNextInterceptorInstance();
 
         EntryFilteringCursor cursor = null;
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
@@ -1824,7 +2123,7 @@ public class DefaultOperationManager implements OperationManager
         {
             searchContext.setPartition( partition );
             searchContext.setTransaction( partitionTxn );
-            lockRead();
+            lockRead( partition );
     
             try
             {
@@ -1832,7 +2131,7 @@ public class DefaultOperationManager implements OperationManager
             }
             finally
             {
-                unlockRead();
+                unlockRead( partition );
             }
         }
         catch ( IOException ioe )
@@ -1874,7 +2173,7 @@ public class DefaultOperationManager implements OperationManager
         ensureStarted();
 
         // Call the Unbind method
-        Interceptor head = directoryService.getInterceptor( unbindContext.getNextInterceptor() );
+        Interceptor head = unbindContext.getNextInterceptorInstance();
 
         head.unbind( unbindContext );
 
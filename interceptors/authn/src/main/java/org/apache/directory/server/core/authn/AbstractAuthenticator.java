@@ -29,18 +29,12 @@ import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchema
 import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants.PWD_LAST_SUCCESS_AT;
 import static org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants.PWD_START_TIME_AT;
 
-import java.io.IOException;
-import java.util.Collections;
 import java.util.Date;
 
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.entry.Attribute;
-import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
-import org.apache.directory.api.ldap.model.entry.Modification;
-import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.exception.LdapException;
-import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.password.PasswordUtil;
 import org.apache.directory.api.util.DateUtils;
@@ -48,9 +42,6 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyConfiguration;
 import org.apache.directory.server.core.api.authn.ppolicy.PasswordPolicyException;
-import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
-import org.apache.directory.server.core.api.partition.Partition;
-import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -207,53 +198,6 @@ public abstract class AbstractAuthenticator implements Authenticator
     {
         this.baseDn = baseDn;
     }
-    
-    
-    private void internalModify( ModifyOperationContext modContext ) throws LdapException
-    {
-        Partition partition = directoryService.getPartitionNexus().getPartition( modContext.getDn() );
-        modContext.setPartition( partition );
-        PartitionTxn partitionTxn = null;
-
-        try
-        {
-            partitionTxn = partition.beginWriteTransaction();
-            modContext.setTransaction( partitionTxn );
-
-            directoryService.getPartitionNexus().modify( modContext );
-
-            partitionTxn.commit();
-        }
-        catch ( LdapException le )
-        {
-            try 
-            {
-                if ( partitionTxn != null )
-                {
-                    partitionTxn.abort();
-                }
-                
-                throw le;
-            }
-            catch ( IOException ioe )
-            {
-                throw new LdapOtherException( ioe.getMessage(), ioe );
-            }
-        }
-        catch ( IOException ioe )
-        {
-            try 
-            {
-                partitionTxn.abort();
-                
-                throw new LdapOtherException( ioe.getMessage(), ioe );
-            }
-            catch ( IOException ioe2 )
-            {
-                throw new LdapOtherException( ioe2.getMessage(), ioe2 );
-            }
-        }
-    }
 
 
     /**
@@ -272,6 +216,10 @@ public abstract class AbstractAuthenticator implements Authenticator
             InterceptorEnum.AUTHENTICATION_INTERCEPTOR.getName() );
         PasswordPolicyConfiguration pPolicyConfig = authenticationInterceptor.getPwdPolicy( userEntry );
 
+        // The state written by the previous binds may still be pending
+        PasswordPolicyStateStore pwdPolicyStateStore = authenticationInterceptor.getPwdPolicyStateStore();
+        pwdPolicyStateStore.apply( userEntry );
+
         // check for locked out account
         if ( pPolicyConfig.isPwdLockout() )
         {
@@ -304,14 +252,8 @@ public abstract class AbstractAuthenticator implements Authenticator
                     else
                     {
                         // remove pwdAccountLockedTime attribute
-                        Modification pwdAccountLockMod = new DefaultModification(
-                            ModificationOperation.REMOVE_ATTRIBUTE, accountLockAttr );
-                        ModifyOperationContext modContext = new ModifyOperationContext(
-                            directoryService.getAdminSession() );
-                        modContext.setDn( userEntry.getDn() );
-                        modContext.setModItems( Collections.singletonList( pwdAccountLockMod ) );
-
-                        internalModify( modContext );
+                        pwdPolicyStateStore.removeAccountLockedTime( userEntry.getDn() );
+                        pwdPolicyStateStore.write( userEntry.getDn() );
                     }
                 }
             }
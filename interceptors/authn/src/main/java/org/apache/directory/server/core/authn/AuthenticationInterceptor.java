@@ -43,7 +43,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -154,6 +153,12 @@ public class AuthenticationInterceptor extends BaseInterceptor
     /** a container to hold all the ppolicies */
     private PpolicyConfigContainer pwdPolicyContainer;
 
+    /** The maximum delay before the password policy state updated by a bind is written, in ms */
+    private long pwdPolicyStateFlushDelay;
+
+    /** The password policy state updated by the binds, not yet written */
+    private PasswordPolicyStateStore pwdPolicyStateStore;
+
 
     /**
      * Creates an authentication service interceptor.
@@ -186,6 +191,8 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
 
         loadPwdPolicyStateAttributeTypes();
+
+        pwdPolicyStateStore = new PasswordPolicyStateStore( directoryService, pwdPolicyStateFlushDelay );
     }
 
 
@@ -261,6 +268,8 @@ public class AuthenticationInterceptor extends BaseInterceptor
     @Override
     public void destroy()
     {
+        flushPwdPolicyStates();
+
         authenticatorsMapByType.clear();
         Set<Authenticator> copy = new HashSet<>( authenticators );
         authenticators = new HashSet<>();
@@ -339,6 +348,10 @@ public class AuthenticationInterceptor extends BaseInterceptor
         if ( !directoryService.isPwdPolicyEnabled() || addContext.isReplEvent() )
         {
             next( addContext );
+
+            // The entry may have been cached as missing
+            invalidateAuthenticatorCaches( addContext.getDn() );
+
             return;
         }
 
@@ -412,6 +425,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
 
         next( addContext );
+        invalidateAuthenticatorCaches( addContext.getDn() );
     }
 
 
@@ -626,6 +640,9 @@ public class AuthenticationInterceptor extends BaseInterceptor
             lookupContext.setTransaction( bindContext.getTransaction() );
             
             userEntry = directoryService.getPartitionNexus().lookup( lookupContext );
+
+            // The state written by the previous binds may still be pending
+            pwdPolicyStateStore.apply( userEntry );
         }
 
         // check if the user entry is null, it will be null
@@ -644,23 +661,9 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
             if ( ( policyConfig != null ) && ( userEntry != null ) )
             {
-                Attribute pwdFailTimeAt = userEntry.get( pwdFailurTimeAT );
-
-                if ( pwdFailTimeAt == null )
-                {
-                    pwdFailTimeAt = new DefaultAttribute( pwdFailurTimeAT );
-                }
-                else
-                {
-                    purgeFailureTimes( policyConfig, pwdFailTimeAt );
-                }
-
                 String failureTime = DateUtils.getGeneralizedTime();
-                pwdFailTimeAt.add( failureTime );
-                Modification pwdFailTimeMod = new DefaultModification( REPLACE_ATTRIBUTE, pwdFailTimeAt );
-
-                List<Modification> mods = new ArrayList<>();
-                mods.add( pwdFailTimeMod );
+                Attribute pwdFailTimeAt = pwdPolicyStateStore.addFailureTime( userEntry, failureTime,
+                    policyConfig.getPwdFailureCountInterval() );
 
                 int numFailures = pwdFailTimeAt.size();
 
@@ -670,22 +673,17 @@ public class AuthenticationInterceptor extends BaseInterceptor
                     // See DIRSERVER-1812 (The default admin account should never get locked forever)
                     if ( !userEntry.getDn().equals( new Dn( schemaManager, ServerDNConstants.ADMIN_SYSTEM_DN ) ) )
                     {
-                        Attribute pwdAccountLockedTimeAt = new DefaultAttribute( pwdAccountLockedTimeAT );
-
                         // if zero, lockout permanently, only admin can unlock it
                         if ( policyConfig.getPwdLockoutDuration() == 0 )
                         {
-                            pwdAccountLockedTimeAt.add( "000001010000Z" );
+                            pwdPolicyStateStore.setAccountLockedTime( bindDn,
+                                PasswordPolicyStateStore.PERMANENTLY_LOCKED );
                         }
                         else
                         {
-                            pwdAccountLockedTimeAt.add( failureTime );
+                            pwdPolicyStateStore.setAccountLockedTime( bindDn, failureTime );
                         }
 
-                        Modification pwdAccountLockedMod = new DefaultModification( REPLACE_ATTRIBUTE,
-                            pwdAccountLockedTimeAt );
-                        mods.add( pwdAccountLockedMod );
-
                         pwdRespCtrl.setPasswordPolicyError( PasswordPolicyErrorEnum.ACCOUNT_LOCKED );
                     }
                 }
@@ -711,20 +709,8 @@ public class AuthenticationInterceptor extends BaseInterceptor
                     }
                 }
 
-                if ( !mods.isEmpty() )
-                {
-                    String csnVal = directoryService.getCSN().toString();
-                    Modification csnMod = new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider()
-                        .getEntryCSN(), csnVal );
-                    mods.add( csnMod );
-                    ModifyOperationContext bindModCtx = new ModifyOperationContext( adminSession );
-                    bindModCtx.setDn( bindDn );
-                    bindModCtx.setEntry( userEntry );
-                    bindModCtx.setModItems( mods );
-                    bindModCtx.setPushToEvtInterceptor( true );
-
-                    internalModify( bindContext, bindModCtx );
-                }
+                // Written now, or later if the writes are delayed
+                pwdPolicyStateStore.write( bindDn );
             }
 
             String upDn = bindDn == null ? "" : bindDn.getName();
@@ -732,31 +718,20 @@ public class AuthenticationInterceptor extends BaseInterceptor
         }
         else if ( policyConfig != null )
         {
-            List<Modification> mods = new ArrayList<>();
+            String lastSuccess = null;
 
             if ( policyConfig.getPwdMaxIdle() > 0 )
             {
-                Attribute pwdLastSuccesTimeAt = new DefaultAttribute( pwdLastSuccessAT );
-                pwdLastSuccesTimeAt.add( DateUtils.getGeneralizedTime() );
-                Modification pwdLastSuccesTimeMod = new DefaultModification( REPLACE_ATTRIBUTE, pwdLastSuccesTimeAt );
-                mods.add( pwdLastSuccesTimeMod );
+                lastSuccess = DateUtils.getGeneralizedTime();
             }
 
-            Attribute pwdFailTimeAt = userEntry.get( pwdFailurTimeAT );
-
-            if ( pwdFailTimeAt != null )
+            // Remove the failure times and the lock, written now or later if the writes are delayed
+            if ( pwdPolicyStateStore.setSuccess( userEntry, lastSuccess ) )
             {
-                Modification pwdFailTimeMod = new DefaultModification( REMOVE_ATTRIBUTE, pwdFailTimeAt );
-                mods.add( pwdFailTimeMod );
+                pwdPolicyStateStore.write( bindDn );
             }
 
-            Attribute pwdAccLockedTimeAt = userEntry.get( pwdAccountLockedTimeAT );
-
-            if ( pwdAccLockedTimeAt != null )
-            {
-                Modification pwdAccLockedTimeMod = new DefaultModification( REMOVE_ATTRIBUTE, pwdAccLockedTimeAt );
-                mods.add( pwdAccLockedTimeMod );
-            }
+            List<Modification> mods = new ArrayList<>();
 
             // checking the expiration time *after* performing authentication, do we need to care about millisecond precision?
             if ( ( policyConfig.getPwdMaxAge() > 0 ) && ( policyConfig.getPwdGraceAuthNLimit() > 0 ) )
@@ -861,6 +836,7 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( deleteContext );
         next( deleteContext );
         invalidateAuthenticatorCaches( deleteContext.getDn() );
+        pwdPolicyStateStore.discard( deleteContext.getDn() );
     }
 
 
@@ -952,6 +928,30 @@ public class AuthenticationInterceptor extends BaseInterceptor
         {
             processPasswordPolicydModify( modifyContext );
         }
+
+        discardPwdPolicyState( modifyContext );
+    }
+
+
+    /**
+     * Discards the password policy state of an entry not yet written when the modification
+     * changes the password or the password policy state, so that the state does not overwrite
+     * the modification when it's written.
+     */
+    private void discardPwdPolicyState( ModifyOperationContext modifyContext )
+    {
+        for ( Modification modification : modifyContext.getModItems() )
+        {
+            AttributeType attributeType = modification.getAttribute().getAttributeType();
+
+            if ( PWD_POLICY_STATE_ATTRIBUTE_TYPES.contains( attributeType )
+                || directoryService.getAtProvider().getUserPassword().equals( attributeType ) )
+            {
+                pwdPolicyStateStore.discard( modifyContext.getDn() );
+
+                return;
+            }
+        }
     }
 
     
@@ -1341,6 +1341,8 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( moveContext );
         next( moveContext );
         invalidateAuthenticatorCaches( moveContext.getDn() );
+        pwdPolicyStateStore.discard( moveContext.getDn() );
+        invalidateAuthenticatorCaches( moveContext.getNewDn() );
     }
 
 
@@ -1359,6 +1361,8 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( moveAndRenameContext );
         next( moveAndRenameContext );
         invalidateAuthenticatorCaches( moveAndRenameContext.getDn() );
+        pwdPolicyStateStore.discard( moveAndRenameContext.getDn() );
+        invalidateAuthenticatorCaches( moveAndRenameContext.getNewDn() );
     }
 
 
@@ -1377,6 +1381,8 @@ public class AuthenticationInterceptor extends BaseInterceptor
         checkPwdReset( renameContext );
         next( renameContext );
         invalidateAuthenticatorCaches( renameContext.getDn() );
+        pwdPolicyStateStore.discard( renameContext.getDn() );
+        invalidateAuthenticatorCaches( renameContext.getNewDn() );
     }
 
 
@@ -1891,35 +1897,47 @@ public class AuthenticationInterceptor extends BaseInterceptor
 
 
     /**
-     * purges failure timestamps which are older than the configured interval
-     * (section 7.6 in the draft)
+     * @return The maximum delay before the password policy state updated by a bind is written,
+     * in milliseconds
      */
-    private void purgeFailureTimes( PasswordPolicyConfiguration config, Attribute pwdFailTimeAt )
+    public long getPwdPolicyStateFlushDelay()
     {
-        long interval = config.getPwdFailureCountInterval();
+        return pwdPolicyStateFlushDelay;
+    }
 
-        if ( interval == 0 )
-        {
-            return;
-        }
 
-        interval *= 1000;
+    /**
+     * Sets the maximum delay before the password policy state updated by a bind (failure times,
+     * lock time and last success time) is written. If not 0, the bind does not write the entry : the
+     * state is kept in memory, and written in batches by a background thread. It must be set
+     * before the interceptor is initialized.
+     *
+     * @param pwdPolicyStateFlushDelay The delay in milliseconds, 0 to write the state immediately
+     */
+    public void setPwdPolicyStateFlushDelay( long pwdPolicyStateFlushDelay )
+    {
+        this.pwdPolicyStateFlushDelay = pwdPolicyStateFlushDelay;
+    }
+
 
-        long currentTime = DateUtils.getDate( DateUtils.getGeneralizedTime() ).getTime();
+    /**
+     * @return The password policy state updated by the binds, not yet written
+     */
+    public PasswordPolicyStateStore getPwdPolicyStateStore()
+    {
+        return pwdPolicyStateStore;
+    }
 
-        Iterator<Value> itr = pwdFailTimeAt.iterator();
 
-        while ( itr.hasNext() )
+    /**
+     * Writes the password policy states not yet written, and stops the background writes.
+     * It's called when the server is stopped, before the partitions are closed.
+     */
+    public void flushPwdPolicyStates()
+    {
+        if ( pwdPolicyStateStore != null )
         {
-            Value value = itr.next();
-            String failureTime = value.getValue();
-            long time = DateUtils.getDate( failureTime ).getTime();
-            time += interval;
-
-            if ( currentTime >= time )
-            {
-                itr.remove();
-            }
+            pwdPolicyStateStore.destroy();
         }
     }
 }
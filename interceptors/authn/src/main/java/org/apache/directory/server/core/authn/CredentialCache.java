@@ -0,0 +1,452 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A concurrent cache storing the passwords of the principals which have bound
+ * recently, so that a bind does not have to lookup the principal entry. The
+ * cache can be read and updated by many threads without any lock.
+ * <br>
+ * Each element has a time to live, after which it is read again from the backend.
+ * A principal which does not exist is also stored, with a shorter time to live,
+ * so that binds on unknown Dns do not hit the backend either. An element is removed
+ * when the principal entry is modified, so a load which has been started before
+ * an invalidation is not stored in the cache.
+ * <br>
+ * When the cache is full, the elements are evicted using the CLOCK algorithm: an element
+ * which has been read since the last time it was checked is given a second chance,
+ * the others are evicted in the order they have been stored.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CredentialCache
+{
+    /** The default maximum number of elements */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** The default time to live of a principal, in milliseconds */
+    public static final long DEFAULT_TIME_TO_LIVE = 600000L;
+
+    /** The default time to live of a missing principal, in milliseconds */
+    public static final long DEFAULT_NEGATIVE_TIME_TO_LIVE = 10000L;
+
+    /** The stored elements, per normalized Dn */
+    private final ConcurrentMap<String, CachedCredentials> cache = new ConcurrentHashMap<>();
+
+    /** The stored elements, in the order they have been stored */
+    private final Queue<CachedCredentials> clock = new ConcurrentLinkedQueue<>();
+
+    /** The maximum number of elements */
+    private volatile int maxSize;
+
+    /** The time to live of a principal, in milliseconds. 0 means forever */
+    private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    /** The time to live of a missing principal, in milliseconds. 0 disables the negative cache */
+    private volatile long negativeTimeToLive = DEFAULT_NEGATIVE_TIME_TO_LIVE;
+
+    /** Incremented on each invalidation, so that the loads running concurrently are discarded */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** The statistics */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /** The passwords stored for a missing principal */
+    private static final byte[][] NO_PRINCIPAL = new byte[0][];
+
+    /**
+     * An element of the cache.
+     */
+    private static class CachedCredentials
+    {
+        /** The normalized Dn */
+        private final String key;
+
+        /** The stored passwords, or NO_PRINCIPAL */
+        private final byte[][] passwords;
+
+        /** The time after which the element is expired, Long.MAX_VALUE if it never expires */
+        private final long expiration;
+
+        /** Tells if the element has been read since the eviction has checked it */
+        private volatile boolean referenced;
+
+
+        private CachedCredentials( String key, byte[][] passwords, long expiration )
+        {
+            this.key = key;
+            this.passwords = passwords;
+            this.expiration = expiration;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of CredentialCache.
+     *
+     * @param maxSize The maximum number of elements
+     */
+    public CredentialCache( int maxSize )
+    {
+        this.maxSize = maxSize > 0 ? maxSize : DEFAULT_MAX_SIZE;
+    }
+
+
+    /**
+     * Gets the passwords stored for a principal.
+     *
+     * @param normName The principal normalized Dn
+     * @return The stored passwords, null if the principal is not in the cache. A missing
+     * principal is reported by a {@link CredentialCache#isMissing(byte[][])} value.
+     */
+    public byte[][] get( String normName )
+    {
+        CachedCredentials credentials = cache.get( normName );
+
+        if ( credentials == null )
+        {
+            misses.incrementAndGet();
+
+            return null;
+        }
+
+        if ( System.currentTimeMillis() > credentials.expiration )
+        {
+            cache.remove( normName, credentials );
+            misses.incrementAndGet();
+
+            return null;
+        }
+
+        credentials.referenced = true;
+
+        if ( credentials.passwords == NO_PRINCIPAL )
+        {
+            negativeHits.incrementAndGet();
+        }
+        else
+        {
+            hits.incrementAndGet();
+        }
+
+        return credentials.passwords;
+    }
+
+
+    /**
+     * Tells if some passwords returned by the cache stand for a missing principal.
+     *
+     * @param passwords The passwords returned by {@link CredentialCache#get(String)}
+     * @return <tt>true</tt> if the principal does not exist
+     */
+    public static boolean isMissing( byte[][] passwords )
+    {
+        return passwords == NO_PRINCIPAL;
+    }
+
+
+    /**
+     * Gets the current generation of the cache. It must be read before loading the
+     * passwords from the backend, and given back when they are stored.
+     *
+     * @return The current generation
+     */
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+
+    /**
+     * Stores the passwords of a principal, unless an element has been invalidated since
+     * the given generation has been read.
+     *
+     * @param normName The principal normalized Dn
+     * @param passwords The principal passwords
+     * @param loadGeneration The generation read before the passwords have been loaded
+     */
+    public void put( String normName, byte[][] passwords, long loadGeneration )
+    {
+        store( normName, passwords, timeToLive, loadGeneration );
+    }
+
+
+    /**
+     * Stores the fact that a principal does not exist, unless an element has been
+     * invalidated since the given generation has been read.
+     *
+     * @param normName The principal normalized Dn
+     * @param loadGeneration The generation read before the principal has been looked up
+     */
+    public void putMissing( String normName, long loadGeneration )
+    {
+        if ( negativeTimeToLive > 0 )
+        {
+            store( normName, NO_PRINCIPAL, negativeTimeToLive, loadGeneration );
+        }
+    }
+
+
+    private void store( String normName, byte[][] passwords, long ttl, long loadGeneration )
+    {
+        long expiration = ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE;
+        CachedCredentials credentials = new CachedCredentials( normName, passwords, expiration );
+
+        cache.put( normName, credentials );
+
+        // An invalidation may have happened while the passwords were loaded, or just before they
+        // have been stored : in this case, they are probably stale.
+        if ( generation.get() != loadGeneration )
+        {
+            cache.remove( normName, credentials );
+
+            return;
+        }
+
+        clock.offer( credentials );
+        evict();
+    }
+
+
+    /**
+     * Evicts elements until the cache is below its maximum size.
+     */
+    private void evict()
+    {
+        int toCheck = clock.size();
+
+        while ( cache.size() > maxSize )
+        {
+            CachedCredentials credentials = clock.poll();
+
+            if ( credentials == null )
+            {
+                return;
+            }
+
+            if ( cache.get( credentials.key ) != credentials )
+            {
+                // Already removed or replaced
+                continue;
+            }
+
+            if ( credentials.referenced && ( toCheck-- > 0 ) )
+            {
+                // Second chance
+                credentials.referenced = false;
+                clock.offer( credentials );
+            }
+            else if ( cache.remove( credentials.key, credentials ) )
+            {
+                evictions.incrementAndGet();
+            }
+        }
+
+        // The queue may contain elements which are no longer in the cache
+        if ( clock.size() > 2 * maxSize )
+        {
+            for ( CachedCredentials credentials : clock )
+            {
+                if ( cache.get( credentials.key ) != credentials )
+                {
+                    clock.remove( credentials );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Removes a principal from the cache, and discards the loads in progress.
+     *
+     * @param normName The principal normalized Dn
+     */
+    public void invalidate( String normName )
+    {
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+        cache.remove( normName );
+    }
+
+
+    /**
+     * Removes all the elements from the cache.
+     */
+    public void clear()
+    {
+        generation.incrementAndGet();
+        cache.clear();
+        clock.clear();
+    }
+
+
+    /**
+     * @return The number of elements in the cache
+     */
+    public int size()
+    {
+        return cache.size();
+    }
+
+
+    /**
+     * @return The maximum number of elements
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+
+    /**
+     * @param maxSize The maximum number of elements
+     */
+    public void setMaxSize( int maxSize )
+    {
+        this.maxSize = maxSize > 0 ? maxSize : DEFAULT_MAX_SIZE;
+        evict();
+    }
+
+
+    /**
+     * @return The time to live of a principal, in milliseconds
+     */
+    public long getTimeToLive()
+    {
+        return timeToLive;
+    }
+
+
+    /**
+     * @param timeToLive The time to live of a principal, in milliseconds. 0 means forever
+     */
+    public void setTimeToLive( long timeToLive )
+    {
+        this.timeToLive = timeToLive;
+    }
+
+
+    /**
+     * @return The time to live of a missing principal, in milliseconds
+     */
+    public long getNegativeTimeToLive()
+    {
+        return negativeTimeToLive;
+    }
+
+
+    /**
+     * @param negativeTimeToLive The time to live of a missing principal, in milliseconds.
+     * 0 disables the caching of missing principals
+     */
+    public void setNegativeTimeToLive( long negativeTimeToLive )
+    {
+        this.negativeTimeToLive = negativeTimeToLive;
+    }
+
+
+    /**
+     * @return The number of lookups which have found a principal
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+
+    /**
+     * @return The number of lookups which have found a missing principal
+     */
+    public long getNegativeHits()
+    {
+        return negativeHits.get();
+    }
+
+
+    /**
+     * @return The number of lookups which have found nothing
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+
+    /**
+     * @return The number of elements evicted because the cache was full
+     */
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+
+    /**
+     * @return The number of invalidated principals
+     */
+    public long getInvalidations()
+    {
+        return invalidations.get();
+    }
+
+
+    /**
+     * @return The ratio of the lookups answered by the cache, between 0 and 1
+     */
+    public double getHitRatio()
+    {
+        long found = hits.get() + negativeHits.get();
+        long total = found + misses.get();
+
+        return total == 0 ? 0d : ( double ) found / total;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "CredentialCache[size=" ).append( size() );
+        sb.append( ", maxSize=" ).append( maxSize );
+        sb.append( ", hits=" ).append( hits.get() );
+        sb.append( ", negativeHits=" ).append( negativeHits.get() );
+        sb.append( ", misses=" ).append( misses.get() );
+        sb.append( ", evictions=" ).append( evictions.get() );
+        sb.append( ", invalidations=" ).append( invalidations.get() ).append( ']' );
+
+        return sb.toString();
+    }
+}
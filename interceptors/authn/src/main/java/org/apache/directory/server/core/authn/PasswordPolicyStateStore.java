@@ -0,0 +1,793 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import static org.apache.directory.api.ldap.model.entry.ModificationOperation.REPLACE_ATTRIBUTE;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Stores the password policy state of the entries modified by the binds : the
+ * pwdFailureTime, pwdAccountLockedTime and pwdLastSuccess attributes.
+ * <br>
+ * The state is updated in memory, and is applied on the entries read by the
+ * binds, so that the lockout decisions always use the latest state. It is then
+ * written in the entries :
+ * <ul>
+ * <li>immediately, if the flush delay is 0. This is the default</li>
+ * <li>otherwise, by a background thread, at most after the flush delay. All the
+ * binds on an entry done during this delay are merged in one single modification,
+ * and all the modifications of a partition are written in one single transaction</li>
+ * </ul>
+ * The pending states are written when the server is stopped. A state is discarded
+ * when its entry is modified, deleted or renamed by another operation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PasswordPolicyStateStore
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PasswordPolicyStateStore.class );
+
+    /** The value of pwdAccountLockedTime for an account locked until the admin unlocks it */
+    public static final String PERMANENTLY_LOCKED = "000001010000Z";
+
+    /** The directory service */
+    private final DirectoryService directoryService;
+
+    /** The state attribute types */
+    private final AttributeType pwdFailureTimeAT;
+    private final AttributeType pwdAccountLockedTimeAT;
+    private final AttributeType pwdLastSuccessAT;
+
+    /** The pending states, per entry normalized Dn */
+    private final ConcurrentMap<String, PasswordPolicyState> states = new ConcurrentHashMap<>();
+
+    /** The maximum delay before a state is written, in milliseconds */
+    private final long flushDelay;
+
+    /** The thread writing the states, null if they are written immediately */
+    private ScheduledExecutorService flusher;
+
+    /**
+     * The state of an entry, not yet written. An attribute which has not been
+     * modified is null, an attribute which has been removed is empty.
+     */
+    private static class PasswordPolicyState
+    {
+        /** The entry Dn */
+        private final Dn dn;
+
+        /** The pwdFailureTime attribute */
+        private Attribute failureTimes;
+
+        /** The pwdAccountLockedTime attribute */
+        private Attribute lockedTime;
+
+        /** The pwdLastSuccess attribute */
+        private Attribute lastSuccess;
+
+        /** Incremented on each modification of the state */
+        private long version;
+
+        /** Set when the state has been removed from the store */
+        private boolean removed;
+
+
+        private PasswordPolicyState( Dn dn )
+        {
+            this.dn = dn;
+        }
+    }
+
+    /**
+     * The modification writing a state, and the version of the state it contains.
+     */
+    private static class PendingWrite
+    {
+        /** The written state */
+        private final PasswordPolicyState state;
+
+        /** The written version */
+        private final long version;
+
+        /** The modification */
+        private final ModifyOperationContext modifyContext;
+
+
+        private PendingWrite( PasswordPolicyState state, long version, ModifyOperationContext modifyContext )
+        {
+            this.state = state;
+            this.version = version;
+            this.modifyContext = modifyContext;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of PasswordPolicyStateStore.
+     *
+     * @param directoryService The directory service
+     * @param flushDelay The maximum delay before a state is written, in milliseconds.
+     * If 0, the states are written immediately.
+     */
+    public PasswordPolicyStateStore( DirectoryService directoryService, long flushDelay )
+    {
+        this.directoryService = directoryService;
+        this.flushDelay = flushDelay;
+
+        SchemaManager schemaManager = directoryService.getSchemaManager();
+        pwdFailureTimeAT = schemaManager.getAttributeType( PasswordPolicySchemaConstants.PWD_FAILURE_TIME_AT );
+        pwdAccountLockedTimeAT = schemaManager
+            .getAttributeType( PasswordPolicySchemaConstants.PWD_ACCOUNT_LOCKED_TIME_AT );
+        pwdLastSuccessAT = schemaManager.getAttributeType( PasswordPolicySchemaConstants.PWD_LAST_SUCCESS_AT );
+
+        if ( flushDelay > 0 )
+        {
+            ThreadFactory threadFactory = new ThreadFactory()
+            {
+                @Override
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                    newThread.setName( "ppolicy-state-flusher" );
+                    newThread.setDaemon( true );
+
+                    return newThread;
+                }
+            };
+
+            flusher = Executors.newSingleThreadScheduledExecutor( threadFactory );
+
+            flusher.scheduleWithFixedDelay( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flush();
+                }
+            }, flushDelay, flushDelay, TimeUnit.MILLISECONDS );
+        }
+    }
+
+
+    /**
+     * @return The maximum delay before a state is written, in milliseconds
+     */
+    public long getFlushDelay()
+    {
+        return flushDelay;
+    }
+
+
+    /**
+     * @return The number of states not yet written
+     */
+    public int size()
+    {
+        return states.size();
+    }
+
+
+    /**
+     * Gets the state of an entry, creating it if needed. The caller must check that
+     * the state has not been removed once it has acquired its monitor.
+     */
+    private PasswordPolicyState getState( Dn dn )
+    {
+        PasswordPolicyState state = states.get( dn.getNormName() );
+
+        if ( state == null )
+        {
+            state = new PasswordPolicyState( dn );
+            PasswordPolicyState existing = states.putIfAbsent( dn.getNormName(), state );
+
+            if ( existing != null )
+            {
+                state = existing;
+            }
+        }
+
+        return state;
+    }
+
+
+    /**
+     * Replaces the state attributes of an entry read from the backend by their pending values.
+     *
+     * @param entry The entry to update
+     * @throws LdapException If the entry can't be updated
+     */
+    public void apply( Entry entry ) throws LdapException
+    {
+        if ( entry == null )
+        {
+            return;
+        }
+
+        PasswordPolicyState state = states.get( entry.getDn().getNormName() );
+
+        if ( state == null )
+        {
+            return;
+        }
+
+        synchronized ( state )
+        {
+            apply( entry, state.failureTimes );
+            apply( entry, state.lockedTime );
+            apply( entry, state.lastSuccess );
+        }
+    }
+
+
+    private void apply( Entry entry, Attribute attribute ) throws LdapException
+    {
+        if ( attribute == null )
+        {
+            return;
+        }
+
+        if ( attribute.size() == 0 )
+        {
+            entry.removeAttributes( attribute.getAttributeType() );
+        }
+        else
+        {
+            entry.put( attribute.clone() );
+        }
+    }
+
+
+    /**
+     * Returns the current value of a state attribute : the pending value if any,
+     * otherwise the value read in the entry.
+     */
+    private Attribute current( Attribute pending, Entry entry, AttributeType attributeType )
+    {
+        if ( pending != null )
+        {
+            return pending.clone();
+        }
+
+        Attribute attribute = entry.get( attributeType );
+
+        return attribute == null ? new DefaultAttribute( attributeType ) : attribute.clone();
+    }
+
+
+    /**
+     * Records a failed bind : the expired failure times are removed, and the new
+     * failure time is added.
+     *
+     * @param entry The entry of the user who failed to bind
+     * @param failureTime The failure time
+     * @param failureCountInterval The number of seconds after which a failure time expires,
+     * 0 if they never expire
+     * @return The failure times, including the new one
+     * @throws LdapException If the failure time can't be added
+     */
+    public Attribute addFailureTime( Entry entry, String failureTime, long failureCountInterval )
+        throws LdapException
+    {
+        while ( true )
+        {
+            PasswordPolicyState state = getState( entry.getDn() );
+
+            synchronized ( state )
+            {
+                if ( state.removed )
+                {
+                    continue;
+                }
+
+                Attribute failureTimes = current( state.failureTimes, entry, pwdFailureTimeAT );
+                purgeFailureTimes( failureTimes, failureCountInterval );
+                failureTimes.add( failureTime );
+
+                state.failureTimes = failureTimes;
+                state.version++;
+
+                return failureTimes.clone();
+            }
+        }
+    }
+
+
+    /**
+     * Removes the failure times which have expired.
+     *
+     * @param failureTimes The pwdFailureTime attribute
+     * @param failureCountInterval The number of seconds after which a failure time expires,
+     * 0 if they never expire
+     */
+    /* no qualifier */static void purgeFailureTimes( Attribute failureTimes, long failureCountInterval )
+    {
+        if ( failureCountInterval == 0 )
+        {
+            return;
+        }
+
+        long interval = failureCountInterval * 1000;
+
+        long currentTime = DateUtils.getDate( DateUtils.getGeneralizedTime() ).getTime();
+
+        Iterator<Value> itr = failureTimes.iterator();
+
+        while ( itr.hasNext() )
+        {
+            Value value = itr.next();
+            String failureTime = value.getValue();
+            long time = DateUtils.getDate( failureTime ).getTime();
+            time += interval;
+
+            if ( currentTime >= time )
+            {
+                itr.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Locks an account.
+     *
+     * @param dn The entry Dn
+     * @param lockedTime The lock time, or {@link #PERMANENTLY_LOCKED}
+     * @throws LdapException If the lock time can't be set
+     */
+    public void setAccountLockedTime( Dn dn, String lockedTime ) throws LdapException
+    {
+        while ( true )
+        {
+            PasswordPolicyState state = getState( dn );
+
+            synchronized ( state )
+            {
+                if ( !state.removed )
+                {
+                    state.lockedTime = new DefaultAttribute( pwdAccountLockedTimeAT, lockedTime );
+                    state.version++;
+
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Unlocks an account which lock has expired.
+     *
+     * @param dn The entry Dn
+     */
+    public void removeAccountLockedTime( Dn dn )
+    {
+        while ( true )
+        {
+            PasswordPolicyState state = getState( dn );
+
+            synchronized ( state )
+            {
+                if ( !state.removed )
+                {
+                    state.lockedTime = new DefaultAttribute( pwdAccountLockedTimeAT );
+                    state.version++;
+
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Records a successful bind : the failure times and the lock are removed, and
+     * the last success time is set.
+     *
+     * @param entry The entry of the user who has bound
+     * @param lastSuccess The success time, or null if it's not stored
+     * @return true if the state has been modified
+     * @throws LdapException If the state can't be modified
+     */
+    public boolean setSuccess( Entry entry, String lastSuccess ) throws LdapException
+    {
+        Dn dn = entry.getDn();
+
+        if ( !states.containsKey( dn.getNormName() ) && ( lastSuccess == null )
+            && !entry.containsAttribute( pwdFailureTimeAT ) && !entry.containsAttribute( pwdAccountLockedTimeAT ) )
+        {
+            // Nothing to do, avoid creating a state
+            return false;
+        }
+
+        while ( true )
+        {
+            PasswordPolicyState state = getState( dn );
+
+            synchronized ( state )
+            {
+                if ( state.removed )
+                {
+                    continue;
+                }
+
+                boolean modified = false;
+
+                if ( current( state.failureTimes, entry, pwdFailureTimeAT ).size() > 0 )
+                {
+                    state.failureTimes = new DefaultAttribute( pwdFailureTimeAT );
+                    modified = true;
+                }
+
+                if ( current( state.lockedTime, entry, pwdAccountLockedTimeAT ).size() > 0 )
+                {
+                    state.lockedTime = new DefaultAttribute( pwdAccountLockedTimeAT );
+                    modified = true;
+                }
+
+                if ( lastSuccess != null )
+                {
+                    state.lastSuccess = new DefaultAttribute( pwdLastSuccessAT, lastSuccess );
+                    modified = true;
+                }
+
+                if ( modified )
+                {
+                    state.version++;
+                }
+
+                return modified;
+            }
+        }
+    }
+
+
+    /**
+     * Discards the pending state of an entry, because the entry has been modified,
+     * deleted or renamed by another operation.
+     *
+     * @param dn The entry Dn
+     */
+    public void discard( Dn dn )
+    {
+        if ( dn == null )
+        {
+            return;
+        }
+
+        PasswordPolicyState state = states.remove( dn.getNormName() );
+
+        if ( state != null )
+        {
+            synchronized ( state )
+            {
+                state.removed = true;
+            }
+        }
+    }
+
+
+    /**
+     * Writes the state of an entry if the states are written immediately. It's called
+     * once all the modifications done by an operation have been applied on the state.
+     *
+     * @param dn The entry Dn
+     * @throws LdapException If the state can't be written
+     */
+    public void write( Dn dn ) throws LdapException
+    {
+        if ( flushDelay > 0 )
+        {
+            return;
+        }
+
+        PasswordPolicyState state = states.get( dn.getNormName() );
+
+        if ( state == null )
+        {
+            return;
+        }
+
+        PendingWrite pendingWrite = createWrite( state );
+
+        if ( pendingWrite == null )
+        {
+            return;
+        }
+
+        ModifyOperationContext modifyContext = pendingWrite.modifyContext;
+
+        // The caller already holds a lock on the partition
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+        PartitionTxn partitionTxn = null;
+
+        try
+        {
+            partitionTxn = partition.beginWriteTransaction();
+            modifyContext.setPartition( partition );
+            modifyContext.setTransaction( partitionTxn );
+
+            directoryService.getPartitionNexus().modify( modifyContext );
+
+            partitionTxn.commit();
+        }
+        catch ( LdapException le )
+        {
+            abort( partitionTxn );
+            discard( dn );
+
+            throw le;
+        }
+        catch ( IOException ioe )
+        {
+            abort( partitionTxn );
+            discard( dn );
+
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        written( state, pendingWrite.version );
+    }
+
+
+    /**
+     * Creates the modification writing a state, or null if the state is empty.
+     */
+    private PendingWrite createWrite( PasswordPolicyState state )
+    {
+        List<Modification> mods = new ArrayList<>();
+        long version;
+
+        synchronized ( state )
+        {
+            if ( state.removed )
+            {
+                return null;
+            }
+
+            for ( Attribute attribute : new Attribute[]
+                { state.failureTimes, state.lockedTime, state.lastSuccess } )
+            {
+                if ( attribute != null )
+                {
+                    // A replace without value removes the attribute
+                    mods.add( new DefaultModification( REPLACE_ATTRIBUTE, attribute.clone() ) );
+                }
+            }
+
+            version = state.version;
+        }
+
+        if ( mods.isEmpty() )
+        {
+            written( state, version );
+
+            return null;
+        }
+
+        String csnVal = directoryService.getCSN().toString();
+        mods.add( new DefaultModification( REPLACE_ATTRIBUTE, directoryService.getAtProvider().getEntryCSN(),
+            csnVal ) );
+
+        ModifyOperationContext modifyContext = new ModifyOperationContext( directoryService.getAdminSession() );
+        modifyContext.setDn( state.dn );
+        modifyContext.setModItems( mods );
+        modifyContext.setPushToEvtInterceptor( true );
+
+        return new PendingWrite( state, version, modifyContext );
+    }
+
+
+    /**
+     * Removes a state once it has been written, unless it has been modified meanwhile.
+     */
+    private void written( PasswordPolicyState state, long version )
+    {
+        synchronized ( state )
+        {
+            if ( !state.removed && ( state.version == version ) )
+            {
+                states.remove( state.dn.getNormName(), state );
+                state.removed = true;
+            }
+        }
+    }
+
+
+    private void abort( PartitionTxn partitionTxn )
+    {
+        if ( partitionTxn != null )
+        {
+            try
+            {
+                partitionTxn.abort();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.error( "Cannot abort the transaction", ioe );
+            }
+        }
+    }
+
+
+    /**
+     * Writes all the pending states, with one transaction per partition.
+     */
+    public void flush()
+    {
+        if ( states.isEmpty() )
+        {
+            return;
+        }
+
+        Map<Partition, List<PendingWrite>> batches = new HashMap<>();
+
+        for ( PasswordPolicyState state : states.values() )
+        {
+            PendingWrite pendingWrite = createWrite( state );
+
+            if ( pendingWrite == null )
+            {
+                continue;
+            }
+
+            try
+            {
+                Partition partition = directoryService.getPartitionNexus().getPartition( state.dn );
+                List<PendingWrite> batch = batches.get( partition );
+
+                if ( batch == null )
+                {
+                    batch = new ArrayList<>();
+                    batches.put( partition, batch );
+                }
+
+                batch.add( pendingWrite );
+            }
+            catch ( LdapException le )
+            {
+                LOG.warn( "Cannot find the partition of {}, discarding its password policy state", state.dn, le );
+                discard( state.dn );
+            }
+        }
+
+        for ( Map.Entry<Partition, List<PendingWrite>> batch : batches.entrySet() )
+        {
+            flush( batch.getKey(), batch.getValue() );
+        }
+    }
+
+
+    /**
+     * Writes the states of a partition in one transaction.
+     */
+    private void flush( Partition partition, List<PendingWrite> pendingWrites )
+    {
+        OperationManager operationManager = directoryService.getOperationManager();
+        List<PendingWrite> done = new ArrayList<>( pendingWrites.size() );
+
+        operationManager.lockWrite( partition );
+
+        try
+        {
+            PartitionTxn partitionTxn = partition.beginWriteTransaction();
+
+            try
+            {
+                for ( PendingWrite pendingWrite : pendingWrites )
+                {
+                    ModifyOperationContext modifyContext = pendingWrite.modifyContext;
+                    modifyContext.setPartition( partition );
+                    modifyContext.setTransaction( partitionTxn );
+
+                    try
+                    {
+                        directoryService.getPartitionNexus().modify( modifyContext );
+                        done.add( pendingWrite );
+                    }
+                    catch ( LdapException le )
+                    {
+                        // The entry has probably been deleted
+                        LOG.warn( "Cannot write the password policy state of {}", modifyContext.getDn(), le );
+                        discard( modifyContext.getDn() );
+                    }
+                }
+
+                partitionTxn.commit();
+            }
+            catch ( IOException ioe )
+            {
+                abort( partitionTxn );
+                LOG.error( "Cannot write the password policy states of partition {}", partition.getId(), ioe );
+
+                return;
+            }
+        }
+        finally
+        {
+            operationManager.unlockWrite( partition );
+        }
+
+        for ( PendingWrite pendingWrite : done )
+        {
+            written( pendingWrite.state, pendingWrite.version );
+        }
+    }
+
+
+    /**
+     * Stops the background writes, and writes the pending states.
+     */
+    public void destroy()
+    {
+        if ( flusher != null )
+        {
+            flusher.shutdown();
+
+            try
+            {
+                flusher.awaitTermination( flushDelay + 10000L, TimeUnit.MILLISECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            flusher = null;
+        }
+
+        flush();
+    }
+}
@@ -24,7 +24,6 @@ import java.net.SocketAddress;
 
 import javax.naming.Context;
 
-import org.apache.commons.collections4.map.LRUMap;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -52,7 +51,8 @@ import org.apache.mina.core.session.IoSession;
  * password is stored with a one-way encryption applied (e.g. SHA), the password
  * is hashed the same way before comparison.
  *
- * We use a cache to speedup authentication, where the Dn/password are stored.
+ * We use a cache to speedup authentication, where the Dn/password are stored. The
+ * cache is bypassed when the password policy is enabled.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -74,13 +74,16 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      * The update of the backend and partition cache is already correctly handled, so we will
      * just have to offer an access to refresh the local cache.
      *
-     * We need to be sure that frequently used passwords be always in cache, and not discarded.
-     * We will use a LRU cache for this purpose.
+     * We need to be sure that frequently used passwords be always in cache, and not discarded,
+     * and that many binds can be processed concurrently : the cache is lock-free, and
+     * evicts the least recently used passwords. The passwords also expire after a while,
+     * to take into account the modifications which are not seen by the server (direct
+     * modifications of the backend, for instance).
      */
-    private final LRUMap credentialCache;
+    private final CredentialCache credentialCache;
 
-    /** Declare a default for this cache. 100 entries seems to be enough */
-    private static final int DEFAULT_CACHE_SIZE = 100;
+    /** Declare a default for this cache */
+    private static final int DEFAULT_CACHE_SIZE = CredentialCache.DEFAULT_MAX_SIZE;
 
 
     /**
@@ -89,7 +92,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     public SimpleAuthenticator()
     {
         super( AuthenticationLevel.SIMPLE );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        credentialCache = new CredentialCache( DEFAULT_CACHE_SIZE );
     }
 
 
@@ -102,7 +105,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     public SimpleAuthenticator( Dn baseDn )
     {
         super( AuthenticationLevel.SIMPLE, baseDn );
-        credentialCache = new LRUMap( DEFAULT_CACHE_SIZE );
+        credentialCache = new CredentialCache( DEFAULT_CACHE_SIZE );
     }
 
 
@@ -114,7 +117,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     {
         super( AuthenticationLevel.SIMPLE, Dn.ROOT_DSE );
 
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        credentialCache = new CredentialCache( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
     }
 
 
@@ -128,7 +131,16 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     {
         super( AuthenticationLevel.SIMPLE, baseDn );
 
-        credentialCache = new LRUMap( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+        credentialCache = new CredentialCache( cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE );
+    }
+
+
+    /**
+     * @return The credential cache, giving access to its settings and statistics
+     */
+    public CredentialCache getCredentialCache()
+    {
+        return credentialCache;
     }
 
 
@@ -140,50 +152,56 @@ public class SimpleAuthenticator extends AbstractAuthenticator
      */
     private LdapPrincipal getStoredPassword( BindOperationContext bindContext ) throws LdapException
     {
-        LdapPrincipal principal = null;
+        Dn dn = bindContext.getDn();
+        byte[][] storedPasswords = null;
 
         // use cache only if pwdpolicy is not enabled
-        if ( !getDirectoryService().isPwdPolicyEnabled() )
+        boolean useCache = !getDirectoryService().isPwdPolicyEnabled();
+        long generation = 0L;
+
+        if ( useCache )
         {
-            synchronized ( credentialCache )
+            generation = credentialCache.getGeneration();
+            storedPasswords = credentialCache.get( dn.getNormName() );
+
+            if ( CredentialCache.isMissing( storedPasswords ) )
             {
-                principal = ( LdapPrincipal ) credentialCache.get( bindContext.getDn() );
+                throw new LdapAuthenticationException( I18n.err( I18n.ERR_231, dn.getName() ) );
             }
         }
 
-        byte[][] storedPasswords;
-
-        if ( principal == null )
+        if ( storedPasswords == null )
         {
             // Not found in the cache
             // Get the user password from the backend
             storedPasswords = lookupUserPassword( bindContext );
 
-            // Deal with the special case where the user didn't enter a password
-            // We will compare the empty array with the credentials. Sometime,
-            // a user does not set a password. This is bad, but there is nothing
-            // we can do against that, except education ...
             if ( storedPasswords == null )
             {
-                storedPasswords = new byte[][]
-                    {};
-            }
+                // The entry does not exist
+                if ( useCache )
+                {
+                    credentialCache.putMissing( dn.getNormName(), generation );
+                }
 
-            // Create the new principal before storing it in the cache
-            principal = new LdapPrincipal( getDirectoryService().getSchemaManager(), bindContext.getDn(),
-                AuthenticationLevel.SIMPLE );
-            principal.setUserPassword( storedPasswords );
+                String message = I18n.err( I18n.ERR_231, dn.getName() );
+                LOG.error( I18n.err( I18n.ERR_6, message ) );
+
+                throw new LdapAuthenticationException( message );
+            }
 
             // Now, update the local cache ONLY if pwdpolicy is not enabled.
-            if ( !getDirectoryService().isPwdPolicyEnabled() )
+            if ( useCache )
             {
-                synchronized ( credentialCache )
-                {
-                    credentialCache.put( bindContext.getDn().getNormName(), principal );
-                }
+                credentialCache.put( dn.getNormName(), storedPasswords, generation );
             }
         }
 
+        // The principal is not shared, as each bind sets its own addresses in it
+        LdapPrincipal principal = new LdapPrincipal( getDirectoryService().getSchemaManager(), dn,
+            AuthenticationLevel.SIMPLE );
+        principal.setUserPassword( storedPasswords );
+
         return principal;
     }
 
@@ -261,7 +279,7 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     /**
      * Local function which request the password from the backend
      * @param bindContext the Bind operation context
-     * @return the credentials from the backend
+     * @return the credentials from the backend, or null if the entry does not exist
      * @throws Exception if there are problems accessing backend
      */
     private byte[][] lookupUserPassword( BindOperationContext bindContext ) throws LdapException
@@ -286,14 +304,6 @@ public class SimpleAuthenticator extends AbstractAuthenticator
             lookupContext.setTransaction( bindContext.getTransaction() );
 
             userEntry = getDirectoryService().getPartitionNexus().lookup( lookupContext );
-
-            if ( userEntry == null )
-            {
-                Dn dn = bindContext.getDn();
-                String upDn = dn == null ? "" : dn.getName();
-
-                throw new LdapAuthenticationException( I18n.err( I18n.ERR_231, upDn ) );
-            }
         }
         catch ( Exception cause )
         {
@@ -303,6 +313,11 @@ public class SimpleAuthenticator extends AbstractAuthenticator
             throw e;
         }
 
+        if ( userEntry == null )
+        {
+            return null;
+        }
+
         DirectoryService directoryService = getDirectoryService();
         String userPasswordAttribute = SchemaConstants.USER_PASSWORD_AT;
 
@@ -349,9 +364,9 @@ public class SimpleAuthenticator extends AbstractAuthenticator
     @Override
     public void invalidateCache( Dn bindDn )
     {
-        synchronized ( credentialCache )
+        if ( bindDn != null )
         {
-            credentialCache.remove( bindDn.getNormName() );
+            credentialCache.invalidate( bindDn.getNormName() );
         }
     }
 }
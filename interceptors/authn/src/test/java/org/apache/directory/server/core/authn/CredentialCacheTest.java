@@ -0,0 +1,143 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.util.Strings;
+import org.junit.Test;
+
+
+/**
+ * Tests the CredentialCache class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CredentialCacheTest
+{
+    private static final byte[][] PASSWORDS = new byte[][]
+        { Strings.getBytesUtf8( "secret" ) };
+
+
+    @Test
+    public void testPutAndGet()
+    {
+        CredentialCache cache = new CredentialCache( 10 );
+
+        assertNull( cache.get( "uid=user,ou=system" ) );
+
+        cache.put( "uid=user,ou=system", PASSWORDS, cache.getGeneration() );
+
+        byte[][] passwords = cache.get( "uid=user,ou=system" );
+        assertNotNull( passwords );
+        assertFalse( CredentialCache.isMissing( passwords ) );
+        assertArrayEquals( PASSWORDS, passwords );
+        assertEquals( 1L, cache.getHits() );
+        assertEquals( 1L, cache.getMisses() );
+        assertEquals( 0.5d, cache.getHitRatio(), 0d );
+    }
+
+
+    @Test
+    public void testMissingPrincipal()
+    {
+        CredentialCache cache = new CredentialCache( 10 );
+
+        cache.putMissing( "uid=unknown,ou=system", cache.getGeneration() );
+
+        assertTrue( CredentialCache.isMissing( cache.get( "uid=unknown,ou=system" ) ) );
+        assertEquals( 1L, cache.getNegativeHits() );
+
+        // The negative cache can be disabled
+        cache.setNegativeTimeToLive( 0L );
+        cache.putMissing( "uid=other,ou=system", cache.getGeneration() );
+
+        assertNull( cache.get( "uid=other,ou=system" ) );
+    }
+
+
+    @Test
+    public void testExpiration() throws Exception
+    {
+        CredentialCache cache = new CredentialCache( 10 );
+        cache.setTimeToLive( 1L );
+
+        cache.put( "uid=user,ou=system", PASSWORDS, cache.getGeneration() );
+        Thread.sleep( 10L );
+
+        assertNull( cache.get( "uid=user,ou=system" ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    @Test
+    public void testInvalidate()
+    {
+        CredentialCache cache = new CredentialCache( 10 );
+
+        cache.put( "uid=user,ou=system", PASSWORDS, cache.getGeneration() );
+        cache.invalidate( "uid=user,ou=system" );
+
+        assertNull( cache.get( "uid=user,ou=system" ) );
+        assertEquals( 1L, cache.getInvalidations() );
+    }
+
+
+    @Test
+    public void testLoadDiscardedByInvalidation()
+    {
+        CredentialCache cache = new CredentialCache( 10 );
+
+        // The passwords are loaded, and modified before they are stored
+        long generation = cache.getGeneration();
+        cache.invalidate( "uid=user,ou=system" );
+        cache.put( "uid=user,ou=system", PASSWORDS, generation );
+
+        assertNull( cache.get( "uid=user,ou=system" ) );
+    }
+
+
+    @Test
+    public void testEviction()
+    {
+        CredentialCache cache = new CredentialCache( 3 );
+
+        cache.put( "uid=a", PASSWORDS, cache.getGeneration() );
+        cache.put( "uid=b", PASSWORDS, cache.getGeneration() );
+        cache.put( "uid=c", PASSWORDS, cache.getGeneration() );
+
+        // a is used, it gets a second chance
+        cache.get( "uid=a" );
+        cache.put( "uid=d", PASSWORDS, cache.getGeneration() );
+
+        assertEquals( 3, cache.size() );
+        assertEquals( 1L, cache.getEvictions() );
+        assertNotNull( cache.get( "uid=a" ) );
+        assertNull( cache.get( "uid=b" ) );
+        assertNotNull( cache.get( "uid=c" ) );
+        assertNotNull( cache.get( "uid=d" ) );
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authn;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.api.ldap.model.constants.PasswordPolicySchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the PasswordPolicyStateStore class, with the states kept in memory.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PasswordPolicyStateStoreTest
+{
+    /** The number of concurrent failed binds */
+    private static final int NB_FAILURES = 10;
+
+    /** The pwdMaxFailure value */
+    private static final int MAX_FAILURE = 5;
+
+    private static SchemaManager schemaManager;
+
+    private static DirectoryService directoryService;
+
+    private PasswordPolicyStateStore store;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+
+        // Only the schema manager is needed as long as the states are not written
+        directoryService = ( DirectoryService ) Proxy.newProxyInstance(
+            PasswordPolicyStateStoreTest.class.getClassLoader(), new Class<?>[]
+                { DirectoryService.class }, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke( Object proxy, Method method, Object[] args )
+                    {
+                        if ( "getSchemaManager".equals( method.getName() ) )
+                        {
+                            return schemaManager;
+                        }
+
+                        return null;
+                    }
+                } );
+    }
+
+
+    @Before
+    public void createStore()
+    {
+        store = new PasswordPolicyStateStore( directoryService, 60000L );
+    }
+
+
+    @After
+    public void destroyStore()
+    {
+        store.destroy();
+    }
+
+
+    private Entry getUserEntry() throws Exception
+    {
+        return new DefaultEntry( schemaManager,
+            "uid=user,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "objectClass: inetOrgPerson",
+            "uid: user",
+            "cn: user",
+            "sn: user" );
+    }
+
+
+    /**
+     * The concurrent failed binds must all be counted, and exactly one of them
+     * must see the pwdMaxFailure limit being reached.
+     */
+    @Test
+    public void testConcurrentFailuresReachMaxFailure() throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( NB_FAILURES );
+        List<Future<Integer>> results = new ArrayList<>();
+
+        try
+        {
+            for ( int i = 0; i < NB_FAILURES; i++ )
+            {
+                final String failureTime = String.format( "202610171200%02d.000Z", i );
+
+                results.add( executor.submit( new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call() throws Exception
+                    {
+                        // Each bind reads the entry from the backend, without the pending state
+                        Entry entry = getUserEntry();
+                        start.await();
+                        store.apply( entry );
+
+                        return store.addFailureTime( entry, failureTime, 0L ).size();
+                    }
+                } ) );
+            }
+
+            start.countDown();
+
+            Set<Integer> counts = new HashSet<>();
+            int nbLocks = 0;
+
+            for ( Future<Integer> result : results )
+            {
+                int count = result.get();
+                counts.add( count );
+
+                if ( count == MAX_FAILURE )
+                {
+                    nbLocks++;
+                }
+            }
+
+            // Each bind has seen all the previous failures
+            assertEquals( NB_FAILURES, counts.size() );
+            assertEquals( 1, nbLocks );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        // The next bind sees all the failures
+        Entry entry = getUserEntry();
+        store.apply( entry );
+        Attribute failureTimes = entry.get( PasswordPolicySchemaConstants.PWD_FAILURE_TIME_AT );
+        assertEquals( NB_FAILURES, failureTimes.size() );
+        assertEquals( 1, store.size() );
+
+        // The state is not written, as there is no backend
+        store.discard( entry.getDn() );
+    }
+
+
+    /**
+     * An admin unlocking an account modifies the entry : the pending lock must
+     * not be applied anymore, nor written later.
+     */
+    @Test
+    public void testAdminUnlockDiscardsPendingState() throws Exception
+    {
+        Entry entry = getUserEntry();
+        Dn dn = entry.getDn();
+
+        for ( int i = 0; i < MAX_FAILURE; i++ )
+        {
+            store.addFailureTime( entry, String.format( "202610171200%02d.000Z", i ), 0L );
+        }
+
+        store.setAccountLockedTime( dn, PasswordPolicyStateStore.PERMANENTLY_LOCKED );
+
+        Entry locked = getUserEntry();
+        store.apply( locked );
+        assertTrue( locked.containsAttribute( PasswordPolicySchemaConstants.PWD_ACCOUNT_LOCKED_TIME_AT ) );
+
+        // The admin unlocks the account, the interceptor discards the pending state
+        store.discard( dn );
+        assertEquals( 0, store.size() );
+
+        Entry unlocked = getUserEntry();
+        store.apply( unlocked );
+        assertFalse( unlocked.containsAttribute( PasswordPolicySchemaConstants.PWD_ACCOUNT_LOCKED_TIME_AT ) );
+        assertNull( unlocked.get( PasswordPolicySchemaConstants.PWD_FAILURE_TIME_AT ) );
+
+        // A new failure starts from the entry as the admin left it
+        Attribute failureTimes = store.addFailureTime( unlocked, "20261017120100.000Z", 0L );
+        assertEquals( 1, failureTimes.size() );
+
+        // Nothing remains to be written once the new failure is discarded too
+        store.discard( dn );
+        store.flush();
+        assertEquals( 0, store.size() );
+    }
+}
@@ -364,6 +364,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         }
 
         Attribute oc = originalEntry.get( directoryService.getAtProvider().getObjectClass() );
+        Dn entryDn = dn;
 
         /*
          * If the protected entry is a subentry, then the entry being evaluated
@@ -384,9 +385,12 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
             lookupContext.setTransaction( opContext.getTransaction() );
 
             originalEntry = directoryService.getPartitionNexus().lookup( lookupContext );
+            entryDn = parentDn;
         }
 
-        Attribute subentries = originalEntry.get( directoryService.getAtProvider().getAccessControlSubentries() );
+        // The subentries selecting the entry are not stored in it, we compute them
+        Attribute subentries = subentryUtils.getSubentryAttributes( entryDn, originalEntry ).get(
+            directoryService.getAtProvider().getAccessControlSubentries() );
 
         if ( subentries == null )
         {
@@ -50,6 +50,7 @@ import org.apache.directory.server.core.api.interceptor.context.FilteringOperati
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.subtree.SubentryUtils;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -108,6 +109,9 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     /** The CollectiveAttribute search filter */
     private final EntryFilter searchFilter = new CollectiveAttributeFilter();
 
+    /** The SubentryUtils instance, computing the subentries an entry belongs to */
+    private SubentryUtils subentryUtils;
+
 
     //-------------------------------------------------------------------------------------
     // Initialization
@@ -120,6 +124,8 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     {
         super.init( directoryService );
 
+        subentryUtils = new SubentryUtils( directoryService );
+
         LOG.debug( "CollectiveAttribute interceptor initialized" );
     }
 
@@ -338,8 +344,10 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     {
         CoreSession session = opContext.getSession();
 
-        Attribute collectiveAttributeSubentries = ( ( ClonedServerEntry ) entry ).getOriginalEntry().get(
-            directoryService.getAtProvider().getCollectiveAttributeSubentries() );
+        // The subentries selecting the entry are not stored in it, we compute them
+        Entry originalEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        Attribute collectiveAttributeSubentries = subentryUtils.getSubentryAttributes( entry.getDn(), originalEntry )
+            .get( directoryService.getAtProvider().getCollectiveAttributeSubentries() );
 
         /*
          * If there are no collective attribute subentries referenced then we
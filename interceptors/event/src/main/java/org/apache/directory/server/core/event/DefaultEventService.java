@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
@@ -48,24 +49,34 @@ class DefaultEventService implements EventService
     /** The list of RegistrationEntries being registered */
     private List<RegistrationEntry> registrations = new CopyOnWriteArrayList<>();
 
+    /** The index of the registrations, rebuilt each time a listener is added or removed */
+    private volatile RegistrationIndex registrationIndex;
+
     /** The DirectoryService instance */
     private DirectoryService directoryService;
 
     /** A normalizer used for filters */
     private FilterNormalizingVisitor filterNormalizer;
 
+    /** The pipeline delivering the notifications to the asynchronous listeners */
+    private final NotificationPipeline pipeline;
+
 
     /**
      * Create an instance of EventService
      * @param directoryService The associated DirectoryService
-     * @param registrations The list of Registrations
+     * @param pipeline The pipeline delivering the notifications to the asynchronous listeners
      */
-    DefaultEventService( DirectoryService directoryService )
+    DefaultEventService( DirectoryService directoryService, NotificationPipeline pipeline )
     {
         this.directoryService = directoryService;
+        this.pipeline = pipeline;
+        pipeline.setEventService( this );
+        pipeline.setOperationManager( directoryService.getOperationManager() );
         SchemaManager schemaManager = directoryService.getSchemaManager();
         NameComponentNormalizer ncn = new ConcreteNameComponentNormalizer( schemaManager );
         filterNormalizer = new FilterNormalizingVisitor( ncn, schemaManager );
+        registrationIndex = new RegistrationIndex( schemaManager, registrations );
     }
 
 
@@ -73,7 +84,7 @@ class DefaultEventService implements EventService
      * {@inheritDoc}
      */
     @Override
-    public void addListener( DirectoryListener listener, NotificationCriteria criteria ) throws Exception
+    public synchronized void addListener( DirectoryListener listener, NotificationCriteria criteria ) throws Exception
     {
         if ( !criteria.getBase().isSchemaAware() )
         {
@@ -82,7 +93,9 @@ class DefaultEventService implements EventService
 
         ExprNode result = ( ExprNode ) criteria.getFilter().accept( filterNormalizer );
         criteria.setFilter( result );
+        pipeline.addListener( listener );
         registrations.add( new RegistrationEntry( listener, criteria ) );
+        registrationIndex = new RegistrationIndex( directoryService.getSchemaManager(), registrations );
     }
 
 
@@ -90,7 +103,7 @@ class DefaultEventService implements EventService
      * {@inheritDoc}
      */
     @Override
-    public void removeListener( DirectoryListener listener )
+    public synchronized void removeListener( DirectoryListener listener )
     {
         for ( RegistrationEntry entry : registrations )
         {
@@ -99,6 +112,9 @@ class DefaultEventService implements EventService
                 registrations.remove( entry );
             }
         }
+
+        registrationIndex = new RegistrationIndex( directoryService.getSchemaManager(), registrations );
+        pipeline.removeListener( listener );
     }
 
 
@@ -110,4 +126,19 @@ class DefaultEventService implements EventService
     {
         return Collections.unmodifiableList( registrations );
     }
+
+
+    /**
+     * Gets the registrations which may be interested by a change on an entry. Only
+     * the registrations based on the entry or on one of its ancestors, and which
+     * filter may match the entry are returned : they still have to be evaluated.
+     *
+     * @param name The entry Dn
+     * @param entry The entry
+     * @return The candidate registrations, in their registration order
+     */
+    List<RegistrationEntry> getCandidateRegistrations( Dn name, Entry entry )
+    {
+        return registrationIndex.getCandidates( name, entry );
+    }
 }
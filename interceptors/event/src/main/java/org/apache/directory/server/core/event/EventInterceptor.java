@@ -27,12 +27,6 @@ import static org.apache.directory.api.ldap.model.message.SearchScope.SUBTREE;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -45,6 +39,7 @@ import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.event.DirectoryListener;
 import org.apache.directory.server.core.api.event.Evaluator;
+import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.ExpressionEvaluator;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
@@ -58,6 +53,9 @@ import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOpe
 import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.event.NotificationPipeline.OverflowPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -73,7 +71,21 @@ public class EventInterceptor extends BaseInterceptor
     private static final Logger LOG = LoggerFactory.getLogger( EventInterceptor.class );
 
     private Evaluator evaluator;
-    private ExecutorService executor;
+
+    /** The pipeline delivering the notifications to the asynchronous listeners */
+    private NotificationPipeline pipeline;
+
+    /** The number of threads delivering the notifications to the asynchronous listeners */
+    private int notificationThreads = NotificationPipeline.DEFAULT_THREADS;
+
+    /** The max number of notifications queued for an asynchronous listener */
+    private int notificationQueueSize = NotificationPipeline.DEFAULT_QUEUE_SIZE;
+
+    /** The max number of notifications delivered in a row to an asynchronous listener */
+    private int notificationBatchSize = NotificationPipeline.DEFAULT_BATCH_SIZE;
+
+    /** What to do when the notification queue of a listener is full */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
 
 
     /**
@@ -86,8 +98,8 @@ public class EventInterceptor extends BaseInterceptor
 
 
     /**
-     * Initialize the event interceptor. It creates a pool of executor which will be used
-     * to call the listeners in separate threads.
+     * Initialize the event interceptor. It creates the notification pipeline which will be
+     * used to call the asynchronous listeners in separate threads.
      */
     @Override
     public void init( DirectoryService directoryService ) throws LdapException
@@ -96,152 +108,49 @@ public class EventInterceptor extends BaseInterceptor
         super.init( directoryService );
 
         evaluator = new ExpressionEvaluator( schemaManager );
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ) );
-        
-        ThreadFactory threadFactory = new ThreadFactory() 
-        {
-            @Override
-            public Thread newThread( Runnable runnable ) 
-            {
-                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
-                newThread.setDaemon( true );
-                
-                return newThread;
-            }
-        };
-        
-        executor = new ThreadPoolExecutor( 1, 10, 1000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 100 ),
-            threadFactory );
+        pipeline = new NotificationPipeline( notificationThreads, notificationQueueSize, notificationBatchSize,
+            overflowPolicy, NotificationPipeline.DEFAULT_SLOW_TIMEOUT );
 
-        this.directoryService.setEventService( new DefaultEventService( directoryService ) );
+        this.directoryService.setEventService( new DefaultEventService( directoryService, pipeline ) );
         LOG.info( "Initialization complete." );
     }
 
 
     /**
-     * Call the listener passing it the context.
+     * Call the listener passing it the context. The asynchronous listeners are called
+     * by the notification pipeline. When the operation is part of a session transaction,
+     * which may still be rolled back, the listener is called once the transaction is
+     * committed.
      */
-    private void fire( final OperationContext opContext, EventType type, final DirectoryListener listener )
+    private void fire( final OperationContext opContext, final EventType type, final DirectoryListener listener )
     {
-        switch ( type )
-        {
-            case ADD:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryAdded( ( AddOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryAdded( ( AddOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
-
-            case DELETE:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryDeleted( ( DeleteOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryDeleted( ( DeleteOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
+        PartitionTxn transaction = opContext.getTransaction();
+        CoreSession session = opContext.getSession();
 
-            case MODIFY:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryModified( ( ModifyOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryModified( ( ModifyOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
-
-            case MOVE:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryMoved( ( MoveOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryMoved( ( MoveOperationContext ) opContext );
-                        }
-                    } );
-                }
-
-                break;
-
-            case RENAME:
-                if ( listener.isSynchronous() )
-                {
-                    listener.entryRenamed( ( RenameOperationContext ) opContext );
-                }
-                else
-                {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryRenamed( ( RenameOperationContext ) opContext );
-                        }
-                    } );
-                }
+        if ( ( session == null ) || !session.hasSessionTransaction()
+            || !( transaction instanceof PartitionWriteTxn ) )
+        {
+            pipeline.dispatch( opContext, type, listener );
 
-                break;
+            return;
+        }
 
-            case MOVE_AND_RENAME:
-                if ( listener.isSynchronous() )
+        ( ( PartitionWriteTxn ) transaction ).onCommit( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
                 {
-                    listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
+                    pipeline.dispatch( opContext, type, listener );
                 }
-                else
+                catch ( RuntimeException re )
                 {
-                    executor.execute( new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
-                        }
-                    } );
+                    // The changes are committed anyway
+                    LOG.error( "The listener {} failed to process a {} notification", listener, type, re );
                 }
-
-                break;
-
-            default:
-                throw new IllegalArgumentException( "Unexpected event type " + type );
-        }
+            }
+        } );
     }
 
 
@@ -428,11 +337,22 @@ public class EventInterceptor extends BaseInterceptor
 
     /**
      * Find a list of registrationEntries given an entry and a name. We check against
-     * the criteria for each registrationEntry
+     * the criteria for each registrationEntry. When the event service indexes its
+     * registrations, only the candidate registrations are checked.
      */
     private List<RegistrationEntry> getSelectingRegistrations( Dn name, Entry entry ) throws LdapException
     {
-        List<RegistrationEntry> registrations = directoryService.getEventService().getRegistrationEntries();
+        EventService eventService = directoryService.getEventService();
+        List<RegistrationEntry> registrations;
+
+        if ( eventService instanceof DefaultEventService )
+        {
+            registrations = ( ( DefaultEventService ) eventService ).getCandidateRegistrations( name, entry );
+        }
+        else
+        {
+            registrations = eventService.getRegistrationEntries();
+        }
 
         if ( registrations.isEmpty() )
         {
@@ -471,6 +391,56 @@ public class EventInterceptor extends BaseInterceptor
     @Override
     public void destroy()
     {
-       executor.shutdown();
+        pipeline.shutdown();
+    }
+
+
+    /**
+     * @return The pipeline delivering the notifications to the asynchronous listeners,
+     * which exposes the notification queues metrics
+     */
+    public NotificationPipeline getNotificationPipeline()
+    {
+        return pipeline;
+    }
+
+
+    /**
+     * @param notificationThreads The number of threads delivering the notifications to
+     * the asynchronous listeners. It must be set before the interceptor is initialized.
+     */
+    public void setNotificationThreads( int notificationThreads )
+    {
+        this.notificationThreads = notificationThreads;
+    }
+
+
+    /**
+     * @param notificationQueueSize The max number of notifications queued for an
+     * asynchronous listener. It must be set before the interceptor is initialized.
+     */
+    public void setNotificationQueueSize( int notificationQueueSize )
+    {
+        this.notificationQueueSize = notificationQueueSize;
+    }
+
+
+    /**
+     * @param notificationBatchSize The max number of notifications delivered in a row to
+     * an asynchronous listener. It must be set before the interceptor is initialized.
+     */
+    public void setNotificationBatchSize( int notificationBatchSize )
+    {
+        this.notificationBatchSize = notificationBatchSize;
+    }
+
+
+    /**
+     * @param overflowPolicy What to do when the notification queue of a listener is full.
+     * It must be set before the interceptor is initialized.
+     */
+    public void setOverflowPolicy( OverflowPolicy overflowPolicy )
+    {
+        this.overflowPolicy = overflowPolicy;
     }
 }
@@ -0,0 +1,676 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DisconnectableListener;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The pipeline delivering the notifications to the asynchronous listeners. Each listener
+ * has its own bounded queue, so that a slow listener does not delay the other ones, nor
+ * the operations which generate the notifications. The queued notifications of a listener
+ * are delivered in order, by batches of consecutive notifications, by a shared pool of
+ * threads.
+ * <br>
+ * When the queue of a listener is full, the notification is handled according to the
+ * {@link OverflowPolicy} of the pipeline.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NotificationPipeline
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( NotificationPipeline.class );
+
+    /** The default number of threads delivering the notifications */
+    public static final int DEFAULT_THREADS = 10;
+
+    /** The default max number of notifications queued for a listener */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    /** The default max number of notifications delivered in a row to a listener */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    /** The default time an operation waits for room in a full queue, with the SLOW policy */
+    public static final long DEFAULT_SLOW_TIMEOUT = 1000L;
+
+    /**
+     * What to do when the queue of a listener is full
+     */
+    public enum OverflowPolicy
+    {
+        /** The notification is dropped */
+        DROP,
+
+        /**
+         * The operation waits for room in the queue, up to a timeout, then the notification is
+         * dropped. The operation waits once its partitions are unlocked, so the other writers
+         * are not blocked.
+         */
+        SLOW,
+
+        /**
+         * The listener is unregistered, and its queued notifications are dropped. A
+         * {@link DisconnectableListener} is told about it.
+         */
+        DISCONNECT
+    }
+
+    /** The EventService, used to unregister the listeners */
+    private volatile EventService eventService;
+
+    /** The OperationManager, used to wait for room in a full queue once the partitions are unlocked */
+    private volatile OperationManager operationManager;
+
+    /** The threads delivering the notifications */
+    private final ThreadPoolExecutor executor;
+
+    /** The queues of the registered asynchronous listeners */
+    private final ConcurrentMap<DirectoryListener, ListenerQueue> queues = new ConcurrentHashMap<>();
+
+    /** The max number of notifications queued for a listener */
+    private final int queueSize;
+
+    /** The max number of notifications delivered in a row to a listener */
+    private final int batchSize;
+
+    /** The full queue policy */
+    private final OverflowPolicy overflowPolicy;
+
+    /** The time an operation waits for room in a full queue, in milliseconds */
+    private final long slowTimeout;
+
+    /** The number of delivered notifications */
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    /** The number of dropped notifications */
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /** The max time a notification has been queued before being delivered, in nanoseconds */
+    private final AtomicLong maxLag = new AtomicLong();
+
+
+    /**
+     * Creates a new NotificationPipeline instance, with the default sizes and the DROP policy
+     */
+    public NotificationPipeline()
+    {
+        this( DEFAULT_THREADS, DEFAULT_QUEUE_SIZE, DEFAULT_BATCH_SIZE, OverflowPolicy.DROP, DEFAULT_SLOW_TIMEOUT );
+    }
+
+
+    /**
+     * Creates a new NotificationPipeline instance
+     *
+     * @param nbThreads The number of threads delivering the notifications
+     * @param queueSize The max number of notifications queued for a listener
+     * @param batchSize The max number of notifications delivered in a row to a listener
+     * @param overflowPolicy What to do when the queue of a listener is full
+     * @param slowTimeout The time an operation waits for room in a full queue, in milliseconds,
+     * with the SLOW policy
+     */
+    public NotificationPipeline( int nbThreads, int queueSize, int batchSize, OverflowPolicy overflowPolicy,
+        long slowTimeout )
+    {
+        this.queueSize = Math.max( 1, queueSize );
+        this.batchSize = Math.max( 1, batchSize );
+        this.overflowPolicy = overflowPolicy;
+        this.slowTimeout = slowTimeout;
+
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                newThread.setDaemon( true );
+
+                return newThread;
+            }
+        };
+
+        // There is at most one task per listener in the executor queue
+        int threads = Math.max( 1, nbThreads );
+        executor = new ThreadPoolExecutor( threads, threads, 1000, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), threadFactory );
+        executor.allowCoreThreadTimeOut( true );
+    }
+
+
+    /**
+     * Sets the EventService the listeners are registered in
+     *
+     * @param eventService The EventService
+     */
+    void setEventService( EventService eventService )
+    {
+        this.eventService = eventService;
+    }
+
+
+    /**
+     * Sets the OperationManager holding the partition locks. If not set, the SLOW policy
+     * waits for room in a full queue while the partitions are locked.
+     *
+     * @param operationManager The OperationManager
+     */
+    void setOperationManager( OperationManager operationManager )
+    {
+        this.operationManager = operationManager;
+    }
+
+
+    /**
+     * Creates the queue of an asynchronous listener. The notifications sent to a listener
+     * which has not been added are ignored.
+     *
+     * @param listener The added listener
+     */
+    public void addListener( DirectoryListener listener )
+    {
+        if ( !listener.isSynchronous() )
+        {
+            queues.putIfAbsent( listener, new ListenerQueue( listener, queueSize ) );
+        }
+    }
+
+
+    /**
+     * Removes the queue of a listener. The notifications not yet delivered are dropped.
+     *
+     * @param listener The removed listener
+     */
+    public void removeListener( DirectoryListener listener )
+    {
+        ListenerQueue listenerQueue = queues.remove( listener );
+
+        if ( listenerQueue != null )
+        {
+            droppedCount.addAndGet( listenerQueue.queue.size() );
+            listenerQueue.queue.clear();
+        }
+    }
+
+
+    /**
+     * Sends a notification to a listener : it's delivered immediately if the listener
+     * is synchronous, otherwise it's queued.
+     *
+     * @param opContext The operation context
+     * @param type The notification type
+     * @param listener The listener
+     */
+    public void dispatch( OperationContext opContext, EventType type, DirectoryListener listener )
+    {
+        if ( listener.isSynchronous() )
+        {
+            deliver( opContext, type, listener );
+
+            return;
+        }
+
+        ListenerQueue listenerQueue = queues.get( listener );
+
+        if ( listenerQueue == null )
+        {
+            // The listener has been removed in the meantime
+            return;
+        }
+
+        Notification notification = new Notification( opContext, type );
+
+        // The notifications waiting for room are queued first, to keep the order
+        if ( ( listenerQueue.waiting.get() == 0 ) && listenerQueue.queue.offer( notification ) )
+        {
+            schedule( listenerQueue );
+        }
+        else
+        {
+            handleOverflow( listenerQueue, notification );
+        }
+    }
+
+
+    /**
+     * Applies the overflow policy when the queue of a listener is full
+     */
+    private void handleOverflow( final ListenerQueue listenerQueue, final Notification notification )
+    {
+        switch ( overflowPolicy )
+        {
+            case SLOW:
+                listenerQueue.waiting.incrementAndGet();
+                OperationManager manager = operationManager;
+
+                if ( manager == null )
+                {
+                    waitForRoom( listenerQueue, notification );
+                }
+                else
+                {
+                    // The caller holds the lock of the modified partition : wait once it's released
+                    manager.runAfterUnlock( new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            waitForRoom( listenerQueue, notification );
+                        }
+                    } );
+                }
+
+                break;
+
+            case DISCONNECT:
+                LOG.warn( "The notification queue of the listener {} is full, removing the listener",
+                    listenerQueue.listener );
+                droppedCount.incrementAndGet();
+                disconnect( listenerQueue.listener );
+
+                break;
+
+            case DROP:
+            default:
+                LOG.debug( "The notification queue of the listener {} is full, dropping a notification",
+                    listenerQueue.listener );
+                droppedCount.incrementAndGet();
+
+                break;
+        }
+    }
+
+
+    /**
+     * Waits for room in the queue of a listener, up to the SLOW policy timeout, then drops the
+     * notification
+     */
+    private void waitForRoom( ListenerQueue listenerQueue, Notification notification )
+    {
+        try
+        {
+            if ( listenerQueue.queue.offer( notification, slowTimeout, TimeUnit.MILLISECONDS ) )
+            {
+                schedule( listenerQueue );
+
+                return;
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            listenerQueue.waiting.decrementAndGet();
+        }
+
+        LOG.warn( "The notification queue of the listener {} is full, dropping a notification",
+            listenerQueue.listener );
+        droppedCount.incrementAndGet();
+    }
+
+
+    /**
+     * Unregisters a listener which does not keep up with the notifications, and tells it
+     * about it so that it can end its client's request
+     */
+    private void disconnect( DirectoryListener listener )
+    {
+        ListenerQueue listenerQueue = queues.remove( listener );
+
+        if ( listenerQueue == null )
+        {
+            // Already disconnected by another operation
+            return;
+        }
+
+        droppedCount.addAndGet( listenerQueue.queue.size() );
+        listenerQueue.queue.clear();
+
+        EventService service = eventService;
+
+        if ( service != null )
+        {
+            service.removeListener( listener );
+        }
+
+        if ( listener instanceof DisconnectableListener )
+        {
+            try
+            {
+                ( ( DisconnectableListener ) listener ).disconnected();
+            }
+            catch ( RuntimeException re )
+            {
+                LOG.error( "The listener {} failed to process its disconnection", listener, re );
+            }
+        }
+    }
+
+
+    /**
+     * Submits the delivery of the queued notifications of a listener, if it's not
+     * already submitted
+     */
+    private void schedule( ListenerQueue listenerQueue )
+    {
+        if ( listenerQueue.scheduled.compareAndSet( false, true ) )
+        {
+            try
+            {
+                executor.execute( listenerQueue );
+            }
+            catch ( RejectedExecutionException ree )
+            {
+                // The pipeline has been shut down
+                listenerQueue.scheduled.set( false );
+                LOG.debug( "Cannot deliver the notifications to the listener {}", listenerQueue.listener );
+            }
+        }
+    }
+
+
+    /**
+     * Calls a listener
+     *
+     * @param opContext The operation context
+     * @param type The notification type
+     * @param listener The listener
+     */
+    static void deliver( OperationContext opContext, EventType type, DirectoryListener listener )
+    {
+        switch ( type )
+        {
+            case ADD:
+                listener.entryAdded( ( AddOperationContext ) opContext );
+                break;
+
+            case DELETE:
+                listener.entryDeleted( ( DeleteOperationContext ) opContext );
+                break;
+
+            case MODIFY:
+                listener.entryModified( ( ModifyOperationContext ) opContext );
+                break;
+
+            case MOVE:
+                listener.entryMoved( ( MoveOperationContext ) opContext );
+                break;
+
+            case RENAME:
+                listener.entryRenamed( ( RenameOperationContext ) opContext );
+                break;
+
+            case MOVE_AND_RENAME:
+                listener.entryMovedAndRenamed( ( MoveAndRenameOperationContext ) opContext );
+                break;
+
+            default:
+                throw new IllegalArgumentException( "Unexpected event type " + type );
+        }
+    }
+
+
+    /**
+     * Stops the delivery of the notifications
+     */
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+
+
+    /**
+     * @return The full queue policy
+     */
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+
+
+    /**
+     * @return The number of listeners having a notification queue
+     */
+    public int getListenerCount()
+    {
+        return queues.size();
+    }
+
+
+    /**
+     * @return The number of notifications waiting to be delivered, for all the listeners
+     */
+    public int getQueuedCount()
+    {
+        int count = 0;
+
+        for ( ListenerQueue listenerQueue : queues.values() )
+        {
+            count += listenerQueue.queue.size();
+        }
+
+        return count;
+    }
+
+
+    /**
+     * @param listener The listener
+     * @return The number of notifications waiting to be delivered to a listener
+     */
+    public int getQueuedCount( DirectoryListener listener )
+    {
+        ListenerQueue listenerQueue = queues.get( listener );
+
+        return listenerQueue == null ? 0 : listenerQueue.queue.size();
+    }
+
+
+    /**
+     * @param listener The listener
+     * @return The time the oldest notification waiting to be delivered to a listener has
+     * been queued, in milliseconds
+     */
+    public long getLag( DirectoryListener listener )
+    {
+        ListenerQueue listenerQueue = queues.get( listener );
+
+        if ( listenerQueue == null )
+        {
+            return 0L;
+        }
+
+        Notification oldest = listenerQueue.queue.peek();
+
+        if ( oldest == null )
+        {
+            return 0L;
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - oldest.queuedTime );
+    }
+
+
+    /**
+     * @return The max time a notification has been queued before being delivered, in milliseconds
+     */
+    public long getMaxLag()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( maxLag.get() );
+    }
+
+
+    /**
+     * @return The number of delivered notifications
+     */
+    public long getDeliveredCount()
+    {
+        return deliveredCount.get();
+    }
+
+
+    /**
+     * @return The number of dropped notifications
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "NotificationPipeline[listeners=" + getListenerCount() + ", queued=" + getQueuedCount()
+            + ", delivered=" + getDeliveredCount() + ", dropped=" + getDroppedCount() + ", maxLag=" + getMaxLag()
+            + "ms, policy=" + overflowPolicy + "]";
+    }
+
+
+    /**
+     * A queued notification
+     */
+    private static final class Notification
+    {
+        /** The operation context */
+        private final OperationContext opContext;
+
+        /** The notification type */
+        private final EventType type;
+
+        /** The time the notification has been queued */
+        private final long queuedTime = System.nanoTime();
+
+
+        private Notification( OperationContext opContext, EventType type )
+        {
+            this.opContext = opContext;
+            this.type = type;
+        }
+    }
+
+
+    /**
+     * The notifications queue of a listener. It is also the task delivering them.
+     */
+    private final class ListenerQueue implements Runnable
+    {
+        /** The listener */
+        private final DirectoryListener listener;
+
+        /** The notifications waiting to be delivered */
+        private final BlockingQueue<Notification> queue;
+
+        /** Tells if the delivery task is submitted or running */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /** The number of notifications waiting for room in the queue, with the SLOW policy */
+        private final AtomicInteger waiting = new AtomicInteger();
+
+
+        private ListenerQueue( DirectoryListener listener, int queueSize )
+        {
+            this.listener = listener;
+            // Fair, so that the notifications waiting for room are queued in order
+            this.queue = new ArrayBlockingQueue<>( queueSize, true );
+        }
+
+
+        /**
+         * Delivers a batch of consecutive notifications, then submits the delivery of
+         * the next ones, if any, so that the other listeners get a chance to be served
+         */
+        @Override
+        public void run()
+        {
+            try
+            {
+                for ( int i = 0; i < batchSize; i++ )
+                {
+                    Notification notification = queue.poll();
+
+                    if ( notification == null )
+                    {
+                        break;
+                    }
+
+                    long lag = System.nanoTime() - notification.queuedTime;
+                    long currentMax = maxLag.get();
+
+                    while ( ( lag > currentMax ) && !maxLag.compareAndSet( currentMax, lag ) )
+                    {
+                        currentMax = maxLag.get();
+                    }
+
+                    try
+                    {
+                        deliver( notification.opContext, notification.type, listener );
+                        deliveredCount.incrementAndGet();
+                    }
+                    catch ( RuntimeException re )
+                    {
+                        LOG.error( "The listener {} failed to process a {} notification", listener,
+                            notification.type, re );
+                    }
+                }
+            }
+            finally
+            {
+                scheduled.set( false );
+            }
+
+            if ( !queue.isEmpty() && !executor.isShutdown() )
+            {
+                schedule( this );
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+
+
+/**
+ * An immutable index of the registered listeners, used to select the registrations
+ * which may be interested by a change without evaluating all of them. The
+ * registrations are indexed by their base Dn, and, when their filter requires an
+ * attribute to be equal to a value, by this attribute value. The selected
+ * registrations still have to be checked against the changed entry, as the scope
+ * and the rest of the filter are not evaluated by the index.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class RegistrationIndex
+{
+    /** The comparator used to return the registrations in their registration order */
+    private static final Comparator<IndexedRegistration> POSITION_COMPARATOR = new Comparator<IndexedRegistration>()
+    {
+        @Override
+        public int compare( IndexedRegistration registration1, IndexedRegistration registration2 )
+        {
+            return Integer.compare( registration1.position, registration2.position );
+        }
+    };
+
+    /** The SchemaManager */
+    private final SchemaManager schemaManager;
+
+    /** The registrations, by normalized base Dn */
+    private final Map<String, BaseRegistrations> registrationsByBase = new HashMap<>();
+
+
+    /**
+     * Creates a new RegistrationIndex instance
+     *
+     * @param schemaManager The SchemaManager
+     * @param registrations The registrations to index, in registration order
+     */
+    RegistrationIndex( SchemaManager schemaManager, List<RegistrationEntry> registrations )
+    {
+        this.schemaManager = schemaManager;
+        int position = 0;
+
+        for ( RegistrationEntry registration : registrations )
+        {
+            NotificationCriteria criteria = registration.getCriteria();
+            String base = criteria.getBase().getNormName();
+            BaseRegistrations baseRegistrations = registrationsByBase.get( base );
+
+            if ( baseRegistrations == null )
+            {
+                baseRegistrations = new BaseRegistrations();
+                registrationsByBase.put( base, baseRegistrations );
+            }
+
+            IndexedRegistration indexed = new IndexedRegistration( registration, position++ );
+            EqualityNode<?> term = getIndexedTerm( criteria.getFilter() );
+
+            if ( term == null )
+            {
+                baseRegistrations.unindexed.add( indexed );
+            }
+            else
+            {
+                AttributeType attributeType = term.getAttributeType();
+                Map<String, List<IndexedRegistration>> byValue = baseRegistrations.byTerm.get( attributeType );
+
+                if ( byValue == null )
+                {
+                    byValue = new HashMap<>();
+                    baseRegistrations.byTerm.put( attributeType, byValue );
+                }
+
+                String key = getKey( attributeType, term.getValue() );
+                List<IndexedRegistration> termRegistrations = byValue.get( key );
+
+                if ( termRegistrations == null )
+                {
+                    termRegistrations = new ArrayList<>();
+                    byValue.put( key, termRegistrations );
+                }
+
+                termRegistrations.add( indexed );
+            }
+        }
+    }
+
+
+    /**
+     * Gets the registrations which may be interested by a change on an entry, in
+     * their registration order.
+     *
+     * @param name The entry Dn
+     * @param entry The entry
+     * @return The candidate registrations
+     */
+    List<RegistrationEntry> getCandidates( Dn name, Entry entry )
+    {
+        if ( registrationsByBase.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        List<IndexedRegistration> candidates = new ArrayList<>();
+        Dn current = name;
+
+        // Only the registrations based on the entry or on one of its ancestors can be in scope
+        while ( current != null )
+        {
+            BaseRegistrations baseRegistrations = registrationsByBase.get( current.getNormName() );
+
+            if ( baseRegistrations != null )
+            {
+                baseRegistrations.addCandidates( entry, candidates );
+            }
+
+            if ( current.isEmpty() )
+            {
+                break;
+            }
+
+            current = current.getParent();
+        }
+
+        if ( candidates.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        if ( candidates.size() > 1 )
+        {
+            Collections.sort( candidates, POSITION_COMPARATOR );
+        }
+
+        List<RegistrationEntry> selected = new ArrayList<>( candidates.size() );
+
+        for ( IndexedRegistration candidate : candidates )
+        {
+            selected.add( candidate.registration );
+        }
+
+        return selected;
+    }
+
+
+    /**
+     * Gets the equality term used to index a filter, if any : the filter itself if it's
+     * an equality, or one of the equality children of an AND filter, preferably not on
+     * the ObjectClass attribute, as it's less selective.
+     */
+    private EqualityNode<?> getIndexedTerm( ExprNode filter )
+    {
+        if ( isIndexable( filter ) )
+        {
+            return ( EqualityNode<?> ) filter;
+        }
+
+        if ( !( filter instanceof AndNode ) )
+        {
+            return null;
+        }
+
+        EqualityNode<?> objectClassTerm = null;
+
+        for ( ExprNode child : ( ( AndNode ) filter ).getChildren() )
+        {
+            if ( isIndexable( child ) )
+            {
+                EqualityNode<?> term = ( EqualityNode<?> ) child;
+
+                if ( !isObjectClass( term.getAttributeType() ) )
+                {
+                    return term;
+                }
+
+                if ( objectClassTerm == null )
+                {
+                    objectClassTerm = term;
+                }
+            }
+        }
+
+        return objectClassTerm;
+    }
+
+
+    /**
+     * Tells if a filter is an equality on a human readable schema aware attribute
+     */
+    private boolean isIndexable( ExprNode filter )
+    {
+        if ( !( filter instanceof EqualityNode ) )
+        {
+            return false;
+        }
+
+        EqualityNode<?> equality = ( EqualityNode<?> ) filter;
+        AttributeType attributeType = equality.getAttributeType();
+
+        return ( attributeType != null ) && ( equality.getValue() != null ) && ( attributeType.getSyntax() != null )
+            && attributeType.getSyntax().isHumanReadable();
+    }
+
+
+    private static boolean isObjectClass( AttributeType attributeType )
+    {
+        return SchemaConstants.OBJECT_CLASS_AT_OID.equals( attributeType.getOid() );
+    }
+
+
+    /**
+     * Computes the key of a value in the index. The ObjectClass values are replaced
+     * by the ObjectClass OID, so that its names and its OID have the same key.
+     */
+    private String getKey( AttributeType attributeType, Value value )
+    {
+        String normalized = value.getNormalized();
+
+        if ( ( normalized != null ) && isObjectClass( attributeType ) )
+        {
+            try
+            {
+                return schemaManager.getObjectClassRegistry().getOidByName( normalized );
+            }
+            catch ( LdapException le )
+            {
+                // Not a known ObjectClass, use the normalized value
+            }
+        }
+
+        return normalized;
+    }
+
+
+    /**
+     * The registrations having the same base Dn
+     */
+    private final class BaseRegistrations
+    {
+        /** The registrations which filter has no indexed term */
+        private final List<IndexedRegistration> unindexed = new ArrayList<>();
+
+        /** The registrations by indexed attribute, and by normalized value */
+        private final Map<AttributeType, Map<String, List<IndexedRegistration>>> byTerm = new HashMap<>();
+
+
+        /**
+         * Adds the registrations which filter may accept the entry
+         */
+        private void addCandidates( Entry entry, List<IndexedRegistration> candidates )
+        {
+            candidates.addAll( unindexed );
+
+            if ( entry == null )
+            {
+                return;
+            }
+
+            for ( Map.Entry<AttributeType, Map<String, List<IndexedRegistration>>> term : byTerm.entrySet() )
+            {
+                Attribute attribute = entry.get( term.getKey() );
+
+                if ( attribute == null )
+                {
+                    continue;
+                }
+
+                Map<String, List<IndexedRegistration>> byValue = term.getValue();
+
+                if ( attribute.getAttributeType() == null )
+                {
+                    // The values can't be normalized, we can't use the index
+                    for ( List<IndexedRegistration> registrations : byValue.values() )
+                    {
+                        candidates.addAll( registrations );
+                    }
+
+                    continue;
+                }
+
+                // An attribute may contain equivalent values, with the same key
+                Set<String> keys = new HashSet<>();
+
+                for ( Value value : attribute )
+                {
+                    String key = getKey( term.getKey(), value );
+
+                    if ( keys.add( key ) )
+                    {
+                        List<IndexedRegistration> registrations = byValue.get( key );
+
+                        if ( registrations != null )
+                        {
+                            candidates.addAll( registrations );
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * A registration and its position in the registration order
+     */
+    private static final class IndexedRegistration
+    {
+        /** The registration */
+        private final RegistrationEntry registration;
+
+        /** The registration position */
+        private final int position;
+
+
+        private IndexedRegistration( RegistrationEntry registration, int position )
+        {
+            this.registration = registration;
+            this.position = position;
+        }
+    }
+}
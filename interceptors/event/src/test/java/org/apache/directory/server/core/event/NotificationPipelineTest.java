@@ -0,0 +1,324 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.DisconnectableListener;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.event.NotificationPipeline.OverflowPolicy;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link NotificationPipeline} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NotificationPipelineTest
+{
+    /**
+     * A listener recording the notifications, which can be blocked
+     */
+    private static class RecordingListener extends DirectoryListenerAdapter
+    {
+        private final List<EventType> events = new ArrayList<>();
+        private final CountDownLatch started = new CountDownLatch( 1 );
+        private final CountDownLatch release;
+        private final CountDownLatch done;
+
+
+        RecordingListener( CountDownLatch release, int expected )
+        {
+            this.release = release;
+            this.done = new CountDownLatch( expected );
+        }
+
+
+        private void record( EventType type )
+        {
+            started.countDown();
+
+            try
+            {
+                release.await( 10, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            synchronized ( events )
+            {
+                events.add( type );
+            }
+
+            done.countDown();
+        }
+
+
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            record( EventType.ADD );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            record( EventType.DELETE );
+        }
+    }
+
+
+    /**
+     * A recording listener which can be told it has been disconnected
+     */
+    private static class DisconnectedListener extends RecordingListener implements DisconnectableListener
+    {
+        private volatile boolean disconnected;
+
+
+        DisconnectedListener( CountDownLatch release, int expected )
+        {
+            super( release, expected );
+        }
+
+
+        @Override
+        public void disconnected()
+        {
+            disconnected = true;
+        }
+    }
+
+
+    /**
+     * Creates an OperationManager which stores the actions to run after the unlock
+     */
+    private static OperationManager createOperationManager( final List<Runnable> afterUnlock )
+    {
+        return ( OperationManager ) Proxy.newProxyInstance( OperationManager.class.getClassLoader(),
+            new Class<?>[]
+                { OperationManager.class }, new InvocationHandler()
+            {
+                @Override
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    if ( "runAfterUnlock".equals( method.getName() ) )
+                    {
+                        afterUnlock.add( ( Runnable ) args[0] );
+                    }
+
+                    return null;
+                }
+            } );
+    }
+
+
+    @Test
+    public void testDeliveryOrder() throws Exception
+    {
+        NotificationPipeline pipeline = new NotificationPipeline( 4, 100, 3, OverflowPolicy.DROP, 0L );
+        RecordingListener listener = new RecordingListener( new CountDownLatch( 0 ), 10 );
+        List<EventType> expected = new ArrayList<>();
+
+        try
+        {
+            pipeline.addListener( listener );
+
+            for ( int i = 0; i < 10; i++ )
+            {
+                EventType type = ( i % 2 == 0 ) ? EventType.ADD : EventType.DELETE;
+                expected.add( type );
+                pipeline.dispatch( null, type, listener );
+            }
+
+            assertTrue( listener.done.await( 10, TimeUnit.SECONDS ) );
+
+            synchronized ( listener.events )
+            {
+                assertEquals( expected, listener.events );
+            }
+
+            assertEquals( 10L, pipeline.getDeliveredCount() );
+            assertEquals( 0L, pipeline.getDroppedCount() );
+        }
+        finally
+        {
+            pipeline.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testDropWhenFull() throws Exception
+    {
+        NotificationPipeline pipeline = new NotificationPipeline( 2, 2, 10, OverflowPolicy.DROP, 0L );
+        CountDownLatch release = new CountDownLatch( 1 );
+        RecordingListener slow = new RecordingListener( release, 3 );
+        RecordingListener fast = new RecordingListener( new CountDownLatch( 0 ), 1 );
+
+        try
+        {
+            pipeline.addListener( slow );
+            pipeline.addListener( fast );
+
+            // The first notification is being delivered, the next two are queued
+            pipeline.dispatch( null, EventType.ADD, slow );
+            assertTrue( slow.started.await( 5, TimeUnit.SECONDS ) );
+            pipeline.dispatch( null, EventType.ADD, slow );
+            pipeline.dispatch( null, EventType.ADD, slow );
+            pipeline.dispatch( null, EventType.ADD, slow );
+
+            assertEquals( 2, pipeline.getQueuedCount( slow ) );
+            assertEquals( 1L, pipeline.getDroppedCount() );
+
+            // The slow listener does not delay the other ones
+            pipeline.dispatch( null, EventType.ADD, fast );
+            assertTrue( fast.done.await( 5, TimeUnit.SECONDS ) );
+
+            release.countDown();
+            assertTrue( slow.done.await( 5, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            release.countDown();
+            pipeline.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testRemovedListener() throws Exception
+    {
+        NotificationPipeline pipeline = new NotificationPipeline( 1, 10, 10, OverflowPolicy.DROP, 0L );
+        RecordingListener listener = new RecordingListener( new CountDownLatch( 0 ), 1 );
+
+        try
+        {
+            // Not added : the notification is ignored
+            pipeline.dispatch( null, EventType.ADD, listener );
+            assertEquals( 0, pipeline.getListenerCount() );
+
+            pipeline.addListener( listener );
+            assertEquals( 1, pipeline.getListenerCount() );
+            pipeline.removeListener( listener );
+            assertEquals( 0, pipeline.getListenerCount() );
+
+            pipeline.dispatch( null, EventType.ADD, listener );
+            assertEquals( 0, pipeline.getQueuedCount() );
+        }
+        finally
+        {
+            pipeline.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testSlowWaitsAfterUnlock() throws Exception
+    {
+        NotificationPipeline pipeline = new NotificationPipeline( 1, 1, 10, OverflowPolicy.SLOW, 10000L );
+        List<Runnable> afterUnlock = new ArrayList<>();
+        pipeline.setOperationManager( createOperationManager( afterUnlock ) );
+        CountDownLatch release = new CountDownLatch( 1 );
+        RecordingListener listener = new RecordingListener( release, 3 );
+
+        try
+        {
+            pipeline.addListener( listener );
+
+            // The first notification is being delivered, the second one is queued
+            pipeline.dispatch( null, EventType.ADD, listener );
+            assertTrue( listener.started.await( 5, TimeUnit.SECONDS ) );
+            pipeline.dispatch( null, EventType.ADD, listener );
+
+            // The queue is full : the operation does not wait while the partition is locked
+            pipeline.dispatch( null, EventType.DELETE, listener );
+            assertEquals( 1, afterUnlock.size() );
+            assertEquals( 1, pipeline.getQueuedCount( listener ) );
+
+            // Once the partition is unlocked, the operation waits for room
+            release.countDown();
+            afterUnlock.get( 0 ).run();
+
+            assertTrue( listener.done.await( 5, TimeUnit.SECONDS ) );
+
+            synchronized ( listener.events )
+            {
+                assertEquals( EventType.DELETE, listener.events.get( 2 ) );
+            }
+
+            assertEquals( 0L, pipeline.getDroppedCount() );
+        }
+        finally
+        {
+            release.countDown();
+            pipeline.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testDisconnectWhenFull() throws Exception
+    {
+        NotificationPipeline pipeline = new NotificationPipeline( 1, 1, 10, OverflowPolicy.DISCONNECT, 0L );
+        CountDownLatch release = new CountDownLatch( 1 );
+        DisconnectedListener listener = new DisconnectedListener( release, 1 );
+
+        try
+        {
+            pipeline.addListener( listener );
+
+            pipeline.dispatch( null, EventType.ADD, listener );
+            assertTrue( listener.started.await( 5, TimeUnit.SECONDS ) );
+            pipeline.dispatch( null, EventType.ADD, listener );
+            assertFalse( listener.disconnected );
+
+            // The queue is full : the listener is removed, and told about it
+            pipeline.dispatch( null, EventType.ADD, listener );
+            assertTrue( listener.disconnected );
+            assertEquals( 0, pipeline.getListenerCount() );
+            assertEquals( 2L, pipeline.getDroppedCount() );
+        }
+        finally
+        {
+            release.countDown();
+            pipeline.shutdown();
+        }
+    }
+}
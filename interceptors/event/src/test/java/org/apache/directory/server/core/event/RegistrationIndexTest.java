@@ -0,0 +1,198 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.normalizers.ConcreteNameComponentNormalizer;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.Evaluator;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+import org.apache.directory.server.core.api.normalization.FilterNormalizingVisitor;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link RegistrationIndex} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RegistrationIndexTest
+{
+    private static SchemaManager schemaManager;
+    private static FilterNormalizingVisitor filterNormalizer;
+    private static Evaluator evaluator;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+        filterNormalizer = new FilterNormalizingVisitor( new ConcreteNameComponentNormalizer( schemaManager ),
+            schemaManager );
+        evaluator = new ExpressionEvaluator( schemaManager );
+    }
+
+
+    /**
+     * Creates a registration the same way the DefaultEventService does
+     */
+    private static RegistrationEntry register( String base, SearchScope scope, String filter ) throws Exception
+    {
+        NotificationCriteria criteria = new NotificationCriteria( schemaManager );
+        criteria.setBase( new Dn( schemaManager, base ) );
+        criteria.setScope( scope );
+        criteria.setFilter( ( ExprNode ) FilterParser.parse( schemaManager, filter ).accept( filterNormalizer ) );
+
+        return new RegistrationEntry( new DirectoryListenerAdapter()
+        {
+        }, criteria );
+    }
+
+
+    /**
+     * Selects the registrations the way the EventInterceptor does
+     */
+    private static List<RegistrationEntry> select( List<RegistrationEntry> registrations, Dn name, Entry entry )
+        throws Exception
+    {
+        List<RegistrationEntry> selecting = new ArrayList<>();
+
+        for ( RegistrationEntry registration : registrations )
+        {
+            NotificationCriteria criteria = registration.getCriteria();
+            Dn base = criteria.getBase();
+            SearchScope scope = criteria.getScope();
+
+            boolean inscope =
+                ( ( ( scope == SearchScope.OBJECT ) && name.equals( base ) )
+                || ( ( scope == SearchScope.ONELEVEL ) && name.getParent().equals( base ) )
+                || ( ( scope == SearchScope.SUBTREE ) && ( name.isDescendantOf( base ) || name.equals( base ) ) ) );
+
+            if ( inscope && evaluator.evaluate( criteria.getFilter(), base, entry ) )
+            {
+                selecting.add( registration );
+            }
+        }
+
+        return selecting;
+    }
+
+
+    @Test
+    public void testCandidates() throws Exception
+    {
+        RegistrationEntry all = register( "ou=people,dc=example,dc=com", SearchScope.SUBTREE, "(objectClass=*)" );
+        RegistrationEntry jdoe = register( "ou=people,dc=example,dc=com", SearchScope.ONELEVEL, "(cn=jdoe)" );
+        RegistrationEntry other = register( "ou=people,dc=example,dc=com", SearchScope.ONELEVEL, "(cn=other)" );
+        RegistrationEntry groups = register( "ou=groups,dc=example,dc=com", SearchScope.SUBTREE, "(objectClass=*)" );
+        RegistrationEntry doe = register( "dc=example,dc=com", SearchScope.SUBTREE,
+            "(&(objectClass=PERSON)(sn=doe))" );
+        RegistrationEntry person = register( "dc=example,dc=com", SearchScope.SUBTREE,
+            "(&(objectClass=2.5.6.6)(|(sn=a)(sn=b)))" );
+        RegistrationEntry units = register( "dc=example,dc=com", SearchScope.SUBTREE,
+            "(objectClass=organizationalUnit)" );
+
+        RegistrationIndex index = new RegistrationIndex( schemaManager,
+            Arrays.asList( all, jdoe, other, groups, doe, person, units ) );
+
+        Dn name = new Dn( schemaManager, "cn=jdoe,ou=people,dc=example,dc=com" );
+        Entry entry = new DefaultEntry( schemaManager, name,
+            "objectClass: top",
+            "objectClass: person",
+            "cn: jdoe",
+            "sn: Doe" );
+
+        assertEquals( Arrays.asList( all, jdoe, doe, person ), index.getCandidates( name, entry ) );
+    }
+
+
+    @Test
+    public void testNoRegistration() throws Exception
+    {
+        RegistrationIndex index = new RegistrationIndex( schemaManager, new ArrayList<RegistrationEntry>() );
+        Dn name = new Dn( schemaManager, "dc=example,dc=com" );
+
+        assertTrue( index.getCandidates( name, new DefaultEntry( schemaManager, name ) ).isEmpty() );
+    }
+
+
+    /**
+     * Checks that the index selects the same registrations as a full scan, for 1000
+     * registrations.
+     */
+    @Test
+    public void testSelectionMatchesFullScan() throws Exception
+    {
+        List<RegistrationEntry> registrations = new ArrayList<>();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            String base = "ou=unit" + i + ",dc=example,dc=com";
+
+            for ( int j = 0; j < 9; j++ )
+            {
+                registrations.add( register( base, SearchScope.SUBTREE, "(&(objectClass=person)(uid=user" + j + "))" ) );
+            }
+
+            registrations.add( register( base, SearchScope.ONELEVEL, "(|(sn=a)(sn=b))" ) );
+        }
+
+        RegistrationIndex index = new RegistrationIndex( schemaManager, registrations );
+        int nbEvents = 1000;
+        Dn[] names = new Dn[nbEvents];
+        Entry[] entries = new Entry[nbEvents];
+
+        for ( int i = 0; i < nbEvents; i++ )
+        {
+            names[i] = new Dn( schemaManager, "uid=user" + ( i % 10 ) + ",ou=unit" + ( i % 100 ) + ",dc=example,dc=com" );
+            entries[i] = new DefaultEntry( schemaManager, names[i],
+                "objectClass: person",
+                "objectClass: uidObject",
+                "uid: user" + ( i % 10 ),
+                "cn: user",
+                "sn: " + ( i % 2 == 0 ? "a" : "c" ) );
+        }
+
+        // Both selections must be identical
+        for ( int i = 0; i < nbEvents; i++ )
+        {
+            assertEquals( select( registrations, names[i], entries[i] ),
+                select( index.getCandidates( names[i], entries[i] ), names[i], entries[i] ) );
+        }
+    }
+}
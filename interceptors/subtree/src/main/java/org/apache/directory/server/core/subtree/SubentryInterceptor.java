@@ -20,6 +20,8 @@
 package org.apache.directory.server.core.subtree;
 
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -30,7 +32,6 @@ import javax.naming.directory.SearchControls;
 import org.apache.directory.api.ldap.codec.controls.search.subentries.SubentriesDecorator;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
-import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -40,13 +41,15 @@ import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchAttributeException;
-import org.apache.directory.api.ldap.model.exception.LdapOperationErrorException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.exception.LdapSchemaViolationException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.BranchNode;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
-import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
@@ -61,13 +64,17 @@ import org.apache.directory.api.ldap.model.subtree.SubtreeSpecificationParser;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.InstanceLayout;
 import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.event.Evaluator;
+import org.apache.directory.server.core.api.event.ExpressionEvaluator;
 import org.apache.directory.server.core.api.filtering.EntryFilter;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.FilteringOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
@@ -77,8 +84,8 @@ import org.apache.directory.server.core.api.interceptor.context.RenameOperationC
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
-import org.apache.directory.server.core.api.subtree.SubentryCache;
-import org.apache.directory.server.core.api.subtree.SubtreeEvaluator;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.subtree.SubentryUtils;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -98,6 +105,12 @@ public class SubentryInterceptor extends BaseInterceptor
     /** the subentry control OID */
     private static final String SUBENTRY_CONTROL = Subentries.OID;
 
+    /** The number of entries cleaned up in each transaction when removing the stored attributes */
+    private static final int CLEANUP_BATCH_SIZE = 1000;
+
+    /** The suffix of the file recording that a partition has no stored subentry attributes anymore */
+    private static final String CLEANUP_MARKER_SUFFIX = ".subentry-attributes-removed";
+
     private Value subentryOC;
 
     /** The SubTree specification parser instance */
@@ -106,13 +119,14 @@ public class SubentryInterceptor extends BaseInterceptor
     /** A reference to the nexus for direct backend operations */
     private PartitionNexus nexus;
 
-    /** An enum used for the entries update */
-    private enum OperationEnum
-    {
-        ADD,
-        REMOVE,
-        REPLACE
-    }
+    /** The SubentryUtils instance, computing the subentries an entry belongs to */
+    private SubentryUtils subentryUtils;
+
+    /** The subentry operational attributes computed when an entry is read */
+    private AttributeType[] computedAttributes;
+
+    /** The evaluator used for the search filters using the subentry operational attributes */
+    private Evaluator evaluator;
 
 
     /**
@@ -192,6 +206,95 @@ public class SubentryInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * SearchResultFilter used to add the subentry operational attributes to the returned entries.
+     */
+    private class SubentryAttributesFilter implements EntryFilter
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean accept( SearchOperationContext searchContext, Entry entry ) throws LdapException
+        {
+            injectSubentryAttributes( searchContext, entry );
+
+            return true;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString( String tabs )
+        {
+            return tabs + "SubentryAttributesFilter";
+        }
+    }
+
+    /** The filter adding the subentry operational attributes */
+    private final EntryFilter subentryAttributesFilter = new SubentryAttributesFilter();
+
+
+    /**
+     * SearchResultFilter evaluating a search filter which uses the subentry operational
+     * attributes, against the values computed from the subentries selecting the entry.
+     */
+    private class ComputedAttributesFilter implements EntryFilter
+    {
+        /** The search filter */
+        private final ExprNode filter;
+
+
+        private ComputedAttributesFilter( ExprNode filter )
+        {
+            this.filter = filter;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean accept( SearchOperationContext searchContext, Entry entry ) throws LdapException
+        {
+            Entry originalEntry = entry;
+
+            if ( entry instanceof ClonedServerEntry )
+            {
+                originalEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+            }
+
+            Entry evaluatedEntry = originalEntry.clone();
+            Entry subentryAttributes = subentryUtils.getSubentryAttributes( entry.getDn(), originalEntry );
+
+            for ( AttributeType attributeType : computedAttributes )
+            {
+                evaluatedEntry.removeAttributes( attributeType );
+                Attribute attribute = subentryAttributes.get( attributeType );
+
+                if ( attribute != null )
+                {
+                    evaluatedEntry.put( attribute );
+                }
+            }
+
+            return evaluator.evaluate( filter, entry.getDn(), evaluatedEntry );
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString( String tabs )
+        {
+            return tabs + "ComputedAttributesFilter";
+        }
+    }
+
+
     //-------------------------------------------------------------------------------------------
     // Interceptor initialization
     //-------------------------------------------------------------------------------------------
@@ -206,7 +309,15 @@ public class SubentryInterceptor extends BaseInterceptor
         super.init( directoryService );
 
         nexus = directoryService.getPartitionNexus();
+        subentryUtils = new SubentryUtils( directoryService );
+        computedAttributes = new AttributeType[]
+            {
+                directoryService.getAtProvider().getAccessControlSubentries(),
+                directoryService.getAtProvider().getCollectiveAttributeSubentries(),
+                directoryService.getAtProvider().getTriggerExecutionSubentries()
+        };
 
+        evaluator = new ExpressionEvaluator( schemaManager );
         ssParser = new SubtreeSpecificationParser( schemaManager );
         AttributeType ocAt = directoryService.getAtProvider().getObjectClass();
 
@@ -282,6 +393,204 @@ public class SubentryInterceptor extends BaseInterceptor
                     LOG.error( I18n.err( I18n.ERR_168 ), e );
                 }
             }
+
+            removeStoredAttributes( adminSession, suffixDn, partition );
+        }
+    }
+
+
+    /**
+     * Removes the subentry operational attributes stored in the entries of a partition by
+     * older versions. Their values are now computed when the entries are read, so the
+     * stored ones are stale, and must not be matched by the search filters.
+     * <br>
+     * The entries are modified while they are read, {@link #CLEANUP_BATCH_SIZE} of them
+     * per transaction. Once the partition is clean, a marker file is written in the
+     * partitions directory, so that the next startups don't search the partition again.
+     */
+    private void removeStoredAttributes( CoreSession session, Dn suffixDn, Partition partition )
+        throws LdapException
+    {
+        File marker = getCleanupMarker( partition );
+
+        if ( ( marker != null ) && marker.exists() )
+        {
+            return;
+        }
+
+        List<ExprNode> presenceNodes = new ArrayList<>();
+
+        for ( AttributeType attributeType : computedAttributes )
+        {
+            presenceNodes.add( new PresenceNode( attributeType ) );
+        }
+
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope( SearchControls.SUBTREE_SCOPE );
+
+        SearchOperationContext searchOperationContext = new SearchOperationContext( session, suffixDn,
+            new OrNode( presenceNodes ), controls );
+        searchOperationContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
+        searchOperationContext.setPartition( partition );
+        searchOperationContext.setTransaction( partition.beginReadTransaction() );
+
+        List<ModifyOperationContext> batch = new ArrayList<>( CLEANUP_BATCH_SIZE );
+        long nbCleaned = 0L;
+        EntryFilteringCursor entries = nexus.search( searchOperationContext );
+
+        try
+        {
+            while ( entries.next() )
+            {
+                Entry entry = entries.get();
+
+                if ( entry instanceof ClonedServerEntry )
+                {
+                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+                }
+
+                List<Modification> mods = new ArrayList<>();
+
+                for ( AttributeType attributeType : computedAttributes )
+                {
+                    if ( entry.containsAttribute( attributeType ) )
+                    {
+                        mods.add( new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE, attributeType ) );
+                    }
+                }
+
+                if ( !mods.isEmpty() )
+                {
+                    batch.add( new ModifyOperationContext( session, entry.getDn(), mods ) );
+
+                    if ( batch.size() == CLEANUP_BATCH_SIZE )
+                    {
+                        nbCleaned += applyCleanups( partition, batch );
+                        batch.clear();
+                    }
+                }
+            }
+
+            nbCleaned += applyCleanups( partition, batch );
+        }
+        catch ( LdapException le )
+        {
+            throw le;
+        }
+        catch ( Exception e )
+        {
+            throw new LdapOperationException( e.getMessage(), e );
+        }
+        finally
+        {
+            try
+            {
+                entries.close();
+            }
+            catch ( Exception e )
+            {
+                LOG.error( I18n.err( I18n.ERR_168 ), e );
+            }
+        }
+
+        if ( nbCleaned > 0L )
+        {
+            LOG.info( "Removed the stored subentry operational attributes of {} entries in {}", nbCleaned,
+                suffixDn );
+        }
+
+        if ( marker != null )
+        {
+            try
+            {
+                if ( !marker.createNewFile() && !marker.exists() )
+                {
+                    LOG.warn( "Cannot create the file {}", marker );
+                }
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Cannot create the file {}", marker, ioe );
+            }
+        }
+    }
+
+
+    /**
+     * Applies a batch of modifications in one transaction, and returns the number of
+     * modified entries
+     */
+    private int applyCleanups( Partition partition, List<ModifyOperationContext> cleanups ) throws LdapException
+    {
+        if ( cleanups.isEmpty() )
+        {
+            return 0;
+        }
+
+        PartitionTxn partitionTxn = null;
+
+        try
+        {
+            partitionTxn = partition.beginWriteTransaction();
+
+            for ( ModifyOperationContext modifyContext : cleanups )
+            {
+                modifyContext.setPartition( partition );
+                modifyContext.setTransaction( partitionTxn );
+                nexus.modify( modifyContext );
+            }
+
+            partitionTxn.commit();
+        }
+        catch ( LdapException le )
+        {
+            abort( partitionTxn );
+
+            throw le;
+        }
+        catch ( IOException ioe )
+        {
+            abort( partitionTxn );
+
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        return cleanups.size();
+    }
+
+
+    /**
+     * Returns the file recording that the stored subentry attributes have been removed
+     * from a partition, or null if the instance has no partitions directory
+     */
+    private File getCleanupMarker( Partition partition )
+    {
+        InstanceLayout instanceLayout = directoryService.getInstanceLayout();
+
+        if ( ( instanceLayout == null ) || !instanceLayout.getPartitionsDirectory().isDirectory() )
+        {
+            return null;
+        }
+
+        return new File( instanceLayout.getPartitionsDirectory(), partition.getId() + CLEANUP_MARKER_SUFFIX );
+    }
+
+
+    /**
+     * Aborts a transaction, if it has been started
+     */
+    private void abort( PartitionTxn partitionTxn )
+    {
+        if ( partitionTxn != null )
+        {
+            try
+            {
+                partitionTxn.abort();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.error( "Failed to abort a transaction", ioe );
+            }
         }
     }
 
@@ -354,81 +663,109 @@ public class SubentryInterceptor extends BaseInterceptor
 
 
     /**
-     * Update all the entries under an AP adding the
+     * Replaces the subentry operational attributes of an entry by the ones computed from
+     * the subentries selecting it, if they have been requested. Those attributes are not
+     * updated in the entries when a subentry is added, modified or removed, so the values
+     * stored in older entries are never returned.
      */
-    private void updateEntries( OperationContext opContext, OperationEnum operation, 
-        Dn apDn, SubtreeSpecification ss, Dn baseDn, List<Attribute> operationalAttributes ) throws LdapException
+    private void injectSubentryAttributes( FilteringOperationContext opContext, Entry entry ) throws LdapException
     {
-        ExprNode filter = ObjectClassNode.OBJECT_CLASS_NODE; // (objectClass=*)
-        SearchControls controls = new SearchControls();
-        controls.setSearchScope( SearchControls.SUBTREE_SCOPE );
-        controls.setReturningAttributes( new String[]
-            { SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES, SchemaConstants.ALL_USER_ATTRIBUTES } );
+        Entry originalEntry = entry;
 
-        SearchOperationContext searchOperationContext = new SearchOperationContext( opContext.getSession(),
-            baseDn, filter, controls );
-        searchOperationContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
-        searchOperationContext.setPartition( opContext.getPartition() );
-        searchOperationContext.setTransaction( opContext.getTransaction() );
+        if ( entry instanceof ClonedServerEntry )
+        {
+            originalEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        }
 
-        EntryFilteringCursor subentries = nexus.search( searchOperationContext );
+        Entry subentryAttributes = null;
 
-        try
+        for ( AttributeType attributeType : computedAttributes )
         {
-            while ( subentries.next() )
-            {
-                Entry candidate = subentries.get();
-                Dn candidateDn = candidate.getDn();
+            entry.removeAttributes( attributeType );
 
-                if ( directoryService.getEvaluator().evaluate( ss, apDn, candidateDn, candidate ) )
+            if ( opContext.contains( schemaManager, attributeType ) )
+            {
+                if ( subentryAttributes == null )
                 {
-                    List<Modification> modifications = null;
-
-                    switch ( operation )
-                    {
-                        case ADD:
-                            modifications = getOperationalModsForAdd( candidate, operationalAttributes );
-                            break;
+                    subentryAttributes = subentryUtils.getSubentryAttributes( entry.getDn(), originalEntry );
+                }
 
-                        case REMOVE:
-                            modifications = getOperationalModsForRemove( opContext.getDn(), candidate );
-                            break;
+                Attribute attribute = subentryAttributes.get( attributeType );
 
-                        case REPLACE:
-                            // TODO: why is that commented out???
-                            //modifications = getOperationalModsForReplace( subentryDn, candidate );
-                            break;
+                if ( attribute != null )
+                {
+                    entry.put( attribute );
+                }
+            }
+        }
+    }
 
-                        default:
-                            throw new IllegalArgumentException( "Unexpected operation " + operation );
-                    }
 
-                    LOG.debug( "The entry {} has been evaluated to true for subentry {}", candidate.getDn(), opContext.getDn() );
-                    ModifyOperationContext modifyContext = new ModifyOperationContext( opContext.getSession(), candidateDn, modifications );
-                    modifyContext.setPartition( opContext.getPartition() );
-                    modifyContext.setTransaction( opContext.getTransaction() );
-                    
-                    nexus.modify( modifyContext );
+    /**
+     * Tells if a search filter uses one of the subentry operational attributes
+     */
+    private boolean usesComputedAttributes( ExprNode node )
+    {
+        if ( node instanceof BranchNode )
+        {
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
+            {
+                if ( usesComputedAttributes( child ) )
+                {
+                    return true;
                 }
             }
+        }
+        else if ( node instanceof LeafNode )
+        {
+            AttributeType attributeType = ( ( LeafNode ) node ).getAttributeType();
 
-            subentries.close();
+            for ( AttributeType computedAttribute : computedAttributes )
+            {
+                if ( computedAttribute.equals( attributeType ) )
+                {
+                    return true;
+                }
+            }
         }
-        catch ( Exception e )
+
+        return false;
+    }
+
+
+    /**
+     * Relaxes a search filter so that it does not use the subentry operational attributes,
+     * which are not stored, while still selecting all the entries the filter selects. The
+     * filter itself is then evaluated on the candidates by a {@link ComputedAttributesFilter}.
+     */
+    private ExprNode relaxFilter( ExprNode node )
+    {
+        if ( !usesComputedAttributes( node ) )
         {
-            throw new LdapOtherException( e.getMessage(), e );
+            return node;
         }
-        finally
+
+        if ( ( node instanceof AndNode ) || ( node instanceof OrNode ) )
         {
-            try
+            List<ExprNode> children = new ArrayList<>();
+
+            for ( ExprNode child : ( ( BranchNode ) node ).getChildren() )
             {
-                subentries.close();
+                children.add( relaxFilter( child ) );
             }
-            catch ( Exception e )
+
+            if ( node instanceof AndNode )
             {
-                LOG.error( I18n.err( I18n.ERR_168 ), e );
+                return new AndNode( children );
+            }
+            else
+            {
+                return new OrNode( children );
             }
         }
+
+        // A computed attribute, or a negation using one : any entry may be selected
+        return new PresenceNode( directoryService.getAtProvider().getObjectClass() );
     }
 
 
@@ -542,93 +879,20 @@ public class SubentryInterceptor extends BaseInterceptor
     }
 
 
-    private List<Modification> getModsOnEntryRdnChange( Dn oldName, Dn newName, Entry entry ) throws LdapException
+    // -----------------------------------------------------------------------
+    // Methods dealing with subentry modification
+    // -----------------------------------------------------------------------
+
+    private Set<AdministrativeRole> getSubentryTypes( Entry entry, List<Modification> mods ) throws LdapException
     {
-        List<Modification> modifications = new ArrayList<>();
-
-        /*
-         * There are two different situations warranting action.  First if
-         * an ss evalutating to true with the old name no longer evalutates
-         * to true with the new name.  This would be caused by specific chop
-         * exclusions that effect the new name but did not effect the old
-         * name. In this case we must remove subentry operational attribute
-         * values associated with the dn of that subentry.
-         *
-         * In the second case an ss selects the entry with the new name when
-         * it did not previously with the old name. Again this situation
-         * would be caused by chop exclusions. In this case we must add subentry
-         * operational attribute values with the dn of this subentry.
-         */
-        SubentryCache subentryCache = directoryService.getSubentryCache();
-        SubtreeEvaluator evaluator = directoryService.getEvaluator();
+        Attribute ocFinalState = entry.get( directoryService.getAtProvider().getObjectClass() ).clone();
 
-        for ( Dn subentryDn : subentryCache )
+        for ( Modification mod : mods )
         {
-            Dn apDn = subentryDn.getParent();
-            SubtreeSpecification ss = subentryCache.getSubentry( subentryDn ).getSubtreeSpecification();
-            boolean isOldNameSelected = evaluator.evaluate( ss, apDn, oldName, entry );
-            boolean isNewNameSelected = evaluator.evaluate( ss, apDn, newName, entry );
-
-            if ( isOldNameSelected == isNewNameSelected )
-            {
-                continue;
-            }
-
-            // need to remove references to the subentry
-            if ( isOldNameSelected && !isNewNameSelected )
+            if ( mod.getAttribute().getId().equalsIgnoreCase( SchemaConstants.OBJECT_CLASS_AT )
+                || mod.getAttribute().getId().equalsIgnoreCase( SchemaConstants.OBJECT_CLASS_AT_OID ) )
             {
-                for ( AttributeType operationalAttribute : directoryService.getAtProvider()
-                    .getSubentryOperationalAttributes() )
-                {
-                    ModificationOperation op = ModificationOperation.REPLACE_ATTRIBUTE;
-                    Attribute opAttr = entry.get( operationalAttribute );
-
-                    if ( opAttr != null )
-                    {
-                        opAttr = opAttr.clone();
-                        opAttr.remove( subentryDn.getName() );
-
-                        if ( opAttr.size() < 1 )
-                        {
-                            op = ModificationOperation.REMOVE_ATTRIBUTE;
-                        }
-
-                        modifications.add( new DefaultModification( op, opAttr ) );
-                    }
-                }
-            }
-            // need to add references to the subentry
-            else if ( isNewNameSelected && !isOldNameSelected )
-            {
-                for ( AttributeType operationalAttribute : directoryService.getAtProvider()
-                    .getSubentryOperationalAttributes() )
-                {
-                    ModificationOperation op = ModificationOperation.ADD_ATTRIBUTE;
-                    Attribute opAttr = new DefaultAttribute( operationalAttribute );
-                    opAttr.add( subentryDn.getName() );
-                    modifications.add( new DefaultModification( op, opAttr ) );
-                }
-            }
-        }
-
-        return modifications;
-    }
-
-
-    // -----------------------------------------------------------------------
-    // Methods dealing with subentry modification
-    // -----------------------------------------------------------------------
-
-    private Set<AdministrativeRole> getSubentryTypes( Entry entry, List<Modification> mods ) throws LdapException
-    {
-        Attribute ocFinalState = entry.get( directoryService.getAtProvider().getObjectClass() ).clone();
-
-        for ( Modification mod : mods )
-        {
-            if ( mod.getAttribute().getId().equalsIgnoreCase( SchemaConstants.OBJECT_CLASS_AT )
-                || mod.getAttribute().getId().equalsIgnoreCase( SchemaConstants.OBJECT_CLASS_AT_OID ) )
-            {
-                switch ( mod.getOperation() )
+                switch ( mod.getOperation() )
                 {
                     case ADD_ATTRIBUTE:
                         for ( Value value : mod.getAttribute() )
@@ -662,250 +926,6 @@ public class SubentryInterceptor extends BaseInterceptor
     }
 
 
-    /**
-     * Update the list of modifications with a modification associated with a specific
-     * role, if it's requested.
-     */
-    private void getOperationalModForReplace( boolean hasRole, AttributeType attributeType, Entry entry, Dn oldDn,
-        Dn newDn, List<Modification> modifications ) throws LdapInvalidAttributeValueException
-    {
-        String oldDnStr = oldDn.getName();
-        String newDnStr = newDn.getName();
-
-        if ( hasRole )
-        {
-            Attribute operational = entry.get( attributeType ).clone();
-
-            if ( operational == null )
-            {
-                operational = new DefaultAttribute( attributeType, newDnStr );
-            }
-            else
-            {
-                operational.remove( oldDnStr );
-                operational.add( newDnStr );
-            }
-
-            modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, operational ) );
-        }
-    }
-
-
-    /**
-     * Get the list of modifications to be applied on an entry to inject the operational attributes
-     * associated with the administrative roles.
-     */
-    private List<Modification> getOperationalModsForReplace( Dn oldDn, Dn newDn, Subentry subentry, Entry entry )
-        throws LdapException
-    {
-        List<Modification> modifications = new ArrayList<>();
-
-        getOperationalModForReplace( subentry.isAccessControlAdminRole(), directoryService.getAtProvider()
-            .getAccessControlSubentries(), entry, oldDn, newDn, modifications );
-        getOperationalModForReplace( subentry.isSchemaAdminRole(), directoryService.getAtProvider()
-            .getSubschemaSubentry(), entry, oldDn, newDn, modifications );
-        getOperationalModForReplace( subentry.isCollectiveAdminRole(), directoryService.getAtProvider()
-            .getCollectiveAttributeSubentries(), entry, oldDn, newDn, modifications );
-        getOperationalModForReplace( subentry.isTriggersAdminRole(), directoryService.getAtProvider()
-            .getTriggerExecutionSubentries(), entry, oldDn, newDn, modifications );
-
-        return modifications;
-    }
-
-
-    /**
-     * Gets the subschema operational attributes to be added to or removed from
-     * an entry selected by a subentry's subtreeSpecification.
-     */
-    private List<Attribute> getSubentryOperationalAttributes( Dn dn, Subentry subentry ) throws LdapException
-    {
-        List<Attribute> attributes = new ArrayList<>();
-
-        if ( subentry.isAccessControlAdminRole() )
-        {
-            Attribute accessControlSubentries = new DefaultAttribute( directoryService.getAtProvider()
-                .getAccessControlSubentries(), dn.getName() );
-            attributes.add( accessControlSubentries );
-        }
-
-        if ( subentry.isSchemaAdminRole() )
-        {
-            Attribute subschemaSubentry = new DefaultAttribute(
-                directoryService.getAtProvider().getSubschemaSubentry(), dn.getName() );
-            attributes.add( subschemaSubentry );
-        }
-
-        if ( subentry.isCollectiveAdminRole() )
-        {
-            Attribute collectiveAttributeSubentries = new DefaultAttribute( directoryService.getAtProvider()
-                .getCollectiveAttributeSubentries(), dn.getName() );
-            attributes.add( collectiveAttributeSubentries );
-        }
-
-        if ( subentry.isTriggersAdminRole() )
-        {
-            Attribute tiggerExecutionSubentries = new DefaultAttribute( directoryService.getAtProvider()
-                .getTriggerExecutionSubentries(), dn.getName() );
-            attributes.add( tiggerExecutionSubentries );
-        }
-
-        return attributes;
-    }
-
-
-    /**
-     * Calculates the subentry operational attributes to remove from a candidate
-     * entry selected by a subtreeSpecification.  When we remove a subentry we
-     * must remove the operational attributes in the entries that were once selected
-     * by the subtree specification of that subentry.  To do so we must perform
-     * a modify operation with the set of modifications to perform.  This method
-     * calculates those modifications.
-     *
-     * @param subentryDn the distinguished name of the subentry
-     * @param candidate the candidate entry to removed from the
-     * @return the set of modifications required to remove an entry's reference to
-     * a subentry
-     */
-    private List<Modification> getOperationalModsForRemove( Dn subentryDn, Entry candidate ) throws LdapException
-    {
-        List<Modification> modifications = new ArrayList<>();
-        String dn = subentryDn.getName();
-
-        for ( AttributeType operationalAttribute : directoryService.getAtProvider().getSubentryOperationalAttributes() )
-        {
-            Attribute opAttr = candidate.get( operationalAttribute );
-
-            if ( ( opAttr != null ) && opAttr.contains( dn ) )
-            {
-                Attribute attr = new DefaultAttribute( operationalAttribute, dn );
-                modifications.add( new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE, attr ) );
-            }
-        }
-
-        return modifications;
-    }
-
-
-    /**
-     * Calculates the subentry operational attributes to add or replace from
-     * a candidate entry selected by a subtree specification.  When a subentry
-     * is added or it's specification is modified some entries must have new
-     * operational attributes added to it to point back to the associated
-     * subentry.  To do so a modify operation must be performed on entries
-     * selected by the subtree specification.  This method calculates the
-     * modify operation to be performed on the entry.
-     */
-    private List<Modification> getOperationalModsForAdd( Entry entry, List<Attribute> operationalAttributes )
-        throws LdapException
-    {
-        List<Modification> modifications = new ArrayList<>();
-
-        for ( Attribute operationalAttribute : operationalAttributes )
-        {
-            Attribute opAttrInEntry = entry.get( operationalAttribute.getAttributeType() );
-
-            if ( ( opAttrInEntry != null ) && ( opAttrInEntry.size() > 0 ) )
-            {
-                Attribute newOperationalAttribute = operationalAttribute.clone();
-
-                for ( Value value : opAttrInEntry )
-                {
-                    newOperationalAttribute.add( value );
-                }
-
-                modifications.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
-                    newOperationalAttribute ) );
-            }
-            else
-            {
-                modifications
-                    .add( new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, operationalAttribute ) );
-            }
-        }
-
-        return modifications;
-    }
-
-
-    /**
-     * Get the list of modification to apply to all the entries
-     */
-    private List<Modification> getModsOnEntryModification( Dn name, Entry oldEntry, Entry newEntry )
-        throws LdapException
-    {
-        List<Modification> modList = new ArrayList<>();
-
-        for ( Dn subentryDn : directoryService.getSubentryCache() )
-        {
-            Dn apDn = subentryDn.getParent();
-            SubtreeSpecification ss = directoryService.getSubentryCache().getSubentry( subentryDn )
-                .getSubtreeSpecification();
-            boolean isOldEntrySelected = directoryService.getEvaluator().evaluate( ss, apDn, name, oldEntry );
-            boolean isNewEntrySelected = directoryService.getEvaluator().evaluate( ss, apDn, name, newEntry );
-
-            if ( isOldEntrySelected == isNewEntrySelected )
-            {
-                continue;
-            }
-
-            // need to remove references to the subentry
-            if ( isOldEntrySelected && !isNewEntrySelected )
-            {
-                for ( AttributeType operationalAttribute : directoryService.getAtProvider()
-                    .getSubentryOperationalAttributes() )
-                {
-                    ModificationOperation op = ModificationOperation.REPLACE_ATTRIBUTE;
-                    Attribute opAttr = oldEntry.get( operationalAttribute );
-
-                    if ( opAttr != null )
-                    {
-                        opAttr = opAttr.clone();
-                        opAttr.remove( subentryDn.getName() );
-
-                        if ( opAttr.size() < 1 )
-                        {
-                            op = ModificationOperation.REMOVE_ATTRIBUTE;
-                        }
-
-                        modList.add( new DefaultModification( op, opAttr ) );
-                    }
-                }
-            }
-            // need to add references to the subentry
-            else if ( isNewEntrySelected && !isOldEntrySelected )
-            {
-                for ( AttributeType operationalAttribute : directoryService.getAtProvider()
-                    .getSubentryOperationalAttributes() )
-                {
-                    ModificationOperation op = ModificationOperation.ADD_ATTRIBUTE;
-                    Attribute opAttr = new DefaultAttribute( operationalAttribute );
-                    opAttr.add( subentryDn.getName() );
-                    modList.add( new DefaultModification( op, opAttr ) );
-                }
-            }
-        }
-
-        return modList;
-    }
-
-
-    /**
-     * Update the Operational Attribute with the reference to the subentry
-     */
-    private void setOperationalAttribute( Entry entry, Dn subentryDn, AttributeType opAttr ) throws LdapException
-    {
-        Attribute operational = entry.get( opAttr );
-
-        if ( operational == null )
-        {
-            operational = new DefaultAttribute( opAttr );
-            entry.put( operational );
-        }
-
-        operational.add( subentryDn.getName() );
-    }
-
-
     //-------------------------------------------------------------------------------------------
     // Interceptor API methods
     //-------------------------------------------------------------------------------------------
@@ -936,103 +956,26 @@ public class SubentryInterceptor extends BaseInterceptor
             checkAdministrativeRole( addContext, apDn );
 
             /* ----------------------------------------------------------------
-             * Build the set of operational attributes to be injected into
-             * entries that are contained within the subtree represented by this
-             * new subentry.  In the process we make sure the proper roles are
-             * supported by the administrative point to allow the addition of
-             * this new subentry.
+             * Parse the subtreeSpecification of the subentry and add it to the
+             * SubtreeSpecification cache once the entry is added to the DIT.
+             * The entries selected by the
+             * subentry are not modified : their subentry operational attributes
+             * are computed from the cache when they are read.
              * ----------------------------------------------------------------
              */
             Subentry subentry = new Subentry();
             subentry.setAdministrativeRoles( getSubentryAdminRoles( entry ) );
-            List<Attribute> operationalAttributes = getSubentryOperationalAttributes( dn, subentry );
-
-            /* ----------------------------------------------------------------
-             * Parse the subtreeSpecification of the subentry and add it to the
-             * SubtreeSpecification cache.  If the parse succeeds we continue
-             * to add the entry to the DIT.  Thereafter we search out entries
-             * to modify the subentry operational attributes of.
-             * ----------------------------------------------------------------
-             */
             setSubtreeSpecification( subentry, entry );
-            directoryService.getSubentryCache().addSubentry( dn, subentry );
 
-            // Now inject the subentry into the backend
+            // Now inject the subentry into the backend, and cache it once it's added
             next( addContext );
 
-            /* ----------------------------------------------------------------
-             * Find the baseDn for the subentry and use that to search the tree
-             * while testing each entry returned for inclusion within the
-             * subtree of the subentry's subtreeSpecification.  All included
-             * entries will have their operational attributes merged with the
-             * operational attributes calculated above.
-             * ----------------------------------------------------------------
-             */
-            Dn baseDn = apDn;
-            baseDn = baseDn.add( subentry.getSubtreeSpecification().getBase() );
-
-            updateEntries( addContext, OperationEnum.ADD, apDn, subentry.getSubtreeSpecification(),
-                baseDn, operationalAttributes );
-
-            // Store the newly modified entry into the context for later use in interceptor
-            // just in case
-            addContext.setEntry( entry );
+            directoryService.getSubentryCache().addSubentry( dn, subentry );
         }
         else
         {
-            // The added entry is not a Subentry.
-            // Nevertheless, we have to check if the entry is added into an AdministrativePoint
-            // and is associated with some SubtreeSpecification
-            // We brutally check *all* the subentries, as we don't hold a hierarchy
-            // of AP
-            // TODO : add a hierarchy of subentries
-            for ( Dn subentryDn : directoryService.getSubentryCache() )
-            {
-                Dn apDn = subentryDn.getParent();
-
-                // No need to evaluate the entry if it's not below an AP.
-                if ( dn.isDescendantOf( apDn ) )
-                {
-                    Subentry subentry = directoryService.getSubentryCache().getSubentry( subentryDn );
-                    SubtreeSpecification ss = subentry.getSubtreeSpecification();
-
-                    // Now, evaluate the entry wrt the subentry ss
-                    // and inject a ref to the subentry if it evaluates to true
-                    if ( directoryService.getEvaluator().evaluate( ss, apDn, dn, entry ) )
-                    {
-
-                        if ( subentry.isAccessControlAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
-                                .getAccessControlSubentries() );
-                        }
-
-                        if ( subentry.isSchemaAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
-                                .getSubschemaSubentry() );
-                        }
-
-                        if ( subentry.isCollectiveAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
-                                .getCollectiveAttributeSubentries() );
-                        }
-
-                        if ( subentry.isTriggersAdminRole() )
-                        {
-                            setOperationalAttribute( entry, subentryDn, directoryService.getAtProvider()
-                                .getTriggerExecutionSubentries() );
-                        }
-                    }
-                }
-            }
-
-            // Now that the entry has been updated with the operational attributes,
-            // we can update it into the add context
-            addContext.setEntry( entry );
-
-            // Propagate the addition down to the backend.
+            // The added entry is not a Subentry. The subentries selecting it
+            // will be computed when it's read.
             next( addContext );
         }
     }
@@ -1048,32 +991,15 @@ public class SubentryInterceptor extends BaseInterceptor
         Entry entry = deleteContext.getEntry();
 
         // If the entry has a "subentry" Objectclass, we can process the entry.
-        // We first remove the re
+        // Once it's deleted, we remove the subentry from the cache, so that the
+        // entries it selected don't reference it anymore
         if ( entry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.SUBENTRY_OC ) )
         {
-            Subentry removedSubentry = directoryService.getSubentryCache().getSubentry( dn );
-
-            /* ----------------------------------------------------------------
-             * Find the baseDn for the subentry and use that to search the tree
-             * for all entries included by the subtreeSpecification.  Then we
-             * check the entry for subentry operational attribute that contain
-             * the Dn of the subentry.  These are the subentry operational
-             * attributes we remove from the entry in a modify operation.
-             * ----------------------------------------------------------------
-             */
-            Dn apDn = dn.getParent();
-            Dn baseDn = apDn;
-            baseDn = baseDn.add( removedSubentry.getSubtreeSpecification().getBase() );
-
-            // Remove all the references to this removed subentry from all the selected entries
-            updateEntries( deleteContext, OperationEnum.REMOVE, apDn,
-                removedSubentry.getSubtreeSpecification(), baseDn, null );
+            // Delete the subentry itself
+            next( deleteContext );
 
-            // Update the cache
+            // Now update the cache
             directoryService.getSubentryCache().removeSubentry( dn );
-
-            // Now delete the subentry itself
-            next( deleteContext );
         }
         else
         {
@@ -1083,6 +1009,23 @@ public class SubentryInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+    {
+        Entry entry = next( lookupContext );
+
+        if ( entry != null )
+        {
+            injectSubentryAttributes( lookupContext, entry );
+        }
+
+        return entry;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -1122,8 +1065,6 @@ public class SubentryInterceptor extends BaseInterceptor
         // Check if we have a modified subentry attribute in a Subentry entry
         if ( containsSubentryOC && isSubtreeSpecificationModification )
         {
-            Subentry subentry = directoryService.getSubentryCache().removeSubentry( dn );
-            SubtreeSpecification ssOld = subentry.getSubtreeSpecification();
             SubtreeSpecification ssNew;
 
             try
@@ -1137,130 +1078,26 @@ public class SubentryInterceptor extends BaseInterceptor
                 throw new LdapInvalidAttributeValueException( ResultCodeEnum.INVALID_ATTRIBUTE_SYNTAX, msg );
             }
 
-            subentry.setSubtreeSpecification( ssNew );
-            subentry.setAdministrativeRoles( getSubentryTypes( entry, modifications ) );
-            directoryService.getSubentryCache().addSubentry( dn, subentry );
+            Set<AdministrativeRole> adminRoles = getSubentryTypes( entry, modifications );
 
             next( modifyContext );
 
-            // search for all entries selected by the old SS and remove references to subentry
-            Dn apName = dn.getParent();
-            Dn oldBaseDn = apName;
-            oldBaseDn = oldBaseDn.add( ssOld.getBase() );
-
-            ExprNode filter = new PresenceNode( directoryService.getAtProvider().getObjectClass() );
-            SearchControls controls = new SearchControls();
-            controls.setSearchScope( SearchControls.SUBTREE_SCOPE );
-            controls.setReturningAttributes( new String[]
-                { SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES, SchemaConstants.ALL_USER_ATTRIBUTES } );
-
-            SearchOperationContext searchOperationContext = new SearchOperationContext( modifyContext.getSession(),
-                oldBaseDn, filter, controls );
-            searchOperationContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
-            searchOperationContext.setPartition( modifyContext.getPartition() );
-            searchOperationContext.setTransaction( modifyContext.getTransaction() );
-
-            EntryFilteringCursor subentries = nexus.search( searchOperationContext );
-
-            try
-            {
-                while ( subentries.next() )
-                {
-                    Entry candidate = subentries.get();
-                    Dn candidateDn = candidate.getDn();
-
-                    if ( directoryService.getEvaluator().evaluate( ssOld, apName, candidateDn, candidate ) )
-                    {
-                        ModifyOperationContext newModifyContext = new ModifyOperationContext( modifyContext.getSession(), candidateDn,
-                            getOperationalModsForRemove( dn, candidate ) );
-                        newModifyContext.setPartition( modifyContext.getPartition() );
-                        newModifyContext.setTransaction( modifyContext.getTransaction() );
-                        
-                        nexus.modify( newModifyContext );
-                    }
-                }
+            // The entries selected by the old and the new SubtreeSpecification
+            // are not modified, updating the cache is enough
+            Subentry subentry = directoryService.getSubentryCache().removeSubentry( dn );
 
-                subentries.close();
-            }
-            catch ( Exception e )
+            if ( subentry == null )
             {
-                throw new LdapOperationErrorException( e.getMessage(), e );
-            }
-            finally
-            {
-                try
-                {
-                    subentries.close();
-                }
-                catch ( Exception e )
-                {
-                    LOG.error( I18n.err( I18n.ERR_168 ), e );
-                }
+                subentry = new Subentry();
             }
 
-            // search for all selected entries by the new SS and add references to subentry
-            subentry = directoryService.getSubentryCache().getSubentry( dn );
-            List<Attribute> operationalAttributes = getSubentryOperationalAttributes( dn, subentry );
-            Dn newBaseDn = apName;
-            newBaseDn = newBaseDn.add( ssNew.getBase() );
-
-            searchOperationContext = new SearchOperationContext( modifyContext.getSession(), newBaseDn, filter,
-                controls );
-            searchOperationContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
-            searchOperationContext.setPartition( modifyContext.getPartition() );
-            searchOperationContext.setTransaction( modifyContext.getTransaction() );
-
-            subentries = nexus.search( searchOperationContext );
-
-            try
-            {
-                while ( subentries.next() )
-                {
-                    Entry candidate = subentries.get();
-                    Dn candidateDn = candidate.getDn();
-
-                    if ( directoryService.getEvaluator().evaluate( ssNew, apName, candidateDn, candidate ) )
-                    {
-                        nexus.modify( new ModifyOperationContext( modifyContext.getSession(), candidateDn,
-                            getOperationalModsForAdd( candidate, operationalAttributes ) ) );
-                    }
-                }
-                subentries.close();
-            }
-            catch ( Exception e )
-            {
-                throw new LdapOperationErrorException( e.getMessage(), e );
-            }
-            finally
-            {
-                try
-                {
-                    subentries.close();
-                }
-                catch ( Exception e )
-                {
-                    LOG.error( I18n.err( I18n.ERR_168 ), e );
-                }
-            }
+            subentry.setSubtreeSpecification( ssNew );
+            subentry.setAdministrativeRoles( adminRoles );
+            directoryService.getSubentryCache().addSubentry( dn, subentry );
         }
         else
         {
             next( modifyContext );
-
-            if ( !containsSubentryOC )
-            {
-                Entry newEntry = modifyContext.getAlteredEntry();
-
-                List<Modification> subentriesOpAttrMods = getModsOnEntryModification( dn, entry, newEntry );
-
-                if ( !subentriesOpAttrMods.isEmpty() )
-                {
-                    ModifyOperationContext newModifyContext = new ModifyOperationContext( modifyContext.getSession(), dn, subentriesOpAttrMods );
-                    newModifyContext.setPartition( modifyContext.getPartition() );
-                    newModifyContext.setTransaction( modifyContext.getTransaction() );
-                    nexus.modify( newModifyContext );
-                }
-            }
         }
     }
 
@@ -1273,18 +1110,16 @@ public class SubentryInterceptor extends BaseInterceptor
      * <p>
      * <u>Case 1 :</u><br>
      * A normal entry (ie, not a subentry or an AP) may be part of some administrative areas.
-     * We have to remove the references to the associated areas if the entry gets out of them.<br>
-     * This entry can also be moved to some other administrative area, and it should then be
-     * updated to point to the associated subentries.
+     * As the references to the associated subentries are computed when the entry is read,
+     * there is nothing to update.
      * <br><br>
      * There is one preliminary condition : If the entry has a descendant which is an
      * Administrative Point, then the move cannot be done.
      * <br><br>
      * <u>Case 2 :</u><br>
      * The subentry has to be moved under a new AP, otherwise this is an error. Once moved,
-     * we have to update all the entries selected by the old subtreeSpecification, removing
-     * the references to the subentry from all the selected entry, and update the entries
-     * selected by the new subtreeSpecification by adding a reference to the subentry into them.
+     * the subentry cache is updated, which is enough for the entries selected by the
+     * subtreeSpecification to reference the subentry under its new name.
      * <br><br>
      * <u>Case 3 :</u><br>
      *
@@ -1302,96 +1137,21 @@ public class SubentryInterceptor extends BaseInterceptor
 
         if ( entry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.SUBENTRY_OC ) )
         {
-            // This is a subentry. Moving a subentry means we have to:
-            // o Check that there is a new AP where we move the subentry
-            // o Remove the op Attr from all the entry selected by the subentry
-            // o Add the op Attr in all the selected entry by the subentry
-
-            // If we move it, we have to check that
+            // This is a subentry. If we move it, we have to check that
             // the new parent is an AP
             checkAdministrativeRole( moveContext, newSuperiorDn );
 
-            Subentry subentry = directoryService.getSubentryCache().removeSubentry( oldDn );
-            SubtreeSpecification ss = subentry.getSubtreeSpecification();
-            Dn apName = oldDn.getParent();
-            Dn baseDn = apName;
-            baseDn = baseDn.add( ss.getBase() );
             Dn newName = newSuperiorDn;
             newName = newName.add( oldDn.getRdn() );
-            
-            if ( !newName.isSchemaAware() )
-            {
-                newName = new Dn( schemaManager, newName );
-            }
-
-            directoryService.getSubentryCache().addSubentry( newName, subentry );
 
             next( moveContext );
 
-            subentry = directoryService.getSubentryCache().getSubentry( newName );
-
-            ExprNode filter = new PresenceNode( directoryService.getAtProvider().getObjectClass() );
-            SearchControls controls = new SearchControls();
-            controls.setSearchScope( SearchControls.SUBTREE_SCOPE );
-            controls.setReturningAttributes( new String[]
-                { SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES, SchemaConstants.ALL_USER_ATTRIBUTES } );
-
-            SearchOperationContext searchOperationContext = new SearchOperationContext( moveContext.getSession(),
-                baseDn,
-                filter, controls );
-            searchOperationContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
-            searchOperationContext.setPartition( moveContext.getPartition() );
-            searchOperationContext.setTransaction( moveContext.getTransaction() );
-
-            EntryFilteringCursor subentries = nexus.search( searchOperationContext );
-
-            try
-            {
-                // Modify all the entries under this subentry
-                while ( subentries.next() )
-                {
-                    Entry candidate = subentries.get();
-                    Dn dn = candidate.getDn();
-                    
-                    if ( !dn.isSchemaAware() )
-                    {
-                        dn = new Dn( schemaManager, dn );
-                    }
-
-                    if ( directoryService.getEvaluator().evaluate( ss, apName, dn, candidate ) )
-                    {
-                        ModifyOperationContext newModifyContext = new ModifyOperationContext( moveContext.getSession(), dn,
-                            getOperationalModsForReplace( oldDn, newName, subentry, candidate ) );
-                        newModifyContext.setPartition( moveContext.getPartition() );
-                        newModifyContext.setTransaction( moveContext.getTransaction() );
-                        nexus.modify( newModifyContext );
-                    }
-                }
-            }
-            catch ( Exception e )
-            {
-                throw new LdapOperationException( e.getMessage(), e );
-            }
-            finally
-            {
-                try
-                {
-                    subentries.close();
-                }
-                catch ( Exception e )
-                {
-                    LOG.error( I18n.err( I18n.ERR_168 ), e );
-                }
-            }
+            renameSubentry( oldDn, newName );
         }
         else
         {
-            // A normal entry. It may be part of a SubtreeSpecifciation. In this
-            // case, we have to update the opAttrs (removing old ones and adding the
-            // new ones)
-
-            // First, an moved entry which has an AP in one of its descendant
-            // can't be moved.
+            // A normal entry. First, an moved entry which has an AP in one of its
+            // descendant can't be moved.
             if ( hasAdministrativeDescendant( moveContext, oldDn ) )
             {
                 String msg = I18n.err( I18n.ERR_308 );
@@ -1401,20 +1161,6 @@ public class SubentryInterceptor extends BaseInterceptor
 
             // Move the entry
             next( moveContext );
-
-            // calculate the new Dn now for use below to modify subentry operational
-            // attributes contained within this regular entry with name changes
-            Dn newDn = moveContext.getNewDn();
-            List<Modification> mods = getModsOnEntryRdnChange( oldDn, newDn, entry );
-
-            // Update the entry operational attributes
-            if ( !mods.isEmpty() )
-            {
-                ModifyOperationContext newModifyContext = new ModifyOperationContext( moveContext.getSession(), newDn, mods );
-                newModifyContext.setPartition( moveContext.getPartition() );
-                newModifyContext.setTransaction( moveContext.getTransaction() );
-                nexus.modify( newModifyContext );
-            }
         }
     }
 
@@ -1432,78 +1178,12 @@ public class SubentryInterceptor extends BaseInterceptor
 
         if ( entry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.SUBENTRY_OC ) )
         {
-            Subentry subentry = directoryService.getSubentryCache().removeSubentry( oldDn );
-            SubtreeSpecification ss = subentry.getSubtreeSpecification();
-            Dn apName = oldDn.getParent();
-            Dn baseDn = apName;
-            baseDn = baseDn.add( ss.getBase() );
             Dn newName = newSuperiorDn.getParent();
-
             newName = newName.add( moveAndRenameContext.getNewRdn() );
-            
-            if ( !newName.isSchemaAware() )
-            {
-                newName = new Dn( schemaManager, newName );
-            }
-
-            directoryService.getSubentryCache().addSubentry( newName, subentry );
 
             next( moveAndRenameContext );
 
-            subentry = directoryService.getSubentryCache().getSubentry( newName );
-
-            ExprNode filter = new PresenceNode( directoryService.getAtProvider().getObjectClass() );
-            SearchControls controls = new SearchControls();
-            controls.setSearchScope( SearchControls.SUBTREE_SCOPE );
-            controls.setReturningAttributes( new String[]
-                { SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES, SchemaConstants.ALL_USER_ATTRIBUTES } );
-
-            SearchOperationContext searchOperationContext = new SearchOperationContext(
-                moveAndRenameContext.getSession(), baseDn,
-                filter, controls );
-            searchOperationContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
-            searchOperationContext.setPartition( moveAndRenameContext.getPartition() );
-            searchOperationContext.setTransaction( moveAndRenameContext.getTransaction() );
-
-            EntryFilteringCursor subentries = nexus.search( searchOperationContext );
-
-            try
-            {
-                while ( subentries.next() )
-                {
-                    Entry candidate = subentries.get();
-                    Dn dn = candidate.getDn();
-                    
-                    if ( !dn.isSchemaAware() )
-                    {
-                        dn = new Dn( schemaManager, dn );
-                    }
-
-                    if ( directoryService.getEvaluator().evaluate( ss, apName, dn, candidate ) )
-                    {
-                        ModifyOperationContext newModifyContext = new ModifyOperationContext( moveAndRenameContext.getSession(), dn,
-                            getOperationalModsForReplace( oldDn, newName, subentry, candidate ) );
-                        newModifyContext.setPartition( moveAndRenameContext.getPartition() );
-                        newModifyContext.setTransaction( moveAndRenameContext.getTransaction() );
-                        nexus.modify( newModifyContext );
-                    }
-                }
-            }
-            catch ( Exception e )
-            {
-                throw new LdapOperationException( e.getMessage(), e );
-            }
-            finally
-            {
-                try
-                {
-                    subentries.close();
-                }
-                catch ( Exception e )
-                {
-                    LOG.error( I18n.err( I18n.ERR_168 ), e );
-                }
-            }
+            renameSubentry( oldDn, newName );
         }
         else
         {
@@ -1515,16 +1195,6 @@ public class SubentryInterceptor extends BaseInterceptor
             }
 
             next( moveAndRenameContext );
-
-            // calculate the new Dn now for use below to modify subentry operational
-            // attributes contained within this regular entry with name changes
-            Dn newDn = moveAndRenameContext.getNewDn();
-            List<Modification> mods = getModsOnEntryRdnChange( oldDn, newDn, entry );
-
-            if ( !mods.isEmpty() )
-            {
-                nexus.modify( new ModifyOperationContext( moveAndRenameContext.getSession(), newDn, mods ) );
-            }
         }
     }
 
@@ -1541,75 +1211,12 @@ public class SubentryInterceptor extends BaseInterceptor
 
         if ( entry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.SUBENTRY_OC ) )
         {
-            // @Todo To be reviewed !!!
-            Subentry subentry = directoryService.getSubentryCache().removeSubentry( oldDn );
-            SubtreeSpecification ss = subentry.getSubtreeSpecification();
-            Dn apName = oldDn.getParent();
-            Dn baseDn = apName;
-            baseDn = baseDn.add( ss.getBase() );
             Dn newName = oldDn.getParent();
-
             newName = newName.add( renameContext.getNewRdn() );
 
-            if ( !newName.isSchemaAware() )
-            {
-                newName = new Dn( schemaManager, newName );
-            }
-
-            directoryService.getSubentryCache().addSubentry( newName, subentry );
             next( renameContext );
 
-            subentry = directoryService.getSubentryCache().getSubentry( newName );
-            ExprNode filter = new PresenceNode( directoryService.getAtProvider().getObjectClass() );
-            SearchControls controls = new SearchControls();
-            controls.setSearchScope( SearchControls.SUBTREE_SCOPE );
-            controls.setReturningAttributes( new String[]
-                { SchemaConstants.ALL_OPERATIONAL_ATTRIBUTES, SchemaConstants.ALL_USER_ATTRIBUTES } );
-
-            SearchOperationContext searchOperationContext = new SearchOperationContext( renameContext.getSession(),
-                baseDn,
-                filter, controls );
-            searchOperationContext.setAliasDerefMode( AliasDerefMode.NEVER_DEREF_ALIASES );
-            searchOperationContext.setPartition( renameContext.getPartition() );
-            searchOperationContext.setTransaction( renameContext.getTransaction() );
-
-            EntryFilteringCursor subentries = nexus.search( searchOperationContext );
-
-            try
-            {
-                while ( subentries.next() )
-                {
-                    Entry candidate = subentries.get();
-                    Dn dn = candidate.getDn();
-
-                    if ( !dn.isSchemaAware() )
-                    {
-                        dn = new Dn( schemaManager, dn );
-                    }
-
-                    if ( directoryService.getEvaluator().evaluate( ss, apName, dn, candidate ) )
-                    {
-                        nexus.modify( new ModifyOperationContext( renameContext.getSession(), dn,
-                            getOperationalModsForReplace(
-                                oldDn, newName, subentry, candidate ) ) );
-                    }
-                }
-            }
-            catch ( Exception e )
-            {
-                throw new LdapOperationException( e.getMessage(), e );
-            }
-            finally
-            {
-                try
-                {
-                    subentries.close();
-                }
-                catch ( Exception e )
-                {
-                    LOG.error( I18n.err( I18n.ERR_168 ), e );
-                }
-            }
+            renameSubentry( oldDn, newName );
         }
         else
         {
@@ -1621,21 +1228,24 @@ public class SubentryInterceptor extends BaseInterceptor
             }
 
             next( renameContext );
+        }
+    }
 
-            // calculate the new Dn now for use below to modify subentry operational
-            // attributes contained within this regular entry with name changes
-            Dn newName = renameContext.getNewDn();
 
-            List<Modification> mods = getModsOnEntryRdnChange( oldDn, newName, entry );
+    /**
+     * Moves a subentry in the subentry cache.
+     */
+    private void renameSubentry( Dn oldDn, Dn newName ) throws LdapException
+    {
+        Dn newDn = newName;
 
-            if ( !mods.isEmpty() )
-            {
-                ModifyOperationContext newModifyContext = new ModifyOperationContext( renameContext.getSession(), newName, mods );
-                newModifyContext.setPartition( renameContext.getPartition() );
-                newModifyContext.setTransaction( renameContext.getTransaction() );
-                nexus.modify( newModifyContext );
-            }
+        if ( !newDn.isSchemaAware() )
+        {
+            newDn = new Dn( schemaManager, newDn );
         }
+
+        Subentry subentry = directoryService.getSubentryCache().removeSubentry( oldDn );
+        directoryService.getSubentryCache().addSubentry( newDn, subentry );
     }
 
 
@@ -1645,30 +1255,41 @@ public class SubentryInterceptor extends BaseInterceptor
     @Override
     public EntryFilteringCursor search( SearchOperationContext searchContext ) throws LdapException
     {
-        EntryFilteringCursor cursor = next( searchContext );
+        // The subentry operational attributes are not stored : a filter using them is
+        // evaluated on the computed values, once the candidates are selected
+        ExprNode filter = searchContext.getFilter();
+        EntryFilter computedAttributesFilter = null;
 
-        // object scope searches by default return subentries
-        if ( searchContext.getScope() == SearchScope.OBJECT )
+        if ( usesComputedAttributes( filter ) )
         {
-            return cursor;
+            computedAttributesFilter = new ComputedAttributesFilter( filter );
+            searchContext.setFilter( relaxFilter( filter ) );
         }
 
-        // DO NOT hide subentries for replication operations
-        if ( searchContext.isSyncreplSearch() )
-        {
-            return cursor;
-        }
+        EntryFilteringCursor cursor = next( searchContext );
 
-        // for subtree and one level scope we filter
-        if ( !isSubentryVisible( searchContext ) )
+        if ( computedAttributesFilter != null )
         {
-            cursor.addEntryFilter( new HideSubentriesFilter() );
+            cursor.addEntryFilter( computedAttributesFilter );
         }
-        else
+
+        // object scope searches by default return subentries, and we
+        // DO NOT hide subentries for replication operations
+        if ( ( searchContext.getScope() != SearchScope.OBJECT ) && !searchContext.isSyncreplSearch() )
         {
-            cursor.addEntryFilter( new HideEntriesFilter() );
+            // for subtree and one level scope we filter
+            if ( !isSubentryVisible( searchContext ) )
+            {
+                cursor.addEntryFilter( new HideSubentriesFilter() );
+            }
+            else
+            {
+                cursor.addEntryFilter( new HideEntriesFilter() );
+            }
         }
 
+        cursor.addEntryFilter( subentryAttributesFilter );
+
         return cursor;
     }
 }
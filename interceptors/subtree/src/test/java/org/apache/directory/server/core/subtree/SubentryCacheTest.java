@@ -0,0 +1,91 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.subtree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.subtree.Subentry;
+import org.apache.directory.server.core.api.subtree.SubentryCache;
+import org.junit.Test;
+
+
+/**
+ * Unit test cases for the administrative point index of the SubentryCache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubentryCacheTest
+{
+    @Test
+    public void testGetSubentries() throws Exception
+    {
+        SubentryCache cache = new SubentryCache();
+        Dn top = new Dn( "cn=top,ou=system" );
+        Dn nested = new Dn( "cn=nested,ou=people,ou=system" );
+        Dn other = new Dn( "cn=other,ou=groups,ou=system" );
+
+        cache.addSubentry( top, new Subentry() );
+        cache.addSubentry( nested, new Subentry() );
+        cache.addSubentry( other, new Subentry() );
+
+        List<Dn> subentries = cache.getSubentries( new Dn( "uid=admin,ou=people,ou=system" ) );
+        assertEquals( 2, subentries.size() );
+        assertTrue( subentries.contains( top ) );
+        assertTrue( subentries.contains( nested ) );
+
+        // The administrative point itself is selected by its subentries
+        subentries = cache.getSubentries( new Dn( "ou=people,ou=system" ) );
+        assertEquals( 2, subentries.size() );
+
+        subentries = cache.getSubentries( new Dn( "ou=system" ) );
+        assertEquals( 1, subentries.size() );
+        assertTrue( subentries.contains( top ) );
+
+        assertTrue( cache.getSubentries( new Dn( "ou=example" ) ).isEmpty() );
+    }
+
+
+    @Test
+    public void testRemovedSubentry() throws Exception
+    {
+        SubentryCache cache = new SubentryCache();
+        Dn top = new Dn( "cn=top,ou=system" );
+        Dn nested = new Dn( "cn=nested,ou=people,ou=system" );
+        Dn entry = new Dn( "uid=admin,ou=people,ou=system" );
+
+        cache.addSubentry( top, new Subentry() );
+        cache.addSubentry( nested, new Subentry() );
+        assertEquals( 2, cache.getSubentries( entry ).size() );
+
+        cache.removeSubentry( top );
+
+        List<Dn> subentries = cache.getSubentries( entry );
+        assertEquals( 1, subentries.size() );
+        assertTrue( subentries.contains( nested ) );
+
+        cache.removeSubentry( nested );
+        assertTrue( cache.getSubentries( entry ).isEmpty() );
+    }
+}
@@ -43,7 +43,6 @@ import org.apache.directory.api.ldap.trigger.LdapOperation;
 import org.apache.directory.api.ldap.trigger.TriggerSpecification;
 import org.apache.directory.api.ldap.trigger.TriggerSpecificationParser;
 import org.apache.directory.api.ldap.trigger.TriggerSpecification.SPSpec;
-import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
@@ -135,6 +134,8 @@ public class TriggerInterceptor extends BaseInterceptor
          * to be in the same naming context as their access point so the subentries
          * effecting their parent entry applies to them as well.
          */
+        Dn entryDn = dn;
+
         if ( entry.contains( directoryService.getAtProvider().getObjectClass(), SchemaConstants.SUBENTRY_OC ) )
         {
             Dn parentDn = dn.getParent();
@@ -146,9 +147,12 @@ public class TriggerInterceptor extends BaseInterceptor
             lookupContext.setTransaction( opContext.getTransaction() );
 
             entry = directoryService.getPartitionNexus().lookup( lookupContext );
+            entryDn = parentDn;
         }
 
-        Attribute subentries = entry.get( ApacheSchemaConstants.TRIGGER_EXECUTION_SUBENTRIES_AT );
+        // The subentries selecting the entry are not stored in it, we compute them
+        Attribute subentries = subentryUtils.getSubentryAttributes( entryDn, entry ).get(
+            directoryService.getAtProvider().getTriggerExecutionSubentries() );
 
         if ( subentries == null )
         {
@@ -0,0 +1,313 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+
+
+/**
+ * Keeps the previous versions of the entries modified while some snapshots are opened, so
+ * that a read transaction fetches the entries as they were when it started. Each change in
+ * the master table gets a new revision, and a snapshot is the revision at the time it has
+ * been opened. When an entry is modified or deleted while a snapshot is opened, its previous
+ * version is kept until all the snapshots older than the change are closed.
+ * <br>
+ * Only the master table is versioned : this is not a snapshot isolation. The indexes are
+ * read as they are, so a search may miss an entry which matched its filter when the
+ * transaction started, if the indexed values it was found with have been changed since.
+ * The entries it returns are still the ones which existed when it started.
+ * <br>
+ * When no snapshot is opened, nothing is kept. A snapshot is closed with its read transaction,
+ * or when the transaction is garbage collected if it has not been closed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryVersions
+{
+    /**
+     * A previous version of an entry, valid until a given revision.
+     */
+    private static final class Version
+    {
+        /** The revision of the change which has replaced this version */
+        private final long revision;
+
+        /** The entry before the change, null if it did not exist */
+        private final Entry entry;
+
+        /** The version replaced by an older change */
+        private volatile Version older;
+
+
+        private Version( long revision, Entry entry, Version older )
+        {
+            this.revision = revision;
+            this.entry = entry;
+            this.older = older;
+        }
+    }
+
+    /**
+     * A snapshot opened by a read transaction.
+     */
+    public static final class Snapshot extends WeakReference<JdbmPartitionReadTxn>
+    {
+        /** The snapshot revision */
+        private final long revision;
+
+
+        private Snapshot( JdbmPartitionReadTxn transaction, long revision,
+            ReferenceQueue<JdbmPartitionReadTxn> queue )
+        {
+            super( transaction, queue );
+            this.revision = revision;
+        }
+
+
+        /**
+         * @return The snapshot revision
+         */
+        public long getRevision()
+        {
+            return revision;
+        }
+    }
+
+    /** The current revision */
+    private long revision;
+
+    /** The opened snapshots */
+    private final Set<Snapshot> opened = new HashSet<>();
+
+    /** The snapshots whose transaction has been garbage collected */
+    private final ReferenceQueue<JdbmPartitionReadTxn> collected = new ReferenceQueue<>();
+
+    /** The number of opened snapshots, per revision */
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+
+    /** The previous versions of the modified entries, the most recent first */
+    private final Map<String, Version> versions = new ConcurrentHashMap<>();
+
+    /** The ID of the entry each kept version belongs to, per revision */
+    private final TreeMap<Long, String> revisions = new TreeMap<>();
+
+
+    /**
+     * Opens a snapshot on the current revision.
+     *
+     * @param transaction The read transaction using the snapshot
+     * @return The snapshot
+     */
+    public synchronized Snapshot openSnapshot( JdbmPartitionReadTxn transaction )
+    {
+        closeCollectedSnapshots();
+
+        Snapshot snapshot = new Snapshot( transaction, revision, collected );
+        opened.add( snapshot );
+
+        Integer count = snapshots.get( revision );
+        snapshots.put( revision, count == null ? 1 : count + 1 );
+
+        return snapshot;
+    }
+
+
+    /**
+     * Closes the snapshots of the transactions which have been garbage collected
+     * without being closed.
+     */
+    private void closeCollectedSnapshots()
+    {
+        Reference<? extends JdbmPartitionReadTxn> reference = collected.poll();
+
+        while ( reference != null )
+        {
+            closeSnapshot( ( Snapshot ) reference );
+            reference = collected.poll();
+        }
+    }
+
+
+    /**
+     * Closes a snapshot, and forgets the versions which are not needed anymore.
+     *
+     * @param snapshot The snapshot
+     */
+    public synchronized void closeSnapshot( Snapshot snapshot )
+    {
+        if ( !opened.remove( snapshot ) )
+        {
+            // Already closed
+            return;
+        }
+
+        release( snapshot.revision );
+    }
+
+
+    private void release( long snapshot )
+    {
+        Integer count = snapshots.get( snapshot );
+
+        if ( count > 1 )
+        {
+            snapshots.put( snapshot, count - 1 );
+
+            return;
+        }
+
+        snapshots.remove( snapshot );
+
+        if ( snapshots.isEmpty() )
+        {
+            versions.clear();
+            revisions.clear();
+
+            return;
+        }
+
+        // The versions replaced at or before the oldest snapshot can't be seen anymore
+        SortedMap<Long, String> reclaimable = revisions.headMap( snapshots.firstKey(), true );
+
+        if ( reclaimable.isEmpty() )
+        {
+            return;
+        }
+
+        long oldest = snapshots.firstKey();
+
+        for ( String id : new HashSet<>( reclaimable.values() ) )
+        {
+            Version version = versions.get( id );
+
+            if ( version.revision <= oldest )
+            {
+                versions.remove( id );
+                continue;
+            }
+
+            // Only the versions still seen by a snapshot are walked through
+            while ( version.older != null )
+            {
+                if ( version.older.revision <= oldest )
+                {
+                    version.older = null;
+                }
+                else
+                {
+                    version = version.older;
+                }
+            }
+        }
+
+        reclaimable.clear();
+    }
+
+
+    /**
+     * @return <tt>true</tt> if some snapshots are opened
+     */
+    public synchronized boolean hasSnapshots()
+    {
+        closeCollectedSnapshots();
+
+        return !snapshots.isEmpty();
+    }
+
+
+    /**
+     * Records a change on an entry. The previous version is kept if a snapshot is opened,
+     * and must be given in this case. The change must be recorded before it's applied
+     * in the master table.
+     *
+     * @param id The entry ID
+     * @param previous The entry before the change, null if it's added
+     */
+    public synchronized void recordChange( String id, Entry previous )
+    {
+        closeCollectedSnapshots();
+        revision++;
+
+        if ( !snapshots.isEmpty() )
+        {
+            versions.put( id, new Version( revision, previous, versions.get( id ) ) );
+            revisions.put( revision, id );
+        }
+    }
+
+
+    /**
+     * Tells if an entry has been changed after a snapshot has been opened.
+     *
+     * @param id The entry ID
+     * @param snapshot The snapshot revision
+     * @return <tt>true</tt> if the entry seen by the snapshot is not the current one
+     */
+    public boolean hasChanged( String id, long snapshot )
+    {
+        Version version = versions.get( id );
+
+        return ( version != null ) && ( version.revision > snapshot );
+    }
+
+
+    /**
+     * Gets an entry as it was when a snapshot has been opened. The entry must have been
+     * changed since then.
+     *
+     * @param id The entry ID
+     * @param snapshot The snapshot revision
+     * @return The entry seen by the snapshot, or null if it did not exist
+     */
+    public Entry get( String id, long snapshot )
+    {
+        Version version = versions.get( id );
+        Entry entry = null;
+
+        // Find the first change done after the snapshot
+        while ( ( version != null ) && ( version.revision > snapshot ) )
+        {
+            entry = version.entry;
+            version = version.older;
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * @return The number of entries having a previous version
+     */
+    public int size()
+    {
+        return versions.size();
+    }
+}
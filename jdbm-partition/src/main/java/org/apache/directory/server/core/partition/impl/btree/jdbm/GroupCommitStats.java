@@ -0,0 +1,178 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+/**
+ * An immutable snapshot of a {@link JdbmGroupCommit} statistics.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class GroupCommitStats
+{
+    /** The number of log synchronizations */
+    private final long groupCount;
+
+    /** The number of commits made durable by the log synchronizations */
+    private final long syncedCount;
+
+    /** The largest number of commits made durable by a single log synchronization */
+    private final long maxGroupSize;
+
+    /** The number of failed log synchronizations */
+    private final long failureCount;
+
+    /** The number of commits which have waited for their changes to be durable */
+    private final long commitCount;
+
+    /** The cumulated latency of these commits, in microseconds */
+    private final long totalLatency;
+
+    /** The highest latency of these commits, in microseconds */
+    private final long maxLatency;
+
+
+    /**
+     * Creates a new instance of GroupCommitStats
+     *
+     * @param groupCount The number of log synchronizations
+     * @param syncedCount The number of commits made durable by the log synchronizations
+     * @param maxGroupSize The largest number of commits made durable by a single log synchronization
+     * @param failureCount The number of failed log synchronizations
+     * @param commitCount The number of commits which have waited for their changes to be durable
+     * @param totalLatency The cumulated latency of these commits, in microseconds
+     * @param maxLatency The highest latency of these commits, in microseconds
+     */
+    public GroupCommitStats( long groupCount, long syncedCount, long maxGroupSize, long failureCount,
+        long commitCount, long totalLatency, long maxLatency )
+    {
+        this.groupCount = groupCount;
+        this.syncedCount = syncedCount;
+        this.maxGroupSize = maxGroupSize;
+        this.failureCount = failureCount;
+        this.commitCount = commitCount;
+        this.totalLatency = totalLatency;
+        this.maxLatency = maxLatency;
+    }
+
+
+    /**
+     * @return The number of log synchronizations
+     */
+    public long getGroupCount()
+    {
+        return groupCount;
+    }
+
+
+    /**
+     * @return The number of commits made durable by the log synchronizations
+     */
+    public long getSyncedCount()
+    {
+        return syncedCount;
+    }
+
+
+    /**
+     * @return The largest number of commits made durable by a single log synchronization
+     */
+    public long getMaxGroupSize()
+    {
+        return maxGroupSize;
+    }
+
+
+    /**
+     * @return The average number of commits made durable by a log synchronization
+     */
+    public double getAverageGroupSize()
+    {
+        if ( groupCount == 0L )
+        {
+            return 0.0d;
+        }
+
+        return ( double ) syncedCount / groupCount;
+    }
+
+
+    /**
+     * @return The number of failed log synchronizations
+     */
+    public long getFailureCount()
+    {
+        return failureCount;
+    }
+
+
+    /**
+     * @return The number of commits which have waited for their changes to be durable
+     */
+    public long getCommitCount()
+    {
+        return commitCount;
+    }
+
+
+    /**
+     * @return The highest latency of a commit, from its start until its changes are durable,
+     * in microseconds
+     */
+    public long getMaxLatency()
+    {
+        return maxLatency;
+    }
+
+
+    /**
+     * @return The average latency of a commit, from its start until its changes are durable,
+     * in microseconds
+     */
+    public double getAverageLatency()
+    {
+        if ( commitCount == 0L )
+        {
+            return 0.0d;
+        }
+
+        return ( double ) totalLatency / commitCount;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "groups: " ).append( groupCount );
+        sb.append( ", synced commits: " ).append( syncedCount );
+        sb.append( ", max group size: " ).append( maxGroupSize );
+        sb.append( ", failures: " ).append( failureCount );
+        sb.append( ", commits: " ).append( commitCount );
+        sb.append( ", average latency: " ).append( getAverageLatency() ).append( "us" );
+        sb.append( ", max latency: " ).append( maxLatency ).append( "us" );
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.EntryCursorAdaptor;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+
+
+/**
+ * A cursor on the entries found by a search done in a read transaction. The search
+ * transaction is closed before the cursor is read, so the cursor keeps the master
+ * table snapshot opened until it is itself closed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmEntryCursor extends EntryCursorAdaptor
+{
+    /** The transaction holding the snapshot */
+    private final JdbmPartitionReadTxn partitionTxn;
+
+    /** Tells if the snapshot has been released */
+    private final AtomicBoolean released = new AtomicBoolean( false );
+
+
+    /**
+     * Creates a new instance of JdbmEntryCursor.
+     *
+     * @param partitionTxn The snapshot transaction used by the search
+     * @param db The partition
+     * @param searchResult The search result
+     */
+    public JdbmEntryCursor( JdbmPartitionReadTxn partitionTxn, AbstractBTreePartition db,
+        PartitionSearchResult searchResult )
+    {
+        super( partitionTxn, db, searchResult );
+        this.partitionTxn = partitionTxn;
+        partitionTxn.retain();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        try
+        {
+            super.close( cause );
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+
+    private void release() throws IOException
+    {
+        if ( released.compareAndSet( false, true ) )
+        {
+            partitionTxn.close();
+        }
+    }
+}
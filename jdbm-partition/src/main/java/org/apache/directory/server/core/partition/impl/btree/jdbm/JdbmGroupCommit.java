@@ -0,0 +1,256 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import jdbm.recman.BaseRecordManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Coalesces the log synchronizations of the concurrent commits of a JDBM partition. Each
+ * commit is registered when the record manager has committed it, then waits until a log
+ * synchronization started after its registration completes. The first waiting commit
+ * synchronizes the log for all the commits registered at that time, after having waited
+ * up to a maximum delay to let the concurrent writers join its group, and the other
+ * ones wait for it.
+ * <br>
+ * The commits must wait once the partition lock has been released, otherwise the writers
+ * can't commit while the log is synchronized, and each group holds a single commit.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmGroupCommit
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( JdbmGroupCommit.class );
+
+    /** The record manager whose log is synchronized */
+    private final BaseRecordManager recordManager;
+
+    /** The maximum time the commits wait for other commits to join their group, in nanoseconds */
+    private final long maxDelay;
+
+    /** The number of the last registered commit */
+    private long lastCommit;
+
+    /** The number of the last commit made durable */
+    private long lastSynced;
+
+    /** The number of the last commit whose log synchronization has failed */
+    private long lastFailed;
+
+    /** The last log synchronization failure */
+    private IOException failure;
+
+    /** Tells if a thread is synchronizing the log */
+    private boolean syncing;
+
+    /** The number of log synchronizations */
+    private long groupCount;
+
+    /** The number of commits made durable by the log synchronizations */
+    private long syncedCount;
+
+    /** The largest number of commits made durable by a single log synchronization */
+    private long maxGroupSize;
+
+    /** The number of failed log synchronizations */
+    private long failureCount;
+
+    /** The number of commits which have waited for their changes to be durable */
+    private long commitCount;
+
+    /** The cumulated latency of these commits, in nanoseconds */
+    private long totalLatency;
+
+    /** The highest latency of these commits, in nanoseconds */
+    private long maxLatency;
+
+
+    /**
+     * Creates a new instance of JdbmGroupCommit.
+     *
+     * @param recordManager The record manager whose log is synchronized
+     * @param maxDelay The maximum time the commits wait for other commits to join their
+     * group, in microseconds. With 0, the commits done while the log is synchronized are
+     * grouped in the next synchronization.
+     */
+    public JdbmGroupCommit( BaseRecordManager recordManager, long maxDelay )
+    {
+        this.recordManager = recordManager;
+        this.maxDelay = TimeUnit.MICROSECONDS.toNanos( Math.max( 0L, maxDelay ) );
+    }
+
+
+    /**
+     * Registers a commit, once the record manager has committed it.
+     *
+     * @return The number of the commit, to give to {@link #await(long, long)}
+     */
+    public synchronized long register()
+    {
+        return ++lastCommit;
+    }
+
+
+    /**
+     * Waits until a registered commit is durable, synchronizing the log if no other
+     * thread is doing it.
+     *
+     * @param commit The number of the commit
+     * @param start The time the commit has started, from {@link System#nanoTime()}
+     * @throws IOException If the log synchronization has failed
+     */
+    public void await( long commit, long start ) throws IOException
+    {
+        while ( !isSynced( commit, start ) )
+        {
+            synchronizeLog();
+        }
+    }
+
+
+    /**
+     * Waits until a commit is durable, or until no thread is synchronizing the log.
+     *
+     * @return <tt>true</tt> if the commit is durable, <tt>false</tt> if the current thread
+     * has to synchronize the log
+     */
+    private synchronized boolean isSynced( long commit, long start ) throws IOException
+    {
+        while ( true )
+        {
+            if ( lastSynced >= commit )
+            {
+                long latency = System.nanoTime() - start;
+                commitCount++;
+                totalLatency += latency;
+                maxLatency = Math.max( maxLatency, latency );
+
+                return true;
+            }
+
+            if ( lastFailed >= commit )
+            {
+                throw new IOException( failure.getMessage(), failure );
+            }
+
+            if ( !syncing )
+            {
+                syncing = true;
+
+                return false;
+            }
+
+            try
+            {
+                wait();
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Interrupted while waiting for the log synchronization" );
+            }
+        }
+    }
+
+
+    /**
+     * Synchronizes the log for all the registered commits.
+     */
+    private void synchronizeLog()
+    {
+        if ( maxDelay > 0L )
+        {
+            // Let the concurrent writers join the group
+            LockSupport.parkNanos( maxDelay );
+        }
+
+        long group = 0L;
+        IOException error = null;
+
+        try
+        {
+            // The record manager methods are synchronized : no commit can be done while
+            // the log is synchronized
+            synchronized ( recordManager )
+            {
+                synchronized ( this )
+                {
+                    group = lastCommit;
+                }
+
+                recordManager.getTransactionManager().synchronizeLog();
+            }
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Failed to synchronize the JDBM log", ioe );
+            error = ioe;
+        }
+        catch ( RuntimeException re )
+        {
+            LOG.error( "Failed to synchronize the JDBM log", re );
+            error = new IOException( re.getMessage(), re );
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                syncing = false;
+
+                if ( error == null )
+                {
+                    long size = group - lastSynced;
+                    groupCount++;
+                    syncedCount += size;
+                    maxGroupSize = Math.max( maxGroupSize, size );
+                    lastSynced = group;
+                }
+                else
+                {
+                    failureCount++;
+                    lastFailed = Math.max( lastFailed, group );
+                    failure = error;
+                }
+
+                notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * @return A snapshot of the group commit statistics
+     */
+    public synchronized GroupCommitStats getStats()
+    {
+        return new GroupCommitStats( groupCount, syncedCount, maxGroupSize, failureCount, commitCount,
+            TimeUnit.NANOSECONDS.toMicros( totalLatency ), TimeUnit.NANOSECONDS.toMicros( maxLatency ) );
+    }
+}
@@ -373,12 +373,19 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
     public synchronized void add( PartitionTxn partitionTxn,  K attrVal, String id ) throws LdapException
     {
         // The pair to be added must exists
+        boolean isNew = ( statistics != null ) && !forward.has( partitionTxn, attrVal, id );
+
         forward.put( partitionTxn, attrVal, id );
 
         if ( withReverse )
         {
             reverse.put( partitionTxn, id, attrVal );
         }
+
+        if ( isNew )
+        {
+            addStatistics( partitionTxn, attrVal );
+        }
     }
 
 
@@ -391,6 +398,7 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         if ( forward.has( partitionTxn, attrVal, id ) )
         {
             forward.remove( partitionTxn, attrVal, id );
+            dropStatistics( partitionTxn, attrVal );
 
             if ( withReverse )
             {
@@ -418,7 +426,14 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
                     while ( values.next() )
                     {
                         // Remove the Key -> entryId from the index
-                        forward.remove( partitionTxn, values.get().getValue(), entryId );
+                        K key = values.get().getValue();
+
+                        if ( ( statistics != null ) && forward.has( partitionTxn, key, entryId ) )
+                        {
+                            dropStatistics( partitionTxn, key );
+                        }
+
+                        forward.remove( partitionTxn, key, entryId );
                     }
     
                     values.close();
@@ -432,6 +447,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
             {
                 K key = reverse.get( partitionTxn, entryId );
 
+                if ( ( statistics != null ) && ( key != null ) && forward.has( partitionTxn, key, entryId ) )
+                {
+                    dropStatistics( partitionTxn, key );
+                }
+
                 forward.remove( partitionTxn, key );
             }
 
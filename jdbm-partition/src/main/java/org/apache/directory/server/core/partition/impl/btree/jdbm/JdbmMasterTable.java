@@ -27,8 +27,10 @@ import jdbm.RecordManager;
 import jdbm.helper.Serializer;
 
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.xdbm.MasterTable;
 
 
@@ -39,6 +41,10 @@ import org.apache.directory.server.xdbm.MasterTable;
  */
 public class JdbmMasterTable extends JdbmTable<String, Entry> implements MasterTable
 {
+    /** The previous versions of the entries, seen by the read transactions */
+    private EntryVersions entryVersions;
+
+
     /**
      * Creates the master table using JDBM B+Trees for the backing store.
      *
@@ -55,6 +61,24 @@ public class JdbmMasterTable extends JdbmTable<String, Entry> implements MasterT
     }
 
 
+    /**
+     * Creates the master table using JDBM B+Trees for the backing store, keeping the
+     * previous versions of the entries for the snapshot read transactions.
+     *
+     * @param recMan the JDBM record manager
+     * @param schemaManager the schema manager
+     * @param entryVersions the previous versions of the entries
+     * @throws IOException if there is an error opening the Db file.
+     */
+    public JdbmMasterTable( RecordManager recMan, SchemaManager schemaManager, EntryVersions entryVersions )
+        throws IOException
+    {
+        this( recMan, schemaManager );
+
+        this.entryVersions = entryVersions;
+    }
+
+
     protected JdbmMasterTable( RecordManager recMan, SchemaManager schemaManager, String dbName, Serializer serializer )
         throws Exception
     {
@@ -74,4 +98,79 @@ public class JdbmMasterTable extends JdbmTable<String, Entry> implements MasterT
     {
         return UUID.randomUUID().toString();
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry get( PartitionTxn transaction, String key ) throws LdapException
+    {
+        if ( ( entryVersions != null ) && ( transaction instanceof JdbmPartitionReadTxn ) )
+        {
+            long revision = ( ( JdbmPartitionReadTxn ) transaction ).getRevision();
+
+            if ( entryVersions.hasChanged( key, revision ) )
+            {
+                return entryVersions.get( key, revision );
+            }
+        }
+
+        return super.get( transaction, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void put( PartitionTxn transaction, String key, Entry value ) throws LdapException
+    {
+        recordChange( transaction, key );
+
+        super.put( transaction, key, value );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void remove( PartitionTxn transaction, String key ) throws LdapException
+    {
+        recordChange( transaction, key );
+
+        super.remove( transaction, key );
+    }
+
+
+    /**
+     * Keeps the current version of an entry before it's changed, if some read transactions
+     * may still need it.
+     */
+    private void recordChange( PartitionTxn transaction, String key ) throws LdapException
+    {
+        if ( entryVersions == null )
+        {
+            return;
+        }
+
+        synchronized ( entryVersions )
+        {
+            Entry previous = null;
+
+            if ( entryVersions.hasSnapshots() )
+            {
+                previous = super.get( transaction, key );
+
+                if ( previous != null )
+                {
+                    // The stored entry may be modified in place by the partition
+                    previous = previous.clone();
+                }
+            }
+
+            entryVersions.recordChange( key, previous );
+        }
+    }
 }
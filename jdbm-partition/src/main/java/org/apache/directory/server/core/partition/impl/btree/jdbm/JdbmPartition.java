@@ -28,14 +28,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import jdbm.RecordManager;
 import jdbm.helper.MRU;
 import jdbm.recman.BaseRecordManager;
 import jdbm.recman.CacheRecordManager;
 import jdbm.recman.TransactionManager;
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.Element;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
@@ -73,6 +76,9 @@ import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartit
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.cache.PartitionCache;
+import org.apache.directory.server.xdbm.cache.Weighers;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
@@ -109,7 +115,22 @@ public class JdbmPartition extends AbstractBTreePartition
     private RecordManager recMan;
 
     /** the entry cache */
-    private Cache entryCache;
+    private PartitionCache<String, Entry> entryCache;
+
+    /** The previous versions of the entries, for the snapshot read transactions */
+    private final EntryVersions entryVersions = new EntryVersions();
+
+    /** The default maximum time a commit waits for other commits to join its log synchronization, in microseconds */
+    public static final long DEFAULT_GROUP_COMMIT_MAX_DELAY = 1000L;
+
+    /** Tells if the log synchronizations of the concurrent commits are grouped when syncOnWrite is set */
+    private boolean groupCommitEnabled = false;
+
+    /** The maximum time a commit waits for other commits to join its log synchronization, in microseconds */
+    private long groupCommitMaxDelay = DEFAULT_GROUP_COMMIT_MAX_DELAY;
+
+    /** The group commit, null if disabled */
+    private JdbmGroupCommit groupCommit;
 
 
     /**
@@ -441,6 +462,13 @@ public class JdbmPartition extends AbstractBTreePartition
                 LOG.info( "Setting CacheRecondManager's cache size to {}", recCacheSize );
                 
                 recMan = new CacheRecordManager( base, new MRU( recCacheSize ) );
+
+                if ( groupCommitEnabled && isSyncOnWrite() )
+                {
+                    LOG.info( "Grouping the log synchronizations of the {} partition, with a maximum delay of {}us",
+                        id, groupCommitMaxDelay );
+                    groupCommit = new JdbmGroupCommit( base, groupCommitMaxDelay );
+                }
             }
             catch ( IOException ioe )
             {
@@ -522,7 +550,7 @@ public class JdbmPartition extends AbstractBTreePartition
             // Create the master table (the table containing all the entries)
             try
             {
-                master = new JdbmMasterTable( recMan, schemaManager );
+                master = new JdbmMasterTable( recMan, schemaManager, entryVersions );
             }
             catch ( IOException ioe )
             {
@@ -534,17 +562,10 @@ public class JdbmPartition extends AbstractBTreePartition
                 buildUserIndex( beginReadTransaction(), indexToBuild );
             }
 
-            if ( cacheService != null )
-            {
-                entryCache = cacheService.getCache( getId() );
-
-                int cacheSizeConfig = ( int ) entryCache.getCacheConfiguration().getMaxEntriesLocalHeap();
+            // Load or compute the indexes statistics
+            initStatistics();
 
-                if ( cacheSizeConfig < cacheSize )
-                {
-                    entryCache.getCacheConfiguration().setMaxEntriesLocalHeap( cacheSize );
-                }
-            }
+            entryCache = createCache( "entry", getCacheMaxWeight(), Weighers.entryWeigher() );
 
             // Initialization of the context entry
             if ( ( suffixDn != null ) && ( contextEntry != null ) )
@@ -650,6 +671,67 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * @return <tt>true</tt> if the log synchronizations of the concurrent commits are grouped
+     * when syncOnWrite is set
+     */
+    public boolean isGroupCommitEnabled()
+    {
+        return groupCommitEnabled;
+    }
+
+
+    /**
+     * Tells if the log synchronizations of the concurrent commits are grouped when syncOnWrite
+     * is set. Each commit still waits until its changes are flushed on disk, but a single 
+     * synchronization flushes the changes of all the commits waiting at the same time.
+     *
+     * @param groupCommitEnabled <tt>true</tt> to group the log synchronizations
+     */
+    public void setGroupCommitEnabled( boolean groupCommitEnabled )
+    {
+        checkInitialized( "groupCommitEnabled" );
+        this.groupCommitEnabled = groupCommitEnabled;
+    }
+
+
+    /**
+     * @return The maximum time a commit waits for other commits to join its log
+     * synchronization, in microseconds
+     */
+    public long getGroupCommitMaxDelay()
+    {
+        return groupCommitMaxDelay;
+    }
+
+
+    /**
+     * Sets the maximum time a commit waits for other commits to join its log synchronization.
+     * A longer delay groups more commits, at the expense of the latency of each one.
+     *
+     * @param groupCommitMaxDelay The maximum delay, in microseconds
+     */
+    public void setGroupCommitMaxDelay( long groupCommitMaxDelay )
+    {
+        checkInitialized( "groupCommitMaxDelay" );
+        this.groupCommitMaxDelay = groupCommitMaxDelay;
+    }
+
+
+    /**
+     * @return The statistics of the grouped log synchronizations, or null if they are not grouped
+     */
+    public GroupCommitStats getGroupCommitStats()
+    {
+        if ( groupCommit == null )
+        {
+            return null;
+        }
+
+        return groupCommit.getStats();
+    }
+
+
     /**
      * {@inheritDoc}}
      */
@@ -709,7 +791,8 @@ public class JdbmPartition extends AbstractBTreePartition
 
 
     /**
-     * Builds user defined indexes on a attributes by browsing all the entries present in master db
+     * Builds user defined indexes on a attributes by browsing all the entries present in master db.
+     * Each index is built by its own thread, browsing the master table with its own cursor.
      * 
      * Note: if the given list of indices contains any system index that will be skipped.
      * 
@@ -718,46 +801,116 @@ public class JdbmPartition extends AbstractBTreePartition
      * @param indices then selected indexes that need to be built
      * @throws Exception in case of any problems while building the index
      */
-    private void buildUserIndex( PartitionTxn partitionTxn, List<Index<?, String>> indices ) throws LdapException
+    private void buildUserIndex( final PartitionTxn partitionTxn, List<Index<?, String>> indices ) throws LdapException
     {
+        List<Index<?, String>> userIndices = new ArrayList<>();
+
+        for ( Index<?, String> index : indices )
+        {
+            if ( systemIndices.get( index.getAttribute().getOid() ) == null )
+            {
+                userIndices.add( index );
+            }
+        }
+
+        if ( userIndices.isEmpty() )
+        {
+            return;
+        }
+
+        if ( userIndices.size() == 1 )
+        {
+            buildUserIndex( partitionTxn, userIndices.get( 0 ) );
+
+            return;
+        }
+
+        int nbThreads = Math.min( userIndices.size(), Runtime.getRuntime().availableProcessors() );
+        ExecutorService executor = Executors.newFixedThreadPool( nbThreads );
+        List<Future<Void>> futures = new ArrayList<>();
+
         try
         {
-            Cursor<Tuple<String, Entry>> cursor = master.cursor();
-            cursor.beforeFirst();
-    
-            while ( cursor.next() )
+            for ( final Index<?, String> index : userIndices )
             {
-                for ( Index index : indices )
+                futures.add( executor.submit( new Callable<Void>()
                 {
-                    AttributeType atType = index.getAttribute();
-    
-                    String attributeOid = index.getAttribute().getOid();
-    
-                    if ( systemIndices.get( attributeOid ) != null )
+                    @Override
+                    public Void call() throws Exception
                     {
-                        // skipping building of the system index
-                        continue;
+                        buildUserIndex( partitionTxn, index );
+
+                        return null;
                     }
-                    
-                    LOG.info( "building the index for attribute type {}", atType );
+                } ) );
+            }
+
+            for ( Future<Void> future : futures )
+            {
+                future.get();
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+
+            throw new LdapOtherException( ie.getMessage(), ie );
+        }
+        catch ( ExecutionException ee )
+        {
+            Throwable cause = ee.getCause();
+
+            if ( cause instanceof LdapException )
+            {
+                throw ( LdapException ) cause;
+            }
+
+            throw new LdapOtherException( cause.getMessage(), cause );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Builds a user defined index by browsing all the entries present in master db.
+     * This method can be called concurrently for distinct indexes.
+     *
+     * @param index the index to build
+     * @throws Exception in case of any problems while building the index
+     */
+    private void buildUserIndex( PartitionTxn partitionTxn, Index index ) throws LdapException
+    {
+        AttributeType atType = index.getAttribute();
+        String attributeOid = atType.getOid();
+
+        LOG.info( "building the index for attribute type {}", atType );
+
+        try
+        {
+            Cursor<Tuple<String, Entry>> cursor = master.cursor();
+            cursor.beforeFirst();
     
-                    Tuple<String, Entry> tuple = cursor.get();
+            while ( cursor.next() )
+            {
+                Tuple<String, Entry> tuple = cursor.get();
     
-                    String id = tuple.getKey();
-                    Entry entry = tuple.getValue();
+                String id = tuple.getKey();
+                Entry entry = tuple.getValue();
     
-                    Attribute entryAttr = entry.get( atType );
+                Attribute entryAttr = entry.get( atType );
     
-                    if ( entryAttr != null )
+                if ( entryAttr != null )
+                {
+                    for ( Value value : entryAttr )
                     {
-                        for ( Value value : entryAttr )
-                        {
-                            index.add( partitionTxn, value.getValue(), id );
-                        }
-    
-                        // Adds only those attributes that are indexed
-                        presenceIdx.add( partitionTxn, attributeOid, id );
+                        index.add( partitionTxn, value.getValue(), id );
                     }
+    
+                    // Adds only those attributes that are indexed
+                    presenceIdx.add( partitionTxn, attributeOid, id );
                 }
             }
     
@@ -885,7 +1038,7 @@ public class JdbmPartition extends AbstractBTreePartition
         {
             if ( entryCache != null )
             {
-                entryCache.removeAll();
+                entryCache.clear();
             }
         }
 
@@ -952,14 +1105,14 @@ public class JdbmPartition extends AbstractBTreePartition
                     entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
                 }
 
-                entryCache.replace( new Element( id, entry ) );
+                entryCache.replace( id, entry );
             }
             else if ( ( opCtx instanceof MoveOperationContext )
                 || ( opCtx instanceof MoveAndRenameOperationContext )
                 || ( opCtx instanceof RenameOperationContext ) )
             {
                 // clear the cache it is not worth updating all the children
-                entryCache.removeAll();
+                entryCache.clear();
             }
             else if ( opCtx instanceof DeleteOperationContext )
             {
@@ -975,22 +1128,87 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <br>
+     * When the transaction is a read transaction, the entry is returned as it was when
+     * the transaction started. Only the master table is versioned, the index content
+     * used to find the entry is the current one.
+     */
     @Override
-    public Entry lookupCache( String id )
+    public Entry fetch( PartitionTxn partitionTxn, String id, Dn dn ) throws LdapException
     {
-        if ( entryCache == null )
+        if ( !( partitionTxn instanceof JdbmPartitionReadTxn ) )
+        {
+            return super.fetch( partitionTxn, id, dn );
+        }
+
+        long revision = ( ( JdbmPartitionReadTxn ) partitionTxn ).getRevision();
+
+        if ( !entryVersions.hasChanged( id, revision ) )
+        {
+            Entry entry = super.fetch( partitionTxn, id, dn );
+
+            if ( !entryVersions.hasChanged( id, revision ) )
+            {
+                return entry;
+            }
+
+            // The entry has been modified while we were reading it : the version
+            // added in the cache may be the previous one
+            if ( entryCache != null )
+            {
+                entryCache.remove( id );
+            }
+        }
+
+        // The previous versions are never cached
+        Entry version = entryVersions.get( id, revision );
+
+        if ( version == null )
         {
             return null;
         }
 
-        Element el = entryCache.get( id );
+        Entry entry = version.clone();
+        entry.setDn( dn );
+        entry = new ClonedServerEntry( entry );
 
-        if ( el != null )
+        if ( !entry.containsAttribute( entryDnAT ) )
         {
-            return ( Entry ) el.getObjectValue();
+            entry.add( entryDnAT, dn.getName() );
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The cursor keeps the snapshot of the transaction opened until it's closed.
+     */
+    @Override
+    protected Cursor<Entry> createEntryCursor( PartitionTxn partitionTxn, PartitionSearchResult searchResult )
+    {
+        if ( partitionTxn instanceof JdbmPartitionReadTxn )
+        {
+            return new JdbmEntryCursor( ( JdbmPartitionReadTxn ) partitionTxn, this, searchResult );
+        }
+
+        return super.createEntryCursor( partitionTxn, searchResult );
+    }
+
+
+    @Override
+    public Entry lookupCache( String id )
+    {
+        if ( entryCache == null )
+        {
+            return null;
         }
 
-        return null;
+        return entryCache.get( id );
     }
 
 
@@ -1009,20 +1227,20 @@ public class JdbmPartition extends AbstractBTreePartition
             addedEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
         }
 
-        entryCache.put( new Element( id, addedEntry ) );
+        entryCache.put( id, addedEntry );
     }
 
 
     @Override
     public PartitionReadTxn beginReadTransaction()
     {
-        return new PartitionReadTxn();
+        return new JdbmPartitionReadTxn( entryVersions );
     }
 
 
     @Override
     public PartitionWriteTxn beginWriteTransaction()
     {
-        return new JdbmPartitionWriteTxn( recMan, isSyncOnWrite() );
+        return new JdbmPartitionWriteTxn( recMan, isSyncOnWrite(), groupCommit );
     }
 }
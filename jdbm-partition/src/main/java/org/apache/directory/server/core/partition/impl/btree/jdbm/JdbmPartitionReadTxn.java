@@ -0,0 +1,100 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+
+/**
+ * The JDBM partition read transaction. It opens a snapshot of the master table : the entries
+ * fetched through this transaction are the ones which existed when it started, even if they
+ * have been modified since then. The indexes are not versioned, they are read as they are,
+ * see {@link EntryVersions}. The snapshot is kept until the transaction and all the
+ * cursors created with it are closed, or until it is garbage collected.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmPartitionReadTxn extends PartitionReadTxn
+{
+    /** The previous versions of the entries */
+    private final EntryVersions entryVersions;
+
+    /** The snapshot */
+    private final EntryVersions.Snapshot snapshot;
+
+    /** The number of users of this snapshot : the transaction itself, and its cursors */
+    private final AtomicInteger users = new AtomicInteger( 1 );
+
+
+    /**
+     * Create an instance of JdbmPartitionReadTxn
+     *
+     * @param entryVersions The previous versions of the partition entries
+     */
+    public JdbmPartitionReadTxn( EntryVersions entryVersions )
+    {
+        this.entryVersions = entryVersions;
+        snapshot = entryVersions.openSnapshot( this );
+    }
+
+
+    /**
+     * @return The snapshot revision
+     */
+    public long getRevision()
+    {
+        return snapshot.getRevision();
+    }
+
+
+    /**
+     * Keeps the snapshot opened until {@link #close()} is called one more time. This
+     * is used by the cursors, which are read after the transaction is closed.
+     */
+    public void retain()
+    {
+        users.incrementAndGet();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isClosed()
+    {
+        return users.get() <= 0;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( users.decrementAndGet() == 0 )
+        {
+            entryVersions.closeSnapshot( snapshot );
+        }
+    }
+}
@@ -39,6 +39,18 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     
     /** A flag used to flush data immediately or not */
     private boolean syncOnWrite = false;
+
+    /** The group commit used to flush the data, null if the commits flush the data themselves */
+    private JdbmGroupCommit groupCommit;
+
+    /** Tells if the next commit can return before the data are flushed */
+    private boolean deferSync = false;
+
+    /** The number of the commit waiting for its data to be flushed, 0 if none */
+    private long pendingCommit;
+
+    /** The time the pending commit has started */
+    private long pendingStart;
     
     /**
      * Create an instance of JdbmPartitionWriteTxn
@@ -47,9 +59,24 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
      * @param syncOnWrite If we want to data to be flushed on each write
      */
     public JdbmPartitionWriteTxn( RecordManager recordManager, boolean syncOnWrite )
+    {
+        this( recordManager, syncOnWrite, null );
+    }
+
+
+    /**
+     * Create an instance of JdbmPartitionWriteTxn
+     * 
+     * @param recordManager The RecordManager instance
+     * @param syncOnWrite If we want to data to be flushed on each write
+     * @param groupCommit The group commit flushing the data of the concurrent commits at once, 
+     * or null if each commit flushes its own data
+     */
+    public JdbmPartitionWriteTxn( RecordManager recordManager, boolean syncOnWrite, JdbmGroupCommit groupCommit )
     {
         this.recordManager = recordManager;
         this.syncOnWrite = syncOnWrite;
+        this.groupCommit = groupCommit;
     }
     
     
@@ -59,7 +86,28 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     @Override
     public void commit() throws IOException
     {
+        long start = System.nanoTime();
         recordManager.commit();
+        runCommitActions();
+
+        if ( syncOnWrite && ( groupCommit != null ) )
+        {
+            long commit = groupCommit.register();
+
+            if ( deferSync )
+            {
+                // The data will be flushed when awaitSync() is called
+                deferSync = false;
+                pendingCommit = commit;
+                pendingStart = start;
+            }
+            else
+            {
+                groupCommit.await( commit, start );
+            }
+
+            return;
+        }
         
         // And flush the journal
         BaseRecordManager baseRecordManager = null;
@@ -81,12 +129,39 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void deferSync()
+    {
+        deferSync = groupCommit != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void awaitSync() throws IOException
+    {
+        if ( pendingCommit != 0L )
+        {
+            long commit = pendingCommit;
+            pendingCommit = 0L;
+            groupCommit.await( commit, pendingStart );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void abort() throws IOException
     {
+        deferSync = false;
+        discardCommitActions();
         recordManager.rollback();
     }
 
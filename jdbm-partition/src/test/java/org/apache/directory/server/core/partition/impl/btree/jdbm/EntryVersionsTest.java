@@ -0,0 +1,154 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.junit.Test;
+
+
+/**
+ * Unit test cases for the entry versions kept for the snapshot read transactions.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryVersionsTest
+{
+    @Test
+    public void testNoSnapshot() throws Exception
+    {
+        EntryVersions versions = new EntryVersions();
+
+        versions.recordChange( "1", null );
+        versions.recordChange( "1", new DefaultEntry( "cn=test" ) );
+
+        assertFalse( versions.hasSnapshots() );
+        assertEquals( 0, versions.size() );
+    }
+
+
+    @Test
+    public void testSnapshotSeesPreviousVersion() throws Exception
+    {
+        EntryVersions versions = new EntryVersions();
+        Entry first = new DefaultEntry( "cn=first" );
+        Entry second = new DefaultEntry( "cn=second" );
+
+        JdbmPartitionReadTxn oldest = new JdbmPartitionReadTxn( versions );
+        versions.recordChange( "1", first );
+
+        JdbmPartitionReadTxn newest = new JdbmPartitionReadTxn( versions );
+        versions.recordChange( "1", second );
+
+        assertTrue( versions.hasChanged( "1", oldest.getRevision() ) );
+        assertSame( first, versions.get( "1", oldest.getRevision() ) );
+        assertSame( second, versions.get( "1", newest.getRevision() ) );
+        assertFalse( versions.hasChanged( "2", oldest.getRevision() ) );
+
+        // A new snapshot sees the current version
+        JdbmPartitionReadTxn current = new JdbmPartitionReadTxn( versions );
+        assertFalse( versions.hasChanged( "1", current.getRevision() ) );
+        current.close();
+
+        oldest.close();
+        assertEquals( 1, versions.size() );
+        assertSame( second, versions.get( "1", newest.getRevision() ) );
+
+        newest.close();
+        assertFalse( versions.hasSnapshots() );
+        assertEquals( 0, versions.size() );
+    }
+
+
+    @Test
+    public void testReleaseOnlyReclaimableVersions() throws Exception
+    {
+        EntryVersions versions = new EntryVersions();
+        Entry first = new DefaultEntry( "cn=first" );
+        Entry other = new DefaultEntry( "cn=other" );
+        Entry second = new DefaultEntry( "cn=second" );
+
+        JdbmPartitionReadTxn oldest = new JdbmPartitionReadTxn( versions );
+        versions.recordChange( "1", first );
+        versions.recordChange( "2", other );
+
+        JdbmPartitionReadTxn newest = new JdbmPartitionReadTxn( versions );
+        versions.recordChange( "1", second );
+        assertEquals( 2, versions.size() );
+
+        // Closing a snapshot which isn't the oldest one releases nothing
+        JdbmPartitionReadTxn current = new JdbmPartitionReadTxn( versions );
+        current.close();
+        assertEquals( 2, versions.size() );
+
+        // The changes done before the newest snapshot are not seen anymore
+        oldest.close();
+        assertEquals( 1, versions.size() );
+        assertFalse( versions.hasChanged( "2", newest.getRevision() ) );
+        assertSame( second, versions.get( "1", newest.getRevision() ) );
+
+        newest.close();
+        assertEquals( 0, versions.size() );
+    }
+
+
+    @Test
+    public void testAddedEntry() throws Exception
+    {
+        EntryVersions versions = new EntryVersions();
+
+        JdbmPartitionReadTxn txn = new JdbmPartitionReadTxn( versions );
+        versions.recordChange( "1", null );
+
+        // The entry did not exist when the snapshot was opened
+        assertTrue( versions.hasChanged( "1", txn.getRevision() ) );
+        assertNull( versions.get( "1", txn.getRevision() ) );
+
+        txn.close();
+        assertEquals( 0, versions.size() );
+    }
+
+
+    @Test
+    public void testRetainedSnapshot() throws Exception
+    {
+        EntryVersions versions = new EntryVersions();
+
+        JdbmPartitionReadTxn txn = new JdbmPartitionReadTxn( versions );
+        txn.retain();
+        versions.recordChange( "1", new DefaultEntry( "cn=test" ) );
+
+        // The transaction is closed, but a cursor still uses it
+        txn.close();
+        assertFalse( txn.isClosed() );
+        assertEquals( 1, versions.size() );
+
+        txn.close();
+        assertTrue( txn.isClosed() );
+        assertEquals( 0, versions.size() );
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jdbm.recman.BaseRecordManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Unit test cases for the grouped log synchronizations of the JDBM commits.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmGroupCommitTest
+{
+    private static final String TEST_OUTPUT_PATH = "test.output.path";
+
+    File dbFile;
+    BaseRecordManager recman;
+
+
+    @Before
+    public void createRecordManager() throws Exception
+    {
+        File tmpDir = null;
+
+        if ( System.getProperty( TEST_OUTPUT_PATH, null ) != null )
+        {
+            tmpDir = new File( System.getProperty( TEST_OUTPUT_PATH ) );
+        }
+
+        dbFile = File.createTempFile( getClass().getSimpleName(), "db", tmpDir );
+        recman = new BaseRecordManager( dbFile.getAbsolutePath() );
+    }
+
+
+    @After
+    public void destroyRecordManager() throws Exception
+    {
+        recman.close();
+        recman = null;
+        dbFile.deleteOnExit();
+        // Remove temporary files
+        String fileToDelete = dbFile.getAbsolutePath();
+        new File( fileToDelete ).delete();
+        new File( fileToDelete + ".db" ).delete();
+        new File( fileToDelete + ".lg" ).delete();
+
+        dbFile = null;
+    }
+
+
+    @Test
+    public void testSequentialCommits() throws Exception
+    {
+        JdbmGroupCommit groupCommit = new JdbmGroupCommit( recman, 0L );
+
+        for ( int i = 0; i < 3; i++ )
+        {
+            long start = System.nanoTime();
+            recman.insert( "value" + i );
+            recman.commit();
+            groupCommit.await( groupCommit.register(), start );
+        }
+
+        GroupCommitStats stats = groupCommit.getStats();
+        assertEquals( 3L, stats.getCommitCount() );
+        assertEquals( 3L, stats.getGroupCount() );
+        assertEquals( 3L, stats.getSyncedCount() );
+        assertEquals( 1L, stats.getMaxGroupSize() );
+        assertEquals( 0L, stats.getFailureCount() );
+    }
+
+
+    @Test
+    public void testConcurrentCommits() throws Exception
+    {
+        final JdbmGroupCommit groupCommit = new JdbmGroupCommit( recman, 2000L );
+        final Object partitionLock = new Object();
+        int nbWriters = 8;
+        int nbCommits = 20;
+        ExecutorService executor = Executors.newFixedThreadPool( nbWriters );
+        List<Future<Void>> futures = new ArrayList<>();
+
+        try
+        {
+            for ( int i = 0; i < nbWriters * nbCommits; i++ )
+            {
+                final String value = "value" + i;
+
+                futures.add( executor.submit( new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        long start = System.nanoTime();
+                        long commit;
+
+                        synchronized ( partitionLock )
+                        {
+                            recman.insert( value );
+                            recman.commit();
+                            commit = groupCommit.register();
+                        }
+
+                        // The other writers can commit while we wait
+                        groupCommit.await( commit, start );
+
+                        return null;
+                    }
+                } ) );
+            }
+
+            for ( Future<Void> future : futures )
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        GroupCommitStats stats = groupCommit.getStats();
+        assertEquals( nbWriters * nbCommits, stats.getCommitCount() );
+        assertEquals( nbWriters * nbCommits, stats.getSyncedCount() );
+        assertTrue( stats.getGroupCount() <= stats.getSyncedCount() );
+        assertTrue( stats.getAverageGroupSize() >= 1.0d );
+        assertEquals( 0L, stats.getFailureCount() );
+    }
+}
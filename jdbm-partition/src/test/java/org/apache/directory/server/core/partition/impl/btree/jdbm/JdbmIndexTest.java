@@ -46,6 +46,7 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.MockPartitionReadTxn;
+import org.apache.directory.server.xdbm.stats.IndexStatistics;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -555,4 +556,32 @@ public class JdbmIndexTest
         jdbmIndex.init( recMan, schemaManager, schemaManager.lookupAttributeTypeRegistry( SchemaConstants.CREATORS_NAME_AT ) );
         jdbmIndex.close( partitionTxn );
     }
+
+
+    @Test
+    public void testStatisticsUpdatedOnCommit() throws Exception
+    {
+        initIndex();
+        IndexStatistics statistics = new IndexStatistics( idx.getAttribute().getOid() );
+        ( ( JdbmIndex<String> ) idx ).setStatistics( statistics );
+        JdbmPartitionWriteTxn writeTxn = new JdbmPartitionWriteTxn( recMan, false );
+
+        idx.add( writeTxn, "foo", Strings.getUUID( 1L ) );
+        assertEquals( 0L, statistics.getCount() );
+        writeTxn.commit();
+        assertEquals( 1L, statistics.getCount() );
+
+        // Dropping a tuple which does not exist does not change the statistics
+        idx.drop( writeTxn, "bar", Strings.getUUID( 1L ) );
+        idx.drop( writeTxn, Strings.getUUID( 2L ) );
+        writeTxn.commit();
+        assertEquals( 1L, statistics.getCount() );
+
+        // The changes of an aborted transaction are discarded
+        idx.add( writeTxn, "bar", Strings.getUUID( 2L ) );
+        idx.drop( writeTxn, "foo", Strings.getUUID( 1L ) );
+        writeTxn.abort();
+        assertEquals( 1L, statistics.getCount() );
+        assertEquals( 1L, statistics.estimateEquality( "foo" ) );
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.kdc;
+
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import net.sf.ehcache.Cache;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.ApplyLdifFiles;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.kerberos.KeyDerivationInterceptor;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.apache.directory.shared.kerberos.components.EncryptionKey;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests that the principals cached by the DirectoryPrincipalStore are not served
+ * anymore once their entry has been modified.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "DirectoryPrincipalStoreIT-class",
+    partitions =
+        {
+            @CreatePartition(
+                name = "example",
+                suffix = "dc=example,dc=com")
+    },
+    additionalInterceptors =
+        {
+            KeyDerivationInterceptor.class
+    })
+@ApplyLdifFiles("org/apache/directory/server/kerberos/kdc/KerberosIT.ldif")
+public class DirectoryPrincipalStoreITest extends AbstractKerberosITest
+{
+    private static final String PRINCIPAL_DN = "uid=" + USER_UID + "," + USERS_DN;
+
+    private static final KerberosPrincipal PRINCIPAL = new KerberosPrincipal( USER_UID + "@" + REALM );
+
+    private DirectoryPrincipalStore store;
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        Entry entry = new DefaultEntry( PRINCIPAL_DN,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: inetOrgPerson",
+            "objectClass: krb5principal",
+            "objectClass: krb5kdcentry",
+            "cn: First Last",
+            "sn: Last",
+            "uid", USER_UID,
+            "userPassword", USER_PASSWORD,
+            "krb5PrincipalName", PRINCIPAL.getName(),
+            "krb5KeyVersionNumber: 0" );
+        conn.add( entry );
+
+        Cache principalCache = service.getCacheService().getCache( "kdcPrincipalCache" );
+        store = new DirectoryPrincipalStore( service, new Dn( USERS_DN ), principalCache );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        store.destroy();
+        conn.delete( PRINCIPAL_DN );
+    }
+
+
+    /**
+     * A modified key must be read again from the directory
+     */
+    @Test
+    public void testModifiedKeyIsNotCached() throws Exception
+    {
+        PrincipalStoreEntry principal = store.getPrincipal( PRINCIPAL );
+        assertNotNull( principal );
+
+        // The second request is served from the cache
+        assertSame( principal, store.getPrincipal( PRINCIPAL ) );
+
+        // Changing the password derives new keys
+        conn.modify( PRINCIPAL_DN,
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "userPassword", "newsecret" ) );
+
+        PrincipalStoreEntry modified = store.getPrincipal( PRINCIPAL );
+        assertNotSame( principal, modified );
+
+        Map<EncryptionType, EncryptionKey> keys = principal.getKeyMap();
+        Map<EncryptionType, EncryptionKey> newKeys = modified.getKeyMap();
+        assertFalse( keys.isEmpty() );
+
+        for ( Map.Entry<EncryptionType, EncryptionKey> key : keys.entrySet() )
+        {
+            assertNotNull( newKeys.get( key.getKey() ) );
+            assertFalse( Arrays.equals( key.getValue().getKeyValue(), newKeys.get( key.getKey() ).getKeyValue() ) );
+        }
+    }
+
+
+    /**
+     * A disabled principal must not be served from the cache as enabled
+     */
+    @Test
+    public void testDisabledPrincipalIsNotCached() throws Exception
+    {
+        PrincipalStoreEntry principal = store.getPrincipal( PRINCIPAL );
+        assertFalse( principal.isDisabled() );
+        assertSame( principal, store.getPrincipal( PRINCIPAL ) );
+
+        conn.modify( PRINCIPAL_DN,
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "krb5AccountDisabled", "TRUE" ) );
+
+        assertTrue( store.getPrincipal( PRINCIPAL ).isDisabled() );
+
+        conn.modify( PRINCIPAL_DN,
+            new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE, "krb5AccountDisabled" ) );
+
+        assertFalse( store.getPrincipal( PRINCIPAL ).isDisabled() );
+    }
+}
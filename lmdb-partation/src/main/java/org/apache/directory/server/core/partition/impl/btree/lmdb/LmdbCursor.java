@@ -0,0 +1,572 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.SeekOp;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Cursor over the Tuples of an LMDB table, or over the tuples of a given key. When the
+ * table allows duplicates, the before() and after() positioning consider the key and the
+ * value of the Tuple arguments, a null value standing for the first or the last value of
+ * the key.
+ * <br>
+ * When the browsed key has been truncated, the tuples of the other keys sharing the same
+ * truncated bytes are skipped.
+ * <br>
+ * The cursor keeps the LMDB transaction it reads with until it's closed : a read partition
+ * transaction is retained, otherwise the write transaction of the thread is used, or a new
+ * read transaction is started.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class LmdbCursor<K, V> extends AbstractCursor<Tuple<K, V>>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The cursor positions */
+    private enum Position
+    {
+        BEFORE_FIRST,
+        AFTER_LAST,
+        /** The LMDB cursor is on the element next() will return */
+        BEFORE_ELEMENT,
+        ON
+    }
+
+    /** The browsed table */
+    private final LmdbTable<K, V> table;
+
+    /** The partition transaction the cursor has been created with */
+    private final PartitionTxn partitionTxn;
+
+    /** The prefix of the browsed tuples, null to browse the whole table */
+    private final byte[] prefix;
+
+    /** The first LMDB key after the browsed tuples, null to browse the whole table */
+    private final byte[] end;
+
+    /** The serialized browsed key when it has been truncated, null otherwise */
+    private final byte[] keyBytes;
+
+    /** The LMDB transaction, null until the cursor is used */
+    private Txn<ByteBuffer> txn;
+
+    /** The retained read transaction, if any */
+    private LmdbPartitionReadTxn retainedTxn;
+
+    /** Tells if the LMDB transaction has been started by this cursor */
+    private boolean ownTxn;
+
+    /** The LMDB cursor */
+    private org.lmdbjava.Cursor<ByteBuffer> cursor;
+
+    /** The current position */
+    private Position position = Position.BEFORE_FIRST;
+
+    /** The current tuple */
+    private Tuple<K, V> tuple;
+
+
+    /**
+     * Creates a Cursor over the tuples of an LMDB table.
+     *
+     * @param table the LMDB Table to build a Cursor over
+     * @param partitionTxn The transaction to use, may be null
+     * @param prefix The prefix of the LMDB keys of the browsed key, null to browse the whole table
+     */
+    LmdbCursor( LmdbTable<K, V> table, PartitionTxn partitionTxn, byte[] prefix )
+    {
+        this( table, partitionTxn, prefix, null );
+    }
+
+
+    /**
+     * Creates a Cursor over the tuples of a key of an LMDB table.
+     *
+     * @param table the LMDB Table to build a Cursor over
+     * @param partitionTxn The transaction to use, may be null
+     * @param prefix The prefix of the LMDB keys of the browsed key, null to browse the whole table
+     * @param keyBytes The serialized browsed key if it has been truncated, null otherwise
+     */
+    LmdbCursor( LmdbTable<K, V> table, PartitionTxn partitionTxn, byte[] prefix, byte[] keyBytes )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating LmdbCursor {}", this );
+        }
+
+        this.table = table;
+        this.partitionTxn = partitionTxn;
+        this.prefix = prefix;
+        this.keyBytes = keyBytes;
+        end = ( prefix == null ) ? null : table.end( prefix );
+
+        // The search transactions are closed before their cursors are read
+        if ( ( partitionTxn instanceof LmdbPartitionReadTxn )
+            && ( ( LmdbPartitionReadTxn ) partitionTxn ).retain() )
+        {
+            retainedTxn = ( LmdbPartitionReadTxn ) partitionTxn;
+        }
+    }
+
+
+    /**
+     * Opens the LMDB cursor the first time it's needed.
+     */
+    private org.lmdbjava.Cursor<ByteBuffer> lmdbCursor()
+    {
+        if ( cursor != null )
+        {
+            return cursor;
+        }
+
+        LmdbEnvironment environment = table.getEnvironment();
+
+        if ( retainedTxn != null )
+        {
+            txn = retainedTxn.getTxn();
+        }
+        else if ( partitionTxn instanceof LmdbPartitionWriteTxn )
+        {
+            txn = ( ( LmdbPartitionWriteTxn ) partitionTxn ).getTxn();
+        }
+
+        if ( txn == null )
+        {
+            txn = environment.getActiveWriteTxn();
+        }
+
+        if ( txn == null )
+        {
+            txn = environment.getEnv().txnRead();
+            ownTxn = true;
+        }
+
+        cursor = table.openCursor( txn );
+
+        return cursor;
+    }
+
+
+    /**
+     * Tells if the LMDB cursor is on a browsed tuple.
+     */
+    private boolean matches( boolean found )
+    {
+        return found && ( ( prefix == null ) || table.matches( cursor.key(), prefix ) );
+    }
+
+
+    /**
+     * Skips the tuples of the other keys sharing the truncated bytes of the browsed key.
+     */
+    private boolean skipForeign( boolean found, SeekOp op ) throws LmdbException
+    {
+        while ( matches( found ) && !table.hasKey( cursor.val(), keyBytes ) )
+        {
+            found = cursor.seek( op );
+        }
+
+        return found;
+    }
+
+
+    /**
+     * Moves the LMDB cursor on the first key greater than or equal to a bound.
+     */
+    private boolean seekRange( byte[] bound )
+    {
+        return lmdbCursor().get( table.getEnvironment().keyBuffer( bound ), GetOp.MDB_SET_RANGE );
+    }
+
+
+    private void setPosition( Position position, boolean readTuple ) throws LdapException
+    {
+        this.position = position;
+        tuple = readTuple ? table.readTuple( cursor.key(), cursor.val() ) : null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean available()
+    {
+        return position == Position.ON;
+    }
+
+
+    /**
+     * Positions this Cursor before a tuple, or before the first tuple greater than it.
+     *
+     * @param element the tuple used to position this Cursor
+     * @throws LdapException if the tuple can't be serialized
+     * @throws CursorException if there are failures to position the Cursor
+     */
+    @Override
+    public void before( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( ( element == null ) || ( element.getKey() == null ) )
+        {
+            beforeFirst();
+
+            return;
+        }
+
+        moveTo( table.lowerBound( element.getKey(), element.getValue() ) );
+    }
+
+
+    /**
+     * Positions this Cursor after a tuple, or after the last tuple lower than it.
+     *
+     * @param element the tuple used to position this Cursor
+     * @throws LdapException if the tuple can't be serialized
+     * @throws CursorException if there are failures to position the Cursor
+     */
+    @Override
+    public void after( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( ( element == null ) || ( element.getKey() == null ) )
+        {
+            afterLast();
+
+            return;
+        }
+
+        moveTo( table.upperBound( element.getKey(), element.getValue() ) );
+    }
+
+
+    /**
+     * Positions this Cursor before the first tuple greater than or equal to an LMDB key.
+     */
+    private void moveTo( byte[] bound ) throws LdapException, CursorException
+    {
+        if ( bound == null )
+        {
+            // There is no LMDB key after the bound
+            afterLast();
+
+            return;
+        }
+
+        if ( ( prefix != null ) && ( LmdbTable.compare( bound, prefix ) < 0 ) )
+        {
+            beforeFirst();
+
+            return;
+        }
+
+        try
+        {
+            if ( matches( skipForeign( seekRange( bound ), SeekOp.MDB_NEXT ) ) )
+            {
+                setPosition( Position.BEFORE_ELEMENT, false );
+            }
+            else
+            {
+                setPosition( Position.AFTER_LAST, false );
+            }
+        }
+        catch ( LmdbException le )
+        {
+            throw new CursorException( le );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        setPosition( Position.BEFORE_FIRST, false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        setPosition( Position.AFTER_LAST, false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        try
+        {
+            boolean found;
+
+            switch ( position )
+            {
+                case BEFORE_FIRST:
+                    return false;
+
+                case AFTER_LAST:
+                    if ( end == null )
+                    {
+                        found = lmdbCursor().seek( SeekOp.MDB_LAST );
+                    }
+                    else if ( seekRange( end ) )
+                    {
+                        found = cursor.seek( SeekOp.MDB_PREV );
+                    }
+                    else
+                    {
+                        found = cursor.seek( SeekOp.MDB_LAST );
+                    }
+
+                    break;
+
+                default:
+                    found = cursor.seek( SeekOp.MDB_PREV );
+                    break;
+            }
+
+            if ( matches( skipForeign( found, SeekOp.MDB_PREV ) ) )
+            {
+                setPosition( Position.ON, true );
+
+                return true;
+            }
+
+            setPosition( Position.BEFORE_FIRST, false );
+
+            return false;
+        }
+        catch ( LmdbException le )
+        {
+            throw new CursorException( le );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        try
+        {
+            boolean found;
+
+            switch ( position )
+            {
+                case AFTER_LAST:
+                    return false;
+
+                case BEFORE_FIRST:
+                    if ( prefix == null )
+                    {
+                        found = lmdbCursor().seek( SeekOp.MDB_FIRST );
+                    }
+                    else
+                    {
+                        found = seekRange( prefix );
+                    }
+
+                    break;
+
+                case BEFORE_ELEMENT:
+                    found = true;
+                    break;
+
+                default:
+                    found = cursor.seek( SeekOp.MDB_NEXT );
+                    break;
+            }
+
+            if ( matches( skipForeign( found, SeekOp.MDB_NEXT ) ) )
+            {
+                setPosition( Position.ON, true );
+
+                return true;
+            }
+
+            setPosition( Position.AFTER_LAST, false );
+
+            return false;
+        }
+        catch ( LmdbException le )
+        {
+            throw new CursorException( le );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tuple<K, V> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( position == Position.ON )
+        {
+            return tuple;
+        }
+
+        throw new InvalidCursorPositionException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing LmdbCursor {}", this );
+        }
+
+        try
+        {
+            release();
+        }
+        finally
+        {
+            super.close();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing LmdbCursor {}", this );
+        }
+
+        try
+        {
+            release();
+        }
+        finally
+        {
+            super.close( cause );
+        }
+    }
+
+
+    /**
+     * Closes the LMDB cursor, then releases its transaction.
+     */
+    private void release() throws IOException
+    {
+        try
+        {
+            if ( cursor != null )
+            {
+                cursor.close();
+            }
+        }
+        finally
+        {
+            cursor = null;
+
+            if ( ownTxn )
+            {
+                txn.close();
+            }
+
+            if ( retainedTxn != null )
+            {
+                retainedTxn.close();
+            }
+
+            txn = null;
+            ownTxn = false;
+            retainedTxn = null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.i18n.I18n;
+
+
+/**
+ * A special index which stores Dn objects.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbDnIndex extends LmdbIndex<Dn>
+{
+    public LmdbDnIndex( String oid )
+    {
+        super( oid, true );
+        initialized = false;
+    }
+
+
+    /**
+     * Initializes the forward and reverse tables used by this Index.
+     *
+     * @param schemaManager The server schemaManager
+     * @throws IOException if we cannot initialize the forward and reverse
+     * tables
+     */
+    @Override
+    protected void initTables( SchemaManager schemaManager ) throws IOException
+    {
+        MatchingRule mr = attributeType.getEquality();
+
+        if ( mr == null )
+        {
+            throw new IOException( I18n.err( I18n.ERR_574, attributeType.getName() ) );
+        }
+
+        SerializableComparator<Dn> comp = new SerializableComparator<>( mr.getOid() );
+        comp.setSchemaManager( schemaManager );
+
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+
+        LmdbDnSerializer dnSerializer = new LmdbDnSerializer( schemaManager );
+
+        try
+        {
+            forward = new LmdbTable<>( environment, schemaManager, attributeType.getOid() + FORWARD_BTREE, comp,
+                dnSerializer, UuidComparator.INSTANCE, LmdbSerializer.STRING, true );
+            reverse = new LmdbTable<>( environment, schemaManager, attributeType.getOid() + REVERSE_BTREE,
+                UuidComparator.INSTANCE, LmdbSerializer.STRING, comp, dnSerializer, !attributeType.isSingleValued() );
+        }
+        catch ( RuntimeException re )
+        {
+            // The LMDB databases can't be opened
+            throw new IOException( re.getMessage(), re );
+        }
+    }
+}
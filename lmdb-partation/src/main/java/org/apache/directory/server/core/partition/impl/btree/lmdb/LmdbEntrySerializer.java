@@ -0,0 +1,173 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Serialize and deserialize an Entry. As for the other partitions, we don't serialize
+ * the entry's Dn, we just serialize its Rdn.
+ * <br><br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbEntrySerializer extends LmdbSerializer<Entry>
+{
+    /** the logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbEntrySerializer.class );
+
+    /** The schemaManager reference */
+    private final SchemaManager schemaManager;
+
+
+    /**
+     * Creates a new instance of LmdbEntrySerializer.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     */
+    public LmdbEntrySerializer( SchemaManager schemaManager )
+    {
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The structure used to store the entry is the following :
+     * <ul>
+     *   <li><b>[a byte]</b> : if the Dn is empty 0 will be written else 1</li>
+     *   <li><b>[Rdn]</b> : The entry's Rdn.</li>
+     *   <li><b>[numberAttr]</b> : the number of attributes. Can be 0</li>
+     *   <li>For each Attribute :
+     *     <ul>
+     *       <li><b>[attribute's oid]</b> : The attribute's OID to get back
+     *       the attributeType on deserialization</li>
+     *       <li><b>[Attribute]</b> The attribute</li>
+     *     </ul>
+     *   </li>
+     * </ul>
+     */
+    @Override
+    public byte[] serialize( Entry entry ) throws LdapException
+    {
+        try ( ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutput out = new ObjectOutputStream( baos ) )
+        {
+            Dn dn = entry.getDn();
+
+            // Write the Rdn of the Dn
+            if ( dn.isEmpty() )
+            {
+                out.writeByte( 0 );
+            }
+            else
+            {
+                out.writeByte( 1 );
+                dn.getRdn().writeExternal( out );
+            }
+
+            // Then the attributes.
+            out.writeInt( entry.getAttributes().size() );
+
+            for ( Attribute attribute : entry.getAttributes() )
+            {
+                // Write the oid to be able to restore the AttributeType when deserializing
+                // the attribute
+                out.writeUTF( attribute.getAttributeType().getOid() );
+                attribute.writeExternal( out );
+            }
+
+            out.flush();
+
+            return baos.toByteArray();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry deserialize( ByteBuffer buffer ) throws LdapException
+    {
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteBufferInputStream( buffer ) ) )
+        {
+            Entry entry = new DefaultEntry( schemaManager );
+
+            // Read the Dn, if any
+            if ( in.readByte() == 1 )
+            {
+                Rdn rdn = new Rdn( schemaManager );
+                rdn.readExternal( in );
+                entry.setDn( new Dn( schemaManager, rdn ) );
+            }
+            else
+            {
+                entry.setDn( Dn.EMPTY_DN );
+            }
+
+            int nbAttributes = in.readInt();
+
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                String oid = in.readUTF();
+                AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
+
+                Attribute attribute = new DefaultAttribute( attributeType );
+                attribute.readExternal( in );
+                entry.add( attribute );
+            }
+
+            return entry;
+        }
+        catch ( IOException | ClassNotFoundException e )
+        {
+            LOG.error( I18n.err( I18n.ERR_134, e.getLocalizedMessage() ) );
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.DbiFlags;
+import org.lmdbjava.Env;
+import org.lmdbjava.EnvFlags;
+import org.lmdbjava.Txn;
+
+
+/**
+ * The LMDB environment of a partition : the memory mapped file containing the master
+ * table and all the indexes, each one being a named LMDB database.
+ * <br>
+ * The environment is opened with MDB_NOTLS, so that a read transaction can be used by
+ * another thread than the one which has started it : the search cursors are read by
+ * the thread sending the results.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbEnvironment
+{
+    /** The LMDB environment */
+    private final Env<ByteBuffer> env;
+
+    /** The maximum size of a key */
+    private final int maxKeySize;
+
+    /** The write transaction started by the current thread, if any */
+    private final ThreadLocal<Txn<ByteBuffer>> activeWriteTxn = new ThreadLocal<>();
+
+    /** The partition transaction which has started the active write transaction, if any */
+    private final ThreadLocal<LmdbPartitionWriteTxn> activeWriteOwner = new ThreadLocal<>();
+
+    /** A buffer to pass the keys to LMDB, per thread */
+    private final ThreadLocal<ByteBuffer> keyBuffer = new ThreadLocal<>();
+
+
+    /**
+     * Opens the LMDB environment stored in a directory.
+     *
+     * @param directory The directory containing the LMDB files
+     * @param mapSize The maximum size of the environment, in bytes
+     * @param maxDbs The maximum number of databases
+     * @param syncOnWrite If the data are flushed to the disk on each commit
+     */
+    public LmdbEnvironment( File directory, long mapSize, int maxDbs, boolean syncOnWrite )
+    {
+        Env.Builder<ByteBuffer> builder = Env.create()
+            .setMapSize( mapSize )
+            .setMaxDbs( maxDbs );
+
+        if ( syncOnWrite )
+        {
+            env = builder.open( directory, EnvFlags.MDB_NOTLS );
+        }
+        else
+        {
+            env = builder.open( directory, EnvFlags.MDB_NOTLS, EnvFlags.MDB_NOSYNC );
+        }
+
+        maxKeySize = env.getMaxKeySize();
+    }
+
+
+    /**
+     * Opens a database, creating it if needed.
+     *
+     * @param name The database name
+     * @return The database
+     */
+    public Dbi<ByteBuffer> openDbi( String name )
+    {
+        return env.openDbi( name, DbiFlags.MDB_CREATE );
+    }
+
+
+    /**
+     * @return The LMDB environment
+     */
+    public Env<ByteBuffer> getEnv()
+    {
+        return env;
+    }
+
+
+    /**
+     * @return The maximum size of a key
+     */
+    public int getMaxKeySize()
+    {
+        return maxKeySize;
+    }
+
+
+    /**
+     * Starts a write transaction, which becomes the active write transaction of the thread.
+     *
+     * @param owner The partition transaction starting the write transaction
+     * @return The LMDB transaction
+     */
+    public Txn<ByteBuffer> beginWriteTxn( LmdbPartitionWriteTxn owner )
+    {
+        Txn<ByteBuffer> txn = env.txnWrite();
+        activeWriteTxn.set( txn );
+        activeWriteOwner.set( owner );
+
+        return txn;
+    }
+
+
+    /**
+     * Tells that the active write transaction of the thread is committed or aborted.
+     *
+     * @param txn The write transaction
+     */
+    public void endWriteTxn( Txn<ByteBuffer> txn )
+    {
+        if ( activeWriteTxn.get() == txn )
+        {
+            activeWriteTxn.remove();
+            activeWriteOwner.remove();
+        }
+    }
+
+
+    /**
+     * @return The partition transaction which has started the active write transaction of
+     * the current thread, if any
+     */
+    public LmdbPartitionWriteTxn getActiveWriteOwner()
+    {
+        return activeWriteOwner.get();
+    }
+
+
+    /**
+     * @return The write transaction started by the current thread, if any
+     */
+    public Txn<ByteBuffer> getActiveWriteTxn()
+    {
+        return activeWriteTxn.get();
+    }
+
+
+    /**
+     * Gets the LMDB transaction to use to read with a partition transaction. The partition
+     * transaction's LMDB transaction is used if it's opened, otherwise the active write
+     * transaction of the thread, or a new read transaction, which has to be released.
+     *
+     * @param partitionTxn The partition transaction
+     * @return The LMDB transaction to use
+     */
+    public Txn<ByteBuffer> getReadTxn( PartitionTxn partitionTxn )
+    {
+        Txn<ByteBuffer> txn = getPartitionTxn( partitionTxn );
+
+        if ( txn != null )
+        {
+            return txn;
+        }
+
+        txn = activeWriteTxn.get();
+
+        if ( txn != null )
+        {
+            return txn;
+        }
+
+        return env.txnRead();
+    }
+
+
+    /**
+     * Gets the LMDB transaction to use to write with a partition transaction. The partition
+     * transaction's LMDB transaction is used if it's a write transaction, otherwise the active
+     * write transaction of the thread, or a new write transaction, which has to be committed
+     * by {@link #release(PartitionTxn, Txn, boolean)}.
+     *
+     * @param partitionTxn The partition transaction
+     * @return The LMDB transaction to use
+     */
+    public Txn<ByteBuffer> getWriteTxn( PartitionTxn partitionTxn )
+    {
+        if ( partitionTxn instanceof LmdbPartitionWriteTxn )
+        {
+            return ( ( LmdbPartitionWriteTxn ) partitionTxn ).getTxn();
+        }
+
+        Txn<ByteBuffer> txn = activeWriteTxn.get();
+
+        if ( txn != null )
+        {
+            return txn;
+        }
+
+        return env.txnWrite();
+    }
+
+
+    /**
+     * Releases an LMDB transaction obtained with {@link #getReadTxn(PartitionTxn)} or
+     * {@link #getWriteTxn(PartitionTxn)}. A transaction which has been started for the
+     * operation is committed or closed, the others are left as is.
+     *
+     * @param partitionTxn The partition transaction
+     * @param txn The LMDB transaction
+     * @param commit If the transaction has to be committed
+     */
+    public void release( PartitionTxn partitionTxn, Txn<ByteBuffer> txn, boolean commit )
+    {
+        if ( ( txn == null ) || isShared( partitionTxn, txn ) )
+        {
+            return;
+        }
+
+        if ( commit )
+        {
+            txn.commit();
+        }
+        else
+        {
+            txn.close();
+        }
+    }
+
+
+    /**
+     * Tells if an LMDB transaction belongs to a partition transaction, or is the active write
+     * transaction of the thread.
+     *
+     * @param partitionTxn The partition transaction
+     * @param txn The LMDB transaction
+     * @return <tt>true</tt> if the transaction must not be closed by its user
+     */
+    public boolean isShared( PartitionTxn partitionTxn, Txn<ByteBuffer> txn )
+    {
+        return ( txn == activeWriteTxn.get() ) || ( txn == getPartitionTxn( partitionTxn ) );
+    }
+
+
+    private Txn<ByteBuffer> getPartitionTxn( PartitionTxn partitionTxn )
+    {
+        if ( partitionTxn instanceof LmdbPartitionTxn )
+        {
+            return ( ( LmdbPartitionTxn ) partitionTxn ).getTxn();
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Copies a key in the key buffer of the current thread. The buffer is only valid until
+     * the next call, it must be used immediately.
+     *
+     * @param key The key bytes
+     * @return The buffer containing the key
+     */
+    public ByteBuffer keyBuffer( byte[] key )
+    {
+        if ( key.length > maxKeySize )
+        {
+            // LMDB will reject it, but we let it tell why
+            return valueBuffer( key );
+        }
+
+        ByteBuffer buffer = keyBuffer.get();
+
+        if ( buffer == null )
+        {
+            buffer = ByteBuffer.allocateDirect( maxKeySize );
+            keyBuffer.set( buffer );
+        }
+
+        buffer.clear();
+        buffer.put( key ).flip();
+
+        return buffer;
+    }
+
+
+    /**
+     * Copies a value in a new direct buffer.
+     *
+     * @param value The value bytes
+     * @return The buffer containing the value
+     */
+    public static ByteBuffer valueBuffer( byte[] value )
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect( Math.max( value.length, 1 ) );
+        buffer.put( value ).flip();
+
+        return buffer;
+    }
+
+
+    /**
+     * Flushes the data to the disk.
+     */
+    public void sync()
+    {
+        env.sync( true );
+    }
+
+
+    /**
+     * Closes the environment.
+     */
+    public void close()
+    {
+        env.close();
+    }
+}
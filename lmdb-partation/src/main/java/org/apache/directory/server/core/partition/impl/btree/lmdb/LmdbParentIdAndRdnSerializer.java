@@ -0,0 +1,182 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+
+
+/**
+ * Serialize and deserialize a ParentIdAndRdn. The sort key is the parent ID followed by the
+ * normalized Rdns, so that the children of an entry are stored next to each other, after the
+ * key without Rdn used to browse them. The sort key does not contain the user provided Rdns
+ * nor the number of children and descendants, which are only in the serialized form.
+ * <br><br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbParentIdAndRdnSerializer extends LmdbSerializer<ParentIdAndRdn>
+{
+    /** The separator between the parent ID and the Rdns in the sort key */
+    private static final byte SEPARATOR = 0x00;
+
+    /** The schemaManager reference */
+    private final SchemaManager schemaManager;
+
+
+    /**
+     * Creates a new instance of LmdbParentIdAndRdnSerializer.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     */
+    public LmdbParentIdAndRdnSerializer( SchemaManager schemaManager )
+    {
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( ParentIdAndRdn parentIdAndRdn ) throws LdapException
+    {
+        try ( ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutput out = new ObjectOutputStream( baos ) )
+        {
+            Rdn[] rdns = parentIdAndRdn.getRdns();
+
+            // Write the Rdns
+            if ( ( rdns == null ) || ( rdns.length == 0 ) )
+            {
+                out.writeByte( 0 );
+            }
+            else
+            {
+                out.writeByte( rdns.length );
+
+                for ( Rdn rdn : rdns )
+                {
+                    rdn.writeExternal( out );
+                }
+            }
+
+            // Then the parentId, the number of children and descendants
+            out.writeUTF( parentIdAndRdn.getParentId() );
+            out.writeInt( parentIdAndRdn.getNbChildren() );
+            out.writeInt( parentIdAndRdn.getNbDescendants() );
+
+            out.flush();
+
+            return baos.toByteArray();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ParentIdAndRdn deserialize( ByteBuffer buffer ) throws LdapException
+    {
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteBufferInputStream( buffer ) ) )
+        {
+            ParentIdAndRdn parentIdAndRdn = new ParentIdAndRdn();
+
+            byte nbRdns = in.readByte();
+            Rdn[] rdns = new Rdn[nbRdns];
+
+            for ( int i = 0; i < nbRdns; i++ )
+            {
+                Rdn rdn = new Rdn( schemaManager );
+                rdn.readExternal( in );
+                rdns[i] = rdn;
+            }
+
+            parentIdAndRdn.setRdns( rdns );
+            parentIdAndRdn.setParentId( in.readUTF() );
+            parentIdAndRdn.setNbChildren( in.readInt() );
+            parentIdAndRdn.setNbDescendants( in.readInt() );
+
+            return parentIdAndRdn;
+        }
+        catch ( IOException | ClassNotFoundException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serializeKey( ParentIdAndRdn parentIdAndRdn ) throws LdapException
+    {
+        try ( ByteArrayOutputStream baos = new ByteArrayOutputStream() )
+        {
+            baos.write( parentIdAndRdn.getParentId().getBytes( StandardCharsets.UTF_8 ) );
+
+            Rdn[] rdns = parentIdAndRdn.getRdns();
+
+            if ( rdns != null )
+            {
+                for ( Rdn rdn : rdns )
+                {
+                    baos.write( SEPARATOR );
+                    baos.write( rdn.getNormName().getBytes( StandardCharsets.UTF_8 ) );
+                }
+            }
+
+            return baos.toByteArray();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isKeyComplete()
+    {
+        return false;
+    }
+}
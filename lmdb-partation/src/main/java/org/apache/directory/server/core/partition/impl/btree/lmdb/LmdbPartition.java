@@ -0,0 +1,480 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.exception.MultiException;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.cache.PartitionCache;
+import org.apache.directory.server.xdbm.cache.Weighers;
+import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
+import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
+import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
+import org.apache.directory.server.xdbm.search.impl.EvaluatorBuilder;
+import org.apache.directory.server.xdbm.search.impl.NoOpOptimizer;
+import org.lmdbjava.LmdbException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A partition stored in an LMDB environment : the master table and the indexes are the
+ * databases of a single memory mapped file. The reads don't copy the data out of the
+ * mapped file before deserializing them, and the read transactions are snapshots which
+ * never block the writes.
+ * <br>
+ * LMDB allows only one write transaction at a time, the concurrent updates are serialized
+ * when their transaction starts.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartition extends AbstractBTreePartition
+{
+    /** static logger */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbPartition.class );
+
+    /** The default maximum size of the environment : 10 GiB */
+    public static final long DEFAULT_MAP_SIZE = 10L * 1024L * 1024L * 1024L;
+
+    /** The default maximum number of databases, two per index plus the master table */
+    public static final int DEFAULT_MAX_DBS = 256;
+
+    /** The LMDB environment */
+    private LmdbEnvironment environment;
+
+    /** The maximum size of the environment */
+    private long mapSize = DEFAULT_MAP_SIZE;
+
+    /** The maximum number of databases */
+    private int maxDbs = DEFAULT_MAX_DBS;
+
+    /** the entry cache */
+    private PartitionCache<String, Entry> entryCache;
+
+
+    /**
+     * Creates a new instance of LmdbPartition.
+     *
+     * @param schemaManager The SchemaManager
+     * @param dnFactory The DN factory
+     */
+    public LmdbPartition( SchemaManager schemaManager, DnFactory dnFactory )
+    {
+        super( schemaManager, dnFactory );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doRepair() throws LdapException
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doInit() throws LdapException
+    {
+        if ( !initialized )
+        {
+            // setup optimizer and registries for parent
+            if ( !isOptimizerEnabled() )
+            {
+                setOptimizer( new NoOpOptimizer() );
+            }
+            else
+            {
+                setOptimizer( new DefaultOptimizer( this ) );
+            }
+
+            EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
+            CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
+
+            setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
+
+            // Create the underlying directories (only if needed)
+            File partitionDir = new File( getPartitionPath() );
+
+            if ( !partitionDir.exists() && !partitionDir.mkdirs() )
+            {
+                throw new LdapOtherException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECTORY, partitionDir ) );
+            }
+
+            try
+            {
+                environment = new LmdbEnvironment( partitionDir, mapSize, maxDbs, isSyncOnWrite() );
+            }
+            catch ( LmdbException le )
+            {
+                throw new LdapOtherException( le.getMessage(), le );
+            }
+
+            // Initialize the indexes
+            super.doInit();
+
+            // Create the master table (the table containing all the entries)
+            try
+            {
+                master = new LmdbMasterTable( environment, schemaManager );
+            }
+            catch ( LmdbException le )
+            {
+                throw new LdapOtherException( le.getMessage(), le );
+            }
+
+            // Load or compute the indexes statistics
+            initStatistics();
+
+            entryCache = createCache( "entry", getCacheMaxWeight(), Weighers.entryWeigher() );
+
+            // We are done !
+            initialized = true;
+        }
+    }
+
+
+    @Override
+    protected Index<?, String> convertAndInit( Index<?, String> index ) throws LdapException
+    {
+        LmdbIndex<?> lmdbIndex;
+
+        if ( index instanceof LmdbIndex<?> )
+        {
+            lmdbIndex = ( LmdbIndex<?> ) index;
+
+            if ( lmdbIndex.getWkDirPath() == null )
+            {
+                lmdbIndex.setWkDirPath( partitionPath );
+            }
+        }
+        else
+        {
+            LOG.debug( "Supplied index {} is not a LmdbIndex.  "
+                + "Will create new LmdbIndex using copied configuration parameters.", index );
+            lmdbIndex = new LmdbIndex( index.getAttributeId(), true );
+            lmdbIndex.setCacheSize( index.getCacheSize() );
+            lmdbIndex.setWkDirPath( index.getWkDirPath() );
+        }
+
+        lmdbIndex.setEnvironment( environment );
+
+        try
+        {
+            lmdbIndex.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        return lmdbIndex;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected synchronized void doDestroy( PartitionTxn partitionTxn ) throws LdapException
+    {
+        MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
+
+        if ( !initialized )
+        {
+            return;
+        }
+
+        try
+        {
+            super.doDestroy( partitionTxn );
+        }
+        catch ( Exception e )
+        {
+            errors.addThrowable( e );
+        }
+
+        // This is specific to the LMDB store : close the environment
+        try
+        {
+            environment.close();
+            LOG.debug( "Closed the LMDB environment for {} partition.", suffixDn );
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( I18n.err( I18n.ERR_127 ), t );
+            errors.addThrowable( t );
+        }
+        finally
+        {
+            if ( entryCache != null )
+            {
+                entryCache.clear();
+            }
+        }
+
+        if ( errors.size() > 0 )
+        {
+            throw new LdapOtherException( errors.getMessage(), errors );
+        }
+    }
+
+
+    @Override
+    protected Index createSystemIndex( String indexOid, URI path, boolean withReverse ) throws LdapException
+    {
+        LOG.debug( "Supplied index {} is not a LmdbIndex.  "
+            + "Will create new LmdbIndex using copied configuration parameters.", indexOid );
+        LmdbIndex<?> lmdbIndex;
+
+        if ( indexOid.equals( ApacheSchemaConstants.APACHE_RDN_AT_OID ) )
+        {
+            lmdbIndex = new LmdbRdnIndex();
+            lmdbIndex.setAttributeId( ApacheSchemaConstants.APACHE_RDN_AT_OID );
+        }
+        else if ( indexOid.equals( ApacheSchemaConstants.APACHE_ALIAS_AT_OID ) )
+        {
+            lmdbIndex = new LmdbDnIndex( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
+            lmdbIndex.setAttributeId( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
+        }
+        else
+        {
+            lmdbIndex = new LmdbIndex( indexOid, withReverse );
+        }
+
+        lmdbIndex.setWkDirPath( path );
+
+        return lmdbIndex;
+    }
+
+
+    /**
+     * This method is called when the synch thread is waking up, to flush the data
+     * committed without being synced.
+     * 
+     * @throws LdapException on failures to sync the environment to disk
+     */
+    @Override
+    public synchronized void sync() throws LdapException
+    {
+        if ( !initialized )
+        {
+            return;
+        }
+
+        try
+        {
+            environment.sync();
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}}
+     */
+    public String getDefaultId()
+    {
+        return Partition.DEFAULT_ID;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getRootId()
+    {
+        return Partition.ROOT_ID;
+    }
+
+
+    /**
+     * @return The maximum size of the LMDB environment, in bytes
+     */
+    public long getMapSize()
+    {
+        return mapSize;
+    }
+
+
+    /**
+     * Sets the maximum size of the LMDB environment. The file grows up to this size, which
+     * is reserved in the address space when the environment is opened.
+     *
+     * @param mapSize The maximum size of the LMDB environment, in bytes
+     */
+    public void setMapSize( long mapSize )
+    {
+        checkInitialized( "mapSize" );
+        this.mapSize = mapSize;
+    }
+
+
+    /**
+     * @return The maximum number of LMDB databases
+     */
+    public int getMaxDbs()
+    {
+        return maxDbs;
+    }
+
+
+    /**
+     * Sets the maximum number of LMDB databases : the master table, and two per index.
+     *
+     * @param maxDbs The maximum number of LMDB databases
+     */
+    public void setMaxDbs( int maxDbs )
+    {
+        checkInitialized( "maxDbs" );
+        this.maxDbs = maxDbs;
+    }
+
+
+    /**
+     * @return The LMDB environment
+     */
+    public LmdbEnvironment getEnvironment()
+    {
+        return environment;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry lookupCache( String id )
+    {
+        if ( entryCache == null )
+        {
+            return null;
+        }
+
+        return entryCache.get( id );
+    }
+
+
+    @Override
+    public void addToCache( String id, Entry entry )
+    {
+        if ( entryCache == null )
+        {
+            return;
+        }
+
+        if ( entry instanceof ClonedServerEntry )
+        {
+            entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        }
+
+        entryCache.put( id, entry );
+    }
+
+
+    @Override
+    public void updateCache( OperationContext opCtx )
+    {
+        if ( entryCache == null )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( opCtx instanceof ModifyOperationContext )
+            {
+                // replace the entry
+                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
+                Entry entry = modCtx.getAlteredEntry();
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+
+                if ( entry instanceof ClonedServerEntry )
+                {
+                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+                }
+
+                entryCache.replace( id, entry );
+            }
+            else if ( ( opCtx instanceof MoveOperationContext )
+                || ( opCtx instanceof MoveAndRenameOperationContext )
+                || ( opCtx instanceof RenameOperationContext ) )
+            {
+                // clear the cache it is not worth updating all the children
+                entryCache.clear();
+            }
+            else if ( opCtx instanceof DeleteOperationContext )
+            {
+                // delete the entry
+                DeleteOperationContext delCtx = ( DeleteOperationContext ) opCtx;
+                entryCache.remove( delCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+            }
+        }
+        catch ( LdapException e )
+        {
+            LOG.warn( "Failed to update entry cache", e );
+        }
+    }
+
+
+    @Override
+    public PartitionReadTxn beginReadTransaction()
+    {
+        return new LmdbPartitionReadTxn( environment );
+    }
+
+
+    @Override
+    public PartitionWriteTxn beginWriteTransaction()
+    {
+        return new LmdbPartitionWriteTxn( environment );
+    }
+}
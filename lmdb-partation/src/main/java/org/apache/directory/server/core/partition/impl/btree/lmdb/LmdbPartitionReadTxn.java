@@ -0,0 +1,130 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+import org.lmdbjava.Txn;
+
+
+/**
+ * The LMDB partition read transaction. It's an LMDB read transaction, which sees the
+ * partition as it was when it has been started, whatever the changes committed since then.
+ * <br>
+ * The LMDB transaction is started on the first read, and it's kept until this transaction
+ * and all the cursors created with it are closed, as the search cursors are read after the
+ * search transaction is closed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartitionReadTxn extends PartitionReadTxn implements LmdbPartitionTxn
+{
+    /** The LMDB environment */
+    private final LmdbEnvironment environment;
+
+    /** The LMDB transaction, null until it's used */
+    private Txn<ByteBuffer> txn;
+
+    /** The number of users of this transaction : the transaction itself, and its cursors */
+    private int users = 1;
+
+
+    /**
+     * Create an instance of LmdbPartitionReadTxn
+     *
+     * @param environment The LMDB environment
+     */
+    public LmdbPartitionReadTxn( LmdbEnvironment environment )
+    {
+        this.environment = environment;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Txn<ByteBuffer> getTxn()
+    {
+        if ( users <= 0 )
+        {
+            return null;
+        }
+
+        if ( txn == null )
+        {
+            txn = environment.getEnv().txnRead();
+        }
+
+        return txn;
+    }
+
+
+    /**
+     * Keeps the LMDB transaction opened until {@link #close()} is called one more time.
+     *
+     * @return <tt>false</tt> if this transaction is already closed
+     */
+    public synchronized boolean retain()
+    {
+        if ( users <= 0 )
+        {
+            return false;
+        }
+
+        users++;
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isClosed()
+    {
+        return users <= 0;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if ( users <= 0 )
+        {
+            return;
+        }
+
+        users--;
+
+        if ( ( users == 0 ) && ( txn != null ) )
+        {
+            txn.close();
+            txn = null;
+        }
+    }
+}
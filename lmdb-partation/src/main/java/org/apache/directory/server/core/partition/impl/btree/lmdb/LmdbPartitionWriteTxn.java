@@ -0,0 +1,201 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.lmdbjava.Txn;
+
+
+/**
+ * The LMDB partition write transaction. The LMDB write transaction is started when it's
+ * first used, and a new one is started if this transaction is used again after having
+ * been committed or aborted.
+ * <br>
+ * LMDB allows only one write transaction at a time, owned by the thread which has started
+ * it : a write transaction started while the thread already has one uses it, and leaves its
+ * commit to the first one.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartitionWriteTxn extends PartitionWriteTxn implements LmdbPartitionTxn
+{
+    /** The LMDB environment */
+    private final LmdbEnvironment environment;
+
+    /** The LMDB transaction, null until it's used */
+    private Txn<ByteBuffer> txn;
+
+    /** Tells if the LMDB transaction has been started by this transaction */
+    private boolean owner;
+
+    /** The partition transaction which has started the LMDB transaction, when it's not this one */
+    private LmdbPartitionWriteTxn ownerTxn;
+
+
+    /**
+     * Create an instance of LmdbPartitionWriteTxn
+     *
+     * @param environment The LMDB environment
+     */
+    public LmdbPartitionWriteTxn( LmdbEnvironment environment )
+    {
+        this.environment = environment;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Txn<ByteBuffer> getTxn()
+    {
+        if ( txn == null )
+        {
+            txn = environment.getActiveWriteTxn();
+            owner = txn == null;
+
+            if ( owner )
+            {
+                txn = environment.beginWriteTxn( this );
+            }
+            else
+            {
+                ownerTxn = environment.getActiveWriteOwner();
+            }
+        }
+
+        return txn;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void commit() throws IOException
+    {
+        if ( txn == null )
+        {
+            runCommitActions();
+
+            return;
+        }
+
+        boolean committed = false;
+
+        try
+        {
+            if ( owner )
+            {
+                txn.commit();
+            }
+
+            committed = true;
+        }
+        finally
+        {
+            end();
+        }
+
+        if ( committed )
+        {
+            runCommitActions();
+        }
+        else
+        {
+            discardCommitActions();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * When the LMDB transaction has been started by another partition transaction, the
+     * actions are run when this other transaction is committed.
+     */
+    @Override
+    public synchronized void onCommit( Runnable action )
+    {
+        getTxn();
+
+        if ( owner || ( ownerTxn == null ) )
+        {
+            super.onCommit( action );
+        }
+        else
+        {
+            ownerTxn.onCommit( action );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void abort() throws IOException
+    {
+        if ( txn == null )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( owner )
+            {
+                txn.abort();
+            }
+        }
+        finally
+        {
+            end();
+            discardCommitActions();
+        }
+    }
+
+
+    private void end()
+    {
+        if ( owner )
+        {
+            environment.endWriteTxn( txn );
+        }
+
+        txn = null;
+        owner = false;
+        ownerTxn = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        commit();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.ParentIdAndRdnComparator;
+
+
+/**
+ * A special index which stores Rdn objects.
+ * <br>
+ * The forward keys are sorted by parent ID then by normalized RDN, so the children of an
+ * entry are stored together, but they carry the number of children and descendants of the
+ * entry, which are stored along with the value.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbRdnIndex extends LmdbIndex<ParentIdAndRdn>
+{
+    public LmdbRdnIndex()
+    {
+        super( ApacheSchemaConstants.APACHE_RDN_AT_OID, true );
+        initialized = false;
+    }
+
+
+    /**
+     * Initializes the forward and reverse tables used by this Index.
+     *
+     * @param schemaManager The server schemaManager
+     * @throws IOException if we cannot initialize the forward and reverse
+     * tables
+     */
+    @Override
+    protected void initTables( SchemaManager schemaManager ) throws IOException
+    {
+        MatchingRule mr = attributeType.getEquality();
+
+        if ( mr == null )
+        {
+            throw new IOException( I18n.err( I18n.ERR_574, attributeType.getName() ) );
+        }
+
+        ParentIdAndRdnComparator<String> comp = new ParentIdAndRdnComparator<>( mr.getOid() );
+
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+
+        LmdbParentIdAndRdnSerializer parentIdAndSerializer = new LmdbParentIdAndRdnSerializer( schemaManager );
+
+        try
+        {
+            forward = new LmdbTable<>( environment, schemaManager, attributeType.getOid() + FORWARD_BTREE, comp,
+                parentIdAndSerializer, UuidComparator.INSTANCE, LmdbSerializer.STRING, false );
+            reverse = new LmdbTable<>( environment, schemaManager, attributeType.getOid() + REVERSE_BTREE,
+                UuidComparator.INSTANCE, LmdbSerializer.STRING, comp, parentIdAndSerializer, false );
+        }
+        catch ( RuntimeException re )
+        {
+            // The LMDB databases can't be opened
+            throw new IOException( re.getMessage(), re );
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+
+
+/**
+ * Serializes the keys and the values stored in the LMDB databases. LMDB sorts the keys,
+ * and the values of a key when duplicates are allowed, by comparing their bytes : the
+ * serialized form of an element is also its sort key, and it must be sorted like the
+ * elements are by the table comparator for the range lookups to work.
+ * <br>
+ * The buffers read from LMDB are direct views on the memory mapped file, which are only
+ * valid until the transaction or the cursor moves : the elements are deserialized from
+ * them without copying the bytes first.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public abstract class LmdbSerializer<T>
+{
+    /**
+     * The serializer for the Strings, like the entry IDs. Each UTF-16 char is encoded on its
+     * own as UTF-8 does, the surrogates included (this is CESU-8) : the bytes are then sorted
+     * like the Strings are by {@link String#compareTo(String)}, which is not the case of the
+     * UTF-8 encoding of the supplementary characters. The ASCII Strings are encoded as in UTF-8.
+     */
+    public static final LmdbSerializer<String> STRING = new LmdbSerializer<String>()
+    {
+        @Override
+        public byte[] serialize( String element )
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream( element.length() );
+
+            for ( int i = 0; i < element.length(); i++ )
+            {
+                char c = element.charAt( i );
+
+                if ( c < 0x80 )
+                {
+                    out.write( c );
+                }
+                else if ( c < 0x800 )
+                {
+                    out.write( 0xC0 | ( c >> 6 ) );
+                    out.write( 0x80 | ( c & 0x3F ) );
+                }
+                else
+                {
+                    out.write( 0xE0 | ( c >> 12 ) );
+                    out.write( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                    out.write( 0x80 | ( c & 0x3F ) );
+                }
+            }
+
+            return out.toByteArray();
+        }
+
+
+        @Override
+        public String deserialize( ByteBuffer buffer )
+        {
+            StringBuilder sb = new StringBuilder( buffer.remaining() );
+
+            while ( buffer.hasRemaining() )
+            {
+                int b = buffer.get() & 0xFF;
+
+                if ( b < 0x80 )
+                {
+                    sb.append( ( char ) b );
+                }
+                else if ( b < 0xE0 )
+                {
+                    sb.append( ( char ) ( ( ( b & 0x1F ) << 6 ) | ( buffer.get() & 0x3F ) ) );
+                }
+                else
+                {
+                    int high = ( ( b & 0x0F ) << 12 ) | ( ( buffer.get() & 0x3F ) << 6 );
+                    sb.append( ( char ) ( high | ( buffer.get() & 0x3F ) ) );
+                }
+            }
+
+            return sb.toString();
+        }
+    };
+
+    /**
+     * The serializer for the normalized values of the INTEGER syntax. The bytes are sorted
+     * like the integers : a sign byte, the number of digits, then the digits, which are
+     * complemented for the negative integers.
+     */
+    public static final LmdbSerializer<String> INTEGER = new LmdbSerializer<String>()
+    {
+        /** The sign byte of the negative integers */
+        private static final byte NEGATIVE = 0x00;
+
+        /** The sign byte of the positive integers and of zero */
+        private static final byte POSITIVE = 0x01;
+
+
+        @Override
+        public byte[] serialize( String element ) throws LdapException
+        {
+            boolean negative = element.startsWith( "-" );
+            int start = ( negative || element.startsWith( "+" ) ) ? 1 : 0;
+
+            if ( start == element.length() )
+            {
+                throw new LdapOtherException( "Not an integer : " + element );
+            }
+
+            // The leading zeros of the assertion values are ignored
+            while ( ( start < element.length() - 1 ) && ( element.charAt( start ) == '0' ) )
+            {
+                start++;
+            }
+
+            if ( element.charAt( start ) == '0' )
+            {
+                negative = false;
+            }
+
+            int nbDigits = element.length() - start;
+            ByteBuffer buffer = ByteBuffer.allocate( 1 + 4 + nbDigits );
+            buffer.put( negative ? NEGATIVE : POSITIVE );
+
+            // The longer negative integers are the lower ones
+            buffer.putInt( negative ? Integer.MAX_VALUE - nbDigits : nbDigits );
+
+            for ( int i = start; i < element.length(); i++ )
+            {
+                char c = element.charAt( i );
+
+                if ( ( c < '0' ) || ( c > '9' ) )
+                {
+                    throw new LdapOtherException( "Not an integer : " + element );
+                }
+
+                buffer.put( negative ? ( byte ) ( 0xFF - c ) : ( byte ) c );
+            }
+
+            return buffer.array();
+        }
+
+
+        @Override
+        public String deserialize( ByteBuffer buffer )
+        {
+            boolean negative = buffer.get() == NEGATIVE;
+            buffer.getInt();
+            StringBuilder sb = new StringBuilder( buffer.remaining() + 1 );
+
+            if ( negative )
+            {
+                sb.append( '-' );
+            }
+
+            while ( buffer.hasRemaining() )
+            {
+                int b = buffer.get() & 0xFF;
+                sb.append( ( char ) ( negative ? 0xFF - b : b ) );
+            }
+
+            return sb.toString();
+        }
+    };
+
+    /** The serializer for the binary values */
+    public static final LmdbSerializer<byte[]> BYTES = new LmdbSerializer<byte[]>()
+    {
+        @Override
+        public byte[] serialize( byte[] element )
+        {
+            return element;
+        }
+
+
+        @Override
+        public byte[] deserialize( ByteBuffer buffer )
+        {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get( bytes );
+
+            return bytes;
+        }
+    };
+
+
+    /**
+     * Serializes an element.
+     *
+     * @param element The element to serialize
+     * @return The serialized element
+     * @throws LdapException If the element can't be serialized
+     */
+    public abstract byte[] serialize( T element ) throws LdapException;
+
+
+    /**
+     * Deserializes an element. The buffer is read from its current position to its limit.
+     *
+     * @param buffer The buffer containing the serialized element
+     * @return The element
+     * @throws LdapException If the element can't be deserialized
+     */
+    public abstract T deserialize( ByteBuffer buffer ) throws LdapException;
+
+
+    /**
+     * Gets the bytes used to sort an element when it's used as a key. By default, it's the
+     * serialized element.
+     *
+     * @param element The key
+     * @return The bytes used to sort the key
+     * @throws LdapException If the key can't be serialized
+     */
+    public byte[] serializeKey( T element ) throws LdapException
+    {
+        return serialize( element );
+    }
+
+
+    /**
+     * Tells if a key can be deserialized from the bytes returned by {@link #serializeKey(Object)}.
+     * When it's not the case, the table stores the serialized key along with the value.
+     *
+     * @return <tt>true</tt> if the sort key holds the whole key
+     */
+    public boolean isKeyComplete()
+    {
+        return true;
+    }
+}
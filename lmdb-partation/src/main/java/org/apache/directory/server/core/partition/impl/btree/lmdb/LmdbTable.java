@@ -0,0 +1,1391 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractTable;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.SeekOp;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Table stored in an LMDB database.
+ * <br>
+ * When duplicates are not allowed, the LMDB key is the key sort bytes, and the LMDB value
+ * is the serialized value, preceded by the serialized key when the sort bytes don't hold
+ * the whole key.
+ * <br>
+ * When duplicates are allowed, each (key, value) tuple is stored as an LMDB key, made of
+ * the escaped key sort bytes, a terminator and the serialized value, with an empty LMDB
+ * value. The tuples are then sorted by key and value, like with MDB_DUPSORT, but a given
+ * tuple can be found directly, without browsing all the values of its key. The escaping
+ * doubles the 0x00 bytes as 0x00 0xFF, and the terminator is 0x00 0x00, so that a key
+ * sorts before all the longer keys it's a prefix of.
+ * <br>
+ * As LMDB sorts the keys by their bytes, the tuples are browsed in the order of their
+ * serialized form. For the indexes, it's the order of the normalized values.
+ * <br>
+ * The LMDB keys are limited in size. The keys which are too long are truncated, and
+ * followed by a hash of their whole sort bytes, the whole serialized key being stored in
+ * the LMDB value. The keys sharing the same truncated bytes are not sorted between them,
+ * so the range lookups start before and end after all of them, and the tuples found for
+ * a key are checked against the serialized key. In the tables allowing duplicates, the
+ * truncated keys are followed by 0x00 0x01 instead of the terminator, and the values which
+ * would make a tuple too long are truncated and hashed the same way.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbTable<K, V> extends AbstractTable<K, V>
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbTable.class );
+
+    /** The escape byte in the keys of the tables allowing duplicates */
+    private static final byte ESCAPE = 0x00;
+
+    /** The byte following an escaped 0x00 */
+    private static final byte ESCAPED = ( byte ) 0xFF;
+
+    /** The byte following the ESCAPE byte at the end of a key */
+    private static final byte TERMINATOR = 0x00;
+
+    /** The byte following the ESCAPE byte at the end of a truncated key */
+    private static final byte TRUNCATED = 0x01;
+
+    /** The empty value of the tables allowing duplicates */
+    private static final byte[] EMPTY_VALUE = new byte[0];
+
+    /** The algorithm used to hash the truncated keys and values */
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    /** The length of the hash following a truncated key or value */
+    private static final int HASH_LENGTH = 32;
+
+    /** The flag telling that the LMDB value holds the serialized key */
+    private static final int FULL_KEY = 0x01;
+
+    /** The flag telling that the LMDB value holds the serialized value */
+    private static final int FULL_VALUE = 0x02;
+
+    /** The LMDB environment */
+    protected final LmdbEnvironment environment;
+
+    /** The LMDB database */
+    private final Dbi<ByteBuffer> dbi;
+
+    /** The key serializer */
+    private final LmdbSerializer<K> keySerializer;
+
+    /** The value serializer */
+    private final LmdbSerializer<V> valueSerializer;
+
+
+    /**
+     * Creates a new instance of LmdbTable, opening or creating its LMDB database.
+     *
+     * @param environment The LMDB environment
+     * @param schemaManager The SchemaManager
+     * @param name The Table name
+     * @param keyComparator The key comparator
+     * @param keySerializer The key serializer
+     * @param valueComparator The value comparator
+     * @param valueSerializer The value serializer
+     * @param allowDuplicates If the table allows duplicate values
+     */
+    public LmdbTable( LmdbEnvironment environment, SchemaManager schemaManager, String name,
+        Comparator<K> keyComparator, LmdbSerializer<K> keySerializer,
+        Comparator<V> valueComparator, LmdbSerializer<V> valueSerializer, boolean allowDuplicates )
+    {
+        super( schemaManager, name, keyComparator, valueComparator );
+
+        if ( allowDuplicates && !keySerializer.isKeyComplete() )
+        {
+            throw new IllegalArgumentException( "The keys of a table allowing duplicates must be complete" );
+        }
+
+        this.environment = environment;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.allowsDuplicates = allowDuplicates;
+
+        dbi = environment.openDbi( name );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Key encoding
+    // ------------------------------------------------------------------------
+    /**
+     * Computes the hash added to the truncated keys and values.
+     */
+    private static byte[] hash( byte[] bytes )
+    {
+        try
+        {
+            return MessageDigest.getInstance( HASH_ALGORITHM ).digest( bytes );
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            // All the JVMs support SHA-256
+            throw new IllegalStateException( nsae );
+        }
+    }
+
+
+    /**
+     * Escapes the sort bytes of a key, in a table allowing duplicates.
+     */
+    private static byte[] escape( byte[] bytes )
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( bytes.length + 2 );
+
+        for ( byte b : bytes )
+        {
+            out.write( b );
+
+            if ( b == ESCAPE )
+            {
+                out.write( ESCAPED );
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+
+    /**
+     * @return The maximum length of the sort bytes of a key before they are truncated, escaped
+     * when duplicates are allowed. It leaves room for the hash, and for the value when
+     * duplicates are allowed.
+     */
+    private int getMaxSortLength()
+    {
+        if ( allowsDuplicates )
+        {
+            return environment.getMaxKeySize() / 2 - HASH_LENGTH - 2;
+        }
+
+        return environment.getMaxKeySize() - HASH_LENGTH;
+    }
+
+
+    /**
+     * Gets the part of the sort bytes of a key kept when they are too long, which is also
+     * the part shared by all the keys sorted along with them.
+     */
+    private byte[] truncatedPrefix( byte[] bytes )
+    {
+        if ( !allowsDuplicates )
+        {
+            return Arrays.copyOf( bytes, getMaxSortLength() );
+        }
+
+        byte[] escaped = escape( bytes );
+        int maxLength = getMaxSortLength();
+        int length = 0;
+
+        // An escaped 0x00 is never split
+        while ( length < maxLength )
+        {
+            if ( escaped[length] == ESCAPE )
+            {
+                if ( length + 2 > maxLength )
+                {
+                    break;
+                }
+
+                length += 2;
+            }
+            else
+            {
+                length++;
+            }
+        }
+
+        return Arrays.copyOf( escaped, length );
+    }
+
+
+    /**
+     * Tells if the sort bytes of a key are too long to be stored as is.
+     */
+    private boolean isTruncated( byte[] bytes )
+    {
+        int length = bytes.length;
+
+        if ( allowsDuplicates )
+        {
+            for ( byte b : bytes )
+            {
+                if ( b == ESCAPE )
+                {
+                    length++;
+                }
+            }
+        }
+
+        return length > getMaxSortLength();
+    }
+
+
+    /**
+     * Gets the LMDB key, or the prefix of the LMDB keys when duplicates are allowed, for the
+     * sort bytes of a key. When they are too long, they are truncated and followed by their
+     * hash : the keys sharing the same truncated bytes are then sorted by their hash, after
+     * the key made of these bytes only, and before all the other keys.
+     */
+    private byte[] encodeSortBytes( byte[] bytes )
+    {
+        if ( isTruncated( bytes ) )
+        {
+            byte[] prefix = truncatedPrefix( bytes );
+
+            if ( allowsDuplicates )
+            {
+                prefix = concat( prefix, new byte[]
+                    { ESCAPE, TRUNCATED } );
+            }
+
+            return concat( prefix, hash( bytes ) );
+        }
+
+        if ( !allowsDuplicates )
+        {
+            return bytes;
+        }
+
+        return concat( escape( bytes ), new byte[]
+            { ESCAPE, TERMINATOR } );
+    }
+
+
+    /**
+     * Gets the LMDB key, or the prefix of the LMDB keys when duplicates are allowed, for a key.
+     */
+    private byte[] encodeKey( K key ) throws LdapException
+    {
+        return encodeSortBytes( keySerializer.serializeKey( key ) );
+    }
+
+
+    /**
+     * Gets the serialized key to check the LMDB keys against, when the key is truncated in
+     * its LMDB keys, as several keys may then share the same LMDB keys.
+     *
+     * @param key The key
+     * @return The serialized key, or null if its LMDB keys are not truncated
+     * @throws LdapException If the key can't be serialized
+     */
+    byte[] truncatedKey( K key ) throws LdapException
+    {
+        if ( isTruncated( keySerializer.serializeKey( key ) ) )
+        {
+            return keySerializer.serialize( key );
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Gets the part of the LMDB key of a tuple holding the value, when duplicates are allowed.
+     * When the tuple is too long, the value is truncated and followed by its hash.
+     */
+    private byte[] encodeValuePart( byte[] keyPart, byte[] valueBytes )
+    {
+        int maxLength = environment.getMaxKeySize() - keyPart.length;
+
+        if ( valueBytes.length <= maxLength )
+        {
+            return valueBytes;
+        }
+
+        return concat( Arrays.copyOf( valueBytes, maxLength - HASH_LENGTH ), hash( valueBytes ) );
+    }
+
+
+    /**
+     * Gets the LMDB key of a tuple.
+     */
+    private byte[] encodeTuple( K key, V value ) throws LdapException
+    {
+        byte[] keyPart = encodeKey( key );
+
+        if ( !allowsDuplicates )
+        {
+            return keyPart;
+        }
+
+        return concat( keyPart, encodeValuePart( keyPart, valueSerializer.serialize( value ) ) );
+    }
+
+
+    private static byte[] concat( byte[] first, byte[] second )
+    {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy( first, 0, result, 0, first.length );
+        System.arraycopy( second, 0, result, first.length, second.length );
+
+        return result;
+    }
+
+
+    /**
+     * Gets the LMDB value stored for a tuple. When duplicates are allowed, it's empty, unless
+     * the key or the value have been truncated in the LMDB key : it then holds a flags byte,
+     * followed by the length and the bytes of the serialized key if it has been truncated,
+     * then by the serialized value if it has been truncated.
+     * <br>
+     * Otherwise, the serialized value is stored, preceded by the length and the bytes of the
+     * serialized key when the LMDB key doesn't hold the whole key.
+     */
+    private byte[] encodeValue( K key, V value ) throws LdapException
+    {
+        byte[] bytes = valueSerializer.serialize( value );
+        byte[] sortBytes = keySerializer.serializeKey( key );
+        boolean truncated = isTruncated( sortBytes );
+
+        if ( allowsDuplicates )
+        {
+            byte[] keyPart = encodeSortBytes( sortBytes );
+            boolean valueTruncated = keyPart.length + bytes.length > environment.getMaxKeySize();
+
+            if ( !truncated && !valueTruncated )
+            {
+                return EMPTY_VALUE;
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write( ( truncated ? FULL_KEY : 0 ) | ( valueTruncated ? FULL_VALUE : 0 ) );
+
+            if ( truncated )
+            {
+                byte[] keyBytes = keySerializer.serialize( key );
+                out.write( ByteBuffer.allocate( 4 ).putInt( keyBytes.length ).array(), 0, 4 );
+                out.write( keyBytes, 0, keyBytes.length );
+            }
+
+            if ( valueTruncated )
+            {
+                out.write( bytes, 0, bytes.length );
+            }
+
+            return out.toByteArray();
+        }
+
+        if ( keySerializer.isKeyComplete() && !truncated )
+        {
+            return bytes;
+        }
+
+        byte[] keyBytes = keySerializer.serialize( key );
+
+        return ByteBuffer.allocate( 4 + keyBytes.length + bytes.length ).putInt( keyBytes.length ).put( keyBytes )
+            .put( bytes ).array();
+    }
+
+
+    /**
+     * Gets the smallest LMDB key which is greater than all the LMDB keys starting with
+     * some bytes.
+     *
+     * @param bytes The bytes
+     * @return The bound, or null if there is none
+     */
+    static byte[] successor( byte[] bytes )
+    {
+        for ( int i = bytes.length - 1; i >= 0; i-- )
+        {
+            if ( bytes[i] != ( byte ) 0xFF )
+            {
+                byte[] bound = Arrays.copyOf( bytes, i + 1 );
+                bound[i]++;
+
+                return bound;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Gets the smallest LMDB key which is greater than or equal to a tuple. The value may
+     * be null, for the first tuple of a key. When the key is truncated, it's the first tuple
+     * of all the keys sharing the same truncated bytes : they are not sorted by their value,
+     * so the range lookups may find more keys than expected, but never miss one.
+     *
+     * @param key The key
+     * @param value The value, or null
+     * @return The lower bound
+     * @throws LdapException If the key can't be serialized
+     */
+    byte[] lowerBound( K key, V value ) throws LdapException
+    {
+        if ( ( value == null ) || !allowsDuplicates )
+        {
+            byte[] bytes = keySerializer.serializeKey( key );
+
+            if ( !isTruncated( bytes ) )
+            {
+                return encodeSortBytes( bytes );
+            }
+
+            if ( !allowsDuplicates )
+            {
+                return truncatedPrefix( bytes );
+            }
+
+            return concat( truncatedPrefix( bytes ), new byte[]
+                { ESCAPE, TRUNCATED } );
+        }
+
+        return encodeTuple( key, value );
+    }
+
+
+    /**
+     * Gets the smallest LMDB key which is greater than a tuple. The value may be null, for
+     * the last tuple of a key. When the key is truncated, it's the key following all the
+     * keys sharing the same truncated bytes.
+     *
+     * @param key The key
+     * @param value The value, or null
+     * @return The upper bound, or null if there is none
+     * @throws LdapException If the key can't be serialized
+     */
+    byte[] upperBound( K key, V value ) throws LdapException
+    {
+        if ( ( value == null ) || !allowsDuplicates )
+        {
+            byte[] bytes = keySerializer.serializeKey( key );
+
+            if ( isTruncated( bytes ) )
+            {
+                if ( !allowsDuplicates )
+                {
+                    return successor( truncatedPrefix( bytes ) );
+                }
+
+                return concat( truncatedPrefix( bytes ), new byte[]
+                    { ESCAPE, TRUNCATED + 1 } );
+            }
+
+            if ( allowsDuplicates )
+            {
+                // All the tuples of the key start with ESCAPE TERMINATOR, the next key
+                // has a greater byte after the prefix
+                byte[] bound = encodeSortBytes( bytes );
+                bound[bound.length - 1] = TERMINATOR + 1;
+
+                return bound;
+            }
+        }
+
+        byte[] tuple = encodeTuple( key, value );
+
+        if ( tuple.length >= environment.getMaxKeySize() )
+        {
+            // No LMDB key can be longer
+            return successor( tuple );
+        }
+
+        // Adding a byte gives the smallest greater key
+        return Arrays.copyOf( tuple, tuple.length + 1 );
+    }
+
+
+    /**
+     * Gets the prefix of all the LMDB keys of the tuples of a key.
+     *
+     * @param key The key
+     * @return The prefix
+     * @throws LdapException If the key can't be serialized
+     */
+    byte[] prefix( K key ) throws LdapException
+    {
+        return encodeKey( key );
+    }
+
+
+    /**
+     * Gets the first LMDB key after all the tuples of a key, which prefix is given.
+     *
+     * @param prefix The prefix of the key
+     * @return The first LMDB key after the key tuples, or null if there is none
+     */
+    byte[] end( byte[] prefix )
+    {
+        if ( allowsDuplicates || ( prefix.length >= environment.getMaxKeySize() ) )
+        {
+            return successor( prefix );
+        }
+
+        return Arrays.copyOf( prefix, prefix.length + 1 );
+    }
+
+
+    /**
+     * Tells if an LMDB key belongs to a key, which prefix is given.
+     *
+     * @param lmdbKey The LMDB key
+     * @param prefix The prefix of the key
+     * @return <tt>true</tt> if the LMDB key is a tuple of the key
+     */
+    boolean matches( ByteBuffer lmdbKey, byte[] prefix )
+    {
+        int length = lmdbKey.remaining();
+
+        if ( ( length < prefix.length ) || ( !allowsDuplicates && ( length != prefix.length ) ) )
+        {
+            return false;
+        }
+
+        int position = lmdbKey.position();
+
+        for ( int i = 0; i < prefix.length; i++ )
+        {
+            if ( lmdbKey.get( position + i ) != prefix[i] )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Tells if a tuple belongs to a key which has been truncated in the LMDB keys, by
+     * comparing the serialized key stored in the LMDB value.
+     *
+     * @param lmdbValue The LMDB value of the tuple
+     * @param keyBytes The serialized key, null if the key is not truncated
+     * @return <tt>true</tt> if the tuple belongs to the key
+     */
+    boolean hasKey( ByteBuffer lmdbValue, byte[] keyBytes )
+    {
+        if ( keyBytes == null )
+        {
+            return true;
+        }
+
+        ByteBuffer buffer = lmdbValue.duplicate();
+
+        if ( allowsDuplicates && ( !buffer.hasRemaining() || ( ( buffer.get() & FULL_KEY ) == 0 ) ) )
+        {
+            return false;
+        }
+
+        return equals( buffer, keyBytes );
+    }
+
+
+    /**
+     * Tells if a buffer holds the length and the bytes of a serialized element at its
+     * current position.
+     */
+    private static boolean equals( ByteBuffer buffer, byte[] bytes )
+    {
+        if ( ( buffer.remaining() < 4 + bytes.length ) || ( buffer.getInt() != bytes.length ) )
+        {
+            return false;
+        }
+
+        int position = buffer.position();
+
+        for ( int i = 0; i < bytes.length; i++ )
+        {
+            if ( buffer.get( position + i ) != bytes[i] )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Tells if the tuple found for a key and a value is really theirs, when its LMDB key
+     * holds truncated data.
+     */
+    private boolean isTuple( ByteBuffer lmdbValue, K key, V value ) throws LdapException
+    {
+        if ( !allowsDuplicates || !lmdbValue.hasRemaining() )
+        {
+            return hasKey( lmdbValue, truncatedKey( key ) );
+        }
+
+        ByteBuffer buffer = lmdbValue.duplicate();
+        int flags = buffer.get();
+
+        if ( ( flags & FULL_KEY ) != 0 )
+        {
+            if ( !equals( buffer, keySerializer.serialize( key ) ) )
+            {
+                return false;
+            }
+
+            buffer.position( buffer.position() + buffer.getInt( buffer.position() - 4 ) );
+        }
+
+        if ( ( flags & FULL_VALUE ) != 0 )
+        {
+            return buffer.slice().equals( ByteBuffer.wrap( valueSerializer.serialize( value ) ) );
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Compares two byte arrays as LMDB does.
+     *
+     * @param first The first array
+     * @param second The second array
+     * @return A negative value, 0 or a positive value if the first array is lower, equal or greater
+     */
+    static int compare( byte[] first, byte[] second )
+    {
+        int length = Math.min( first.length, second.length );
+
+        for ( int i = 0; i < length; i++ )
+        {
+            int diff = ( first[i] & 0xFF ) - ( second[i] & 0xFF );
+
+            if ( diff != 0 )
+            {
+                return diff;
+            }
+        }
+
+        return first.length - second.length;
+    }
+
+
+    /**
+     * Reads the tuple stored at an LMDB key and value.
+     *
+     * @param lmdbKey The LMDB key
+     * @param lmdbValue The LMDB value
+     * @return The tuple
+     * @throws LdapException If the tuple can't be deserialized
+     */
+    Tuple<K, V> readTuple( ByteBuffer lmdbKey, ByteBuffer lmdbValue ) throws LdapException
+    {
+        if ( allowsDuplicates )
+        {
+            ByteBuffer buffer = lmdbKey.duplicate();
+            ByteArrayOutputStream keyBytes = new ByteArrayOutputStream();
+            boolean truncated;
+
+            while ( true )
+            {
+                byte b = buffer.get();
+
+                if ( b == ESCAPE )
+                {
+                    byte next = buffer.get();
+
+                    if ( next != ESCAPED )
+                    {
+                        truncated = next == TRUNCATED;
+                        break;
+                    }
+                }
+
+                keyBytes.write( b );
+            }
+
+            if ( !truncated && !lmdbValue.hasRemaining() )
+            {
+                K key = keySerializer.deserialize( ByteBuffer.wrap( keyBytes.toByteArray() ) );
+                V value = valueSerializer.deserialize( buffer.slice() );
+
+                return new Tuple<>( key, value );
+            }
+
+            // The truncated data are read from the LMDB value
+            ByteBuffer full = lmdbValue.duplicate();
+            int flags = full.get();
+            K key;
+
+            if ( ( flags & FULL_KEY ) != 0 )
+            {
+                int length = full.getInt();
+                ByteBuffer keyBuffer = full.slice();
+                keyBuffer.limit( length );
+                key = keySerializer.deserialize( keyBuffer );
+                full.position( full.position() + length );
+                buffer.position( buffer.position() + HASH_LENGTH );
+            }
+            else
+            {
+                key = keySerializer.deserialize( ByteBuffer.wrap( keyBytes.toByteArray() ) );
+            }
+
+            V value;
+
+            if ( ( flags & FULL_VALUE ) != 0 )
+            {
+                value = valueSerializer.deserialize( full.slice() );
+            }
+            else
+            {
+                value = valueSerializer.deserialize( buffer.slice() );
+            }
+
+            return new Tuple<>( key, value );
+        }
+
+        boolean keyInValue = hasKeyInValue( lmdbKey );
+
+        return new Tuple<>( readKey( lmdbKey, lmdbValue, keyInValue ), readValue( lmdbValue, keyInValue ) );
+    }
+
+
+    /**
+     * Tells if the LMDB value holds the key, when duplicates are not allowed.
+     */
+    private boolean hasKeyInValue( ByteBuffer lmdbKey )
+    {
+        return !keySerializer.isKeyComplete() || ( lmdbKey.remaining() >= environment.getMaxKeySize() );
+    }
+
+
+    private K readKey( ByteBuffer lmdbKey, ByteBuffer lmdbValue, boolean keyInValue ) throws LdapException
+    {
+        if ( !keyInValue )
+        {
+            return keySerializer.deserialize( lmdbKey.duplicate() );
+        }
+
+        ByteBuffer buffer = lmdbValue.duplicate();
+        int length = buffer.getInt();
+        ByteBuffer keyBuffer = buffer.slice();
+        keyBuffer.limit( length );
+
+        return keySerializer.deserialize( keyBuffer );
+    }
+
+
+    private V readValue( ByteBuffer lmdbValue, boolean keyInValue ) throws LdapException
+    {
+        ByteBuffer buffer = lmdbValue.duplicate();
+
+        if ( keyInValue )
+        {
+            int length = buffer.getInt();
+            buffer.position( buffer.position() + length );
+        }
+
+        return valueSerializer.deserialize( buffer.slice() );
+    }
+
+
+    /**
+     * Opens an LMDB cursor on this table.
+     *
+     * @param txn The LMDB transaction
+     * @return The LMDB cursor
+     */
+    org.lmdbjava.Cursor<ByteBuffer> openCursor( Txn<ByteBuffer> txn )
+    {
+        return dbi.openCursor( txn );
+    }
+
+
+    /**
+     * @return The LMDB environment
+     */
+    LmdbEnvironment getEnvironment()
+    {
+        return environment;
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Table methods
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return get( transaction, key ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            V stored = get( transaction, key );
+
+            if ( stored == null )
+            {
+                return false;
+            }
+
+            if ( valueComparator == null )
+            {
+                return stored.equals( value );
+            }
+
+            return valueComparator.compare( stored, value ) == 0;
+        }
+
+        Txn<ByteBuffer> txn = environment.getReadTxn( transaction );
+
+        try
+        {
+            ByteBuffer lmdbValue = dbi.get( txn, environment.keyBuffer( encodeTuple( key, value ) ) );
+
+            return ( lmdbValue != null ) && isTuple( lmdbValue, key, value );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return seek( transaction, lowerBound( key, null ), null, false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return seek( transaction, upperBound( key, null ), null, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_593 ) );
+        }
+
+        return seek( transaction, lowerBound( key, value ), prefix( key ), false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_593 ) );
+        }
+
+        return seek( transaction, upperBound( key, value ), prefix( key ), true );
+    }
+
+
+    /**
+     * Tells if there is an LMDB key greater than or equal to a bound, or lower than the
+     * bound when looking backward, and having a given prefix if it's not null.
+     */
+    private boolean seek( PartitionTxn transaction, byte[] bound, byte[] prefix, boolean backward )
+        throws LdapException
+    {
+        Txn<ByteBuffer> txn = environment.getReadTxn( transaction );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            boolean found = ( bound != null ) && cursor.get( environment.keyBuffer( bound ), GetOp.MDB_SET_RANGE );
+
+            if ( backward )
+            {
+                // The cursor is on the first key after the bound, we want the previous one
+                found = found ? cursor.seek( SeekOp.MDB_PREV ) : cursor.seek( SeekOp.MDB_LAST );
+            }
+
+            return found && ( ( prefix == null ) || matches( cursor.key(), prefix ) );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return null;
+        }
+
+        Txn<ByteBuffer> txn = environment.getReadTxn( transaction );
+
+        try
+        {
+            byte[] keyBytes = truncatedKey( key );
+
+            if ( !allowsDuplicates )
+            {
+                byte[] lmdbKey = encodeKey( key );
+                ByteBuffer value = dbi.get( txn, environment.keyBuffer( lmdbKey ) );
+
+                if ( ( value == null ) || !hasKey( value, keyBytes ) )
+                {
+                    return null;
+                }
+
+                return readValue( value, hasKeyInValue( ByteBuffer.wrap( lmdbKey ) ) );
+            }
+
+            // The first value of the key
+            byte[] prefix = prefix( key );
+
+            try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+            {
+                boolean found = cursor.get( environment.keyBuffer( prefix ), GetOp.MDB_SET_RANGE );
+
+                while ( found && matches( cursor.key(), prefix ) )
+                {
+                    if ( hasKey( cursor.val(), keyBytes ) )
+                    {
+                        return readTuple( cursor.key(), cursor.val() ).getValue();
+                    }
+
+                    found = cursor.seek( SeekOp.MDB_NEXT );
+                }
+
+                return null;
+            }
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( ( value == null ) || ( key == null ) )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_594 ) );
+        }
+
+        byte[] lmdbKey = encodeTuple( key, value );
+        ByteBuffer lmdbValue = LmdbEnvironment.valueBuffer( encodeValue( key, value ) );
+        Txn<ByteBuffer> txn = environment.getWriteTxn( transaction );
+        boolean done = false;
+
+        try
+        {
+            dbi.put( txn, environment.keyBuffer( lmdbKey ), lmdbValue );
+            done = true;
+        }
+        catch ( LmdbException le )
+        {
+            LOG.error( I18n.err( I18n.ERR_131, key, name ), le );
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.release( transaction, txn, done );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        Txn<ByteBuffer> txn = environment.getWriteTxn( transaction );
+        boolean done = false;
+
+        try
+        {
+            byte[] keyBytes = truncatedKey( key );
+
+            if ( !allowsDuplicates )
+            {
+                ByteBuffer lmdbKey = environment.keyBuffer( encodeKey( key ) );
+                ByteBuffer value = ( keyBytes == null ) ? null : dbi.get( txn, lmdbKey );
+
+                if ( ( value == null ) || hasKey( value, keyBytes ) )
+                {
+                    dbi.delete( txn, lmdbKey );
+                }
+            }
+            else
+            {
+                // Remove all the tuples of the key
+                byte[] prefix = prefix( key );
+
+                try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+                {
+                    boolean found = cursor.get( environment.keyBuffer( prefix ), GetOp.MDB_SET_RANGE );
+
+                    while ( found && matches( cursor.key(), prefix ) )
+                    {
+                        if ( hasKey( cursor.val(), keyBytes ) )
+                        {
+                            cursor.delete();
+                            found = cursor.get( environment.keyBuffer( prefix ), GetOp.MDB_SET_RANGE );
+                        }
+                        else
+                        {
+                            found = cursor.seek( SeekOp.MDB_NEXT );
+                        }
+                    }
+                }
+            }
+
+            done = true;
+        }
+        catch ( LmdbException le )
+        {
+            LOG.error( I18n.err( I18n.ERR_133, key, name ), le );
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.release( transaction, txn, done );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            // Only remove the key if it's associated with this value
+            if ( has( transaction, key, value ) )
+            {
+                remove( transaction, key );
+            }
+
+            return;
+        }
+
+        Txn<ByteBuffer> txn = environment.getWriteTxn( transaction );
+        boolean done = false;
+
+        try
+        {
+            byte[] lmdbKey = encodeTuple( key, value );
+            ByteBuffer lmdbValue = dbi.get( txn, environment.keyBuffer( lmdbKey ) );
+
+            if ( ( lmdbValue != null ) && isTuple( lmdbValue, key, value ) )
+            {
+                dbi.delete( txn, environment.keyBuffer( lmdbKey ) );
+            }
+
+            done = true;
+        }
+        catch ( LmdbException le )
+        {
+            LOG.error( I18n.err( I18n.ERR_133, key, name ), le );
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.release( transaction, txn, done );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * The cursor uses its own read transaction, use {@link #cursor(PartitionTxn)} to browse
+     * the table in a given transaction.
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor()
+    {
+        return new LmdbCursor<>( this, null, null );
+    }
+
+
+    /**
+     * Creates a cursor on all the tuples of this table.
+     *
+     * @param partitionTxn The transaction to use
+     * @return The cursor
+     */
+    public Cursor<Tuple<K, V>> cursor( PartitionTxn partitionTxn )
+    {
+        return new LmdbCursor<>( this, partitionTxn, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new LmdbCursor<>( this, partitionTxn, prefix( key ), truncatedKey( key ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<V> valueCursor( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new LmdbValueCursor<>( new LmdbCursor<>( this, transaction, prefix( key ), truncatedKey( key ) ),
+            key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction ) throws LdapException
+    {
+        Txn<ByteBuffer> txn = environment.getReadTxn( transaction );
+
+        try
+        {
+            return dbi.stat( txn ).entries;
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return 0L;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            return has( transaction, key ) ? 1L : 0L;
+        }
+
+        byte[] prefix = prefix( key );
+        byte[] keyBytes = truncatedKey( key );
+        Txn<ByteBuffer> txn = environment.getReadTxn( transaction );
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            long count = 0L;
+            boolean found = cursor.get( environment.keyBuffer( prefix ), GetOp.MDB_SET_RANGE );
+
+            while ( found && matches( cursor.key(), prefix ) )
+            {
+                if ( hasKey( cursor.val(), keyBytes ) )
+                {
+                    count++;
+                }
+
+                found = cursor.seek( SeekOp.MDB_NEXT );
+            }
+
+            return count;
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.release( transaction, txn, false );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long greaterThanCount( PartitionTxn transaction, K key ) throws LdapException
+    {
+        // take a best guess
+        return Math.min( count( transaction ), 10L );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lessThanCount( PartitionTxn transaction, K key ) throws LdapException
+    {
+        // take a best guess
+        return Math.min( count( transaction ), 10L );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( PartitionTxn transaction ) throws LdapException
+    {
+        // The LMDB databases are closed with the environment
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append( "LMDB table :\n" ).append( super.toString() );
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the LmdbTable, with and without duplicates.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbTableTest
+{
+    private static final Comparator<String> COMPARATOR = new Comparator<String>()
+    {
+        @Override
+        public int compare( String s1, String s2 )
+        {
+            return s1.compareTo( s2 );
+        }
+    };
+
+    /** A key which starts like "a", followed by a 0x00 byte */
+    private static final String A_NUL = "a\u0000";
+
+    /** The start of the keys too long to be stored in the LMDB keys */
+    private static final String LONG_PREFIX = repeat( 'x', 1000 );
+
+    private LmdbEnvironment environment;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        environment = new LmdbEnvironment( tempFolder.newFolder( LmdbTableTest.class.getSimpleName() ),
+            10L * 1024L * 1024L, 8, false );
+    }
+
+
+    @After
+    public void teardown() throws Exception
+    {
+        if ( environment != null )
+        {
+            environment.close();
+        }
+    }
+
+
+    private static String repeat( char c, int count )
+    {
+        StringBuilder sb = new StringBuilder( count );
+
+        for ( int i = 0; i < count; i++ )
+        {
+            sb.append( c );
+        }
+
+        return sb.toString();
+    }
+
+
+    private LmdbTable<String, String> createTable( String name, boolean allowDuplicates )
+    {
+        return new LmdbTable<>( environment, null, name, COMPARATOR, LmdbSerializer.STRING, COMPARATOR,
+            LmdbSerializer.STRING, allowDuplicates );
+    }
+
+
+    @Test
+    public void testNoDuplicates() throws Exception
+    {
+        LmdbTable<String, String> table = createTable( "nodups", false );
+
+        table.put( null, "a", "1" );
+        table.put( null, "b", "2" );
+        table.put( null, "a", "3" );
+
+        assertEquals( 2, table.count( null ) );
+        assertEquals( "3", table.get( null, "a" ) );
+        assertTrue( table.has( null, "a", "3" ) );
+        assertFalse( table.has( null, "a", "1" ) );
+        assertTrue( table.hasGreaterOrEqual( null, "b" ) );
+        assertFalse( table.hasGreaterOrEqual( null, "c" ) );
+        assertTrue( table.hasLessOrEqual( null, "a" ) );
+        assertFalse( table.hasLessOrEqual( null, "0" ) );
+
+        // The value must match
+        table.remove( null, "a", "1" );
+        assertEquals( "3", table.get( null, "a" ) );
+
+        table.remove( null, "a" );
+        assertNull( table.get( null, "a" ) );
+        assertEquals( 1, table.count( null ) );
+    }
+
+
+    @Test
+    public void testDuplicates() throws Exception
+    {
+        LmdbTable<String, String> table = createTable( "dups", true );
+
+        table.put( null, "a", "2" );
+        table.put( null, "a", "1" );
+        table.put( null, A_NUL, "0" );
+        table.put( null, "b", "1" );
+
+        // Adding an existing tuple does nothing
+        table.put( null, "a", "1" );
+
+        assertEquals( 4, table.count( null ) );
+        assertEquals( 2, table.count( null, "a" ) );
+        assertEquals( 1, table.count( null, A_NUL ) );
+        assertEquals( "1", table.get( null, "a" ) );
+        assertTrue( table.has( null, "a", "2" ) );
+        assertFalse( table.has( null, "a", "0" ) );
+        assertTrue( table.hasGreaterOrEqual( null, "a", "2" ) );
+        assertFalse( table.hasGreaterOrEqual( null, "a", "3" ) );
+        assertTrue( table.hasLessOrEqual( null, "a", "1" ) );
+        assertFalse( table.hasLessOrEqual( null, "a", "0" ) );
+
+        table.remove( null, "a", "1" );
+        assertEquals( "2", table.get( null, "a" ) );
+
+        table.remove( null, "a" );
+        assertFalse( table.has( null, "a" ) );
+        assertEquals( "0", table.get( null, A_NUL ) );
+        assertEquals( 2, table.count( null ) );
+    }
+
+
+    @Test
+    public void testCursor() throws Exception
+    {
+        LmdbTable<String, String> table = createTable( "cursor", true );
+
+        table.put( null, "a", "1" );
+        table.put( null, "a", "2" );
+        table.put( null, A_NUL, "0" );
+        table.put( null, "b", "1" );
+
+        try ( Cursor<Tuple<String, String>> cursor = table.cursor() )
+        {
+            // Before the second value of a
+            cursor.before( new Tuple<String, String>( "a", "2" ) );
+            assertTrue( cursor.next() );
+            assertEquals( "a", cursor.get().getKey() );
+            assertEquals( "2", cursor.get().getValue() );
+
+            // After all the values of a
+            cursor.after( new Tuple<String, String>( "a", null ) );
+            assertTrue( cursor.next() );
+            assertEquals( A_NUL, cursor.get().getKey() );
+            assertTrue( cursor.previous() );
+            assertEquals( "2", cursor.get().getValue() );
+
+            assertTrue( cursor.last() );
+            assertEquals( "b", cursor.get().getKey() );
+            assertFalse( cursor.next() );
+        }
+
+        // The values of a key
+        try ( Cursor<String> values = table.valueCursor( null, "a" ) )
+        {
+            assertTrue( values.next() );
+            assertEquals( "1", values.get() );
+            assertTrue( values.next() );
+            assertEquals( "2", values.get() );
+            assertFalse( values.next() );
+
+            assertTrue( values.last() );
+            assertEquals( "2", values.get() );
+
+            values.after( "1" );
+            assertTrue( values.next() );
+            assertEquals( "2", values.get() );
+        }
+    }
+
+
+    @Test
+    public void testTransactions() throws Exception
+    {
+        LmdbTable<String, String> table = createTable( "txn", false );
+        table.put( null, "a", "1" );
+
+        LmdbPartitionReadTxn readTxn = new LmdbPartitionReadTxn( environment );
+        assertEquals( "1", table.get( readTxn, "a" ) );
+
+        LmdbPartitionWriteTxn writeTxn = new LmdbPartitionWriteTxn( environment );
+        table.put( writeTxn, "a", "2" );
+        table.put( writeTxn, "b", "3" );
+
+        // The changes are visible in the write transaction only
+        assertEquals( "2", table.get( writeTxn, "a" ) );
+        writeTxn.commit();
+
+        // The read transaction still sees its snapshot
+        assertEquals( "1", table.get( readTxn, "a" ) );
+        assertFalse( table.has( readTxn, "b" ) );
+        readTxn.close();
+
+        assertEquals( "2", table.get( null, "a" ) );
+
+        // An aborted transaction is discarded
+        writeTxn = new LmdbPartitionWriteTxn( environment );
+        table.remove( writeTxn, "b" );
+        writeTxn.abort();
+
+        assertEquals( "3", table.get( null, "b" ) );
+    }
+
+
+    @Test
+    public void testLongKeysNoDuplicates() throws Exception
+    {
+        LmdbTable<String, String> table = createTable( "longnodups", false );
+        String key1 = LONG_PREFIX + "1";
+        String key2 = LONG_PREFIX + "2";
+        String shortKey = LONG_PREFIX.substring( 0, 100 );
+
+        table.put( null, key1, "1" );
+        table.put( null, key2, "2" );
+        table.put( null, shortKey, "0" );
+
+        assertEquals( 3, table.count( null ) );
+        assertEquals( "1", table.get( null, key1 ) );
+        assertEquals( "2", table.get( null, key2 ) );
+        assertEquals( "0", table.get( null, shortKey ) );
+        assertNull( table.get( null, LONG_PREFIX + "3" ) );
+        assertTrue( table.has( null, key2, "2" ) );
+
+        // Removing a missing key sharing the truncated bytes keeps the others
+        table.remove( null, LONG_PREFIX + "3" );
+        assertEquals( 3, table.count( null ) );
+
+        table.remove( null, key1 );
+        assertNull( table.get( null, key1 ) );
+        assertEquals( "2", table.get( null, key2 ) );
+
+        try ( Cursor<Tuple<String, String>> cursor = table.cursor() )
+        {
+            assertTrue( cursor.next() );
+            assertEquals( shortKey, cursor.get().getKey() );
+            assertTrue( cursor.next() );
+            assertEquals( key2, cursor.get().getKey() );
+            assertEquals( "2", cursor.get().getValue() );
+            assertFalse( cursor.next() );
+        }
+    }
+
+
+    @Test
+    public void testLongKeysDuplicates() throws Exception
+    {
+        LmdbTable<String, String> table = createTable( "longdups", true );
+        String key1 = LONG_PREFIX + "1";
+        String key2 = LONG_PREFIX + "2";
+
+        table.put( null, key1, "b" );
+        table.put( null, key1, "a" );
+        table.put( null, key2, "c" );
+        table.put( null, "y", "d" );
+
+        assertEquals( 4, table.count( null ) );
+        assertEquals( 2, table.count( null, key1 ) );
+        assertEquals( 1, table.count( null, key2 ) );
+        assertEquals( 0, table.count( null, LONG_PREFIX + "3" ) );
+        assertEquals( "a", table.get( null, key1 ) );
+        assertEquals( "c", table.get( null, key2 ) );
+        assertTrue( table.has( null, key1, "b" ) );
+        assertFalse( table.has( null, key2, "a" ) );
+
+        // The range lookups find the keys sharing the truncated bytes
+        assertTrue( table.hasGreaterOrEqual( null, key2 ) );
+        assertTrue( table.hasLessOrEqual( null, key1 ) );
+
+        // The values of a key don't include the ones of the other keys
+        try ( Cursor<String> values = table.valueCursor( null, key1 ) )
+        {
+            assertTrue( values.next() );
+            assertEquals( "a", values.get() );
+            assertTrue( values.next() );
+            assertEquals( "b", values.get() );
+            assertFalse( values.next() );
+
+            assertTrue( values.last() );
+            assertEquals( "b", values.get() );
+            assertTrue( values.previous() );
+            assertEquals( "a", values.get() );
+            assertFalse( values.previous() );
+        }
+
+        table.remove( null, key1, "c" );
+        assertEquals( 1, table.count( null, key2 ) );
+
+        table.remove( null, key1 );
+        assertFalse( table.has( null, key1 ) );
+        assertEquals( "c", table.get( null, key2 ) );
+        assertEquals( 2, table.count( null ) );
+
+        try ( Cursor<Tuple<String, String>> cursor = table.cursor() )
+        {
+            assertTrue( cursor.next() );
+            assertEquals( key2, cursor.get().getKey() );
+            assertEquals( "c", cursor.get().getValue() );
+            assertTrue( cursor.next() );
+            assertEquals( "y", cursor.get().getKey() );
+            assertFalse( cursor.next() );
+        }
+    }
+
+
+    @Test
+    public void testLongValues() throws Exception
+    {
+        LmdbTable<String, String> table = createTable( "longvalues", true );
+        String value1 = LONG_PREFIX + "1";
+        String value2 = LONG_PREFIX + "2";
+
+        table.put( null, "a", value2 );
+        table.put( null, "a", value1 );
+
+        assertEquals( 2, table.count( null, "a" ) );
+        assertTrue( table.has( null, "a", value1 ) );
+        assertFalse( table.has( null, "a", LONG_PREFIX + "3" ) );
+
+        try ( Cursor<String> values = table.valueCursor( null, "a" ) )
+        {
+            assertTrue( values.next() );
+            String first = values.get();
+            assertTrue( values.next() );
+            String second = values.get();
+            assertFalse( values.next() );
+
+            // The truncated values are sorted by their hash
+            assertTrue( ( value1.equals( first ) && value2.equals( second ) )
+                || ( value2.equals( first ) && value1.equals( second ) ) );
+        }
+
+        table.remove( null, "a", value1 );
+        assertFalse( table.has( null, "a", value1 ) );
+        assertTrue( table.has( null, "a", value2 ) );
+    }
+
+
+    @Test
+    public void testStringOrder() throws Exception
+    {
+        LmdbTable<String, String> table = createTable( "stringorder", false );
+
+        // A supplementary character is lower than U+FFFD in the String order, not in UTF-8
+        table.put( null, "\uFFFD", "1" );
+        table.put( null, "\uD83D\uDE00", "2" );
+        table.put( null, "\u00E9", "3" );
+
+        try ( Cursor<Tuple<String, String>> cursor = table.cursor() )
+        {
+            assertTrue( cursor.next() );
+            assertEquals( "\u00E9", cursor.get().getKey() );
+            assertTrue( cursor.next() );
+            assertEquals( "\uD83D\uDE00", cursor.get().getKey() );
+            assertTrue( cursor.next() );
+            assertEquals( "\uFFFD", cursor.get().getKey() );
+            assertFalse( cursor.next() );
+        }
+    }
+
+
+    @Test
+    public void testIntegerOrder() throws Exception
+    {
+        String[] sorted =
+            { "-1000", "-999", "-10", "-9", "-1", "0", "1", "9", "10", "999", "1000" };
+
+        for ( int i = 0; i < sorted.length; i++ )
+        {
+            byte[] bytes = LmdbSerializer.INTEGER.serialize( sorted[i] );
+            assertEquals( sorted[i], LmdbSerializer.INTEGER.deserialize( ByteBuffer.wrap( bytes ) ) );
+
+            if ( i > 0 )
+            {
+                assertTrue( LmdbTable.compare( LmdbSerializer.INTEGER.serialize( sorted[i - 1] ), bytes ) < 0 );
+            }
+        }
+
+        // The leading zeros of the assertion values are ignored
+        assertEquals( "7", LmdbSerializer.INTEGER.deserialize( ByteBuffer.wrap(
+            LmdbSerializer.INTEGER.serialize( "007" ) ) ) );
+    }
+}
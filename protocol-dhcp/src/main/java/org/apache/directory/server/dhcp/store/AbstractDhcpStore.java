@@ -113,6 +113,32 @@ public abstract class AbstractDhcpStore implements DhcpStore
                 o.merge( host.getOptions() );
             }
         }
+        else
+        {
+            // no designated host : try to get an address from the subnet's pool
+            InetAddress clientAddress = allocateAddress( subnet, requestedAddress );
+
+            if ( null != clientAddress )
+            {
+                Map properties = getProperties( subnet );
+
+                lease = new Lease();
+                lease.setAcquired( System.currentTimeMillis() );
+
+                long leaseTime = determineLeaseTime( requestedLeaseTime, properties );
+
+                lease.setExpires( System.currentTimeMillis() + leaseTime );
+
+                lease.setHardwareAddress( hardwareAddress );
+                lease.setState( Lease.STATE_NEW );
+                lease.setClientAddress( clientAddress );
+
+                // add subnet settings
+                OptionsField o = lease.getOptions();
+                o.add( new SubnetMask( subnet.getNetmask() ) );
+                o.merge( subnet.getOptions() );
+            }
+        }
 
         // update the lease state
         if ( null != lease && lease.getState() != Lease.STATE_ACTIVE )
@@ -258,7 +284,7 @@ public abstract class AbstractDhcpStore implements DhcpStore
     /*
      * @see org.apache.directory.server.dhcp.store.DhcpStore#releaseLease(org.apache.directory.server.dhcp.service.Lease)
      */
-    public void releaseLease( Lease lease )
+    public void releaseLease( Lease lease ) throws DhcpException
     {
         lease.setState( Lease.STATE_RELEASED );
         updateLease( lease );
@@ -269,8 +295,9 @@ public abstract class AbstractDhcpStore implements DhcpStore
      * Update the (possibly changed) lease in the store.
      * 
      * @param lease
+     * @throws DhcpException if the lease can't be stored
      */
-    protected abstract void updateLease( Lease lease );
+    protected abstract void updateLease( Lease lease ) throws DhcpException;
 
 
     /**
@@ -305,8 +332,10 @@ public abstract class AbstractDhcpStore implements DhcpStore
      * @param hardwareAddress
      * @param existingLease
      * @return Map
+     * @throws DhcpException if the leases can't be read
      */
-    protected abstract Lease findExistingLease( HardwareAddress hardwareAddress, Lease existingLease );
+    protected abstract Lease findExistingLease( HardwareAddress hardwareAddress, Lease existingLease )
+        throws DhcpException;
 
 
     /**
@@ -319,6 +348,22 @@ public abstract class AbstractDhcpStore implements DhcpStore
     protected abstract Host findDesignatedHost( HardwareAddress hardwareAddress ) throws DhcpException;
 
 
+    /**
+     * Allocate a free address from the pool of a subnet, for a client which has
+     * neither an existing lease nor a designated host. The default implementation
+     * has no pool.
+     * 
+     * @param subnet the subnet the client belongs to
+     * @param requestedAddress the address requested by the client, or <code>null</code>
+     * @return the allocated address, or <code>null</code> if no address is available
+     * @throws DhcpException if the leases can't be read
+     */
+    protected InetAddress allocateAddress( Subnet subnet, InetAddress requestedAddress ) throws DhcpException
+    {
+        return null;
+    }
+
+
     /**
      * Find the subnet definition matching the given address.
      * 
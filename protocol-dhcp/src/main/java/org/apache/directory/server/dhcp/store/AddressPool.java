@@ -0,0 +1,293 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * The pool of the IPv4 addresses which can be given to the clients of a subnet, between
+ * the minimum and the maximum addresses of its range. The allocated addresses are stored
+ * in a bitmap which is updated without any lock, so that many threads can allocate
+ * addresses concurrently. The search for a free address starts after the last allocated
+ * one, so the pool does not have to be scanned from its beginning each time.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AddressPool
+{
+    /** The first address of the pool */
+    private final long first;
+
+    /** The number of addresses in the pool */
+    private final int size;
+
+    /** The allocated addresses, one bit per address */
+    private final AtomicLongArray allocated;
+
+    /** The position the next search starts from */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /** The number of allocated addresses */
+    private final AtomicInteger count = new AtomicInteger();
+
+
+    /**
+     * Creates a new instance of AddressPool.
+     *
+     * @param rangeMin The first address of the pool
+     * @param rangeMax The last address of the pool
+     */
+    public AddressPool( InetAddress rangeMin, InetAddress rangeMax )
+    {
+        if ( !( rangeMin instanceof Inet4Address ) || !( rangeMax instanceof Inet4Address ) )
+        {
+            throw new IllegalArgumentException( "Only IPv4 ranges are supported" );
+        }
+
+        first = toLong( rangeMin );
+        long last = toLong( rangeMax );
+
+        if ( last < first )
+        {
+            throw new IllegalArgumentException( "Empty range " + rangeMin + " - " + rangeMax );
+        }
+
+        size = ( int ) ( last - first + 1 );
+        allocated = new AtomicLongArray( ( size + 63 ) / 64 );
+    }
+
+
+    /**
+     * Converts an IPv4 address to a long.
+     *
+     * @param address The address
+     * @return The address as an unsigned value
+     */
+    static long toLong( InetAddress address )
+    {
+        byte[] bytes = address.getAddress();
+        long value = 0L;
+
+        for ( byte b : bytes )
+        {
+            value = ( value << 8 ) | ( b & 0xFF );
+        }
+
+        return value;
+    }
+
+
+    private InetAddress toAddress( int position )
+    {
+        long value = first + position;
+        byte[] bytes = new byte[]
+            {
+                ( byte ) ( value >>> 24 ),
+                ( byte ) ( value >>> 16 ),
+                ( byte ) ( value >>> 8 ),
+                ( byte ) value
+        };
+
+        try
+        {
+            return InetAddress.getByAddress( bytes );
+        }
+        catch ( UnknownHostException uhe )
+        {
+            // Can't happen, the address has the right length
+            throw new IllegalStateException( uhe );
+        }
+    }
+
+
+    /**
+     * Gets the position of an address in the pool.
+     *
+     * @return The position, or -1 if the address is not in the pool
+     */
+    private int getPosition( InetAddress address )
+    {
+        if ( !( address instanceof Inet4Address ) )
+        {
+            return -1;
+        }
+
+        long position = toLong( address ) - first;
+
+        return ( ( position >= 0 ) && ( position < size ) ) ? ( int ) position : -1;
+    }
+
+
+    /**
+     * Tells if an address belongs to this pool.
+     *
+     * @param address The address
+     * @return <tt>true</tt> if the address is between the minimum and the maximum addresses
+     */
+    public boolean contains( InetAddress address )
+    {
+        return getPosition( address ) >= 0;
+    }
+
+
+    /**
+     * Marks an address as allocated.
+     *
+     * @param address The address
+     * @return <tt>true</tt> if the address was in the pool and free
+     */
+    public boolean reserve( InetAddress address )
+    {
+        int position = getPosition( address );
+
+        return ( position >= 0 ) && set( position );
+    }
+
+
+    private boolean set( int position )
+    {
+        int word = position >>> 6;
+        long bit = 1L << ( position & 63 );
+
+        while ( true )
+        {
+            long current = allocated.get( word );
+
+            if ( ( current & bit ) != 0 )
+            {
+                return false;
+            }
+
+            if ( allocated.compareAndSet( word, current, current | bit ) )
+            {
+                count.incrementAndGet();
+
+                return true;
+            }
+        }
+    }
+
+
+    /**
+     * Allocates a free address, preferably the requested one.
+     *
+     * @param requestedAddress The address requested by the client, or null
+     * @return The allocated address, or null if the pool is exhausted
+     */
+    public InetAddress allocate( InetAddress requestedAddress )
+    {
+        if ( ( requestedAddress != null ) && reserve( requestedAddress ) )
+        {
+            return requestedAddress;
+        }
+
+        int start = next.get();
+        int words = allocated.length();
+
+        // Look for a word with a free bit, starting after the last allocation
+        for ( int i = 0; i <= words; i++ )
+        {
+            int word = ( ( start >>> 6 ) + i ) % words;
+            long current = allocated.get( word );
+
+            while ( current != -1L )
+            {
+                int position = ( word << 6 ) + Long.numberOfTrailingZeros( ~current );
+
+                if ( position >= size )
+                {
+                    // The free bits of the last word are out of the range
+                    break;
+                }
+
+                if ( set( position ) )
+                {
+                    next.set( position + 1 < size ? position + 1 : 0 );
+
+                    return toAddress( position );
+                }
+
+                current = allocated.get( word );
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Frees an allocated address.
+     *
+     * @param address The address
+     */
+    public void release( InetAddress address )
+    {
+        int position = getPosition( address );
+
+        if ( position < 0 )
+        {
+            return;
+        }
+
+        int word = position >>> 6;
+        long bit = 1L << ( position & 63 );
+
+        while ( true )
+        {
+            long current = allocated.get( word );
+
+            if ( ( current & bit ) == 0 )
+            {
+                return;
+            }
+
+            if ( allocated.compareAndSet( word, current, current & ~bit ) )
+            {
+                count.decrementAndGet();
+
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of addresses in the pool
+     */
+    public int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The number of allocated addresses
+     */
+    public int getAllocatedCount()
+    {
+        return count.get();
+    }
+}
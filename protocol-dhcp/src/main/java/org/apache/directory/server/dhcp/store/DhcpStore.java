@@ -97,6 +97,7 @@ public interface DhcpStore
      * Release the specified lease. 
      * 
      * @param lease
+     * @throws DhcpException if the lease can't be released in the store
      */
-    void releaseLease( Lease lease );
+    void releaseLease( Lease lease ) throws DhcpException;
 }
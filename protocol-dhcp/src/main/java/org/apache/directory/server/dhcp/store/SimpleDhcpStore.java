@@ -20,26 +20,31 @@
 package org.apache.directory.server.dhcp.store;
 
 
+import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.text.ParseException;
 import java.util.Hashtable;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.naming.Context;
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.InitialDirContext;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.util.DateUtils;
 import org.apache.directory.server.dhcp.DhcpException;
 import org.apache.directory.server.dhcp.messages.HardwareAddress;
 import org.apache.directory.server.dhcp.options.OptionsField;
@@ -48,15 +53,85 @@ import org.apache.directory.server.dhcp.service.Lease;
 
 /**
  * Very simple dummy/proof-of-concept implementation of a DhcpStore.
+ * <p>
+ * The leases are indexed by hardware address, the subnets by address range, and
+ * the free addresses of each subnet are allocated from a pool, so that the
+ * requests can be served concurrently without scanning the existing leases. The
+ * hosts read from the directory are kept for a while, so that each request does
+ * not need a search.
+ * <p>
+ * The leases are stored in the directory too, as <em>dhcpLeases</em> entries of
+ * the dhcp schema, named after their address, below <em>ou=leases</em>. They are
+ * read back the first time a lease is needed, so that a restarted server doesn't
+ * give an address which is still leased to another client. The memory maps are
+ * only a cache of these entries.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class SimpleDhcpStore extends AbstractDhcpStore
 {
+    /** The time a host read from the directory is kept, in milliseconds */
+    private static final long HOST_LOOKUP_TIME_TO_LIVE = 60000L;
+
+    /** The number of host searches kept before the expired ones are removed */
+    private static final int HOST_LOOKUP_PURGE_SIZE = 10000;
+
+    /** The entry containing the leases */
+    private static final String LEASES_RDN = "ou=leases";
+
+    /** The object class of the lease entries */
+    private static final String LEASE_OC = "dhcpLeases";
+
+    /** The attribute holding the state of a lease */
+    private static final String ADDRESS_STATE_AT = "dhcpAddressState";
+
+    /** The attribute holding the hardware address of the client */
+    private static final String HW_ADDRESS_AT = "dhcpHWAddress";
+
+    /** The attribute holding the time the lease has been acquired */
+    private static final String START_TIME_AT = "dhcpStartTimeOfState";
+
+    /** The attribute holding the time the lease expires */
+    private static final String EXPIRATION_TIME_AT = "dhcpExpirationTime";
+
+    /** The hardware type of the ethernet addresses, in the dhcpHWAddress values */
+    private static final String ETHERNET = "ethernet";
+
     // a map of current leases
-    private Map leases = new HashMap();
+    private final ConcurrentMap<HardwareAddress, Lease> leases = new ConcurrentHashMap<>();
+
+    private final SubnetIndex subnets = new SubnetIndex();
+
+    // the address pools, per subnet
+    private final ConcurrentMap<Subnet, AddressPool> pools = new ConcurrentHashMap<>();
+
+    // the hosts which have been explicitly added
+    private final ConcurrentMap<HardwareAddress, Host> hosts = new ConcurrentHashMap<>();
+
+    // the hosts read from the directory, or the hardware addresses without host
+    private final ConcurrentMap<HardwareAddress, HostLookup> hostLookups = new ConcurrentHashMap<>();
+
+    // tells if the leases stored in the directory have been read
+    private volatile boolean leasesLoaded;
+
+    /**
+     * The result of a host search in the directory.
+     */
+    private static class HostLookup
+    {
+        /** The host, or null if there is none */
+        private final Host host;
 
-    private List subnets = new ArrayList();
+        /** The time after which the directory must be searched again */
+        private final long expiration;
+
+
+        private HostLookup( Host host, long expiration )
+        {
+            this.host = host;
+            this.expiration = expiration;
+        }
+    }
 
 
     //This will suppress PMD.AvoidUsingHardCodedIP warnings in this class
@@ -65,7 +140,7 @@ public class SimpleDhcpStore extends AbstractDhcpStore
     {
         try
         {
-            subnets.add( new Subnet( InetAddress.getByName( "192.168.168.0" ),
+            addSubnet( new Subnet( InetAddress.getByName( "192.168.168.0" ),
                 InetAddress.getByName( "255.255.255.0" ), InetAddress.getByName( "192.168.168.159" ), InetAddress
                     .getByName( "192.168.168.179" ) ) );
         }
@@ -76,6 +151,33 @@ public class SimpleDhcpStore extends AbstractDhcpStore
     }
 
 
+    /**
+     * Add a subnet, and the pool of the addresses of its range.
+     * 
+     * @param subnet
+     */
+    public void addSubnet( Subnet subnet )
+    {
+        subnets.add( subnet );
+
+        if ( subnet.getRangeMin() instanceof Inet4Address && subnet.getRangeMax() instanceof Inet4Address )
+        {
+            pools.put( subnet, new AddressPool( subnet.getRangeMin(), subnet.getRangeMax() ) );
+        }
+    }
+
+
+    /**
+     * Add a host with a designated address.
+     * 
+     * @param host
+     */
+    public void addHost( Host host )
+    {
+        hosts.put( host.getHardwareAddress(), host );
+    }
+
+
     protected DirContext getContext() throws NamingException
     {
         Hashtable env = new Hashtable();
@@ -91,23 +193,63 @@ public class SimpleDhcpStore extends AbstractDhcpStore
      * @param existingLease
      * @return Lease
      */
-    protected Lease findExistingLease( HardwareAddress hardwareAddress, Lease existingLease )
+    protected Lease findExistingLease( HardwareAddress hardwareAddress, Lease existingLease ) throws DhcpException
+    {
+        loadLeases();
+
+        Lease lease = leases.get( hardwareAddress );
+
+        return lease != null ? lease : existingLease;
+    }
+
+
+    /**
+     * @param hardwareAddress
+     * @return Host
+     * @throws DhcpException
+     */
+    protected Host findDesignatedHost( HardwareAddress hardwareAddress ) throws DhcpException
     {
-        if ( leases.containsKey( hardwareAddress ) )
+        Host host = hosts.get( hardwareAddress );
+
+        if ( host != null )
         {
-            existingLease = ( Lease ) leases.get( hardwareAddress );
+            return host;
         }
 
-        return existingLease;
+        HostLookup lookup = hostLookups.get( hardwareAddress );
+
+        long now = System.currentTimeMillis();
+
+        if ( ( lookup == null ) || ( now > lookup.expiration ) )
+        {
+            if ( hostLookups.size() > HOST_LOOKUP_PURGE_SIZE )
+            {
+                for ( Map.Entry<HardwareAddress, HostLookup> entry : hostLookups.entrySet() )
+                {
+                    if ( now > entry.getValue().expiration )
+                    {
+                        hostLookups.remove( entry.getKey(), entry.getValue() );
+                    }
+                }
+            }
+
+            lookup = new HostLookup( lookupHost( hardwareAddress ), now + HOST_LOOKUP_TIME_TO_LIVE );
+            hostLookups.put( hardwareAddress, lookup );
+        }
+
+        return lookup.host;
     }
 
 
     /**
+     * Search the host with the given hardware address in the directory.
+     * 
      * @param hardwareAddress
      * @return Host
      * @throws DhcpException
      */
-    protected Host findDesignatedHost( HardwareAddress hardwareAddress ) throws DhcpException
+    private Host lookupHost( HardwareAddress hardwareAddress ) throws DhcpException
     {
         try
         {
@@ -164,26 +306,436 @@ public class SimpleDhcpStore extends AbstractDhcpStore
      */
     protected Subnet findSubnet( InetAddress clientAddress )
     {
-        for ( Iterator i = subnets.iterator(); i.hasNext(); )
+        return subnets.find( clientAddress );
+    }
+
+
+    /*
+     * @see org.apache.directory.server.dhcp.store.AbstractDhcpStore#allocateAddress(org.apache.directory.server.dhcp.store.Subnet,
+     *      java.net.InetAddress)
+     */
+    protected InetAddress allocateAddress( Subnet subnet, InetAddress requestedAddress ) throws DhcpException
+    {
+        loadLeases();
+
+        AddressPool pool = pools.get( subnet );
+
+        if ( pool == null )
         {
-            Subnet subnet = ( Subnet ) i.next();
+            return null;
+        }
 
-            if ( subnet.contains( clientAddress ) )
+        InetAddress address = pool.allocate( requestedAddress );
+
+        if ( address == null )
+        {
+            // the pool is exhausted : reclaim the expired leases, and try again
+            long now = System.currentTimeMillis();
+
+            for ( Lease lease : leases.values() )
             {
-                return subnet;
+                if ( lease.getExpires() < now && pool.contains( lease.getClientAddress() )
+                    && leases.remove( lease.getHardwareAddress(), lease ) )
+                {
+                    deleteLease( lease.getClientAddress() );
+                    pool.release( lease.getClientAddress() );
+                }
             }
+
+            address = pool.allocate( requestedAddress );
         }
 
-        return null;
+        return address;
     }
 
 
     /*
      * @see org.apache.directory.server.dhcp.store.AbstractDhcpStore#updateLease(org.apache.directory.server.dhcp.service.Lease)
      */
-    public void updateLease( Lease lease )
+    public void updateLease( Lease lease ) throws DhcpException
+    {
+        loadLeases();
+
+        InetAddress address = lease.getClientAddress();
+        Subnet subnet = address != null ? subnets.find( address ) : null;
+        AddressPool pool = subnet != null ? pools.get( subnet ) : null;
+
+        if ( lease.getState() == Lease.STATE_RELEASED )
+        {
+            if ( leases.remove( lease.getHardwareAddress(), lease ) )
+            {
+                // the address is only given again once the directory doesn't lease it
+                deleteLease( address );
+
+                if ( pool != null )
+                {
+                    pool.release( address );
+                }
+            }
+
+            return;
+        }
+
+        if ( pool != null )
+        {
+            pool.reserve( address );
+        }
+
+        storeLease( lease );
+
+        Lease previous = leases.put( lease.getHardwareAddress(), lease );
+
+        // another lease may have been created concurrently for the same client
+        if ( previous != null && previous != lease && previous.getClientAddress() != null
+            && !previous.getClientAddress().equals( address ) )
+        {
+            deleteLease( previous.getClientAddress() );
+
+            Subnet previousSubnet = subnets.find( previous.getClientAddress() );
+            AddressPool previousPool = previousSubnet != null ? pools.get( previousSubnet ) : null;
+
+            if ( previousPool != null )
+            {
+                previousPool.release( previous.getClientAddress() );
+            }
+        }
+    }
+
+
+    /**
+     * Read the leases stored in the directory, the first time the leases are used, and
+     * reserve their addresses in the pools.
+     * 
+     * @throws DhcpException
+     */
+    private void loadLeases() throws DhcpException
+    {
+        if ( leasesLoaded )
+        {
+            return;
+        }
+
+        synchronized ( this )
+        {
+            if ( leasesLoaded )
+            {
+                return;
+            }
+
+            try
+            {
+                DirContext ctx = getContext();
+
+                try
+                {
+                    SearchControls sc = new SearchControls();
+                    sc.setSearchScope( SearchControls.ONELEVEL_SCOPE );
+                    NamingEnumeration<SearchResult> ne = ctx.search( LEASES_RDN, "(objectclass=" + LEASE_OC + ")",
+                        sc );
+
+                    while ( ne.hasMore() )
+                    {
+                        Lease lease = toLease( ne.next().getAttributes() );
+
+                        if ( ( lease != null ) && ( leases.putIfAbsent( lease.getHardwareAddress(), lease ) == null ) )
+                        {
+                            Subnet subnet = subnets.find( lease.getClientAddress() );
+                            AddressPool pool = subnet != null ? pools.get( subnet ) : null;
+
+                            if ( pool != null )
+                            {
+                                pool.reserve( lease.getClientAddress() );
+                            }
+                        }
+                    }
+                }
+                catch ( NameNotFoundException nnfe )
+                {
+                    // no lease has been stored yet
+                    Attributes container = new BasicAttributes( true );
+                    Attribute objectClass = new BasicAttribute( SchemaConstants.OBJECT_CLASS_AT );
+                    objectClass.add( SchemaConstants.TOP_OC );
+                    objectClass.add( SchemaConstants.ORGANIZATIONAL_UNIT_OC );
+                    container.put( objectClass );
+                    container.put( SchemaConstants.OU_AT, "leases" );
+                    ctx.createSubcontext( LEASES_RDN, container ).close();
+                }
+                finally
+                {
+                    ctx.close();
+                }
+            }
+            catch ( NamingException e )
+            {
+                throw new DhcpException( "Can't read the leases", e );
+            }
+
+            leasesLoaded = true;
+        }
+    }
+
+
+    /**
+     * Create a lease from the attributes of its entry.
+     * 
+     * @param attributes
+     * @return Lease, or null if the entry doesn't describe a lease
+     * @throws NamingException
+     */
+    private Lease toLease( Attributes attributes ) throws NamingException
+    {
+        Attribute cn = attributes.get( SchemaConstants.CN_AT );
+        Attribute hwAddress = attributes.get( HW_ADDRESS_AT );
+
+        if ( ( cn == null ) || ( hwAddress == null ) )
+        {
+            return null;
+        }
+
+        try
+        {
+            Lease lease = new Lease();
+            lease.setClientAddress( InetAddress.getByName( ( String ) cn.get() ) );
+            lease.setHardwareAddress( parseHardwareAddress( ( String ) hwAddress.get() ) );
+            lease.setState( toState( ( String ) attributes.get( ADDRESS_STATE_AT ).get() ) );
+            lease.setAcquired( getTime( attributes.get( START_TIME_AT ) ) );
+            lease.setExpires( getTime( attributes.get( EXPIRATION_TIME_AT ) ) );
+
+            return lease;
+        }
+        catch ( UnknownHostException | ParseException | RuntimeException e )
+        {
+            // not a lease stored by this store
+            return null;
+        }
+    }
+
+
+    /**
+     * Store a lease in the directory, in the entry of its address.
+     * 
+     * @param lease
+     * @throws DhcpException
+     */
+    private void storeLease( Lease lease ) throws DhcpException
+    {
+        if ( lease.getClientAddress() == null )
+        {
+            return;
+        }
+
+        String address = lease.getClientAddress().getHostAddress();
+        Attributes attributes = new BasicAttributes( true );
+        attributes.put( ADDRESS_STATE_AT, toAddressState( lease.getState() ) );
+        attributes.put( HW_ADDRESS_AT, toHwAddress( lease.getHardwareAddress() ) );
+        attributes.put( toTimeAttribute( START_TIME_AT, lease.getAcquired() ) );
+        attributes.put( toTimeAttribute( EXPIRATION_TIME_AT, lease.getExpires() ) );
+
+        try
+        {
+            DirContext ctx = getContext();
+
+            try
+            {
+                try
+                {
+                    ctx.modifyAttributes( getLeaseName( address ), DirContext.REPLACE_ATTRIBUTE, attributes );
+                }
+                catch ( NameNotFoundException nnfe )
+                {
+                    // the address hasn't been leased yet, the empty times are not added
+                    Attributes entry = new BasicAttributes( true );
+                    Attribute objectClass = new BasicAttribute( SchemaConstants.OBJECT_CLASS_AT );
+                    objectClass.add( SchemaConstants.TOP_OC );
+                    objectClass.add( LEASE_OC );
+                    entry.put( objectClass );
+                    entry.put( SchemaConstants.CN_AT, address );
+
+                    NamingEnumeration<? extends Attribute> values = attributes.getAll();
+
+                    while ( values.hasMore() )
+                    {
+                        Attribute value = values.next();
+
+                        if ( value.size() > 0 )
+                        {
+                            entry.put( value );
+                        }
+                    }
+
+                    ctx.createSubcontext( getLeaseName( address ), entry ).close();
+                }
+            }
+            finally
+            {
+                ctx.close();
+            }
+        }
+        catch ( NameAlreadyBoundException nabe )
+        {
+            // the entry has been created concurrently, store the lease again
+            storeLease( lease );
+        }
+        catch ( NamingException e )
+        {
+            throw new DhcpException( "Can't store the lease of " + address, e );
+        }
+    }
+
+
+    /**
+     * Delete the lease of an address from the directory.
+     * 
+     * @param clientAddress
+     * @throws DhcpException
+     */
+    private void deleteLease( InetAddress clientAddress ) throws DhcpException
+    {
+        if ( clientAddress == null )
+        {
+            return;
+        }
+
+        String address = clientAddress.getHostAddress();
+
+        try
+        {
+            DirContext ctx = getContext();
+
+            try
+            {
+                ctx.destroySubcontext( getLeaseName( address ) );
+            }
+            catch ( NameNotFoundException nnfe )
+            {
+                // already deleted
+            }
+            finally
+            {
+                ctx.close();
+            }
+        }
+        catch ( NamingException e )
+        {
+            throw new DhcpException( "Can't delete the lease of " + address, e );
+        }
+    }
+
+
+    private static String getLeaseName( String address )
+    {
+        return SchemaConstants.CN_AT + "=" + address + "," + LEASES_RDN;
+    }
+
+
+    private static Attribute toTimeAttribute( String attributeId, long time )
+    {
+        Attribute attribute = new BasicAttribute( attributeId );
+
+        // an attribute without value is removed from the existing lease
+        if ( time >= 0 )
+        {
+            attribute.add( DateUtils.getGeneralizedTime( time ) );
+        }
+
+        return attribute;
+    }
+
+
+    private static long getTime( Attribute attribute ) throws NamingException, ParseException
+    {
+        if ( attribute == null )
+        {
+            return -1L;
+        }
+
+        return DateUtils.getDate( ( String ) attribute.get() ).getTime();
+    }
+
+
+    /**
+     * Convert a lease state to a dhcpAddressState value. The offered leases are
+     * reserved for the client until it requests them.
+     */
+    private static String toAddressState( int state )
     {
-        leases.put( lease.getHardwareAddress(), lease );
+        switch ( state )
+        {
+            case Lease.STATE_OFFERED:
+                return "RESERVED";
+
+            case Lease.STATE_ACTIVE:
+                return "ACTIVE";
+
+            case Lease.STATE_EXPIRED:
+                return "EXPIRED";
+
+            default:
+                return "UNKNOWN";
+        }
+    }
+
+
+    private static int toState( String addressState )
+    {
+        switch ( addressState )
+        {
+            case "RESERVED":
+                return Lease.STATE_OFFERED;
+
+            case "ACTIVE":
+                return Lease.STATE_ACTIVE;
+
+            case "EXPIRED":
+                return Lease.STATE_EXPIRED;
+
+            default:
+                return Lease.STATE_NEW;
+        }
+    }
+
+
+    /**
+     * Convert a hardware address to a dhcpHWAddress value, like
+     * <code>ethernet 00:11:22:33:44:55</code>. The other hardware types are
+     * stored as returned by {@link HardwareAddress#toString()}.
+     */
+    private static String toHwAddress( HardwareAddress hardwareAddress )
+    {
+        if ( hardwareAddress.getType() == 1 )
+        {
+            return ETHERNET + " " + hardwareAddress.getNativeRepresentation();
+        }
+
+        return hardwareAddress.toString();
+    }
+
+
+    private static HardwareAddress parseHardwareAddress( String value )
+    {
+        short type = 1;
+        String bytes = value.trim();
+
+        if ( bytes.startsWith( ETHERNET + " " ) )
+        {
+            bytes = bytes.substring( ETHERNET.length() + 1 ).trim();
+        }
+        else
+        {
+            int slash = bytes.indexOf( '/' );
+            type = Short.parseShort( bytes.substring( 0, slash ) );
+            bytes = bytes.substring( slash + 1 );
+        }
+
+        String[] parts = bytes.isEmpty() ? new String[0] : bytes.split( ":" );
+        byte[] address = new byte[parts.length];
+
+        for ( int i = 0; i < parts.length; i++ )
+        {
+            address[i] = ( byte ) Integer.parseInt( parts[i], 16 );
+        }
+
+        return new HardwareAddress( type, ( short ) address.length, address );
     }
 
 
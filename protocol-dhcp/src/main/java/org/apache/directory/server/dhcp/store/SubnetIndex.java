@@ -0,0 +1,137 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * An index of the subnets, finding the subnet an address belongs to without
+ * checking all of them. The IPv4 subnets are sorted by their first address : the
+ * subnet containing an address is the one starting just before it, unless some
+ * subnets are nested, in which case only the subnets starting less than the size of
+ * the largest subnet before the address are checked. The other subnets are checked
+ * one after the other.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubnetIndex
+{
+    /** The IPv4 subnets, per first address */
+    private final ConcurrentNavigableMap<Long, Subnet> ipv4Subnets = new ConcurrentSkipListMap<>();
+
+    /** The number of addresses of the largest IPv4 subnet */
+    private volatile long maxSpan;
+
+    /** The other subnets */
+    private final List<Subnet> otherSubnets = new CopyOnWriteArrayList<>();
+
+
+    /**
+     * Adds a subnet to the index.
+     *
+     * @param subnet The subnet
+     */
+    public void add( Subnet subnet )
+    {
+        if ( subnet.getAddress() instanceof Inet4Address )
+        {
+            ipv4Subnets.put( AddressPool.toLong( subnet.getAddress() ), subnet );
+
+            synchronized ( this )
+            {
+                maxSpan = Math.max( maxSpan, ( 1L << 32 ) - AddressPool.toLong( subnet.getNetmask() ) );
+            }
+        }
+        else
+        {
+            otherSubnets.add( subnet );
+        }
+    }
+
+
+    /**
+     * Removes a subnet from the index.
+     *
+     * @param subnet The subnet
+     */
+    public void remove( Subnet subnet )
+    {
+        if ( subnet.getAddress() instanceof Inet4Address )
+        {
+            ipv4Subnets.remove( AddressPool.toLong( subnet.getAddress() ), subnet );
+        }
+        else
+        {
+            otherSubnets.remove( subnet );
+        }
+    }
+
+
+    /**
+     * Finds the subnet containing an address.
+     *
+     * @param address The address
+     * @return The subnet, or null if the address does not belong to any subnet
+     */
+    public Subnet find( InetAddress address )
+    {
+        if ( address instanceof Inet4Address )
+        {
+            long value = AddressPool.toLong( address );
+
+            // The subnets starting after the address can't contain it, nor the ones
+            // starting before it farther than the size of the largest subnet
+            for ( Map.Entry<Long, Subnet> entry : ipv4Subnets.headMap( value, true ).descendingMap().entrySet() )
+            {
+                if ( value - entry.getKey() >= maxSpan )
+                {
+                    return null;
+                }
+
+                Subnet subnet = entry.getValue();
+
+                if ( subnet.contains( address ) )
+                {
+                    return subnet;
+                }
+            }
+
+            return null;
+        }
+
+        for ( Subnet subnet : otherSubnets )
+        {
+            if ( subnet.contains( address ) )
+            {
+                return subnet;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dhcp.store;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the AddressPool and SubnetIndex classes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@SuppressWarnings("PMD.AvoidUsingHardCodedIP")
+public class AddressPoolTest
+{
+    @Test
+    public void testAllocateAll() throws Exception
+    {
+        AddressPool pool = new AddressPool( InetAddress.getByName( "10.0.0.250" ),
+            InetAddress.getByName( "10.0.1.9" ) );
+        assertEquals( 16, pool.size() );
+
+        Set<InetAddress> addresses = new HashSet<>();
+
+        for ( int i = 0; i < 16; i++ )
+        {
+            InetAddress address = pool.allocate( null );
+            assertNotNull( address );
+            assertTrue( pool.contains( address ) );
+            assertTrue( addresses.add( address ) );
+        }
+
+        assertNull( pool.allocate( null ) );
+        assertEquals( 16, pool.getAllocatedCount() );
+
+        pool.release( InetAddress.getByName( "10.0.1.2" ) );
+        assertEquals( InetAddress.getByName( "10.0.1.2" ), pool.allocate( null ) );
+    }
+
+
+    @Test
+    public void testRequestedAddress() throws Exception
+    {
+        AddressPool pool = new AddressPool( InetAddress.getByName( "192.168.0.10" ),
+            InetAddress.getByName( "192.168.0.20" ) );
+        InetAddress requested = InetAddress.getByName( "192.168.0.15" );
+
+        assertEquals( requested, pool.allocate( requested ) );
+
+        // Already allocated, another address is given
+        InetAddress other = pool.allocate( requested );
+        assertNotNull( other );
+        assertFalse( requested.equals( other ) );
+
+        // Out of the range
+        assertFalse( pool.reserve( InetAddress.getByName( "192.168.0.21" ) ) );
+    }
+
+
+    @Test
+    public void testSubnetIndex() throws Exception
+    {
+        Subnet large = new Subnet( InetAddress.getByName( "10.0.0.0" ), InetAddress.getByName( "255.255.0.0" ),
+            null, null );
+        Subnet nested = new Subnet( InetAddress.getByName( "10.0.5.0" ), InetAddress.getByName( "255.255.255.0" ),
+            null, null );
+        Subnet other = new Subnet( InetAddress.getByName( "192.168.1.0" ),
+            InetAddress.getByName( "255.255.255.0" ), null, null );
+
+        SubnetIndex index = new SubnetIndex();
+        index.add( large );
+        index.add( nested );
+        index.add( other );
+
+        assertSame( nested, index.find( InetAddress.getByName( "10.0.5.12" ) ) );
+        assertSame( large, index.find( InetAddress.getByName( "10.0.6.12" ) ) );
+        assertSame( other, index.find( InetAddress.getByName( "192.168.1.1" ) ) );
+        assertNull( index.find( InetAddress.getByName( "192.168.2.1" ) ) );
+        assertNull( index.find( InetAddress.getByName( "9.0.0.1" ) ) );
+    }
+}
@@ -23,8 +23,10 @@ package org.apache.directory.server.dns;
 import java.io.IOException;
 
 import org.apache.directory.server.dns.protocol.DnsProtocolHandler;
+import org.apache.directory.server.dns.store.CachingRecordStore;
 import org.apache.directory.server.dns.store.RecordStore;
 import org.apache.directory.server.dns.store.jndi.JndiRecordStoreImpl;
+import org.apache.directory.server.dns.store.jndi.RecordCacheListener;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.apache.directory.server.protocol.shared.transport.UdpTransport;
@@ -57,6 +59,12 @@ public class DnsServer extends DirectoryBackedService
     /** The default service name. */
     private static final String SERVICE_NAME_DEFAULT = "ApacheDS DNS Service";
 
+    /** The maximum number of questions which answers are kept in memory, 0 to disable the cache */
+    private int recordCacheSize = CachingRecordStore.DEFAULT_MAX_SIZE;
+
+    /** The listener clearing the record cache when a record is modified */
+    private transient RecordCacheListener recordCacheListener;
+
 
     /**
      * Creates a new instance of DnsConfiguration.
@@ -75,6 +83,22 @@ public class DnsServer extends DirectoryBackedService
     {
         RecordStore store = new JndiRecordStoreImpl( getSearchBaseDn(), getSearchBaseDn(), getDirectoryService() );
 
+        if ( recordCacheSize > 0 )
+        {
+            CachingRecordStore recordCache = new CachingRecordStore( store, recordCacheSize );
+
+            try
+            {
+                recordCacheListener = new RecordCacheListener( getDirectoryService(), recordCache );
+                store = recordCache;
+            }
+            catch ( Exception e )
+            {
+                // Without the listener, the cached records could not be refreshed when modified
+                LOG.error( "Cannot register the DNS record cache listener, the records won't be cached", e );
+            }
+        }
+
         if ( ( transports == null ) || transports.isEmpty() )
         {
             // Default to UDP with port 53
@@ -141,10 +165,35 @@ public class DnsServer extends DirectoryBackedService
             }
         }
 
+        if ( recordCacheListener != null )
+        {
+            recordCacheListener.destroy();
+            recordCacheListener = null;
+        }
+
         LOG.info( "DNS service stopped." );
     }
 
 
+    /**
+     * @return The maximum number of questions which answers are kept in memory
+     */
+    public int getRecordCacheSize()
+    {
+        return recordCacheSize;
+    }
+
+
+    /**
+     * @param recordCacheSize The maximum number of questions which answers are kept in memory,
+     * 0 to read the records from the directory for each question
+     */
+    public void setRecordCacheSize( int recordCacheSize )
+    {
+        this.recordCacheSize = recordCacheSize;
+    }
+
+
     /**
      * @see Object#toString()
      */
@@ -0,0 +1,222 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dns.store;
+
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.server.dns.DnsException;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResponseCode;
+
+
+/**
+ * A RecordStore keeping in memory the records read from another RecordStore, per
+ * question (name, type and class), so that the common questions are answered without
+ * searching the backend. The questions without answer, and the names which do not
+ * exist, are also stored.
+ * <br>
+ * The stored records never expire : the cache must be cleared when the zones are
+ * modified, and it is then filled again as the questions are received. A load which
+ * has been started before the cache is cleared is not stored.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CachingRecordStore implements RecordStore
+{
+    /** The default maximum number of stored questions */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** The store the records are read from */
+    private final RecordStore store;
+
+    /** The stored answers, per question */
+    private final ConcurrentMap<QuestionRecord, CachedAnswer> cache = new ConcurrentHashMap<>();
+
+    /** The maximum number of stored questions */
+    private final int maxSize;
+
+    /** Incremented each time the cache is cleared, so that the loads running concurrently are discarded */
+    private final AtomicLong generation = new AtomicLong();
+
+    /** The statistics */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * An answer stored in the cache : either some records, or the error returned by the store.
+     */
+    private static class CachedAnswer
+    {
+        /** The records, which can't be modified */
+        private final Set<ResourceRecord> records;
+
+        /** The response code of the error, if the name does not exist */
+        private final ResponseCode error;
+
+
+        private CachedAnswer( Set<ResourceRecord> records, ResponseCode error )
+        {
+            this.records = records;
+            this.error = error;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of CachingRecordStore.
+     *
+     * @param store The store the records are read from
+     * @param maxSize The maximum number of stored questions
+     */
+    public CachingRecordStore( RecordStore store, int maxSize )
+    {
+        this.store = store;
+        this.maxSize = maxSize > 0 ? maxSize : DEFAULT_MAX_SIZE;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException
+    {
+        CachedAnswer answer = cache.get( question );
+
+        if ( answer != null )
+        {
+            hits.incrementAndGet();
+        }
+        else
+        {
+            misses.incrementAndGet();
+            answer = load( question );
+        }
+
+        if ( answer.error != null )
+        {
+            throw new DnsException( answer.error );
+        }
+
+        return answer.records;
+    }
+
+
+    /**
+     * Reads the records from the store, and stores them unless the cache has been cleared
+     * in the meantime.
+     */
+    private CachedAnswer load( QuestionRecord question ) throws DnsException
+    {
+        long loadGeneration = generation.get();
+        CachedAnswer answer;
+
+        try
+        {
+            Set<ResourceRecord> records = store.getRecords( question );
+
+            if ( ( records == null ) || records.isEmpty() )
+            {
+                answer = new CachedAnswer( Collections.<ResourceRecord> emptySet(), null );
+            }
+            else
+            {
+                answer = new CachedAnswer( Collections.unmodifiableSet( new HashSet<>( records ) ), null );
+            }
+        }
+        catch ( DnsException de )
+        {
+            // Only a missing name is stored, the other errors may be transient
+            if ( de.getResponseCode() != ResponseCode.NAME_ERROR.convert() )
+            {
+                throw de;
+            }
+
+            answer = new CachedAnswer( null, ResponseCode.NAME_ERROR );
+        }
+
+        if ( cache.size() >= maxSize )
+        {
+            // Make some room, removing any question
+            Iterator<QuestionRecord> questions = cache.keySet().iterator();
+
+            if ( questions.hasNext() )
+            {
+                questions.next();
+                questions.remove();
+            }
+        }
+
+        cache.put( question, answer );
+
+        // The zones may have been modified while the records were read
+        if ( generation.get() != loadGeneration )
+        {
+            cache.remove( question, answer );
+        }
+
+        return answer;
+    }
+
+
+    /**
+     * Removes all the stored answers, and discards the loads in progress. It has to be called
+     * each time a record is added, modified or removed.
+     */
+    public void clear()
+    {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+
+    /**
+     * @return The number of stored questions
+     */
+    public int size()
+    {
+        return cache.size();
+    }
+
+
+    /**
+     * @return The number of questions answered by the cache
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+
+    /**
+     * @return The number of questions which have been read from the store
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dns.store.jndi;
+
+
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.dns.store.CachingRecordStore;
+
+
+/**
+ * A listener clearing a {@link CachingRecordStore} each time a DNS record is added, modified
+ * or removed. The records can be stored anywhere in the DIT when a catalog is used, so all
+ * the entries having the apacheDnsAbstractRecord ObjectClass are watched.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RecordCacheListener extends DirectoryListenerAdapter
+{
+    /** The ObjectClass all the DNS records inherit from */
+    private static final String DNS_ABSTRACT_RECORD_OC = "apacheDnsAbstractRecord";
+
+    /** The cache to clear */
+    private final CachingRecordStore recordCache;
+
+    /** The DirectoryService the listener is registered in */
+    private final DirectoryService directoryService;
+
+
+    /**
+     * Creates a new instance of RecordCacheListener, and registers it.
+     *
+     * @param directoryService The DirectoryService storing the records
+     * @param recordCache The cache to clear when a record is modified
+     * @throws Exception If the listener cannot be registered
+     */
+    public RecordCacheListener( DirectoryService directoryService, CachingRecordStore recordCache )
+        throws Exception
+    {
+        this.directoryService = directoryService;
+        this.recordCache = recordCache;
+
+        AttributeType ocAt = directoryService.getAtProvider().getObjectClass();
+
+        NotificationCriteria criteria = new NotificationCriteria( directoryService.getSchemaManager() );
+        criteria.setBase( Dn.ROOT_DSE );
+        criteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
+        criteria.setFilter( new EqualityNode<String>( ocAt, new Value( ocAt, DNS_ABSTRACT_RECORD_OC ) ) );
+        criteria.setScope( SearchScope.SUBTREE );
+
+        directoryService.getEventService().addListener( this, criteria );
+    }
+
+
+    /**
+     * Unregisters the listener, and clears the cache.
+     */
+    public void destroy()
+    {
+        directoryService.getEventService().removeListener( this );
+        recordCache.clear();
+    }
+
+
+    @Override
+    public void entryAdded( AddOperationContext addContext )
+    {
+        recordCache.clear();
+    }
+
+
+    @Override
+    public void entryDeleted( DeleteOperationContext deleteContext )
+    {
+        recordCache.clear();
+    }
+
+
+    @Override
+    public void entryModified( ModifyOperationContext modifyContext )
+    {
+        recordCache.clear();
+    }
+
+
+    @Override
+    public void entryRenamed( RenameOperationContext renameContext )
+    {
+        recordCache.clear();
+    }
+
+
+    @Override
+    public void entryMoved( MoveOperationContext moveContext )
+    {
+        recordCache.clear();
+    }
+
+
+    @Override
+    public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+    {
+        recordCache.clear();
+    }
+
+
+    /**
+     * The cache must be cleared before the operation returns, so that the next question
+     * gets the modified records.
+     */
+    @Override
+    public boolean isSynchronous()
+    {
+        return true;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.dns.store;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Set;
+
+import org.apache.directory.server.dns.DnsException;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResponseCode;
+import org.junit.Test;
+
+
+/**
+ * Tests the CachingRecordStore class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CachingRecordStoreTest
+{
+    private static final QuestionRecord WWW = new QuestionRecord( "www.example.com", RecordType.A, RecordClass.IN );
+
+    private static final QuestionRecord UNKNOWN = new QuestionRecord( "unknown.example.com", RecordType.A,
+        RecordClass.IN );
+
+    /**
+     * A store counting the questions it has received, and which only knows www.example.com.
+     */
+    private static class CountingRecordStore extends RecordStoreStub
+    {
+        private int count;
+
+
+        @Override
+        public Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException
+        {
+            count++;
+
+            if ( !question.getDomainName().equals( "www.example.com" ) )
+            {
+                throw new DnsException( ResponseCode.NAME_ERROR );
+            }
+
+            return super.getRecords( question );
+        }
+    }
+
+
+    @Test
+    public void testRecordsAreCached() throws Exception
+    {
+        CountingRecordStore store = new CountingRecordStore();
+        CachingRecordStore cache = new CachingRecordStore( store, 10 );
+
+        Set<ResourceRecord> records = cache.getRecords( WWW );
+        assertEquals( 2, records.size() );
+        assertEquals( records, cache.getRecords( new QuestionRecord( "www.example.com", RecordType.A,
+            RecordClass.IN ) ) );
+
+        assertEquals( 1, store.count );
+        assertEquals( 1L, cache.getHits() );
+        assertEquals( 1L, cache.getMisses() );
+    }
+
+
+    @Test
+    public void testMissingNameIsCached() throws Exception
+    {
+        CountingRecordStore store = new CountingRecordStore();
+        CachingRecordStore cache = new CachingRecordStore( store, 10 );
+
+        for ( int i = 0; i < 2; i++ )
+        {
+            try
+            {
+                cache.getRecords( UNKNOWN );
+                fail();
+            }
+            catch ( DnsException de )
+            {
+                assertEquals( ResponseCode.NAME_ERROR.convert().intValue(), de.getResponseCode() );
+            }
+        }
+
+        assertEquals( 1, store.count );
+    }
+
+
+    @Test
+    public void testClear() throws Exception
+    {
+        CountingRecordStore store = new CountingRecordStore();
+        CachingRecordStore cache = new CachingRecordStore( store, 10 );
+
+        cache.getRecords( WWW );
+        cache.clear();
+
+        assertEquals( 0, cache.size() );
+        cache.getRecords( WWW );
+        assertEquals( 2, store.count );
+    }
+
+
+    @Test
+    public void testMaxSize() throws Exception
+    {
+        CachingRecordStore cache = new CachingRecordStore( new RecordStoreStub(), 2 );
+
+        cache.getRecords( WWW );
+        cache.getRecords( new QuestionRecord( "www.example.com", RecordType.MX, RecordClass.IN ) );
+        cache.getRecords( new QuestionRecord( "www.example.com", RecordType.TXT, RecordClass.IN ) );
+
+        assertTrue( cache.size() <= 2 );
+    }
+}
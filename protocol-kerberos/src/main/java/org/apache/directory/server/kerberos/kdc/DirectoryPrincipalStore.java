@@ -20,8 +20,13 @@
 package org.apache.directory.server.kerberos.kdc;
 
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import javax.security.auth.kerberos.KerberosPrincipal;
 
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -30,7 +35,10 @@ import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
@@ -38,6 +46,15 @@ import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.kerberos.changepwd.exceptions.ChangePasswdErrorType;
 import org.apache.directory.server.kerberos.changepwd.exceptions.ChangePasswordException;
@@ -46,22 +63,97 @@ import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
 import org.apache.directory.server.protocol.shared.kerberos.GetPrincipal;
 import org.apache.directory.server.protocol.shared.kerberos.StoreUtils;
 import org.apache.directory.shared.kerberos.KerberosAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
  * A PrincipalStore backing entries in a DirectoryService.
  * 
+ * The principals can be cached, so that the KDC does not search the directory for
+ * each ticket request. The cached principals are removed as soon as their entry is
+ * modified, deleted or renamed.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class DirectoryPrincipalStore implements PrincipalStore
 {
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( DirectoryPrincipalStore.class );
+
     /** The directory service backing store for this PrincipalStore. */
     private final DirectoryService directoryService;
     private final Dn searchBaseDn;
 
     private CoreSession adminSession;
 
+    /** The principals found in the directory, per principal name. Null if they are not cached */
+    private final Cache principalCache;
+
+    /** The listener removing the modified principals from the cache */
+    private PrincipalCacheListener principalCacheListener;
+
+    /** Incremented on each invalidation, so that the principals read concurrently are not cached */
+    private final AtomicLong generation = new AtomicLong();
+
+
+    /**
+     * A listener removing the principals from the cache when their entry is changed. It's
+     * synchronous, so that an operation changing a principal completes once the principal
+     * has been removed.
+     */
+    private class PrincipalCacheListener extends DirectoryListenerAdapter
+    {
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            invalidate( addContext.getEntry() );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            invalidate( deleteContext.getEntry() );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            invalidate( modifyContext.getEntry() );
+            invalidate( modifyContext.getAlteredEntry() );
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            invalidate( renameContext.getOriginalEntry() );
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            invalidate( moveContext.getOriginalEntry() );
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            invalidate( moveAndRenameContext.getOriginalEntry() );
+        }
+
+
+        @Override
+        public boolean isSynchronous()
+        {
+            return true;
+        }
+    }
+
 
     /**
      * Creates a new instance of DirectoryPrincipalStore.
@@ -70,10 +162,89 @@ public class DirectoryPrincipalStore implements PrincipalStore
      * @param searchBaseDn The Search Base DN
      */
     public DirectoryPrincipalStore( DirectoryService directoryService, Dn searchBaseDn )
+    {
+        this( directoryService, searchBaseDn, null );
+    }
+
+
+    /**
+     * Creates a new instance of DirectoryPrincipalStore, caching the principals.
+     *
+     * @param directoryService backing store for this PrincipalStore
+     * @param searchBaseDn The Search Base DN
+     * @param principalCache The cache storing the principals, or null if they are not cached
+     */
+    public DirectoryPrincipalStore( DirectoryService directoryService, Dn searchBaseDn, Cache principalCache )
     {
         this.directoryService = directoryService;
         this.adminSession = directoryService.getAdminSession();
         this.searchBaseDn = searchBaseDn;
+        this.principalCache = principalCache;
+
+        if ( principalCache != null )
+        {
+            NotificationCriteria criteria = new NotificationCriteria( directoryService.getSchemaManager() );
+            criteria.setBase( searchBaseDn );
+            criteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
+            criteria.setFilter( new PresenceNode( directoryService.getAtProvider().getObjectClass() ) );
+            criteria.setScope( SearchScope.SUBTREE );
+
+            principalCacheListener = new PrincipalCacheListener();
+
+            try
+            {
+                directoryService.getEventService().addListener( principalCacheListener, criteria );
+            }
+            catch ( Exception e )
+            {
+                // Without the listener, the cached principals could not be removed when modified
+                LOG.error( "Cannot register the principal cache listener, the principals won't be cached", e );
+                principalCacheListener = null;
+            }
+        }
+    }
+
+
+    /**
+     * Removes the principals of an entry from the cache.
+     *
+     * @param entry The changed entry
+     */
+    private void invalidate( Entry entry )
+    {
+        generation.incrementAndGet();
+
+        if ( entry == null )
+        {
+            // We don't know which principal has changed
+            principalCache.removeAll();
+
+            return;
+        }
+
+        Attribute principalNames = entry.get( KerberosAttribute.KRB5_PRINCIPAL_NAME_AT );
+
+        if ( principalNames != null )
+        {
+            for ( Value principalName : principalNames )
+            {
+                principalCache.remove( principalName.getValue() );
+            }
+        }
+    }
+
+
+    /**
+     * Stops caching the principals, and removes the cached ones.
+     */
+    public void destroy()
+    {
+        if ( principalCacheListener != null )
+        {
+            directoryService.getEventService().removeListener( principalCacheListener );
+            principalCacheListener = null;
+            principalCache.removeAll();
+        }
     }
 
 
@@ -153,6 +324,34 @@ public class DirectoryPrincipalStore implements PrincipalStore
      */
     public PrincipalStoreEntry getPrincipal( KerberosPrincipal principal ) throws Exception
     {
-        return ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession, searchBaseDn );
+        if ( principalCacheListener == null )
+        {
+            return ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession, searchBaseDn );
+        }
+
+        String principalName = principal.getName();
+        Element element = principalCache.get( principalName );
+
+        if ( element != null )
+        {
+            return ( PrincipalStoreEntry ) element.getObjectValue();
+        }
+
+        long loadGeneration = generation.get();
+        PrincipalStoreEntry entry = ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession,
+            searchBaseDn );
+
+        if ( entry != null )
+        {
+            principalCache.put( new Element( principalName, entry ) );
+
+            // The principal may have been modified while it was read
+            if ( generation.get() != loadGeneration )
+            {
+                principalCache.remove( principalName );
+            }
+        }
+
+        return entry;
     }
 }
@@ -63,6 +63,9 @@ public class KdcServer extends DirectoryBackedService
     /** the cache used for storing AS and TGS requests */
     private ReplayCache replayCache;
 
+    /** the store caching the principals */
+    private DirectoryPrincipalStore principalStore;
+
     private KerberosConfig config;
 
     private ChangePasswordServer changePwdServer;
@@ -107,7 +110,12 @@ public class KdcServer extends DirectoryBackedService
     {
         PrincipalStore store;
 
-        store = new DirectoryPrincipalStore( getDirectoryService(), new Dn( this.getSearchBaseDn() ) );
+        LOG.debug( "initializing the kerberos principal cache" );
+
+        Cache principalCache = getDirectoryService().getCacheService().getCache( "kdcPrincipalCache" );
+        principalStore = new DirectoryPrincipalStore( getDirectoryService(), new Dn( this.getSearchBaseDn() ),
+            principalCache );
+        store = principalStore;
 
         LOG.debug( "initializing the kerberos replay cache" );
 
@@ -177,6 +185,12 @@ public class KdcServer extends DirectoryBackedService
             replayCache.clear();
         }
 
+        if ( principalStore != null )
+        {
+            principalStore.destroy();
+            principalStore = null;
+        }
+
         LOG.info( "Kerberos service stopped." );
 
         if ( changePwdServer != null )
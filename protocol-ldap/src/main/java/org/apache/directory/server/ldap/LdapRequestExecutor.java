@@ -0,0 +1,439 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequest;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.api.ldap.model.message.ResultResponseRequest;
+import org.apache.directory.api.ldap.model.message.UnbindRequest;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The executor processing the LDAP requests received by the server. The requests are
+ * executed by a fixed number of threads, which is the global concurrency limit, and
+ * each session can't have more than a given number of requests being executed at the
+ * same time. The extra requests of a session are queued, in the order they have been
+ * received, until one of its running requests is completed. This way, a few clients
+ * sending many slow requests (like persistent or large searches) can't use all the
+ * threads, and starve all the other clients.
+ * <br>
+ * A session can't have more than a given number of requests waiting in its queue : the
+ * extra requests are rejected with a <em>busy</em> result. As the number of requests
+ * a session can have in the executor queue is also limited, the executor queue can't
+ * hold more than this limit times the number of sessions.
+ * <br>
+ * The AbandonRequest and UnbindRequest are never queued in the session, otherwise they
+ * would wait for the completion of the requests they are supposed to stop.
+ * <br>
+ * The executor also computes the time the requests are waiting before being executed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LdapRequestExecutor extends ThreadPoolExecutor
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LdapRequestExecutor.class );
+
+    /** The default max number of requests waiting in a session queue */
+    public static final int DEFAULT_MAX_QUEUED_REQUESTS_PER_SESSION = 100;
+
+    /** The session attribute holding the session requests queue */
+    private static final AttributeKey SESSION_TASKS = new AttributeKey( LdapRequestExecutor.class, "sessionTasks" );
+
+    /** The max number of requests executed at the same time for a session */
+    private final int maxRequestsPerSession;
+
+    /** The max number of requests waiting in a session queue */
+    private final int maxQueuedRequestsPerSession;
+
+    /** The number of requests rejected because their session queue was full */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /** The number of requests waiting in the sessions queues */
+    private final AtomicInteger sessionQueuedCount = new AtomicInteger();
+
+    /** The number of executed requests */
+    private final AtomicLong executedCount = new AtomicLong();
+
+    /** The total time the executed requests have waited, in nanoseconds */
+    private final AtomicLong totalWaitTime = new AtomicLong();
+
+    /** The max time a request has waited, in nanoseconds */
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+
+    /**
+     * Creates a new LdapRequestExecutor instance
+     *
+     * @param nbThreads The number of threads executing the requests
+     * @param maxRequestsPerSession The max number of requests executed at the same time
+     * for a session. A negative or null value means no limit
+     */
+    public LdapRequestExecutor( int nbThreads, int maxRequestsPerSession )
+    {
+        this( nbThreads, maxRequestsPerSession, DEFAULT_MAX_QUEUED_REQUESTS_PER_SESSION );
+    }
+
+
+    /**
+     * Creates a new LdapRequestExecutor instance
+     *
+     * @param nbThreads The number of threads executing the requests
+     * @param maxRequestsPerSession The max number of requests executed at the same time
+     * for a session. A negative or null value means no limit
+     * @param maxQueuedRequestsPerSession The max number of requests waiting in a session
+     * queue, the extra requests being rejected. A negative value means no request is queued
+     */
+    public LdapRequestExecutor( int nbThreads, int maxRequestsPerSession, int maxQueuedRequestsPerSession )
+    {
+        super( nbThreads, nbThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>() );
+
+        if ( maxRequestsPerSession <= 0 )
+        {
+            this.maxRequestsPerSession = Integer.MAX_VALUE;
+        }
+        else
+        {
+            this.maxRequestsPerSession = maxRequestsPerSession;
+        }
+
+        this.maxQueuedRequestsPerSession = Math.max( 0, maxQueuedRequestsPerSession );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute( Runnable task )
+    {
+        if ( !( task instanceof IoEvent ) )
+        {
+            super.execute( new TimedTask( task, null ) );
+
+            return;
+        }
+
+        IoEvent event = ( IoEvent ) task;
+        Object message = event.getParameter();
+
+        if ( ( message instanceof AbandonRequest ) || ( message instanceof UnbindRequest ) )
+        {
+            super.execute( new TimedTask( task, null ) );
+
+            return;
+        }
+
+        SessionTasks sessionTasks = getSessionTasks( event.getSession() );
+        TimedTask timedTask = new TimedTask( task, sessionTasks );
+
+        synchronized ( sessionTasks )
+        {
+            if ( sessionTasks.running >= maxRequestsPerSession )
+            {
+                if ( sessionTasks.waiting.size() >= maxQueuedRequestsPerSession )
+                {
+                    reject( event );
+
+                    return;
+                }
+
+                sessionTasks.waiting.add( timedTask );
+                sessionQueuedCount.incrementAndGet();
+
+                return;
+            }
+
+            sessionTasks.running++;
+        }
+
+        super.execute( timedTask );
+    }
+
+
+    /**
+     * Gets the requests queue associated with a session, creating it if needed
+     */
+    private SessionTasks getSessionTasks( IoSession session )
+    {
+        SessionTasks sessionTasks = ( SessionTasks ) session.getAttribute( SESSION_TASKS );
+
+        if ( sessionTasks == null )
+        {
+            sessionTasks = new SessionTasks();
+            SessionTasks existing = ( SessionTasks ) session.setAttributeIfAbsent( SESSION_TASKS, sessionTasks );
+
+            if ( existing != null )
+            {
+                sessionTasks = existing;
+            }
+        }
+
+        return sessionTasks;
+    }
+
+
+    /**
+     * Rejects a request because its session queue is full, sending back a <em>busy</em>
+     * result to the client.
+     */
+    private void reject( IoEvent event )
+    {
+        rejectedCount.incrementAndGet();
+        Object message = event.getParameter();
+
+        LOG.debug( "Too many requests queued for the session {}, rejecting {}", event.getSession(), message );
+
+        if ( message instanceof ResultResponseRequest )
+        {
+            ResultResponse response = ( ( ResultResponseRequest ) message ).getResultResponse();
+            LdapResult result = response.getLdapResult();
+            result.setResultCode( ResultCodeEnum.BUSY );
+            result.setDiagnosticMessage( "Too many requests are pending on this connection" );
+            event.getSession().write( response );
+        }
+    }
+
+
+    /**
+     * Called when a session request has been executed : the next request waiting in the
+     * session queue, if any, is submitted. If the executor has been shut down, the requests
+     * waiting in the session queue are dropped.
+     */
+    private void release( SessionTasks sessionTasks )
+    {
+        TimedTask next;
+
+        synchronized ( sessionTasks )
+        {
+            next = sessionTasks.waiting.poll();
+
+            if ( next == null )
+            {
+                sessionTasks.running--;
+
+                return;
+            }
+        }
+
+        sessionQueuedCount.decrementAndGet();
+
+        if ( !isShutdown() )
+        {
+            try
+            {
+                super.execute( next );
+
+                return;
+            }
+            catch ( RejectedExecutionException ree )
+            {
+                // The executor has been shut down in the meantime
+            }
+        }
+
+        int dropped;
+
+        synchronized ( sessionTasks )
+        {
+            dropped = sessionTasks.waiting.size();
+            sessionTasks.waiting.clear();
+            sessionTasks.running--;
+        }
+
+        sessionQueuedCount.addAndGet( -dropped );
+        LOG.debug( "The executor is shut down, dropping {} queued requests", dropped + 1 );
+    }
+
+
+    /**
+     * @return The max number of requests executed at the same time for a session
+     */
+    public int getMaxRequestsPerSession()
+    {
+        return maxRequestsPerSession;
+    }
+
+
+    /**
+     * @return The max number of requests waiting in a session queue
+     */
+    public int getMaxQueuedRequestsPerSession()
+    {
+        return maxQueuedRequestsPerSession;
+    }
+
+
+    /**
+     * @return The number of requests rejected because their session queue was full
+     */
+    public long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+
+    /**
+     * @return The number of requests waiting to be executed, in the sessions queues and
+     * in the executor queue
+     */
+    public int getQueueDepth()
+    {
+        return sessionQueuedCount.get() + getQueue().size();
+    }
+
+
+    /**
+     * @return The number of requests waiting in the sessions queues, because their
+     * session has reached the max number of requests executed at the same time
+     */
+    public int getSessionQueuedCount()
+    {
+        return sessionQueuedCount.get();
+    }
+
+
+    /**
+     * @return The number of executed requests
+     */
+    public long getExecutedCount()
+    {
+        return executedCount.get();
+    }
+
+
+    /**
+     * @return The average time the requests have waited before being executed, in milliseconds
+     */
+    public double getAverageWaitTime()
+    {
+        long count = executedCount.get();
+
+        if ( count == 0L )
+        {
+            return 0d;
+        }
+
+        return ( double ) TimeUnit.NANOSECONDS.toMicros( totalWaitTime.get() ) / count / 1000d;
+    }
+
+
+    /**
+     * @return The max time a request has waited before being executed, in milliseconds
+     */
+    public long getMaxWaitTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( maxWaitTime.get() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "LdapRequestExecutor[threads=" + getMaximumPoolSize() + ", active=" + getActiveCount()
+            + ", queueDepth=" + getQueueDepth() + ", executed=" + getExecutedCount()
+            + ", rejected=" + getRejectedCount()
+            + ", averageWaitTime=" + getAverageWaitTime() + "ms, maxWaitTime=" + getMaxWaitTime() + "ms]";
+    }
+
+
+    /**
+     * The requests of a session
+     */
+    private static final class SessionTasks
+    {
+        /** The requests waiting for a running request completion */
+        private final Queue<TimedTask> waiting = new LinkedList<>();
+
+        /** The number of running requests */
+        private int running;
+    }
+
+
+    /**
+     * A task recording the time it has waited before being executed
+     */
+    private final class TimedTask implements Runnable
+    {
+        /** The wrapped task */
+        private final Runnable task;
+
+        /** The session requests, or null if the task is not queued in its session */
+        private final SessionTasks sessionTasks;
+
+        /** The time the task has been submitted */
+        private final long submitTime = System.nanoTime();
+
+
+        private TimedTask( Runnable task, SessionTasks sessionTasks )
+        {
+            this.task = task;
+            this.sessionTasks = sessionTasks;
+        }
+
+
+        @Override
+        public void run()
+        {
+            long waitTime = System.nanoTime() - submitTime;
+            executedCount.incrementAndGet();
+            totalWaitTime.addAndGet( waitTime );
+
+            long currentMax = maxWaitTime.get();
+
+            while ( ( waitTime > currentMax ) && !maxWaitTime.compareAndSet( currentMax, waitTime ) )
+            {
+                currentMax = maxWaitTime.get();
+            }
+
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                if ( sessionTasks != null )
+                {
+                    release( sessionTasks );
+                }
+            }
+        }
+    }
+}
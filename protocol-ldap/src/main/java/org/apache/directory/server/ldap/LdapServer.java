@@ -30,6 +30,7 @@ import java.security.Provider;
 import java.security.Security;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -37,6 +38,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import javax.net.ssl.KeyManagerFactory;
 
@@ -89,6 +91,7 @@ import org.apache.directory.server.ldap.handlers.response.AddResponseHandler;
 import org.apache.directory.server.ldap.handlers.response.BindResponseHandler;
 import org.apache.directory.server.ldap.handlers.response.CompareResponseHandler;
 import org.apache.directory.server.ldap.handlers.response.DeleteResponseHandler;
+import org.apache.directory.server.ldap.handlers.response.EncodedEntryCache;
 import org.apache.directory.server.ldap.handlers.response.ExtendedResponseHandler;
 import org.apache.directory.server.ldap.handlers.response.IntermediateResponseHandler;
 import org.apache.directory.server.ldap.handlers.response.ModifyDnResponseHandler;
@@ -180,6 +183,18 @@ public class LdapServer extends DirectoryBackedService
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** The max number of requests executed at the same time for a session, no limit if 0 */
+    private int maxRequestsPerSession;
+
+    /** The max number of requests waiting in a session queue, when the requests per session are limited */
+    private int maxQueuedRequestsPerSession = LdapRequestExecutor.DEFAULT_MAX_QUEUED_REQUESTS_PER_SESSION;
+
+    /** The executors processing the requests, one per transport */
+    private List<ExecutorService> requestExecutors = new ArrayList<>();
+
+    /** The cache of the encoded attributes of the partitions cached entries, null if disabled */
+    private EncodedEntryCache encodedEntryCache;
+
     /** If LDAPS is activated : the external Keystore file, if defined */
     private String keystoreFile;
 
@@ -559,8 +574,23 @@ public class LdapServer extends DirectoryBackedService
             // Now inject an ExecutorFilter for the write operations
             // We use the same number of thread than the number of IoProcessor
             // (NOTE : this has to be double checked)
+            ExecutorService executor;
+
+            if ( maxRequestsPerSession > 0 )
+            {
+                // Limit the number of threads a session can use
+                executor = new LdapRequestExecutor( transport.getNbThreads(), maxRequestsPerSession,
+                    maxQueuedRequestsPerSession );
+            }
+            else
+            {
+                executor = new UnorderedThreadPoolExecutor( transport.getNbThreads() );
+            }
+
+            requestExecutors.add( executor );
+
             ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter(
-                new UnorderedThreadPoolExecutor( transport.getNbThreads() ), IoEventType.MESSAGE_RECEIVED ) );
+                executor, IoEventType.MESSAGE_RECEIVED ) );
 
             /*
             // Trace all the incoming and outgoing message to the console
@@ -681,6 +711,13 @@ public class LdapServer extends DirectoryBackedService
             LOG.warn( "Failed to sent NoD.", e );
         }
 
+        for ( ExecutorService executor : requestExecutors )
+        {
+            executor.shutdown();
+        }
+
+        requestExecutors.clear();
+
         started = false;
         LOG.info( "Ldap service stopped." );
     }
@@ -1767,6 +1804,107 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return The max number of requests executed at the same time for a session, 0 if
+     * there is no limit
+     */
+    public int getMaxRequestsPerSession()
+    {
+        return maxRequestsPerSession;
+    }
+
+
+    /**
+     * Set the max number of requests a session can have executed at the same time. The
+     * extra requests are queued, and executed in the order they have been received.
+     * The global limit is the number of threads of the transport. The AbandonRequest
+     * and UnbindRequest are never queued.
+     *
+     * @param maxRequestsPerSession The max number of requests. A negative or null value
+     * means no limit, a value of 1 means the session requests are executed in order
+     */
+    public void setMaxRequestsPerSession( int maxRequestsPerSession )
+    {
+        if ( maxRequestsPerSession < 0 )
+        {
+            maxRequestsPerSession = 0;
+        }
+
+        this.maxRequestsPerSession = maxRequestsPerSession;
+    }
+
+
+    /**
+     * @return The max number of requests waiting in a session queue, when the number of
+     * requests executed at the same time for a session is limited
+     */
+    public int getMaxQueuedRequestsPerSession()
+    {
+        return maxQueuedRequestsPerSession;
+    }
+
+
+    /**
+     * Set the max number of requests waiting in a session queue, when the number of requests
+     * executed at the same time for a session is limited. The extra requests are rejected
+     * with a <em>busy</em> result.
+     *
+     * @param maxQueuedRequestsPerSession The max number of queued requests. A negative or
+     * null value means the requests are never queued
+     */
+    public void setMaxQueuedRequestsPerSession( int maxQueuedRequestsPerSession )
+    {
+        if ( maxQueuedRequestsPerSession < 0 )
+        {
+            maxQueuedRequestsPerSession = 0;
+        }
+
+        this.maxQueuedRequestsPerSession = maxQueuedRequestsPerSession;
+    }
+
+
+    /**
+     * @return The executors processing the requests, one per transport. When a max number
+     * of requests per session is set, they are {@link LdapRequestExecutor} instances,
+     * exposing the queue depth and the requests wait time.
+     */
+    public List<ExecutorService> getRequestExecutors()
+    {
+        return Collections.unmodifiableList( requestExecutors );
+    }
+
+
+    /**
+     * @return The cache of the encoded attributes of the partitions cached entries,
+     * or null if the search results are always fully encoded
+     */
+    public EncodedEntryCache getEncodedEntryCache()
+    {
+        return encodedEntryCache;
+    }
+
+
+    /**
+     * Set the max size of the cache holding the encoded attributes of the entries
+     * stored in the partitions caches. When enabled, the search results returning
+     * all the user attributes of such an entry reuse its encoded attributes.
+     *
+     * @param encodedEntryCacheSize The max size of the cache, in bytes. A negative
+     * or null value disables the cache
+     */
+    public void setEncodedEntryCacheSize( long encodedEntryCacheSize )
+    {
+        if ( encodedEntryCacheSize <= 0L )
+        {
+            encodedEntryCache = null;
+        }
+        else
+        {
+            encodedEntryCache = new EncodedEntryCache( encodedEntryCacheSize );
+        }
+    }
+
+
     /**
      * @return the number of seconds pinger thread sleeps between subsequent pings
      */
@@ -22,7 +22,9 @@ package org.apache.directory.server.ldap;
 
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -39,6 +41,7 @@ import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.SearchRequestContainer;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.handlers.controls.PagedSearchContext;
+import org.apache.directory.server.ldap.handlers.controls.VlvSearchContext;
 import org.apache.mina.core.session.IoSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,6 +61,9 @@ public class LdapSession
     /** A speedup for logs */
     private static final boolean IS_DEBUG = LOG.isDebugEnabled();
 
+    /** The maximum number of Virtual List View contexts kept per session */
+    public static final int MAX_VLV_SEARCH_CONTEXTS = 10;
+
     /** The list of requests we can abandon */
     private static final AbandonableRequest[] EMPTY_ABANDONABLES = new AbandonableRequest[0];
 
@@ -96,6 +102,9 @@ public class LdapSession
     /** A map containing all the paged search context */
     private Map<Integer, PagedSearchContext> pagedSearchContexts;
 
+    /** The IDs of the Virtual List View contexts, the oldest first */
+    private final Deque<Integer> vlvSearchContextIds = new ArrayDeque<>();
+
 
     /**
      * Creates a new instance of LdapSession associated with the underlying
@@ -523,18 +532,63 @@ public class LdapSession
         if ( oldContext != null )
         {
             // ??? Very unlikely to happen ...
-            Cursor<Entry> cursor = oldContext.getCursor();
+            closeContext( oldContext );
+        }
+    }
 
-            if ( cursor != null )
+
+    /**
+     * Add a new Virtual List View context into the stored contexts. Each context holds
+     * the sorted entries of a search : when the session already holds
+     * {@link #MAX_VLV_SEARCH_CONTEXTS} of them, the oldest one is closed and removed.
+     *
+     * @param context The context to add
+     */
+    public void addVlvSearchContext( VlvSearchContext context )
+    {
+        Integer evictedId = null;
+
+        synchronized ( vlvSearchContextIds )
+        {
+            if ( vlvSearchContextIds.size() >= MAX_VLV_SEARCH_CONTEXTS )
+            {
+                evictedId = vlvSearchContextIds.poll();
+            }
+
+            vlvSearchContextIds.add( context.getCookieValue() );
+        }
+
+        if ( evictedId != null )
+        {
+            PagedSearchContext evicted = pagedSearchContexts.remove( evictedId );
+
+            if ( evicted != null )
             {
-                try
-                {
-                    cursor.close();
-                }
-                catch ( Exception e )
-                {
-                    LOG.error( I18n.err( I18n.ERR_172, e.getLocalizedMessage() ) );
-                }
+                LOG.debug( "Too many Virtual List View contexts, closing {}", evicted );
+                closeContext( evicted );
+            }
+        }
+
+        addPagedSearchContext( context );
+    }
+
+
+    /**
+     * Closes the cursor of a context
+     */
+    private void closeContext( PagedSearchContext context )
+    {
+        Cursor<Entry> cursor = context.getCursor();
+
+        if ( cursor != null )
+        {
+            try
+            {
+                cursor.close();
+            }
+            catch ( Exception e )
+            {
+                LOG.error( I18n.err( I18n.ERR_172, e.getLocalizedMessage() ) );
             }
         }
     }
@@ -548,7 +602,17 @@ public class LdapSession
      */
     public PagedSearchContext removePagedSearchContext( int contextId )
     {
-        return pagedSearchContexts.remove( contextId );
+        PagedSearchContext context = pagedSearchContexts.remove( contextId );
+
+        if ( context instanceof VlvSearchContext )
+        {
+            synchronized ( vlvSearchContextIds )
+            {
+                vlvSearchContextIds.remove( Integer.valueOf( contextId ) );
+            }
+        }
+
+        return context;
     }
 
 
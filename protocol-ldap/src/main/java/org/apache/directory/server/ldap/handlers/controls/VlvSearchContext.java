@@ -0,0 +1,119 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.controls;
+
+
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.server.ldap.LdapSession;
+
+
+/**
+ * The structure which stores the informations relative to the Virtual List View control.
+ * The sorted entries of a search are kept in the session, associated with the context ID
+ * returned to the client, so that the next windows requested with this context ID are
+ * read from the same sorted entries, without running the search again.
+ * <br>
+ * The contexts are stored with the PagedSearch contexts, and are closed the same way.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class VlvSearchContext extends PagedSearchContext
+{
+    /**
+     * Creates a new instance of this class, storing the SearchRequest into it.
+     *
+     * @param searchRequest The SearchRequest
+     */
+    public VlvSearchContext( SearchRequest searchRequest )
+    {
+        super( searchRequest );
+    }
+
+
+    /**
+     * Compare the previous search request and the new one, and return
+     * true if they are equal, including their sort keys. We compare every
+     * field but the MessageID.
+     *
+     * @param request The new SearchRequest
+     * @param session The LdapSession in use
+     * @return true if both request are equal.
+     */
+    @Override
+    public boolean hasSameRequest( SearchRequest request, LdapSession session )
+    {
+        if ( !super.hasSameRequest( request, session ) )
+        {
+            return false;
+        }
+
+        SortRequest sortRequest = ( SortRequest ) request.getControl( SortRequest.OID );
+        SortRequest previousSortRequest = ( SortRequest ) getPreviousSearchRequest().getControl( SortRequest.OID );
+
+        if ( ( sortRequest == null ) || ( previousSortRequest == null ) )
+        {
+            return sortRequest == previousSortRequest;
+        }
+
+        List<SortKey> sortKeys = sortRequest.getSortKeys();
+        List<SortKey> previousSortKeys = previousSortRequest.getSortKeys();
+
+        if ( sortKeys.size() != previousSortKeys.size() )
+        {
+            return false;
+        }
+
+        for ( int i = 0; i < sortKeys.size(); i++ )
+        {
+            SortKey sortKey = sortKeys.get( i );
+            SortKey previousSortKey = previousSortKeys.get( i );
+
+            if ( !sortKey.getAttributeTypeDesc().equalsIgnoreCase( previousSortKey.getAttributeTypeDesc() )
+                || ( sortKey.isReverseOrder() != previousSortKey.isReverseOrder() ) )
+            {
+                return false;
+            }
+
+            String matchingRuleId = sortKey.getMatchingRuleId();
+
+            if ( ( matchingRuleId == null ) ? ( previousSortKey.getMatchingRuleId() != null )
+                : !matchingRuleId.equals( previousSortKey.getMatchingRuleId() ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "Vlv" + super.toString();
+    }
+}
@@ -29,10 +29,17 @@ import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.directory.api.asn1.DecoderException;
+import org.apache.directory.api.asn1.ber.tlv.BerValue;
+import org.apache.directory.api.asn1.ber.tlv.IntegerDecoder;
 import org.apache.directory.api.ldap.codec.controls.search.pagedSearch.PagedResultsDecorator;
 import org.apache.directory.api.ldap.codec.decorators.SearchResultDoneDecorator;
 import org.apache.directory.api.ldap.codec.decorators.SearchResultEntryDecorator;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponseImpl;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorClosedException;
@@ -65,6 +72,10 @@ import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.message.controls.ManageDsaIT;
 import org.apache.directory.api.ldap.model.message.controls.PagedResults;
 import org.apache.directory.api.ldap.model.message.controls.PersistentSearch;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
+import org.apache.directory.api.ldap.model.message.controls.SortResponse;
+import org.apache.directory.api.ldap.model.message.controls.SortResponseImpl;
+import org.apache.directory.api.ldap.model.message.controls.SortResultCode;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
@@ -76,6 +87,7 @@ import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.shared.SortedEntryCursor;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
@@ -83,6 +95,9 @@ import org.apache.directory.server.ldap.handlers.PersistentSearchListener;
 import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
 import org.apache.directory.server.ldap.handlers.SearchTimeLimitingMonitor;
 import org.apache.directory.server.ldap.handlers.controls.PagedSearchContext;
+import org.apache.directory.server.ldap.handlers.controls.VlvSearchContext;
+import org.apache.directory.server.ldap.handlers.response.EncodedEntryCache;
+import org.apache.directory.server.ldap.handlers.response.PreEncodedSearchResultEntryDecorator;
 import org.apache.directory.server.ldap.replication.provider.ReplicationRequestHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -773,6 +788,213 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
+    /**
+     * Computes the position of the target entry of a Virtual List View request by offset,
+     * as described in section 5.1 of the VLV draft : when the client's estimate of the
+     * number of entries differs from the server's one, the offset is scaled accordingly.
+     * A target past the last entry is positioned just after it.
+     *
+     * @param offset The requested offset, the first entry being at offset 1
+     * @param clientCount The client's estimate of the number of entries, 0 if unknown
+     * @param contentCount The number of entries
+     * @return The position of the target entry, starting at 1
+     */
+    /** no qualifier */ static int getVlvTargetPosition( int offset, int clientCount, int contentCount )
+    {
+        long target = offset;
+
+        if ( ( clientCount > 0 ) && ( clientCount != contentCount ) )
+        {
+            target = Math.round( ( double ) offset * contentCount / clientCount );
+        }
+
+        return ( int ) Math.max( 1L, Math.min( target, contentCount + 1L ) );
+    }
+
+
+    /**
+     * Completes a Virtual List View search which can't be processed.
+     */
+    private SearchResultDone abortVlvSearch( SearchRequest req, ResultCodeEnum resultCode,
+        VirtualListViewResultCode vlvResultCode, String message )
+    {
+        LdapResult ldapResult = req.getResultResponse().getLdapResult();
+        ldapResult.setResultCode( resultCode );
+        ldapResult.setDiagnosticMessage( message );
+
+        VirtualListViewResponse vlvResponse = new VirtualListViewResponseImpl();
+        vlvResponse.setVirtualListViewResult( vlvResultCode );
+        req.getResultResponse().addControl( vlvResponse );
+
+        return ( SearchResultDone ) req.getResultResponse();
+    }
+
+
+    /**
+     * Handle a Virtual List View request. The sorted entries are kept in the session,
+     * associated with a context ID returned to the client : the next windows requested
+     * with this context ID are read from them, by position, without searching again.
+     * Only the entries in the requested window are returned.
+     */
+    private SearchResultDone doVlvSearch( LdapSession session, SearchRequest req, VirtualListViewRequest vlvRequest )
+        throws Exception
+    {
+        // The VLV control can only be used with a sort control, and without a paged search control
+        if ( !req.getControls().containsKey( SortRequest.OID ) )
+        {
+            return abortVlvSearch( req, ResultCodeEnum.UNWILLING_TO_PERFORM,
+                VirtualListViewResultCode.SORTCONTROLMISSING, "The Virtual List View control requires a Sort control" );
+        }
+
+        if ( req.getControls().containsKey( PagedResults.OID ) )
+        {
+            return abortVlvSearch( req, ResultCodeEnum.UNWILLING_TO_PERFORM,
+                VirtualListViewResultCode.UNWILLINGTOPERFORM,
+                "The Virtual List View control can't be used with the Paged Search control" );
+        }
+
+        if ( vlvRequest.hasOffset() && ( ( vlvRequest.getOffset() < 1 ) || ( vlvRequest.getContentCount() < 0 ) ) )
+        {
+            return abortVlvSearch( req, ResultCodeEnum.UNWILLING_TO_PERFORM,
+                VirtualListViewResultCode.OFFSETRANGEERROR, "Invalid Virtual List View offset" );
+        }
+
+        // Reuse the sorted entries of the previous request if it's the same
+        VlvSearchContext vlvContext = null;
+        byte[] contextId = vlvRequest.getContextId();
+
+        if ( !Strings.isEmpty( contextId ) )
+        {
+            try
+            {
+                int contextValue = IntegerDecoder.parse( new BerValue( contextId ) );
+                PagedSearchContext context = session.getPagedSearchContext( contextValue );
+
+                if ( context instanceof VlvSearchContext )
+                {
+                    if ( context.hasSameRequest( req, session ) )
+                    {
+                        vlvContext = ( VlvSearchContext ) context;
+                    }
+                    else
+                    {
+                        // The client has changed its request : discard the previous entries
+                        session.removePagedSearchContext( contextValue );
+                        context.getCursor().close();
+                    }
+                }
+            }
+            catch ( DecoderException de )
+            {
+                // Not one of our context IDs : search again
+                LOG.debug( "Invalid Virtual List View context ID {}", Strings.dumpBytes( contextId ) );
+            }
+        }
+
+        SortedEntryCursor cursor;
+
+        if ( vlvContext == null )
+        {
+            Cursor<Entry> result = session.getCoreSession().search( req );
+
+            if ( !( result instanceof SortedEntryCursor ) )
+            {
+                // The entries haven't been sorted : the sort response control tells why
+                result.close();
+                LdapResult ldapResult = req.getResultResponse().getLdapResult();
+
+                if ( ( ldapResult.getResultCode() == null ) || ( ldapResult.getResultCode() == ResultCodeEnum.SUCCESS ) )
+                {
+                    return abortVlvSearch( req, ResultCodeEnum.UNWILLING_TO_PERFORM,
+                        VirtualListViewResultCode.UNWILLINGTOPERFORM, "The search results can't be sorted" );
+                }
+
+                VirtualListViewResponse vlvResponse = new VirtualListViewResponseImpl();
+                vlvResponse.setVirtualListViewResult( VirtualListViewResultCode.UNWILLINGTOPERFORM );
+                req.getResultResponse().addControl( vlvResponse );
+
+                return ( SearchResultDone ) req.getResultResponse();
+            }
+
+            cursor = ( SortedEntryCursor ) result;
+            vlvContext = new VlvSearchContext( req );
+            vlvContext.setCursor( cursor );
+            session.addVlvSearchContext( vlvContext );
+        }
+        else
+        {
+            cursor = ( SortedEntryCursor ) vlvContext.getCursor();
+
+            SortResponse sortResponse = new SortResponseImpl();
+            sortResponse.setSortResult( SortResultCode.SUCCESS );
+            req.getResultResponse().addControl( sortResponse );
+        }
+
+        int contentCount = cursor.size();
+        int targetPosition;
+
+        if ( vlvRequest.hasOffset() )
+        {
+            targetPosition = getVlvTargetPosition( vlvRequest.getOffset(), vlvRequest.getContentCount(), contentCount );
+        }
+        else
+        {
+            try
+            {
+                targetPosition = cursor.indexOf( vlvRequest.getAssertionValue() ) + 1;
+            }
+            catch ( LdapException le )
+            {
+                return abortVlvSearch( req, ResultCodeEnum.INAPPROPRIATE_MATCHING,
+                    VirtualListViewResultCode.INAPPROPRIATEMATCHING, le.getMessage() );
+            }
+        }
+
+        // Write the window around the target entry
+        LdapResult ldapResult = req.getResultResponse().getLdapResult();
+        long serverLimit = getServerSizeLimit( session, req );
+        long requestLimit = req.getSizeLimit() == 0L ? Long.MAX_VALUE : req.getSizeLimit();
+        long sizeLimit = min( serverLimit, requestLimit );
+
+        long first = Math.max( 1L, ( long ) targetPosition - vlvRequest.getBeforeCount() );
+        long last = Math.min( contentCount, ( long ) targetPosition + vlvRequest.getAfterCount() );
+        long count = 0;
+
+        ldapResult.setResultCode( ResultCodeEnum.SUCCESS );
+
+        for ( long position = first; position <= last; position++ )
+        {
+            if ( session.getIoSession().isClosing() || req.isAbandoned() )
+            {
+                break;
+            }
+
+            if ( count >= sizeLimit )
+            {
+                ldapResult.setResultCode( ResultCodeEnum.SIZE_LIMIT_EXCEEDED );
+                break;
+            }
+
+            if ( !cursor.moveTo( ( int ) position - 1 ) )
+            {
+                break;
+            }
+
+            session.getIoSession().write( generateResponse( session, req, cursor.get() ) );
+            count++;
+        }
+
+        VirtualListViewResponse vlvResponse = new VirtualListViewResponseImpl();
+        vlvResponse.setTargetPosition( targetPosition );
+        vlvResponse.setContentCount( contentCount );
+        vlvResponse.setVirtualListViewResult( VirtualListViewResultCode.SUCCESS );
+        vlvResponse.setContextId( vlvContext.getCookie() );
+        req.getResultResponse().addControl( vlvResponse );
+
+        return ( SearchResultDone ) req.getResultResponse();
+    }
+
+
     /**
      * Conducts a simple search across the result set returning each entry
      * back except for the search response done.  This is calculated but not
@@ -788,6 +1010,14 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     {
         LdapResult ldapResult = req.getResultResponse().getLdapResult();
 
+        // Check if we are using the Virtual List View Control
+        Object vlvControl = req.getControls().get( VirtualListViewRequest.OID );
+
+        if ( vlvControl != null )
+        {
+            return doVlvSearch( session, req, ( VirtualListViewRequest ) vlvControl );
+        }
+
         // Check if we are using the Paged Search Control
         Object control = req.getControls().get( PagedResults.OID );
 
@@ -931,6 +1161,19 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 respEntry.getEntry().removeAttributes( SchemaConstants.USER_PASSWORD_AT );
             }
 
+            // Reuse the encoded attributes if the entry is cached, and returned with all its user attributes
+            EncodedEntryCache encodedEntryCache = ldapServer.getEncodedEntryCache();
+
+            if ( ( encodedEntryCache != null ) && !req.getTypesOnly() )
+            {
+                byte[] encodedAttributes = encodedEntryCache.getEncodedAttributes( entry );
+
+                if ( encodedAttributes != null )
+                {
+                    return new PreEncodedSearchResultEntryDecorator( getLdapApiService(), respEntry, encodedAttributes );
+                }
+            }
+
             return new SearchResultEntryDecorator( getLdapApiService(), respEntry );
         }
     }
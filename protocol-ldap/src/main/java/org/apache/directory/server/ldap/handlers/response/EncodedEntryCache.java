@@ -0,0 +1,493 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.response;
+
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.asn1.EncoderException;
+import org.apache.directory.api.asn1.ber.tlv.BerValue;
+import org.apache.directory.api.asn1.ber.tlv.TLV;
+import org.apache.directory.api.asn1.ber.tlv.UniversalTag;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.UsageEnum;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+
+
+/**
+ * A cache holding the BER encoded PartialAttributeList of the entries stored in
+ * the partitions entry caches. Those entries are shared by all the searches, so
+ * the list of their user attributes is encoded once, and reused every time such
+ * an entry is returned with all its user attributes.
+ * <br>
+ * The cache is keyed by the identity of the partition's cached entry : when the
+ * entry is modified, moved or evicted from the partition cache, the instance is
+ * replaced and the encoded form is not reachable anymore. The encoded forms are
+ * weakly referenced by their entry, and are released when the entry is garbage
+ * collected. Once the cache is full, the new entries are not encoded anymore
+ * until some space has been released.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EncodedEntryCache
+{
+    /** The estimated overhead of a cached element */
+    private static final int ELEMENT_OVERHEAD = 96;
+
+    /** The cached encoded attribute lists */
+    private final Map<EntryReference, EncodedEntry> cache = new ConcurrentHashMap<>();
+
+    /** The queue where the collected entries references are pushed */
+    private final ReferenceQueue<Entry> queue = new ReferenceQueue<>();
+
+    /** The max size of the cached encoded forms, in bytes */
+    private final long maxSize;
+
+    /** The current size of the cached encoded forms, in bytes */
+    private final AtomicLong size = new AtomicLong();
+
+    /** The number of responses using a cached encoded form */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** The number of encoded forms computed */
+    private final AtomicLong missCount = new AtomicLong();
+
+
+    /**
+     * Creates a new EncodedEntryCache instance
+     *
+     * @param maxSize The max size of the cached encoded forms, in bytes
+     */
+    public EncodedEntryCache( long maxSize )
+    {
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Gets the encoded PartialAttributeList of an entry returned by a search. The
+     * encoded form can only be used if the returned entry contains exactly all the
+     * user attributes and values of the partition's cached entry it has been cloned
+     * from, unchanged, otherwise null is returned and the entry has to be encoded the standard
+     * way.
+     *
+     * @param entry The entry to send back to the client
+     * @return The encoded PartialAttributeList, or null if it can't be used for this entry
+     * @throws EncoderException If the attributes can't be encoded
+     */
+    public byte[] getEncodedAttributes( Entry entry ) throws EncoderException
+    {
+        if ( !( entry instanceof ClonedServerEntry ) )
+        {
+            return null;
+        }
+
+        Entry originalEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+
+        if ( originalEntry == null )
+        {
+            return null;
+        }
+
+        expungeStaleEntries();
+
+        EncodedEntry encodedEntry = cache.get( new EntryReference( originalEntry ) );
+
+        if ( encodedEntry != null )
+        {
+            if ( !isCompatible( entry, originalEntry, encodedEntry.userAttributeCount ) )
+            {
+                return null;
+            }
+
+            hitCount.incrementAndGet();
+
+            return encodedEntry.bytes;
+        }
+
+        if ( !isCompatible( entry, originalEntry, countUserAttributes( originalEntry ) ) )
+        {
+            return null;
+        }
+
+        missCount.incrementAndGet();
+
+        List<Attribute> userAttributes = new ArrayList<>();
+
+        for ( Attribute attribute : originalEntry )
+        {
+            if ( isUserAttribute( attribute ) )
+            {
+                userAttributes.add( attribute );
+            }
+        }
+
+        encodedEntry = new EncodedEntry( encodeAttributes( userAttributes ), userAttributes.size() );
+        long weight = ELEMENT_OVERHEAD + encodedEntry.bytes.length;
+
+        if ( size.addAndGet( weight ) <= maxSize )
+        {
+            EncodedEntry previous = cache.putIfAbsent( new EntryReference( originalEntry, queue ), encodedEntry );
+
+            if ( previous != null )
+            {
+                // Another thread has encoded the same entry
+                size.addAndGet( -weight );
+            }
+        }
+        else
+        {
+            // The cache is full
+            size.addAndGet( -weight );
+        }
+
+        return encodedEntry.bytes;
+    }
+
+
+    /**
+     * Tells if an entry contains exactly the user attributes and values of the entry it
+     * has been cloned from. The interceptors may have removed or rewritten some values
+     * of the returned entry, so the attribute ids and the values which are encoded are
+     * compared, not only their numbers.
+     */
+    private static boolean isCompatible( Entry entry, Entry originalEntry, int userAttributeCount )
+    {
+        if ( entry.size() != userAttributeCount )
+        {
+            return false;
+        }
+
+        for ( Attribute attribute : entry )
+        {
+            if ( !isUserAttribute( attribute ) )
+            {
+                return false;
+            }
+
+            Attribute originalAttribute = originalEntry.get( attribute.getAttributeType() );
+
+            if ( ( originalAttribute == null ) || !sameEncoding( attribute, originalAttribute ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Tells if two attributes have the same encoded form : the same user provided id,
+     * and the same values in the same order.
+     */
+    private static boolean sameEncoding( Attribute attribute, Attribute originalAttribute )
+    {
+        if ( ( attribute.size() != originalAttribute.size() )
+            || !Objects.equals( attribute.getUpId(), originalAttribute.getUpId() ) )
+        {
+            return false;
+        }
+
+        Iterator<Value> originalValues = originalAttribute.iterator();
+
+        for ( Value value : attribute )
+        {
+            Value originalValue = originalValues.next();
+
+            if ( value == originalValue )
+            {
+                continue;
+            }
+
+            if ( value.isHumanReadable() != originalValue.isHumanReadable() )
+            {
+                return false;
+            }
+
+            if ( value.isHumanReadable() )
+            {
+                if ( !Objects.equals( value.getValue(), originalValue.getValue() ) )
+                {
+                    return false;
+                }
+            }
+            else if ( !Arrays.equals( value.getBytes(), originalValue.getBytes() ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    private static boolean isUserAttribute( Attribute attribute )
+    {
+        AttributeType attributeType = attribute.getAttributeType();
+
+        return ( attributeType != null ) && ( attributeType.getUsage() == UsageEnum.USER_APPLICATIONS );
+    }
+
+
+    private static int countUserAttributes( Entry entry )
+    {
+        int count = 0;
+
+        for ( Attribute attribute : entry )
+        {
+            if ( isUserAttribute( attribute ) )
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Encodes a list of attributes as a PartialAttributeList :
+     * <pre>
+     * PartialAttributeList ::= SEQUENCE OF partialAttribute SEQUENCE {
+     *     type  AttributeDescription,
+     *     vals  SET OF value AttributeValue }
+     * </pre>
+     *
+     * @param attributes The attributes to encode
+     * @return The encoded PartialAttributeList
+     * @throws EncoderException If the attributes can't be encoded
+     */
+    public static byte[] encodeAttributes( List<Attribute> attributes ) throws EncoderException
+    {
+        int nbAttributes = attributes.size();
+        byte[][] types = new byte[nbAttributes][];
+        byte[][][] values = new byte[nbAttributes][][];
+        int[] valuesLengths = new int[nbAttributes];
+        int[] attributeLengths = new int[nbAttributes];
+        int attributesLength = 0;
+
+        for ( int i = 0; i < nbAttributes; i++ )
+        {
+            Attribute attribute = attributes.get( i );
+            types[i] = Strings.getBytesUtf8( attribute.getUpId() );
+            values[i] = new byte[attribute.size()][];
+            int j = 0;
+
+            for ( Value value : attribute )
+            {
+                byte[] bytes;
+
+                if ( value.isHumanReadable() )
+                {
+                    bytes = Strings.getBytesUtf8( value.getValue() );
+                }
+                else
+                {
+                    bytes = value.getBytes();
+                }
+
+                values[i][j++] = bytes;
+                valuesLengths[i] += 1 + TLV.getNbBytes( bytes.length ) + bytes.length;
+            }
+
+            attributeLengths[i] = 1 + TLV.getNbBytes( types[i].length ) + types[i].length
+                + 1 + TLV.getNbBytes( valuesLengths[i] ) + valuesLengths[i];
+            attributesLength += 1 + TLV.getNbBytes( attributeLengths[i] ) + attributeLengths[i];
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate( 1 + TLV.getNbBytes( attributesLength ) + attributesLength );
+
+        buffer.put( UniversalTag.SEQUENCE.getValue() );
+        buffer.put( TLV.getBytes( attributesLength ) );
+
+        for ( int i = 0; i < nbAttributes; i++ )
+        {
+            buffer.put( UniversalTag.SEQUENCE.getValue() );
+            buffer.put( TLV.getBytes( attributeLengths[i] ) );
+            BerValue.encode( buffer, types[i] );
+
+            buffer.put( UniversalTag.SET.getValue() );
+            buffer.put( TLV.getBytes( valuesLengths[i] ) );
+
+            for ( byte[] value : values[i] )
+            {
+                BerValue.encode( buffer, value );
+            }
+        }
+
+        return buffer.array();
+    }
+
+
+    /**
+     * Removes the encoded forms of the entries which have been garbage collected
+     */
+    private void expungeStaleEntries()
+    {
+        Reference<? extends Entry> reference;
+
+        while ( ( reference = queue.poll() ) != null )
+        {
+            EncodedEntry encodedEntry = cache.remove( reference );
+
+            if ( encodedEntry != null )
+            {
+                size.addAndGet( -( ELEMENT_OVERHEAD + encodedEntry.bytes.length ) );
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the cached encoded forms
+     */
+    public void clear()
+    {
+        cache.clear();
+        size.set( 0L );
+
+        while ( queue.poll() != null )
+        {
+            // Nothing to do
+        }
+    }
+
+
+    /**
+     * @return The current size of the cached encoded forms, in bytes
+     */
+    public long getSize()
+    {
+        return size.get();
+    }
+
+
+    /**
+     * @return The max size of the cached encoded forms, in bytes
+     */
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+
+    /**
+     * @return The number of returned entries which have used a cached encoded form
+     */
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+
+    /**
+     * @return The number of returned entries which have been encoded
+     */
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+
+    /**
+     * The encoded PartialAttributeList of an entry
+     */
+    private static final class EncodedEntry
+    {
+        /** The encoded user attributes */
+        private final byte[] bytes;
+
+        /** The number of encoded attributes */
+        private final int userAttributeCount;
+
+
+        private EncodedEntry( byte[] bytes, int userAttributeCount )
+        {
+            this.bytes = bytes;
+            this.userAttributeCount = userAttributeCount;
+        }
+    }
+
+
+    /**
+     * A weak reference to an entry, compared by identity
+     */
+    private static final class EntryReference extends WeakReference<Entry>
+    {
+        /** The entry identity hash code, kept once the entry has been collected */
+        private final int hashCode;
+
+
+        private EntryReference( Entry entry )
+        {
+            super( entry );
+            hashCode = System.identityHashCode( entry );
+        }
+
+
+        private EntryReference( Entry entry, ReferenceQueue<Entry> queue )
+        {
+            super( entry, queue );
+            hashCode = System.identityHashCode( entry );
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+
+        @Override
+        public boolean equals( Object that )
+        {
+            if ( this == that )
+            {
+                return true;
+            }
+
+            if ( !( that instanceof EntryReference ) )
+            {
+                return false;
+            }
+
+            Entry entry = get();
+
+            return ( entry != null ) && ( entry == ( ( EntryReference ) that ).get() );
+        }
+    }
+}
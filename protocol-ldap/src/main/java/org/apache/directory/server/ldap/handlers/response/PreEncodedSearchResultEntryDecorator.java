@@ -0,0 +1,125 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.response;
+
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.asn1.EncoderException;
+import org.apache.directory.api.asn1.ber.tlv.BerValue;
+import org.apache.directory.api.asn1.ber.tlv.TLV;
+import org.apache.directory.api.ldap.codec.api.LdapApiService;
+import org.apache.directory.api.ldap.codec.decorators.SearchResultEntryDecorator;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.i18n.I18n;
+
+
+/**
+ * A SearchResultEntry decorator using an already encoded PartialAttributeList. Only
+ * the objectName is encoded for each response, the attributes bytes are shared by
+ * all the responses returning the same entry. The LdapMessage envelope (messageId
+ * and controls) is still encoded by the codec.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PreEncodedSearchResultEntryDecorator extends SearchResultEntryDecorator
+{
+    /** The SearchResultEntry tag, [APPLICATION 4] */
+    private static final byte SEARCH_RESULT_ENTRY_TAG = 0x64;
+
+    /** The encoded PartialAttributeList */
+    private final byte[] encodedAttributes;
+
+    /** The encoded objectName */
+    private byte[] objectNameBytes;
+
+    /** The SearchResultEntry length */
+    private int searchResultEntryLength;
+
+
+    /**
+     * Creates a new PreEncodedSearchResultEntryDecorator instance
+     *
+     * @param codec The LDAP service instance
+     * @param decoratedMessage The decorated SearchResultEntry
+     * @param encodedAttributes The encoded PartialAttributeList of the entry
+     */
+    public PreEncodedSearchResultEntryDecorator( LdapApiService codec, SearchResultEntry decoratedMessage,
+        byte[] encodedAttributes )
+    {
+        super( codec, decoratedMessage );
+        this.encodedAttributes = encodedAttributes;
+    }
+
+
+    /**
+     * Compute the SearchResultEntry length, using the encoded PartialAttributeList
+     * <br>
+     * SearchResultEntry :
+     * <pre>
+     * 0x64 L1
+     *  |
+     *  +--&gt; 0x04 L2 objectName
+     *  +--&gt; PartialAttributeList (already encoded)
+     * </pre>
+     */
+    @Override
+    public int computeLength()
+    {
+        objectNameBytes = Strings.getBytesUtf8( getObjectName().getName() );
+
+        searchResultEntryLength = 1 + TLV.getNbBytes( objectNameBytes.length ) + objectNameBytes.length
+            + encodedAttributes.length;
+
+        return 1 + TLV.getNbBytes( searchResultEntryLength ) + searchResultEntryLength;
+    }
+
+
+    /**
+     * Encode the SearchResultEntry message to a PDU, copying the encoded PartialAttributeList.
+     *
+     * @param buffer The buffer where to put the PDU
+     * @return The PDU.
+     */
+    @Override
+    public ByteBuffer encode( ByteBuffer buffer ) throws EncoderException
+    {
+        try
+        {
+            // The SearchResultEntry Tag
+            buffer.put( SEARCH_RESULT_ENTRY_TAG );
+            buffer.put( TLV.getBytes( searchResultEntryLength ) );
+
+            // The objectName
+            BerValue.encode( buffer, objectNameBytes );
+
+            // The attributes
+            buffer.put( encodedAttributes );
+        }
+        catch ( BufferOverflowException boe )
+        {
+            throw new EncoderException( I18n.err( I18n.ERR_138 ), boe );
+        }
+
+        return buffer;
+    }
+}
@@ -133,6 +133,12 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     /** flag to indicate if this node is part of a MMR setup, default value is true */
     private boolean mmrMode = true;
 
+    /** the default number of received changes applied in a single transaction */
+    public static final int DEFAULT_APPLY_BATCH_SIZE = 1000;
+
+    /** the number of received changes applied in a single transaction, 1 to commit each change */
+    private int applyBatchSize = DEFAULT_APPLY_BATCH_SIZE;
+
 
     /**
      * Creates a new instance of SyncreplConfiguration
@@ -580,6 +586,29 @@ public class SyncReplConfiguration implements ReplicationConsumerConfig
     }
 
 
+    /**
+     * @return the number of received changes applied in a single transaction
+     */
+    public int getApplyBatchSize()
+    {
+        return applyBatchSize;
+    }
+
+
+    /**
+     * Sets the number of received changes applied in a single transaction. The
+     * changes are committed when the batch is full, when the producer has
+     * nothing more to send for now, or when the batch has kept its partition
+     * locked for 500 ms.
+     *
+     * @param applyBatchSize the batch size, 1 to commit each change on its own
+     */
+    public void setApplyBatchSize( int applyBatchSize )
+    {
+        this.applyBatchSize = applyBatchSize > 0 ? applyBatchSize : 1;
+    }
+
+
     public String toString()
     {
         StringBuilder sb = new StringBuilder();
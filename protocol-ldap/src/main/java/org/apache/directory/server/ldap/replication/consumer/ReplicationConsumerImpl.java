@@ -25,6 +25,8 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections4.map.LRUMap;
 import org.apache.directory.api.ldap.codec.controls.manageDsaIT.ManageDsaITDecorator;
@@ -92,6 +94,7 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.replication.ReplicationConsumerConfig;
 import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
@@ -166,6 +169,34 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
     private static final Map<String, Object> UUID_LOCK_MAP = new LRUMap( 1000 );
 
+    /** The maximum time a batch keeps its partition write locked, in milliseconds */
+    private static final long BATCH_MAX_DURATION = 500L;
+
+    /** The changes applied in the current transaction, replayed one by one if it fails */
+    private final List<SearchResultEntry> pendingChanges = new ArrayList<>();
+
+    /** The cookie of the last change applied in the current transaction */
+    private byte[] pendingCookie;
+
+    /** The partition write locked until the current transaction is committed, null if none */
+    private Partition batchPartition;
+
+    /** The time the partition of the current batch has been locked */
+    private long batchStart;
+
+    /** The number of changes applied since the consumer has been created */
+    private final AtomicLong appliedChanges = new AtomicLong();
+
+    /** The number of changes applied per second, measured over the last second of activity */
+    private volatile double appliedChangesPerSecond;
+
+    /** The delay between a change on the producer and its application, in milliseconds */
+    private volatile long replicationLag;
+
+    /** The start of the current rate measure, and the number of changes applied since */
+    private long rateStart;
+    private long rateCount;
+
 
     /**
      * @return the config
@@ -186,7 +217,8 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     {
         this.directoryService = directoryservice;
 
-        session = directoryService.getAdminSession();
+        // A session of our own, as the changes are applied in session transactions
+        session = directoryService.getSession( directoryService.getAdminSession().getAuthenticatedPrincipal() );
 
         schemaManager = directoryservice.getSchemaManager();
 
@@ -350,125 +382,406 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
     {
         CONSUMER_LOG.debug( "------------- starting handleSearchResult ------------" );
 
-        SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
+        // The partition is locked before the entry, as it is when the change is part of a batch
+        Partition partition = getPartition( syncResult );
+
+        if ( partition != null )
+        {
+            directoryService.getOperationManager().lockWrite( partition );
+        }
 
         try
         {
-            Entry remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
-            String uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
-            // lock on UUID to serialize the updates when there are multiple consumers
-            // connected to several producers and to the *same* base/partition
-            Object lock = getLockFor( uuid );
+            applySearchResultEntry( syncResult, false );
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( e.getMessage(), e );
+        }
+        finally
+        {
+            if ( partition != null )
+            {
+                directoryService.getOperationManager().unlockWrite( partition );
+            }
+        }
 
-            synchronized ( lock )
+        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
+    }
+
+
+    /**
+     * Applies a SearchResultEntry received from a consumer.
+     *
+     * @param syncResult The received entry
+     * @param batched Tells if the change is part of a batch : the cookie is then stored when
+     * the batch is committed
+     * @throws Exception If the change can't be applied
+     */
+    private void applySearchResultEntry( SearchResultEntry syncResult, boolean batched ) throws Exception
+    {
+        SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
+
+        Entry remoteEntry = new DefaultEntry( schemaManager, syncResult.getEntry() );
+        String uuid = remoteEntry.get( directoryService.getAtProvider().getEntryUUID() ).getString();
+        // lock on UUID to serialize the updates when there are multiple consumers
+        // connected to several producers and to the *same* base/partition
+        Object lock = getLockFor( uuid );
+
+        synchronized ( lock )
+        {
+            int rid = -1;
+
+            byte[] cookie = syncStateCtrl.getCookie();
+
+            if ( cookie != null )
             {
-                int rid = -1;
+                rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( cookie ) );
+                CONSUMER_LOG.debug( "assigning the cookie from sync state value control: {}",
+                    Strings.utf8ToString( cookie ) );
 
-                if ( syncStateCtrl.getCookie() != null )
+                if ( batched )
                 {
-                    syncCookie = syncStateCtrl.getCookie();
-                    rid = LdapProtocolUtils.getReplicaId( Strings.utf8ToString( syncCookie ) );
-                    CONSUMER_LOG.debug( "assigning the cookie from sync state value control: {}",
-                        Strings.utf8ToString( syncCookie ) );
+                    pendingCookie = cookie;
                 }
-
-                SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
-
-                // check to avoid conversion of UUID from byte[] to String
-                if ( CONSUMER_LOG.isDebugEnabled() )
+                else
                 {
-                    CONSUMER_LOG.debug( "state name {}", state.name() );
-                    CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
+                    syncCookie = cookie;
                 }
+            }
 
-                Dn remoteDn = remoteEntry.getDn();
+            SyncStateTypeEnum state = syncStateCtrl.getSyncStateType();
 
-                switch ( state )
-                {
-                    case ADD:
-                        boolean remoteDnExist = false;
-
-                        try
-                        {
-                            remoteDnExist = session.exists( remoteDn );
-                        }
-                        catch ( LdapNoSuchObjectException lnsoe )
-                        {
-                            CONSUMER_LOG.error( lnsoe.getMessage() );
-                        }
-
-                        if ( !remoteDnExist )
-                        {
-                            CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
-                            CONSUMER_LOG.debug( remoteEntry.toString() );
-                            AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
-                            addContext.setReplEvent( true );
-                            addContext.setRid( rid );
-
-                            OperationManager operationManager = directoryService.getOperationManager();
-                            operationManager.add( addContext );
-                        }
-                        else
-                        {
-                            CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
-                            modify( remoteEntry, rid );
-                        }
-
-                        break;
-
-                    case MODIFY:
-                        CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
+            // check to avoid conversion of UUID from byte[] to String
+            if ( CONSUMER_LOG.isDebugEnabled() )
+            {
+                CONSUMER_LOG.debug( "state name {}", state.name() );
+                CONSUMER_LOG.debug( "entryUUID = {}", Strings.uuidToString( syncStateCtrl.getEntryUUID() ) );
+            }
+
+            Dn remoteDn = remoteEntry.getDn();
+
+            switch ( state )
+            {
+                case ADD:
+                    boolean remoteDnExist = false;
+
+                    try
+                    {
+                        remoteDnExist = session.exists( remoteDn );
+                    }
+                    catch ( LdapNoSuchObjectException lnsoe )
+                    {
+                        CONSUMER_LOG.error( lnsoe.getMessage() );
+                    }
+
+                    if ( !remoteDnExist )
+                    {
+                        CONSUMER_LOG.debug( "adding entry with dn {}", remoteDn );
+                        CONSUMER_LOG.debug( remoteEntry.toString() );
+                        AddOperationContext addContext = new AddOperationContext( session, remoteEntry );
+                        addContext.setReplEvent( true );
+                        addContext.setRid( rid );
+
+                        OperationManager operationManager = directoryService.getOperationManager();
+                        operationManager.add( addContext );
+                    }
+                    else
+                    {
+                        CONSUMER_LOG.debug( "updating entry in refreshOnly mode {}", remoteDn );
                         modify( remoteEntry, rid );
+                    }
 
-                        break;
+                    break;
 
-                    case MODDN:
-                        String entryUuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() );
-                        applyModDnOperation( remoteEntry, entryUuid, rid );
+                case MODIFY:
+                    CONSUMER_LOG.debug( "modifying entry with dn {}", remoteEntry.getDn().getName() );
+                    modify( remoteEntry, rid );
 
-                        break;
+                    break;
 
-                    case DELETE:
-                        CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
+                case MODDN:
+                    String entryUuid = Strings.uuidToString( syncStateCtrl.getEntryUUID() );
+                    applyModDnOperation( remoteEntry, entryUuid, rid );
 
-                        if ( !session.exists( remoteDn ) )
-                        {
-                            CONSUMER_LOG
-                                .debug(
-                                    "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
-                                    remoteDn );
-                        }
-                        else
-                        {
-                            // incase of a MODDN operation resulting in a branch to be moved out of scope
-                            // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
-                            // so the branch needs to be recursively deleted here
-                            deleteRecursive( remoteEntry.getDn(), rid );
-                        }
+                    break;
 
-                        break;
+                case DELETE:
+                    CONSUMER_LOG.debug( "deleting entry with dn {}", remoteEntry.getDn().getName() );
 
-                    case PRESENT:
-                        CONSUMER_LOG.debug( "entry present {}", remoteEntry );
-                        break;
+                    if ( !session.exists( remoteDn ) )
+                    {
+                        CONSUMER_LOG
+                            .debug(
+                                "looks like entry {} was already deleted in a prior update (possibly from another provider), skipping delete",
+                                remoteDn );
+                    }
+                    else
+                    {
+                        // incase of a MODDN operation resulting in a branch to be moved out of scope
+                        // ApacheDS replication provider sends a single delete event on the Dn of the moved branch
+                        // so the branch needs to be recursively deleted here
+                        deleteRecursive( remoteEntry.getDn(), rid );
+                    }
 
-                    default:
-                        throw new IllegalArgumentException( "Unexpected sync state " + state );
-                }
+                    break;
 
-                // store the cookie only if the above operation was successful
-                if ( syncStateCtrl.getCookie() != null )
-                {
-                    storeCookie();
-                }
+                case PRESENT:
+                    CONSUMER_LOG.debug( "entry present {}", remoteEntry );
+                    break;
+
+                default:
+                    throw new IllegalArgumentException( "Unexpected sync state " + state );
+            }
+
+            if ( state != SyncStateTypeEnum.PRESENT )
+            {
+                changeApplied( remoteEntry );
             }
+
+            // store the cookie only if the above operation was successful
+            if ( ( cookie != null ) && !batched )
+            {
+                storeCookie();
+            }
+        }
+    }
+
+
+    /**
+     * Applies a SearchResultEntry received from a consumer in the current batch, starting
+     * a new batch if needed. The MODDN are not idempotent, they are applied on their own,
+     * so that a batch can always be replayed.
+     *
+     * @param syncResult The received entry
+     */
+    private void applyChange( SearchResultEntry syncResult )
+    {
+        SyncStateValue syncStateCtrl = ( SyncStateValue ) syncResult.getControl( SyncStateValue.OID );
+        Partition partition = null;
+
+        if ( ( config.getApplyBatchSize() > 1 ) && ( syncStateCtrl.getSyncStateType() != SyncStateTypeEnum.MODDN ) )
+        {
+            partition = getPartition( syncResult );
+        }
+
+        // A batch covers a single partition, the one it has locked
+        if ( ( partition == null ) || ( ( batchPartition != null ) && ( partition != batchPartition ) ) )
+        {
+            commitChanges();
+        }
+
+        if ( partition == null )
+        {
+            handleSearchResultEntry( syncResult );
+
+            return;
+        }
+
+        if ( pendingChanges.isEmpty() )
+        {
+            // The partition is locked until the batch is committed or rolled back : the
+            // other writers can't commit nor roll back its changes, as a transaction
+            // covers the whole partition
+            directoryService.getOperationManager().lockWrite( partition );
+            batchPartition = partition;
+            batchStart = System.currentTimeMillis();
+            session.beginSessionTransaction();
+        }
+
+        pendingChanges.add( syncResult );
+
+        try
+        {
+            applySearchResultEntry( syncResult, true );
         }
         catch ( Exception e )
         {
-            CONSUMER_LOG.error( e.getMessage(), e );
+            CONSUMER_LOG.debug( "Failed to apply a change in a batch, applying the {} changes one by one",
+                pendingChanges.size(), e );
+            replayChanges();
+
+            return;
         }
 
-        CONSUMER_LOG.debug( "------------- Ending handleSearchResult ------------" );
+        if ( ( pendingChanges.size() >= config.getApplyBatchSize() )
+            || ( System.currentTimeMillis() - batchStart >= BATCH_MAX_DURATION ) )
+        {
+            commitChanges();
+        }
+    }
+
+
+    /**
+     * Commits the changes of the current batch, and stores the cookie of the last one.
+     */
+    private void commitChanges()
+    {
+        if ( pendingChanges.isEmpty() )
+        {
+            return;
+        }
+
+        try
+        {
+            session.endSessionTransaction( true );
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( "Failed to commit {} changes, applying them one by one", pendingChanges.size(), e );
+            replayChanges();
+
+            return;
+        }
+
+        unlockBatch();
+        CONSUMER_LOG.debug( "Committed {} changes", pendingChanges.size() );
+        pendingChanges.clear();
+
+        if ( pendingCookie != null )
+        {
+            syncCookie = pendingCookie;
+            pendingCookie = null;
+            storeCookie();
+        }
+    }
+
+
+    /**
+     * Rolls back the current batch, and applies its changes one by one, so that only the
+     * failing ones are skipped. The changes are idempotent, so the ones which have been
+     * committed anyway can be applied again.
+     */
+    private void replayChanges()
+    {
+        try
+        {
+            session.endSessionTransaction( false );
+        }
+        catch ( Exception e )
+        {
+            CONSUMER_LOG.error( "Failed to rollback the pending changes", e );
+        }
+
+        // The partition caches may hold the rolled back changes
+        if ( batchPartition instanceof AbstractBTreePartition )
+        {
+            ( ( AbstractBTreePartition ) batchPartition ).clearCaches();
+        }
+
+        unlockBatch();
+
+        List<SearchResultEntry> changes = new ArrayList<>( pendingChanges );
+        pendingChanges.clear();
+        pendingCookie = null;
+
+        for ( SearchResultEntry change : changes )
+        {
+            handleSearchResultEntry( change );
+        }
+    }
+
+
+    /**
+     * @param syncResult The received entry
+     * @return The partition holding the received entry, or null if it can't be found
+     */
+    private Partition getPartition( SearchResultEntry syncResult )
+    {
+        try
+        {
+            return directoryService.getPartitionNexus().getPartition(
+                new Dn( schemaManager, syncResult.getObjectName().getName() ) );
+        }
+        catch ( LdapException le )
+        {
+            CONSUMER_LOG.debug( "No partition found for {}", syncResult.getObjectName(), le );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Unlocks the partition of the batch, once its transaction is ended
+     */
+    private void unlockBatch()
+    {
+        if ( batchPartition != null )
+        {
+            directoryService.getOperationManager().unlockWrite( batchPartition );
+            batchPartition = null;
+        }
+    }
+
+
+    /**
+     * Updates the statistics once a change has been applied.
+     *
+     * @param remoteEntry The received entry
+     */
+    private void changeApplied( Entry remoteEntry )
+    {
+        long now = System.currentTimeMillis();
+
+        appliedChanges.incrementAndGet();
+        rateCount++;
+
+        if ( rateStart == 0L )
+        {
+            rateStart = now;
+        }
+        else if ( now - rateStart >= 1000L )
+        {
+            appliedChangesPerSecond = rateCount * 1000d / ( now - rateStart );
+            rateStart = now;
+            rateCount = 0L;
+
+            CONSUMER_LOG.debug( "Applying {} changes per second from {}, lag {} ms", appliedChangesPerSecond,
+                config.getProducer(), replicationLag );
+        }
+
+        Attribute csnAttr = remoteEntry.get( SchemaConstants.ENTRY_CSN_AT );
+
+        if ( csnAttr != null )
+        {
+            try
+            {
+                replicationLag = Math.max( 0L, now - new Csn( csnAttr.getString() ).getTimestamp() );
+            }
+            catch ( Exception e )
+            {
+                // Not a valid CSN, the lag is not updated
+            }
+        }
+    }
+
+
+    /**
+     * @return The number of changes applied since the consumer has been created
+     */
+    public long getAppliedChanges()
+    {
+        return appliedChanges.get();
+    }
+
+
+    /**
+     * @return The number of changes applied per second, measured over the last second of activity
+     */
+    public double getAppliedChangesPerSecond()
+    {
+        return appliedChangesPerSecond;
+    }
+
+
+    /**
+     * @return The delay between the last change on the producer and its application on this
+     * consumer, in milliseconds
+     */
+    public long getReplicationLag()
+    {
+        return replicationLag;
     }
 
 
@@ -778,27 +1091,52 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
         CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
 
         // Now, process the responses. We loop until we have a connection termination or
-        // a SearchResultDone (RefreshOnly mode)
-        while ( !( resp instanceof SearchResultDone ) && !sf.isCancelled() && !disconnected )
+        // a SearchResultDone (RefreshOnly mode). The pending changes are always committed,
+        // so that their partition is unlocked
+        try
         {
-            if ( resp instanceof SearchResultEntry )
+            while ( !( resp instanceof SearchResultDone ) && !sf.isCancelled() && !disconnected )
             {
-                SearchResultEntry result = ( SearchResultEntry ) resp;
+                if ( resp instanceof SearchResultEntry )
+                {
+                    applyChange( ( SearchResultEntry ) resp );
+                }
+                else
+                {
+                    // The other messages are handled once the received changes are committed
+                    commitChanges();
+
+                    if ( resp instanceof SearchResultReference )
+                    {
+                        handleSearchReference( ( SearchResultReference ) resp );
+                    }
+                    else if ( resp instanceof IntermediateResponse )
+                    {
+                        handleSyncInfo( ( IntermediateResponse ) resp );
+                    }
+                }
 
-                handleSearchResultEntry( result );
-            }
-            else if ( resp instanceof SearchResultReference )
-            {
-                handleSearchReference( ( SearchResultReference ) resp );
-            }
-            else if ( resp instanceof IntermediateResponse )
-            {
-                handleSyncInfo( ( IntermediateResponse ) resp );
-            }
+                // Next entry. The partition stays locked only if it has already been
+                // received : the pending changes are committed before waiting for the producer
+                resp = null;
 
-            // Next entry
-            resp = sf.get();
-            CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
+                if ( !pendingChanges.isEmpty() )
+                {
+                    resp = sf.get( 0L, TimeUnit.MILLISECONDS );
+                }
+
+                if ( resp == null )
+                {
+                    commitChanges();
+                    resp = sf.get();
+                }
+
+                CONSUMER_LOG.debug( "Response from {} : {}", config.getProducer(), resp );
+            }
+        }
+        finally
+        {
+            commitChanges();
         }
 
         if ( sf.isCancelled() )
@@ -946,7 +1284,8 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
 
             CONSUMER_LOG.debug( "Storing the cookie in the DIT : {}", config.getConfigEntryDn() );
 
-            session.modify( config.getConfigEntryDn(), cookieMod );
+            // The admin session is used, so that the cookie is not part of a pending batch
+            directoryService.getAdminSession().modify( config.getConfigEntryDn(), cookieMod );
             CONSUMER_LOG.debug( "stored the cookie in entry {}", config.getConfigEntryDn() );
 
             lastSavedCookie = new byte[syncCookie.length];
@@ -1011,7 +1350,7 @@ public class ReplicationConsumerImpl implements ConnectionClosedEventListener, R
             Attribute cookieAttr = new DefaultAttribute( adsReplCookieAT );
             Modification deleteCookieMod = new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
                 cookieAttr );
-            session.modify( config.getConfigEntryDn(), deleteCookieMod );
+            directoryService.getAdminSession().modify( config.getConfigEntryDn(), deleteCookieMod );
             CONSUMER_LOG.info( "resetting sync cookie of the consumer with config entry Dn {}",
                 config.getConfigEntryDn() );
         }
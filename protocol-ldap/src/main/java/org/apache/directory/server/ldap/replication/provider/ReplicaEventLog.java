@@ -23,6 +23,18 @@ package org.apache.directory.server.ldap.replication.provider;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import jdbm.RecordManager;
 import jdbm.recman.BaseRecordManager;
@@ -59,6 +71,10 @@ import org.slf4j.LoggerFactory;
  * </ul>
  * A separate log is maintained for each syncrepl consumer.<br>
  * We also associate a Queue with each structure, which will store the messages to send to the consumer.
+ * <br>
+ * The messages are not written in the journal one by one : they are first stored in an in-memory
+ * tail, which is flushed in a single journal transaction when it contains more than a threshold
+ * number of messages, or periodically. The cursors read the tail as well as the journal.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -70,6 +86,20 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     /** A logger for the replication provider */
     private static final Logger PROVIDER_LOG = LoggerFactory.getLogger( Loggers.PROVIDER_LOG.getName() );
 
+    /** The thread flushing periodically the tails of all the logs */
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory()
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "ReplicaEventLogFlusher" );
+                thread.setDaemon( true );
+
+                return thread;
+            }
+        } );
+
     /** hostname of the syncrepl consumer */
     private String hostName;
 
@@ -119,10 +149,34 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
 
     /** The max delay for an idle replication log with no activity, by default the logs have no idle time period */
     public static final int DEFAULT_MAX_IDLE_PERIOD = -1;
+
+    /** The default number of pending messages triggering a flush of the tail */
+    public static final int DEFAULT_FLUSH_THRESHOLD = 64;
+
+    /** The default delay, in milliseconds, between two flushes of the tail */
+    public static final long DEFAULT_FLUSH_INTERVAL = 100L;
     
     /** The partition transaction */
     private PartitionTxn partitionTxn;
 
+    /** The messages not yet written in the journal, ordered by CSN */
+    private ConcurrentNavigableMap<String, ReplicaEventMessage> tail;
+
+    /** The lock held while the tail is flushed */
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /** The number of pending messages triggering a flush of the tail */
+    private int flushThreshold = DEFAULT_FLUSH_THRESHOLD;
+
+    /** The delay, in milliseconds, between two flushes of the tail */
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    /** The periodic flush task */
+    private ScheduledFuture<?> flushTask;
+
+    /** Set when the last flush has failed : the tail is then only flushed periodically */
+    private volatile boolean flushFailed;
+
 
     /**
      * Creates a new instance of EventLog for a replica
@@ -155,15 +209,18 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
             StringSerializer.INSTANCE, new ReplicaEventMessageSerializer( schemaManager ) );
         
         this.partitionTxn = partitionTxn;
+        tail = new ConcurrentSkipListMap<>( comparator );
+        scheduleFlush();
     }
 
 
     /**
-     * Stores the given message in the queue 
+     * Stores the given message in the queue. The message is added to the in-memory
+     * tail, and the tail is written in the journal if it contains enough messages. 
      *
      * @param message The message to store
      */
-    public synchronized void log( ReplicaEventMessage message )
+    public void log( ReplicaEventMessage message )
     {
         try
         {
@@ -173,16 +230,208 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
                 message.getChangeType() );
 
             String entryCsn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
-            journal.put( partitionTxn, entryCsn, message );
+            tail.put( entryCsn, message );
         }
         catch ( Exception e )
         {
             LOG.warn( "Failed to insert the entry into syncrepl log", e );
             PROVIDER_LOG.error( "Failed to insert the entry into syncrepl log", e );
+
+            return;
+        }
+
+        int pending = tail.size();
+
+        if ( ( pending >= 4 * flushThreshold ) && !flushFailed )
+        {
+            // The journal can't keep up : wait for the current flush, and do another one
+            flush();
+        }
+        else if ( ( pending >= flushThreshold ) && flushLock.tryLock() )
+        {
+            // Another writer is already flushing the tail otherwise
+            try
+            {
+                flushTail();
+            }
+            finally
+            {
+                flushLock.unlock();
+            }
         }
     }
 
 
+    /**
+     * Writes the messages of the in-memory tail in the journal, in a single transaction.
+     */
+    public void flush()
+    {
+        flushLock.lock();
+
+        try
+        {
+            flushTail();
+        }
+        finally
+        {
+            flushLock.unlock();
+        }
+    }
+
+
+    /**
+     * Writes the tail in the journal. Must be called while holding the flush lock.
+     */
+    private void flushTail()
+    {
+        if ( tail.isEmpty() || ( journal == null ) )
+        {
+            return;
+        }
+
+        // The messages are removed from the tail once they are in the journal, so that
+        // they can always be found in one of them
+        List<Map.Entry<String, ReplicaEventMessage>> batch = new ArrayList<>( tail.entrySet() );
+
+        if ( write( batch ) )
+        {
+            removeFromTail( batch );
+            flushFailed = false;
+
+            PROVIDER_LOG.debug( "Flushed {} messages in the log for replica {}", batch.size(), replicaId );
+
+            return;
+        }
+
+        // Write the messages one by one, so that a message which can't be stored doesn't
+        // prevent the others from being written. The failed ones stay in the tail.
+        List<Map.Entry<String, ReplicaEventMessage>> failed = new ArrayList<>();
+        int written = 0;
+
+        for ( Map.Entry<String, ReplicaEventMessage> pending : batch )
+        {
+            if ( write( Collections.singletonList( pending ) ) )
+            {
+                tail.remove( pending.getKey(), pending.getValue() );
+                written++;
+            }
+            else
+            {
+                failed.add( pending );
+            }
+        }
+
+        if ( failed.isEmpty() )
+        {
+            flushFailed = false;
+
+            return;
+        }
+
+        if ( written > 0 )
+        {
+            // The journal can be written : these messages can never be stored
+            LOG.error( "Failed to insert {} entries into the syncrepl log of replica {}, they are dropped",
+                failed.size(), replicaId );
+            PROVIDER_LOG.error( "Failed to insert {} entries into the syncrepl log of replica {}, they are dropped",
+                failed.size(), replicaId );
+            removeFromTail( failed );
+            flushFailed = false;
+        }
+        else
+        {
+            // The journal can't be written : keep the messages for the next flush
+            LOG.error( "Failed to write the syncrepl log of replica {}, {} entries are kept in memory",
+                replicaId, failed.size() );
+            PROVIDER_LOG.error( "Failed to write the syncrepl log of replica {}, {} entries are kept in memory",
+                replicaId, failed.size() );
+            flushFailed = true;
+        }
+    }
+
+
+    /**
+     * Writes some messages in the journal, in a single transaction which is rolled back
+     * if one of them can't be written.
+     *
+     * @return true if the messages have been written
+     */
+    private boolean write( List<Map.Entry<String, ReplicaEventMessage>> messages )
+    {
+        try
+        {
+            for ( Map.Entry<String, ReplicaEventMessage> pending : messages )
+            {
+                journal.put( partitionTxn, pending.getKey(), pending.getValue() );
+            }
+
+            recman.commit();
+
+            return true;
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to insert the entries into syncrepl log", e );
+            PROVIDER_LOG.warn( "Failed to insert the entries into syncrepl log", e );
+
+            try
+            {
+                recman.rollback();
+            }
+            catch ( Exception re )
+            {
+                LOG.warn( "Failed to rollback the syncrepl log", re );
+            }
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Removes some messages from the tail, unless they have been replaced meanwhile
+     */
+    private void removeFromTail( List<Map.Entry<String, ReplicaEventMessage>> messages )
+    {
+        for ( Map.Entry<String, ReplicaEventMessage> pending : messages )
+        {
+            tail.remove( pending.getKey(), pending.getValue() );
+        }
+    }
+
+
+    /**
+     * Schedules the periodic flush of the tail
+     */
+    private void scheduleFlush()
+    {
+        if ( flushTask != null )
+        {
+            flushTask.cancel( false );
+        }
+
+        flushTask = FLUSHER.scheduleWithFixedDelay( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if ( !tail.isEmpty() && flushLock.tryLock() )
+                {
+                    try
+                    {
+                        flushTail();
+                    }
+                    finally
+                    {
+                        flushLock.unlock();
+                    }
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS );
+    }
+
+
     /**
      * Deletes the queue (to remove the log) and recreates a new queue instance
      * with the same queue name. Also creates the corresponding message producer
@@ -213,20 +462,37 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     {
         PROVIDER_LOG.debug( "Stopping the EventLog for replicaId {}", replicaId );
 
-        // Close the producer and session, DO NOT close connection 
-        if ( journal != null )
+        if ( flushTask != null )
         {
-            journal.close( partitionTxn );
+            flushTask.cancel( false );
+            flushTask = null;
         }
 
-        journal = null;
+        flushLock.lock();
 
-        if ( recman != null )
+        try
         {
-            recman.close();
-        }
+            flushTail();
+
+            // Close the producer and session, DO NOT close connection 
+            if ( journal != null )
+            {
+                journal.close( partitionTxn );
+            }
+
+            journal = null;
 
-        recman = null;
+            if ( recman != null )
+            {
+                recman.close();
+            }
+
+            recman = null;
+        }
+        finally
+        {
+            flushLock.unlock();
+        }
     }
 
 
@@ -441,7 +707,7 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
      */
     public ReplicaJournalCursor getCursor( String consumerCsn ) throws Exception
     {
-        return new ReplicaJournalCursor( partitionTxn, journal, consumerCsn );
+        return new ReplicaJournalCursor( partitionTxn, journal, tail, flushLock, consumerCsn );
     }
 
 
@@ -455,13 +721,14 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
 
 
     /**
-     * @return the number of entries present in the replica log
+     * @return the number of entries present in the replica log, including the ones
+     * not yet written in the journal
      */
-    public synchronized long count()
+    public long count()
     {
         try
         {
-            return journal.count( partitionTxn );
+            return journal.count( partitionTxn ) + tail.size();
         }
         catch ( LdapException e )
         {
@@ -504,6 +771,57 @@ public class ReplicaEventLog implements Comparable<ReplicaEventLog>
     }
 
 
+    /**
+     * @return The number of pending messages triggering a flush of the tail
+     */
+    public int getFlushThreshold()
+    {
+        return flushThreshold;
+    }
+
+
+    /**
+     * @param flushThreshold The number of pending messages triggering a flush of the tail
+     */
+    public void setFlushThreshold( int flushThreshold )
+    {
+        if ( flushThreshold <= 0 )
+        {
+            flushThreshold = DEFAULT_FLUSH_THRESHOLD;
+        }
+
+        this.flushThreshold = flushThreshold;
+    }
+
+
+    /**
+     * @return The delay, in milliseconds, between two flushes of the tail
+     */
+    public long getFlushInterval()
+    {
+        return flushInterval;
+    }
+
+
+    /**
+     * @param flushInterval The delay, in milliseconds, between two flushes of the tail
+     */
+    public synchronized void setFlushInterval( long flushInterval )
+    {
+        if ( flushInterval <= 0 )
+        {
+            flushInterval = DEFAULT_FLUSH_INTERVAL;
+        }
+
+        this.flushInterval = flushInterval;
+
+        if ( flushTask != null )
+        {
+            scheduleFlush();
+        }
+    }
+
+
     public Dn getConsumerEntryDn()
     {
         return consumerEntryDn;
@@ -22,7 +22,14 @@ package org.apache.directory.server.ldap.replication.provider;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -40,7 +47,9 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Define a cursor on top of a replication journal.
+ * Define a cursor on top of a replication journal. The messages stored in the journal are
+ * merged, in CSN order, with the messages of the in-memory tail which were not yet written
+ * in the journal when the cursor was created.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -71,7 +80,36 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
     
     /** The partition transaction */
     private PartitionTxn partitionTxn;
-    
+
+    /** The in-memory tail of the journal */
+    private ConcurrentNavigableMap<String, ReplicaEventMessage> tail;
+
+    /** The lock held while the tail is flushed in the journal, null if the tail is never flushed */
+    private Lock flushLock;
+
+    /** The messages of the tail when the cursor was created */
+    private List<Map.Entry<String, ReplicaEventMessage>> tailMessages;
+
+    /** The position of the next message to read in the tail messages */
+    private int tailPos;
+
+    /** The comparator used to order the CSNs */
+    private Comparator<? super String> comparator;
+
+    /** The CSN of the next message to read in the journal, if already fetched */
+    private String journalCsn;
+
+    /** The next message to read in the journal, if already fetched */
+    private ReplicaEventMessage journalMessage;
+
+    /** Tells if all the journal messages have been read */
+    private boolean journalExhausted;
+
+    /** The CSN of the message read by fetchNext */
+    private String currentCsn;
+
+    /** The message read by fetchNext */
+    private ReplicaEventMessage currentMessage;
 
 
     /**
@@ -84,6 +122,39 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
      */
     public ReplicaJournalCursor( PartitionTxn partitionTxn, JdbmTable<String, ReplicaEventMessage> journal, 
             String consumerCsn ) throws Exception
+    {
+        this( partitionTxn, journal, null, consumerCsn );
+    }
+
+
+    /**
+     * Creates a cursor on top of the given journal and of its in-memory tail
+     * 
+     * @param partitionTxn The Transaction to use
+     * @param journal the log journal
+     * @param tail the messages not yet written in the journal, ordered by CSN
+     * @param consumerCsn the consumer's CSN taken from cookie
+     * @throws Exception If the cursor creation failed
+     */
+    public ReplicaJournalCursor( PartitionTxn partitionTxn, JdbmTable<String, ReplicaEventMessage> journal,
+        ConcurrentNavigableMap<String, ReplicaEventMessage> tail, String consumerCsn ) throws Exception
+    {
+        this( partitionTxn, journal, tail, null, consumerCsn );
+    }
+
+
+    /**
+     * Creates a cursor on top of the given journal and of its in-memory tail
+     * 
+     * @param partitionTxn The Transaction to use
+     * @param journal the log journal
+     * @param tail the messages not yet written in the journal, ordered by CSN
+     * @param flushLock the lock held while the tail is flushed in the journal
+     * @param consumerCsn the consumer's CSN taken from cookie
+     * @throws Exception If the cursor creation failed
+     */
+    public ReplicaJournalCursor( PartitionTxn partitionTxn, JdbmTable<String, ReplicaEventMessage> journal,
+        ConcurrentNavigableMap<String, ReplicaEventMessage> tail, Lock flushLock, String consumerCsn ) throws Exception
     {
         if ( IS_DEBUG )
         {
@@ -91,9 +162,24 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
         }
 
         this.journal = journal;
-        this.tupleCursor = journal.cursor();
+        this.tail = tail;
+        this.flushLock = flushLock;
         this.consumerCsn = consumerCsn;
         this.partitionTxn = partitionTxn;
+
+        // The tail must be copied before the journal is read : a message flushed in
+        // the meantime will then be found in the copy, if not in the journal
+        if ( ( tail == null ) || tail.isEmpty() )
+        {
+            tailMessages = Collections.emptyList();
+        }
+        else
+        {
+            tailMessages = new ArrayList<>( tail.entrySet() );
+            comparator = tail.comparator();
+        }
+
+        this.tupleCursor = journal.cursor();
     }
 
 
@@ -205,12 +291,10 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
      */
     public boolean next() throws LdapException, CursorException
     {
-        while ( tupleCursor.next() )
+        while ( fetchNext() )
         {
-            Tuple<String, ReplicaEventMessage> tuple = tupleCursor.get();
-
-            String csn = tuple.getKey();
-            ReplicaEventMessage message = tuple.getValue();
+            String csn = currentCsn;
+            ReplicaEventMessage message = currentMessage;
 
             if ( skipQualifying )
             {
@@ -227,7 +311,7 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             }
             else
             {
-                journal.remove( partitionTxn, csn );
+                remove( csn );
             }
         }
 
@@ -237,6 +321,106 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
     }
 
 
+    /**
+     * Reads the next message, in CSN order, either from the journal or from the tail
+     * copy. A message present in both is returned once.
+     */
+    private boolean fetchNext() throws LdapException, CursorException
+    {
+        if ( ( journalMessage == null ) && !journalExhausted )
+        {
+            if ( tupleCursor.next() )
+            {
+                Tuple<String, ReplicaEventMessage> tuple = tupleCursor.get();
+                journalCsn = tuple.getKey();
+                journalMessage = tuple.getValue();
+            }
+            else
+            {
+                journalExhausted = true;
+            }
+        }
+
+        Map.Entry<String, ReplicaEventMessage> tailMessage = null;
+
+        if ( tailPos < tailMessages.size() )
+        {
+            tailMessage = tailMessages.get( tailPos );
+        }
+
+        if ( ( journalMessage == null ) && ( tailMessage == null ) )
+        {
+            return false;
+        }
+
+        int comparison;
+
+        if ( journalMessage == null )
+        {
+            comparison = 1;
+        }
+        else if ( tailMessage == null )
+        {
+            comparison = -1;
+        }
+        else
+        {
+            comparison = comparator.compare( journalCsn, tailMessage.getKey() );
+        }
+
+        if ( comparison > 0 )
+        {
+            currentCsn = tailMessage.getKey();
+            currentMessage = tailMessage.getValue();
+            tailPos++;
+
+            return true;
+        }
+
+        if ( comparison == 0 )
+        {
+            // Already flushed in the journal
+            tailPos++;
+        }
+
+        currentCsn = journalCsn;
+        currentMessage = journalMessage;
+        journalCsn = null;
+        journalMessage = null;
+
+        return true;
+    }
+
+
+    /**
+     * Removes a message from the tail, or from the journal if it has already been flushed.
+     * The flush lock is held so that a flush can't write back in the journal a message
+     * it has copied from the tail before the message was removed.
+     */
+    private void remove( String csn ) throws LdapException
+    {
+        if ( flushLock != null )
+        {
+            flushLock.lock();
+        }
+
+        try
+        {
+            if ( ( tail == null ) || ( tail.remove( csn ) == null ) )
+            {
+                journal.remove( partitionTxn, csn );
+            }
+        }
+        finally
+        {
+            if ( flushLock != null )
+            {
+                flushLock.unlock();
+            }
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -298,7 +482,7 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
         {
             if ( qualifiedEvtMsg != null )
             {
-                journal.remove( partitionTxn, qualifiedEvtMsg.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+                remove( qualifiedEvtMsg.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString() );
             }
         }
         catch ( Exception e )
@@ -20,6 +20,8 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateTypeEnum;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateValue;
 import org.apache.directory.api.ldap.extras.controls.syncrepl_impl.SyncStateValueDecorator;
@@ -49,6 +51,7 @@ import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapProtocolUtils;
 import org.apache.directory.server.ldap.LdapSession;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.mina.core.future.IoFutureListener;
 import org.apache.mina.core.future.WriteFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,6 +70,9 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     /** Logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( SyncReplSearchListener.class );
 
+    /** The max number of entries written to the consumer and not yet sent */
+    static final int MAX_PENDING_WRITES = 1000;
+
     /** The ldap session */
     private LdapSession session;
     
@@ -76,6 +82,9 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     /** A flag telling if we push the response to the consumer or if we store them in a queue */
     private volatile boolean pushInRealTime;
 
+    /** The number of entries written to the consumer and not yet sent */
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+
     /** The consumer configuration */
     private final ReplicaEventLog consumerMsgLog;
     
@@ -188,10 +197,26 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
     
     /**
      * Send the result to the consumer. If the consumer has disconnected, we fail back to the queue.
+     * If the consumer does not read the entries as fast as they are written, we stop pushing them
+     * and close the session : the consumer will get the next ones from the journal when it
+     * reconnects.
      */
     private void sendResult( SearchResultEntry searchResultEntry, Entry entry, EventType eventType, 
         SyncStateValue syncStateValue )
     {
+        if ( pendingWrites.incrementAndGet() > MAX_PENDING_WRITES )
+        {
+            pendingWrites.decrementAndGet();
+            LOG.warn( "The consumer {} is too slow, {} entries are waiting to be sent, closing its session",
+                consumerMsgLog.getId(), MAX_PENDING_WRITES );
+
+            // The entry is already stored in the journal
+            pushInRealTime = false;
+            session.getIoSession().closeNow();
+
+            return;
+        }
+
         searchResultEntry.addControl( syncStateValue );
 
         LOG.debug( "sending event {} of entry {}", eventType, entry.getDn() );
@@ -498,37 +523,45 @@ public class SyncReplSearchListener implements DirectoryListener, AbandonListene
 
 
     /**
-     * Process the writing of the replicated entry to the consumer
+     * Process the writing of the replicated entry to the consumer. We don't wait for
+     * the entry to be written, as a slow consumer would delay the operation which has
+     * generated the event : the result is handled when the write is completed. The
+     * writes are completed in order, as they are done on the same session.
      */
-    private void handleWriteFuture( WriteFuture future, Entry entry, EventType event )
+    private void handleWriteFuture( WriteFuture future, final Entry entry, final EventType event )
     {
-        // Let the operation be executed.
-        // Note : we wait 10 seconds max
-        future.awaitUninterruptibly( 10000L );
-        
-        if ( !future.isWritten() )
+        future.addListener( new IoFutureListener<WriteFuture>()
         {
-            LOG.error( "Failed to write to the consumer {} during the event {} on entry {}", new Object[] { 
-                           consumerMsgLog.getId(), event, entry.getDn() } );
-            LOG.error( "", future.getException() );
-
-            // set realtime push to false, will be set back to true when the client
-            // comes back and sends another request this flag will be set to true
-            pushInRealTime = false;
-        }
-        else
-        {
-            try
-            {
-                // if successful update the last sent CSN
-                consumerMsgLog.setLastSentCsn( entry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
-            }
-            catch ( Exception e )
+            @Override
+            public void operationComplete( WriteFuture writeFuture )
             {
-                //should never happen
-                LOG.error( "No entry CSN attribute found", e );
+                pendingWrites.decrementAndGet();
+
+                if ( !writeFuture.isWritten() )
+                {
+                    LOG.error( "Failed to write to the consumer {} during the event {} on entry {}", new Object[] { 
+                                   consumerMsgLog.getId(), event, entry.getDn() } );
+                    LOG.error( "", writeFuture.getException() );
+
+                    // set realtime push to false, will be set back to true when the client
+                    // comes back and sends another request this flag will be set to true
+                    pushInRealTime = false;
+                }
+                else
+                {
+                    try
+                    {
+                        // if successful update the last sent CSN
+                        consumerMsgLog.setLastSentCsn( entry.get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+                    }
+                    catch ( Exception e )
+                    {
+                        //should never happen
+                        LOG.error( "No entry CSN attribute found", e );
+                    }
+                }
             }
-        }
+        } );
     }
     
     
@@ -24,6 +24,12 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 import jdbm.RecordManager;
 import jdbm.recman.BaseRecordManager;
@@ -49,6 +55,7 @@ import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
 import org.apache.directory.server.core.partition.impl.btree.jdbm.StringSerializer;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
+import org.apache.directory.server.ldap.replication.provider.ReplicaJournalCursor;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -295,6 +302,157 @@ public class JournalTest
     }
 
 
+    /**
+     * test that a cursor reads the messages of the journal and of its in-memory tail
+     * in CSN order, once, even if some of them are in both.
+     */
+    @Test
+    public void testJournalCursorWithTail() throws Exception
+    {
+        SerializableComparator<String> comparator = new SerializableComparator<String>(
+            SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
+        comparator.setSchemaManager( schemaManager );
+        ConcurrentNavigableMap<String, ReplicaEventMessage> tail = new ConcurrentSkipListMap<>( comparator );
+        String csn100 = null;
+
+        for ( int i = 0; i < 500; i++ )
+        {
+            String entryCsn = csnFactory.newInstance().toString();
+
+            if ( i == 100 )
+            {
+                csn100 = entryCsn;
+            }
+
+            Entry entry = new DefaultEntry( schemaManager, "ou=test" + i + ",ou=system",
+                "ObjectClass: top",
+                "ObjectClass: organizationalUnit",
+                "ou", "test" + i,
+                "entryCsn", entryCsn
+                );
+
+            ReplicaEventMessage replicaEventMessage = new ReplicaEventMessage( ChangeType.ADD, entry );
+
+            // The messages 200 to 299 have been flushed, but are still in the tail
+            if ( i < 300 )
+            {
+                journal.put( partitionTxn, entryCsn, replicaEventMessage );
+            }
+
+            if ( i >= 200 )
+            {
+                tail.put( entryCsn, replicaEventMessage );
+            }
+        }
+
+        ReplicaJournalCursor cursor = new ReplicaJournalCursor( partitionTxn, journal, tail, csn100 );
+        int pos = 101;
+
+        while ( cursor.next() )
+        {
+            assertEquals( "test" + pos, cursor.get().getEntry().get( "ou" ).getString() );
+            pos++;
+        }
+
+        cursor.close();
+
+        assertEquals( 500, pos );
+
+        // The messages older than the consumer CSN have been removed
+        assertEquals( 199, journal.count( partitionTxn ) );
+        assertEquals( 300, tail.size() );
+    }
+
+
+    /**
+     * test that a message purged from the tail while the tail is being flushed is not
+     * written back in the journal by the flush.
+     */
+    @Test
+    public void testJournalCursorRemoveDuringFlush() throws Exception
+    {
+        SerializableComparator<String> comparator = new SerializableComparator<String>(
+            SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
+        comparator.setSchemaManager( schemaManager );
+        ConcurrentNavigableMap<String, ReplicaEventMessage> tail = new ConcurrentSkipListMap<>( comparator );
+        String csn4 = null;
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            String entryCsn = csnFactory.newInstance().toString();
+
+            if ( i == 4 )
+            {
+                csn4 = entryCsn;
+            }
+
+            Entry entry = new DefaultEntry( schemaManager, "ou=test" + i + ",ou=system",
+                "ObjectClass: top",
+                "ObjectClass: organizationalUnit",
+                "ou", "test" + i,
+                "entryCsn", entryCsn
+                );
+
+            tail.put( entryCsn, new ReplicaEventMessage( ChangeType.ADD, entry ) );
+        }
+
+        final ReentrantLock flushLock = new ReentrantLock();
+        final ReplicaJournalCursor cursor = new ReplicaJournalCursor( partitionTxn, journal, tail, flushLock, csn4 );
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        // A flush copies the tail, then the cursor purges the old messages
+        flushLock.lock();
+        Map<String, ReplicaEventMessage> batch = new HashMap<>( tail );
+
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    while ( cursor.next() )
+                    {
+                        cursor.get();
+                    }
+
+                    cursor.close();
+                }
+                catch ( Exception e )
+                {
+                    failure.set( e );
+                }
+            }
+        };
+
+        reader.start();
+
+        while ( !flushLock.hasQueuedThreads() && reader.isAlive() )
+        {
+            Thread.sleep( 10 );
+        }
+
+        for ( Map.Entry<String, ReplicaEventMessage> message : batch.entrySet() )
+        {
+            journal.put( partitionTxn, message.getKey(), message.getValue() );
+        }
+
+        tail.keySet().removeAll( batch.keySet() );
+        flushLock.unlock();
+
+        reader.join();
+
+        if ( failure.get() != null )
+        {
+            throw failure.get();
+        }
+
+        // The messages older than the consumer CSN have been removed from the journal
+        assertEquals( 5, journal.count( partitionTxn ) );
+        assertEquals( 0, tail.size() );
+    }
+
+
     /**
      * Test the performances for 100 000 writes, read and delete.
      * On my laptop, it takes : <br>
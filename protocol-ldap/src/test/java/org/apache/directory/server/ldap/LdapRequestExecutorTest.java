@@ -0,0 +1,206 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.message.AbandonRequestImpl;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoEvent;
+import org.apache.mina.core.session.IoEventType;
+import org.apache.mina.core.session.IoSession;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link LdapRequestExecutor} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LdapRequestExecutorTest
+{
+    /**
+     * An event waiting for a latch to be released
+     */
+    private static class BlockingEvent extends IoEvent
+    {
+        private final CountDownLatch started = new CountDownLatch( 1 );
+        private final CountDownLatch release;
+
+
+        BlockingEvent( IoSession session, Object message, CountDownLatch release )
+        {
+            super( IoEventType.MESSAGE_RECEIVED, session, message );
+            this.release = release;
+        }
+
+
+        @Override
+        public void fire()
+        {
+            started.countDown();
+
+            try
+            {
+                release.await( 10, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    @Test
+    public void testSessionLimit() throws Exception
+    {
+        LdapRequestExecutor executor = new LdapRequestExecutor( 4, 1 );
+        IoSession session1 = new DummySession();
+        IoSession session2 = new DummySession();
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        try
+        {
+            BlockingEvent first = new BlockingEvent( session1, "first", release );
+            BlockingEvent second = new BlockingEvent( session1, "second", release );
+            BlockingEvent other = new BlockingEvent( session2, "other", release );
+
+            executor.execute( first );
+            executor.execute( second );
+            executor.execute( other );
+
+            // The second request of the first session waits for the first one
+            assertTrue( first.started.await( 5, TimeUnit.SECONDS ) );
+            assertTrue( other.started.await( 5, TimeUnit.SECONDS ) );
+            assertFalse( second.started.await( 200, TimeUnit.MILLISECONDS ) );
+            assertEquals( 1, executor.getSessionQueuedCount() );
+            assertEquals( 1, executor.getQueueDepth() );
+
+            release.countDown();
+
+            assertTrue( second.started.await( 5, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            release.countDown();
+            executor.shutdown();
+            assertTrue( executor.awaitTermination( 10, TimeUnit.SECONDS ) );
+        }
+
+        assertEquals( 0, executor.getSessionQueuedCount() );
+        assertEquals( 3L, executor.getExecutedCount() );
+    }
+
+
+    @Test
+    public void testAbandonIsNotQueued() throws Exception
+    {
+        LdapRequestExecutor executor = new LdapRequestExecutor( 4, 1 );
+        IoSession session = new DummySession();
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        try
+        {
+            BlockingEvent search = new BlockingEvent( session, "search", release );
+            BlockingEvent abandon = new BlockingEvent( session, new AbandonRequestImpl( 1 ), new CountDownLatch( 0 ) );
+
+            executor.execute( search );
+            assertTrue( search.started.await( 5, TimeUnit.SECONDS ) );
+
+            // The abandon request is executed while the search is running
+            executor.execute( abandon );
+            assertTrue( abandon.started.await( 5, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            release.countDown();
+            executor.shutdown();
+            assertTrue( executor.awaitTermination( 10, TimeUnit.SECONDS ) );
+        }
+    }
+
+
+    @Test
+    public void testSessionQueueLimit() throws Exception
+    {
+        LdapRequestExecutor executor = new LdapRequestExecutor( 4, 1, 1 );
+        IoSession session = new DummySession();
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        try
+        {
+            BlockingEvent first = new BlockingEvent( session, "first", release );
+            BlockingEvent queued = new BlockingEvent( session, "queued", release );
+            BlockingEvent rejected = new BlockingEvent( session, new SearchRequestImpl(), release );
+
+            executor.execute( first );
+            executor.execute( queued );
+            assertTrue( first.started.await( 5, TimeUnit.SECONDS ) );
+
+            // The session queue is full, the third request is rejected
+            executor.execute( rejected );
+            assertEquals( 1L, executor.getRejectedCount() );
+            assertEquals( 1, executor.getSessionQueuedCount() );
+
+            release.countDown();
+
+            assertTrue( queued.started.await( 5, TimeUnit.SECONDS ) );
+            assertFalse( rejected.started.await( 200, TimeUnit.MILLISECONDS ) );
+        }
+        finally
+        {
+            release.countDown();
+            executor.shutdown();
+            assertTrue( executor.awaitTermination( 10, TimeUnit.SECONDS ) );
+        }
+    }
+
+
+    @Test
+    public void testShutdownWithQueuedRequests() throws Exception
+    {
+        LdapRequestExecutor executor = new LdapRequestExecutor( 4, 1 );
+        IoSession session = new DummySession();
+        CountDownLatch release = new CountDownLatch( 1 );
+
+        BlockingEvent first = new BlockingEvent( session, "first", release );
+        BlockingEvent queued = new BlockingEvent( session, "queued", release );
+
+        executor.execute( first );
+        executor.execute( queued );
+        assertTrue( first.started.await( 5, TimeUnit.SECONDS ) );
+
+        // The queued request can't be submitted once the executor is shut down
+        executor.shutdown();
+        release.countDown();
+
+        assertTrue( executor.awaitTermination( 10, TimeUnit.SECONDS ) );
+        assertFalse( queued.started.await( 200, TimeUnit.MILLISECONDS ) );
+        assertEquals( 0, executor.getSessionQueuedCount() );
+    }
+}
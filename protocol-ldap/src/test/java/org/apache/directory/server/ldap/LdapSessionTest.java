@@ -0,0 +1,93 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.server.ldap.handlers.controls.VlvSearchContext;
+import org.apache.mina.core.session.DummySession;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link LdapSession} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LdapSessionTest
+{
+    private VlvSearchContext createVlvContext( int messageId )
+    {
+        SearchRequestImpl searchRequest = new SearchRequestImpl();
+        searchRequest.setMessageId( messageId );
+        VlvSearchContext context = new VlvSearchContext( searchRequest );
+        context.setCursor( new EmptyCursor<Entry>() );
+
+        return context;
+    }
+
+
+    /**
+     * The oldest Virtual List View context is closed and evicted when the session
+     * holds too many of them
+     */
+    @Test
+    public void testVlvSearchContextsAreBounded() throws Exception
+    {
+        LdapSession session = new LdapSession( new DummySession() );
+        List<VlvSearchContext> contexts = new ArrayList<>();
+
+        for ( int i = 1; i <= LdapSession.MAX_VLV_SEARCH_CONTEXTS; i++ )
+        {
+            VlvSearchContext context = createVlvContext( i );
+            contexts.add( context );
+            session.addVlvSearchContext( context );
+        }
+
+        // A removed context does not count anymore
+        session.removePagedSearchContext( contexts.get( 1 ).getCookieValue() );
+        session.addVlvSearchContext( createVlvContext( 100 ) );
+
+        assertNotNull( session.getPagedSearchContext( contexts.get( 0 ).getCookieValue() ) );
+        assertFalse( contexts.get( 0 ).getCursor().isClosed() );
+
+        // The next one evicts the oldest context
+        session.addVlvSearchContext( createVlvContext( 101 ) );
+
+        assertNull( session.getPagedSearchContext( contexts.get( 0 ).getCookieValue() ) );
+        assertTrue( contexts.get( 0 ).getCursor().isClosed() );
+
+        for ( int i = 2; i < contexts.size(); i++ )
+        {
+            assertNotNull( session.getPagedSearchContext( contexts.get( i ).getCookieValue() ) );
+            assertFalse( contexts.get( i ).getCursor().isClosed() );
+        }
+    }
+}
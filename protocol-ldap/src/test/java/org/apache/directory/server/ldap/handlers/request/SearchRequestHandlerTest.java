@@ -0,0 +1,71 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.request;
+
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the computation of the Virtual List View target position.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchRequestHandlerTest
+{
+    @Test
+    public void testVlvTargetWithoutClientCount()
+    {
+        assertEquals( 1, SearchRequestHandler.getVlvTargetPosition( 1, 0, 100 ) );
+        assertEquals( 50, SearchRequestHandler.getVlvTargetPosition( 50, 0, 100 ) );
+        assertEquals( 100, SearchRequestHandler.getVlvTargetPosition( 100, 0, 100 ) );
+    }
+
+
+    @Test
+    public void testVlvTargetWithSameClientCount()
+    {
+        assertEquals( 42, SearchRequestHandler.getVlvTargetPosition( 42, 100, 100 ) );
+    }
+
+
+    @Test
+    public void testVlvTargetScaled()
+    {
+        // The client thinks there are 10 entries, there are 100 of them
+        assertEquals( 50, SearchRequestHandler.getVlvTargetPosition( 5, 10, 100 ) );
+        assertEquals( 100, SearchRequestHandler.getVlvTargetPosition( 10, 10, 100 ) );
+
+        // The client thinks there are 1000 entries, there are 100 of them
+        assertEquals( 1, SearchRequestHandler.getVlvTargetPosition( 1, 1000, 100 ) );
+        assertEquals( 50, SearchRequestHandler.getVlvTargetPosition( 500, 1000, 100 ) );
+    }
+
+
+    @Test
+    public void testVlvTargetAfterLast()
+    {
+        assertEquals( 101, SearchRequestHandler.getVlvTargetPosition( 150, 0, 100 ) );
+        assertEquals( 101, SearchRequestHandler.getVlvTargetPosition( 20, 10, 100 ) );
+        assertEquals( 1, SearchRequestHandler.getVlvTargetPosition( 1, 0, 0 ) );
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.response;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link EncodedEntryCache} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EncodedEntryCacheTest
+{
+    private static SchemaManager schemaManager;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    @Test
+    public void testEncodeAttributes() throws Exception
+    {
+        List<Attribute> attributes = new ArrayList<>();
+        attributes.add( new DefaultAttribute( "cn", "a", "b" ) );
+        attributes.add( new DefaultAttribute( "sn" ) );
+
+        byte[] expected = new byte[]
+            {
+                0x30, 0x16,
+                  0x30, 0x0C,
+                    0x04, 0x02, 'c', 'n',
+                    0x31, 0x06,
+                      0x04, 0x01, 'a',
+                      0x04, 0x01, 'b',
+                  0x30, 0x06,
+                    0x04, 0x02, 's', 'n',
+                    0x31, 0x00
+            };
+
+        assertArrayEquals( expected, EncodedEntryCache.encodeAttributes( attributes ) );
+    }
+
+
+    @Test
+    public void testEncodeNoAttribute() throws Exception
+    {
+        assertArrayEquals( new byte[]
+            { 0x30, 0x00 }, EncodedEntryCache.encodeAttributes( new ArrayList<Attribute>() ) );
+    }
+
+
+    @Test
+    public void testNotClonedEntry() throws Exception
+    {
+        EncodedEntryCache cache = new EncodedEntryCache( 1024L );
+
+        // Only the entries coming from a partition are cached
+        assertNull( cache.getEncodedAttributes( new DefaultEntry( "dc=example,dc=com", "dc: example" ) ) );
+    }
+
+
+    @Test
+    public void testUnchangedEntry() throws Exception
+    {
+        EncodedEntryCache cache = new EncodedEntryCache( 1024L );
+        Entry original = new DefaultEntry( schemaManager, "dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: domain",
+            "dc: example",
+            "description: A" );
+
+        byte[] encoded = cache.getEncodedAttributes( new ClonedServerEntry( original ) );
+        assertNotNull( encoded );
+
+        // The second time, the cached encoded form is used
+        assertArrayEquals( encoded, cache.getEncodedAttributes( new ClonedServerEntry( original ) ) );
+    }
+
+
+    @Test
+    public void testRewrittenValue() throws Exception
+    {
+        EncodedEntryCache cache = new EncodedEntryCache( 1024L );
+        Entry original = new DefaultEntry( schemaManager, "dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: domain",
+            "dc: example",
+            "description: A" );
+        assertNotNull( cache.getEncodedAttributes( new ClonedServerEntry( original ) ) );
+
+        // An interceptor has replaced a value, without changing the number of values
+        Entry rewritten = new ClonedServerEntry( original );
+        rewritten.put( "description", "B" );
+        assertNull( cache.getEncodedAttributes( rewritten ) );
+
+        // Or has changed the case of a value, which is equal once normalized
+        Entry normalized = new ClonedServerEntry( original );
+        normalized.put( "description", "a" );
+        assertNull( cache.getEncodedAttributes( normalized ) );
+    }
+}
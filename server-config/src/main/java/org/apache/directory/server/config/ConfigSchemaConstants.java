@@ -153,6 +153,10 @@ public enum ConfigSchemaConstants
 
     //ADS_DS_REPLICATION( "ads-dsReplication", "" ),
 
+    ADS_DS_SEARCH_THREADS("ads-dsSearchThreads", ""),
+
+    ADS_DS_SORT_MEMORY_LIMIT("ads-dsSortMemoryLimit", ""),
+
     ADS_DS_SYNCPERIOD_MILLIS("ads-dsSyncPeriodMillis", ""),
 
     ADS_DS_TEST_ENTRIES("ads-dsTestEntries", ""),
@@ -171,8 +175,12 @@ public enum ConfigSchemaConstants
 
     ADS_PARTITION_CACHE_SIZE("ads-partitionCacheSize", ""),
 
+    ADS_PARTITION_CACHE_MAX_WEIGHT("ads-partitionCacheMaxWeight", ""),
+
     ADS_JDBM_PARTITION_OPTIMIZER_ENABLED("ads-jdbmPartitionOptimizerEnabled", ""),
 
+    ADS_PARTITION_STATISTICS_ENABLED("ads-partitionStatisticsEnabled", ""),
+
     ADS_PARTITION_SYNCONWRITE("ads-partitionSyncOnWrite", ""),
 
     ADS_PARTITION_INDEXED_ATTRIBUTES("ads-partitionIndexedAttributes", ""),
@@ -275,7 +283,13 @@ public enum ConfigSchemaConstants
 
     ADS_LDAP_SERVER_KEYSTORE_FILE("ads-ldapserverkeystorefile", ""),
 
-    ADS_LDAP_SERVER_CERT_PASSWORD("ads-ldapServerCertificatePassword", "");
+    ADS_LDAP_SERVER_CERT_PASSWORD("ads-ldapServerCertificatePassword", ""),
+
+    ADS_LDAP_SERVER_ENCODED_ENTRY_CACHE_SIZE("ads-ldapServerEncodedEntryCacheSize", ""),
+
+    ADS_LDAP_SERVER_MAX_REQUESTS_PER_SESSION("ads-ldapServerMaxRequestsPerSession", ""),
+
+    ADS_LDAP_SERVER_MAX_QUEUED_REQUESTS_PER_SESSION("ads-ldapServerMaxQueuedRequestsPerSession", "");
 
     /** The interned value */
     private String value;
@@ -62,6 +62,14 @@ public class DirectoryServiceBean extends AdsBaseBean
     @ConfigurationElement(attributeType = "ads-dsSyncPeriodMillis")
     private long dsSyncPeriodMillis = 15000L;
 
+    /** The maximum size of the entries sorted in memory by a search */
+    @ConfigurationElement(attributeType = "ads-dsSortMemoryLimit", isOptional = true, defaultValue = "16777216")
+    private long dsSortMemoryLimit = 16777216L;
+
+    /** The number of threads searching the partitions concurrently */
+    @ConfigurationElement(attributeType = "ads-dsSearchThreads", isOptional = true, defaultValue = "0")
+    private int dsSearchThreads = 0;
+
     /** The ldif entries to inject into the server at startup */
     @ConfigurationElement(attributeType = "ads-dsTestEntries", isOptional = true)
     private String dsTestEntries;
@@ -265,6 +273,42 @@ public class DirectoryServiceBean extends AdsBaseBean
     }
 
 
+    /**
+     * @return the dsSortMemoryLimit
+     */
+    public long getDsSortMemoryLimit()
+    {
+        return dsSortMemoryLimit;
+    }
+
+
+    /**
+     * @param dsSortMemoryLimit the dsSortMemoryLimit to set
+     */
+    public void setDsSortMemoryLimit( long dsSortMemoryLimit )
+    {
+        this.dsSortMemoryLimit = dsSortMemoryLimit;
+    }
+
+
+    /**
+     * @return the dsSearchThreads
+     */
+    public int getDsSearchThreads()
+    {
+        return dsSearchThreads;
+    }
+
+
+    /**
+     * @param dsSearchThreads the dsSearchThreads to set
+     */
+    public void setDsSearchThreads( int dsSearchThreads )
+    {
+        this.dsSearchThreads = dsSearchThreads;
+    }
+
+
     /**
      * @return the dsTestEntries
      */
@@ -526,6 +570,8 @@ public class DirectoryServiceBean extends AdsBaseBean
         sb.append( toString( "  ", "denormalized attributes enabled", dsDenormalizeOpAttrsEnabled ) );
         sb.append( toString( "  ", "password hidden", dsPasswordHidden ) );
         sb.append( "  sync period millisecond : " ).append( dsSyncPeriodMillis ).append( '\n' );
+        sb.append( "  sort memory limit : " ).append( dsSortMemoryLimit ).append( '\n' );
+        sb.append( "  search threads : " ).append( dsSearchThreads ).append( '\n' );
         sb.append( toString( "  ", "test entries", dsTestEntries ) );
 
         sb.append( "  interceptors : \n" );
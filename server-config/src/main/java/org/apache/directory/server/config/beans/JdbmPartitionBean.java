@@ -34,10 +34,18 @@ public class JdbmPartitionBean extends PartitionBean
     @ConfigurationElement(attributeType = "ads-partitionCacheSize", isOptional = true, defaultValue = "-1")
     private int partitionCacheSize = -1;
 
+    /** The max weight of the Entry cache for this partition, in bytes */
+    @ConfigurationElement(attributeType = "ads-partitionCacheMaxWeight", isOptional = true, defaultValue = "-1")
+    private long partitionCacheMaxWeight = -1L;
+
     /** Tells if the optimizer is enabled or not */
     @ConfigurationElement(attributeType = "ads-jdbmPartitionOptimizerEnabled", isOptional = true, defaultValue = "true")
     private boolean jdbmPartitionOptimizerEnabled = true;
 
+    /** Tells if the optimizer uses statistics maintained on the indexes */
+    @ConfigurationElement(attributeType = "ads-partitionStatisticsEnabled", isOptional = true, defaultValue = "false")
+    private boolean partitionStatisticsEnabled = false;
+
 
     /**
      * Create a new JdbmPartitionBean instance
@@ -71,6 +79,29 @@ public class JdbmPartitionBean extends PartitionBean
     }
 
 
+    /**
+     * Used to specify the max weight of the entry cache for a Partition, in bytes.
+     * When not set, the max weight is computed from the partition cache size.
+     *
+     * @param partitionCacheMaxWeight the maximum weight of the cache, in bytes
+     */
+    public void setPartitionCacheMaxWeight( long partitionCacheMaxWeight )
+    {
+        this.partitionCacheMaxWeight = partitionCacheMaxWeight;
+    }
+
+
+    /**
+     * Gets the max weight of the entry cache for this JdbmPartition.
+     *
+     * @return the maximum weight of the cache, in bytes
+     */
+    public long getPartitionCacheMaxWeight()
+    {
+        return partitionCacheMaxWeight;
+    }
+
+
     /**
      * @return <code>true</code> if the optimizer is enabled
      */
@@ -91,6 +122,26 @@ public class JdbmPartitionBean extends PartitionBean
     }
 
 
+    /**
+     * @return <code>true</code> if the optimizer uses statistics maintained on the indexes
+     */
+    public boolean isPartitionStatisticsEnabled()
+    {
+        return partitionStatisticsEnabled;
+    }
+
+
+    /**
+     * Enable or disable the indexes statistics
+     * 
+     * @param partitionStatisticsEnabled True or false
+     */
+    public void setPartitionStatisticsEnabled( boolean partitionStatisticsEnabled )
+    {
+        this.partitionStatisticsEnabled = partitionStatisticsEnabled;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -102,7 +153,9 @@ public class JdbmPartitionBean extends PartitionBean
         sb.append( tabs ).append( "JdbmPartitionBean :\n" );
         sb.append( super.toString( tabs ) );
         sb.append( tabs ).append( "  partition cache size : " ).append( partitionCacheSize ).append( '\n' );
+        sb.append( toString( tabs, "  partition cache max weight", partitionCacheMaxWeight ) );
         sb.append( toString( tabs, "  jdbm partition optimizer enabled", jdbmPartitionOptimizerEnabled ) );
+        sb.append( toString( tabs, "  partition statistics enabled", partitionStatisticsEnabled ) );
 
         return sb.toString();
     }
@@ -50,6 +50,18 @@ public class LdapServerBean extends DSBasedServerBean
     @ConfigurationElement(attributeType = "ads-maxPDUSize")
     private int maxPDUSize = 2048;
 
+    /** The max number of requests executed at the same time for a session */
+    @ConfigurationElement(attributeType = "ads-ldapServerMaxRequestsPerSession", isOptional = true, defaultValue = "0")
+    private int maxRequestsPerSession;
+
+    /** The max number of requests waiting in a session queue */
+    @ConfigurationElement(attributeType = "ads-ldapServerMaxQueuedRequestsPerSession", isOptional = true, defaultValue = "100")
+    private int maxQueuedRequestsPerSession = 100;
+
+    /** The max size of the cache of the encoded entries attributes, in bytes */
+    @ConfigurationElement(attributeType = "ads-ldapServerEncodedEntryCacheSize", isOptional = true, defaultValue = "0")
+    private long encodedEntryCacheSize;
+
     /** The SASL host */
     @ConfigurationElement(attributeType = "ads-saslHost")
     private String saslHost;
@@ -389,6 +401,60 @@ public class LdapServerBean extends DSBasedServerBean
     }
 
 
+    /**
+     * @return the max number of requests executed at the same time for a session
+     */
+    public int getLdapServerMaxRequestsPerSession()
+    {
+        return maxRequestsPerSession;
+    }
+
+
+    /**
+     * @param ldapServerMaxRequestsPerSession the max number of requests executed at the same time for a session to set
+     */
+    public void setLdapServerMaxRequestsPerSession( int ldapServerMaxRequestsPerSession )
+    {
+        this.maxRequestsPerSession = ldapServerMaxRequestsPerSession;
+    }
+
+
+    /**
+     * @return the max number of requests waiting in a session queue
+     */
+    public int getLdapServerMaxQueuedRequestsPerSession()
+    {
+        return maxQueuedRequestsPerSession;
+    }
+
+
+    /**
+     * @param ldapServerMaxQueuedRequestsPerSession the max number of requests waiting in a session queue to set
+     */
+    public void setLdapServerMaxQueuedRequestsPerSession( int ldapServerMaxQueuedRequestsPerSession )
+    {
+        this.maxQueuedRequestsPerSession = ldapServerMaxQueuedRequestsPerSession;
+    }
+
+
+    /**
+     * @return the max size of the cache of the encoded entries attributes, in bytes
+     */
+    public long getLdapServerEncodedEntryCacheSize()
+    {
+        return encodedEntryCacheSize;
+    }
+
+
+    /**
+     * @param ldapServerEncodedEntryCacheSize the max size of the cache of the encoded entries attributes to set
+     */
+    public void setLdapServerEncodedEntryCacheSize( long ldapServerEncodedEntryCacheSize )
+    {
+        this.encodedEntryCacheSize = ldapServerEncodedEntryCacheSize;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -23,18 +23,23 @@ package org.apache.directory.server.replication;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.Csn;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.message.ModifyRequest;
 import org.apache.directory.api.ldap.model.message.ModifyRequestImpl;
 import org.apache.directory.api.ldap.model.message.SearchRequest;
@@ -53,6 +58,12 @@ import org.apache.directory.server.core.annotations.CreateIndex;
 import org.apache.directory.server.core.annotations.CreatePartition;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.DirectoryListenerAdapter;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.event.EventType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.factory.DSAnnotationProcessor;
 import org.apache.directory.server.core.integ.FrameworkRunner;
 import org.apache.directory.server.core.security.TlsKeyGenerator;
@@ -444,6 +455,134 @@ public class ClientServerReplicationIT
     }
 
 
+    /**
+     * Test that a change failing in a batch of replicated changes is skipped, while the
+     * other changes of the batch are applied, and that the consumer's listeners are
+     * notified once of each applied change
+     */
+    @Test
+    public void testFailingChangeInBatch() throws Exception
+    {
+        Entry failingUser = createEntry();
+
+        providerSession.add( failingUser );
+        assertTrue( checkEntryReplicated( failingUser.getDn() ) );
+
+        // The entry is deleted on the consumer only : its modification will fail there
+        consumerSession.delete( failingUser.getDn() );
+
+        final List<Dn> added = Collections.synchronizedList( new ArrayList<Dn>() );
+
+        DirectoryListener listener = new DirectoryListenerAdapter()
+        {
+            @Override
+            public void entryAdded( AddOperationContext addContext )
+            {
+                added.add( addContext.getDn() );
+            }
+        };
+
+        NotificationCriteria criteria = new NotificationCriteria( consumerSession.getDirectoryService()
+            .getSchemaManager() );
+        criteria.setBase( new Dn( schemaManager, "dc=example,dc=com" ) );
+        criteria.setEventMask( EventType.ADD.getMask() );
+
+        EventService eventService = consumerSession.getDirectoryService().getEventService();
+        eventService.addListener( listener, criteria );
+
+        try
+        {
+            Entry before = createEntry();
+            Entry after = createEntry();
+
+            // The changes are sent in a row : they are applied in the same batch
+            providerSession.add( before );
+            providerSession.modify( failingUser.getDn(),
+                new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "sn", "modified" ) );
+            providerSession.add( after );
+
+            assertTrue( checkEntryReplicated( before.getDn() ) );
+            assertTrue( checkEntryReplicated( after.getDn() ) );
+            assertFalse( consumerSession.exists( failingUser.getDn() ) );
+
+            // Let the listener be notified
+            Thread.sleep( 500 );
+
+            assertEquals( 1, Collections.frequency( added, before.getDn() ) );
+            assertEquals( 1, Collections.frequency( added, after.getDn() ) );
+        }
+        finally
+        {
+            eventService.removeListener( listener );
+        }
+    }
+
+
+    /**
+     * Test that the entries added on the consumer while replicated changes are applied
+     * are kept, and that the replicated changes are all applied
+     */
+    @Test
+    public void testLocalWritesDuringBatch() throws Exception
+    {
+        SchemaManager consumerSchemaManager = consumerSession.getDirectoryService().getSchemaManager();
+        final List<Entry> localEntries = new ArrayList<>();
+        List<Entry> replicatedEntries = new ArrayList<>();
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            Entry entry = createEntry();
+            localEntries.add( new DefaultEntry( consumerSchemaManager, entry.getDn(),
+                "objectClass", "person",
+                "cn", entry.get( "cn" ).getString(),
+                "sn", entry.get( "sn" ).getString() ) );
+            replicatedEntries.add( createEntry() );
+        }
+
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        Thread localWriter = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    for ( Entry entry : localEntries )
+                    {
+                        consumerSession.add( entry );
+                    }
+                }
+                catch ( Exception e )
+                {
+                    failure.set( e );
+                }
+            }
+        };
+
+        localWriter.start();
+
+        for ( Entry entry : replicatedEntries )
+        {
+            providerSession.add( entry );
+        }
+
+        localWriter.join();
+        assertNull( failure.get() );
+
+        for ( Entry entry : replicatedEntries )
+        {
+            assertTrue( checkEntryReplicated( entry.getDn() ) );
+        }
+
+        for ( Entry entry : localEntries )
+        {
+            assertTrue( consumerSession.exists( entry.getDn() ) );
+            consumerSession.delete( entry.getDn() );
+        }
+    }
+
+
     private Entry restartConsumer( Entry provUser ) throws Exception
     {
         //System.out.println( "------------------------------------- Stop consumer" );
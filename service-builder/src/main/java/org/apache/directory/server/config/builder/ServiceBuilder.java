@@ -1047,6 +1047,13 @@ public final class ServiceBuilder
         // MaxPDUSize
         ldapServer.setMaxPDUSize( ldapServerBean.getMaxPDUSize() );
 
+        // Encoded entry cache size
+        ldapServer.setEncodedEntryCacheSize( ldapServerBean.getLdapServerEncodedEntryCacheSize() );
+
+        // Max requests per session
+        ldapServer.setMaxRequestsPerSession( ldapServerBean.getLdapServerMaxRequestsPerSession() );
+        ldapServer.setMaxQueuedRequestsPerSession( ldapServerBean.getLdapServerMaxQueuedRequestsPerSession() );
+
         // Sasl Host
         ldapServer.setSaslHost( ldapServerBean.getLdapServerSaslHost() );
 
@@ -1316,8 +1323,10 @@ public final class ServiceBuilder
             directoryService.getDnFactory() );
 
         jdbmPartition.setCacheSize( jdbmPartitionBean.getPartitionCacheSize() );
+        jdbmPartition.setCacheMaxWeight( jdbmPartitionBean.getPartitionCacheMaxWeight() );
         jdbmPartition.setId( jdbmPartitionBean.getPartitionId() );
         jdbmPartition.setOptimizerEnabled( jdbmPartitionBean.isJdbmPartitionOptimizerEnabled() );
+        jdbmPartition.setStatisticsEnabled( jdbmPartitionBean.isPartitionStatisticsEnabled() );
         File partitionPath = new File( directoryService.getInstanceLayout().getPartitionsDirectory(),
             jdbmPartitionBean.getPartitionId() );
         jdbmPartition.setPartitionPath( partitionPath.toURI() );
@@ -1482,6 +1491,12 @@ public final class ServiceBuilder
         // SyncPeriodMillis
         directoryService.setSyncPeriodMillis( directoryServiceBean.getDsSyncPeriodMillis() );
 
+        // SortMemoryLimit
+        directoryService.setSortMemoryLimit( directoryServiceBean.getDsSortMemoryLimit() );
+
+        // SearchThreads
+        directoryService.setSearchThreads( directoryServiceBean.getDsSearchThreads() );
+
         // testEntries
         String entryFilePath = directoryServiceBean.getDsTestEntries();
 
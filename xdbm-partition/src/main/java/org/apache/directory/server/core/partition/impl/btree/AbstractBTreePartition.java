@@ -20,9 +20,11 @@
 package org.apache.directory.server.core.partition.impl.btree;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -35,11 +37,6 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.Element;
-import net.sf.ehcache.config.CacheConfiguration;
-import net.sf.ehcache.store.LruPolicy;
-
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -92,15 +89,24 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.api.partition.Subordinates;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndex;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.MasterTable;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.cache.PartitionCache;
+import org.apache.directory.server.xdbm.cache.PartitionCacheFactory;
+import org.apache.directory.server.xdbm.cache.PartitionCacheStats;
+import org.apache.directory.server.xdbm.cache.TinyLfuPartitionCacheFactory;
+import org.apache.directory.server.xdbm.cache.Weigher;
+import org.apache.directory.server.xdbm.cache.Weighers;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.apache.directory.server.xdbm.stats.IndexStatistics;
+import org.apache.directory.server.xdbm.stats.StoreStatistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -124,17 +130,38 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** Tells if the Optimizer is enabled */
     protected boolean optimizerEnabled = true;
 
+    /** Tells if the indexes statistics are maintained */
+    protected boolean statisticsEnabled = false;
+
+    /** The name of the file where the statistics are saved */
+    public static final String STATISTICS_FILE_NAME = "statistics.db";
+
+    /** The indexes statistics, null if they are not maintained */
+    private volatile StoreStatistics statistics;
+
     /** The default cache size is set to 10 000 objects */
     public static final int DEFAULT_CACHE_SIZE = 10000;
 
     /** The Entry cache size for this partition */
     protected int cacheSize = DEFAULT_CACHE_SIZE;
 
+    /** The estimated weight of an entry, used when the cache max weight is not configured */
+    public static final long DEFAULT_ENTRY_WEIGHT = 2048L;
+
+    /** The max weight of the entry cache, in bytes. The DN caches are sized from it */
+    protected long cacheMaxWeight = -1L;
+
+    /** The factory used to create the partition caches */
+    private PartitionCacheFactory cacheFactory = new TinyLfuPartitionCacheFactory();
+
+    /** The caches created for this partition */
+    private final List<PartitionCache<?, ?>> caches = new ArrayList<>();
+
     /** The alias cache */
-    protected Cache aliasCache;
+    protected PartitionCache<String, Dn> aliasCache;
 
     /** The ParentIdAndRdn cache */
-    protected Cache piarCache;
+    protected PartitionCache<String, ParentIdAndRdn> piarCache;
 
     /** true if we sync disks on every write operation */
     protected AtomicBoolean isSyncOnWrite = new AtomicBoolean( true );
@@ -206,7 +233,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     private ReadWriteLock rwLock;
 
     /** a cache to hold <entryUUID, Dn> pairs, this is used for speeding up the buildEntryDn() method */
-    private Cache entryDnCache;
+    private PartitionCache<String, Dn> entryDnCache;
     
     /** a semaphore to serialize the writes on context entry while updating contextCSN attribute */
     private Semaphore ctxCsnSemaphore = new Semaphore( 1 );
@@ -306,6 +333,119 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Gets the max weight of the entry cache, in bytes. If it has not been
+     * configured, it's computed from the cache size and a default entry weight.
+     *
+     * @return the maximum weight of the entry cache, in bytes
+     */
+    public long getCacheMaxWeight()
+    {
+        if ( cacheMaxWeight > 0L )
+        {
+            return cacheMaxWeight;
+        }
+
+        int size = cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE;
+
+        return size * DEFAULT_ENTRY_WEIGHT;
+    }
+
+
+    /**
+     * Sets the max weight of the entry cache, in bytes. The DN caches are sized
+     * as a quarter of this value.
+     *
+     * @param cacheMaxWeight the maximum weight of the entry cache, in bytes
+     */
+    public void setCacheMaxWeight( long cacheMaxWeight )
+    {
+        this.cacheMaxWeight = cacheMaxWeight;
+    }
+
+
+    /**
+     * @return the factory used to create the partition caches
+     */
+    public PartitionCacheFactory getCacheFactory()
+    {
+        return cacheFactory;
+    }
+
+
+    /**
+     * Sets the factory used to create the partition caches. It must be set before
+     * the partition is initialized.
+     *
+     * @param cacheFactory the factory used to create the partition caches
+     */
+    public void setCacheFactory( PartitionCacheFactory cacheFactory )
+    {
+        checkInitialized( "cacheFactory" );
+        this.cacheFactory = cacheFactory;
+    }
+
+
+    /**
+     * Creates a cache for this partition, and registers it so that its statistics
+     * are available through {@link #getCacheStats()}
+     *
+     * @param name The cache name, unique for this partition
+     * @param maxWeight The cache max weight, in bytes
+     * @param weigher The weigher used to compute the weight of the cached elements
+     * @return The created cache
+     * @param <K> The key type
+     * @param <V> The value type
+     */
+    protected <K, V> PartitionCache<K, V> createCache( String name, long maxWeight,
+        Weigher<? super K, ? super V> weigher )
+    {
+        PartitionCache<K, V> cache = cacheFactory.createCache( getId() + "." + name, maxWeight, weigher );
+
+        synchronized ( caches )
+        {
+            caches.add( cache );
+        }
+
+        return cache;
+    }
+
+
+    /**
+     * Removes all the elements from this partition caches. It must be called when the
+     * changes of a transaction are rolled back, as the caches may hold them.
+     */
+    public void clearCaches()
+    {
+        synchronized ( caches )
+        {
+            for ( PartitionCache<?, ?> cache : caches )
+            {
+                cache.clear();
+            }
+        }
+    }
+
+
+    /**
+     * @return The statistics of every cache used by this partition, by cache name
+     */
+    public Map<String, PartitionCacheStats> getCacheStats()
+    {
+        Map<String, PartitionCacheStats> stats = new HashMap<>();
+
+        synchronized ( caches )
+        {
+            for ( PartitionCache<?, ?> cache : caches )
+            {
+                stats.put( cache.getName(), cache.getStats() );
+            }
+        }
+
+        return stats;
+    }
+
+
     /**
      * Tells if the Optimizer is enabled or not
      * @return true if the optimizer is enabled
@@ -326,6 +466,217 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Tells if the indexes statistics are maintained
+     * @return true if the statistics are maintained
+     */
+    public boolean isStatisticsEnabled()
+    {
+        return statisticsEnabled;
+    }
+
+
+    /**
+     * Set the statistics flag. When enabled, the partition maintains statistics on
+     * its user indexes, the ObjectClass and the Presence indexes, which are used by
+     * the optimizer instead of counting the candidates in the indexes. It must be
+     * set before the partition is initialized.
+     *
+     * @param statisticsEnabled The flag
+     */
+    public void setStatisticsEnabled( boolean statisticsEnabled )
+    {
+        checkInitialized( "statisticsEnabled" );
+        this.statisticsEnabled = statisticsEnabled;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StoreStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+
+    /**
+     * Initializes the indexes statistics, if they are enabled. The statistics saved
+     * when the partition has been closed are loaded if they are still valid, otherwise
+     * they are computed from the indexes content. This method must be called once the
+     * indexes and the master table have been initialized.
+     *
+     * @throws LdapException If the indexes can't be read
+     */
+    protected void initStatistics() throws LdapException
+    {
+        if ( !statisticsEnabled )
+        {
+            statistics = null;
+
+            return;
+        }
+
+        Map<String, AbstractIndex<?, String>> indexes = getStatisticsIndexes();
+        StoreStatistics storeStatistics = new StoreStatistics();
+
+        for ( String attributeOid : indexes.keySet() )
+        {
+            storeStatistics.addIndexStatistics( attributeOid );
+        }
+
+        try ( PartitionTxn partitionTxn = beginReadTransaction() )
+        {
+            boolean loaded = false;
+            File statisticsFile = getStatisticsFile();
+
+            if ( ( statisticsFile != null ) && statisticsFile.exists() )
+            {
+                try
+                {
+                    loaded = storeStatistics.load( statisticsFile, master.count( partitionTxn ) );
+                }
+                catch ( IOException ioe )
+                {
+                    LOG.warn( "Cannot load the statistics of the {} partition, they will be rebuilt", getId(), ioe );
+                }
+
+                // The file is only valid until the next modification : it will be
+                // written again when the partition is closed
+                if ( !statisticsFile.delete() )
+                {
+                    LOG.warn( "Cannot delete the {} statistics file", statisticsFile );
+                }
+            }
+
+            for ( Map.Entry<String, AbstractIndex<?, String>> index : indexes.entrySet() )
+            {
+                IndexStatistics indexStatistics = storeStatistics.getIndexStatistics( index.getKey() );
+
+                if ( !loaded )
+                {
+                    buildStatistics( partitionTxn, index.getValue(), indexStatistics );
+                }
+
+                index.getValue().setStatistics( indexStatistics );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        statistics = storeStatistics;
+    }
+
+
+    /**
+     * @return The indexes on which statistics are maintained, by attribute OID
+     */
+    private Map<String, AbstractIndex<?, String>> getStatisticsIndexes()
+    {
+        Map<String, AbstractIndex<?, String>> indexes = new HashMap<>();
+
+        for ( Index<?, String> index : userIndices.values() )
+        {
+            if ( index instanceof AbstractIndex )
+            {
+                indexes.put( index.getAttribute().getOid(), ( AbstractIndex<?, String> ) index );
+            }
+        }
+
+        if ( objectClassIdx instanceof AbstractIndex )
+        {
+            indexes.put( objectClassIdx.getAttribute().getOid(), ( AbstractIndex<?, String> ) objectClassIdx );
+        }
+
+        if ( presenceIdx instanceof AbstractIndex )
+        {
+            indexes.put( presenceIdx.getAttribute().getOid(), ( AbstractIndex<?, String> ) presenceIdx );
+        }
+
+        return indexes;
+    }
+
+
+    /**
+     * Computes the statistics of an index by reading all its tuples
+     */
+    private void buildStatistics( PartitionTxn partitionTxn, Index<?, String> index,
+        IndexStatistics indexStatistics ) throws LdapException
+    {
+        indexStatistics.clear();
+
+        try ( Cursor<? extends IndexEntry<?, String>> cursor = index.forwardCursor( partitionTxn ) )
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                indexStatistics.add( cursor.get().getKey() );
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        LOG.debug( "Built the statistics of the {} index : {}", index.getAttributeId(), indexStatistics );
+    }
+
+
+    /**
+     * Saves the indexes statistics, so that they can be loaded when the partition is
+     * initialized again
+     */
+    private void saveStatistics( PartitionTxn partitionTxn )
+    {
+        File statisticsFile = getStatisticsFile();
+
+        if ( ( statistics == null ) || ( statisticsFile == null ) )
+        {
+            return;
+        }
+
+        try
+        {
+            statistics.save( statisticsFile, master.count( partitionTxn ) );
+        }
+        catch ( IOException | LdapException e )
+        {
+            LOG.warn( "Cannot save the statistics of the {} partition", getId(), e );
+
+            if ( statisticsFile.exists() && !statisticsFile.delete() )
+            {
+                LOG.warn( "Cannot delete the {} statistics file", statisticsFile );
+            }
+        }
+    }
+
+
+    /**
+     * @return The file where the statistics are saved, or null if the partition is not
+     * stored in a directory
+     */
+    private File getStatisticsFile()
+    {
+        if ( ( partitionPath == null ) || !"file".equals( partitionPath.getScheme() ) )
+        {
+            return null;
+        }
+
+        File partitionDir = new File( partitionPath );
+
+        if ( !partitionDir.isDirectory() )
+        {
+            return null;
+        }
+
+        return new File( partitionDir, STATISTICS_FILE_NAME );
+    }
+
+
     /**
      * Sets the path in which this Partition stores data. This may be an URL to
      * a file or directory, or an JDBC URL.
@@ -541,7 +892,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // don't reset initialized flag
         initialized = false;
 
-        entryDnCache.removeAll();
+        clearCaches();
+        saveStatistics( partitionTxn );
         
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
@@ -625,32 +977,17 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         setupSystemIndices();
         setupUserIndices();
 
-        if ( cacheService != null )
+        // The caches created by a previous initialization are dropped
+        synchronized ( caches )
         {
-            aliasCache = cacheService.getCache( "alias" );
-    
-            CacheConfiguration cacheConfiguration = aliasCache.getCacheConfiguration();
-            
-            int cacheSizeConfig = ( int ) cacheConfiguration.getMaxEntriesLocalHeap();
-    
-            if ( cacheSizeConfig < cacheSize )
-            {
-                aliasCache.getCacheConfiguration().setMaxEntriesLocalHeap( cacheSize );
-            }
-            
-            piarCache = cacheService.getCache( "piar" );
-            
-            cacheSizeConfig = ( int ) piarCache.getCacheConfiguration().getMaxEntriesLocalHeap();
-    
-            if ( cacheSizeConfig < cacheSize )
-            {
-                piarCache.getCacheConfiguration().setMaxEntriesLocalHeap( cacheSize * 3L );
-            }
-            
-            entryDnCache = cacheService.getCache( "entryDn" );
-            entryDnCache.setMemoryStoreEvictionPolicy( new LruPolicy() );
-            entryDnCache.getCacheConfiguration().setMaxEntriesLocalHeap( cacheSize );
+            caches.clear();
         }
+
+        long dnCacheMaxWeight = Math.max( 1L, getCacheMaxWeight() / 4L );
+
+        aliasCache = createCache( "alias", dnCacheMaxWeight, Weighers.dnWeigher() );
+        piarCache = createCache( "piar", dnCacheMaxWeight, Weighers.parentIdAndRdnWeigher() );
+        entryDnCache = createCache( "entryDn", dnCacheMaxWeight, Weighers.dnWeigher() );
     }
 
 
@@ -1157,6 +1494,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 ////dumpRdnIdx();
 
                 entryDnCache.remove( id );
+                piarCache.remove( id );
                 
                 Attribute csn = entry.get( entryCsnAT );
                 // can be null while doing subentry deletion
@@ -1223,7 +1561,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
             PartitionSearchResult searchResult = searchEngine.computeResult( partitionTxn, schemaManager, searchContext );
 
-            Cursor<Entry> result = new EntryCursorAdaptor( partitionTxn, this, searchResult );
+            Cursor<Entry> result = createEntryCursor( partitionTxn, searchResult );
 
             return new EntryFilteringCursorImpl( result, searchContext, schemaManager );
         }
@@ -1239,6 +1577,20 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Creates the cursor returning the entries found by a search. The cursor is
+     * read after the search operation is done, using the same transaction.
+     *
+     * @param partitionTxn The transaction used by the search
+     * @param searchResult The search result
+     * @return The cursor on the found entries
+     */
+    protected Cursor<Entry> createEntryCursor( PartitionTxn partitionTxn, PartitionSearchResult searchResult )
+    {
+        return new EntryCursorAdaptor( partitionTxn, this, searchResult );
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // The Lookup operation
     //---------------------------------------------------------------------------------------------
@@ -2022,7 +2374,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Remove the EntryDN
         modifiedEntry.removeAttributes( entryDnAT );
 
-        entryDnCache.removeAll();
+        entryDnCache.clear();
+        piarCache.clear();
         
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
@@ -2200,7 +2553,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         modifiedEntry.add( ApacheSchemaConstants.ENTRY_PARENT_ID_OID, newParentId );
         
         // Doom the DN cache now
-        entryDnCache.removeAll();
+        entryDnCache.clear();
+        piarCache.clear();
 
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
@@ -2533,7 +2887,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         rdnIdx.add( partitionTxn, parentIdAndRdn, oldId );
 
-        entryDnCache.removeAll();
+        entryDnCache.clear();
+        piarCache.clear();
         
         if ( isSyncOnWrite.get() )
         {
@@ -2631,11 +2986,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
             if ( entryDnCache != null )
             {
-                Element el = entryDnCache.get( id );
+                Dn cachedDn = entryDnCache.get( id );
                 
-                if ( el != null )
+                if ( cachedDn != null )
                 {
-                    return ( Dn ) el.getObjectValue();
+                    return cachedDn;
                 }
             }
             
@@ -2645,13 +3000,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
                 if ( piarCache != null )
                 {
-                    Element piar = piarCache.get( parentId );
+                    cur = piarCache.get( parentId );
                     
-                    if ( piar != null )
-                    {
-                        cur = ( ParentIdAndRdn ) piar.getObjectValue();
-                    }
-                    else
+                    if ( cur == null )
                     {
                         cur = rdnIdx.reverseLookup( partitionTxn, parentId );
                         
@@ -2660,7 +3011,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                             return null;
                         }
                         
-                        piarCache.put( new Element( parentId, cur ) );
+                        piarCache.put( parentId, cur );
                     }
                 }
                 else
@@ -2694,7 +3045,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             
             dn = new Dn( schemaManager, Arrays.copyOf( rdnArray, pos ) );
             
-            entryDnCache.put( new Element( id, dn ) );
+            entryDnCache.put( id, dn );
             return dn;
         }
         finally
@@ -3198,7 +3549,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         
         if ( aliasCache != null )
         {
-            aliasCache.put( new Element( aliasId, aliasTarget ) );
+            aliasCache.put( aliasId, aliasTarget );
         }
 
         /*
@@ -3562,7 +3913,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         if ( operationContext.getSession() != null )
         {
-            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock();
+            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock( this );
         }
         else
         {
@@ -3589,7 +3940,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * {@inheritDoc}
      */
     @Override
-    public Cache getAliasCache()
+    public PartitionCache<String, Dn> getAliasCache()
     {
         return aliasCache;
     }
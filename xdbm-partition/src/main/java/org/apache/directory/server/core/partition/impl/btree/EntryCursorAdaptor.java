@@ -65,7 +65,7 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
             LOG_CURSOR.debug( "Creating EntryCursorAdaptor {}", this );
         }
 
-        indexCursor = searchResult.getResultSet();
+        indexCursor = searchResult.getResultCursor();
         evaluator = searchResult.getEvaluator();
         this.partitionTxn = partitionTxn;
     }
@@ -23,7 +23,10 @@ package org.apache.directory.server.xdbm;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.stats.IndexStatistics;
 
 
 /**
@@ -52,6 +55,9 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     /** A counter used to differ the commit on disk after N operations */
     protected AtomicInteger commitNumber;
 
+    /** The statistics updated when a tuple is added or removed, if any */
+    protected IndexStatistics statistics;
+
 
     /**
      * Creates a new instance of AbstractIndex.
@@ -118,6 +124,15 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isOrdered()
+    {
+        return true;
+    }
+
+
     /**
      * Gets the size of the index cache in terms of the number of index entries to be cached.
      *
@@ -162,4 +177,95 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     {
         return withReverse;
     }
+
+
+    /**
+     * @return The statistics updated when a tuple is added or removed, or null
+     * if the statistics are not maintained for this index
+     */
+    public IndexStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+
+    /**
+     * Sets the statistics to update when a tuple is added or removed
+     *
+     * @param statistics The index statistics, or null to stop maintaining them
+     */
+    public void setStatistics( IndexStatistics statistics )
+    {
+        this.statistics = statistics;
+    }
+
+
+    /**
+     * Records a tuple added in the index statistics, if they are maintained. When the
+     * tuple is added in a write transaction, the statistics are updated once the
+     * transaction is committed.
+     *
+     * @param partitionTxn The transaction in use
+     * @param key The added tuple key
+     */
+    protected void addStatistics( PartitionTxn partitionTxn, final Object key )
+    {
+        final IndexStatistics indexStatistics = statistics;
+
+        if ( indexStatistics == null )
+        {
+            return;
+        }
+
+        if ( partitionTxn instanceof PartitionWriteTxn )
+        {
+            ( ( PartitionWriteTxn ) partitionTxn ).onCommit( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    indexStatistics.add( key );
+                }
+            } );
+        }
+        else
+        {
+            indexStatistics.add( key );
+        }
+    }
+
+
+    /**
+     * Records a tuple removed from the index in the statistics, if they are maintained.
+     * It must only be called when the tuple existed. When the tuple is removed in a write
+     * transaction, the statistics are updated once the transaction is committed.
+     *
+     * @param partitionTxn The transaction in use
+     * @param key The removed tuple key
+     */
+    protected void dropStatistics( PartitionTxn partitionTxn, final Object key )
+    {
+        final IndexStatistics indexStatistics = statistics;
+
+        if ( indexStatistics == null )
+        {
+            return;
+        }
+
+        if ( partitionTxn instanceof PartitionWriteTxn )
+        {
+            ( ( PartitionWriteTxn ) partitionTxn ).onCommit( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    indexStatistics.drop( key );
+                }
+            } );
+        }
+        else
+        {
+            indexStatistics.drop( key );
+        }
+    }
 }
@@ -340,6 +340,16 @@ public interface Index<K, E>
     boolean isDupsEnabled();
 
 
+    /**
+     * Tells if the forward index browses the keys in the order of the attribute ordering
+     * matching rule. When it doesn't, the greater or equal and less or equal filters can't
+     * use the index ranges, and the entries are evaluated against the filter instead.
+     *
+     * @return true if the index keys are browsed in the attribute order
+     */
+    boolean isOrdered();
+
+
     /**
      * Tells if the index has a reverse table or not
      * @return true if the index has a reverse table
@@ -30,8 +30,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
 
-import net.sf.ehcache.Cache;
-
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
@@ -42,6 +40,8 @@ import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.interceptor.context.ModDnAva;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.cache.PartitionCache;
+import org.apache.directory.server.xdbm.stats.StoreStatistics;
 
 
 /**
@@ -485,5 +485,11 @@ public interface Store
      * @return the Alias cache
      * @return The cache
      */
-    Cache getAliasCache();
+    PartitionCache<String, Dn> getAliasCache();
+
+
+    /**
+     * @return The statistics maintained on the indexes, or null if they are not maintained
+     */
+    StoreStatistics getStatistics();
 }
@@ -0,0 +1,180 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.cache;
+
+
+/**
+ * A Count-Min sketch with 4 bits counters, used to estimate the access frequency
+ * of the cached keys. Each long in the table holds 16 counters. The counters are
+ * halved once the number of increments reaches a sample size, so that the sketch
+ * favors recent accesses.
+ *
+ * This class is not thread safe, it must be protected by the caller.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class FrequencySketch
+{
+    /** The seeds used to compute the counter positions */
+    private static final long[] SEEDS =
+        { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    /** The mask used to halve all the counters at once */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /** The mask used to count the odd counters when halving */
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /** The minimal number of longs in the table */
+    private static final int MIN_SIZE = 256;
+
+    /** The max value of a counter */
+    private static final int MAX_COUNT = 15;
+
+    /** The counters */
+    private final long[] table;
+
+    /** The mask used to get an index in the table */
+    private final int tableMask;
+
+    /** The number of increments after which the counters are halved */
+    private final int sampleSize;
+
+    /** The current number of increments */
+    private int size;
+
+
+    /**
+     * Creates a new FrequencySketch
+     *
+     * @param expectedEntries The expected number of distinct keys
+     */
+    FrequencySketch( int expectedEntries )
+    {
+        int length = ceilingPowerOfTwo( Math.max( expectedEntries, MIN_SIZE ) );
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = 10 * length;
+    }
+
+
+    /**
+     * Gets the estimated frequency of a key
+     *
+     * @param hash The key hash
+     * @return The estimated frequency, between 0 and 15
+     */
+    int frequency( int hash )
+    {
+        int start = ( hash & 3 ) << 2;
+        int frequency = MAX_COUNT;
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            int index = indexOf( hash, i );
+            int count = ( int ) ( ( table[index] >>> ( ( start + i ) << 2 ) ) & 0x0FL );
+            frequency = Math.min( frequency, count );
+        }
+
+        return frequency;
+    }
+
+
+    /**
+     * Increments the frequency of a key
+     *
+     * @param hash The key hash
+     */
+    void increment( int hash )
+    {
+        int start = ( hash & 3 ) << 2;
+        boolean added = false;
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            int index = indexOf( hash, i );
+            added |= incrementAt( index, start + i );
+        }
+
+        if ( added && ( ++size == sampleSize ) )
+        {
+            reset();
+        }
+    }
+
+
+    /**
+     * Increments a counter, unless it has already reached its max value
+     */
+    private boolean incrementAt( int index, int counter )
+    {
+        int offset = counter << 2;
+        long mask = 0x0FL << offset;
+
+        if ( ( table[index] & mask ) != mask )
+        {
+            table[index] += 1L << offset;
+
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Halves every counter
+     */
+    private void reset()
+    {
+        int odds = 0;
+
+        for ( int i = 0; i < table.length; i++ )
+        {
+            odds += Long.bitCount( table[i] & ONE_MASK );
+            table[i] = ( table[i] >>> 1 ) & RESET_MASK;
+        }
+
+        size = ( size >>> 1 ) - ( odds >>> 2 );
+    }
+
+
+    /**
+     * Computes the table index of the i-th counter of a key
+     */
+    private int indexOf( int hash, int i )
+    {
+        long h = ( hash + SEEDS[i] ) * SEEDS[i];
+        h += h >>> 32;
+
+        return ( ( int ) h ) & tableMask;
+    }
+
+
+    private static int ceilingPowerOfTwo( int value )
+    {
+        if ( value >= ( 1 << 30 ) )
+        {
+            return 1 << 30;
+        }
+
+        return 1 << ( 32 - Integer.numberOfLeadingZeros( value - 1 ) );
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.cache;
+
+
+/**
+ * A cache used by a partition to keep some frequently used data in memory
+ * (entries, DNs, ParentIdAndRdn, alias targets...). The cache is bounded by
+ * an estimated weight in bytes, computed by a {@link Weigher}, and not by a
+ * number of elements.
+ *
+ * Implementations must be thread safe.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface PartitionCache<K, V>
+{
+    /**
+     * @return The cache name
+     */
+    String getName();
+
+
+    /**
+     * Gets the value associated with a key
+     *
+     * @param key The key
+     * @return The cached value, or null if it's not present in the cache
+     */
+    V get( K key );
+
+
+    /**
+     * Store a value in the cache. The value may be immediately discarded if
+     * the cache decides it's not worth keeping it.
+     *
+     * @param key The key
+     * @param value The value to cache
+     */
+    void put( K key, V value );
+
+
+    /**
+     * Replace the value associated with a key, if this key is already present.
+     *
+     * @param key The key
+     * @param value The new value
+     */
+    void replace( K key, V value );
+
+
+    /**
+     * Removes a value from the cache
+     *
+     * @param key The key of the value to remove
+     */
+    void remove( K key );
+
+
+    /**
+     * Removes all the values from the cache
+     */
+    void clear();
+
+
+    /**
+     * @return The number of elements in the cache
+     */
+    long size();
+
+
+    /**
+     * @return The current estimated weight of the cache, in bytes
+     */
+    long weightedSize();
+
+
+    /**
+     * @return The maximum weight of this cache, in bytes
+     */
+    long getMaxWeight();
+
+
+    /**
+     * @return A snapshot of the cache statistics
+     */
+    PartitionCacheStats getStats();
+}
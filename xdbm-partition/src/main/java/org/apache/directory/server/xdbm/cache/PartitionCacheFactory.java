@@ -0,0 +1,43 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.cache;
+
+
+/**
+ * The factory used by a partition to create its caches. The default implementation
+ * is the {@link TinyLfuPartitionCacheFactory}, but a partition may be configured
+ * with any other implementation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface PartitionCacheFactory
+{
+    /**
+     * Creates a new cache
+     *
+     * @param name The cache name
+     * @param maxWeight The maximum weight of the cache, in bytes
+     * @param weigher The weigher used to compute each element weight
+     * @return The created cache
+     * @param <K> The key type
+     * @param <V> The value type
+     */
+    <K, V> PartitionCache<K, V> createCache( String name, long maxWeight, Weigher<? super K, ? super V> weigher );
+}
@@ -0,0 +1,142 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.cache;
+
+
+/**
+ * An immutable snapshot of a {@link PartitionCache} statistics.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PartitionCacheStats
+{
+    /** The number of successful lookups */
+    private final long hitCount;
+
+    /** The number of failed lookups */
+    private final long missCount;
+
+    /** The number of evicted elements */
+    private final long evictionCount;
+
+    /** The number of elements in the cache */
+    private final long size;
+
+    /** The estimated weight of the cache */
+    private final long weightedSize;
+
+
+    /**
+     * Creates a new instance of PartitionCacheStats
+     *
+     * @param hitCount The number of successful lookups
+     * @param missCount The number of failed lookups
+     * @param evictionCount The number of evicted elements
+     * @param size The number of elements in the cache
+     * @param weightedSize The estimated weight of the cache
+     */
+    public PartitionCacheStats( long hitCount, long missCount, long evictionCount, long size, long weightedSize )
+    {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.size = size;
+        this.weightedSize = weightedSize;
+    }
+
+
+    /**
+     * @return The number of successful lookups
+     */
+    public long getHitCount()
+    {
+        return hitCount;
+    }
+
+
+    /**
+     * @return The number of failed lookups
+     */
+    public long getMissCount()
+    {
+        return missCount;
+    }
+
+
+    /**
+     * @return The number of evicted elements
+     */
+    public long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+
+    /**
+     * @return The number of elements in the cache
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The estimated weight of the cache, in bytes
+     */
+    public long getWeightedSize()
+    {
+        return weightedSize;
+    }
+
+
+    /**
+     * @return The ratio of successful lookups, between 0 and 1
+     */
+    public double getHitRate()
+    {
+        long requests = hitCount + missCount;
+
+        if ( requests == 0L )
+        {
+            return 1.0d;
+        }
+
+        return ( double ) hitCount / requests;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "hits: " ).append( hitCount );
+        sb.append( ", misses: " ).append( missCount );
+        sb.append( ", evictions: " ).append( evictionCount );
+        sb.append( ", size: " ).append( size );
+        sb.append( ", weight: " ).append( weightedSize );
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,685 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.cache;
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * A weight bounded cache using a W-TinyLFU eviction policy.
+ * <p>
+ * New elements are first stored in a small LRU admission window (1% of the
+ * weight). Elements evicted from the window are moved into the main space, which
+ * is a segmented LRU (a probation and a protected area). When the main space is
+ * full, the element coming from the window competes with the probation victim,
+ * and the one with the lowest estimated access frequency is evicted. This protects
+ * the cache against scans, which are frequent in a LDAP server.
+ * <p>
+ * The cache is split in segments, each one having its own lock, its own frequency
+ * sketch and a fraction of the maximum weight, so that concurrent threads working
+ * on different keys don't contend.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TinyLfuPartitionCache<K, V> implements PartitionCache<K, V>
+{
+    /** The maximum number of segments */
+    private static final int MAX_SEGMENTS = 16;
+
+    /** The minimal weight of a segment */
+    private static final long MIN_SEGMENT_WEIGHT = 64L * 1024L;
+
+    /** The average element weight, used to size the frequency sketch */
+    private static final int AVERAGE_WEIGHT = 256;
+
+    /** The max number of counters in a segment sketch */
+    private static final int MAX_SKETCH_SIZE = 1 << 16;
+
+    /** The cache name */
+    private final String name;
+
+    /** The max weight of the cache */
+    private final long maxWeight;
+
+    /** The weigher */
+    private final Weigher<? super K, ? super V> weigher;
+
+    /** The segments */
+    private final Segment<K, V>[] segments;
+
+    /** The mask used to select a segment */
+    private final int segmentMask;
+
+    /** The statistics */
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of TinyLfuPartitionCache
+     *
+     * @param name The cache name
+     * @param maxWeight The max weight of the cache, in bytes
+     * @param weigher The weigher used to compute the elements weight
+     */
+    @SuppressWarnings("unchecked")
+    public TinyLfuPartitionCache( String name, long maxWeight, Weigher<? super K, ? super V> weigher )
+    {
+        if ( maxWeight <= 0L )
+        {
+            throw new IllegalArgumentException( "The cache max weight must be positive : " + maxWeight );
+        }
+
+        this.name = name;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+
+        int nbSegments = 1;
+
+        while ( ( nbSegments < MAX_SEGMENTS ) && ( maxWeight / ( nbSegments * 2 ) >= MIN_SEGMENT_WEIGHT ) )
+        {
+            nbSegments *= 2;
+        }
+
+        segments = new Segment[nbSegments];
+        segmentMask = nbSegments - 1;
+
+        for ( int i = 0; i < nbSegments; i++ )
+        {
+            segments[i] = new Segment<>( maxWeight / nbSegments );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get( K key )
+    {
+        int hash = spread( key.hashCode() );
+        V value = segmentFor( hash ).get( key, hash );
+
+        if ( value == null )
+        {
+            missCount.incrementAndGet();
+        }
+        else
+        {
+            hitCount.incrementAndGet();
+        }
+
+        return value;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( K key, V value )
+    {
+        int hash = spread( key.hashCode() );
+        int weight = Math.max( 1, weigher.weigh( key, value ) );
+        int evicted = segmentFor( hash ).put( key, value, hash, weight, false );
+
+        if ( evicted > 0 )
+        {
+            evictionCount.addAndGet( evicted );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void replace( K key, V value )
+    {
+        int hash = spread( key.hashCode() );
+        int weight = Math.max( 1, weigher.weigh( key, value ) );
+        int evicted = segmentFor( hash ).put( key, value, hash, weight, true );
+
+        if ( evicted > 0 )
+        {
+            evictionCount.addAndGet( evicted );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( K key )
+    {
+        int hash = spread( key.hashCode() );
+        segmentFor( hash ).remove( key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        for ( Segment<K, V> segment : segments )
+        {
+            segment.clear();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long size()
+    {
+        long size = 0L;
+
+        for ( Segment<K, V> segment : segments )
+        {
+            size += segment.size();
+        }
+
+        return size;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long weightedSize()
+    {
+        long weight = 0L;
+
+        for ( Segment<K, V> segment : segments )
+        {
+            weight += segment.weight();
+        }
+
+        return weight;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMaxWeight()
+    {
+        return maxWeight;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PartitionCacheStats getStats()
+    {
+        return new PartitionCacheStats( hitCount.get(), missCount.get(), evictionCount.get(), size(),
+            weightedSize() );
+    }
+
+
+    private Segment<K, V> segmentFor( int hash )
+    {
+        return segments[( hash >>> 16 ) & segmentMask];
+    }
+
+
+    /**
+     * Spreads the hash bits, to avoid collisions for keys which differ on high bits only
+     */
+    private static int spread( int hashCode )
+    {
+        int h = hashCode * 0x9E3779B9;
+
+        return h ^ ( h >>> 16 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "PartitionCache '" + name + "' (max weight " + maxWeight + ") " + getStats();
+    }
+
+    /** The area an element belongs to */
+    private enum Area
+    {
+        WINDOW,
+        PROBATION,
+        PROTECTED
+    }
+
+    /**
+     * A cached element, linked in its area's LRU list
+     */
+    private static final class Node<K, V>
+    {
+        private final K key;
+        private final int hash;
+        private V value;
+        private int weight;
+        private Area area;
+        private Node<K, V> previous;
+        private Node<K, V> next;
+
+
+        private Node( K key, int hash )
+        {
+            this.key = key;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * A LRU list of nodes, the least recently used being the head.
+     */
+    private static final class AccessQueue<K, V>
+    {
+        private Node<K, V> head;
+        private Node<K, V> tail;
+        private long weight;
+
+
+        private void addLast( Node<K, V> node )
+        {
+            node.previous = tail;
+            node.next = null;
+
+            if ( tail == null )
+            {
+                head = node;
+            }
+            else
+            {
+                tail.next = node;
+            }
+
+            tail = node;
+            weight += node.weight;
+        }
+
+
+        private void remove( Node<K, V> node )
+        {
+            if ( node.previous == null )
+            {
+                head = node.next;
+            }
+            else
+            {
+                node.previous.next = node.next;
+            }
+
+            if ( node.next == null )
+            {
+                tail = node.previous;
+            }
+            else
+            {
+                node.next.previous = node.previous;
+            }
+
+            node.previous = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+
+        private void moveToLast( Node<K, V> node )
+        {
+            if ( node != tail )
+            {
+                remove( node );
+                addLast( node );
+            }
+        }
+
+
+        private void clear()
+        {
+            head = null;
+            tail = null;
+            weight = 0L;
+        }
+    }
+
+    /**
+     * A segment of the cache, with its own lock.
+     */
+    private static final class Segment<K, V> extends ReentrantLock
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** The elements, by key */
+        private final Map<K, Node<K, V>> data = new HashMap<>();
+
+        /** The admission window */
+        private final AccessQueue<K, V> window = new AccessQueue<>();
+
+        /** The main space, for elements which have not been accessed since they have been admitted */
+        private final AccessQueue<K, V> probation = new AccessQueue<>();
+
+        /** The main space, for elements which have been accessed after their admission */
+        private final AccessQueue<K, V> protectedArea = new AccessQueue<>();
+
+        /** The access frequencies */
+        private final FrequencySketch sketch;
+
+        private final long maxWeight;
+        private final long windowMaxWeight;
+        private final long protectedMaxWeight;
+
+
+        private Segment( long maxWeight )
+        {
+            this.maxWeight = maxWeight;
+            windowMaxWeight = Math.max( 1L, maxWeight / 100L );
+            protectedMaxWeight = ( maxWeight - windowMaxWeight ) * 4L / 5L;
+            sketch = new FrequencySketch( ( int ) Math.min( MAX_SKETCH_SIZE, maxWeight / AVERAGE_WEIGHT ) );
+        }
+
+
+        private V get( K key, int hash )
+        {
+            lock();
+
+            try
+            {
+                sketch.increment( hash );
+                Node<K, V> node = data.get( key );
+
+                if ( node == null )
+                {
+                    return null;
+                }
+
+                onAccess( node );
+
+                return node.value;
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+
+        /**
+         * Adds or replaces an element, and returns the number of evicted elements
+         */
+        private int put( K key, V value, int hash, int weight, boolean onlyIfPresent )
+        {
+            lock();
+
+            try
+            {
+                Node<K, V> node = data.get( key );
+
+                if ( weight > maxWeight )
+                {
+                    // Too big to be cached
+                    if ( node != null )
+                    {
+                        data.remove( key );
+                        queueOf( node ).remove( node );
+                    }
+
+                    return 0;
+                }
+
+                if ( node != null )
+                {
+                    AccessQueue<K, V> queue = queueOf( node );
+                    queue.weight += weight - node.weight;
+                    node.weight = weight;
+                    node.value = value;
+                    onAccess( node );
+                }
+                else if ( onlyIfPresent )
+                {
+                    return 0;
+                }
+                else
+                {
+                    sketch.increment( hash );
+                    node = new Node<>( key, hash );
+                    node.value = value;
+                    node.weight = weight;
+                    node.area = Area.WINDOW;
+                    data.put( key, node );
+                    window.addLast( node );
+                }
+
+                return evict();
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+
+        private void remove( K key )
+        {
+            lock();
+
+            try
+            {
+                Node<K, V> node = data.remove( key );
+
+                if ( node != null )
+                {
+                    queueOf( node ).remove( node );
+                }
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+
+        private void clear()
+        {
+            lock();
+
+            try
+            {
+                data.clear();
+                window.clear();
+                probation.clear();
+                protectedArea.clear();
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+
+        private int size()
+        {
+            lock();
+
+            try
+            {
+                return data.size();
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+
+        private long weight()
+        {
+            lock();
+
+            try
+            {
+                return window.weight + probation.weight + protectedArea.weight;
+            }
+            finally
+            {
+                unlock();
+            }
+        }
+
+
+        private AccessQueue<K, V> queueOf( Node<K, V> node )
+        {
+            switch ( node.area )
+            {
+                case WINDOW:
+                    return window;
+
+                case PROBATION:
+                    return probation;
+
+                default:
+                    return protectedArea;
+            }
+        }
+
+
+        /**
+         * Updates the LRU lists when an element is accessed. An element in probation
+         * is promoted to the protected area, which may demote the protected LRU
+         * element back to probation.
+         */
+        private void onAccess( Node<K, V> node )
+        {
+            switch ( node.area )
+            {
+                case WINDOW:
+                    window.moveToLast( node );
+                    break;
+
+                case PROBATION:
+                    probation.remove( node );
+                    node.area = Area.PROTECTED;
+                    protectedArea.addLast( node );
+
+                    while ( ( protectedArea.weight > protectedMaxWeight ) && ( protectedArea.head != node ) )
+                    {
+                        Node<K, V> demoted = protectedArea.head;
+                        protectedArea.remove( demoted );
+                        demoted.area = Area.PROBATION;
+                        probation.addLast( demoted );
+                    }
+
+                    break;
+
+                default:
+                    protectedArea.moveToLast( node );
+                    break;
+            }
+        }
+
+
+        /**
+         * Moves the elements overflowing the window to the main space, then evicts
+         * elements from the main space until the segment fits its max weight.
+         */
+        private int evict()
+        {
+            Node<K, V> candidate = null;
+
+            while ( window.weight > windowMaxWeight )
+            {
+                Node<K, V> node = window.head;
+                window.remove( node );
+                node.area = Area.PROBATION;
+                probation.addLast( node );
+
+                if ( candidate == null )
+                {
+                    candidate = node;
+                }
+            }
+
+            int evicted = 0;
+
+            while ( window.weight + probation.weight + protectedArea.weight > maxWeight )
+            {
+                Node<K, V> victim = probation.head;
+
+                if ( victim == null )
+                {
+                    victim = protectedArea.head;
+
+                    if ( victim == null )
+                    {
+                        victim = window.head;
+                    }
+                }
+                else if ( ( candidate != null ) && ( candidate != victim ) && ( candidate.area == Area.PROBATION ) )
+                {
+                    // The admission filter : keep the most frequently used of the two
+                    if ( sketch.frequency( candidate.hash ) <= sketch.frequency( victim.hash ) )
+                    {
+                        victim = candidate;
+                    }
+                }
+
+                if ( victim == candidate )
+                {
+                    // The next element coming from the window becomes the candidate
+                    candidate = candidate.next;
+                }
+
+                queueOf( victim ).remove( victim );
+                data.remove( victim.key );
+                evicted++;
+            }
+
+            return evicted;
+        }
+    }
+}
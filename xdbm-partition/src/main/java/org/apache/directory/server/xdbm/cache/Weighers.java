@@ -0,0 +1,209 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.cache;
+
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+
+
+/**
+ * The weighers used by the partitions caches. The computed weights are rough
+ * estimations of the heap used by the cached elements, they don't have to be
+ * exact.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class Weighers
+{
+    /** The overhead of a cached element (the cache node, the key reference...) */
+    private static final int ELEMENT_OVERHEAD = 64;
+
+    /** The overhead of an object */
+    private static final int OBJECT_OVERHEAD = 16;
+
+    /** The overhead of an attribute and its value set */
+    private static final int ATTRIBUTE_OVERHEAD = 96;
+
+    /** The overhead of a value */
+    private static final int VALUE_OVERHEAD = 48;
+
+    /** The Entry weigher */
+    private static final Weigher<String, Entry> ENTRY_WEIGHER = new Weigher<String, Entry>()
+    {
+        @Override
+        public int weigh( String id, Entry entry )
+        {
+            return ELEMENT_OVERHEAD + Weighers.weigh( id ) + Weighers.weigh( entry );
+        }
+    };
+
+    /** The Dn weigher */
+    private static final Weigher<String, Dn> DN_WEIGHER = new Weigher<String, Dn>()
+    {
+        @Override
+        public int weigh( String id, Dn dn )
+        {
+            return ELEMENT_OVERHEAD + Weighers.weigh( id ) + Weighers.weigh( dn );
+        }
+    };
+
+    /** The ParentIdAndRdn weigher */
+    private static final Weigher<String, ParentIdAndRdn> PARENT_ID_AND_RDN_WEIGHER = new Weigher<String, ParentIdAndRdn>()
+    {
+        @Override
+        public int weigh( String id, ParentIdAndRdn piar )
+        {
+            return ELEMENT_OVERHEAD + Weighers.weigh( id ) + Weighers.weigh( piar );
+        }
+    };
+
+
+    private Weighers()
+    {
+    }
+
+
+    /**
+     * @return A weigher for entries cached by their UUID
+     */
+    public static Weigher<String, Entry> entryWeigher()
+    {
+        return ENTRY_WEIGHER;
+    }
+
+
+    /**
+     * @return A weigher for DNs cached by their entry UUID
+     */
+    public static Weigher<String, Dn> dnWeigher()
+    {
+        return DN_WEIGHER;
+    }
+
+
+    /**
+     * @return A weigher for ParentIdAndRdn cached by their entry UUID
+     */
+    public static Weigher<String, ParentIdAndRdn> parentIdAndRdnWeigher()
+    {
+        return PARENT_ID_AND_RDN_WEIGHER;
+    }
+
+
+    /**
+     * Estimates the heap used by a String
+     *
+     * @param value The String
+     * @return The estimated size, in bytes
+     */
+    public static int weigh( String value )
+    {
+        if ( value == null )
+        {
+            return 0;
+        }
+
+        return OBJECT_OVERHEAD * 2 + value.length() * 2;
+    }
+
+
+    /**
+     * Estimates the heap used by a Dn. The user provided and the normalized forms are
+     * both kept in memory.
+     *
+     * @param dn The Dn
+     * @return The estimated size, in bytes
+     */
+    public static int weigh( Dn dn )
+    {
+        if ( dn == null )
+        {
+            return 0;
+        }
+
+        return OBJECT_OVERHEAD + dn.size() * OBJECT_OVERHEAD * 4 + weigh( dn.getName() ) * 3;
+    }
+
+
+    /**
+     * Estimates the heap used by a ParentIdAndRdn
+     *
+     * @param piar The ParentIdAndRdn
+     * @return The estimated size, in bytes
+     */
+    public static int weigh( ParentIdAndRdn piar )
+    {
+        if ( piar == null )
+        {
+            return 0;
+        }
+
+        int weight = OBJECT_OVERHEAD + weigh( piar.getParentId() );
+
+        for ( Rdn rdn : piar.getRdns() )
+        {
+            weight += OBJECT_OVERHEAD * 4 + weigh( rdn.getName() ) * 3;
+        }
+
+        return weight;
+    }
+
+
+    /**
+     * Estimates the heap used by an Entry
+     *
+     * @param entry The Entry
+     * @return The estimated size, in bytes
+     */
+    public static int weigh( Entry entry )
+    {
+        if ( entry == null )
+        {
+            return 0;
+        }
+
+        long weight = OBJECT_OVERHEAD + weigh( entry.getDn() );
+
+        for ( Attribute attribute : entry )
+        {
+            weight += ATTRIBUTE_OVERHEAD + weigh( attribute.getUpId() );
+
+            for ( Value value : attribute )
+            {
+                // Human readable values are stored as a String and as normalized bytes
+                if ( value.isHumanReadable() )
+                {
+                    weight += VALUE_OVERHEAD + value.length() * 3L;
+                }
+                else
+                {
+                    weight += VALUE_OVERHEAD + value.length();
+                }
+            }
+        }
+
+        return ( int ) Math.min( Integer.MAX_VALUE, weight );
+    }
+}
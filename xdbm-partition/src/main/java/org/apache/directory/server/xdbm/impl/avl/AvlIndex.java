@@ -126,12 +126,19 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
 
     public void add( PartitionTxn partitionTxn, K attrVal, String id ) throws LdapException
     {
+        boolean isNew = ( statistics != null ) && !forward.has( partitionTxn, attrVal, id );
+
         forward.put( partitionTxn, attrVal, id );
 
         if ( withReverse )
         {
             reverse.put( partitionTxn, id, attrVal );
         }
+
+        if ( isNew )
+        {
+            addStatistics( partitionTxn, attrVal );
+        }
     }
 
 
@@ -187,6 +194,12 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
                     while ( cursor.next() )
                     {
                         Tuple<String, K> tuple = cursor.get();
+
+                        if ( ( statistics != null ) && forward.has( partitionTxn, tuple.getValue(), id ) )
+                        {
+                            dropStatistics( partitionTxn, tuple.getValue() );
+                        }
+
                         forward.remove( partitionTxn, tuple.getValue(), id );
                     }
     
@@ -200,6 +213,12 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
             else
             {
                 K key = reverse.get( partitionTxn, id );
+
+                if ( ( statistics != null ) && ( key != null ) && forward.has( partitionTxn, key, id ) )
+                {
+                    dropStatistics( partitionTxn, key );
+                }
+
                 forward.remove( partitionTxn, key );
             }
 
@@ -214,6 +233,11 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
     @Override
     public void drop( PartitionTxn partitionTxn, K attrVal, String id ) throws LdapException
     {
+        if ( ( statistics != null ) && forward.has( partitionTxn, attrVal, id ) )
+        {
+            dropStatistics( partitionTxn, attrVal );
+        }
+
         forward.remove( partitionTxn, attrVal, id );
 
         if ( withReverse )
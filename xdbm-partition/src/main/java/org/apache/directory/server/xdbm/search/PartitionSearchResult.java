@@ -22,6 +22,7 @@ package org.apache.directory.server.xdbm.search;
 
 import java.util.Set;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.SetCursor;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
@@ -32,7 +33,7 @@ import org.apache.directory.server.xdbm.IndexEntry;
 /**
  * A class containing the result of a search :
  * <ul>
- * <li>A set of candidate UUIDs</li>
+ * <li>A set of candidate UUIDs, or a cursor on the candidates when they are returned in a given order</li>
  * <li>A set of aliased entry if we have any</li>
  * <li>A flag telling if we are dereferencing aliases or not</li>
  * <li>A hierarchy of evaluators to use to validate the candidates</li>
@@ -44,6 +45,9 @@ public class PartitionSearchResult
     /** The set of candidate UUIDs selected by the search */
     private SetCursor<IndexEntry<String, String>> resultSet;
 
+    /** The cursor on the candidates, when they are not stored in the resultSet */
+    private Cursor<IndexEntry<String, String>> resultCursor;
+
     /** The set of candidate UUIDs */
     private Set<String> candidateSet;
 
@@ -86,6 +90,29 @@ public class PartitionSearchResult
     }
 
 
+    /**
+     * @return the cursor on the candidates, which is the resultSet unless a result cursor has been set
+     */
+    public Cursor<IndexEntry<String, String>> getResultCursor()
+    {
+        if ( resultCursor != null )
+        {
+            return resultCursor;
+        }
+
+        return resultSet;
+    }
+
+
+    /**
+     * @param resultCursor the cursor on the candidates to set
+     */
+    public void setResultCursor( Cursor<IndexEntry<String, String>> resultCursor )
+    {
+        this.resultCursor = resultCursor;
+    }
+
+
     /**
      * @return the candidateSet
      */
@@ -99,7 +99,8 @@ public class GreaterEqCursor<V> extends AbstractIndexCursor<V>
 
         AttributeType attributeType = greaterEqEvaluator.getExpression().getAttributeType();
 
-        if ( store.hasIndexOn( attributeType ) )
+        // The index ranges can only be used when the index is sorted in the attribute order
+        if ( store.hasIndexOn( attributeType ) && store.getIndex( attributeType ).isOrdered() )
         {
             userIdxCursor = ( ( Index<V, String> ) store.getIndex( attributeType ) ).forwardCursor( partitionTxn );
             uuidIdxCursor = null;
@@ -20,13 +20,10 @@
 package org.apache.directory.server.xdbm.search.evaluator;
 
 
-import net.sf.ehcache.Element;
-
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
-import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
@@ -175,16 +172,9 @@ public class SubtreeScopeEvaluator implements Evaluator<ScopeNode>
          * candidate id is an alias, if so we reject it since aliases should
          * not be returned.
          */
-        if ( db.getAliasCache() != null )
+        if ( ( db.getAliasCache() != null ) && ( db.getAliasCache().get( id ) != null ) )
         {
-            Element element = db.getAliasCache().get( id );
-            
-            if ( ( element != null ) && ( element.getObjectValue() != null ) )
-            {
-                Dn dn = ( Dn ) element.getObjectValue();
-
-                return false;
-            }
+            return false;
         }
         else if ( null != db.getAliasIndex().reverseLookup( partitionTxn, id ) )
         {
@@ -271,8 +271,8 @@ public class CursorBuilder
         Value value = node.getValue();
         int nbResults = 0;
 
-        // Fetch all the UUIDs if we have an index
-        if ( db.hasIndexOn( attributeType ) )
+        // Fetch all the UUIDs if we have an index sorted in the attribute order
+        if ( db.hasIndexOn( attributeType ) && db.getIndex( attributeType ).isOrdered() )
         {
             // Get the cursor using the index
             Index<T, String> userIndex = ( Index<T, String> ) db.getIndex( attributeType );
@@ -323,8 +323,8 @@ public class CursorBuilder
         Value value = node.getValue();
         int nbResults = 0;
 
-        // Fetch all the UUIDs if we have an index
-        if ( db.hasIndexOn( attributeType ) )
+        // Fetch all the UUIDs if we have an index sorted in the attribute order
+        if ( db.hasIndexOn( attributeType ) && db.getIndex( attributeType ).isOrdered() )
         {
             // Get the cursor using the index
             Index<T, String> userIndex = ( Index<T, String> ) db.getIndex( attributeType );
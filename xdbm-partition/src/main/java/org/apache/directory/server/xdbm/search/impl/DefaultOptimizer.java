@@ -45,6 +45,7 @@ import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.filter.SimpleNode;
 import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
@@ -53,10 +54,14 @@ import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
+import org.apache.directory.server.xdbm.stats.IndexStatistics;
+import org.apache.directory.server.xdbm.stats.StoreStatistics;
 
 
 /**
- * Optimizer that annotates the filter using scan counts.
+ * Optimizer that annotates the filter using scan counts. When the Store maintains
+ * statistics on its indexes, the scan counts are estimated from them instead of
+ * being read in the indexes.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -66,6 +71,9 @@ public class DefaultOptimizer implements Optimizer
     
     /* Package protected*/ static final String COUNT_ANNOTATION = "count"; 
 
+    /** The max number of candidates stored in an equality node */
+    private static final int MAX_CANDIDATES = 100;
+
     /** the database this optimizer operates on */
     private final Store db;
     private String contextEntryId;
@@ -331,6 +339,22 @@ public class DefaultOptimizer implements Optimizer
                 normalizedKey = node.getAttributeType().getEquality().getNormalizer().normalize( node.getValue().getValue() );
             }
             
+            IndexStatistics statistics = getIndexStatistics( node.getAttributeType() );
+
+            if ( statistics != null )
+            {
+                long estimate = statistics.estimateEquality( normalizedKey );
+
+                if ( estimate >= MAX_CANDIDATES )
+                {
+                    // Too many candidates to be gathered : don't read the index, the
+                    // estimation is good enough to order the filters
+                    node.set( CANDIDATES_ANNOTATION_KEY, null );
+
+                    return estimate;
+                }
+            }
+
             Cursor<String> result = idx.forwardValueCursor( partitionTxn, ( V ) normalizedKey );
             Set<String> values = new HashSet<>();
             int nbFound = 0;
@@ -341,7 +365,7 @@ public class DefaultOptimizer implements Optimizer
                 nbFound++;
 
                 // Arbitrary stop gathering the candidates if we have more than 100
-                if ( nbFound == 100 )
+                if ( nbFound == MAX_CANDIDATES )
                 {
                     break;
                 }
@@ -349,7 +373,7 @@ public class DefaultOptimizer implements Optimizer
 
             result.close();
 
-            if ( nbFound < 100 )
+            if ( nbFound < MAX_CANDIDATES )
             {
                 // Store the found candidates in the node
                 node.set( CANDIDATES_ANNOTATION_KEY, values );
@@ -382,9 +406,31 @@ public class DefaultOptimizer implements Optimizer
     @SuppressWarnings("unchecked")
     private <V> long getGreaterLessScan( PartitionTxn partitionTxn, SimpleNode<V> node, boolean isGreaterThan ) throws LdapException, IndexNotFoundException
     {
-        if ( db.hasIndexOn( node.getAttributeType() ) )
+        if ( db.hasIndexOn( node.getAttributeType() ) && db.getIndex( node.getAttributeType() ).isOrdered() )
         {
             Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = getIndexStatistics( node.getAttributeType() );
+
+            if ( statistics != null )
+            {
+                Object key = node.getValue().isSchemaAware() ? node.getValue().getNormalized() : node.getValue().getValue();
+                long estimate;
+
+                if ( isGreaterThan )
+                {
+                    estimate = statistics.estimateGreaterOrEqual( key );
+                }
+                else
+                {
+                    estimate = statistics.estimateLessOrEqual( key );
+                }
+
+                // A null count would discard the filter, so we only trust positive estimations
+                if ( estimate > 0L )
+                {
+                    return estimate;
+                }
+            }
 
             if ( isGreaterThan )
             {
@@ -418,6 +464,18 @@ public class DefaultOptimizer implements Optimizer
             Index<String, String> idx = ( Index<String, String> ) db.getIndex( node.getAttributeType() );
 
             String initial = node.getInitial();
+            IndexStatistics statistics = getIndexStatistics( node.getAttributeType() );
+
+            if ( statistics != null )
+            {
+                long estimate = statistics.estimatePrefix( initial );
+
+                // A null count would discard the filter, so we only trust positive estimations
+                if ( estimate > 0L )
+                {
+                    return estimate;
+                }
+            }
 
             if ( Strings.isEmpty( initial ) )
             {
@@ -450,6 +508,13 @@ public class DefaultOptimizer implements Optimizer
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
+            IndexStatistics statistics = getIndexStatistics( node.getAttributeType() );
+
+            if ( statistics != null )
+            {
+                return statistics.getCount();
+            }
+
             Index<?, ?> idx = db.getIndex( node.getAttributeType() );
             return idx.count( partitionTxn );
         }
@@ -472,6 +537,18 @@ public class DefaultOptimizer implements Optimizer
              || node.getAttributeType().getOid().equals( SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID ) )
         {
             Index<String, String> presenceIndex = db.getPresenceIndex();
+            IndexStatistics statistics = getIndexStatistics( presenceIndex.getAttribute() );
+
+            if ( statistics != null )
+            {
+                long estimate = statistics.estimateEquality( node.getAttributeType().getOid() );
+
+                // The estimation is never lower than the real count
+                if ( estimate > 0L )
+                {
+                    return estimate;
+                }
+            }
 
             return presenceIndex.count( partitionTxn, node.getAttributeType().getOid() );
         }
@@ -487,6 +564,25 @@ public class DefaultOptimizer implements Optimizer
     }
 
 
+    /**
+     * Gets the statistics maintained on the index of an attribute, if any
+     *
+     * @param attributeType The indexed attribute
+     * @return The index statistics, or null if the Store does not maintain them
+     */
+    private IndexStatistics getIndexStatistics( AttributeType attributeType )
+    {
+        StoreStatistics statistics = db.getStatistics();
+
+        if ( ( statistics == null ) || ( attributeType == null ) )
+        {
+            return null;
+        }
+
+        return statistics.getIndexStatistics( attributeType.getOid() );
+    }
+
+
     /**
      * Gets the scan count for the scope node attached to this filter.
      *
@@ -23,8 +23,6 @@ package org.apache.directory.server.xdbm.search.impl;
 import java.util.HashSet;
 import java.util.Set;
 
-import net.sf.ehcache.Element;
-
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -37,13 +35,17 @@ import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
@@ -78,6 +80,12 @@ public class DefaultSearchEngine implements SearchEngine
     /** creates evaluators which check to see if candidates satisfy a filter expression */
     private final EvaluatorBuilder evaluatorBuilder;
 
+    /**
+     * The minimal ratio between the number of candidates and the number of indexed entries
+     * for the index of the sort key to be walked rather than sorting the candidates
+     */
+    private static final long MIN_SORTED_SELECTIVITY = 10L;
+
 
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -157,16 +165,18 @@ public class DefaultSearchEngine implements SearchEngine
 
         if ( db.getAliasCache() != null )
         {
-            Element aliasBaseElement = db.getAliasCache().get( baseId );
-
-            if ( aliasBaseElement != null )
-            {
-                aliasedBase = ( Dn ) ( aliasBaseElement ).getObjectValue();
-            }
+            aliasedBase = db.getAliasCache().get( baseId );
         }
-        else
+
+        if ( aliasedBase == null )
         {
+            // The alias cache is bounded, we have to check the index when the base is not cached
             aliasedBase = db.getAliasIndex().reverseLookup( partitionTxn, baseId );
+
+            if ( ( aliasedBase != null ) && ( db.getAliasCache() != null ) )
+            {
+                db.getAliasCache().put( baseId, aliasedBase );
+            }
         }
 
         Dn effectiveBase = baseDn;
@@ -252,8 +262,38 @@ public class DefaultSearchEngine implements SearchEngine
         optimizer.annotate( partitionTxn, root );
         Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( partitionTxn, root );
 
-        Set<String> uuidSet = new HashSet<>();
         searchResult.setAliasDerefMode( aliasDerefMode );
+
+        // Check if we can return the candidates in the requested order, using an index
+        SortedIndexCursor sortedCursor = sortedCursor( partitionTxn, schemaManager, searchContext, root );
+
+        if ( sortedCursor != null )
+        {
+            searchContext.setSorted( true );
+            searchResult.setEvaluator( evaluator );
+            searchResult.setResultCursor( sortedCursor );
+
+            return searchResult;
+        }
+
+        resultSet = computeCandidates( partitionTxn, root, searchResult );
+
+        searchResult.setEvaluator( evaluator );
+        searchResult.setResultSet( resultSet );
+
+        return searchResult;
+    }
+
+
+    /**
+     * Computes the candidates of a search, using the indexes, or the master table if
+     * the filter can't be resolved using the indexes
+     */
+    private Set<IndexEntry<String, String>> computeCandidates( PartitionTxn partitionTxn, ExprNode root,
+        PartitionSearchResult searchResult ) throws LdapException
+    {
+        Set<IndexEntry<String, String>> resultSet = new HashSet<>();
+        Set<String> uuidSet = new HashSet<>();
         searchResult.setCandidateSet( uuidSet );
 
         long nbResults = cursorBuilder.build( partitionTxn, root, searchResult );
@@ -295,10 +335,95 @@ public class DefaultSearchEngine implements SearchEngine
             }
         }
 
-        searchResult.setEvaluator( evaluator );
-        searchResult.setResultSet( resultSet );
+        return resultSet;
+    }
 
-        return searchResult;
+
+    /**
+     * Creates a cursor returning the candidates in the order of the search sort key, when
+     * this key is an indexed attribute, the index being ordered as the sort key requires.
+     * The index is not used when the filter is selective enough for the candidates to be
+     * sorted in memory.
+     *
+     * @return The cursor, or null if the candidates can't be returned in order
+     */
+    private SortedIndexCursor sortedCursor( final PartitionTxn partitionTxn, SchemaManager schemaManager,
+        SearchOperationContext searchContext, final ExprNode root ) throws LdapException
+    {
+        SortKey sortKey = searchContext.getSortKey();
+
+        // The aliases dereferenced while searching could bring entries from anywhere
+        if ( ( sortKey == null ) || searchContext.getAliasDerefMode().isDerefInSearching() )
+        {
+            return null;
+        }
+
+        AttributeType attributeType = schemaManager.getAttributeType( sortKey.getAttributeTypeDesc() );
+
+        if ( ( attributeType == null ) || !db.hasUserIndexOn( attributeType )
+            || !attributeType.getSyntax().isHumanReadable() )
+        {
+            return null;
+        }
+
+        boolean multiValued = !attributeType.isSingleValued();
+
+        if ( multiValued && sortKey.isReverseOrder() )
+        {
+            return null;
+        }
+
+        // The index is ordered using the equality matching rule comparator
+        MatchingRule equality = attributeType.getEquality();
+        MatchingRule ordering;
+
+        if ( sortKey.getMatchingRuleId() != null )
+        {
+            ordering = schemaManager.lookupMatchingRuleRegistry( sortKey.getMatchingRuleId() );
+        }
+        else
+        {
+            ordering = attributeType.getOrdering();
+
+            if ( ordering == null )
+            {
+                ordering = equality;
+            }
+        }
+
+        if ( ( equality == null ) || ( ordering == null ) || ( equality.getLdapComparator() == null )
+            || ( ordering.getLdapComparator() == null )
+            || ( equality.getLdapComparator().getClass() != ordering.getLdapComparator().getClass() ) )
+        {
+            return null;
+        }
+
+        Index<?, String> index = db.getUserIndex( attributeType );
+
+        // Walking the whole index is only worth it if enough entries are candidates
+        Object count = root.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+        if ( ( count instanceof Long ) && ( ( Long ) count < index.count( partitionTxn ) / MIN_SORTED_SELECTIVITY ) )
+        {
+            return null;
+        }
+
+        final PartitionSearchResult candidatesResult = new PartitionSearchResult( schemaManager );
+        candidatesResult.setAliasDerefMode( searchContext.getAliasDerefMode() );
+
+        SortedIndexCursor.CandidateProvider candidateProvider = new SortedIndexCursor.CandidateProvider()
+        {
+            @Override
+            public Set<IndexEntry<String, String>> getCandidates() throws LdapException
+            {
+                return computeCandidates( partitionTxn, root, candidatesResult );
+            }
+        };
+
+        LOG.debug( "Returning the candidates in the order of the {} index", attributeType.getName() );
+
+        return new SortedIndexCursor( partitionTxn, index, db.getPresenceIndex(), attributeType.getOid(),
+            multiValued, sortKey.isReverseOrder(), candidateProvider );
     }
 
 
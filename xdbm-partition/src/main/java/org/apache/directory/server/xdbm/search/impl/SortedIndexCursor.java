@@ -0,0 +1,541 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexEntry;
+
+
+/**
+ * A cursor returning the candidates of a search in the order of the values of an indexed
+ * attribute, by walking the forward index of this attribute. The candidates are not
+ * evaluated against the filter : it's done by the caller, as for any other candidate.
+ * <br>
+ * The entries which don't have the attribute are considered larger than the others : they
+ * are returned after the indexed entries, or before them in reverse order. Those entries
+ * are found in the candidates computed for the filter, which are only computed when needed.
+ * <br>
+ * An entry having many values is returned once, at the position of its least value. This is
+ * why the reverse order is not supported for multi-valued attributes.
+ * <br>
+ * The index and the candidates are only read forward. The IDs already read are kept, so that
+ * the cursor can move backward, and forward again, without reading them another time.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SortedIndexCursor extends AbstractCursor<IndexEntry<String, String>>
+{
+    /** The error message returned when the cursor is not positioned on an element */
+    private static final String UNSUPPORTED_MSG = "SortedIndexCursors can't be positioned on an element";
+
+    /**
+     * Computes the candidates of the search, used to find the entries which don't have the
+     * sorted attribute.
+     */
+    /** no qualifier */ interface CandidateProvider
+    {
+        /**
+         * @return The candidates of the search
+         * @throws LdapException If the candidates can't be computed
+         */
+        Set<IndexEntry<String, String>> getCandidates() throws LdapException;
+    }
+
+    /** The walked index phase */
+    private static final int INDEX_PHASE = 0;
+
+    /** The phase returning the entries without the sorted attribute */
+    private static final int MISSING_PHASE = 1;
+
+    /** The transaction in use */
+    private final PartitionTxn partitionTxn;
+
+    /** The index of the sorted attribute */
+    private final Index<?, String> index;
+
+    /** The presence index, used to check which candidates have the sorted attribute */
+    private final Index<String, String> presenceIndex;
+
+    /** The sorted attribute OID */
+    private final String attributeOid;
+
+    /** Tells if the index is walked backward */
+    private final boolean reverse;
+
+    /** The provider of the candidates */
+    private final CandidateProvider candidateProvider;
+
+    /** The IDs already returned, for a multi-valued attribute, null otherwise */
+    private final Set<String> seen;
+
+    /** The phases, in order */
+    private final int[] phases;
+
+    /** The current phase position */
+    private int phase;
+
+    /** The cursor on the index */
+    private Cursor<? extends IndexEntry<?, String>> indexCursor;
+
+    /** The candidates of the search, computed once */
+    private Set<IndexEntry<String, String>> candidates;
+
+    /** The iterator on the candidates */
+    private Iterator<IndexEntry<String, String>> candidatesIterator;
+
+    /** The IDs read so far, in order */
+    private final List<String> readIds = new ArrayList<>();
+
+    /** Tells if all the IDs have been read */
+    private boolean exhausted;
+
+    /** The current element */
+    private IndexEntry<String, String> current;
+
+    /**
+     * The position of the current element in the read IDs, starting at 1. It's 0 before the
+     * first element, and the number of IDs plus 1 after the last one
+     */
+    private int position;
+
+
+    /**
+     * Creates a new instance of SortedIndexCursor.
+     *
+     * @param partitionTxn The transaction in use
+     * @param index The index of the sorted attribute
+     * @param presenceIndex The presence index
+     * @param attributeOid The sorted attribute OID
+     * @param multiValued Tells if the attribute may have many values
+     * @param reverse Tells if the entries are returned in the reverse order
+     * @param candidateProvider The provider of the search candidates
+     */
+    /** no qualifier */ SortedIndexCursor( PartitionTxn partitionTxn, Index<?, String> index,
+        Index<String, String> presenceIndex, String attributeOid, boolean multiValued, boolean reverse,
+        CandidateProvider candidateProvider )
+    {
+        if ( multiValued && reverse )
+        {
+            throw new IllegalArgumentException( "The reverse order is not supported on a multi-valued attribute" );
+        }
+
+        this.partitionTxn = partitionTxn;
+        this.index = index;
+        this.presenceIndex = presenceIndex;
+        this.attributeOid = attributeOid;
+        this.reverse = reverse;
+        this.candidateProvider = candidateProvider;
+        seen = multiValued ? new HashSet<String>() : null;
+
+        if ( reverse )
+        {
+            phases = new int[]
+                { MISSING_PHASE, INDEX_PHASE };
+        }
+        else
+        {
+            phases = new int[]
+                { INDEX_PHASE, MISSING_PHASE };
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean available()
+    {
+        return current != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void before( IndexEntry<String, String> element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( UNSUPPORTED_MSG );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void after( IndexEntry<String, String> element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( UNSUPPORTED_MSG );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        position = 0;
+        current = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        // Read until the end, to know the number of elements
+        while ( !exhausted )
+        {
+            String id = readNext();
+
+            if ( id == null )
+            {
+                exhausted = true;
+            }
+            else
+            {
+                readIds.add( id );
+            }
+        }
+
+        position = readIds.size() + 1;
+        current = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( position <= 1 )
+        {
+            position = 0;
+            current = null;
+
+            return false;
+        }
+
+        position--;
+        setCurrent( readIds.get( position - 1 ) );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( position < readIds.size() )
+        {
+            // Move forward in the IDs already read
+            position++;
+            setCurrent( readIds.get( position - 1 ) );
+
+            return true;
+        }
+
+        String id = exhausted ? null : readNext();
+
+        if ( id == null )
+        {
+            exhausted = true;
+            position = readIds.size() + 1;
+            current = null;
+
+            return false;
+        }
+
+        readIds.add( id );
+        position++;
+        setCurrent( id );
+
+        return true;
+    }
+
+
+    private void setCurrent( String id )
+    {
+        current = new IndexEntry<>();
+        current.setKey( id );
+        current.setId( id );
+    }
+
+
+    /**
+     * @return The next ID, walking the phases in order, or null when all the phases have
+     * been walked
+     */
+    private String readNext() throws LdapException, CursorException
+    {
+        while ( phase < phases.length )
+        {
+            String id;
+
+            if ( phases[phase] == INDEX_PHASE )
+            {
+                id = nextIndexed();
+            }
+            else
+            {
+                id = nextMissing();
+            }
+
+            if ( id != null )
+            {
+                return id;
+            }
+
+            phase++;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * @return The next ID in the index, or null when the index has been walked
+     */
+    private String nextIndexed() throws LdapException, CursorException
+    {
+        if ( indexCursor == null )
+        {
+            indexCursor = index.forwardCursor( partitionTxn );
+
+            if ( reverse )
+            {
+                indexCursor.afterLast();
+            }
+        }
+
+        while ( reverse ? indexCursor.previous() : indexCursor.next() )
+        {
+            String id = indexCursor.get().getId();
+
+            // An entry is returned at the position of its least value
+            if ( ( seen == null ) || seen.add( id ) )
+            {
+                return id;
+            }
+        }
+
+        closeIndexCursor();
+
+        return null;
+    }
+
+
+    /**
+     * @return The next candidate which doesn't have the attribute, or null when all the
+     * candidates have been read
+     */
+    private String nextMissing() throws LdapException
+    {
+        if ( candidatesIterator == null )
+        {
+            if ( candidates == null )
+            {
+                candidates = candidateProvider.getCandidates();
+            }
+
+            candidatesIterator = candidates.iterator();
+        }
+
+        while ( candidatesIterator.hasNext() )
+        {
+            String id = candidatesIterator.next().getId();
+
+            if ( !presenceIndex.forward( partitionTxn, attributeOid, id ) )
+            {
+                return id;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( current == null )
+        {
+            throw new InvalidCursorPositionException();
+        }
+
+        return current;
+    }
+
+
+    private void closeIndexCursor() throws CursorException
+    {
+        if ( indexCursor != null )
+        {
+            try
+            {
+                indexCursor.close();
+            }
+            catch ( IOException ioe )
+            {
+                throw new CursorException( ioe.getMessage(), ioe );
+            }
+
+            indexCursor = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            closeIndexCursor();
+        }
+        catch ( CursorException ce )
+        {
+            throw new IOException( ce.getMessage(), ce );
+        }
+        finally
+        {
+            candidates = null;
+            candidatesIterator = null;
+            readIds.clear();
+            super.close();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        try
+        {
+            closeIndexCursor();
+        }
+        catch ( CursorException ce )
+        {
+            throw new IOException( ce.getMessage(), ce );
+        }
+        finally
+        {
+            candidates = null;
+            candidatesIterator = null;
+            readIds.clear();
+            super.close( cause );
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "SortedIndexCursor (" );
+        sb.append( attributeOid );
+
+        if ( reverse )
+        {
+            sb.append( ", reverse" );
+        }
+
+        sb.append( ")\n" );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
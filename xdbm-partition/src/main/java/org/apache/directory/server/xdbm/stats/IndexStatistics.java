@@ -0,0 +1,495 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.stats;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+
+/**
+ * The statistics of an index, used by the optimizer to estimate the number of
+ * candidates of a filter without reading the index. They are maintained every time
+ * a key is added to or removed from the index, and contain :
+ * <ul>
+ *   <li>the number of &lt;key, id&gt; tuples in the index</li>
+ *   <li>an estimation of the number of distinct keys</li>
+ *   <li>a Count-Min sketch estimating the number of tuples for a given key</li>
+ *   <li>a histogram of the number of tuples per key prefix, used to estimate the
+ *   number of tuples of a range or a substring</li>
+ * </ul>
+ * The estimations are never lower than the real numbers, except for the number
+ * of distinct keys.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatistics
+{
+    /** The number of rows in the sketch */
+    private static final int DEPTH = 4;
+
+    /** The default number of counters per row in the sketch */
+    public static final int DEFAULT_WIDTH = 2048;
+
+    /** The length of the prefixes used as histogram buckets */
+    private static final int PREFIX_LENGTH = 2;
+
+    /** The max number of buckets in the histogram */
+    private static final int MAX_BUCKETS = 4096;
+
+    /** The seeds used to compute the counter positions */
+    private static final int[] SEEDS = { 0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F };
+
+    /** The indexed attribute OID */
+    private final String attributeOid;
+
+    /** The number of tuples in the index */
+    private long count;
+
+    /** The estimated number of distinct keys */
+    private long distinctCount;
+
+    /** The Count-Min sketch counters */
+    private final int[][] sketch;
+
+    /** The mask used to compute a counter position in a row */
+    private final int widthMask;
+
+    /** The number of tuples per key prefix */
+    private final NavigableMap<String, Long> histogram = new TreeMap<>();
+
+
+    /**
+     * Creates a new IndexStatistics instance
+     *
+     * @param attributeOid The indexed attribute OID
+     */
+    public IndexStatistics( String attributeOid )
+    {
+        this( attributeOid, DEFAULT_WIDTH );
+    }
+
+
+    /**
+     * Creates a new IndexStatistics instance
+     *
+     * @param attributeOid The indexed attribute OID
+     * @param width The number of counters per row in the sketch, rounded to a power of 2
+     */
+    public IndexStatistics( String attributeOid, int width )
+    {
+        this.attributeOid = attributeOid;
+        int length = 1 << ( 32 - Integer.numberOfLeadingZeros( Math.max( 16, width ) - 1 ) );
+        sketch = new int[DEPTH][length];
+        widthMask = length - 1;
+    }
+
+
+    /**
+     * @return The indexed attribute OID
+     */
+    public String getAttributeOid()
+    {
+        return attributeOid;
+    }
+
+
+    /**
+     * Records the addition of a tuple in the index
+     *
+     * @param key The added key
+     */
+    public synchronized void add( Object key )
+    {
+        String value = toString( key );
+        int hash = spread( value.hashCode() );
+        int previous = Integer.MAX_VALUE;
+
+        for ( int i = 0; i < DEPTH; i++ )
+        {
+            int index = indexOf( hash, i );
+            previous = Math.min( previous, sketch[i][index] );
+
+            if ( sketch[i][index] < Integer.MAX_VALUE )
+            {
+                sketch[i][index]++;
+            }
+        }
+
+        if ( previous == 0 )
+        {
+            distinctCount++;
+        }
+
+        count++;
+
+        String prefix = prefix( value );
+        Long bucket = histogram.get( prefix );
+
+        if ( ( bucket == null ) && ( histogram.size() >= MAX_BUCKETS ) )
+        {
+            // Too many buckets, use a shorter prefix
+            prefix = value.isEmpty() ? value : value.substring( 0, 1 );
+            bucket = histogram.get( prefix );
+        }
+
+        histogram.put( prefix, bucket == null ? 1L : bucket + 1L );
+    }
+
+
+    /**
+     * Records the removal of a tuple from the index
+     *
+     * @param key The removed key
+     */
+    public synchronized void drop( Object key )
+    {
+        String value = toString( key );
+        int hash = spread( value.hashCode() );
+        int current = Integer.MAX_VALUE;
+
+        for ( int i = 0; i < DEPTH; i++ )
+        {
+            int index = indexOf( hash, i );
+
+            if ( sketch[i][index] > 0 )
+            {
+                sketch[i][index]--;
+            }
+
+            current = Math.min( current, sketch[i][index] );
+        }
+
+        if ( ( current == 0 ) && ( distinctCount > 0 ) )
+        {
+            distinctCount--;
+        }
+
+        if ( count > 0 )
+        {
+            count--;
+        }
+
+        String prefix = prefix( value );
+
+        if ( !histogram.containsKey( prefix ) )
+        {
+            prefix = value.isEmpty() ? value : value.substring( 0, 1 );
+        }
+
+        Long bucket = histogram.get( prefix );
+
+        if ( bucket != null )
+        {
+            if ( bucket <= 1L )
+            {
+                histogram.remove( prefix );
+            }
+            else
+            {
+                histogram.put( prefix, bucket - 1L );
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the statistics
+     */
+    public synchronized void clear()
+    {
+        count = 0L;
+        distinctCount = 0L;
+        histogram.clear();
+
+        for ( int[] row : sketch )
+        {
+            Arrays.fill( row, 0 );
+        }
+    }
+
+
+    /**
+     * @return The number of tuples in the index
+     */
+    public synchronized long getCount()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return The estimated number of distinct keys in the index
+     */
+    public synchronized long getDistinctCount()
+    {
+        return distinctCount;
+    }
+
+
+    /**
+     * Estimates the number of tuples with a given key
+     *
+     * @param key The key
+     * @return The estimated number of tuples, never lower than the real number
+     */
+    public synchronized long estimateEquality( Object key )
+    {
+        int hash = spread( toString( key ).hashCode() );
+        long estimate = Integer.MAX_VALUE;
+
+        for ( int i = 0; i < DEPTH; i++ )
+        {
+            estimate = Math.min( estimate, sketch[i][indexOf( hash, i )] );
+        }
+
+        return Math.min( estimate, count );
+    }
+
+
+    /**
+     * Estimates the number of tuples with a key greater or equal to a given key. The
+     * keys are compared using their natural String order.
+     *
+     * @param key The key
+     * @return The estimated number of tuples
+     */
+    public synchronized long estimateGreaterOrEqual( Object key )
+    {
+        String prefix = prefix( toString( key ) );
+        long estimate = 0L;
+
+        for ( Long bucket : histogram.tailMap( prefix, true ).values() )
+        {
+            estimate += bucket;
+        }
+
+        return estimate;
+    }
+
+
+    /**
+     * Estimates the number of tuples with a key lower or equal to a given key. The
+     * keys are compared using their natural String order.
+     *
+     * @param key The key
+     * @return The estimated number of tuples
+     */
+    public synchronized long estimateLessOrEqual( Object key )
+    {
+        String value = toString( key );
+        String prefix = prefix( value );
+        long estimate = 0L;
+
+        for ( Map.Entry<String, Long> bucket : histogram.headMap( prefix, true ).entrySet() )
+        {
+            estimate += bucket.getValue();
+        }
+
+        // The keys starting with the prefix and greater than it
+        for ( Map.Entry<String, Long> bucket : histogram.tailMap( prefix, false ).entrySet() )
+        {
+            if ( !bucket.getKey().startsWith( prefix ) )
+            {
+                break;
+            }
+
+            estimate += bucket.getValue();
+        }
+
+        return estimate;
+    }
+
+
+    /**
+     * Estimates the number of tuples with a key starting with a given String
+     *
+     * @param initial The start of the key
+     * @return The estimated number of tuples, never lower than the real number
+     */
+    public synchronized long estimatePrefix( String initial )
+    {
+        if ( ( initial == null ) || initial.isEmpty() )
+        {
+            return count;
+        }
+
+        String prefix = prefix( initial );
+        long estimate = 0L;
+
+        // The shorter prefixes buckets, used when there are too many buckets
+        for ( int i = 1; i < prefix.length(); i++ )
+        {
+            Long bucket = histogram.get( prefix.substring( 0, i ) );
+
+            if ( bucket != null )
+            {
+                estimate += bucket;
+            }
+        }
+
+        for ( Map.Entry<String, Long> bucket : histogram.tailMap( prefix, true ).entrySet() )
+        {
+            if ( !bucket.getKey().startsWith( prefix ) )
+            {
+                break;
+            }
+
+            estimate += bucket.getValue();
+        }
+
+        return estimate;
+    }
+
+
+    /**
+     * Writes the statistics
+     *
+     * @param out The output to write to
+     * @throws IOException If the statistics can't be written
+     */
+    public synchronized void write( DataOutput out ) throws IOException
+    {
+        out.writeUTF( attributeOid );
+        out.writeLong( count );
+        out.writeLong( distinctCount );
+        out.writeInt( widthMask + 1 );
+
+        for ( int[] row : sketch )
+        {
+            for ( int counter : row )
+            {
+                out.writeInt( counter );
+            }
+        }
+
+        out.writeInt( histogram.size() );
+
+        for ( Map.Entry<String, Long> bucket : histogram.entrySet() )
+        {
+            out.writeUTF( bucket.getKey() );
+            out.writeLong( bucket.getValue() );
+        }
+    }
+
+
+    /**
+     * Reads statistics written by {@link #write(DataOutput)}
+     *
+     * @param in The input to read from
+     * @return The read statistics
+     * @throws IOException If the statistics can't be read
+     */
+    public static IndexStatistics read( DataInput in ) throws IOException
+    {
+        String attributeOid = in.readUTF();
+        long count = in.readLong();
+        long distinctCount = in.readLong();
+        int width = in.readInt();
+
+        if ( ( width < 16 ) || ( Integer.bitCount( width ) != 1 ) )
+        {
+            throw new IOException( "Invalid sketch width " + width + " for " + attributeOid );
+        }
+
+        IndexStatistics statistics = new IndexStatistics( attributeOid, width );
+        statistics.count = count;
+        statistics.distinctCount = distinctCount;
+
+        for ( int[] row : statistics.sketch )
+        {
+            for ( int i = 0; i < row.length; i++ )
+            {
+                row[i] = in.readInt();
+            }
+        }
+
+        int nbBuckets = in.readInt();
+
+        for ( int i = 0; i < nbBuckets; i++ )
+        {
+            String prefix = in.readUTF();
+            statistics.histogram.put( prefix, in.readLong() );
+        }
+
+        return statistics;
+    }
+
+
+    private int indexOf( int hash, int i )
+    {
+        int h = ( hash ^ SEEDS[i] ) * SEEDS[i];
+        h ^= h >>> 16;
+
+        return h & widthMask;
+    }
+
+
+    private static int spread( int hash )
+    {
+        int h = hash * 0x9E3779B9;
+
+        return h ^ ( h >>> 15 );
+    }
+
+
+    private static String prefix( String value )
+    {
+        if ( value.length() <= PREFIX_LENGTH )
+        {
+            return value;
+        }
+
+        return value.substring( 0, PREFIX_LENGTH );
+    }
+
+
+    private static String toString( Object key )
+    {
+        if ( key == null )
+        {
+            return "";
+        }
+
+        if ( key instanceof byte[] )
+        {
+            return new String( ( byte[] ) key, StandardCharsets.ISO_8859_1 );
+        }
+
+        return key.toString();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "IndexStatistics[" + attributeOid + ", count=" + count + ", distinct=" + distinctCount
+            + ", buckets=" + histogram.size() + "]";
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.stats;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The statistics of the indexes of a Store, by indexed attribute OID. They can be
+ * saved in a file when the partition is closed, and reloaded when it's opened
+ * again, as long as the number of entries in the partition has not changed in
+ * the meantime.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class StoreStatistics
+{
+    /** The statistics file magic number */
+    private static final int MAGIC = 0x41445353;
+
+    /** The statistics file format version */
+    private static final int VERSION = 1;
+
+    /** The statistics of each index */
+    private final Map<String, IndexStatistics> indexStatistics = new ConcurrentHashMap<>();
+
+
+    /**
+     * Gets the statistics of an index
+     *
+     * @param attributeOid The indexed attribute OID
+     * @return The index statistics, or null if they are not maintained for this attribute
+     */
+    public IndexStatistics getIndexStatistics( String attributeOid )
+    {
+        return indexStatistics.get( attributeOid );
+    }
+
+
+    /**
+     * Creates the statistics of an index, if they don't exist yet
+     *
+     * @param attributeOid The indexed attribute OID
+     * @return The index statistics
+     */
+    public IndexStatistics addIndexStatistics( String attributeOid )
+    {
+        IndexStatistics statistics = indexStatistics.get( attributeOid );
+
+        if ( statistics == null )
+        {
+            statistics = new IndexStatistics( attributeOid );
+            indexStatistics.put( attributeOid, statistics );
+        }
+
+        return statistics;
+    }
+
+
+    /**
+     * @return The statistics of all the indexes
+     */
+    public Collection<IndexStatistics> getAllIndexStatistics()
+    {
+        return Collections.unmodifiableCollection( indexStatistics.values() );
+    }
+
+
+    /**
+     * Removes all the statistics, keeping the list of indexes
+     */
+    public void clear()
+    {
+        for ( IndexStatistics statistics : indexStatistics.values() )
+        {
+            statistics.clear();
+        }
+    }
+
+
+    /**
+     * Saves the statistics in a file
+     *
+     * @param file The file to write
+     * @param entryCount The number of entries in the partition
+     * @throws IOException If the file can't be written
+     */
+    public void save( File file, long entryCount ) throws IOException
+    {
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) ) )
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeLong( entryCount );
+            out.writeInt( indexStatistics.size() );
+
+            for ( IndexStatistics statistics : indexStatistics.values() )
+            {
+                statistics.write( out );
+            }
+        }
+    }
+
+
+    /**
+     * Loads the statistics saved in a file. The statistics are only loaded if the
+     * file has been written with the same number of entries, and contains the
+     * statistics of all the indexes already declared in this instance.
+     *
+     * @param file The file to read
+     * @param entryCount The current number of entries in the partition
+     * @return true if the statistics have been loaded
+     * @throws IOException If the file can't be read
+     */
+    public boolean load( File file, long entryCount ) throws IOException
+    {
+        Map<String, IndexStatistics> loaded = new HashMap<>();
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+        {
+            if ( ( in.readInt() != MAGIC ) || ( in.readInt() != VERSION ) || ( in.readLong() != entryCount ) )
+            {
+                return false;
+            }
+
+            int nbIndexes = in.readInt();
+
+            for ( int i = 0; i < nbIndexes; i++ )
+            {
+                IndexStatistics statistics = IndexStatistics.read( in );
+                loaded.put( statistics.getAttributeOid(), statistics );
+            }
+        }
+
+        if ( !loaded.keySet().containsAll( indexStatistics.keySet() ) )
+        {
+            // An index has been added since the statistics have been saved
+            return false;
+        }
+
+        loaded.keySet().retainAll( indexStatistics.keySet() );
+        indexStatistics.putAll( loaded );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "StoreStatistics" + indexStatistics.values();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.cache;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link TinyLfuPartitionCache} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class TinyLfuPartitionCacheTest
+{
+    /** Each element weights 100 bytes */
+    private static final Weigher<String, String> WEIGHER = new Weigher<String, String>()
+    {
+        @Override
+        public int weigh( String key, String value )
+        {
+            return 100;
+        }
+    };
+
+
+    @Test
+    public void testPutGetRemove()
+    {
+        PartitionCache<String, String> cache = new TinyLfuPartitionCache<>( "test", 10_000L, WEIGHER );
+
+        assertNull( cache.get( "a" ) );
+
+        cache.put( "a", "A" );
+        assertEquals( "A", cache.get( "a" ) );
+        assertEquals( 1L, cache.size() );
+        assertEquals( 100L, cache.weightedSize() );
+
+        cache.replace( "a", "AA" );
+        assertEquals( "AA", cache.get( "a" ) );
+
+        // Replace does not add missing elements
+        cache.replace( "b", "B" );
+        assertNull( cache.get( "b" ) );
+
+        cache.remove( "a" );
+        assertNull( cache.get( "a" ) );
+        assertEquals( 0L, cache.size() );
+        assertEquals( 0L, cache.weightedSize() );
+
+        PartitionCacheStats stats = cache.getStats();
+        assertEquals( 2L, stats.getHitCount() );
+        assertEquals( 3L, stats.getMissCount() );
+    }
+
+
+    @Test
+    public void testWeightBound()
+    {
+        PartitionCache<String, String> cache = new TinyLfuPartitionCache<>( "test", 10_000L, WEIGHER );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            cache.put( "key" + i, "value" + i );
+        }
+
+        assertTrue( cache.weightedSize() <= 10_000L );
+        assertEquals( 100L, cache.size() );
+        assertEquals( 900L, cache.getStats().getEvictionCount() );
+    }
+
+
+    @Test
+    public void testTooHeavyElementIsNotCached()
+    {
+        PartitionCache<String, String> cache = new TinyLfuPartitionCache<>( "test", 1_000L,
+            new Weigher<String, String>()
+            {
+                @Override
+                public int weigh( String key, String value )
+                {
+                    return value.length();
+                }
+            } );
+
+        StringBuilder sb = new StringBuilder();
+
+        for ( int i = 0; i < 2000; i++ )
+        {
+            sb.append( 'x' );
+        }
+
+        cache.put( "big", sb.toString() );
+        assertNull( cache.get( "big" ) );
+        assertEquals( 0L, cache.weightedSize() );
+    }
+
+
+    @Test
+    public void testFrequentElementsSurviveScan()
+    {
+        PartitionCache<String, String> cache = new TinyLfuPartitionCache<>( "test", 10_000L, WEIGHER );
+
+        // Some hot elements, frequently accessed
+        for ( int i = 0; i < 20; i++ )
+        {
+            cache.put( "hot" + i, "hot" );
+        }
+
+        for ( int round = 0; round < 10; round++ )
+        {
+            for ( int i = 0; i < 20; i++ )
+            {
+                cache.get( "hot" + i );
+            }
+        }
+
+        // A scan on many elements accessed only once, while the hot elements are still used
+        for ( int i = 0; i < 10_000; i++ )
+        {
+            cache.put( "cold" + i, "cold" );
+
+            if ( i % 100 == 0 )
+            {
+                for ( int j = 0; j < 20; j++ )
+                {
+                    cache.get( "hot" + j );
+                }
+            }
+        }
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            assertNotNull( cache.get( "hot" + i ) );
+        }
+    }
+
+
+    @Test
+    public void testClear()
+    {
+        PartitionCache<String, String> cache = new TinyLfuPartitionCache<>( "test", 10_000_000L, WEIGHER );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            cache.put( "key" + i, "value" + i );
+        }
+
+        assertEquals( 1000L, cache.size() );
+
+        cache.clear();
+
+        assertEquals( 0L, cache.size() );
+        assertEquals( 0L, cache.weightedSize() );
+        assertNull( cache.get( "key1" ) );
+    }
+
+
+    @Test
+    public void testConcurrentAccess() throws Exception
+    {
+        final PartitionCache<String, String> cache = new TinyLfuPartitionCache<>( "test", 1_000_000L, WEIGHER );
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        List<Future<?>> futures = new ArrayList<>();
+
+        for ( int t = 0; t < 8; t++ )
+        {
+            final int thread = t;
+
+            futures.add( executor.submit( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int i = 0; i < 10_000; i++ )
+                    {
+                        String key = "key" + ( ( i * 31 + thread ) % 20_000 );
+                        cache.put( key, key );
+                        cache.get( key );
+
+                        if ( i % 7 == 0 )
+                        {
+                            cache.remove( key );
+                        }
+                    }
+                }
+            } ) );
+        }
+
+        for ( Future<?> future : futures )
+        {
+            future.get();
+        }
+
+        executor.shutdown();
+        executor.awaitTermination( 10, TimeUnit.SECONDS );
+
+        assertTrue( cache.weightedSize() <= 1_000_000L );
+        assertEquals( cache.size() * 100L, cache.weightedSize() );
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the SortedIndexCursor, which returns the candidates in the order of an index.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SortedIndexCursorTest
+{
+    File wkdir;
+    Store store;
+    static SchemaManager schemaManager = null;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = SortedIndexCursorTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache" ) );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        // initialize the store
+        store = new AvlPartition( schemaManager, dnFactory );
+        ( ( Partition ) store ).setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID, false ) );
+        store.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID, false ) );
+        ( ( Partition ) store ).setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        ( ( Partition ) store ).setCacheService( cacheService );
+        ( ( Partition ) store ).initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy( null );
+        }
+
+        store = null;
+
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    /**
+     * Creates a cursor on the cn index, with all the entries as candidates
+     */
+    private SortedIndexCursor createCursor( PartitionTxn txn, boolean reverse ) throws Exception
+    {
+        final Set<IndexEntry<String, String>> candidates = new LinkedHashSet<IndexEntry<String, String>>();
+
+        for ( int i = 1; i <= 11; i++ )
+        {
+            IndexEntry<String, String> indexEntry = new IndexEntry<String, String>();
+            indexEntry.setId( Strings.getUUID( i ) );
+            candidates.add( indexEntry );
+        }
+
+        SortedIndexCursor.CandidateProvider provider = new SortedIndexCursor.CandidateProvider()
+        {
+            @Override
+            public Set<IndexEntry<String, String>> getCandidates() throws LdapException
+            {
+                return candidates;
+            }
+        };
+
+        AttributeType cn = schemaManager.getAttributeType( SchemaConstants.CN_AT_OID );
+
+        return new SortedIndexCursor( txn, store.getUserIndex( cn ), store.getPresenceIndex(), cn.getOid(),
+            true, reverse, provider );
+    }
+
+
+    private static List<String> uuids( int... ids )
+    {
+        List<String> uuids = new ArrayList<String>();
+
+        for ( int id : ids )
+        {
+            uuids.add( Strings.getUUID( id ) );
+        }
+
+        return uuids;
+    }
+
+
+    @Test
+    public void testIndexOrder() throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        SortedIndexCursor cursor = createCursor( txn, false );
+
+        List<String> ids = new ArrayList<String>();
+        cursor.beforeFirst();
+
+        while ( cursor.next() )
+        {
+            ids.add( cursor.get().getId() );
+        }
+
+        // jack daniels, jim bean, johnny walker, then the entries without a cn
+        assertEquals( uuids( 8, 6, 9, 10, 5, 11, 1, 2, 3, 4, 7 ), ids );
+        assertFalse( cursor.available() );
+
+        cursor.close();
+    }
+
+
+    @Test
+    public void testPrevious() throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        SortedIndexCursor cursor = createCursor( txn, false );
+
+        cursor.beforeFirst();
+        assertTrue( cursor.next() );
+        assertEquals( Strings.getUUID( 8 ), cursor.get().getId() );
+
+        // Moving back from the first element positions the cursor before it
+        assertFalse( cursor.previous() );
+        assertFalse( cursor.available() );
+        assertTrue( cursor.next() );
+        assertEquals( Strings.getUUID( 8 ), cursor.get().getId() );
+        assertTrue( cursor.next() );
+        assertTrue( cursor.next() );
+        assertEquals( Strings.getUUID( 9 ), cursor.get().getId() );
+        assertTrue( cursor.previous() );
+        assertEquals( Strings.getUUID( 6 ), cursor.get().getId() );
+
+        assertTrue( cursor.last() );
+        assertEquals( Strings.getUUID( 7 ), cursor.get().getId() );
+        assertTrue( cursor.first() );
+        assertEquals( Strings.getUUID( 8 ), cursor.get().getId() );
+
+        cursor.close();
+    }
+
+
+    @Test
+    public void testWalkBackward() throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        SortedIndexCursor cursor = createCursor( txn, false );
+
+        List<String> ids = new ArrayList<String>();
+        cursor.afterLast();
+
+        while ( cursor.previous() )
+        {
+            ids.add( 0, cursor.get().getId() );
+        }
+
+        assertEquals( uuids( 8, 6, 9, 10, 5, 11, 1, 2, 3, 4, 7 ), ids );
+
+        // Probing the next element and moving back, as done by the filtering cursors
+        cursor.beforeFirst();
+        ids.clear();
+
+        while ( cursor.next() )
+        {
+            String id = cursor.get().getId();
+            cursor.next();
+            assertTrue( cursor.previous() );
+            assertEquals( id, cursor.get().getId() );
+            ids.add( id );
+        }
+
+        assertEquals( uuids( 8, 6, 9, 10, 5, 11, 1, 2, 3, 4, 7 ), ids );
+
+        cursor.close();
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReverseMultiValued() throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        createCursor( txn, true );
+    }
+}
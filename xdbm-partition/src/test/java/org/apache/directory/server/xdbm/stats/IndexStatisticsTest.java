@@ -0,0 +1,134 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.stats;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link IndexStatistics} and {@link StoreStatistics} classes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatisticsTest
+{
+    @Test
+    public void testEquality()
+    {
+        IndexStatistics statistics = new IndexStatistics( "2.5.4.3" );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            statistics.add( "user" + i );
+        }
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            statistics.add( "common" );
+        }
+
+        assertEquals( 1050L, statistics.getCount() );
+        assertTrue( statistics.estimateEquality( "common" ) >= 50L );
+        assertTrue( statistics.estimateEquality( "user10" ) >= 1L );
+        assertTrue( statistics.getDistinctCount() <= 1001L );
+
+        for ( int i = 0; i < 50; i++ )
+        {
+            statistics.drop( "common" );
+        }
+
+        assertEquals( 1000L, statistics.getCount() );
+        assertTrue( statistics.estimateEquality( "common" ) < 50L );
+    }
+
+
+    @Test
+    public void testRangeAndPrefix()
+    {
+        IndexStatistics statistics = new IndexStatistics( "2.5.4.3" );
+
+        for ( char c = 'a'; c <= 'z'; c++ )
+        {
+            for ( int i = 0; i < 10; i++ )
+            {
+                statistics.add( c + "name" + i );
+            }
+        }
+
+        assertEquals( 10L, statistics.estimatePrefix( "bn" ) );
+        assertEquals( 10L, statistics.estimatePrefix( "bname" ) );
+        assertEquals( 10L, statistics.estimatePrefix( "b" ) );
+        assertEquals( 0L, statistics.estimatePrefix( "0" ) );
+        assertEquals( 260L, statistics.estimatePrefix( "" ) );
+
+        assertEquals( 250L, statistics.estimateGreaterOrEqual( "bname5" ) );
+        assertEquals( 20L, statistics.estimateLessOrEqual( "bname5" ) );
+        assertEquals( 260L, statistics.estimateGreaterOrEqual( "0" ) );
+        assertEquals( 0L, statistics.estimateLessOrEqual( "0" ) );
+    }
+
+
+    @Test
+    public void testSaveAndLoad() throws Exception
+    {
+        StoreStatistics storeStatistics = new StoreStatistics();
+        IndexStatistics statistics = storeStatistics.addIndexStatistics( "2.5.4.3" );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            statistics.add( "value" + ( i % 10 ) );
+        }
+
+        File file = File.createTempFile( getClass().getSimpleName(), "db" );
+        file.deleteOnExit();
+        storeStatistics.save( file, 100L );
+
+        StoreStatistics loaded = new StoreStatistics();
+        loaded.addIndexStatistics( "2.5.4.3" );
+
+        // The number of entries has changed since the statistics have been saved
+        assertFalse( loaded.load( file, 101L ) );
+        assertEquals( 0L, loaded.getIndexStatistics( "2.5.4.3" ).getCount() );
+
+        assertTrue( loaded.load( file, 100L ) );
+        IndexStatistics loadedStatistics = loaded.getIndexStatistics( "2.5.4.3" );
+
+        assertNotSame( statistics, loadedStatistics );
+        assertEquals( 100L, loadedStatistics.getCount() );
+        assertEquals( statistics.getDistinctCount(), loadedStatistics.getDistinctCount() );
+        assertEquals( statistics.estimateEquality( "value3" ), loadedStatistics.estimateEquality( "value3" ) );
+        assertEquals( 100L, loadedStatistics.estimatePrefix( "val" ) );
+
+        // An index has been added since the statistics have been saved
+        StoreStatistics moreIndexes = new StoreStatistics();
+        moreIndexes.addIndexStatistics( "2.5.4.3" );
+        moreIndexes.addIndexStatistics( "2.5.4.4" );
+
+        assertFalse( moreIndexes.load( file, 100L ) );
+    }
+}